@@ -20,10 +20,11 @@
 package org.apache.directory.mavibot.btree;
 
 
+import java.util.List;
 import java.util.UUID;
 
 import org.apache.directory.api.ldap.model.name.Dn;
-import org.apache.directory.api.ldap.model.schema.comparators.DnComparator;
+import org.apache.directory.api.ldap.model.name.Rdn;
 import org.apache.directory.server.core.api.partition.Partition;
 
 
@@ -48,12 +49,13 @@ public class DnTuple implements Comparable<DnTuple>
 
     private DnTuple parent;
 
+    /** The parent ID, kept once the parent has been released */
+    private String parentId;
+
     private int nbChildren = 0;
 
     private int nbDecendents = 0;
 
-    private static final DnComparator COMPARATOR = new DnComparator( null );
-
 
     public DnTuple( Dn dn, long offset, int len )
     {
@@ -65,6 +67,21 @@ public class DnTuple implements Comparable<DnTuple>
     }
 
 
+    /**
+     * Creates a DnTuple read back from a sorted run
+     */
+    public DnTuple( Dn dn, long offset, int len, String id, String parentId, int nbChildren, int nbDecendents )
+    {
+        this.dn = dn;
+        this.offset = offset;
+        this.len = len;
+        this.id = id;
+        this.parentId = parentId;
+        this.nbChildren = nbChildren;
+        this.nbDecendents = nbDecendents;
+    }
+
+
     public Dn getDn()
     {
         return dn;
@@ -85,12 +102,12 @@ public class DnTuple implements Comparable<DnTuple>
 
     public String getParentId()
     {
-        if ( parent == null )
+        if ( parentId == null )
         {
             return Partition.ROOT_ID;
         }
 
-        return parent.getId();
+        return parentId;
     }
 
 
@@ -103,6 +120,17 @@ public class DnTuple implements Comparable<DnTuple>
     public void setParent( DnTuple parent )
     {
         this.parent = parent;
+        parentId = ( parent == null ) ? null : parent.getId();
+    }
+
+
+    /**
+     * Releases the parent, once all the descendants of this DnTuple have been counted.
+     * The parent ID is kept.
+     */
+    public void releaseParent()
+    {
+        parent = null;
     }
 
 
@@ -112,10 +140,32 @@ public class DnTuple implements Comparable<DnTuple>
     }
 
 
+    /**
+     * Compares the DNs RDN by RDN, starting from the root : an entry comes before its
+     * descendants, which all come before its next sibling.
+     */
     @Override
     public int compareTo( DnTuple otherTuple )
     {
-        return COMPARATOR.compare( otherTuple.dn, dn );
+        List<Rdn> rdns = dn.getRdns();
+        List<Rdn> otherRdns = otherTuple.dn.getRdns();
+        int i = rdns.size() - 1;
+        int j = otherRdns.size() - 1;
+
+        while ( ( i >= 0 ) && ( j >= 0 ) )
+        {
+            int val = rdns.get( i ).getNormName().compareTo( otherRdns.get( j ).getNormName() );
+
+            if ( val != 0 )
+            {
+                return val;
+            }
+
+            i--;
+            j--;
+        }
+
+        return ( i + 1 ) - ( j + 1 );
     }
 
 
@@ -25,24 +25,30 @@ import static org.apache.directory.mavibot.btree.BTreeFactory.createNode;
 import static org.apache.directory.mavibot.btree.BTreeFactory.setKey;
 import static org.apache.directory.mavibot.btree.BTreeFactory.setValue;
 
+import java.io.DataInput;
+import java.io.DataOutput;
 import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.RandomAccessFile;
 import java.lang.reflect.Array;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collections;
 import java.util.Comparator;
-import java.util.HashMap;
+import java.util.Deque;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
-import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Set;
-import java.util.TreeMap;
 import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.apache.directory.api.ldap.model.constants.SchemaConstants;
 import org.apache.directory.api.ldap.model.csn.CsnFactory;
@@ -85,6 +91,7 @@ import org.apache.directory.server.core.partition.impl.btree.mavibot.MavibotPart
 import org.apache.directory.server.core.partition.impl.btree.mavibot.MavibotRdnIndex;
 import org.apache.directory.server.core.partition.ldif.SingleFileLdifPartition;
 import org.apache.directory.server.core.shared.DefaultDnFactory;
+import org.apache.directory.server.xdbm.ExternalSorter;
 import org.apache.directory.server.xdbm.Index;
 import org.apache.directory.server.xdbm.ParentIdAndRdn;
 import org.apache.directory.server.xdbm.Store;
@@ -111,7 +118,7 @@ public class MavibotPartitionBuilder
     //private MavibotPartition partition;
 
     private SchemaManager schemaManager;
-    
+
     /** The CacheService used internally by the partition */
     private CacheService cacheService;
 
@@ -121,19 +128,166 @@ public class MavibotPartitionBuilder
 
     /** The LDIF file to extract */
     private String ldifFile;
-    
+
     /** The file containing teh configuration */
     private String configFile;
 
     private String masterTableName = "master";
-    
+
     private List<String> indexAttributes = new ArrayList<String>();
-    
+
     private int totalEntries = 0;
-    
-    /** The DN factory, used to check DN */ 
+
+    /** The DN factory, used to check DN */
     private DnFactory dnFactory;
 
+    /** The maximum number of tuples held in memory by each sorter */
+    private int sortBufferSize = DEFAULT_SORT_BUFFER_SIZE;
+
+    /** The number of threads extracting the index tuples */
+    private int nbThreads = Runtime.getRuntime().availableProcessors();
+
+    /** The directory where the sorted runs are written */
+    private File sortDir;
+
+    /** The DnTuples sorted by ID */
+    private ExternalSorter<DnTuple> idSorter;
+
+    /** The DnTuples sorted by parent ID and RDN */
+    private ExternalSorter<DnTuple> rdnSorter;
+
+    /** The serializer of the sorted DnTuples */
+    private final ExternalSorter.ElementSerializer<DnTuple> dnTupleSerializer = new ExternalSorter.ElementSerializer<DnTuple>()
+    {
+        @Override
+        public void write( DataOutput out, DnTuple dt ) throws IOException
+        {
+            ExternalSorter.writeString( out, dt.getDn().getName() );
+            out.writeLong( dt.getOffset() );
+            out.writeInt( dt.getLen() );
+            ExternalSorter.writeString( out, dt.getId() );
+            ExternalSorter.writeString( out, dt.getParentId() );
+            out.writeInt( dt.getNbChildren() );
+            out.writeInt( dt.getNbDecendents() );
+        }
+
+
+        @Override
+        public DnTuple read( DataInput in ) throws IOException
+        {
+            String name = ExternalSorter.readString( in );
+            Dn dn;
+
+            try
+            {
+                dn = new Dn( schemaManager, name );
+            }
+            catch ( LdapInvalidDnException e )
+            {
+                throw new IOException( e );
+            }
+
+            long offset = in.readLong();
+            int len = in.readInt();
+            String id = ExternalSorter.readString( in );
+            String parentId = ExternalSorter.readString( in );
+            int nbChildren = in.readInt();
+            int nbDecendents = in.readInt();
+
+            return new DnTuple( dn, offset, len, id, parentId, nbChildren, nbDecendents );
+        }
+    };
+
+    /** The default number of tuples held in memory by each sorter */
+    public static final int DEFAULT_SORT_BUFFER_SIZE = 100000;
+
+    /** The number of entries given at once to the index sorters */
+    private static final int INDEX_BATCH_SIZE = 1000;
+
+    /** The number of entries between two progress reports */
+    private static final long PROGRESS_INTERVAL = 100000L;
+
+    /** Sorts the DnTuples so that an entry comes before its descendants */
+    private static final Comparator<DnTuple> DN_COMPARATOR = new Comparator<DnTuple>()
+    {
+        @Override
+        public int compare( DnTuple dt0, DnTuple dt1 )
+        {
+            return dt0.compareTo( dt1 );
+        }
+    };
+
+    /** Sorts the DnTuples on their ID */
+    private static final Comparator<DnTuple> ID_COMPARATOR = new Comparator<DnTuple>()
+    {
+        @Override
+        public int compare( DnTuple dt0, DnTuple dt1 )
+        {
+            return dt0.getId().compareTo( dt1.getId() );
+        }
+    };
+
+    /** Sorts the DnTuples on their parent ID and their RDNs */
+    private static final Comparator<DnTuple> PARENT_ID_RDN_COMPARATOR = new Comparator<DnTuple>()
+    {
+        @Override
+        public int compare( DnTuple dt0, DnTuple dt1 )
+        {
+            int val = dt0.getParentId().compareTo( dt1.getParentId() );
+            if ( val != 0 )
+            {
+                return val;
+            }
+
+            Rdn[] dt0Rdns = dt0.getDn().getRdns().toArray( new Rdn[0] );
+
+            Rdn[] dt1Rdns = dt1.getDn().getRdns().toArray( new Rdn[0] );
+
+            if ( dt0Rdns.length == 1 )
+            {
+                // Special case : we only have one rdn.
+                val = dt0Rdns[0].getNormName().compareTo( dt1Rdns[0].getNormName() );
+
+                return val;
+            }
+            else
+            {
+                for ( int i = 0; i < dt0Rdns.length; i++ )
+                {
+                    val = dt0Rdns[i].getNormName().compareTo( dt1Rdns[i].getNormName() );
+
+                    if ( val != 0 )
+                    {
+                        return val;
+                    }
+                }
+
+                return 0;
+            }
+        }
+    };
+
+    /** The serializer of the sorted index tuples */
+    private static final ExternalSorter.ElementSerializer<Tuple> TUPLE_SERIALIZER = new ExternalSorter.ElementSerializer<Tuple>()
+    {
+        @Override
+        public void write( DataOutput out, Tuple tuple ) throws IOException
+        {
+            ExternalSorter.writeValue( out, tuple.getKey() );
+            ExternalSorter.writeValue( out, tuple.getValue() );
+        }
+
+
+        @Override
+        public Tuple read( DataInput in ) throws IOException
+        {
+            Object key = ExternalSorter.readValue( in );
+            Object value = ExternalSorter.readValue( in );
+
+            return new Tuple( key, value );
+        }
+    };
+
     private static final Logger LOG = LoggerFactory.getLogger( MavibotPartitionBuilder.class );
 
 
@@ -151,7 +305,7 @@ public class MavibotPartitionBuilder
 
 
     /**
-     * 
+     *
      * Creates a new instance of MavibotPartitionBuilder.
      *
      * @param configFile The file containing the configuration partition
@@ -169,7 +323,31 @@ public class MavibotPartitionBuilder
         this.csnFactory = new CsnFactory( rid );
     }
 
-    
+
+    /**
+     * Sets the maximum number of tuples each sorter holds in memory before writing
+     * them in a sorted run. The larger, the less runs are merged, and the more memory
+     * is used.
+     *
+     * @param sortBufferSize The number of tuples held in memory by each sorter
+     */
+    public void setSortBufferSize( int sortBufferSize )
+    {
+        this.sortBufferSize = sortBufferSize;
+    }
+
+
+    /**
+     * Sets the number of threads extracting and sorting the index tuples.
+     *
+     * @param nbThreads The number of threads
+     */
+    public void setNbThreads( int nbThreads )
+    {
+        this.nbThreads = nbThreads;
+    }
+
+
     /**
      * Load the configuration. This is a needed step, as we have to know which indexes
      * have to be created
@@ -195,24 +373,24 @@ public class MavibotPartitionBuilder
         ConfigPartitionReader cpReader = new ConfigPartitionReader( configPartition );
 
         ConfigBean configBean = cpReader.readConfig( "ou=config" );
-        
+
         return configBean;
     }
-    
+
 
     private BTree build( Iterator<Tuple> sortedTupleItr, String name ) throws Exception
     {
         PersistedBTree btree = ( PersistedBTree ) rm.getManagedTree( name );
-        
+
         long newRevision = btree.getRevision() + 1;
         btree.setRevision( newRevision );
-        
+
         List<Page> lstLeaves = new ArrayList<Page>();
         List<Page> lstNodes = new ArrayList<Page>();
 
         int totalLeaves = 1;
         int totalTuples = 0;
-        
+
         Page leaf1 = BTreeFactory.createLeaf( btree, newRevision, numKeysInNode );
         lstLeaves.add( leaf1 );
 
@@ -226,7 +404,7 @@ public class MavibotPartitionBuilder
 
             Object val = tuple.getValue();
             ValueHolder eh = null;
-            
+
             if( btree.allowDuplicates )
             {
                 Set s = ( Set ) val;
@@ -243,11 +421,11 @@ public class MavibotPartitionBuilder
 
             leafIndex++;
             totalTuples++;
-            
+
             if ( leafIndex == numKeysInNode )
             {
                 leafIndex = 0;
-                
+
                 PageHolder pageHolder = ( PageHolder ) rm.writePage( btree, leaf1, newRevision );
 
                 if( ( totalLeaves % ( numKeysInNode + 1 ) ) == 0 )
@@ -263,7 +441,7 @@ public class MavibotPartitionBuilder
                 }
 
                 ( ( PersistedLeaf ) leaf1 )._clearValues_();
-                
+
                 leaf1 = createLeaf( btree, newRevision, numKeysInNode );
                 totalLeaves++;
                 lstLeaves.add( leaf1 );
@@ -280,33 +458,33 @@ public class MavibotPartitionBuilder
                 lstLeaves.clear();
             }
         }
-        
+
         if ( lstNodes.isEmpty() )
         {
             return btree;
         }
-        
+
         // make sure either one of the root pages is reclaimed, cause when we call rm.manage()
         // there is already a root page created
         Page rootPage = attachNodes( lstNodes, btree );
         lstNodes.clear();
-        
+
         Page oldRoot = btree.getRootPage();
-        
+
         //System.out.println("built rootpage : " + rootPage);
         btree.setNbElems( totalTuples );
 
         long newRootPageOffset = ( ( AbstractPage ) rootPage ).getOffset();
         System.out.println( "replacing old offset " + btree.getRootPageOffset() + " of the BTree " + name + " with " + newRootPageOffset );
-        
+
         BTreeHeader header = btree.getBtreeHeader();
-        
+
         header.setRootPage( rootPage );
         header.setRevision( btree.getRevision() );
         header.setNbElems( btree.getNbElems() );
-        
+
         long newBtreeHeaderOffset = rm.writeBtreeHeader( btree, header );
-        
+
         // We have a new B-tree header to inject into the B-tree of btrees
         rm.addInBtreeOfBtrees( name, btree.getRevision(), newBtreeHeaderOffset );
 
@@ -318,24 +496,24 @@ public class MavibotPartitionBuilder
         return btree;
     }
 
-    
+
     private void cleanLastLeaf( List<Page> lstLeaves, BTree btree, long newRevision ) throws IOException
     {
         if( lstLeaves.isEmpty() )
         {
             return;
         }
-        
+
         // remove null keys and values from the last leaf and resize
         PersistedLeaf lastLeaf = ( PersistedLeaf ) lstLeaves.get( lstLeaves.size() - 1 );
-        
+
         if ( lastLeaf.keys[0] == null )
         {
             lstLeaves.remove( lastLeaf );
             //System.out.println( "removed last leaf" );
             return;
         }
-        
+
         for ( int i = 0; i < lastLeaf.nbElems; i++ )
         {
             if ( lastLeaf.keys[i] == null )
@@ -397,7 +575,7 @@ public class MavibotPartitionBuilder
                 }
 
                 i = 0;
-                
+
                 node = ( PersistedNode ) createNode( btree, btree.getRevision(), numKeysInNode );
                 lstNodes.add( node );
             }
@@ -471,7 +649,15 @@ public class MavibotPartitionBuilder
     }
 
 
-    private Set<DnTuple> getDnTuples() throws Exception
+    /**
+     * Reads the DNs of the LDIF file, sorts them using an external sort, and computes the
+     * parent, the number of children and the number of descendants of each entry. The
+     * DnTuples are then sorted by ID, for the master table and the reverse RDN index, and
+     * by parent ID and RDN, for the forward RDN index.
+     *
+     * @return The number of entries
+     */
+    private long sortDnTuples() throws Exception
     {
         File file = new File( ldifFile );
 
@@ -479,126 +665,126 @@ public class MavibotPartitionBuilder
 
         FastLdifReader reader = new FastLdifReader( file, dnFactory );
 
-        Set<DnTuple> sortedDnSet = new TreeSet<DnTuple>();
+        ExternalSorter<DnTuple> dnSorter = new ExternalSorter<DnTuple>( "dn", DN_COMPARATOR, dnTupleSerializer,
+            sortBufferSize, sortDir );
 
-        while ( reader.hasNext() )
+        try
         {
-            // FastLdifReader will always return NULL LdifEntry
-            // call getDnTuple() after next() to get a DnTuple
-            reader.next();
-            
-            DnTuple dt = reader.getDnTuple();
-            
-            dt.getDn().apply( schemaManager );
-            sortedDnSet.add( dt );
+            long t0 = System.currentTimeMillis();
+            long nbRead = 0;
 
-            if ( dt.getDn().toString().equals( "uid=user.29998,ou=People,dc=example,dc=com" ) )
+            while ( reader.hasNext() )
             {
-                System.out.println( dt );
+                // FastLdifReader will always return NULL LdifEntry
+                // call getDnTuple() after next() to get a DnTuple
+                reader.next();
+
+                DnTuple dt = reader.getDnTuple();
+
+                dt.getDn().apply( schemaManager );
+                dnSorter.add( dt );
+                nbRead++;
+                reportProgress( "Reading the DNs", nbRead, t0 );
             }
-        }
 
-        reader.close();
+            reader.close();
 
-        if ( sortedDnSet.isEmpty() )
-        {
-            return Collections.EMPTY_SET;
-        }
+            if ( nbRead == 0 )
+            {
+                return 0;
+            }
 
-        Iterator<DnTuple> itr = sortedDnSet.iterator();
-        /*
-        FileWriter fw = new FileWriter( "/tmp/dntuples.txt" );
-        while( itr.hasNext() )
-        {
-            fw.write( itr.next().getDn().getName() + "\n" );
-        }
-        
-        fw.close();
-        itr = sortedDnSet.iterator();
-        */
-        DnTuple root = itr.next();
-        root.setParent( null );
-
-        suffixDn = root.getDn();
-        
-        System.out.println( "Using " + suffixDn.getName() + " as the partition's root DN" );
-        
-        Map<String, DnTuple> parentDnIdMap = new HashMap<String, DnTuple>();
-        parentDnIdMap.put( root.getDn().getNormName(), root );
-
-        DnTuple prevTuple = root;
-        
-        while ( itr.hasNext() )
-        {
-            DnTuple dt = itr.next();
-
-            String parentDn = dt.getDn().getParent().getNormName();
-            DnTuple parent = parentDnIdMap.get( parentDn );
-
-            if ( parent == null )
+            System.out.println( "Read " + nbRead + " DNs, " + dnSorter.getNbRuns() + " sorted runs written" );
+
+            idSorter = new ExternalSorter<DnTuple>( "id", ID_COMPARATOR, dnTupleSerializer, sortBufferSize, sortDir );
+            rdnSorter = new ExternalSorter<DnTuple>( "rdn", PARENT_ID_RDN_COMPARATOR, dnTupleSerializer,
+                sortBufferSize, sortDir );
+
+            // The DNs are sorted so that an entry comes before its descendants, which all
+            // come before its next sibling : only the ancestors of the current entry are
+            // kept, an entry being done once all its descendants have been read
+            Iterator<DnTuple> itr = dnSorter.iterator();
+            Deque<DnTuple> ancestors = new ArrayDeque<DnTuple>();
+
+            DnTuple root = itr.next();
+            root.setParent( null );
+
+            suffixDn = root.getDn();
+
+            System.out.println( "Using " + suffixDn.getName() + " as the partition's root DN" );
+
+            ancestors.push( root );
+            long nbEntries = 1;
+
+            while ( itr.hasNext() )
             {
-                if ( parentDn.equals( prevTuple.getDn().getNormName() ) )
+                DnTuple dt = itr.next();
+
+                if ( dt.getDn().equals( ancestors.peek().getDn() ) )
                 {
-                    parentDnIdMap.put( prevTuple.getDn().getNormName(), prevTuple );
-                    parent = prevTuple;
+                    LOG.warn( "Ignoring the duplicate entry {}", dt.getDn().getName() );
+                    continue;
                 }
-                else
+
+                while ( !ancestors.isEmpty() && !dt.getDn().isDescendantOf( ancestors.peek().getDn() ) )
+                {
+                    addSortedDnTuple( ancestors.pop() );
+                }
+
+                if ( ancestors.isEmpty() )
+                {
+                    throw new IllegalStateException( "The entry " + dt.getDn().getName()
+                        + " is not a descendant of the partition's root DN " + suffixDn.getName() );
+                }
+
+                DnTuple parent = ancestors.peek();
+
+                if ( !dt.getDn().getParent().equals( parent.getDn() ) )
                 {
                     throw new IllegalStateException( "Parent entry's ID of the entry " + dt.getDn().getName()
                         + " not found." );
                 }
+
+                dt.setParent( parent );
+                parent.addChild();
+                parent.addDecendent();
+
+                ancestors.push( dt );
+                nbEntries++;
             }
-            else
+
+            while ( !ancestors.isEmpty() )
             {
-                // load certain siblings
-                if( !dt.getDn().isDescendantOf( prevTuple.getDn() ) )
-                {
-                    //System.out.println( "adding dn " + prevTuple.getDn().getName() + " to the map");
-                    parentDnIdMap.put( prevTuple.getDn().getNormName(), root );
-                }
+                addSortedDnTuple( ancestors.pop() );
             }
-            
-            dt.setParent( parent );
-            parent.addChild();
-            parent.addDecendent();
-            
-            prevTuple = dt;
-        }
-
-//        for ( DnTuple dt : sortedDnSet )
-//        {
-//            System.out.println( dt );
-//        }
 
-        return sortedDnSet;
+            return nbEntries;
+        }
+        finally
+        {
+            dnSorter.close();
+        }
     }
 
 
-    private void buildMasterTable( Set<DnTuple> sortedDnSet ) throws Exception
+    /**
+     * Adds a DnTuple which descendants have all been counted to the ID and RDN sorters
+     */
+    private void addSortedDnTuple( DnTuple dt ) throws IOException
     {
-        final Set<DnTuple> idSortedSet = new TreeSet<DnTuple>( new Comparator<DnTuple>()
-        {
-
-            @Override
-            public int compare( DnTuple dt0, DnTuple dt1 )
-            {
-                return dt0.getId().compareTo( dt1.getId() );
-            }
-        } );
+        dt.releaseParent();
+        idSorter.add( dt );
+        rdnSorter.add( dt );
+    }
 
-        idSortedSet.addAll( sortedDnSet );
 
-//        System.out.println( "Sorted on ID" );
-//        for ( DnTuple dt : idSortedSet )
-//        {
-//            System.out.println( dt );
-//        }
+    private void buildMasterTable() throws Exception
+    {
+        final Iterator<DnTuple> itr = idSorter.iterator();
+        final long t0 = System.currentTimeMillis();
 
         Iterator<Tuple> entryItr = new Iterator<Tuple>()
         {
-
-            private Iterator<DnTuple> itr = idSortedSet.iterator();
-
             final SchemaAwareLdifReader lar = new SchemaAwareLdifReader( schemaManager );
 
             final AttributeType atEntryUUID = schemaManager.lookupAttributeTypeRegistry( SchemaConstants.ENTRY_UUID_AT );
@@ -606,13 +792,15 @@ public class MavibotPartitionBuilder
             final AttributeType atCsn = schemaManager.lookupAttributeTypeRegistry( SchemaConstants.ENTRY_CSN_AT );
             final AttributeType atCreator = schemaManager.lookupAttributeTypeRegistry( SchemaConstants.CREATORS_NAME_AT );
             final AttributeType atCreatedTime = schemaManager.lookupAttributeTypeRegistry( SchemaConstants.CREATE_TIMESTAMP_AT );
-            
+
             final Attribute creatorsName = new DefaultAttribute( atCreator, ServerDNConstants.ADMIN_SYSTEM_DN );
             final Attribute createdTime = new DefaultAttribute( atCreatedTime, DateUtils.getGeneralizedTime() );
             final Attribute entryCsn = new DefaultAttribute( atCsn, csnFactory.newInstance().toString() );
-            
+
             final Tuple t = new Tuple();
-            
+
+            long nbEntries = 0;
+
             @Override
             public boolean hasNext()
             {
@@ -629,7 +817,7 @@ public class MavibotPartitionBuilder
 
                 try
                 {
-                    
+
                     byte[] data = new byte[dt.getLen()];
                     raf.seek( dt.getOffset() );
                     raf.readFully( data, 0, data.length );
@@ -650,6 +838,9 @@ public class MavibotPartitionBuilder
                     throw new RuntimeException( e );
                 }
 
+                nbEntries++;
+                reportProgress( "Building master table", nbEntries, t0 );
+
                 return t;
             }
 
@@ -666,61 +857,12 @@ public class MavibotPartitionBuilder
     }
 
 
-    private void buildRdnIndex( Set<DnTuple> sortedDnSet ) throws Exception
+    private void buildRdnIndex() throws Exception
     {
-        final Set<DnTuple> parentIdRdnSortedSet = new TreeSet<DnTuple>( new Comparator<DnTuple>()
-        {
-
-            @Override
-            public int compare( DnTuple dt0, DnTuple dt1 )
-            {
-                int val = dt0.getParentId().compareTo( dt1.getParentId() );
-                if ( val != 0 )
-                {
-                    return val;
-                }
-
-                Rdn[] dt0Rdns = dt0.getDn().getRdns().toArray( new Rdn[0] );
-
-                Rdn[] dt1Rdns = dt1.getDn().getRdns().toArray( new Rdn[0] );
-
-                if ( dt0Rdns.length == 1 )
-                {
-                    // Special case : we only have one rdn.
-                    val = dt0Rdns[0].getNormName().compareTo( dt1Rdns[0].getNormName() );
-
-                    return val;
-                }
-                else
-                {
-                    for ( int i = 0; i < dt0Rdns.length; i++ )
-                    {
-                        val = dt0Rdns[i].getNormName().compareTo( dt1Rdns[i].getNormName() );
-
-                        if ( val != 0 )
-                        {
-                            return val;
-                        }
-                    }
-
-                    return 0;
-                }
-            }
-        } );
-
-        parentIdRdnSortedSet.addAll( sortedDnSet );
-
-//        System.out.println( "Sorted on ParentID and RDNs" );
-//        for ( DnTuple dt : parentIdRdnSortedSet )
-//        {
-//            System.out.println( dt );
-//        }
+        final Iterator<DnTuple> fwdItr = rdnSorter.iterator();
 
         Iterator<Tuple> parentIdAndRdnFwdItr = new Iterator<Tuple>()
         {
-            Iterator<DnTuple> itr = parentIdRdnSortedSet.iterator();
-
-
             @Override
             public void remove()
             {
@@ -730,13 +872,13 @@ public class MavibotPartitionBuilder
             @Override
             public Tuple next()
             {
-                DnTuple dt = itr.next();
+                DnTuple dt = fwdItr.next();
                 Tuple t = new Tuple();
 
                 ParentIdAndRdn rdn = new ParentIdAndRdn( dt.getParentId(), dt.getDn().getRdns() );
                 rdn.setNbChildren( dt.getNbChildren() );
                 rdn.setNbDescendants( dt.getNbDecendents() );
-                
+
                 t.setKey( rdn );
                 t.setValue( dt.getId() );
 
@@ -747,7 +889,7 @@ public class MavibotPartitionBuilder
             @Override
             public boolean hasNext()
             {
-                return itr.hasNext();
+                return fwdItr.hasNext();
             }
         };
 
@@ -755,11 +897,11 @@ public class MavibotPartitionBuilder
 
         build( parentIdAndRdnFwdItr, forwardRdnTree );
 
+        // The reverse tree is keyed by ID
+        final Iterator<DnTuple> revItr = idSorter.iterator();
+
         Iterator<Tuple> parentIdAndRdnRevItr = new Iterator<Tuple>()
         {
-            Iterator<DnTuple> itr = parentIdRdnSortedSet.iterator();
-
-
             @Override
             public void remove()
             {
@@ -769,13 +911,13 @@ public class MavibotPartitionBuilder
             @Override
             public Tuple next()
             {
-                DnTuple dt = itr.next();
+                DnTuple dt = revItr.next();
                 Tuple t = new Tuple();
 
                 ParentIdAndRdn rdn = new ParentIdAndRdn( dt.getParentId(), dt.getDn().getRdns() );
                 rdn.setNbChildren( dt.getNbChildren() );
                 rdn.setNbDescendants( dt.getNbDecendents() );
-                
+
                 t.setKey( dt.getId() );
                 t.setValue( rdn );
 
@@ -786,7 +928,7 @@ public class MavibotPartitionBuilder
             @Override
             public boolean hasNext()
             {
-                return itr.hasNext();
+                return revItr.hasNext();
             }
         };
 
@@ -798,8 +940,11 @@ public class MavibotPartitionBuilder
 
     /**
      * Import a LDIF file and create a fully working Mavibot partition.
-     * TODO buildPartition.
-     *
+     * <br>
+     * The DNs and the index tuples are sorted using external sorts, so that the size of the
+     * LDIF file is not limited by the heap : at most {@link #setSortBufferSize(int)} tuples
+     * are held in memory by each sorter, the sorted runs being written in a temporary
+     * directory of the output directory.
      */
     public void buildPartition()
     {
@@ -811,7 +956,7 @@ public class MavibotPartitionBuilder
             JarLdifSchemaLoader loader = new JarLdifSchemaLoader();
             schemaManager = new DefaultSchemaManager( loader );
             schemaManager.loadAllEnabled();
-            dnFactory = new DefaultDnFactory( schemaManager, null );
+            dnFactory = new DefaultDnFactory( schemaManager );
             cacheService = new CacheService();
             InstanceLayout instanceLayout = new InstanceLayout( outputDir );
             cacheService.initialize( instanceLayout );
@@ -824,20 +969,48 @@ public class MavibotPartitionBuilder
             return;
         }
 
+        sortDir = new File( outputDir, "sort" );
+        sortDir.mkdirs();
+
+        try
+        {
+            buildPartitionTrees();
+        }
+        finally
+        {
+            if ( idSorter != null )
+            {
+                idSorter.close();
+            }
+
+            if ( rdnSorter != null )
+            {
+                rdnSorter.close();
+            }
+
+            idSorter = null;
+            rdnSorter = null;
+
+            if ( !sortDir.delete() )
+            {
+                LOG.warn( "Cannot delete the sort directory {}", sortDir );
+            }
+        }
+    }
+
+
+    private void buildPartitionTrees()
+    {
         // Now, read all the DNs, and sort them
-        Set<DnTuple> sortedDnSet = null;
-        
         try
         {
             long sortT0 = System.currentTimeMillis();
             System.out.println( "Sorting the LDIF data..." );
-            
-            sortedDnSet = getDnTuples();
+
+            totalEntries = ( int ) sortDnTuples();
             long sortT1 = System.currentTimeMillis();
 
-            totalEntries = sortedDnSet.size();
-            
-            System.out.println( "Completed sorting, total number of entries " + totalEntries + 
+            System.out.println( "Completed sorting, total number of entries " + totalEntries +
                 ", time taken : " + ( sortT1 - sortT0 ) + "ms" );
         }
         catch ( Exception e )
@@ -846,21 +1019,22 @@ public class MavibotPartitionBuilder
             LOG.warn( "Failed to parse the given LDIF file ", e );
             return;
         }
-        
-        if ( ( sortedDnSet == null ) || ( sortedDnSet.isEmpty() ) )
+
+        if ( totalEntries == 0 )
         {
             String message = "No entries found in the given LDIF file, aborting bulk load";
             System.out.println( message );
             LOG.info( message );
+            return;
         }
-        
+
         MavibotPartition partition = null;
-        
+
         try
         {
             long partT0 = System.currentTimeMillis();
             System.out.print( "Creating partition..." );
-            
+
             partition = new MavibotPartition( schemaManager, dnFactory );
             partition.setId( "builder" );
             partition.setSuffixDn( suffixDn );
@@ -874,11 +1048,11 @@ public class MavibotPartitionBuilder
                 schemaManager.lookupAttributeTypeRegistry( atName );
                 partition.addIndex( new MavibotIndex( atName, false ) );
             }
-            
+
             partition.initialize();
 
             masterTableName = partition.getMasterTable().getName();
-            
+
             rm = partition.getRecordMan();
 
             long partT1 = System.currentTimeMillis();
@@ -894,10 +1068,10 @@ public class MavibotPartitionBuilder
         try
         {
             long masterT0 = System.currentTimeMillis();
-            System.out.print( "Building master table..." );
-            buildMasterTable( sortedDnSet );
+            System.out.println( "Building master table..." );
+            buildMasterTable();
             long masterT1 = System.currentTimeMillis();
-            System.out.println( ", time taken : " + ( masterT1 - masterT0 ) + "ms" );
+            System.out.println( "Master table built, " + getThroughput( totalEntries, masterT0, masterT1 ) );
         }
         catch( Exception e )
         {
@@ -906,23 +1080,23 @@ public class MavibotPartitionBuilder
             e.printStackTrace();
             return;
         }
-        
+
         Iterator<String> userIndexItr = partition.getUserIndices();
-        
+
         try
         {
             // the RecordManager must be re-initialized cause we are
             // setting the "values" of leaves to null while building
             // the tree to avoid OOM errors
             partition.destroy();
-            
+
             rm = new RecordManager( new File( partition.getPartitionPath() ).getAbsolutePath() );
-            
+
             long rdnT0 = System.currentTimeMillis();
             System.out.print( "Building RDN index." );
-            buildRdnIndex( sortedDnSet );
+            buildRdnIndex();
             long rdnT1 = System.currentTimeMillis();
-            System.out.println( ", time taken : " + ( rdnT1 - rdnT0 ) + "ms" );
+            System.out.println( ", " + getThroughput( totalEntries, rdnT0, rdnT1 ) );
         }
         catch( Exception e )
         {
@@ -930,300 +1104,410 @@ public class MavibotPartitionBuilder
             LOG.warn( "Failed to build the RDN index", e );
             return;
         }
-        
+
         // not needed anymore
-        System.out.println( "Clearing the sorted DN set." );
-        sortedDnSet.clear();
-        
-        for( Index<?, String> id : partition.getAllIndices() )
-        {
-            // RDN and presence indices are built separately
-            String oid = id.getAttribute().getOid();
-            
-            if( ApacheSchemaConstants.APACHE_RDN_AT_OID.equals( oid ) 
-                || ApacheSchemaConstants.APACHE_PRESENCE_AT_OID.equals( oid ) )
-            {
-                continue;
-            }
-            
-            String ignoreVal = null;
-            
-            if( SchemaConstants.OBJECT_CLASS_AT_OID.equals( oid ) )
+        System.out.println( "Clearing the sorted DNs." );
+        idSorter.close();
+        rdnSorter.close();
+
+        List<IndexSorter> indexSorters = new ArrayList<IndexSorter>();
+
+        try
+        {
+            for( Index<?, String> id : partition.getAllIndices() )
             {
-                // should be a normalized val
-                ignoreVal = "top";
+                // RDN and presence indices are built separately
+                String oid = id.getAttribute().getOid();
+
+                if( ApacheSchemaConstants.APACHE_RDN_AT_OID.equals( oid )
+                    || ApacheSchemaConstants.APACHE_PRESENCE_AT_OID.equals( oid ) )
+                {
+                    continue;
+                }
+
+                String ignoreVal = null;
+
+                if( SchemaConstants.OBJECT_CLASS_AT_OID.equals( oid ) )
+                {
+                    // should be a normalized val
+                    ignoreVal = "top";
+                }
+
+                indexSorters.add( new IndexSorter( id, ignoreVal ) );
             }
-            
-            try
+
+            Set<String> presenceOids = new HashSet<String>();
+
+            while( userIndexItr.hasNext() )
             {
-                long indexT0 = System.currentTimeMillis();
-                System.out.print("Building index " + id.getAttribute().getName() );
-                buildIndex( id, ignoreVal );
-                long indexT1 = System.currentTimeMillis();
-                System.out.println( ", time taken : " + ( indexT1 - indexT0 ) + "ms" );
+                presenceOids.add( userIndexItr.next() );
             }
-            catch( Exception e )
+
+            indexSorters.add( new IndexSorter( presenceOids ) );
+
+            long indexT0 = System.currentTimeMillis();
+            System.out.println( "Sorting the index tuples using " + nbThreads + " threads..." );
+            sortIndexTuples( indexSorters );
+            long indexT1 = System.currentTimeMillis();
+            System.out.println( "Index tuples sorted, " + getThroughput( totalEntries, indexT0, indexT1 ) );
+
+            // The trees share the same RecordManager, they are written one after the other
+            for ( IndexSorter indexSorter : indexSorters )
             {
-                e.printStackTrace();
-                LOG.warn( "Failed to build the index " + id.getAttribute().getName() );
-                LOG.warn( "", e );
-                return;
+                long buildT0 = System.currentTimeMillis();
+                System.out.print( "Building index " + indexSorter.name );
+                long nbTuples = indexSorter.build();
+                long buildT1 = System.currentTimeMillis();
+                System.out.println( ", " + getThroughput( nbTuples, buildT0, buildT1 ) );
+                indexSorter.close();
             }
         }
-        
-        try
-        {
-            System.out.print( "Building presence index..." );
-            long presenceT0 = System.currentTimeMillis();
-            buildPresenceIndex( userIndexItr );
-            long presenceT1 = System.currentTimeMillis();
-            System.out.println( ", time taken : " + ( presenceT1 - presenceT0 ) + "ms" );
-        }
         catch( Exception e )
         {
             e.printStackTrace();
-            LOG.warn( "Failed to build the presence index." );
+            LOG.warn( "Failed to build the indices." );
             LOG.warn( "", e );
             return;
         }
-        
+        finally
+        {
+            for ( IndexSorter indexSorter : indexSorters )
+            {
+                indexSorter.close();
+            }
+        }
+
         System.out.println( "Patition building complete." );
     }
 
-    
-    private void buildPresenceIndex( Iterator<String> itr ) throws Exception
-    {
-        Set<String> idxOids = new HashSet<String>();
-        
-        while( itr.hasNext() )
-        {
-            idxOids.add( itr.next() );
-        }
 
+    /**
+     * Reads the entries of the master table once, and extracts the tuples of all the indices
+     * in parallel : each batch of entries is given to all the index sorters at the same time,
+     * each sorter writing its own sorted runs.
+     */
+    private void sortIndexTuples( List<IndexSorter> indexSorters ) throws Exception
+    {
         BTree masterTree = rm.getManagedTree( masterTableName );
+        TupleCursor<String, Entry> cursor = masterTree.browse();
+        ExecutorService executor = Executors.newFixedThreadPool( nbThreads );
 
-        BTree fwdTree = rm.getManagedTree( ApacheSchemaConstants.APACHE_PRESENCE_AT_OID + MavibotIndex.FORWARD_BTREE );
-        boolean fwdDupsAllowed = fwdTree.isAllowDuplicates();
-        
-        Comparator fwdKeyComparator = fwdTree.getKeySerializer().getComparator();
-        
-        final Map<String, Set> fwdMap = new TreeMap<String, Set>();
+        try
+        {
+            long t0 = System.currentTimeMillis();
+            long nbEntries = 0;
+            List<Tuple<String, Entry>> batch = new ArrayList<Tuple<String, Entry>>( INDEX_BATCH_SIZE );
 
-        TupleCursor<String, Entry> cursor = masterTree.browse();
-        
-        while ( cursor.hasNext() )
-        {
-            Tuple<String, Entry> t = cursor.next();
-            
-            Entry e = t.getValue();
-            
-            for( String oid : idxOids )
+            while ( cursor.hasNext() )
             {
-                Attribute at = e.get( oid );
-                if( at == null )
+                Tuple<String, Entry> t = cursor.next();
+                batch.add( new Tuple<String, Entry>( t.getKey(), t.getValue() ) );
+                nbEntries++;
+
+                if ( batch.size() == INDEX_BATCH_SIZE )
                 {
-                    continue;
+                    sortIndexTuples( executor, indexSorters, batch );
+                    batch = new ArrayList<Tuple<String, Entry>>( INDEX_BATCH_SIZE );
                 }
-                
-                Set<String> idSet = fwdMap.get( oid );
-                
-                if( idSet == null )
-                {
-                    idSet = new TreeSet<String>();
-                    idSet.add( t.getKey() );
 
-                    fwdMap.put( oid, idSet );
-                }
+                reportProgress( "Sorting the index tuples", nbEntries, t0 );
             }
+
+            sortIndexTuples( executor, indexSorters, batch );
         }
-        
-        cursor.close();
-        
-        Iterator<Tuple> tupleItr = new Iterator<Tuple>()
+        finally
         {
-            Iterator<java.util.Map.Entry<String, Set>> itr = fwdMap.entrySet().iterator();
-            
-            @Override
-            public Tuple next()
+            cursor.close();
+            executor.shutdown();
+        }
+    }
+
+
+    private void sortIndexTuples( ExecutorService executor, List<IndexSorter> indexSorters,
+        final List<Tuple<String, Entry>> batch ) throws Exception
+    {
+        if ( batch.isEmpty() )
+        {
+            return;
+        }
+
+        List<Callable<Void>> tasks = new ArrayList<Callable<Void>>( indexSorters.size() );
+
+        for ( final IndexSorter indexSorter : indexSorters )
+        {
+            tasks.add( new Callable<Void>()
             {
-                java.util.Map.Entry<String, Set> e = itr.next();
-                
-                Tuple t = new Tuple();
-                t.setKey( e.getKey() );
-                t.setValue( e.getValue() );
-                
-                return t;
-            }
-            
-            
-            @Override
-            public boolean hasNext()
+                @Override
+                public Void call() throws Exception
+                {
+                    for ( Tuple<String, Entry> t : batch )
+                    {
+                        indexSorter.add( t.getKey(), t.getValue() );
+                    }
+
+                    return null;
+                }
+            } );
+        }
+
+        for ( Future<Void> future : executor.invokeAll( tasks ) )
+        {
+            try
             {
-                return itr.hasNext();
+                future.get();
             }
-            
-            @Override
-            public void remove()
+            catch ( ExecutionException ee )
             {
+                throw new Exception( ee.getCause() );
             }
-        };
-        
-        build( tupleItr, fwdTree.getName() );
+        }
     }
-    
-    
-    private void buildIndex( Index<?, String> idx, String ignoreVal ) throws Exception
+
+
+    /**
+     * Extracts the tuples of an index from the entries of the master table, sorts them
+     * using external sorts, and builds the index trees. The presence index is built
+     * by an IndexSorter holding the OIDs of the user indices.
+     */
+    private class IndexSorter
     {
-        BTree masterTree = rm.getManagedTree( masterTableName );
-        
-        AttributeType type = idx.getAttribute();
-        boolean isBinary = type.getSyntax().isHumanReadable();
-        boolean singleValued = type.isSingleValued();
-        
-        BTree fwdTree = rm.getManagedTree( type.getOid() + MavibotIndex.FORWARD_BTREE );
-        boolean fwdDupsAllowed = fwdTree.isAllowDuplicates();
-        
-        Comparator fwdKeyComparator = fwdTree.getKeySerializer().getComparator();
-        
-        Set<Tuple> fwdSet = new TreeSet<Tuple>( new IndexTupleComparator( fwdKeyComparator ) );
-        
-        Map fwdMap = new TreeMap( fwdKeyComparator );
-        
-        BTree revTree = null;
-        boolean revDupsAllowed;
-        Set<Tuple> revSet = null;
-        Map<String,Tuple> revMap = null;
-        Comparator revValComparator = null;
-        
-        if( idx.hasReverse() )
-        {
-            revTree = rm.getManagedTree( type.getOid() + MavibotIndex.REVERSE_BTREE );
-            revDupsAllowed = revTree.isAllowDuplicates();
-            Comparator revKeyComparator = revTree.getKeySerializer().getComparator();
-            revValComparator = revTree.getValueSerializer().getComparator();
-            revSet = new TreeSet<Tuple>( new IndexTupleComparator( revKeyComparator ) );
-            revMap = new TreeMap( revKeyComparator );
-        }
-        
-        
-        TupleCursor<String, Entry> cursor = masterTree.browse();
-        
-        while ( cursor.hasNext() )
+        /** The name of the index */
+        private final String name;
+
+        /** The indexed AttributeType, null for the presence index */
+        private final AttributeType type;
+
+        /** The value which is not indexed */
+        private final String ignoreVal;
+
+        /** The OIDs of the user indices, for the presence index */
+        private final Set<String> presenceOids;
+
+        private final BTree fwdTree;
+
+        private final BTree revTree;
+
+        private final ExternalSorter<Tuple> fwdSorter;
+
+        private final ExternalSorter<Tuple> revSorter;
+
+
+        private IndexSorter( Index<?, String> idx, String ignoreVal ) throws IOException
         {
-            Tuple<String, Entry> t = cursor.next();
-            
-            Entry e = t.getValue();
-            Attribute at = e.get( type );
-            if( at == null )
+            type = idx.getAttribute();
+            name = type.getName();
+            this.ignoreVal = ignoreVal;
+            presenceOids = null;
+
+            fwdTree = rm.getManagedTree( type.getOid() + MavibotIndex.FORWARD_BTREE );
+            fwdSorter = new ExternalSorter<Tuple>( type.getOid() + "-fwd",
+                new IndexTupleComparator( fwdTree.getKeySerializer().getComparator() ), TUPLE_SERIALIZER,
+                sortBufferSize, sortDir );
+
+            if( idx.hasReverse() )
             {
-                continue;
+                revTree = rm.getManagedTree( type.getOid() + MavibotIndex.REVERSE_BTREE );
+                revSorter = new ExternalSorter<Tuple>( type.getOid() + "-rev",
+                    new IndexTupleComparator( revTree.getKeySerializer().getComparator() ), TUPLE_SERIALIZER,
+                    sortBufferSize, sortDir );
+            }
+            else
+            {
+                revTree = null;
+                revSorter = null;
             }
-            
-            if( singleValued )
+        }
+
+
+        private IndexSorter( Set<String> presenceOids ) throws IOException
+        {
+            name = "presence";
+            type = null;
+            ignoreVal = null;
+            this.presenceOids = presenceOids;
+
+            fwdTree = rm.getManagedTree( ApacheSchemaConstants.APACHE_PRESENCE_AT_OID + MavibotIndex.FORWARD_BTREE );
+            fwdSorter = new ExternalSorter<Tuple>( "presence",
+                new IndexTupleComparator( fwdTree.getKeySerializer().getComparator() ), TUPLE_SERIALIZER,
+                sortBufferSize, sortDir );
+            revTree = null;
+            revSorter = null;
+        }
+
+
+        private void add( String id, Entry e ) throws IOException
+        {
+            if ( type == null )
             {
-                Value v = at.get();
-                Object normVal = v.getNormValue();
-                
-                if( ignoreVal != null )
+                for( String oid : presenceOids )
                 {
-                    if( normVal.equals( ignoreVal ) )
+                    if( e.get( oid ) != null )
                     {
-                        continue;
+                        fwdSorter.add( new Tuple( oid, id ) );
                     }
                 }
-                
-                Tuple fwdTuple = new Tuple( normVal, t.getKey() );
-                fwdSet.add( fwdTuple );
-                
-                if( revTree != null )
-                {
-                    Tuple revTuple = new Tuple( t.getKey(), v.getNormValue() );
-                    revSet.add( revTuple );
-                }
+
+                return;
             }
-            else
+
+            Attribute at = e.get( type );
+
+            if( at == null )
             {
-                for( Value v : at )
+                return;
+            }
+
+            for( Value v : at )
+            {
+                Object val = v.getNormValue();
+
+                if( ( ignoreVal != null ) && val.equals( ignoreVal ) )
                 {
-                    Object val = v.getNormValue();
-                    
-                    if( ignoreVal != null )
-                    {
-                        if( val.equals( ignoreVal ) )
-                        {
-                            continue;
-                        }
-                    }
-                    
-                    Tuple fwdTuple = ( Tuple ) fwdMap.get( val );
-                    
-                    if( fwdTuple == null )
-                    {
-                        Set<String> idSet = new TreeSet<String>();
-                        idSet.add( t.getKey() );
-                        
-                        fwdTuple = new Tuple( val, idSet );
-                        fwdMap.put( val, fwdTuple );
-                    }
-                    else
-                    {
-                        Set<String> idSet = ( Set<String> ) fwdTuple.getValue();
-                        idSet.add( t.getKey() );
-                    }
-                    
-                    if( revTree != null )
-                    {
-                        Tuple revTuple = revMap.get( t.getKey() );
-                        
-                        if( revTuple == null )
-                        {
-                            Set valSet = new TreeSet( revValComparator );
-                            valSet.add( val );
-                            revTuple = new Tuple( t.getKey(), valSet );
-                        }
-                        else
-                        {
-                            Set valSet = ( Set ) revTuple.getValue();
-                            valSet.add( val );
-                        }
-                    }
+                    continue;
+                }
+
+                fwdSorter.add( new Tuple( val, id ) );
+
+                if( revSorter != null )
+                {
+                    revSorter.add( new Tuple( id, val ) );
                 }
             }
         }
-        
-        cursor.close();
-        
-        if( singleValued )
+
+
+        /**
+         * Builds the trees from the sorted tuples
+         *
+         * @return The number of sorted tuples
+         */
+        private long build() throws Exception
         {
-            if( fwdSet.isEmpty() )
+            if( fwdSorter.size() == 0 )
             {
-                return;
+                return 0;
             }
-            
-            build( fwdSet.iterator(), fwdTree.getName() );
-            
-            if( revTree != null )
+
+            MavibotPartitionBuilder.this.build( new GroupingIterator( fwdSorter.iterator(), fwdTree ),
+                fwdTree.getName() );
+
+            if( revSorter != null )
             {
-                build( revSet.iterator(), revTree.getName() );
+                MavibotPartitionBuilder.this.build( new GroupingIterator( revSorter.iterator(), revTree ),
+                    revTree.getName() );
             }
+
+            return fwdSorter.size();
         }
-        else
+
+
+        private void close()
         {
-            if( fwdMap.isEmpty() )
+            fwdSorter.close();
+
+            if( revSorter != null )
             {
-                return;
+                revSorter.close();
             }
-            
-            build( fwdMap.values().iterator(), fwdTree.getName() );
+        }
+    }
+
+
+    /**
+     * Groups the sorted tuples having the same key : their values are gathered in a Set if
+     * the tree allows duplicates, otherwise only the first value is kept.
+     */
+    private static class GroupingIterator implements Iterator<Tuple>
+    {
+        private final Iterator<Tuple> itr;
+
+        private final Comparator keyComparator;
+
+        private final Comparator valueComparator;
+
+        private final boolean allowDuplicates;
+
+        private Tuple next;
 
-            if( revTree != null )
+
+        private GroupingIterator( Iterator<Tuple> itr, BTree tree )
+        {
+            this.itr = itr;
+            keyComparator = tree.getKeySerializer().getComparator();
+            valueComparator = tree.getValueSerializer().getComparator();
+            allowDuplicates = tree.isAllowDuplicates();
+            next = itr.hasNext() ? itr.next() : null;
+        }
+
+
+        @Override
+        public boolean hasNext()
+        {
+            return next != null;
+        }
+
+
+        @Override
+        public Tuple next()
+        {
+            if( next == null )
             {
-                build( revMap.values().iterator(), revTree.getName() );
+                throw new NoSuchElementException();
             }
+
+            Object key = next.getKey();
+            Set values = allowDuplicates ? new TreeSet( valueComparator ) : null;
+            Object value = next.getValue();
+
+            while( next != null )
+            {
+                if( keyComparator.compare( key, next.getKey() ) != 0 )
+                {
+                    break;
+                }
+
+                if( allowDuplicates )
+                {
+                    values.add( next.getValue() );
+                }
+
+                next = itr.hasNext() ? itr.next() : null;
+            }
+
+            return new Tuple( key, allowDuplicates ? values : value );
+        }
+
+
+        @Override
+        public void remove()
+        {
+            throw new UnsupportedOperationException( "Not supported" );
         }
     }
-    
-    
+
+
+    /**
+     * Prints the progress of a phase of the build, every PROGRESS_INTERVAL entries
+     */
+    private static void reportProgress( String phase, long count, long t0 )
+    {
+        if( ( count % PROGRESS_INTERVAL ) == 0 )
+        {
+            System.out.println( phase + " : " + count + " entries, "
+                + getThroughput( count, t0, System.currentTimeMillis() ) );
+        }
+    }
+
+
+    private static String getThroughput( long count, long t0, long t1 )
+    {
+        long elapsed = Math.max( 1L, t1 - t0 );
+
+        return "time taken : " + elapsed + "ms (" + ( count * 1000L / elapsed ) + "/s)";
+    }
+
+
+
     public void testBTree( String name )
     {
         try
@@ -1238,7 +1522,7 @@ public class MavibotPartitionBuilder
                 //System.out.println( t );
             }
             cursor.close();
-            
+
             if( fetched != tree.getNbElems() )
             {
                 System.err.println( "The number of elements fetched from the btree did not match with the stored count " + name + " ( fetched = " + fetched + ", stored count = " + tree.getNbElems() + " )" );
@@ -1253,7 +1537,7 @@ public class MavibotPartitionBuilder
 //            {
 //                System.out.println( idxCur.get() );
 //            }
-//            
+//
 //            idxCur.close();
         }
         catch( Exception e )
@@ -1262,7 +1546,7 @@ public class MavibotPartitionBuilder
         }
     }
 
-    
+
     /** no qualifier */ int getTotalEntries()
     {
         return totalEntries;
@@ -1298,20 +1582,20 @@ public class MavibotPartitionBuilder
         System.out.println( "Usage" );
         System.out.println( "java -jar bulkloader.jar <options>" );
         System.out.println( "Available options are:" );
-        
+
         Option[] options = Option.values();
-        
+
         for( Option o : options )
         {
             if( o == Option.UNKNOWN )
             {
                 continue;
             }
-            
+
             System.out.println( o.getText() + "    " + o.getDesc() );
         }
     }
-    
+
     private static String getArgAt( int position, Option opt, String[] args )
     {
         if( position >= args.length )
@@ -1319,11 +1603,11 @@ public class MavibotPartitionBuilder
             System.out.println( "No value was provided for the option " + opt.getText() );
             System.exit( 1 );
         }
-        
+
         return args[position];
     }
-    
-    
+
+
     public static void main( String[] args ) throws Exception
     {
         String inFile = null;
@@ -1331,6 +1615,8 @@ public class MavibotPartitionBuilder
         String outDirPath = null;
         int numKeysInNode = 16;
         int rid = 1;
+        int sortBufferSize = DEFAULT_SORT_BUFFER_SIZE;
+        int nbThreads = Runtime.getRuntime().availableProcessors();
         boolean cleanOutDir = false;
         boolean verifyMasterTable = false;
 
@@ -1339,18 +1625,18 @@ public class MavibotPartitionBuilder
            help();
            System.exit( 0 );
         }
-        
+
         for( int i =0; i < args.length; i++ )
         {
             Option opt = Option.getOpt( args[i] );
-            
+
             switch( opt )
             {
                 case HELP :
                     help();
                     System.exit( 0 );
                     break;
-                    
+
                 case INPUT_FILE :
                     inFile = getArgAt( ++i, opt, args );
                     break;
@@ -1374,7 +1660,15 @@ public class MavibotPartitionBuilder
                 case DS_RID :
                     rid = Integer.parseInt( getArgAt( ++i, opt, args ) );
                     break;
-                    
+
+                case SORT_BUFFER_SIZE :
+                    sortBufferSize = Integer.parseInt( getArgAt( ++i, opt, args ) );
+                    break;
+
+                case NB_THREADS :
+                    nbThreads = Integer.parseInt( getArgAt( ++i, opt, args ) );
+                    break;
+
                 case CONFIG_DIR :
                     configDir = getArgAt( ++i, opt, args );
                     break;
@@ -1384,23 +1678,23 @@ public class MavibotPartitionBuilder
                     continue;
             }
         }
-        
+
         if( ( inFile == null ) || ( inFile.trim().length() == 0 ) )
         {
             System.out.println( "Invalid input file" );
             return;
         }
-        
+
         if( !new File( inFile ).exists() )
         {
             System.out.println( "The input file " + inFile + " doesn't exist" );
             return;
         }
-        
+
         //calcLevels( 502, 16 );
-        
+
         File outDir = new File( outDirPath );
-        
+
         if( outDir.exists() )
         {
             if( !cleanOutDir )
@@ -1408,20 +1702,22 @@ public class MavibotPartitionBuilder
                 System.out.println( "The output directory is not empty, pass " + Option.CLEAN_OUT_DIR.getText() + " to force delete the contents or specify a different directory"  );
                 return;
             }
-            
+
             FileUtils.deleteDirectory( outDir );
         }
-        
+
         MavibotPartitionBuilder builder = new MavibotPartitionBuilder( configDir, inFile, outDirPath, numKeysInNode, rid );
-        
+        builder.setSortBufferSize( sortBufferSize );
+        builder.setNbThreads( nbThreads );
+
         long start = System.currentTimeMillis();
-        
+
         builder.buildPartition();
-        
+
         long end = System.currentTimeMillis();
-        
+
         System.out.println( "Total time taken " + ( end - start ) + "msec" );
-        
+
         if ( verifyMasterTable )
         {
             System.out.println( "Verifying the contents of master table" );
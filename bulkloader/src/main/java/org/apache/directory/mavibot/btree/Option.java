@@ -22,7 +22,7 @@ package org.apache.directory.mavibot.btree;
 
 /**
  * Command line options for bulk loader.
- * 
+ *
  * Here are the various options :
  * <ul>
  * <li>-c : The configuration directory</li>
@@ -32,21 +32,23 @@ package org.apache.directory.mavibot.btree;
  * <li>-n : the number of keys stored in each node</li>
  * <li>-o : the directory where the resulting partition will be stored</li>
  * <li>-rid : the replica ID</li>
+ * <li>-s : the number of tuples sorted in memory before being written in a temporary file</li>
+ * <li>-t : the number of threads used to sort the index tuples</li>
  * <li>-verify : check that we have loaded all the entries in the MAsterTable</li>
  * </ul>
- * 
+ *
  * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
  */
 public enum Option
 {
     HELP("-h", "Prints the details of the options"),
-    
+
     INPUT_FILE("-i", "Path of the LDIF file to be used as input"),
 
     OUT_DIR("-o", "Path of the directory where the data files will be stored"),
 
     CLEAN_OUT_DIR("-clean", "Deletes the output directory's contents if present"),
-    
+
     NUM_KEYS_PER_NODE("-n", "(optional) The number of keys to be present in each node, default is 16"),
 
     DS_RID("-rid", "(optional) The RID value to be used in the entryCSN values, default is 1"),
@@ -54,7 +56,12 @@ public enum Option
     CONFIG_DIR("-c", "The configuration partition directory"),
 
     VERIFY_MASTER_TABLE("-verify", "(optional) Verifies the master table by just browsing (entries are not verified)"),
-    
+
+    SORT_BUFFER_SIZE("-s", "(optional) The number of tuples sorted in memory before being written in a temporary file, default is "
+        + MavibotPartitionBuilder.DEFAULT_SORT_BUFFER_SIZE),
+
+    NB_THREADS("-t", "(optional) The number of threads used to sort the index tuples, default is the number of processors"),
+
     UNKNOWN(null, "Unknown Option");
 
     private String text;
@@ -119,6 +126,16 @@ public enum Option
             return NUM_KEYS_PER_NODE;
         }
 
+        if ( opt.equalsIgnoreCase( SORT_BUFFER_SIZE.text ) )
+        {
+            return SORT_BUFFER_SIZE;
+        }
+
+        if ( opt.equalsIgnoreCase( NB_THREADS.text ) )
+        {
+            return NB_THREADS;
+        }
+
         if ( opt.equalsIgnoreCase( CONFIG_DIR.text ) )
         {
             return CONFIG_DIR;
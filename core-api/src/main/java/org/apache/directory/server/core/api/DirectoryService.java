@@ -348,6 +348,18 @@ public interface DirectoryService extends ServerEntryFactory
     List<String> getInterceptors( OperationEnum operation );
 
 
+    /**
+     * Returns the chain of interceptors to call for an operation. The chain only
+     * contains the interceptors implementing this operation, in the order they are
+     * declared. It is rebuilt when an interceptor is added or removed, so the
+     * returned array is shared, and must not be modified.
+     *
+     * @param operation The operation that the interceptors must implement
+     * @return the interceptors chain for this operation
+     */
+    Interceptor[] getInterceptorChain( OperationEnum operation );
+
+
     /**
      * Sets the interceptors in the server.
      *
@@ -468,6 +480,22 @@ public interface DirectoryService extends ServerEntryFactory
     void setDenormalizeOpAttrsEnabled( boolean denormalizeOpAttrsEnabled );
 
 
+    /**
+     * @return true if the subentry operational attributes (accessControlSubentries,
+     * collectiveAttributeSubentries, ...) are computed from the subentries when the
+     * entries are read, instead of being stored into the entries
+     */
+    boolean isVirtualSubentryAttributesEnabled();
+
+
+    /**
+     * Sets whether the subentry operational attributes are computed when the entries are read.
+     *
+     * @param virtualSubentryAttributesEnabled The flag value
+     */
+    void setVirtualSubentryAttributesEnabled( boolean virtualSubentryAttributesEnabled );
+
+
     /**
      * Gets the ChangeLog service for this DirectoryService used for tracking
      * changes (revisions) to the server and using them to revert the server
@@ -544,6 +572,12 @@ public interface DirectoryService extends ServerEntryFactory
     Csn getCSN();
 
 
+    /**
+     * @return The tracker of the CSNs generated by the write operations in progress
+     */
+    PendingCsnTracker getPendingCsnTracker();
+
+
     /**
      * @return the replicaId
      */
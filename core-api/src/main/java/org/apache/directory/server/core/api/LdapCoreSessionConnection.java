@@ -1308,7 +1308,7 @@ public class LdapCoreSessionConnection extends AbstractLdapConnection
         }
 
         bindContext.setDn( bindDn );
-        bindContext.setInterceptors( directoryService.getInterceptors( OperationEnum.BIND ) );
+        bindContext.setInterceptors( directoryService.getInterceptorChain( OperationEnum.BIND ) );
 
         for ( Control control : bindRequest.getControls().values() )
         {
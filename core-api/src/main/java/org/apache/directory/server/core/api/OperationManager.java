@@ -38,6 +38,7 @@ import org.apache.directory.server.core.api.interceptor.context.MoveOperationCon
 import org.apache.directory.server.core.api.interceptor.context.RenameOperationContext;
 import org.apache.directory.server.core.api.interceptor.context.SearchOperationContext;
 import org.apache.directory.server.core.api.interceptor.context.UnbindOperationContext;
+import org.apache.directory.server.core.api.partition.Partition;
 
 
 /**
@@ -171,7 +172,8 @@ public interface OperationManager
 
 
     /**
-     * Acquires a WriteLock
+     * Acquires the global WriteLock. No other operation can be executed on any
+     * partition until it's released.
      */
     void lockWrite();
 
@@ -195,7 +197,27 @@ public interface OperationManager
 
 
     /**
-     * @return the OperationManager R/W lock
+     * @return the OperationManager global R/W lock
      */
     ReadWriteLock getRWLock();
+
+
+    /**
+     * Gets the R/W lock protecting a partition. Operations on distinct partitions
+     * don't share their locks, so they can be executed concurrently.
+     *
+     * @param partition The partition
+     * @return the partition R/W lock
+     */
+    ReadWriteLock getRWLock( Partition partition );
+
+
+    /**
+     * Gets the manager holding the global and the per partition locks. The code modifying
+     * a partition without going through the operations must lock it with this manager, so
+     * that the locks are acquired in the same order as the operations do.
+     *
+     * @return The manager holding the global and the per partition locks
+     */
+    PartitionLockManager getLockManager();
 }
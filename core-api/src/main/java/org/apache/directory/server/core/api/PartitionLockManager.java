@@ -0,0 +1,387 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.api;
+
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.api.ldap.model.exception.LdapOperationErrorException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * Manages the locks protecting the partitions against concurrent operations. Each
+ * partition has its own R/W lock, so that a write in a partition does not block the
+ * operations done on the other partitions. On top of that, a global R/W lock is
+ * held in read mode by every operation : taking it in write mode quiesces the whole
+ * server (this is what we do when the server is shutdown, or when the schema is modified).
+ * <br>
+ * In order to avoid deadlocks, the locks are always acquired in the same order : the
+ * global lock first, then the partition locks, sorted by partition ID. When an operation
+ * is nested into another one (an interceptor calling the OperationManager), and needs a
+ * partition lock which would break this order, we don't wait forever : the acquisition is
+ * given up after a timeout, and the operation fails.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class PartitionLockManager
+{
+    /** The logger for this class */
+    private static final Logger LOG = LoggerFactory.getLogger( PartitionLockManager.class );
+
+    /** The default time we wait for a lock acquired out of order, in milliseconds */
+    public static final long DEFAULT_NESTED_LOCK_TIMEOUT = 30000L;
+
+    /** The global lock */
+    private final ReentrantReadWriteLock globalLock = new ReentrantReadWriteLock( true );
+
+    /** The partition locks, per partition ID */
+    private final ConcurrentMap<String, ReentrantReadWriteLock> partitionLocks = new ConcurrentHashMap<>();
+
+    /** The partition locks held by the current thread, sorted by partition ID, with their hold count */
+    private final ThreadLocal<TreeMap<String, Integer>> heldLocks = new ThreadLocal<TreeMap<String, Integer>>()
+    {
+        @Override
+        protected TreeMap<String, Integer> initialValue()
+        {
+            return new TreeMap<>();
+        }
+    };
+
+    /** The time we wait for a lock acquired out of order, in milliseconds */
+    private final long nestedLockTimeout;
+
+
+    /**
+     * A set of locks acquired for an operation, which has to be given back to
+     * {@link PartitionLockManager#unlock(LockedPartitions)} when the operation is completed.
+     */
+    public static final class LockedPartitions
+    {
+        /** The sorted partition IDs */
+        private final String[] partitionIds;
+
+        /** Tells if the partitions are locked in write mode */
+        private final boolean write;
+
+        /** Tells if the global lock is held in write mode */
+        private final boolean exclusive;
+
+
+        private LockedPartitions( String[] partitionIds, boolean write, boolean exclusive )
+        {
+            this.partitionIds = partitionIds;
+            this.write = write;
+            this.exclusive = exclusive;
+        }
+
+
+        /**
+         * @return The locked partitions IDs, in the order they have been locked
+         */
+        public String[] getPartitionIds()
+        {
+            return partitionIds.clone();
+        }
+
+
+        /**
+         * @return <code>true</code> if the partitions are locked in write mode
+         */
+        public boolean isWrite()
+        {
+            return write;
+        }
+
+
+        /**
+         * @return <code>true</code> if the global lock is held in write mode
+         */
+        public boolean isExclusive()
+        {
+            return exclusive;
+        }
+    }
+
+
+    /**
+     * Creates a new instance of PartitionLockManager, with the default nested lock timeout
+     */
+    public PartitionLockManager()
+    {
+        this( DEFAULT_NESTED_LOCK_TIMEOUT );
+    }
+
+
+    /**
+     * Creates a new instance of PartitionLockManager
+     *
+     * @param nestedLockTimeout The time we wait for a lock acquired out of order, in milliseconds
+     */
+    public PartitionLockManager( long nestedLockTimeout )
+    {
+        this.nestedLockTimeout = nestedLockTimeout;
+    }
+
+
+    /**
+     * @return The global lock
+     */
+    public ReentrantReadWriteLock getGlobalLock()
+    {
+        return globalLock;
+    }
+
+
+    /**
+     * Gets the lock associated with a partition, creating it if needed
+     *
+     * @param partitionId The partition ID
+     * @return The partition lock
+     */
+    public ReentrantReadWriteLock getPartitionLock( String partitionId )
+    {
+        String key = ( partitionId == null ) ? "" : partitionId;
+        ReentrantReadWriteLock lock = partitionLocks.get( key );
+
+        if ( lock == null )
+        {
+            lock = new ReentrantReadWriteLock( true );
+            ReentrantReadWriteLock existing = partitionLocks.putIfAbsent( key, lock );
+
+            if ( existing != null )
+            {
+                lock = existing;
+            }
+        }
+
+        return lock;
+    }
+
+
+    /**
+     * Locks some partitions, after having acquired the global lock in read mode.
+     *
+     * @param write If the partitions must be locked in write mode
+     * @param partitionIds The IDs of the partitions to lock. Duplicates are ignored.
+     * @return The acquired locks
+     * @throws LdapException If a lock can't be acquired without risking a deadlock
+     */
+    public LockedPartitions lock( boolean write, String... partitionIds ) throws LdapException
+    {
+        return lock( write, false, partitionIds );
+    }
+
+
+    /**
+     * Locks some partitions. The global lock is acquired first, in write mode if the
+     * operation must be exclusive, in read mode otherwise.
+     *
+     * @param write If the partitions must be locked in write mode
+     * @param exclusive If the global lock must be held in write mode
+     * @param partitionIds The IDs of the partitions to lock. Duplicates are ignored.
+     * @return The acquired locks
+     * @throws LdapException If a lock can't be acquired without risking a deadlock
+     */
+    public LockedPartitions lock( boolean write, boolean exclusive, String... partitionIds ) throws LdapException
+    {
+        TreeSet<String> sortedIds = new TreeSet<>();
+
+        for ( String partitionId : partitionIds )
+        {
+            sortedIds.add( ( partitionId == null ) ? "" : partitionId );
+        }
+
+        TreeMap<String, Integer> held = heldLocks.get();
+
+        // An exclusive lock can't be acquired by a thread already holding the global read lock
+        boolean globalWrite = exclusive && ( globalLock.getReadHoldCount() == 0 || globalLock.isWriteLockedByCurrentThread() );
+        Lock global = globalWrite ? globalLock.writeLock() : globalLock.readLock();
+        global.lock();
+
+        String[] ids = sortedIds.toArray( new String[sortedIds.size()] );
+        int nbLocked = 0;
+
+        try
+        {
+            for ( String id : ids )
+            {
+                acquire( getPartitionLock( id ), id, write, held );
+                Integer count = held.get( id );
+                held.put( id, ( count == null ) ? 1 : count + 1 );
+                nbLocked++;
+            }
+        }
+        finally
+        {
+            if ( nbLocked < ids.length )
+            {
+                // We failed : release what we have acquired so far
+                release( ids, nbLocked, write, held );
+                global.unlock();
+            }
+        }
+
+        return new LockedPartitions( ids, write, globalWrite );
+    }
+
+
+    /**
+     * Releases the locks acquired by a call to one of the lock methods
+     *
+     * @param lockedPartitions The acquired locks
+     */
+    public void unlock( LockedPartitions lockedPartitions )
+    {
+        release( lockedPartitions.partitionIds, lockedPartitions.partitionIds.length, lockedPartitions.write,
+            heldLocks.get() );
+
+        if ( lockedPartitions.exclusive )
+        {
+            globalLock.writeLock().unlock();
+        }
+        else
+        {
+            globalLock.readLock().unlock();
+        }
+    }
+
+
+    /**
+     * @return The number of partition locks held by the current thread
+     */
+    public int getHeldLockCount()
+    {
+        int count = 0;
+
+        for ( Integer holdCount : heldLocks.get().values() )
+        {
+            count += holdCount;
+        }
+
+        return count;
+    }
+
+
+    /**
+     * Acquire one partition lock. If the current thread already holds a lock which sorts after
+     * this one, we can't block, as we could deadlock with another thread acquiring the locks in order.
+     */
+    private void acquire( ReentrantReadWriteLock partitionLock, String id, boolean write,
+        TreeMap<String, Integer> held ) throws LdapException
+    {
+        Lock lock = write ? partitionLock.writeLock() : partitionLock.readLock();
+
+        if ( write && !partitionLock.isWriteLockedByCurrentThread() && ( partitionLock.getReadHoldCount() > 0 ) )
+        {
+            // A read lock can't be upgraded : we would wait for ourselves
+            String message = "Cannot acquire the write lock on partition " + id
+                + " while holding its read lock";
+            LOG.error( message );
+            throw new LdapOperationErrorException( message );
+        }
+
+        if ( held.isEmpty() || ( id.compareTo( held.lastKey() ) > 0 ) )
+        {
+            // The lock order is respected, we can wait
+            lock.lock();
+
+            return;
+        }
+
+        try
+        {
+            if ( lock.tryLock( nestedLockTimeout, TimeUnit.MILLISECONDS ) )
+            {
+                return;
+            }
+        }
+        catch ( InterruptedException ie )
+        {
+            Thread.currentThread().interrupt();
+        }
+
+        String message = "Cannot acquire the " + ( write ? "write" : "read" ) + " lock on partition " + id
+            + " within " + nestedLockTimeout + "ms, while holding the locks on " + held.keySet();
+        LOG.error( message );
+        throw new LdapOperationErrorException( message );
+    }
+
+
+    /**
+     * Release the first nbLocked partition locks, in the reverse order
+     */
+    private void release( String[] ids, int nbLocked, boolean write, TreeMap<String, Integer> held )
+    {
+        for ( int i = nbLocked - 1; i >= 0; i-- )
+        {
+            String id = ids[i];
+            ReentrantReadWriteLock partitionLock = getPartitionLock( id );
+
+            if ( write )
+            {
+                partitionLock.writeLock().unlock();
+            }
+            else
+            {
+                partitionLock.readLock().unlock();
+            }
+
+            Integer count = held.get( id );
+
+            if ( ( count == null ) || ( count <= 1 ) )
+            {
+                held.remove( id );
+            }
+            else
+            {
+                held.put( id, count - 1 );
+            }
+        }
+    }
+
+
+    /**
+     * @see Object#toString()
+     */
+    @Override
+    public String toString()
+    {
+        StringBuilder sb = new StringBuilder();
+
+        sb.append( "PartitionLockManager : " ).append( globalLock ).append( '\n' );
+
+        for ( Map.Entry<String, ReentrantReadWriteLock> entry : partitionLocks.entrySet() )
+        {
+            sb.append( "    " ).append( entry.getKey() ).append( " : " ).append( entry.getValue() ).append( '\n' );
+        }
+
+        return sb.toString();
+    }
+}
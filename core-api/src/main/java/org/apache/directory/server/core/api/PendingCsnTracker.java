@@ -0,0 +1,204 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.api;
+
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeSet;
+
+import org.apache.directory.api.ldap.model.csn.Csn;
+import org.apache.directory.api.ldap.model.csn.CsnFactory;
+
+
+/**
+ * Generates the CSNs, and tracks those generated by the write operations in progress.
+ * <br>
+ * The write operations on different partitions are executed concurrently, so a change can
+ * be logged after a change having a newer CSN. A reader of such a log, which remembers the
+ * CSN of the last change it has read, must not read a change as long as an older one may
+ * still be logged : it only reads the changes older than the {@link #getReadLimit() read limit}.
+ * <br>
+ * An operation is tracked between the calls to {@link #beginOperation()} and
+ * {@link #endOperation()}, made by the thread executing it. The CSNs generated by this
+ * thread meanwhile are pending until the operation ends.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class PendingCsnTracker
+{
+    /** The factory generating the CSNs */
+    private final CsnFactory csnFactory;
+
+    /** The CSNs generated by the operations in progress, in the CSN order */
+    private final TreeSet<String> pendingCsns = new TreeSet<>();
+
+    /** The operations in progress in the current thread */
+    private final ThreadLocal<ThreadOperations> threadOperations = new ThreadLocal<ThreadOperations>()
+    {
+        @Override
+        protected ThreadOperations initialValue()
+        {
+            return new ThreadOperations();
+        }
+    };
+
+
+    /**
+     * The operations in progress in a thread : an operation may execute nested operations
+     */
+    private static class ThreadOperations
+    {
+        /** The number of nested operations */
+        private int depth;
+
+        /** The CSNs generated by the operations */
+        private final List<String> csns = new ArrayList<>();
+    }
+
+
+    /**
+     * Creates a new instance of PendingCsnTracker
+     *
+     * @param csnFactory The factory generating the CSNs
+     */
+    public PendingCsnTracker( CsnFactory csnFactory )
+    {
+        this.csnFactory = csnFactory;
+    }
+
+
+    /**
+     * Generates a new CSN. If the current thread is executing an operation, the CSN is
+     * pending until the operation ends.
+     *
+     * @return The new CSN
+     */
+    public Csn newCsn()
+    {
+        ThreadOperations operations = threadOperations.get();
+
+        // The CSN is generated and registered at once, so that the read limit is never
+        // greater than a CSN which is not registered yet
+        synchronized ( this )
+        {
+            Csn csn = csnFactory.newInstance();
+
+            if ( operations.depth > 0 )
+            {
+                String csnStr = csn.toString();
+                pendingCsns.add( csnStr );
+                operations.csns.add( csnStr );
+            }
+
+            return csn;
+        }
+    }
+
+
+    /**
+     * Starts tracking an operation executed by the current thread
+     */
+    public void beginOperation()
+    {
+        threadOperations.get().depth++;
+    }
+
+
+    /**
+     * Ends an operation executed by the current thread. Once the outermost operation has
+     * ended, the CSNs it has generated are not pending anymore.
+     */
+    public void endOperation()
+    {
+        ThreadOperations operations = threadOperations.get();
+
+        if ( operations.depth == 0 )
+        {
+            return;
+        }
+
+        operations.depth--;
+
+        if ( ( operations.depth == 0 ) && !operations.csns.isEmpty() )
+        {
+            synchronized ( this )
+            {
+                pendingCsns.removeAll( operations.csns );
+                notifyAll();
+            }
+
+            operations.csns.clear();
+        }
+    }
+
+
+    /**
+     * @return The CSN the changes must be older than to be read : the oldest pending CSN,
+     * or a new CSN if none is pending, as the CSNs generated later will be newer
+     */
+    public synchronized String getReadLimit()
+    {
+        if ( pendingCsns.isEmpty() )
+        {
+            return csnFactory.newInstance().toString();
+        }
+
+        return pendingCsns.first();
+    }
+
+
+    /**
+     * Waits until no pending CSN is older than a given CSN, so that the changes up to this
+     * CSN can be read.
+     *
+     * @param csn The CSN
+     * @param timeout The maximum time to wait, in milliseconds
+     * @return The read limit
+     * @throws InterruptedException If the thread is interrupted while waiting
+     */
+    public synchronized String awaitReadLimit( String csn, long timeout ) throws InterruptedException
+    {
+        long deadline = System.currentTimeMillis() + timeout;
+
+        while ( !pendingCsns.isEmpty() && ( pendingCsns.first().compareTo( csn ) < 0 ) )
+        {
+            long remaining = deadline - System.currentTimeMillis();
+
+            if ( remaining <= 0L )
+            {
+                break;
+            }
+
+            wait( remaining );
+        }
+
+        return getReadLimit();
+    }
+
+
+    /**
+     * @return The number of pending CSNs
+     */
+    public synchronized int getPendingCount()
+    {
+        return pendingCsns.size();
+    }
+}
@@ -0,0 +1,128 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.api.cache;
+
+
+/**
+ * An in-process cache, bounded by the weight (usually an estimation of the size in bytes)
+ * of the elements it contains. The implementations must be thread safe.
+ *
+ * @param <K> The key type
+ * @param <V> The value type
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public interface DirectoryCache<K, V>
+{
+    /**
+     * Selects the elements to remove in {@link DirectoryCache#removeAll(Selector)}
+     *
+     * @param <K> The key type
+     * @param <V> The value type
+     */
+    interface Selector<K, V>
+    {
+        /**
+         * Tells if an element is selected
+         *
+         * @param key The element's key
+         * @param value The element's value
+         * @return <code>true</code> if the element is selected
+         */
+        boolean select( K key, V value );
+    }
+
+
+    /**
+     * Gets an element from the cache
+     *
+     * @param key The element's key
+     * @return The element's value, or null if the element is not in the cache
+     */
+    V get( K key );
+
+
+    /**
+     * Stores an element into the cache, replacing the previous value if any. The
+     * cache may decide to evict it later, or immediately if it is not worth keeping.
+     *
+     * @param key The element's key
+     * @param value The element's value
+     */
+    void put( K key, V value );
+
+
+    /**
+     * Removes an element from the cache
+     *
+     * @param key The element's key
+     */
+    void remove( K key );
+
+
+    /**
+     * Removes all the elements selected by a {@link Selector}
+     *
+     * @param selector The selector
+     * @return The number of removed elements
+     */
+    int removeAll( Selector<K, V> selector );
+
+
+    /**
+     * Removes all the elements from the cache
+     */
+    void clear();
+
+
+    /**
+     * @return The number of elements in the cache
+     */
+    int size();
+
+
+    /**
+     * @return The total weight of the elements in the cache
+     */
+    long getWeightedSize();
+
+
+    /**
+     * @return The maximum total weight of the elements in the cache
+     */
+    long getMaximumWeight();
+
+
+    /**
+     * @return The number of gets which have found their element
+     */
+    long getHitCount();
+
+
+    /**
+     * @return The number of gets which have not found their element
+     */
+    long getMissCount();
+
+
+    /**
+     * @return The number of elements evicted to keep the cache under its maximum weight
+     */
+    long getEvictionCount();
+}
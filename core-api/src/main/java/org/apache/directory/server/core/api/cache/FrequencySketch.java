@@ -0,0 +1,206 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.api.cache;
+
+
+/**
+ * A Count-Min sketch estimating the popularity of the cache keys, with 4 bits counters
+ * (16 counters are packed in a long). Each key increments one counter in 4 different
+ * places, and its frequency is the minimum of those 4 counters. When the number of
+ * increments reaches 10 times the sketch capacity, all the counters are halved, so that
+ * the keys which are not used anymore lose their popularity.
+ * <br>
+ * This class is not thread safe : it is protected by the cache eviction lock.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+final class FrequencySketch
+{
+    /** The seeds used to compute the 4 counter positions */
+    private static final long[] SEEDS =
+        { 0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L };
+
+    /** A mask clearing the highest bit of each counter, once it has been shifted */
+    private static final long RESET_MASK = 0x7777777777777777L;
+
+    /** The maximum counter value */
+    private static final int MAX_COUNT = 15;
+
+    /** The largest table we will allocate */
+    private static final int MAXIMUM_CAPACITY = 1 << 24;
+
+    /** The counters */
+    private long[] table = new long[0];
+
+    /** The mask used to compute a position in the table */
+    private int tableMask;
+
+    /** The number of increments after which the counters are halved */
+    private int sampleSize;
+
+    /** The number of increments since the last reset */
+    private int additions;
+
+
+    /**
+     * Resizes the sketch if it's too small for the given number of keys. The
+     * popularity of the keys is lost when the sketch is resized.
+     *
+     * @param maximumSize The expected number of keys
+     */
+    void ensureCapacity( int maximumSize )
+    {
+        int capacity = Math.min( Math.max( maximumSize, 16 ), MAXIMUM_CAPACITY );
+
+        if ( table.length >= capacity )
+        {
+            return;
+        }
+
+        table = new long[Integer.highestOneBit( capacity - 1 ) << 1];
+        tableMask = table.length - 1;
+        sampleSize = 10 * capacity;
+        additions = 0;
+    }
+
+
+    /**
+     * @return The number of keys the sketch has been sized for
+     */
+    int capacity()
+    {
+        return table.length;
+    }
+
+
+    /**
+     * Estimates the number of times a key has been used, up to 15
+     *
+     * @param key The key
+     * @return The estimated frequency
+     */
+    int frequency( Object key )
+    {
+        if ( table.length == 0 )
+        {
+            return 0;
+        }
+
+        int hash = spread( key.hashCode() );
+
+        // The position of the counter within the long, the same for the 4 hashes
+        int start = ( hash & 3 ) << 2;
+        int frequency = MAX_COUNT;
+
+        for ( int i = 0; i < 4; i++ )
+        {
+            int index = indexOf( hash, i );
+            int count = ( int ) ( ( table[index] >>> ( ( start + i ) << 2 ) ) & 0xfL );
+            frequency = Math.min( frequency, count );
+        }
+
+        return frequency;
+    }
+
+
+    /**
+     * Increments the popularity of a key, if it's not already at its maximum
+     *
+     * @param key The key
+     */
+    void increment( Object key )
+    {
+        if ( table.length == 0 )
+        {
+            return;
+        }
+
+        int hash = spread( key.hashCode() );
+        int start = ( hash & 3 ) << 2;
+        boolean added = false;
+
+        for ( int i = 0; i < 4; i++ )
+        {
+            added |= incrementAt( indexOf( hash, i ), start + i );
+        }
+
+        if ( added && ( ++additions >= sampleSize ) )
+        {
+            reset();
+        }
+    }
+
+
+    /**
+     * Increments the j-th counter of the i-th long, if it's not at its maximum
+     */
+    private boolean incrementAt( int i, int j )
+    {
+        int offset = j << 2;
+        long mask = 0xfL << offset;
+
+        if ( ( table[i] & mask ) != mask )
+        {
+            table[i] += 1L << offset;
+
+            return true;
+        }
+
+        return false;
+    }
+
+
+    /**
+     * Halves all the counters
+     */
+    private void reset()
+    {
+        for ( int i = 0; i < table.length; i++ )
+        {
+            table[i] = ( table[i] >>> 1 ) & RESET_MASK;
+        }
+
+        additions /= 2;
+    }
+
+
+    /**
+     * Computes the position in the table of the i-th hash of a key
+     */
+    private int indexOf( int hash, int i )
+    {
+        long h = ( hash + SEEDS[i] ) * SEEDS[i];
+        h += h >>> 32;
+
+        return ( ( int ) h ) & tableMask;
+    }
+
+
+    /**
+     * Improves the distribution of the key hash codes
+     */
+    private static int spread( int x )
+    {
+        int h = ( ( x >>> 16 ) ^ x ) * 0x45d9f3b;
+        h = ( ( h >>> 16 ) ^ h ) * 0x45d9f3b;
+
+        return ( h >>> 16 ) ^ h;
+    }
+}
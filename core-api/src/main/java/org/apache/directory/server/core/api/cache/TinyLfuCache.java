@@ -0,0 +1,754 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.api.cache;
+
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReentrantLock;
+
+
+/**
+ * A {@link DirectoryCache} implementing the W-TinyLFU policy :
+ * <ul>
+ *   <li>the new elements enter a small LRU window (1% of the maximum weight)</li>
+ *   <li>the elements evicted from the window are candidates for the main segment. When
+ *   the main segment is full, a candidate is only admitted if it has been used more
+ *   often than the element it would evict. The popularity of the keys is estimated by a
+ *   small {@link FrequencySketch}, which remembers the keys which are not in the cache
+ *   anymore.</li>
+ *   <li>the main segment is a segmented LRU : the admitted elements go into a probation
+ *   segment, and move to a protected segment (80% of the main segment) when they are used
+ *   again. The victims are taken from the probation segment.</li>
+ * </ul>
+ * The elements are stored in a ConcurrentHashMap, and the gets don't take any lock : the
+ * accesses are recorded in small lossy buffers, striped per thread. The buffers, and the
+ * additions and removals, are applied to the policy by the thread which wins a tryLock
+ * on the eviction lock, so that no thread ever waits for the policy maintenance. As a
+ * consequence, the cache may briefly contain more than its maximum weight.
+ *
+ * @param <K> The key type
+ * @param <V> The value type
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class TinyLfuCache<K, V> implements DirectoryCache<K, V>
+{
+    /** The percentage of the maximum weight given to the window */
+    private static final int WINDOW_PERCENT = 1;
+
+    /** The percentage of the main segment given to the protected segment */
+    private static final int PROTECTED_PERCENT = 80;
+
+    /** The number of accesses a read buffer can record before being drained. Must be a power of 2 */
+    private static final int READ_BUFFER_SIZE = 32;
+
+    /** The initial number of keys the frequency sketch is sized for */
+    private static final int INITIAL_SKETCH_CAPACITY = 256;
+
+    /** The number of read buffers : a power of 2 close to the number of processors */
+    private static final int NB_READ_BUFFERS = Integer.highestOneBit(
+        Math.max( 1, Math.min( 64, Runtime.getRuntime().availableProcessors() ) ) );
+
+    /** The segments an element can be in */
+    private enum Segment
+    {
+        WINDOW,
+        PROBATION,
+        PROTECTED
+    }
+
+    /** The elements */
+    private final ConcurrentHashMap<K, Node<K, V>> data = new ConcurrentHashMap<>();
+
+    /** The weigher, null if all the elements weigh 1 */
+    private final Weigher<? super K, ? super V> weigher;
+
+    /** The maximum weights */
+    private final long maximumWeight;
+    private final long windowMaximum;
+    private final long mainMaximum;
+    private final long protectedMaximum;
+
+    /** The lock protecting the policy structures. It's never waited for, except by clear() */
+    private final ReentrantLock evictionLock = new ReentrantLock();
+
+    /** The elements added or removed, not yet applied to the policy */
+    private final ConcurrentLinkedQueue<Node<K, V>> writeBuffer = new ConcurrentLinkedQueue<>();
+
+    /** The accesses not yet applied to the policy, and the hits and misses, per thread */
+    private final ReadBuffer<K, V>[] readBuffers;
+
+    /** The popularity of the keys. Guarded by the eviction lock */
+    private final FrequencySketch sketch = new FrequencySketch();
+
+    /** The segments, and their weights. Guarded by the eviction lock */
+    private final AccessOrderDeque<K, V> window = new AccessOrderDeque<>();
+    private final AccessOrderDeque<K, V> probation = new AccessOrderDeque<>();
+    private final AccessOrderDeque<K, V> protectedSegment = new AccessOrderDeque<>();
+    private long windowWeight;
+    private long mainWeight;
+    private long protectedWeight;
+
+    /** The total weight, as seen by the last policy maintenance */
+    private volatile long weightedSize;
+
+    /** The number of evictions. Only modified with the eviction lock held */
+    private volatile long evictionCount;
+
+
+    /**
+     * A cache element, which is also a node of one of the segments
+     */
+    private static final class Node<K, V>
+    {
+        private final K key;
+        private final V value;
+        private final int weight;
+
+        /** Set to false when the element is removed from the map */
+        private volatile boolean alive = true;
+
+        /** The segment the node is linked in, null if not linked. Guarded by the eviction lock */
+        private Segment segment;
+        private Node<K, V> previous;
+        private Node<K, V> next;
+
+
+        private Node( K key, V value, int weight )
+        {
+            this.key = key;
+            this.value = value;
+            this.weight = weight;
+        }
+    }
+
+
+    /**
+     * A doubly linked list of nodes, from the least recently used to the most recently used.
+     */
+    private static final class AccessOrderDeque<K, V>
+    {
+        private Node<K, V> first;
+        private Node<K, V> last;
+
+
+        private void addLast( Node<K, V> node )
+        {
+            node.previous = last;
+            node.next = null;
+
+            if ( last == null )
+            {
+                first = node;
+            }
+            else
+            {
+                last.next = node;
+            }
+
+            last = node;
+        }
+
+
+        private void remove( Node<K, V> node )
+        {
+            if ( node.previous == null )
+            {
+                first = node.next;
+            }
+            else
+            {
+                node.previous.next = node.next;
+            }
+
+            if ( node.next == null )
+            {
+                last = node.previous;
+            }
+            else
+            {
+                node.next.previous = node.previous;
+            }
+
+            node.previous = null;
+            node.next = null;
+        }
+
+
+        private void moveToLast( Node<K, V> node )
+        {
+            if ( node != last )
+            {
+                remove( node );
+                addLast( node );
+            }
+        }
+    }
+
+
+    /**
+     * A lossy ring buffer recording the accesses done by some threads. When it's full,
+     * the accesses are dropped until it's drained.
+     */
+    private static final class ReadBuffer<K, V>
+    {
+        private final AtomicReferenceArray<Node<K, V>> slots = new AtomicReferenceArray<>( READ_BUFFER_SIZE );
+        private final AtomicLong writeCount = new AtomicLong();
+
+        /** Only modified with the eviction lock held */
+        private volatile long readCount;
+
+        private final AtomicLong hits = new AtomicLong();
+        private final AtomicLong misses = new AtomicLong();
+
+
+        /**
+         * Records an access. Returns false if the buffer is full.
+         */
+        private boolean offer( Node<K, V> node )
+        {
+            long tail = writeCount.get();
+
+            if ( tail - readCount >= READ_BUFFER_SIZE )
+            {
+                return false;
+            }
+
+            if ( writeCount.compareAndSet( tail, tail + 1 ) )
+            {
+                slots.lazySet( ( int ) ( tail & ( READ_BUFFER_SIZE - 1 ) ), node );
+            }
+
+            // If we have lost the race, the access is dropped
+            return true;
+        }
+    }
+
+
+    /**
+     * Creates a new instance of TinyLfuCache, bounded by a number of elements
+     *
+     * @param maximumSize The maximum number of elements
+     */
+    public TinyLfuCache( long maximumSize )
+    {
+        this( maximumSize, null );
+    }
+
+
+    /**
+     * Creates a new instance of TinyLfuCache, bounded by the total weight of its elements
+     *
+     * @param maximumWeight The maximum total weight
+     * @param weigher The weigher computing the weight of the elements. If null, each element weighs 1
+     */
+    @SuppressWarnings("unchecked")
+    public TinyLfuCache( long maximumWeight, Weigher<? super K, ? super V> weigher )
+    {
+        if ( maximumWeight < 0L )
+        {
+            throw new IllegalArgumentException( "The maximum weight must not be negative : " + maximumWeight );
+        }
+
+        this.maximumWeight = maximumWeight;
+        this.weigher = weigher;
+        windowMaximum = Math.min( maximumWeight, Math.max( 1L, maximumWeight * WINDOW_PERCENT / 100L ) );
+        mainMaximum = maximumWeight - windowMaximum;
+        protectedMaximum = mainMaximum * PROTECTED_PERCENT / 100L;
+
+        readBuffers = ( ReadBuffer<K, V>[] ) new ReadBuffer[NB_READ_BUFFERS];
+
+        for ( int i = 0; i < NB_READ_BUFFERS; i++ )
+        {
+            readBuffers[i] = new ReadBuffer<>();
+        }
+
+        sketch.ensureCapacity( ( int ) Math.min( maximumWeight, INITIAL_SKETCH_CAPACITY ) );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public V get( K key )
+    {
+        Node<K, V> node = data.get( key );
+        ReadBuffer<K, V> readBuffer = readBuffers[( int ) Thread.currentThread().getId() & ( NB_READ_BUFFERS - 1 )];
+
+        if ( node == null )
+        {
+            readBuffer.misses.incrementAndGet();
+
+            return null;
+        }
+
+        readBuffer.hits.incrementAndGet();
+
+        if ( !readBuffer.offer( node ) )
+        {
+            tryMaintenance();
+        }
+
+        return node.value;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void put( K key, V value )
+    {
+        if ( value == null )
+        {
+            remove( key );
+
+            return;
+        }
+
+        int weight = ( weigher == null ) ? 1 : Math.max( 0, weigher.weigh( key, value ) );
+        Node<K, V> node = new Node<>( key, value, weight );
+        Node<K, V> previous = data.put( key, node );
+
+        if ( previous != null )
+        {
+            previous.alive = false;
+            writeBuffer.add( previous );
+        }
+
+        writeBuffer.add( node );
+        tryMaintenance();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void remove( K key )
+    {
+        Node<K, V> node = data.remove( key );
+
+        if ( node != null )
+        {
+            node.alive = false;
+            writeBuffer.add( node );
+            tryMaintenance();
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int removeAll( Selector<K, V> selector )
+    {
+        int removed = 0;
+
+        for ( Map.Entry<K, Node<K, V>> entry : data.entrySet() )
+        {
+            Node<K, V> node = entry.getValue();
+
+            if ( selector.select( entry.getKey(), node.value ) && data.remove( entry.getKey(), node ) )
+            {
+                node.alive = false;
+                writeBuffer.add( node );
+                removed++;
+            }
+        }
+
+        if ( removed > 0 )
+        {
+            tryMaintenance();
+        }
+
+        return removed;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void clear()
+    {
+        evictionLock.lock();
+
+        try
+        {
+            for ( Map.Entry<K, Node<K, V>> entry : data.entrySet() )
+            {
+                Node<K, V> node = entry.getValue();
+
+                if ( data.remove( entry.getKey(), node ) )
+                {
+                    node.alive = false;
+                    writeBuffer.add( node );
+                }
+            }
+
+            maintenance();
+        }
+        finally
+        {
+            evictionLock.unlock();
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int size()
+    {
+        return data.size();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getWeightedSize()
+    {
+        return weightedSize;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getMaximumWeight()
+    {
+        return maximumWeight;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getHitCount()
+    {
+        long hits = 0L;
+
+        for ( ReadBuffer<K, V> readBuffer : readBuffers )
+        {
+            hits += readBuffer.hits.get();
+        }
+
+        return hits;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getMissCount()
+    {
+        long misses = 0L;
+
+        for ( ReadBuffer<K, V> readBuffer : readBuffers )
+        {
+            misses += readBuffer.misses.get();
+        }
+
+        return misses;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getEvictionCount()
+    {
+        return evictionCount;
+    }
+
+
+    /**
+     * Applies the pending accesses, additions and removals to the policy, and evicts
+     * the elements in excess, unless another thread is already doing it. The lock owner
+     * can't see the additions done after it has drained the write buffer, so we loop
+     * until it's empty, or until another thread has taken the lock.
+     */
+    private void tryMaintenance()
+    {
+        while ( evictionLock.tryLock() )
+        {
+            try
+            {
+                maintenance();
+            }
+            finally
+            {
+                evictionLock.unlock();
+            }
+
+            if ( writeBuffer.isEmpty() )
+            {
+                return;
+            }
+        }
+    }
+
+
+    /**
+     * The policy maintenance. Must be called with the eviction lock held.
+     */
+    private void maintenance()
+    {
+        for ( ReadBuffer<K, V> readBuffer : readBuffers )
+        {
+            drainReadBuffer( readBuffer );
+        }
+
+        Node<K, V> node;
+
+        while ( ( node = writeBuffer.poll() ) != null )
+        {
+            if ( node.alive )
+            {
+                if ( node.segment == null )
+                {
+                    node.segment = Segment.WINDOW;
+                    window.addLast( node );
+                    windowWeight += node.weight;
+                    sketch.increment( node.key );
+                }
+            }
+            else if ( node.segment != null )
+            {
+                unlink( node );
+            }
+        }
+
+        if ( data.size() > sketch.capacity() )
+        {
+            sketch.ensureCapacity( data.size() );
+        }
+
+        evict();
+
+        weightedSize = windowWeight + mainWeight;
+    }
+
+
+    /**
+     * Applies the recorded accesses to the policy
+     */
+    private void drainReadBuffer( ReadBuffer<K, V> readBuffer )
+    {
+        long head = readBuffer.readCount;
+        long tail = readBuffer.writeCount.get();
+
+        for ( ; head < tail; head++ )
+        {
+            int index = ( int ) ( head & ( READ_BUFFER_SIZE - 1 ) );
+            Node<K, V> node = readBuffer.slots.get( index );
+
+            if ( node == null )
+            {
+                // Not yet published
+                break;
+            }
+
+            readBuffer.slots.lazySet( index, null );
+            onAccess( node );
+        }
+
+        readBuffer.readCount = head;
+    }
+
+
+    /**
+     * Updates the popularity and the position of an accessed element. An element
+     * accessed in the probation segment is promoted to the protected segment.
+     */
+    private void onAccess( Node<K, V> node )
+    {
+        sketch.increment( node.key );
+
+        if ( !node.alive || ( node.segment == null ) )
+        {
+            return;
+        }
+
+        switch ( node.segment )
+        {
+            case WINDOW:
+                window.moveToLast( node );
+                break;
+
+            case PROBATION:
+                probation.remove( node );
+                node.segment = Segment.PROTECTED;
+                protectedSegment.addLast( node );
+                protectedWeight += node.weight;
+
+                // Demote the least recently used protected elements if needed
+                while ( ( protectedWeight > protectedMaximum ) && ( protectedSegment.first != null ) )
+                {
+                    Node<K, V> demoted = protectedSegment.first;
+                    protectedSegment.remove( demoted );
+                    protectedWeight -= demoted.weight;
+                    demoted.segment = Segment.PROBATION;
+                    probation.addLast( demoted );
+                }
+
+                break;
+
+            case PROTECTED:
+                protectedSegment.moveToLast( node );
+                break;
+
+            default:
+                break;
+        }
+    }
+
+
+    /**
+     * Moves the window overflow to the main segment, evicting either the candidates or
+     * the main segment victims, depending on their popularity
+     */
+    private void evict()
+    {
+        while ( ( windowWeight > windowMaximum ) && ( window.first != null ) )
+        {
+            Node<K, V> candidate = window.first;
+            unlink( candidate );
+            admit( candidate );
+        }
+    }
+
+
+    /**
+     * Admits a candidate into the probation segment, if it's more popular than the
+     * elements it would evict.
+     */
+    private void admit( Node<K, V> candidate )
+    {
+        if ( candidate.weight > mainMaximum )
+        {
+            evict( candidate );
+
+            return;
+        }
+
+        int candidateFrequency = -1;
+
+        while ( mainWeight + candidate.weight > mainMaximum )
+        {
+            Node<K, V> victim = ( probation.first != null ) ? probation.first : protectedSegment.first;
+
+            if ( victim == null )
+            {
+                break;
+            }
+
+            if ( candidateFrequency < 0 )
+            {
+                candidateFrequency = sketch.frequency( candidate.key );
+            }
+
+            if ( candidateFrequency > sketch.frequency( victim.key ) )
+            {
+                unlink( victim );
+                evict( victim );
+            }
+            else
+            {
+                evict( candidate );
+
+                return;
+            }
+        }
+
+        candidate.segment = Segment.PROBATION;
+        probation.addLast( candidate );
+        mainWeight += candidate.weight;
+    }
+
+
+    /**
+     * Removes an unlinked node from the map
+     */
+    private void evict( Node<K, V> node )
+    {
+        node.alive = false;
+
+        if ( data.remove( node.key, node ) )
+        {
+            evictionCount++;
+        }
+    }
+
+
+    /**
+     * Unlinks a node from its segment
+     */
+    private void unlink( Node<K, V> node )
+    {
+        switch ( node.segment )
+        {
+            case WINDOW:
+                window.remove( node );
+                windowWeight -= node.weight;
+                break;
+
+            case PROBATION:
+                probation.remove( node );
+                mainWeight -= node.weight;
+                break;
+
+            case PROTECTED:
+                protectedSegment.remove( node );
+                mainWeight -= node.weight;
+                protectedWeight -= node.weight;
+                break;
+
+            default:
+                break;
+        }
+
+        node.segment = null;
+    }
+
+
+    /**
+     * @see Object#toString()
+     */
+    @Override
+    public String toString()
+    {
+        return "TinyLfuCache[size=" + size() + ", weight=" + weightedSize + "/" + maximumWeight + ", hits="
+            + getHitCount() + ", misses=" + getMissCount() + ", evictions=" + evictionCount + "]";
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.api.cache;
+
+
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.api.ldap.model.name.Rdn;
+
+
+/**
+ * Some helper methods estimating the memory used by the objects we store in the caches.
+ * These are rough estimations, made for a 64 bits JVM with compressed references.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public final class Weighers
+{
+    /** The overhead of a cache element : the map entry and the cache node */
+    public static final int ELEMENT_OVERHEAD = 80;
+
+    /** The overhead of a String, without its characters */
+    private static final int STRING_OVERHEAD = 40;
+
+    /** The overhead of a Rdn, without its name and its AVAs */
+    private static final int RDN_OVERHEAD = 48;
+
+    /** The overhead of an AVA, without its values */
+    private static final int AVA_OVERHEAD = 120;
+
+    /** The overhead of a Dn, without its names and its RDNs */
+    private static final int DN_OVERHEAD = 64;
+
+    /** A weigher for the String to Dn caches */
+    public static final Weigher<String, Dn> STRING_TO_DN = new Weigher<String, Dn>()
+    {
+        @Override
+        public int weigh( String key, Dn value )
+        {
+            return ELEMENT_OVERHEAD + sizeOf( key ) + sizeOf( value );
+        }
+    };
+
+
+    private Weighers()
+    {
+    }
+
+
+    /**
+     * Estimates the memory used by a String
+     *
+     * @param string The String
+     * @return The estimated size, in bytes
+     */
+    public static int sizeOf( String string )
+    {
+        if ( string == null )
+        {
+            return 0;
+        }
+
+        return STRING_OVERHEAD + 2 * string.length();
+    }
+
+
+    /**
+     * Estimates the memory used by a Rdn
+     *
+     * @param rdn The Rdn
+     * @return The estimated size, in bytes
+     */
+    public static int sizeOf( Rdn rdn )
+    {
+        if ( rdn == null )
+        {
+            return 0;
+        }
+
+        // The user provided and normalized names, plus the AVAs, holding the
+        // type and the value in both forms
+        return RDN_OVERHEAD + rdn.size() * AVA_OVERHEAD + 3 * ( sizeOf( rdn.getName() ) + sizeOf( rdn.getNormName() ) );
+    }
+
+
+    /**
+     * Estimates the memory used by a Dn
+     *
+     * @param dn The Dn
+     * @return The estimated size, in bytes
+     */
+    public static int sizeOf( Dn dn )
+    {
+        if ( dn == null )
+        {
+            return 0;
+        }
+
+        int size = DN_OVERHEAD + sizeOf( dn.getName() ) + sizeOf( dn.getNormName() );
+
+        for ( Rdn rdn : dn.getRdns() )
+        {
+            size += sizeOf( rdn );
+        }
+
+        return size;
+    }
+}
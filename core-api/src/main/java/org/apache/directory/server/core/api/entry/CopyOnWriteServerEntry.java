@@ -0,0 +1,510 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.api.entry;
+
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.directory.api.ldap.model.entry.Attribute;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.entry.Value;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.api.ldap.model.schema.AttributeType;
+
+
+/**
+ * A {@link ClonedServerEntry} which does not copy the original entry's attributes upfront :
+ * the original entry, typically an entry stored in a partition cache, is never modified, and
+ * its attributes are shared until they are modified. An attribute is copied the first time
+ * it is :
+ * <ul>
+ *   <li>returned by one of the <code>get</code> methods, as the caller may modify it</li>
+ *   <li>modified by one of the <code>add</code> or <code>remove</code> methods which modify
+ *   the values of an existing attribute</li>
+ * </ul>
+ * The attributes put in the entry, and the values added to missing attributes, are owned
+ * by the entry and are never copied. {@link #getClonedEntry()} copies all the shared
+ * attributes, as the returned entry may be modified directly.
+ * <br>
+ * The attributes returned by the iterator and by {@link #getAttributes()} may be shared :
+ * they must not be modified. Use the <code>get</code> methods to get a modifiable attribute.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class CopyOnWriteServerEntry extends ClonedServerEntry
+{
+    /** The attributes which belong to this entry, and are not shared with the original entry */
+    private Set<Attribute> ownedAttributes;
+
+    /** Tells if all the attributes have been copied */
+    private boolean materialized;
+
+
+    /**
+     * Creates a new instance of CopyOnWriteServerEntry. Only the original entry's attribute
+     * map is copied.
+     *
+     * @param originalEntry The original entry, which won't be modified
+     */
+    public CopyOnWriteServerEntry( Entry originalEntry )
+    {
+        super();
+        this.originalEntry = originalEntry;
+        this.clonedEntry = originalEntry.shallowClone();
+    }
+
+
+    /**
+     * Replaces a shared attribute by a copy, unless it's already owned by this entry
+     *
+     * @param attribute The attribute, which may be null
+     * @return The owned attribute
+     */
+    private Attribute own( Attribute attribute )
+    {
+        if ( ( attribute == null ) || materialized )
+        {
+            return attribute;
+        }
+
+        if ( ownedAttributes == null )
+        {
+            ownedAttributes = Collections.newSetFromMap( new IdentityHashMap<Attribute, Boolean>( 4 ) );
+        }
+        else if ( ownedAttributes.contains( attribute ) )
+        {
+            return attribute;
+        }
+
+        Attribute copy = attribute.clone();
+
+        try
+        {
+            clonedEntry.put( copy );
+        }
+        catch ( LdapException le )
+        {
+            // Can't happen, the attribute is already in the entry
+            throw new IllegalStateException( le.getMessage(), le );
+        }
+
+        ownedAttributes.add( copy );
+
+        return copy;
+    }
+
+
+    /**
+     * Records that some attributes have been created by this entry, or given to it
+     */
+    private void setOwned( Attribute... attributes )
+    {
+        if ( materialized )
+        {
+            return;
+        }
+
+        if ( ownedAttributes == null )
+        {
+            ownedAttributes = Collections.newSetFromMap( new IdentityHashMap<Attribute, Boolean>( 4 ) );
+        }
+
+        for ( Attribute attribute : attributes )
+        {
+            if ( attribute != null )
+            {
+                ownedAttributes.add( attribute );
+            }
+        }
+    }
+
+
+    /**
+     * Copies the existing attribute before its values are modified, and returns
+     * <code>true</code> if it did not exist.
+     */
+    private boolean ownBeforeUpdate( AttributeType attributeType )
+    {
+        Attribute attribute = clonedEntry.get( attributeType );
+        own( attribute );
+
+        return attribute == null;
+    }
+
+
+    /**
+     * Copies the existing attribute before its values are modified, and returns
+     * <code>true</code> if it did not exist.
+     */
+    private boolean ownBeforeUpdate( String upId )
+    {
+        Attribute attribute = clonedEntry.get( upId );
+        own( attribute );
+
+        return attribute == null;
+    }
+
+
+    /**
+     * @return <code>true</code> if all the attributes have been copied
+     */
+    public boolean isMaterialized()
+    {
+        return materialized;
+    }
+
+
+    /**
+     * Copies all the shared attributes : the returned entry can be modified directly.
+     *
+     * @return the cloned Entry
+     */
+    @Override
+    public Entry getClonedEntry()
+    {
+        if ( !materialized )
+        {
+            for ( Attribute attribute : new ArrayList<Attribute>( clonedEntry.getAttributes() ) )
+            {
+                own( attribute );
+            }
+
+            materialized = true;
+            ownedAttributes = null;
+        }
+
+        return clonedEntry;
+    }
+
+
+    @Override
+    public Entry add( AttributeType attributeType, byte[]... values ) throws LdapException
+    {
+        boolean created = ownBeforeUpdate( attributeType );
+        Entry result = clonedEntry.add( attributeType, values );
+
+        if ( created )
+        {
+            setOwned( clonedEntry.get( attributeType ) );
+        }
+
+        return result;
+    }
+
+
+    @Override
+    public Entry add( AttributeType attributeType, String... values ) throws LdapException
+    {
+        boolean created = ownBeforeUpdate( attributeType );
+        Entry result = clonedEntry.add( attributeType, values );
+
+        if ( created )
+        {
+            setOwned( clonedEntry.get( attributeType ) );
+        }
+
+        return result;
+    }
+
+
+    @Override
+    public Entry add( AttributeType attributeType, Value... values ) throws LdapException
+    {
+        boolean created = ownBeforeUpdate( attributeType );
+        Entry result = clonedEntry.add( attributeType, values );
+
+        if ( created )
+        {
+            setOwned( clonedEntry.get( attributeType ) );
+        }
+
+        return result;
+    }
+
+
+    @Override
+    public Entry add( String upId, AttributeType attributeType, byte[]... values ) throws LdapException
+    {
+        return add( attributeType, values );
+    }
+
+
+    @Override
+    public Entry add( String upId, AttributeType attributeType, String... values ) throws LdapException
+    {
+        return add( attributeType, values );
+    }
+
+
+    @Override
+    public Entry add( String upId, AttributeType attributeType, Value... values ) throws LdapException
+    {
+        return add( attributeType, values );
+    }
+
+
+    @Override
+    public Entry add( Attribute... attributes ) throws LdapException
+    {
+        for ( Attribute attribute : attributes )
+        {
+            if ( attribute.getAttributeType() != null )
+            {
+                ownBeforeUpdate( attribute.getAttributeType() );
+            }
+            else
+            {
+                ownBeforeUpdate( attribute.getUpId() );
+            }
+        }
+
+        Entry result = clonedEntry.add( attributes );
+        setOwned( attributes );
+
+        return result;
+    }
+
+
+    @Override
+    public Entry add( String upId, String... values ) throws LdapException
+    {
+        boolean created = ownBeforeUpdate( upId );
+        Entry result = clonedEntry.add( upId, values );
+
+        if ( created )
+        {
+            setOwned( clonedEntry.get( upId ) );
+        }
+
+        return result;
+    }
+
+
+    @Override
+    public Entry add( String upId, byte[]... values ) throws LdapException
+    {
+        boolean created = ownBeforeUpdate( upId );
+        Entry result = clonedEntry.add( upId, values );
+
+        if ( created )
+        {
+            setOwned( clonedEntry.get( upId ) );
+        }
+
+        return result;
+    }
+
+
+    @Override
+    public Entry add( String upId, Value... values ) throws LdapException
+    {
+        boolean created = ownBeforeUpdate( upId );
+        Entry result = clonedEntry.add( upId, values );
+
+        if ( created )
+        {
+            setOwned( clonedEntry.get( upId ) );
+        }
+
+        return result;
+    }
+
+
+    @Override
+    public Attribute get( AttributeType attributeType )
+    {
+        return own( clonedEntry.get( attributeType ) );
+    }
+
+
+    @Override
+    public Attribute get( String alias )
+    {
+        return own( clonedEntry.get( alias ) );
+    }
+
+
+    /**
+     * Gets an attribute without copying it : the returned attribute may be shared with
+     * the original entry, and must not be modified.
+     *
+     * @param attributeType The attribute's AttributeType
+     * @return The attribute, or null if the entry does not have it
+     */
+    public Attribute getReadOnly( AttributeType attributeType )
+    {
+        return clonedEntry.get( attributeType );
+    }
+
+
+    @Override
+    public Attribute put( AttributeType attributeType, byte[]... values ) throws LdapException
+    {
+        Attribute replaced = clonedEntry.put( attributeType, values );
+        setOwned( clonedEntry.get( attributeType ) );
+
+        return replaced;
+    }
+
+
+    @Override
+    public Attribute put( AttributeType attributeType, String... values ) throws LdapException
+    {
+        Attribute replaced = clonedEntry.put( attributeType, values );
+        setOwned( clonedEntry.get( attributeType ) );
+
+        return replaced;
+    }
+
+
+    @Override
+    public Attribute put( AttributeType attributeType, Value... values ) throws LdapException
+    {
+        Attribute replaced = clonedEntry.put( attributeType, values );
+        setOwned( clonedEntry.get( attributeType ) );
+
+        return replaced;
+    }
+
+
+    @Override
+    public Attribute put( String upId, AttributeType attributeType, byte[]... values ) throws LdapException
+    {
+        return put( attributeType, values );
+    }
+
+
+    @Override
+    public Attribute put( String upId, AttributeType attributeType, String... values ) throws LdapException
+    {
+        Attribute replaced = clonedEntry.put( upId, attributeType, values );
+        setOwned( clonedEntry.get( attributeType ) );
+
+        return replaced;
+    }
+
+
+    @Override
+    public Attribute put( String upId, AttributeType attributeType, Value... values ) throws LdapException
+    {
+        Attribute replaced = clonedEntry.put( upId, attributeType, values );
+        setOwned( clonedEntry.get( attributeType ) );
+
+        return replaced;
+    }
+
+
+    @Override
+    public List<Attribute> put( Attribute... attributes ) throws LdapException
+    {
+        List<Attribute> replaced = clonedEntry.put( attributes );
+        setOwned( attributes );
+
+        return replaced;
+    }
+
+
+    @Override
+    public Attribute put( String upId, byte[]... values )
+    {
+        Attribute replaced = clonedEntry.put( upId, values );
+        setOwned( clonedEntry.get( upId ) );
+
+        return replaced;
+    }
+
+
+    @Override
+    public Attribute put( String upId, String... values )
+    {
+        Attribute replaced = clonedEntry.put( upId, values );
+        setOwned( clonedEntry.get( upId ) );
+
+        return replaced;
+    }
+
+
+    @Override
+    public Attribute put( String upId, Value... values )
+    {
+        Attribute replaced = clonedEntry.put( upId, values );
+        setOwned( clonedEntry.get( upId ) );
+
+        return replaced;
+    }
+
+
+    @Override
+    public boolean remove( AttributeType attributeType, byte[]... values ) throws LdapException
+    {
+        ownBeforeUpdate( attributeType );
+
+        return clonedEntry.remove( attributeType, values );
+    }
+
+
+    @Override
+    public boolean remove( AttributeType attributeType, String... values ) throws LdapException
+    {
+        ownBeforeUpdate( attributeType );
+
+        return clonedEntry.remove( attributeType, values );
+    }
+
+
+    @Override
+    public boolean remove( AttributeType attributeType, Value... values ) throws LdapException
+    {
+        ownBeforeUpdate( attributeType );
+
+        return clonedEntry.remove( attributeType, values );
+    }
+
+
+    @Override
+    public boolean remove( String upId, byte[]... values ) throws LdapException
+    {
+        ownBeforeUpdate( upId );
+
+        return clonedEntry.remove( upId, values );
+    }
+
+
+    @Override
+    public boolean remove( String upId, String... values ) throws LdapException
+    {
+        ownBeforeUpdate( upId );
+
+        return clonedEntry.remove( upId, values );
+    }
+
+
+    @Override
+    public boolean remove( String upId, Value... values ) throws LdapException
+    {
+        ownBeforeUpdate( upId );
+
+        return clonedEntry.remove( upId, values );
+    }
+}
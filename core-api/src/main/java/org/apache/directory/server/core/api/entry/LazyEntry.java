@@ -0,0 +1,1259 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.api.entry;
+
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.NotSerializableException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.apache.directory.api.ldap.model.constants.SchemaConstants;
+import org.apache.directory.api.ldap.model.entry.Attribute;
+import org.apache.directory.api.ldap.model.entry.DefaultAttribute;
+import org.apache.directory.api.ldap.model.entry.DefaultEntry;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.entry.Value;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.api.ldap.model.exception.LdapInvalidDnException;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.api.ldap.model.name.Rdn;
+import org.apache.directory.api.ldap.model.schema.AttributeType;
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.server.i18n.I18n;
+
+
+/**
+ * An Entry read from a partition, which attributes are only decoded when they are accessed.
+ * The entry is stored with an offset table, so that an attribute can be decoded without
+ * decoding the attributes stored before it. A filter evaluated on a single attribute, or a
+ * search returning only a few attributes, does not decode the other attributes of the entry.
+ * <br>
+ * An attribute is decoded once : all the shallow clones of an entry share the decoded
+ * attributes. Reading the entry never modifies it, so an entry stored in a cache can be read
+ * concurrently, like a DefaultEntry. The attributes returned by the <code>get</code> methods
+ * are the entry's attributes : modifying them modifies the entry, and its shallow clones.
+ * <br>
+ * The serialized form is the following :
+ * <ul>
+ *   <li><b>[a byte]</b> : the format version. The ObjectOutputStream based format starts with
+ *   0xAC</li>
+ *   <li><b>[a byte]</b> : if the Dn is empty 0 will be written else 1</li>
+ *   <li><b>[Rdn]</b> : The entry's Rdn, if the Dn is not empty</li>
+ *   <li><b>[numberAttr]</b> : the number of attributes. Can be 0</li>
+ *   <li>For each Attribute, the offset table :
+ *     <ul>
+ *       <li><b>[attribute's oid]</b> : The attribute's OID to get back
+ *       the attributeType on deserialization</li>
+ *       <li><b>[length]</b> The length of the serialized attribute</li>
+ *     </ul>
+ *   </li>
+ *   <li>The serialized attributes, in the offset table order</li>
+ * </ul>
+ * The Rdn and the attributes are written with their <code>writeExternal</code> method, which
+ * only writes primitive types.
+ * <br><br>
+ * <b>This class must *not* be used outside of the server.</b>
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class LazyEntry implements Entry
+{
+    /** The version of the serialized form */
+    private static final byte FORMAT_VERSION = 1;
+
+    /** The attributes, and their serialized form, shared by the shallow clones */
+    private final SerializedAttributes serialized;
+
+    /** The attributes which have been read from the serialized form, or modified */
+    private final Entry entry;
+
+    /** The serialized attributes which are still part of this entry, and not in the entry above */
+    private final BitSet pending;
+
+
+    /**
+     * The serialized attributes of an entry, and the decoded attributes
+     */
+    private static final class SerializedAttributes
+    {
+        /** The SchemaManager */
+        private final SchemaManager schemaManager;
+
+        /** The AttributeTypes of the serialized attributes */
+        private final AttributeType[] attributeTypes;
+
+        /** The position of the serialized attributes, per AttributeType OID */
+        private final Map<String, Integer> indexes;
+
+        /** The serialized attributes' offset in the buffer */
+        private final int[] offsets;
+
+        /** The serialized attributes' length */
+        private final int[] lengths;
+
+        /** The decoded attributes */
+        private final AtomicReferenceArray<Attribute> decoded;
+
+        /** The number of attributes which have not been decoded */
+        private final AtomicInteger remaining;
+
+        /** The serialized attributes, released once they have all been decoded */
+        private volatile byte[] buffer;
+
+
+        private SerializedAttributes( SchemaManager schemaManager, AttributeType[] attributeTypes, int[] offsets,
+            int[] lengths, byte[] buffer )
+        {
+            this.schemaManager = schemaManager;
+            this.attributeTypes = attributeTypes;
+            this.offsets = offsets;
+            this.lengths = lengths;
+            this.buffer = buffer;
+            decoded = new AtomicReferenceArray<>( attributeTypes.length );
+            remaining = new AtomicInteger( attributeTypes.length );
+            indexes = new HashMap<>( attributeTypes.length * 2 );
+
+            for ( int i = 0; i < attributeTypes.length; i++ )
+            {
+                indexes.put( attributeTypes[i].getOid(), i );
+            }
+        }
+
+
+        /**
+         * Gets an attribute, decoding it if it's the first time it's read
+         */
+        private Attribute get( int index )
+        {
+            Attribute attribute = decoded.get( index );
+
+            if ( attribute != null )
+            {
+                return attribute;
+            }
+
+            byte[] bytes = buffer;
+
+            if ( bytes == null )
+            {
+                // All the attributes have been decoded meanwhile
+                return decoded.get( index );
+            }
+
+            attribute = new DefaultAttribute( attributeTypes[index] );
+
+            try ( DataObjectInput in = new DataObjectInput(
+                new ByteArrayInputStream( bytes, offsets[index], lengths[index] ) ) )
+            {
+                attribute.readExternal( in );
+            }
+            catch ( IOException | ClassNotFoundException e )
+            {
+                throw new IllegalStateException( I18n.err( I18n.ERR_134, e.getLocalizedMessage() ), e );
+            }
+
+            if ( decoded.compareAndSet( index, null, attribute ) )
+            {
+                if ( remaining.decrementAndGet() == 0 )
+                {
+                    buffer = null;
+                }
+
+                return attribute;
+            }
+
+            // Another thread has decoded it first
+            return decoded.get( index );
+        }
+    }
+
+
+    /**
+     * An ObjectOutput which only writes the primitive types, without the stream headers
+     * and the block data markers an ObjectOutputStream adds.
+     */
+    private static final class DataObjectOutput extends DataOutputStream implements ObjectOutput
+    {
+        private DataObjectOutput( OutputStream out )
+        {
+            super( out );
+        }
+
+
+        @Override
+        public void writeObject( Object obj ) throws IOException
+        {
+            throw new NotSerializableException( obj == null ? "null" : obj.getClass().getName() );
+        }
+    }
+
+
+    /**
+     * An ObjectInput reading what the DataObjectOutput has written.
+     */
+    private static final class DataObjectInput extends DataInputStream implements ObjectInput
+    {
+        private DataObjectInput( InputStream in )
+        {
+            super( in );
+        }
+
+
+        @Override
+        public Object readObject() throws ClassNotFoundException, IOException
+        {
+            throw new NotSerializableException();
+        }
+    }
+
+
+    /**
+     * Creates a LazyEntry sharing the serialized attributes of another entry
+     */
+    private LazyEntry( SerializedAttributes serialized, Entry entry, BitSet pending )
+    {
+        this.serialized = serialized;
+        this.entry = entry;
+        this.pending = pending;
+    }
+
+
+    /**
+     * Tells if some bytes contain an entry serialized by {@link #serialize(Entry)}
+     *
+     * @param buffer The buffer containing the serialized entry
+     * @param offset The position of the serialized entry in the buffer
+     * @param length The length of the serialized entry
+     * @return <code>true</code> if the entry can be read by {@link #deserialize(SchemaManager, byte[], int, int)}
+     */
+    public static boolean isLazyFormat( byte[] buffer, int offset, int length )
+    {
+        return ( length > 0 ) && ( buffer[offset] == FORMAT_VERSION );
+    }
+
+
+    /**
+     * Serializes an entry, with an offset table so that the attributes can be read
+     * separately. As for the other entry serializations used by the partitions, only the
+     * entry's Rdn is stored.
+     *
+     * @param entry The entry to serialize
+     * @return The serialized entry
+     * @throws IOException If the entry can't be serialized
+     */
+    public static byte[] serialize( Entry entry ) throws IOException
+    {
+        Collection<Attribute> attributes = entry.getAttributes();
+        ByteArrayOutputStream attributesBytes = new ByteArrayOutputStream();
+        DataObjectOutput attributesOut = new DataObjectOutput( attributesBytes );
+        String[] oids = new String[attributes.size()];
+        int[] lengths = new int[attributes.size()];
+        int i = 0;
+
+        // First, the attributes, to compute the offset table
+        for ( Attribute attribute : attributes )
+        {
+            int start = attributesOut.size();
+
+            oids[i] = attribute.getAttributeType().getOid();
+            attribute.writeExternal( attributesOut );
+            lengths[i] = attributesOut.size() - start;
+            i++;
+        }
+
+        attributesOut.flush();
+
+        ByteArrayOutputStream baos = new ByteArrayOutputStream( attributesBytes.size() + 64 + 32 * oids.length );
+        DataObjectOutput out = new DataObjectOutput( baos );
+
+        out.writeByte( FORMAT_VERSION );
+
+        // The Rdn of the Dn
+        Dn dn = entry.getDn();
+
+        if ( dn.isEmpty() )
+        {
+            out.writeByte( 0 );
+        }
+        else
+        {
+            out.writeByte( 1 );
+            Rdn rdn = dn.getRdn();
+            rdn.writeExternal( out );
+        }
+
+        // The offset table
+        out.writeInt( oids.length );
+
+        for ( i = 0; i < oids.length; i++ )
+        {
+            out.writeUTF( oids[i] );
+            out.writeInt( lengths[i] );
+        }
+
+        out.flush();
+
+        // Then the attributes
+        attributesBytes.writeTo( baos );
+
+        return baos.toByteArray();
+    }
+
+
+    /**
+     * Reads an entry serialized by {@link #serialize(Entry)}. Only the Dn and the offset table
+     * are read : the attributes are read when they are accessed.
+     *
+     * @param schemaManager The SchemaManager
+     * @param buffer The buffer containing the serialized entry
+     * @param offset The position of the serialized entry in the buffer
+     * @param length The length of the serialized entry
+     * @return The entry
+     * @throws IOException If the entry can't be read
+     */
+    public static LazyEntry deserialize( SchemaManager schemaManager, byte[] buffer, int offset, int length )
+        throws IOException
+    {
+        try ( DataObjectInput in = new DataObjectInput( new ByteArrayInputStream( buffer, offset, length ) ) )
+        {
+            byte version = in.readByte();
+
+            if ( version != FORMAT_VERSION )
+            {
+                throw new IOException( I18n.err( I18n.ERR_134, "unknown format version " + version ) );
+            }
+
+            Entry entry = new DefaultEntry( schemaManager );
+
+            // Read the Dn, if any
+            byte hasDn = in.readByte();
+
+            if ( hasDn == 1 )
+            {
+                Rdn rdn = new Rdn( schemaManager );
+                rdn.readExternal( in );
+
+                try
+                {
+                    entry.setDn( new Dn( schemaManager, rdn ) );
+                }
+                catch ( LdapInvalidDnException lide )
+                {
+                    throw new IOException( lide.getMessage(), lide );
+                }
+            }
+            else
+            {
+                entry.setDn( Dn.EMPTY_DN );
+            }
+
+            // Read the offset table
+            int nbAttributes = in.readInt();
+            AttributeType[] attributeTypes = new AttributeType[nbAttributes];
+            int[] offsets = new int[nbAttributes];
+            int[] lengths = new int[nbAttributes];
+            int attributesLength = 0;
+
+            for ( int i = 0; i < nbAttributes; i++ )
+            {
+                String oid = in.readUTF();
+
+                try
+                {
+                    attributeTypes[i] = schemaManager.lookupAttributeTypeRegistry( oid );
+                }
+                catch ( LdapException le )
+                {
+                    throw new IOException( I18n.err( I18n.ERR_134, le.getLocalizedMessage() ), le );
+                }
+
+                offsets[i] = attributesLength;
+                lengths[i] = in.readInt();
+                attributesLength += lengths[i];
+            }
+
+            // The attributes are at the end of the buffer. They are copied, as the
+            // buffer may be reused by the storage
+            int attributesStart = offset + length - attributesLength;
+
+            if ( ( attributesLength < 0 ) || ( attributesStart < offset ) )
+            {
+                throw new IOException( I18n.err( I18n.ERR_134, "invalid offset table" ) );
+            }
+
+            byte[] attributesBytes = Arrays.copyOfRange( buffer, attributesStart, offset + length );
+            SerializedAttributes serialized = new SerializedAttributes( schemaManager, attributeTypes, offsets,
+                lengths, attributesBytes );
+            BitSet pending = new BitSet( nbAttributes );
+            pending.set( 0, nbAttributes );
+
+            return new LazyEntry( serialized, entry, pending );
+        }
+        catch ( ClassNotFoundException cnfe )
+        {
+            throw new IOException( I18n.err( I18n.ERR_134, cnfe.getLocalizedMessage() ), cnfe );
+        }
+    }
+
+
+    /**
+     * @return The number of attributes of this entry which have not been decoded yet
+     */
+    public int getPendingCount()
+    {
+        int count = 0;
+
+        for ( int i = pending.nextSetBit( 0 ); i >= 0; i = pending.nextSetBit( i + 1 ) )
+        {
+            if ( serialized.decoded.get( i ) == null )
+            {
+                count++;
+            }
+        }
+
+        return count;
+    }
+
+
+    /**
+     * Gets the AttributeTypes of the entry's attributes, without decoding them.
+     *
+     * @return The AttributeTypes of the entry's attributes
+     */
+    public List<AttributeType> getAttributeTypes()
+    {
+        List<AttributeType> attributeTypes = new ArrayList<>( size() );
+
+        for ( Attribute attribute : entry )
+        {
+            attributeTypes.add( attribute.getAttributeType() );
+        }
+
+        for ( int i = pending.nextSetBit( 0 ); i >= 0; i = pending.nextSetBit( i + 1 ) )
+        {
+            attributeTypes.add( serialized.attributeTypes[i] );
+        }
+
+        return attributeTypes;
+    }
+
+
+    /**
+     * @return The index of a serialized attribute which is still part of this entry, or -1
+     */
+    private int indexOf( AttributeType attributeType )
+    {
+        if ( ( attributeType == null ) || pending.isEmpty() )
+        {
+            return -1;
+        }
+
+        Integer index = serialized.indexes.get( attributeType.getOid() );
+
+        if ( ( index != null ) && pending.get( index ) )
+        {
+            return index;
+        }
+
+        return -1;
+    }
+
+
+    /**
+     * @return The index of a serialized attribute which is still part of this entry, or -1
+     */
+    private int indexOf( String upId )
+    {
+        if ( ( upId == null ) || pending.isEmpty() )
+        {
+            return -1;
+        }
+
+        return indexOf( serialized.schemaManager.getAttributeType( upId.trim() ) );
+    }
+
+
+    /**
+     * Moves a serialized attribute to the entry, before it's modified
+     */
+    private void pull( int index ) throws LdapException
+    {
+        if ( index >= 0 )
+        {
+            entry.put( serialized.get( index ) );
+            pending.clear( index );
+        }
+    }
+
+
+    /**
+     * Removes a serialized attribute from this entry
+     *
+     * @return The removed attribute, or null
+     */
+    private Attribute forget( int index )
+    {
+        if ( index >= 0 )
+        {
+            Attribute attribute = serialized.get( index );
+            pending.clear( index );
+
+            return attribute;
+        }
+
+        return null;
+    }
+
+
+    /**
+     * @return The entry containing the attributes, and the serialized attributes of the given indexes
+     */
+    private Entry select( int... indexes )
+    {
+        Entry selected = null;
+
+        for ( int index : indexes )
+        {
+            if ( index >= 0 )
+            {
+                if ( selected == null )
+                {
+                    selected = entry.shallowClone();
+                }
+
+                try
+                {
+                    selected.put( serialized.get( index ) );
+                }
+                catch ( LdapException le )
+                {
+                    // Can't happen, the attribute has an AttributeType
+                    throw new IllegalStateException( le.getMessage(), le );
+                }
+            }
+        }
+
+        return selected == null ? entry : selected;
+    }
+
+
+    /**
+     * @return An entry containing all the attributes
+     */
+    private Entry materialize()
+    {
+        int[] indexes = new int[pending.cardinality()];
+        int pos = 0;
+
+        for ( int i = pending.nextSetBit( 0 ); i >= 0; i = pending.nextSetBit( i + 1 ) )
+        {
+            indexes[pos++] = i;
+        }
+
+        return select( indexes );
+    }
+
+
+    @Override
+    public Entry add( AttributeType attributeType, byte[]... values ) throws LdapException
+    {
+        pull( indexOf( attributeType ) );
+        entry.add( attributeType, values );
+
+        return this;
+    }
+
+
+    @Override
+    public Entry add( AttributeType attributeType, String... values ) throws LdapException
+    {
+        pull( indexOf( attributeType ) );
+        entry.add( attributeType, values );
+
+        return this;
+    }
+
+
+    @Override
+    public Entry add( AttributeType attributeType, Value... values ) throws LdapException
+    {
+        pull( indexOf( attributeType ) );
+        entry.add( attributeType, values );
+
+        return this;
+    }
+
+
+    @Override
+    public Entry add( String upId, AttributeType attributeType, byte[]... values ) throws LdapException
+    {
+        pull( indexOf( attributeType ) );
+        entry.add( upId, attributeType, values );
+
+        return this;
+    }
+
+
+    @Override
+    public Entry add( String upId, AttributeType attributeType, String... values ) throws LdapException
+    {
+        pull( indexOf( attributeType ) );
+        entry.add( upId, attributeType, values );
+
+        return this;
+    }
+
+
+    @Override
+    public Entry add( String upId, AttributeType attributeType, Value... values ) throws LdapException
+    {
+        pull( indexOf( attributeType ) );
+        entry.add( upId, attributeType, values );
+
+        return this;
+    }
+
+
+    @Override
+    public Entry add( Attribute... attributes ) throws LdapException
+    {
+        for ( Attribute attribute : attributes )
+        {
+            if ( attribute.getAttributeType() != null )
+            {
+                pull( indexOf( attribute.getAttributeType() ) );
+            }
+            else
+            {
+                pull( indexOf( attribute.getUpId() ) );
+            }
+        }
+
+        entry.add( attributes );
+
+        return this;
+    }
+
+
+    @Override
+    public Entry add( String upId, String... values ) throws LdapException
+    {
+        pull( indexOf( upId ) );
+        entry.add( upId, values );
+
+        return this;
+    }
+
+
+    @Override
+    public Entry add( String upId, byte[]... values ) throws LdapException
+    {
+        pull( indexOf( upId ) );
+        entry.add( upId, values );
+
+        return this;
+    }
+
+
+    @Override
+    public Entry add( String upId, Value... values ) throws LdapException
+    {
+        pull( indexOf( upId ) );
+        entry.add( upId, values );
+
+        return this;
+    }
+
+
+    @Override
+    public void clear()
+    {
+        pending.clear();
+        entry.clear();
+    }
+
+
+    @Override
+    public boolean contains( AttributeType attributeType, byte[]... values )
+    {
+        int index = indexOf( attributeType );
+
+        if ( index >= 0 )
+        {
+            return serialized.get( index ).contains( values );
+        }
+
+        return entry.contains( attributeType, values );
+    }
+
+
+    @Override
+    public boolean contains( AttributeType attributeType, String... values )
+    {
+        int index = indexOf( attributeType );
+
+        if ( index >= 0 )
+        {
+            return serialized.get( index ).contains( values );
+        }
+
+        return entry.contains( attributeType, values );
+    }
+
+
+    @Override
+    public boolean contains( AttributeType attributeType, Value... values )
+    {
+        int index = indexOf( attributeType );
+
+        if ( index >= 0 )
+        {
+            return serialized.get( index ).contains( values );
+        }
+
+        return entry.contains( attributeType, values );
+    }
+
+
+    @Override
+    public boolean contains( Attribute... attributes )
+    {
+        int[] indexes = new int[attributes.length];
+
+        for ( int i = 0; i < attributes.length; i++ )
+        {
+            indexes[i] = indexOf( attributes[i].getAttributeType() );
+        }
+
+        return select( indexes ).contains( attributes );
+    }
+
+
+    @Override
+    public boolean contains( String upId, byte[]... values )
+    {
+        int index = indexOf( upId );
+
+        if ( index >= 0 )
+        {
+            return serialized.get( index ).contains( values );
+        }
+
+        return entry.contains( upId, values );
+    }
+
+
+    @Override
+    public boolean contains( String upId, String... values )
+    {
+        int index = indexOf( upId );
+
+        if ( index >= 0 )
+        {
+            return serialized.get( index ).contains( values );
+        }
+
+        return entry.contains( upId, values );
+    }
+
+
+    @Override
+    public boolean contains( String upId, Value... values )
+    {
+        int index = indexOf( upId );
+
+        if ( index >= 0 )
+        {
+            return serialized.get( index ).contains( values );
+        }
+
+        return entry.contains( upId, values );
+    }
+
+
+    @Override
+    public boolean containsAttribute( AttributeType attributeType )
+    {
+        return ( indexOf( attributeType ) >= 0 ) || entry.containsAttribute( attributeType );
+    }
+
+
+    @Override
+    public boolean containsAttribute( String... attributes )
+    {
+        for ( String attribute : attributes )
+        {
+            if ( ( indexOf( attribute ) < 0 ) && !entry.containsAttribute( attribute ) )
+            {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+
+    @Override
+    public Attribute get( AttributeType attributeType )
+    {
+        int index = indexOf( attributeType );
+
+        if ( index >= 0 )
+        {
+            return serialized.get( index );
+        }
+
+        return entry.get( attributeType );
+    }
+
+
+    @Override
+    public Attribute get( String alias )
+    {
+        int index = indexOf( alias );
+
+        if ( index >= 0 )
+        {
+            return serialized.get( index );
+        }
+
+        return entry.get( alias );
+    }
+
+
+    /**
+     * Decodes all the attributes.
+     *
+     * @return The entry's attributes
+     */
+    @Override
+    public Collection<Attribute> getAttributes()
+    {
+        if ( pending.isEmpty() )
+        {
+            return entry.getAttributes();
+        }
+
+        List<Attribute> attributes = new ArrayList<>( size() );
+        attributes.addAll( entry.getAttributes() );
+
+        for ( int i = pending.nextSetBit( 0 ); i >= 0; i = pending.nextSetBit( i + 1 ) )
+        {
+            attributes.add( serialized.get( i ) );
+        }
+
+        return Collections.unmodifiableList( attributes );
+    }
+
+
+    @Override
+    public Dn getDn()
+    {
+        return entry.getDn();
+    }
+
+
+    @Override
+    public boolean hasObjectClass( Attribute... objectClasses )
+    {
+        return select( indexOf( SchemaConstants.OBJECT_CLASS_AT_OID ) ).hasObjectClass( objectClasses );
+    }
+
+
+    @Override
+    public boolean hasObjectClass( String... objectClasses )
+    {
+        return select( indexOf( SchemaConstants.OBJECT_CLASS_AT_OID ) ).hasObjectClass( objectClasses );
+    }
+
+
+    @Override
+    public boolean isSchemaAware()
+    {
+        return entry.isSchemaAware();
+    }
+
+
+    /**
+     * Decodes all the attributes. The iterator does not support the removal
+     * of an attribute.
+     *
+     * @return An iterator on the entry's attributes
+     */
+    @Override
+    public Iterator<Attribute> iterator()
+    {
+        if ( pending.isEmpty() )
+        {
+            return entry.iterator();
+        }
+
+        return getAttributes().iterator();
+    }
+
+
+    @Override
+    public Attribute put( AttributeType attributeType, byte[]... values ) throws LdapException
+    {
+        Attribute replaced = forget( indexOf( attributeType ) );
+        Attribute previous = entry.put( attributeType, values );
+
+        return replaced == null ? previous : replaced;
+    }
+
+
+    @Override
+    public Attribute put( AttributeType attributeType, String... values ) throws LdapException
+    {
+        Attribute replaced = forget( indexOf( attributeType ) );
+        Attribute previous = entry.put( attributeType, values );
+
+        return replaced == null ? previous : replaced;
+    }
+
+
+    @Override
+    public Attribute put( AttributeType attributeType, Value... values ) throws LdapException
+    {
+        Attribute replaced = forget( indexOf( attributeType ) );
+        Attribute previous = entry.put( attributeType, values );
+
+        return replaced == null ? previous : replaced;
+    }
+
+
+    @Override
+    public Attribute put( String upId, AttributeType attributeType, byte[]... values ) throws LdapException
+    {
+        Attribute replaced = forget( indexOf( attributeType ) );
+        Attribute previous = entry.put( upId, attributeType, values );
+
+        return replaced == null ? previous : replaced;
+    }
+
+
+    @Override
+    public Attribute put( String upId, AttributeType attributeType, String... values ) throws LdapException
+    {
+        Attribute replaced = forget( indexOf( attributeType ) );
+        Attribute previous = entry.put( upId, attributeType, values );
+
+        return replaced == null ? previous : replaced;
+    }
+
+
+    @Override
+    public Attribute put( String upId, AttributeType attributeType, Value... values ) throws LdapException
+    {
+        Attribute replaced = forget( indexOf( attributeType ) );
+        Attribute previous = entry.put( upId, attributeType, values );
+
+        return replaced == null ? previous : replaced;
+    }
+
+
+    @Override
+    public List<Attribute> put( Attribute... attributes ) throws LdapException
+    {
+        List<Attribute> replaced = new ArrayList<>();
+
+        for ( Attribute attribute : attributes )
+        {
+            Attribute forgotten;
+
+            if ( attribute.getAttributeType() != null )
+            {
+                forgotten = forget( indexOf( attribute.getAttributeType() ) );
+            }
+            else
+            {
+                forgotten = forget( indexOf( attribute.getUpId() ) );
+            }
+
+            if ( forgotten != null )
+            {
+                replaced.add( forgotten );
+            }
+        }
+
+        replaced.addAll( entry.put( attributes ) );
+
+        return replaced;
+    }
+
+
+    @Override
+    public Attribute put( String upId, byte[]... values )
+    {
+        Attribute replaced = forget( indexOf( upId ) );
+        Attribute previous = entry.put( upId, values );
+
+        return replaced == null ? previous : replaced;
+    }
+
+
+    @Override
+    public Attribute put( String upId, String... values )
+    {
+        Attribute replaced = forget( indexOf( upId ) );
+        Attribute previous = entry.put( upId, values );
+
+        return replaced == null ? previous : replaced;
+    }
+
+
+    @Override
+    public Attribute put( String upId, Value... values )
+    {
+        Attribute replaced = forget( indexOf( upId ) );
+        Attribute previous = entry.put( upId, values );
+
+        return replaced == null ? previous : replaced;
+    }
+
+
+    @Override
+    public boolean remove( AttributeType attributeType, byte[]... values ) throws LdapException
+    {
+        pull( indexOf( attributeType ) );
+
+        return entry.remove( attributeType, values );
+    }
+
+
+    @Override
+    public boolean remove( AttributeType attributeType, String... values ) throws LdapException
+    {
+        pull( indexOf( attributeType ) );
+
+        return entry.remove( attributeType, values );
+    }
+
+
+    @Override
+    public boolean remove( AttributeType attributeType, Value... values ) throws LdapException
+    {
+        pull( indexOf( attributeType ) );
+
+        return entry.remove( attributeType, values );
+    }
+
+
+    @Override
+    public List<Attribute> remove( Attribute... attributes ) throws LdapException
+    {
+        for ( Attribute attribute : attributes )
+        {
+            pull( indexOf( attribute.getAttributeType() ) );
+        }
+
+        return entry.remove( attributes );
+    }
+
+
+    @Override
+    public boolean remove( String upId, byte[]... values ) throws LdapException
+    {
+        pull( indexOf( upId ) );
+
+        return entry.remove( upId, values );
+    }
+
+
+    @Override
+    public boolean remove( String upId, String... values ) throws LdapException
+    {
+        pull( indexOf( upId ) );
+
+        return entry.remove( upId, values );
+    }
+
+
+    @Override
+    public boolean remove( String upId, Value... values ) throws LdapException
+    {
+        pull( indexOf( upId ) );
+
+        return entry.remove( upId, values );
+    }
+
+
+    @Override
+    public void removeAttributes( AttributeType... attributes )
+    {
+        for ( AttributeType attributeType : attributes )
+        {
+            int index = indexOf( attributeType );
+
+            if ( index >= 0 )
+            {
+                pending.clear( index );
+            }
+        }
+
+        entry.removeAttributes( attributes );
+    }
+
+
+    @Override
+    public void removeAttributes( String... attributes )
+    {
+        for ( String attribute : attributes )
+        {
+            int index = indexOf( attribute );
+
+            if ( index >= 0 )
+            {
+                pending.clear( index );
+            }
+        }
+
+        entry.removeAttributes( attributes );
+    }
+
+
+    @Override
+    public void setDn( Dn dn )
+    {
+        entry.setDn( dn );
+    }
+
+
+    @Override
+    public void setDn( String dn ) throws LdapInvalidDnException
+    {
+        entry.setDn( dn );
+    }
+
+
+    @Override
+    public int size()
+    {
+        return entry.size() + pending.cardinality();
+    }
+
+
+    /**
+     * @see java.io.Externalizable#readExternal(ObjectInput)
+     */
+    @Override
+    public void readExternal( ObjectInput in ) throws IOException, ClassNotFoundException
+    {
+        pending.clear();
+        entry.readExternal( in );
+    }
+
+
+    /**
+     * @see java.io.Externalizable#writeExternal(ObjectOutput)
+     */
+    @Override
+    public void writeExternal( ObjectOutput out ) throws IOException
+    {
+        materialize().writeExternal( out );
+    }
+
+
+    @Override
+    public Entry clone()
+    {
+        return materialize().clone();
+    }
+
+
+    /**
+     * Creates a LazyEntry sharing this entry's attributes, decoded or not.
+     *
+     * @return The shallow clone
+     */
+    @Override
+    public Entry shallowClone()
+    {
+        return new LazyEntry( serialized, entry.shallowClone(), ( BitSet ) pending.clone() );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int hashCode()
+    {
+        return materialize().hashCode();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean equals( Object obj )
+    {
+        if ( this == obj )
+        {
+            return true;
+        }
+
+        if ( obj instanceof LazyEntry )
+        {
+            return materialize().equals( ( ( LazyEntry ) obj ).materialize() );
+        }
+
+        return materialize().equals( obj );
+    }
+
+
+    /**
+     * @see Object#toString()
+     */
+    @Override
+    public String toString()
+    {
+        return toString( "" );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString( String tabs )
+    {
+        return materialize().toString( tabs );
+    }
+}
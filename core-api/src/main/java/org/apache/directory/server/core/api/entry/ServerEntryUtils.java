@@ -749,6 +749,48 @@ public final class ServerEntryUtils
     }
 
 
+    /**
+     * Gets the AttributeTypes of an entry's attributes. The attributes of a {@link LazyEntry}
+     * are not decoded.
+     */
+    private static List<AttributeType> getAttributeTypes( Entry entry )
+    {
+        if ( entry instanceof LazyEntry )
+        {
+            return ( ( LazyEntry ) entry ).getAttributeTypes();
+        }
+
+        List<AttributeType> attributeTypes = new ArrayList<>( entry.size() );
+
+        for ( Attribute attribute : entry )
+        {
+            attributeTypes.add( attribute.getAttributeType() );
+        }
+
+        return attributeTypes;
+    }
+
+
+    /**
+     * Gets an attribute which will only be read. The shared attributes of a
+     * {@link CopyOnWriteServerEntry} are not copied : the returned attribute must
+     * not be modified.
+     *
+     * @param entry The entry
+     * @param attributeType The attribute's AttributeType
+     * @return The attribute, or null if the entry does not have it
+     */
+    public static Attribute getReadOnlyAttribute( Entry entry, AttributeType attributeType )
+    {
+        if ( entry instanceof CopyOnWriteServerEntry )
+        {
+            return ( ( CopyOnWriteServerEntry ) entry ).getReadOnly( attributeType );
+        }
+
+        return entry.get( attributeType );
+    }
+
+
     /**
      * Filters an entry accordingly to the requested Attribute list.
      * 
@@ -779,17 +821,15 @@ public final class ServerEntryUtils
         // First, remove all the attributes if we have the NoAttribute flag set to true
         if ( operationContext.isNoAttributes() )
         {
-            for ( Attribute attribute : originalEntry )
+            for ( AttributeType attributeType : getAttributeTypes( originalEntry ) )
             {
-                AttributeType attributeType = attribute.getAttributeType();
-
                 // Bypass the ref attribute, unless the ManageDSAIT control is present
                 if ( operationContext.isReferralThrown() && attributeType.equals( refType ) )
                 {
                     continue;
                 }
 
-                entry.remove( entry.get( attributeType ) );
+                entry.removeAttributes( attributeType );
             }
 
             entry.removeAttributes( entryDnType );
@@ -801,10 +841,8 @@ public final class ServerEntryUtils
         // the USER attributes, plus the Operational attributes in the returning list 
         if ( operationContext.isAllUserAttributes() )
         {
-            for ( Attribute attribute : originalEntry )
+            for ( AttributeType attributeType : getAttributeTypes( originalEntry ) )
             {
-                AttributeType attributeType = attribute.getAttributeType();
-
                 // Bypass the ref attribute, unless the ManageDSAIT control is present
                 if ( operationContext.isReferralThrown() && attributeType.equals( refType ) )
                 {
@@ -841,10 +879,8 @@ public final class ServerEntryUtils
         // the OPERATIONAL attributes, plus the User attributes in the returning list 
         if ( operationContext.isAllOperationalAttributes() )
         {
-            for ( Attribute attribute : originalEntry )
+            for ( AttributeType attributeType : getAttributeTypes( originalEntry ) )
             {
-                AttributeType attributeType = attribute.getAttributeType();
-
                 if ( attributeType.isUser() )
                 {
                     if ( !operationContext.contains( schemaManager, attributeType ) )
@@ -877,10 +913,8 @@ public final class ServerEntryUtils
         // Last, not least, check if the attributes are in the returning list
         if ( operationContext.getReturningAttributes() != null )
         {
-            for ( Attribute attribute : originalEntry )
+            for ( AttributeType attributeType : getAttributeTypes( originalEntry ) )
             {
-                AttributeType attributeType = attribute.getAttributeType();
-
                 // Bypass the ref attribute, unless the ManageDSAIT control is present
                 if ( operationContext.isReferralThrown() && attributeType.equals( refType ) )
                 {
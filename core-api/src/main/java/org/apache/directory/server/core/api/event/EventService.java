@@ -22,6 +22,9 @@ package org.apache.directory.server.core.api.event;
 
 import java.util.List;
 
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.name.Dn;
+
 
 /**
  * Interface used by the DirectoryService to manage subscriptions for DIT 
@@ -57,4 +60,17 @@ public interface EventService
      * @return The list of registration entries
      */
     List<RegistrationEntry> getRegistrationEntries();
+
+
+    /**
+     * Lists the registrations which may select a change done on an entry : their
+     * scope contains the entry, and the entry may match their filter, which still
+     * has to be evaluated. The registrations which can't select the entry are
+     * discarded without evaluating their filter.
+     *
+     * @param dn The changed entry Dn
+     * @param entry The changed entry
+     * @return The candidate registration entries, in the order they have been added
+     */
+    List<RegistrationEntry> getCandidateRegistrations( Dn dn, Entry entry );
 }
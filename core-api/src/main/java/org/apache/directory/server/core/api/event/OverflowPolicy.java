@@ -0,0 +1,46 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.api.event;
+
+
+/**
+ * What to do when the queue of the notifications waiting to be delivered to an
+ * asynchronous {@link DirectoryListener} is full.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public enum OverflowPolicy
+{
+    /** The oldest pending notification is dropped */
+    DROP_OLDEST,
+
+    /**
+     * A modification is merged into the pending modification of the same entry, if any : the
+     * listener gets all the modifications at once, with the latest state of the entry. Otherwise
+     * the oldest pending notification is dropped
+     */
+    COALESCE_BY_DN,
+
+    /**
+     * The listener is removed, and told about it if it's a {@link DisconnectableListener} :
+     * it won't miss any notification silently
+     */
+    DISCONNECT
+}
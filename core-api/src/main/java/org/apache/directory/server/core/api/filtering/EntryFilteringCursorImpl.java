@@ -36,6 +36,7 @@ import org.apache.directory.api.ldap.model.exception.LdapException;
 import org.apache.directory.api.ldap.model.exception.OperationAbandonedException;
 import org.apache.directory.api.ldap.model.schema.SchemaManager;
 import org.apache.directory.server.core.api.entry.ClonedServerEntry;
+import org.apache.directory.server.core.api.entry.CopyOnWriteServerEntry;
 import org.apache.directory.server.core.api.entry.ServerEntryUtils;
 import org.apache.directory.server.core.api.interceptor.context.SearchOperationContext;
 import org.slf4j.Logger;
@@ -415,7 +416,7 @@ public class EntryFilteringCursorImpl extends AbstractCursor<Entry> implements E
             }
             else
             {
-                tempResult = new ClonedServerEntry( tempEntry );
+                tempResult = new CopyOnWriteServerEntry( tempEntry );
             }
 
             /*
@@ -502,7 +503,7 @@ public class EntryFilteringCursorImpl extends AbstractCursor<Entry> implements E
                 continue;
             }
 
-            tempResult = new ClonedServerEntry/*Search*/( entry );
+            tempResult = new CopyOnWriteServerEntry( entry );
 
             /*
              * O P T I M I Z A T I O N
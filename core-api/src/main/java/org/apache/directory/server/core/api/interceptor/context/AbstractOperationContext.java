@@ -22,7 +22,6 @@ package org.apache.directory.server.core.api.interceptor.context;
 
 import java.util.Collection;
 import java.util.HashMap;
-import java.util.List;
 import java.util.Map;
 
 import org.apache.directory.api.ldap.model.entry.Entry;
@@ -31,6 +30,7 @@ import org.apache.directory.api.ldap.model.message.Control;
 import org.apache.directory.api.ldap.model.name.Dn;
 import org.apache.directory.server.core.api.CoreSession;
 import org.apache.directory.server.core.api.LdapPrincipal;
+import org.apache.directory.server.core.api.interceptor.Interceptor;
 import org.apache.directory.server.core.api.partition.Partition;
 import org.apache.directory.server.core.api.partition.PartitionTxn;
 
@@ -64,7 +64,7 @@ public abstract class AbstractOperationContext implements OperationContext
     protected Collection<String> byPassed;
 
     /** The interceptors to call for this operation */
-    protected List<String> interceptors;
+    protected Interceptor[] interceptors;
 
     /** The current interceptor position */
     protected int currentInterceptor;
@@ -312,7 +312,7 @@ public abstract class AbstractOperationContext implements OperationContext
      * {@inheritDoc}
      */
     @Override
-    public final void setInterceptors( List<String> interceptors )
+    public final void setInterceptors( Interceptor[] interceptors )
     {
         this.interceptors = interceptors;
     }
@@ -322,14 +322,14 @@ public abstract class AbstractOperationContext implements OperationContext
      * {@inheritDoc}
      */
     @Override
-    public final String getNextInterceptor()
+    public final Interceptor getNextInterceptor()
     {
-        if ( currentInterceptor == interceptors.size() )
+        if ( currentInterceptor == interceptors.length )
         {
-            return "FINAL";
+            return null;
         }
 
-        String interceptor = interceptors.get( currentInterceptor );
+        Interceptor interceptor = interceptors[currentInterceptor];
         currentInterceptor++;
 
         return interceptor;
@@ -52,7 +52,7 @@ public class AddOperationContext extends AbstractChangeOperationContext
 
         if ( session != null )
         {
-            setInterceptors( session.getDirectoryService().getInterceptors( OperationEnum.ADD ) );
+            setInterceptors( session.getDirectoryService().getInterceptorChain( OperationEnum.ADD ) );
         }
     }
 
@@ -69,7 +69,7 @@ public class AddOperationContext extends AbstractChangeOperationContext
 
         if ( session != null )
         {
-            setInterceptors( session.getDirectoryService().getInterceptors( OperationEnum.ADD ) );
+            setInterceptors( session.getDirectoryService().getInterceptorChain( OperationEnum.ADD ) );
         }
     }
 
@@ -86,7 +86,7 @@ public class AddOperationContext extends AbstractChangeOperationContext
         this.entry = new ClonedServerEntry( entry );
         if ( session != null )
         {
-            setInterceptors( session.getDirectoryService().getInterceptors( OperationEnum.ADD ) );
+            setInterceptors( session.getDirectoryService().getInterceptorChain( OperationEnum.ADD ) );
         }
     }
 
@@ -104,7 +104,7 @@ public class AddOperationContext extends AbstractChangeOperationContext
 
         if ( session != null )
         {
-            setInterceptors( session.getDirectoryService().getInterceptors( OperationEnum.ADD ) );
+            setInterceptors( session.getDirectoryService().getInterceptorChain( OperationEnum.ADD ) );
         }
 
         this.entry = new ClonedServerEntry( entry );
@@ -124,7 +124,7 @@ public class AddOperationContext extends AbstractChangeOperationContext
 
         if ( session != null )
         {
-            setInterceptors( session.getDirectoryService().getInterceptors( OperationEnum.ADD ) );
+            setInterceptors( session.getDirectoryService().getInterceptorChain( OperationEnum.ADD ) );
         }
         else
         {
@@ -48,7 +48,7 @@ public class DeleteOperationContext extends AbstractChangeOperationContext
 
         if ( session != null )
         {
-            setInterceptors( session.getDirectoryService().getInterceptors( OperationEnum.DELETE ) );
+            setInterceptors( session.getDirectoryService().getInterceptorChain( OperationEnum.DELETE ) );
         }
     }
 
@@ -65,7 +65,7 @@ public class DeleteOperationContext extends AbstractChangeOperationContext
 
         if ( session != null )
         {
-            setInterceptors( session.getDirectoryService().getInterceptors( OperationEnum.DELETE ) );
+            setInterceptors( session.getDirectoryService().getInterceptorChain( OperationEnum.DELETE ) );
         }
     }
 
@@ -82,7 +82,7 @@ public class DeleteOperationContext extends AbstractChangeOperationContext
 
         if ( session != null )
         {
-            setInterceptors( session.getDirectoryService().getInterceptors( OperationEnum.DELETE ) );
+            setInterceptors( session.getDirectoryService().getInterceptorChain( OperationEnum.DELETE ) );
         }
 
         requestControls = deleteRequest.getControls();
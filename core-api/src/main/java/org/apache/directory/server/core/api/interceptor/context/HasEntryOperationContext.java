@@ -45,7 +45,7 @@ public class HasEntryOperationContext extends AbstractOperationContext
 
         if ( session != null )
         {
-            setInterceptors( session.getDirectoryService().getInterceptors( OperationEnum.HAS_ENTRY ) );
+            setInterceptors( session.getDirectoryService().getInterceptorChain( OperationEnum.HAS_ENTRY ) );
         }
     }
 
@@ -62,7 +62,7 @@ public class HasEntryOperationContext extends AbstractOperationContext
 
         if ( session != null )
         {
-            setInterceptors( session.getDirectoryService().getInterceptors( OperationEnum.HAS_ENTRY ) );
+            setInterceptors( session.getDirectoryService().getInterceptorChain( OperationEnum.HAS_ENTRY ) );
         }
     }
 
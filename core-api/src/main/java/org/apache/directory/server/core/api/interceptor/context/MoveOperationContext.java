@@ -63,7 +63,7 @@ public class MoveOperationContext extends AbstractChangeOperationContext
 
         if ( session != null )
         {
-            setInterceptors( session.getDirectoryService().getInterceptors( OperationEnum.MOVE ) );
+            setInterceptors( session.getDirectoryService().getInterceptorChain( OperationEnum.MOVE ) );
         }
     }
 
@@ -84,7 +84,7 @@ public class MoveOperationContext extends AbstractChangeOperationContext
 
         if ( session != null )
         {
-            setInterceptors( session.getDirectoryService().getInterceptors( OperationEnum.MOVE ) );
+            setInterceptors( session.getDirectoryService().getInterceptorChain( OperationEnum.MOVE ) );
         }
 
         try
@@ -111,7 +111,7 @@ public class MoveOperationContext extends AbstractChangeOperationContext
 
         if ( session != null )
         {
-            setInterceptors( session.getDirectoryService().getInterceptors( OperationEnum.MOVE ) );
+            setInterceptors( session.getDirectoryService().getInterceptorChain( OperationEnum.MOVE ) );
         }
 
         if ( newSuperior == null )
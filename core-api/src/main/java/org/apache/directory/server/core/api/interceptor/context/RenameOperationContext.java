@@ -61,7 +61,7 @@ public class RenameOperationContext extends AbstractChangeOperationContext
 
         if ( session != null )
         {
-            setInterceptors( session.getDirectoryService().getInterceptors( OperationEnum.RENAME ) );
+            setInterceptors( session.getDirectoryService().getInterceptorChain( OperationEnum.RENAME ) );
         }
     }
 
@@ -82,7 +82,7 @@ public class RenameOperationContext extends AbstractChangeOperationContext
 
         if ( session != null )
         {
-            setInterceptors( session.getDirectoryService().getInterceptors( OperationEnum.RENAME ) );
+            setInterceptors( session.getDirectoryService().getInterceptorChain( OperationEnum.RENAME ) );
         }
     }
 
@@ -99,7 +99,7 @@ public class RenameOperationContext extends AbstractChangeOperationContext
 
         if ( session != null )
         {
-            setInterceptors( session.getDirectoryService().getInterceptors( OperationEnum.RENAME ) );
+            setInterceptors( session.getDirectoryService().getInterceptorChain( OperationEnum.RENAME ) );
         }
 
         if ( newRdn == null )
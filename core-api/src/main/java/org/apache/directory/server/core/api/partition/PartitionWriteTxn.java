@@ -37,6 +37,31 @@ public class PartitionWriteTxn implements PartitionTxn
     }
 
 
+    /**
+     * Commits the transaction, without waiting for the changes to be flushed on disk when
+     * the partition groups the flushes of concurrent commits. {@link #awaitSync()} must be
+     * called afterward, once the partition lock has been released, so that the other
+     * committers can join the same flush. By default, this is a plain commit.
+     * 
+     * @throws IOException If the commit failed
+     */
+    public void commitWithDeferredSync() throws IOException
+    {
+        commit();
+    }
+
+
+    /**
+     * Waits until the changes committed by {@link #commitWithDeferredSync()} are flushed
+     * on disk. By default, there is nothing to wait for.
+     * 
+     * @throws IOException If the changes can't be flushed
+     */
+    public void awaitSync() throws IOException
+    {
+    }
+
+
     /**
      * {@inheritDoc}
      */
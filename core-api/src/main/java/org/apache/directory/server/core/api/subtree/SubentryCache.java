@@ -22,9 +22,16 @@ package org.apache.directory.server.core.api.subtree;
 
 import java.util.Iterator;
 import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
+import org.apache.directory.api.ldap.model.constants.SchemaConstants;
+import org.apache.directory.api.ldap.model.entry.Attribute;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.entry.Value;
 import org.apache.directory.api.ldap.model.name.Dn;
 import org.apache.directory.api.ldap.model.subtree.Subentry;
 
@@ -34,6 +41,10 @@ import org.apache.directory.api.ldap.model.subtree.Subentry;
  * representing its position in the DIT.<br>
  * This cache has a size limit set to 1000 at the moment. We should add a configuration
  * parameter to manage its size.
+ * <br>
+ * The cache also holds the subentry operational attributes computed for the entries when
+ * they are virtual. They are valid for a given generation of the cache, which changes each
+ * time a Subentry is added or removed.
  *
  * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
  */
@@ -42,6 +53,9 @@ public class SubentryCache implements Iterable<Dn>
     /** The default cache size limit */
     private static final int DEFAULT_CACHE_MAX_SIZE = 1000;
 
+    /** The maximum number of subentry operational attributes kept for a generation */
+    private static final int ATTRIBUTES_CACHE_MAX_SIZE = 10000;
+
     /** The cache size limit */
     private int cacheMaxSize = DEFAULT_CACHE_MAX_SIZE;
 
@@ -51,6 +65,35 @@ public class SubentryCache implements Iterable<Dn>
     /** The Subentry cache */
     private final Map<Dn, Subentry> cache;
 
+    /** The generation of the cache, incremented each time a Subentry is added or removed */
+    private final AtomicLong generation = new AtomicLong( 0L );
+
+    /** The subentry operational attributes computed in the current generation */
+    private volatile ComputedAttributes computedAttributes = new ComputedAttributes( -1L, false );
+
+
+    /**
+     * The subentry operational attributes computed in a generation of the cache
+     */
+    private static final class ComputedAttributes
+    {
+        /** The generation those attributes have been computed in */
+        private final long generation;
+
+        /** Tells if one of the SubtreeSpecifications has a refinement, which depends on the ObjectClasses */
+        private final boolean hasRefinement;
+
+        /** The attributes, per entry */
+        private final Map<String, Entry> attributes = new ConcurrentHashMap<>();
+
+
+        private ComputedAttributes( long generation, boolean hasRefinement )
+        {
+            this.generation = generation;
+            this.hasRefinement = hasRefinement;
+        }
+    }
+
 
     /**
      * Creates a new instance of SubentryCache with a default maximum size.
@@ -101,6 +144,7 @@ public class SubentryCache implements Iterable<Dn>
         if ( oldSubentry != null )
         {
             cacheSize.decrementAndGet();
+            generation.incrementAndGet();
         }
 
         return oldSubentry;
@@ -128,6 +172,8 @@ public class SubentryCache implements Iterable<Dn>
             cacheSize.getAndIncrement();
         }
 
+        generation.incrementAndGet();
+
         return oldSubentry;
     }
 
@@ -159,4 +205,121 @@ public class SubentryCache implements Iterable<Dn>
     {
         return cacheSize.get();
     }
+
+
+    /**
+     * @return The current generation of the cache, which changes each time a Subentry is added or removed
+     */
+    public long getGeneration()
+    {
+        return generation.get();
+    }
+
+
+    /**
+     * Gets the subentry operational attributes computed for an entry in a given generation
+     *
+     * @param generation The generation of the cache the attributes have been computed in
+     * @param entry The entry
+     * @return The computed attributes, which must not be modified, or null if they are unknown
+     */
+    public Entry getSubentryAttributes( long generation, Entry entry )
+    {
+        ComputedAttributes computed = computedAttributes;
+
+        if ( ( computed.generation != generation ) || ( this.generation.get() != generation ) )
+        {
+            return null;
+        }
+
+        return computed.attributes.get( getAttributesKey( computed, entry ) );
+    }
+
+
+    /**
+     * Stores the subentry operational attributes computed for an entry. They are ignored if
+     * a Subentry has been added or removed since their computation started.
+     *
+     * @param generation The generation of the cache the attributes have been computed in
+     * @param entry The entry
+     * @param subentryAttributes The computed attributes
+     */
+    public void putSubentryAttributes( long generation, Entry entry, Entry subentryAttributes )
+    {
+        if ( this.generation.get() != generation )
+        {
+            return;
+        }
+
+        ComputedAttributes computed = computedAttributes;
+
+        if ( computed.generation != generation )
+        {
+            computed = new ComputedAttributes( generation, hasRefinement() );
+            computedAttributes = computed;
+        }
+
+        if ( computed.attributes.size() >= ATTRIBUTES_CACHE_MAX_SIZE )
+        {
+            computed.attributes.clear();
+        }
+
+        computed.attributes.put( getAttributesKey( computed, entry ), subentryAttributes );
+    }
+
+
+    /**
+     * Tells if one of the cached SubtreeSpecifications has a refinement
+     */
+    private boolean hasRefinement()
+    {
+        for ( Subentry subentry : cache.values() )
+        {
+            if ( ( subentry.getSubtreeSpecification() != null )
+                && ( subentry.getSubtreeSpecification().getRefinement() != null ) )
+            {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+
+    /**
+     * The attributes only depend on the entry's Dn, unless a refinement selects the entries
+     * on their ObjectClasses
+     */
+    private String getAttributesKey( ComputedAttributes computed, Entry entry )
+    {
+        String normName = entry.getDn().getNormName();
+
+        if ( !computed.hasRefinement )
+        {
+            return normName;
+        }
+
+        Attribute objectClass = entry.get( SchemaConstants.OBJECT_CLASS_AT );
+
+        if ( objectClass == null )
+        {
+            return normName;
+        }
+
+        Set<String> objectClasses = new TreeSet<>();
+
+        for ( Value value : objectClass )
+        {
+            objectClasses.add( value.getNormalized() );
+        }
+
+        StringBuilder sb = new StringBuilder( normName );
+
+        for ( String oc : objectClasses )
+        {
+            sb.append( '|' ).append( oc );
+        }
+
+        return sb.toString();
+    }
 }
@@ -26,6 +26,7 @@ import org.apache.directory.api.ldap.model.entry.DefaultEntry;
 import org.apache.directory.api.ldap.model.entry.Entry;
 import org.apache.directory.api.ldap.model.exception.LdapException;
 import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.api.ldap.model.schema.AttributeType;
 import org.apache.directory.api.ldap.model.schema.SchemaManager;
 import org.apache.directory.api.ldap.model.subtree.Subentry;
 import org.apache.directory.api.ldap.model.subtree.SubtreeSpecification;
@@ -142,4 +143,51 @@ public class SubentryUtils
 
         return subentryAttrs;
     }
+
+
+    /**
+     * Gets one of the subentry operational attributes of an entry. When the subentry operational
+     * attributes are virtual, it is computed from the subentries, otherwise it is read from
+     * the entry.
+     *
+     * @param entry The entry, with its normalized Dn
+     * @param attributeType The subentry operational attribute
+     * @return The attribute, which must not be modified, or null if the entry has none
+     * @throws LdapException if there are problems accessing entry information
+     */
+    public Attribute getSubentryAttribute( Entry entry, AttributeType attributeType ) throws LdapException
+    {
+        if ( !directoryService.isVirtualSubentryAttributesEnabled() )
+        {
+            return entry.get( attributeType );
+        }
+
+        return getVirtualSubentryAttributes( entry ).get( attributeType );
+    }
+
+
+    /**
+     * Computes the subentry operational attributes of an entry from the subentries. The
+     * result is kept in the SubentryCache until a subentry is added, modified or removed.
+     *
+     * @param entry The entry, with its normalized Dn
+     * @return The subentry operational attributes, which must not be modified
+     * @throws LdapException if there are problems accessing entry information
+     */
+    public Entry getVirtualSubentryAttributes( Entry entry ) throws LdapException
+    {
+        SubentryCache subentryCache = directoryService.getSubentryCache();
+        long generation = subentryCache.getGeneration();
+        Entry subentryAttrs = subentryCache.getSubentryAttributes( generation, entry );
+
+        if ( subentryAttrs == null )
+        {
+            subentryAttrs = getSubentryAttributes( entry.getDn(), entry );
+            subentryCache.putSubentryAttributes( generation, entry, subentryAttrs );
+
+            LOG.debug( "Computed the subentry operational attributes of {}", entry.getDn() );
+        }
+
+        return subentryAttrs;
+    }
 }
@@ -336,6 +336,18 @@ public class MockDirectoryService implements DirectoryService
     }
 
 
+    public boolean isVirtualSubentryAttributesEnabled()
+    {
+        return false;
+    }
+
+
+    public void setVirtualSubentryAttributesEnabled( boolean virtualSubentryAttributesEnabled )
+    {
+
+    }
+
+
     public void setChangeLog( ChangeLog changeLog )
     {
 
@@ -449,6 +461,12 @@ public class MockDirectoryService implements DirectoryService
     }
 
 
+    public PendingCsnTracker getPendingCsnTracker()
+    {
+        return null;
+    }
+
+
     public int getReplicaId()
     {
         return 0;
@@ -586,6 +604,13 @@ public class MockDirectoryService implements DirectoryService
     }
 
 
+    @Override
+    public Interceptor[] getInterceptorChain( OperationEnum operation )
+    {
+        return new Interceptor[0];
+    }
+
+
     @Override
     public void addFirst( Interceptor interceptor ) throws LdapException
     {
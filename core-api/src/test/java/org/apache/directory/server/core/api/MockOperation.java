@@ -20,8 +20,6 @@
 package org.apache.directory.server.core.api;
 
 
-import java.util.List;
-
 import org.apache.directory.api.ldap.model.constants.AuthenticationLevel;
 import org.apache.directory.api.ldap.model.entry.Entry;
 import org.apache.directory.api.ldap.model.exception.LdapException;
@@ -33,6 +31,7 @@ import org.apache.directory.server.core.api.LdapPrincipal;
 import org.apache.directory.server.core.api.ReferralHandlingMode;
 import org.apache.directory.server.core.api.filtering.EntryFilteringCursorImpl;
 import org.apache.directory.server.core.api.filtering.EntryFilteringCursor;
+import org.apache.directory.server.core.api.interceptor.Interceptor;
 import org.apache.directory.server.core.api.interceptor.context.LookupOperationContext;
 import org.apache.directory.server.core.api.interceptor.context.OperationContext;
 import org.apache.directory.server.core.api.interceptor.context.SearchOperationContext;
@@ -219,15 +218,15 @@ public class MockOperation implements OperationContext
 
 
     @Override
-    public void setInterceptors( List<String> interceptors )
+    public void setInterceptors( Interceptor[] interceptors )
     {
     }
 
 
     @Override
-    public String getNextInterceptor()
+    public Interceptor getNextInterceptor()
     {
-        return "";
+        return null;
     }
 
 
@@ -48,6 +48,9 @@ public class MockOperationManager implements OperationManager
 {
     int count;
 
+    /** The partition locks */
+    private final PartitionLockManager lockManager = new PartitionLockManager();
+
 
     public MockOperationManager( int count )
     {
@@ -156,4 +159,22 @@ public class MockOperationManager implements OperationManager
     {
         return new ReentrantReadWriteLock();
     }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public ReadWriteLock getRWLock( Partition partition )
+    {
+        return new ReentrantReadWriteLock();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public PartitionLockManager getLockManager()
+    {
+        return lockManager;
+    }
 }
@@ -0,0 +1,266 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.api;
+
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.apache.directory.api.ldap.model.exception.LdapOperationErrorException;
+import org.apache.directory.server.core.api.PartitionLockManager.LockedPartitions;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+
+/**
+ * Tests the {@link PartitionLockManager} class.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class PartitionLockManagerTest
+{
+    private PartitionLockManager lockManager;
+    private ExecutorService executor;
+
+
+    @Before
+    public void init()
+    {
+        lockManager = new PartitionLockManager( 200L );
+        executor = Executors.newSingleThreadExecutor();
+    }
+
+
+    @After
+    public void shutdown()
+    {
+        executor.shutdownNow();
+    }
+
+
+    /**
+     * Lock some partitions in another thread, and release the locks immediately
+     */
+    private Future<Boolean> lockInOtherThread( final boolean write, final boolean exclusive, final String... ids )
+    {
+        return executor.submit( new Callable<Boolean>()
+        {
+            @Override
+            public Boolean call() throws Exception
+            {
+                lockManager.unlock( lockManager.lock( write, exclusive, ids ) );
+
+                return Boolean.TRUE;
+            }
+        } );
+    }
+
+
+    private boolean isBlocked( Future<Boolean> future ) throws Exception
+    {
+        try
+        {
+            future.get( 200L, TimeUnit.MILLISECONDS );
+
+            return false;
+        }
+        catch ( TimeoutException te )
+        {
+            return true;
+        }
+    }
+
+
+    @Test
+    public void testLocksAreSortedAndDeduplicated() throws Exception
+    {
+        LockedPartitions locked = lockManager.lock( true, "ou=system", "example", null, "example" );
+
+        assertArrayEquals( new String[]
+            { "", "example", "ou=system" }, locked.getPartitionIds() );
+        assertTrue( locked.isWrite() );
+        assertFalse( locked.isExclusive() );
+        assertEquals( 3, lockManager.getHeldLockCount() );
+        assertTrue( lockManager.getPartitionLock( "example" ).isWriteLockedByCurrentThread() );
+        assertEquals( 1, lockManager.getGlobalLock().getReadHoldCount() );
+
+        lockManager.unlock( locked );
+
+        assertEquals( 0, lockManager.getHeldLockCount() );
+        assertFalse( lockManager.getPartitionLock( "example" ).isWriteLocked() );
+        assertEquals( 0, lockManager.getGlobalLock().getReadHoldCount() );
+    }
+
+
+    @Test
+    public void testWritesOnDistinctPartitionsDontBlock() throws Exception
+    {
+        LockedPartitions locked = lockManager.lock( true, "people" );
+
+        try
+        {
+            assertTrue( lockInOtherThread( true, false, "config" ).get( 1L, TimeUnit.SECONDS ) );
+            assertTrue( lockInOtherThread( false, false, "config" ).get( 1L, TimeUnit.SECONDS ) );
+        }
+        finally
+        {
+            lockManager.unlock( locked );
+        }
+    }
+
+
+    @Test
+    public void testWriteOnSamePartitionBlocks() throws Exception
+    {
+        LockedPartitions locked = lockManager.lock( true, "people" );
+        Future<Boolean> reader = lockInOtherThread( false, false, "people" );
+
+        try
+        {
+            assertTrue( isBlocked( reader ) );
+        }
+        finally
+        {
+            lockManager.unlock( locked );
+        }
+
+        assertTrue( reader.get( 1L, TimeUnit.SECONDS ) );
+    }
+
+
+    @Test
+    public void testExclusiveLockBlocksAllPartitions() throws Exception
+    {
+        LockedPartitions locked = lockManager.lock( true, true, "schema" );
+        assertTrue( locked.isExclusive() );
+        Future<Boolean> reader = lockInOtherThread( false, false, "people" );
+
+        try
+        {
+            assertTrue( isBlocked( reader ) );
+        }
+        finally
+        {
+            lockManager.unlock( locked );
+        }
+
+        assertTrue( reader.get( 1L, TimeUnit.SECONDS ) );
+        assertFalse( lockManager.getGlobalLock().isWriteLocked() );
+    }
+
+
+    @Test
+    public void testNestedLocks() throws Exception
+    {
+        LockedPartitions outer = lockManager.lock( true, "people" );
+
+        // In order, and reentrant
+        LockedPartitions inner1 = lockManager.lock( false, "schema" );
+        LockedPartitions inner2 = lockManager.lock( false, "people" );
+        assertEquals( 3, lockManager.getHeldLockCount() );
+
+        lockManager.unlock( inner2 );
+        lockManager.unlock( inner1 );
+        assertEquals( 1, lockManager.getHeldLockCount() );
+
+        // Out of order, but not contended
+        LockedPartitions inner3 = lockManager.lock( true, "config" );
+        lockManager.unlock( inner3 );
+
+        lockManager.unlock( outer );
+        assertEquals( 0, lockManager.getHeldLockCount() );
+    }
+
+
+    @Test
+    public void testNestedLockOutOfOrderTimesOut() throws Exception
+    {
+        final LockedPartitions[] otherLocks = new LockedPartitions[1];
+
+        // Another thread holds the lock on a partition sorting first
+        executor.submit( new Callable<Boolean>()
+        {
+            @Override
+            public Boolean call() throws Exception
+            {
+                otherLocks[0] = lockManager.lock( true, "config" );
+
+                return Boolean.TRUE;
+            }
+        } ).get( 1L, TimeUnit.SECONDS );
+
+        LockedPartitions outer = lockManager.lock( true, "people" );
+
+        try
+        {
+            lockManager.lock( false, "config" );
+            fail();
+        }
+        catch ( LdapOperationErrorException loee )
+        {
+            // Expected : we would have waited forever if the other thread needed our lock
+        }
+        finally
+        {
+            lockManager.unlock( outer );
+        }
+
+        assertEquals( 0, lockManager.getHeldLockCount() );
+        assertEquals( 0, lockManager.getGlobalLock().getReadHoldCount() );
+
+        executor.submit( new Callable<Boolean>()
+        {
+            @Override
+            public Boolean call() throws Exception
+            {
+                lockManager.unlock( otherLocks[0] );
+
+                return Boolean.TRUE;
+            }
+        } ).get( 1L, TimeUnit.SECONDS );
+    }
+
+
+    @Test(expected = LdapOperationErrorException.class)
+    public void testReadLockUpgradeFails() throws Exception
+    {
+        LockedPartitions outer = lockManager.lock( false, "people" );
+
+        try
+        {
+            lockManager.lock( true, "people" );
+        }
+        finally
+        {
+            lockManager.unlock( outer );
+        }
+    }
+}
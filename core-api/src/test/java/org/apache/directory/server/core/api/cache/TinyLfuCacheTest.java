@@ -0,0 +1,245 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.api.cache;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+
+/**
+ * Tests the {@link TinyLfuCache} class.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class TinyLfuCacheTest
+{
+    @Test
+    public void testPutGetRemove()
+    {
+        DirectoryCache<String, String> cache = new TinyLfuCache<>( 100 );
+
+        assertNull( cache.get( "a" ) );
+        cache.put( "a", "A" );
+        cache.put( "b", "B" );
+        assertEquals( "A", cache.get( "a" ) );
+        assertEquals( "B", cache.get( "b" ) );
+        assertEquals( 2, cache.size() );
+        assertEquals( 2L, cache.getWeightedSize() );
+
+        cache.put( "a", "AA" );
+        assertEquals( "AA", cache.get( "a" ) );
+        assertEquals( 2L, cache.getWeightedSize() );
+
+        cache.remove( "a" );
+        assertNull( cache.get( "a" ) );
+        assertEquals( 1, cache.size() );
+        assertEquals( 1L, cache.getWeightedSize() );
+
+        assertEquals( 3L, cache.getHitCount() );
+        assertEquals( 2L, cache.getMissCount() );
+        assertEquals( 0L, cache.getEvictionCount() );
+
+        cache.clear();
+        assertEquals( 0, cache.size() );
+        assertEquals( 0L, cache.getWeightedSize() );
+    }
+
+
+    @Test
+    public void testMaximumSize()
+    {
+        DirectoryCache<Integer, String> cache = new TinyLfuCache<>( 100 );
+
+        for ( int i = 0; i < 1000; i++ )
+        {
+            cache.put( i, "value" + i );
+        }
+
+        assertEquals( 100, cache.size() );
+        assertEquals( 100L, cache.getWeightedSize() );
+        assertEquals( 900L, cache.getEvictionCount() );
+    }
+
+
+    @Test
+    public void testMaximumWeight()
+    {
+        DirectoryCache<Integer, String> cache = new TinyLfuCache<>( 1000L, new Weigher<Integer, String>()
+        {
+            @Override
+            public int weigh( Integer key, String value )
+            {
+                return value.length();
+            }
+        } );
+
+        for ( int i = 0; i < 1000; i++ )
+        {
+            cache.put( i, ( i % 2 == 0 ) ? "0123456789" : "01234" );
+        }
+
+        assertTrue( cache.getWeightedSize() <= 1000L );
+        assertTrue( cache.getWeightedSize() > 900L );
+
+        // An element larger than the cache is not kept
+        StringBuilder sb = new StringBuilder();
+
+        for ( int i = 0; i < 2000; i++ )
+        {
+            sb.append( 'x' );
+        }
+
+        cache.put( -1, sb.toString() );
+        assertNull( cache.get( -1 ) );
+        assertTrue( cache.getWeightedSize() <= 1000L );
+    }
+
+
+    @Test
+    public void testPopularElementsSurviveAScan()
+    {
+        DirectoryCache<Integer, String> cache = new TinyLfuCache<>( 100 );
+
+        // A working set, used many times
+        for ( int round = 0; round < 10; round++ )
+        {
+            for ( int i = 0; i < 50; i++ )
+            {
+                if ( cache.get( i ) == null )
+                {
+                    cache.put( i, "value" + i );
+                }
+            }
+        }
+
+        // A scan of elements used once
+        for ( int i = 1000; i < 20000; i++ )
+        {
+            if ( cache.get( i ) == null )
+            {
+                cache.put( i, "value" + i );
+            }
+        }
+
+        int present = 0;
+
+        for ( int i = 0; i < 50; i++ )
+        {
+            if ( cache.get( i ) != null )
+            {
+                present++;
+            }
+        }
+
+        // A LRU cache would have lost all of them
+        assertTrue( "Only " + present + " popular elements are still in the cache", present >= 45 );
+        assertEquals( 100, cache.size() );
+    }
+
+
+    @Test
+    public void testRemoveAll()
+    {
+        DirectoryCache<Integer, String> cache = new TinyLfuCache<>( 100 );
+
+        for ( int i = 0; i < 50; i++ )
+        {
+            cache.put( i, "value" + i );
+        }
+
+        int removed = cache.removeAll( new DirectoryCache.Selector<Integer, String>()
+        {
+            @Override
+            public boolean select( Integer key, String value )
+            {
+                return key % 2 == 0;
+            }
+        } );
+
+        assertEquals( 25, removed );
+        assertEquals( 25, cache.size() );
+        assertEquals( 25L, cache.getWeightedSize() );
+        assertNull( cache.get( 0 ) );
+        assertNotNull( cache.get( 1 ) );
+    }
+
+
+    @Test
+    public void testConcurrentAccesses() throws Exception
+    {
+        final DirectoryCache<Integer, Integer> cache = new TinyLfuCache<>( 500 );
+        final AtomicInteger errors = new AtomicInteger();
+        Thread[] threads = new Thread[8];
+
+        for ( int t = 0; t < threads.length; t++ )
+        {
+            final Random random = new Random( t );
+
+            threads[t] = new Thread()
+            {
+                public void run()
+                {
+                    for ( int i = 0; i < 50000; i++ )
+                    {
+                        int key = random.nextInt( 2000 );
+                        Integer value = cache.get( key );
+
+                        if ( value == null )
+                        {
+                            cache.put( key, key );
+                        }
+                        else if ( value != key )
+                        {
+                            errors.incrementAndGet();
+                        }
+
+                        if ( i % 1000 == 0 )
+                        {
+                            cache.remove( key );
+                        }
+                    }
+                }
+            };
+
+            threads[t].start();
+        }
+
+        for ( Thread thread : threads )
+        {
+            thread.join();
+        }
+
+        assertEquals( 0, errors.get() );
+
+        // Once the pending operations have been applied, the cache is within its bounds
+        cache.put( -1, -1 );
+        assertTrue( cache.size() <= 500 );
+        assertEquals( cache.size(), cache.getWeightedSize() );
+        assertEquals( 400000L, cache.getHitCount() + cache.getMissCount() );
+    }
+}
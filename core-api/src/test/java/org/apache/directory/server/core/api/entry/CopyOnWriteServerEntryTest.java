@@ -0,0 +1,166 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.api.entry;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.apache.directory.api.ldap.model.entry.Attribute;
+import org.apache.directory.api.ldap.model.entry.DefaultAttribute;
+import org.apache.directory.api.ldap.model.entry.DefaultEntry;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.junit.Before;
+import org.junit.Test;
+
+
+/**
+ * Unit tests class CopyOnWriteServerEntry.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class CopyOnWriteServerEntryTest
+{
+    private Entry original;
+
+
+    @Before
+    public void initEntry() throws Exception
+    {
+        original = new DefaultEntry( "cn=test,dc=example,dc=com",
+            "objectClass: top",
+            "objectClass: person",
+            "cn: test",
+            "sn: Test",
+            "description: a",
+            "description: b" );
+    }
+
+
+    @Test
+    public void testSharedUntilModified() throws Exception
+    {
+        Attribute description = original.get( "description" );
+        CopyOnWriteServerEntry entry = new CopyOnWriteServerEntry( original );
+
+        // The attributes are shared while they are only read
+        boolean found = false;
+
+        for ( Attribute attribute : entry )
+        {
+            if ( attribute == description )
+            {
+                found = true;
+            }
+        }
+
+        assertTrue( found );
+        assertSame( original, entry.getOriginalEntry() );
+        assertEquals( 4, entry.size() );
+
+        // A get returns a copy, which is returned again by the next gets
+        Attribute copy = entry.get( "description" );
+        assertNotSame( description, copy );
+        assertSame( copy, entry.get( "description" ) );
+
+        copy.add( "c" );
+        assertEquals( 3, entry.get( "description" ).size() );
+        assertEquals( 2, original.get( "description" ).size() );
+    }
+
+
+    @Test
+    public void testAddRemoveValues() throws Exception
+    {
+        CopyOnWriteServerEntry entry = new CopyOnWriteServerEntry( original );
+
+        entry.add( "description", "c" );
+        entry.remove( "sn", "Test" );
+        entry.add( "telephoneNumber", "1234" );
+
+        assertTrue( entry.contains( "description", "a", "b", "c" ) );
+        assertFalse( entry.containsAttribute( "sn" ) );
+        assertTrue( entry.contains( "telephoneNumber", "1234" ) );
+
+        assertEquals( 2, original.get( "description" ).size() );
+        assertTrue( original.contains( "sn", "Test" ) );
+        assertFalse( original.containsAttribute( "telephoneNumber" ) );
+    }
+
+
+    @Test
+    public void testRemoveAttributes() throws Exception
+    {
+        CopyOnWriteServerEntry entry = new CopyOnWriteServerEntry( original );
+
+        entry.removeAttributes( "description" );
+        entry.remove( entry.get( "sn" ) );
+        entry.setDn( "cn=other,dc=example,dc=com" );
+
+        assertEquals( 2, entry.size() );
+        assertEquals( 4, original.size() );
+        assertEquals( "cn=test,dc=example,dc=com", original.getDn().getName() );
+    }
+
+
+    @Test
+    public void testPutOwned() throws Exception
+    {
+        CopyOnWriteServerEntry entry = new CopyOnWriteServerEntry( original );
+
+        Attribute telephone = new DefaultAttribute( "telephoneNumber", "1234" );
+        entry.put( telephone );
+
+        // The put attribute is not copied
+        assertSame( telephone, entry.get( "telephoneNumber" ) );
+
+        entry.put( "description", "z" );
+        entry.get( "description" ).add( "y" );
+
+        assertTrue( entry.contains( "description", "y", "z" ) );
+        assertTrue( original.contains( "description", "a", "b" ) );
+        assertFalse( original.containsAttribute( "telephoneNumber" ) );
+    }
+
+
+    @Test
+    public void testGetClonedEntry() throws Exception
+    {
+        CopyOnWriteServerEntry entry = new CopyOnWriteServerEntry( original );
+        Attribute sn = entry.get( "sn" );
+
+        Entry cloned = entry.getClonedEntry();
+
+        assertTrue( entry.isMaterialized() );
+        assertSame( sn, cloned.get( "sn" ) );
+
+        // None of the attributes is shared anymore
+        for ( Attribute attribute : cloned )
+        {
+            assertNotSame( original.get( attribute.getUpId() ), attribute );
+        }
+
+        cloned.get( "description" ).clear();
+        assertEquals( 2, original.get( "description" ).size() );
+    }
+}
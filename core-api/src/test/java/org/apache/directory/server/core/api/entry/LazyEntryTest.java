@@ -0,0 +1,239 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.api.entry;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.util.List;
+
+import org.apache.directory.api.ldap.model.entry.Attribute;
+import org.apache.directory.api.ldap.model.entry.DefaultEntry;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.schema.AttributeType;
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.api.ldap.schema.extractor.SchemaLdifExtractor;
+import org.apache.directory.api.ldap.schema.extractor.impl.DefaultSchemaLdifExtractor;
+import org.apache.directory.api.ldap.schema.loader.LdifSchemaLoader;
+import org.apache.directory.api.ldap.schema.manager.impl.DefaultSchemaManager;
+import org.apache.directory.api.util.exception.Exceptions;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+
+/**
+ * Test the LazyEntry class.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class LazyEntryTest
+{
+    private static SchemaManager schemaManager;
+
+    private Entry entry;
+    private byte[] data;
+
+
+    /**
+     * Initialize the registries once for the whole test suite
+     */
+    @BeforeClass
+    public static void setup() throws Exception
+    {
+        String workingDirectory = System.getProperty( "workingDirectory" );
+
+        if ( workingDirectory == null )
+        {
+            String path = LazyEntryTest.class.getResource( "" ).getPath();
+            int targetPos = path.indexOf( "target" );
+            workingDirectory = path.substring( 0, targetPos + 6 );
+        }
+
+        File schemaRepository = new File( workingDirectory, "schema" );
+        SchemaLdifExtractor extractor = new DefaultSchemaLdifExtractor( new File( workingDirectory ) );
+        extractor.extractOrCopy( true );
+        LdifSchemaLoader loader = new LdifSchemaLoader( schemaRepository );
+
+        schemaManager = new DefaultSchemaManager( loader );
+        schemaManager.loadAllEnabled();
+
+        List<Throwable> errors = schemaManager.getErrors();
+
+        if ( errors.size() != 0 )
+        {
+            fail( "Schema load failed : " + Exceptions.printErrors( errors ) );
+        }
+    }
+
+
+    @Before
+    public void init() throws Exception
+    {
+        entry = new DefaultEntry( schemaManager,
+            "cn=test,ou=system",
+            "objectClass: top",
+            "objectClass: groupOfNames",
+            "cn: test",
+            "description: a group",
+            "member: uid=user1,ou=system",
+            "member: uid=user2,ou=system" );
+
+        data = LazyEntry.serialize( entry );
+    }
+
+
+    private LazyEntry deserialize() throws Exception
+    {
+        return LazyEntry.deserialize( schemaManager, data, 0, data.length );
+    }
+
+
+    @Test
+    public void testIsLazyFormat() throws Exception
+    {
+        assertTrue( LazyEntry.isLazyFormat( data, 0, data.length ) );
+        assertFalse( LazyEntry.isLazyFormat( data, 0, 0 ) );
+
+        byte[] buffer = new byte[data.length + 3];
+        System.arraycopy( data, 0, buffer, 3, data.length );
+        LazyEntry lazyEntry = LazyEntry.deserialize( schemaManager, buffer, 3, data.length );
+
+        assertEquals( 4, lazyEntry.size() );
+        assertTrue( lazyEntry.contains( "cn", "test" ) );
+    }
+
+
+    @Test
+    public void testDecodeOnAccess() throws Exception
+    {
+        LazyEntry lazyEntry = deserialize();
+
+        assertEquals( 4, lazyEntry.size() );
+        assertEquals( 4, lazyEntry.getPendingCount() );
+        assertEquals( "cn=test", lazyEntry.getDn().getName() );
+
+        // Checking the presence does not decode the attribute
+        assertTrue( lazyEntry.containsAttribute( "member" ) );
+        assertTrue( lazyEntry.containsAttribute( schemaManager.getAttributeType( "cn" ) ) );
+        assertFalse( lazyEntry.containsAttribute( "sn" ) );
+        assertEquals( 4, lazyEntry.getPendingCount() );
+
+        // Neither does the list of attributeTypes
+        List<AttributeType> attributeTypes = lazyEntry.getAttributeTypes();
+        assertEquals( 4, attributeTypes.size() );
+        assertTrue( attributeTypes.contains( schemaManager.getAttributeType( "member" ) ) );
+        assertEquals( 4, lazyEntry.getPendingCount() );
+
+        Attribute cn = lazyEntry.get( "cn" );
+        assertEquals( entry.get( "cn" ), cn );
+        assertSame( cn, lazyEntry.get( "cn" ) );
+        assertEquals( 3, lazyEntry.getPendingCount() );
+
+        assertTrue( lazyEntry.hasObjectClass( "groupOfNames" ) );
+        assertEquals( 2, lazyEntry.getPendingCount() );
+
+        // Reading all the attributes decodes them. Only the Rdn is serialized
+        lazyEntry.setDn( entry.getDn() );
+        assertEquals( entry, lazyEntry );
+        assertEquals( 0, lazyEntry.getPendingCount() );
+    }
+
+
+    @Test
+    public void testModifications() throws Exception
+    {
+        LazyEntry lazyEntry = deserialize();
+
+        // Removing or replacing an attribute does not decode it
+        lazyEntry.removeAttributes( "member" );
+        lazyEntry.put( "description", "another group" );
+        assertEquals( 2, lazyEntry.getPendingCount() );
+
+        lazyEntry.add( "cn", "test2" );
+        lazyEntry.remove( "objectClass", "top" );
+
+        assertEquals( 3, lazyEntry.size() );
+        assertNull( lazyEntry.get( "member" ) );
+        assertTrue( lazyEntry.contains( "description", "another group" ) );
+        assertTrue( lazyEntry.contains( "cn", "test", "test2" ) );
+        assertFalse( lazyEntry.contains( "objectClass", "top" ) );
+
+        Entry expected = new DefaultEntry( schemaManager,
+            "cn=test",
+            "objectClass: groupOfNames",
+            "cn: test",
+            "cn: test2",
+            "description: another group" );
+
+        assertEquals( expected, lazyEntry );
+
+        // The modified entry can be serialized again
+        byte[] modified = LazyEntry.serialize( lazyEntry );
+        assertEquals( expected, LazyEntry.deserialize( schemaManager, modified, 0, modified.length ) );
+    }
+
+
+    @Test
+    public void testShallowClone() throws Exception
+    {
+        LazyEntry lazyEntry = deserialize();
+        Attribute description = lazyEntry.get( "description" );
+
+        LazyEntry clone = ( LazyEntry ) lazyEntry.shallowClone();
+
+        // The decoded attributes are shared
+        assertSame( description, clone.get( "description" ) );
+        assertSame( lazyEntry.get( "member" ), clone.get( "member" ) );
+
+        // The clone's modifications are not seen by the entry
+        clone.removeAttributes( "cn" );
+        clone.put( "description", "another group" );
+
+        assertEquals( 3, clone.size() );
+        assertEquals( 4, lazyEntry.size() );
+        assertTrue( lazyEntry.contains( "cn", "test" ) );
+        assertSame( description, lazyEntry.get( "description" ) );
+    }
+
+
+    @Test
+    public void testCopyOnWriteView() throws Exception
+    {
+        LazyEntry lazyEntry = deserialize();
+        CopyOnWriteServerEntry view = new CopyOnWriteServerEntry( lazyEntry );
+        AttributeType memberAT = schemaManager.getAttributeType( "member" );
+
+        // Reading an attribute does not copy it, and only decodes it
+        Attribute member = ServerEntryUtils.getReadOnlyAttribute( view, memberAT );
+        assertSame( lazyEntry.get( memberAT ), member );
+        assertEquals( 3, lazyEntry.getPendingCount() );
+
+        view.get( memberAT ).clear();
+
+        assertEquals( 2, lazyEntry.get( memberAT ).size() );
+    }
+}
@@ -0,0 +1,144 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.api.subtree;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import org.apache.directory.api.ldap.model.entry.DefaultEntry;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.filter.FilterParser;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.api.ldap.model.subtree.Subentry;
+import org.apache.directory.api.ldap.model.subtree.SubtreeSpecificationModifier;
+import org.junit.Before;
+import org.junit.Test;
+
+
+/**
+ * Tests the subentry operational attributes kept by the SubentryCache.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class SubentryCacheTest
+{
+    /** The cache */
+    private SubentryCache cache;
+
+    /** Some computed attributes */
+    private Entry attributes;
+
+
+    @Before
+    public void createCache() throws Exception
+    {
+        cache = new SubentryCache();
+        attributes = new DefaultEntry( "ou=test,ou=system",
+            "accessControlSubentries: cn=aci,ou=system" );
+    }
+
+
+    private Subentry createSubentry( String refinement ) throws Exception
+    {
+        SubtreeSpecificationModifier modifier = new SubtreeSpecificationModifier();
+
+        if ( refinement != null )
+        {
+            modifier.setRefinement( FilterParser.parse( refinement ) );
+        }
+
+        Subentry subentry = new Subentry();
+        subentry.setSubtreeSpecification( modifier.getSubtreeSpecification() );
+
+        return subentry;
+    }
+
+
+    private Entry createEntry( String... objectClasses ) throws Exception
+    {
+        Entry entry = new DefaultEntry( "ou=test,ou=system" );
+        entry.add( "objectClass", objectClasses );
+
+        return entry;
+    }
+
+
+    @Test
+    public void testGeneration() throws Exception
+    {
+        long generation = cache.getGeneration();
+
+        cache.addSubentry( new Dn( "cn=aci,ou=system" ), createSubentry( null ) );
+        assertEquals( generation + 1, cache.getGeneration() );
+
+        // Removing an unknown subentry does not change anything
+        cache.removeSubentry( new Dn( "cn=unknown,ou=system" ) );
+        assertEquals( generation + 1, cache.getGeneration() );
+
+        cache.removeSubentry( new Dn( "cn=aci,ou=system" ) );
+        assertEquals( generation + 2, cache.getGeneration() );
+    }
+
+
+    @Test
+    public void testAttributesInvalidated() throws Exception
+    {
+        Entry entry = createEntry( "top", "organizationalUnit" );
+        long generation = cache.getGeneration();
+
+        cache.putSubentryAttributes( generation, entry, attributes );
+        assertSame( attributes, cache.getSubentryAttributes( generation, entry ) );
+
+        cache.addSubentry( new Dn( "cn=aci,ou=system" ), createSubentry( null ) );
+
+        assertNull( cache.getSubentryAttributes( generation, entry ) );
+        assertNull( cache.getSubentryAttributes( cache.getGeneration(), entry ) );
+    }
+
+
+    @Test
+    public void testStaleAttributesIgnored() throws Exception
+    {
+        Entry entry = createEntry( "top", "organizationalUnit" );
+
+        // The attributes are computed while a subentry is added
+        long generation = cache.getGeneration();
+        cache.addSubentry( new Dn( "cn=aci,ou=system" ), createSubentry( null ) );
+        cache.putSubentryAttributes( generation, entry, attributes );
+
+        assertNull( cache.getSubentryAttributes( cache.getGeneration(), entry ) );
+    }
+
+
+    @Test
+    public void testRefinement() throws Exception
+    {
+        cache.addSubentry( new Dn( "cn=aci,ou=system" ), createSubentry( "(objectClass=person)" ) );
+        long generation = cache.getGeneration();
+
+        cache.putSubentryAttributes( generation, createEntry( "top", "person" ), attributes );
+
+        // The attributes depend on the ObjectClasses, not on their order
+        assertSame( attributes, cache.getSubentryAttributes( generation, createEntry( "person", "top" ) ) );
+        assertNull( cache.getSubentryAttributes( generation, createEntry( "top", "organizationalUnit" ) ) );
+    }
+}
@@ -730,6 +730,89 @@ public class SearchAuthorizationIT extends AbstractLdapTestUnit
     }
     
     
+    /**
+     * Checks to make sure specific collective attribute values are not present when
+     * read permission is denied, and that they are still returned to other users :
+     * the collective attributes injected in the entries are shared by all of them.
+     *
+     * @throws Exception if the test encounters an error
+     */
+    @Test
+    public void testHidingCollectiveAttributeValues() throws Exception
+    {
+        // create the non-admin user
+        createUser( "billyd", "billyd" );
+
+        // add a collective attribute subentry with two c-ou values to the entries below ou=tests
+        LdapConnection adminConnection = getAdminConnection();
+        adminConnection.modify( "ou=system", new DefaultModification( ModificationOperation.ADD_ATTRIBUTE,
+            "administrativeRole", "collectiveAttributeSpecificArea" ) );
+        adminConnection.add( new DefaultEntry(
+            "cn=collectiveSubentry,ou=system",
+            "objectClass: top",
+            "objectClass: subentry",
+            "objectClass: collectiveAttributeSubentry",
+            "c-ou: visible",
+            "c-ou: hidden",
+            "subtreeSpecification: { base \"ou=tests\" }",
+            "cn: collectiveSubentry" ) );
+
+        // only the visible c-ou value can be read
+        createAccessControlSubentry( "excludeCollectiveValue", "{ maximum 2 }",
+            "{ " +
+                "  identificationTag \"searchAci\", " +
+                "  precedence 14, " +
+                "  authenticationLevel none, " +
+                "  itemOrUserFirst userFirst: " +
+                "  { " +
+                "    userClasses { allUsers }, " +
+                "    userPermissions " +
+                "    { " +
+                "      { " +
+                "        protectedItems " +
+                "        {" +
+                "          entry, " +
+                "          attributeType { ou, c-ou }, " +
+                "          allAttributeValues { objectClass, ou }, " +
+                "          attributeValue { c-ou=visible } " +
+                "        }, " +
+                "        grantsAndDenials { grantRead, grantReturnDN, grantBrowse } " +
+                "      } " +
+                "    } " +
+                "  } " +
+                "}" );
+
+        for ( int i = 0; i < 2; i++ )
+        {
+            assertTrue( checkCanSearchAs( "billyd", "billyd", 3 ) );
+
+            for ( Entry result : results.values() )
+            {
+                assertNotNull( result.get( "c-ou" ) );
+                assertEquals( 1, result.get( "c-ou" ).size() );
+                assertTrue( result.get( "c-ou" ).contains( "visible" ) );
+            }
+
+            // the administrator still reads both values
+            EntryCursor cursor = adminConnection.search( "ou=tests,ou=system", "(objectClass=*)",
+                SearchScope.ONELEVEL, "*" );
+            int counter = 0;
+
+            while ( cursor.next() )
+            {
+                Entry result = cursor.get();
+                assertEquals( 2, result.get( "c-ou" ).size() );
+                assertTrue( result.get( "c-ou" ).contains( "visible", "hidden" ) );
+                counter++;
+            }
+
+            cursor.close();
+
+            assertEquals( 3, counter );
+        }
+    }
+
+
     /**
      * Adds a perscriptiveACI to allow search, tests for success, then adds entryACI
      * to deny read, browse and returnDN to a specific entry and checks to make sure
@@ -544,6 +544,100 @@ public class CollectiveAttributeServiceIT extends AbstractLdapTestUnit
     }
 
 
+    @Test
+    public void testSubentryUpdates() throws Exception
+    {
+        LdapConnection connection = IntegrationUtils.getAdminConnection( getService() );
+
+        addAdministrativeRole( connection, "collectiveAttributeSpecificArea" );
+        connection.add( getTestSubentry( "cn=testsubentry,ou=system" ) );
+
+        // The subentry's attributes are read, and cached
+        Entry entry = connection.lookup( "ou=services,ou=configuration,ou=system" );
+        assertTrue( entry.contains( "c-ou", "configuration" ) );
+
+        // A modification of the subentry is seen at once
+        connection.modify( "cn=testsubentry,ou=system", new DefaultModification(
+            ModificationOperation.REPLACE_ATTRIBUTE, new DefaultAttribute( "c-ou", "modified" ) ) );
+
+        entry = connection.lookup( "ou=services,ou=configuration,ou=system" );
+        Attribute c_ou = entry.get( "c-ou" );
+        assertNotNull( "a collective c-ou attribute should be present", c_ou );
+        assertEquals( 1, c_ou.size() );
+        assertEquals( "modified", c_ou.getString() );
+
+        // The renamed subentry still applies
+        connection.rename( "cn=testsubentry,ou=system", "cn=renamedsubentry" );
+
+        entry = connection.lookup( "ou=services,ou=configuration,ou=system" );
+        c_ou = entry.get( "c-ou" );
+        assertNotNull( "a collective c-ou attribute should be present", c_ou );
+        assertEquals( 1, c_ou.size() );
+        assertEquals( "modified", c_ou.getString() );
+
+        // The deleted subentry does not apply anymore
+        connection.delete( "cn=renamedsubentry,ou=system" );
+
+        entry = connection.lookup( "ou=services,ou=configuration,ou=system" );
+        assertNull( "the c-ou collective attribute should not be present", entry.get( "c-ou" ) );
+
+        connection.close();
+    }
+
+
+    @Test
+    public void testMergedCollectiveAttributes() throws Exception
+    {
+        LdapConnection connection = IntegrationUtils.getAdminConnection( getService() );
+
+        addAdministrativeRole( connection, "collectiveAttributeSpecificArea" );
+        connection.add( getTestSubentry( "cn=testsubentry,ou=system" ) );
+
+        // A second subentry, applying to ou=interceptors only
+        connection.add( new DefaultEntry(
+            "cn=interceptorssubentry,ou=system",
+            "objectClass: top",
+            "objectClass: subentry",
+            "objectClass: collectiveAttributeSubentry",
+            "c-ou: interceptors",
+            "subtreeSpecification: { base \"ou=interceptors,ou=configuration\" }",
+            "cn: interceptorssubentry" ) );
+
+        for ( int i = 0; i < 2; i++ )
+        {
+            // The first subentry's values only
+            Entry entry = connection.lookup( "ou=services,ou=configuration,ou=system" );
+            Attribute c_ou = entry.get( "c-ou" );
+            assertNotNull( "a collective c-ou attribute should be present", c_ou );
+            assertEquals( 1, c_ou.size() );
+            assertEquals( "configuration", c_ou.getString() );
+
+            // The values of both subentries : the first subentry's ones are not modified by the merge
+            entry = connection.lookup( "ou=interceptors,ou=configuration,ou=system" );
+            c_ou = entry.get( "c-ou" );
+            assertNotNull( "a collective c-ou attribute should be present", c_ou );
+            assertEquals( 2, c_ou.size() );
+            assertTrue( c_ou.contains( "configuration", "interceptors" ) );
+        }
+
+        // The same in a single search
+        Map<String, Entry> entries = getAllEntriesCollectiveAttributesOnly( connection );
+
+        Attribute c_ou = entries.get( "ou=interceptors,ou=configuration,ou=system" ).get( "c-ou" );
+        assertEquals( 2, c_ou.size() );
+        assertTrue( c_ou.contains( "configuration", "interceptors" ) );
+
+        c_ou = entries.get( "ou=services,ou=configuration,ou=system" ).get( "c-ou" );
+        assertEquals( 1, c_ou.size() );
+        assertEquals( "configuration", c_ou.getString() );
+
+        c_ou = entries.get( "ou=partitions,ou=configuration,ou=system" ).get( "c-ou" );
+        assertEquals( 1, c_ou.size() );
+        assertEquals( "configuration", c_ou.getString() );
+
+        connection.close();
+    }
+
     @Test
     public void testPolymorphicReturnAttrLookup() throws Exception
     {
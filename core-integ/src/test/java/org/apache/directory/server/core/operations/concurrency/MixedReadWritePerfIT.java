@@ -0,0 +1,225 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.operations.concurrency;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.directory.api.ldap.model.entry.DefaultEntry;
+import org.apache.directory.api.ldap.model.entry.DefaultModification;
+import org.apache.directory.api.ldap.model.entry.ModificationOperation;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.server.core.annotations.ContextEntry;
+import org.apache.directory.server.core.annotations.CreateDS;
+import org.apache.directory.server.core.annotations.CreateIndex;
+import org.apache.directory.server.core.annotations.CreatePartition;
+import org.apache.directory.server.core.api.CoreSession;
+import org.apache.directory.server.core.integ.AbstractLdapTestUnit;
+import org.apache.directory.server.core.integ.FrameworkRunner;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+
+/**
+ * A micro benchmark measuring the throughput of a mix of lookups and modifications
+ * done on two partitions, with an increasing number of threads. The writers modify
+ * entries in the dc=people partition, the readers lookup entries in the dc=example
+ * partition : as the partitions are locked independently, the readers throughput
+ * should scale with the number of cores, whatever the number of writers.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+@RunWith(FrameworkRunner.class)
+@CreateDS(
+    name = "MixedReadWritePerfDS",
+    partitions =
+        {
+            @CreatePartition(
+                name = "people",
+                suffix = "dc=people,dc=com",
+                contextEntry = @ContextEntry(
+                    entryLdif =
+                    "dn: dc=people,dc=com\n" +
+                        "dc: people\n" +
+                        "objectClass: top\n" +
+                        "objectClass: domain\n\n"),
+                indexes =
+                    {
+                        @CreateIndex(attribute = "objectClass"),
+                        @CreateIndex(attribute = "cn")
+                }),
+            @CreatePartition(
+                name = "example",
+                suffix = "dc=example,dc=com",
+                contextEntry = @ContextEntry(
+                    entryLdif =
+                    "dn: dc=example,dc=com\n" +
+                        "dc: example\n" +
+                        "objectClass: top\n" +
+                        "objectClass: domain\n\n"),
+                indexes =
+                    {
+                        @CreateIndex(attribute = "objectClass"),
+                        @CreateIndex(attribute = "cn")
+                })
+    },
+    enableChangeLog = false)
+public class MixedReadWritePerfIT extends AbstractLdapTestUnit
+{
+    /** The number of entries in each partition */
+    private static final int NB_ENTRIES = 1000;
+
+    /** The duration of each run, in ms */
+    private static final long DURATION = 5000L;
+
+
+    private Dn[] createEntries( CoreSession session, String suffix ) throws Exception
+    {
+        Dn[] dns = new Dn[NB_ENTRIES];
+
+        for ( int i = 0; i < NB_ENTRIES; i++ )
+        {
+            dns[i] = new Dn( getService().getSchemaManager(), "cn=test" + i + "," + suffix );
+
+            session.add( new DefaultEntry( getService().getSchemaManager(), dns[i],
+                "ObjectClass: top",
+                "ObjectClass: person",
+                "sn: test" + i,
+                "cn: test" + i ) );
+        }
+
+        return dns;
+    }
+
+
+    /**
+     * Run the readers and the writers for a while, and return the number of
+     * operations they have done
+     */
+    private long[] run( final CoreSession session, int nbReaders, int nbWriters, final Dn[] readDns,
+        final Dn[] writeDns ) throws Exception
+    {
+        final AtomicLong nbReads = new AtomicLong();
+        final AtomicLong nbWrites = new AtomicLong();
+        final AtomicLong nbErrors = new AtomicLong();
+        final CountDownLatch start = new CountDownLatch( 1 );
+        final long[] end = new long[1];
+        Thread[] threads = new Thread[nbReaders + nbWriters];
+
+        for ( int t = 0; t < threads.length; t++ )
+        {
+            final boolean writer = t < nbWriters;
+            final Random random = new Random( t );
+
+            threads[t] = new Thread()
+            {
+                public void run()
+                {
+                    try
+                    {
+                        start.await();
+                        long count = 0L;
+
+                        while ( System.currentTimeMillis() < end[0] )
+                        {
+                            if ( writer )
+                            {
+                                session.modify( writeDns[random.nextInt( writeDns.length )],
+                                    new DefaultModification( ModificationOperation.REPLACE_ATTRIBUTE, "description",
+                                        "value " + count ) );
+                            }
+                            else
+                            {
+                                assertNotNull( session.lookup( readDns[random.nextInt( readDns.length )], "*" ) );
+                            }
+
+                            count++;
+                        }
+
+                        if ( writer )
+                        {
+                            nbWrites.addAndGet( count );
+                        }
+                        else
+                        {
+                            nbReads.addAndGet( count );
+                        }
+                    }
+                    catch ( Exception e )
+                    {
+                        e.printStackTrace();
+                        nbErrors.incrementAndGet();
+                    }
+                }
+            };
+
+            threads[t].start();
+        }
+
+        end[0] = System.currentTimeMillis() + DURATION;
+        start.countDown();
+
+        for ( Thread thread : threads )
+        {
+            thread.join();
+        }
+
+        assertEquals( 0L, nbErrors.get() );
+
+        return new long[]
+            { nbReads.get(), nbWrites.get() };
+    }
+
+
+    /**
+     * Measure the read and write throughput with 1 to 2 * cores threads, one out
+     * of four of them being a writer.
+     */
+    @Test
+    public void testMixedReadWritePerf() throws Exception
+    {
+        CoreSession session = getService().getAdminSession();
+        Dn[] writeDns = createEntries( session, "dc=people,dc=com" );
+        Dn[] readDns = createEntries( session, "dc=example,dc=com" );
+
+        int nbCores = Runtime.getRuntime().availableProcessors();
+
+        // Warm up
+        run( session, 2, 1, readDns, writeDns );
+
+        System.out.println( "Threads, readers, writers, reads/s, writes/s (" + nbCores + " cores)" );
+
+        for ( int nbThreads = 1; nbThreads <= 2 * nbCores; nbThreads *= 2 )
+        {
+            int nbWriters = Math.max( 1, nbThreads / 4 );
+            int nbReaders = Math.max( 1, nbThreads - nbWriters );
+
+            long[] counts = run( session, nbReaders, nbWriters, readDns, writeDns );
+
+            System.out.println( ( nbReaders + nbWriters ) + ", " + nbReaders + ", " + nbWriters + ", "
+                + ( ( counts[0] * 1000L ) / DURATION ) + ", " + ( ( counts[1] * 1000L ) / DURATION ) );
+        }
+    }
+}
@@ -0,0 +1,215 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.operations.search;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assume.assumeTrue;
+
+import java.lang.management.ManagementFactory;
+
+import org.apache.directory.api.ldap.model.cursor.EntryCursor;
+import org.apache.directory.api.ldap.model.entry.DefaultEntry;
+import org.apache.directory.api.ldap.model.message.SearchScope;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.ldap.client.api.LdapConnection;
+import org.apache.directory.server.core.annotations.ContextEntry;
+import org.apache.directory.server.core.annotations.CreateDS;
+import org.apache.directory.server.core.annotations.CreateIndex;
+import org.apache.directory.server.core.annotations.CreatePartition;
+import org.apache.directory.server.core.integ.AbstractLdapTestUnit;
+import org.apache.directory.server.core.integ.FrameworkRunner;
+import org.apache.directory.server.core.integ.IntegrationUtils;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+
+/**
+ * Measures the memory allocated per returned entry by the lookup and search operations,
+ * once the entries are in the partition cache. The operations are run on the core
+ * session connection, in the test thread, so that the bytes allocated by this thread
+ * are those allocated by the operations.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+@RunWith(FrameworkRunner.class)
+@CreateDS(
+    name = "EntryAllocationPerfDS",
+    partitions =
+        {
+            @CreatePartition(
+                cacheSize = 2000,
+                name = "example",
+                suffix = "dc=example,dc=com",
+                contextEntry = @ContextEntry(
+                    entryLdif =
+                    "dn: dc=example,dc=com\n" +
+                        "dc: example\n" +
+                        "objectClass: top\n" +
+                        "objectClass: domain\n\n"),
+                indexes =
+                    {
+                        @CreateIndex(attribute = "objectClass"),
+                        @CreateIndex(attribute = "cn")
+                })
+
+    },
+    enableChangeLog = false)
+public class EntryAllocationPerfIT extends AbstractLdapTestUnit
+{
+    /** The number of users */
+    private static final int NB_USERS = 1000;
+
+    /** The number of measured iterations */
+    private static final int NB_ITERATIONS = 200;
+
+    /** The number of warming iterations */
+    private static final int NB_WARMING = 100;
+
+    private com.sun.management.ThreadMXBean threadBean;
+
+
+    @Before
+    public void init() throws Exception
+    {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        assumeTrue( bean instanceof com.sun.management.ThreadMXBean );
+
+        threadBean = ( com.sun.management.ThreadMXBean ) bean;
+        assumeTrue( threadBean.isThreadAllocatedMemorySupported() );
+        threadBean.setThreadAllocatedMemoryEnabled( true );
+
+        LdapConnection connection = IntegrationUtils.getAdminConnection( getService() );
+
+        if ( connection.exists( "ou=People,dc=example,dc=com" ) )
+        {
+            return;
+        }
+
+        connection.add( new DefaultEntry(
+            getService().getSchemaManager(),
+            "ou=People,dc=example,dc=com",
+            "objectClass: top",
+            "objectClass: organizationalUnit",
+            "ou: People" ) );
+
+        for ( int i = 0; i < NB_USERS; i++ )
+        {
+            connection.add( new DefaultEntry(
+                getService().getSchemaManager(),
+                "uid=user." + i + ",ou=People,dc=example,dc=com",
+                "objectClass: top",
+                "objectClass: person",
+                "objectClass: organizationalPerson",
+                "objectClass: inetOrgPerson",
+                "givenName: Aaccf",
+                "sn: Amar",
+                "cn", "user" + i,
+                "uid", "user." + i,
+                "mail: user.1@cs.hacettepe.edu.tr",
+                "telephoneNumber: 314-796-3178",
+                "street: 00599 First Street",
+                "l: Augusta",
+                "postalAddress: Aaccf Amar$00599 First Street$Augusta, MN  30667",
+                "description: This is the description for Aaccf Amar." ) );
+        }
+    }
+
+
+    private long getAllocatedBytes()
+    {
+        return threadBean.getThreadAllocatedBytes( Thread.currentThread().getId() );
+    }
+
+
+    private int search( LdapConnection connection ) throws Exception
+    {
+        int count = 0;
+
+        try ( EntryCursor cursor = connection.search( "ou=People,dc=example,dc=com", "(objectClass=person)",
+            SearchScope.ONELEVEL, "*" ) )
+        {
+            while ( cursor.next() )
+            {
+                cursor.get();
+                count++;
+            }
+        }
+
+        return count;
+    }
+
+
+    /**
+     * Measures the bytes allocated per lookup of a cached entry
+     */
+    @Test
+    public void testLookupAllocation() throws Exception
+    {
+        LdapConnection connection = IntegrationUtils.getAdminConnection( getService() );
+        Dn dn = new Dn( getService().getSchemaManager(), "uid=user.1,ou=People,dc=example,dc=com" );
+        int nbLookups = NB_ITERATIONS * 100;
+
+        for ( int i = 0; i < NB_WARMING * 100; i++ )
+        {
+            assertNotNull( connection.lookup( dn, "*" ) );
+        }
+
+        long before = getAllocatedBytes();
+
+        for ( int i = 0; i < nbLookups; i++ )
+        {
+            connection.lookup( dn, "*" );
+        }
+
+        long allocated = getAllocatedBytes() - before;
+
+        System.out.println( "Lookup : " + ( allocated / nbLookups ) + " bytes allocated per entry" );
+    }
+
+
+    /**
+     * Measures the bytes allocated per entry returned by a one level search on cached entries
+     */
+    @Test
+    public void testSearchAllocation() throws Exception
+    {
+        LdapConnection connection = IntegrationUtils.getAdminConnection( getService() );
+
+        for ( int i = 0; i < NB_WARMING; i++ )
+        {
+            assertEquals( NB_USERS, search( connection ) );
+        }
+
+        long before = getAllocatedBytes();
+        long count = 0L;
+
+        for ( int i = 0; i < NB_ITERATIONS; i++ )
+        {
+            count += search( connection );
+        }
+
+        long allocated = getAllocatedBytes() - before;
+
+        System.out.println( "Search : " + ( allocated / count ) + " bytes allocated per entry" );
+    }
+}
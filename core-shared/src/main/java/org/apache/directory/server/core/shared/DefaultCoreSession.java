@@ -20,7 +20,6 @@
 package org.apache.directory.server.core.shared;
 
 
-import java.io.File;
 import java.io.IOException;
 import java.net.SocketAddress;
 import java.text.ParseException;
@@ -32,8 +31,6 @@ import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.atomic.AtomicLong;
 
-import jdbm.recman.BaseRecordManager;
-
 import org.apache.directory.api.ldap.extras.controls.syncrepl.syncRequest.SyncRequestValue;
 import org.apache.directory.api.ldap.model.constants.AuthenticationLevel;
 import org.apache.directory.api.ldap.model.constants.SchemaConstants;
@@ -1208,7 +1205,8 @@ public class DefaultCoreSession implements CoreSession
 
             if ( ( sortRespCtrl != null ) && ( sortRespCtrl.getSortResult() == SortResultCode.SUCCESS ) )
             {
-                cursor = sortResults( cursor, sortControl, getDirectoryService().getSchemaManager() );
+                cursor = sortResults( cursor, sortControl, getDirectoryService().getSchemaManager(),
+                    searchRequest.getSizeLimit() );
             }
 
             // the below condition is to satisfy the scenario 6 in section 2 of rfc2891
@@ -1383,14 +1381,14 @@ public class DefaultCoreSession implements CoreSession
      * @param unsortedEntries the cursor containing un-sorted entries
      * @param control the sort control
      * @param schemaManager schema manager
+     * @param sizeLimit the search size limit, 0 if there is none
      * @return a cursor containing sorted entries
      * @throws CursorException
      * @throws LdapException
      * @throws IOException
-     * @throws KeyNotFoundException 
      */
-    private Cursor<Entry> sortResults( Cursor<Entry> unsortedEntries, SortRequest control, SchemaManager schemaManager )
-        throws CursorException, LdapException, IOException
+    private Cursor<Entry> sortResults( Cursor<Entry> unsortedEntries, SortRequest control, SchemaManager schemaManager,
+        long sizeLimit ) throws CursorException, LdapException, IOException
     {
         unsortedEntries.beforeFirst();
 
@@ -1415,42 +1413,40 @@ public class DefaultCoreSession implements CoreSession
         SortedEntryComparator comparator = new SortedEntryComparator( at, sk.getMatchingRuleId(), sk.isReverseOrder(),
             schemaManager );
 
-        SortedEntrySerializer keySerializer = new SortedEntrySerializer();
         SortedEntrySerializer.setSchemaManager( schemaManager );
-        
-        File file = null;
-        
-        try 
-        {
-            file = File.createTempFile( "replica", ".sorted-data" );    // see DIRSERVER-2007
-        } 
-        catch ( IOException e ) 
+
+        // Only the first entries are needed when the search is size limited : the one
+        // after the limit is kept so that the handler knows the limit has been exceeded
+        EntrySorter sorter = new EntrySorter( comparator, ( sizeLimit > 0 ) ? sizeLimit + 1 : 0 );
+
+        boolean sorted = false;
+
+        try
         {
-            // see DIRSERVER-2091
-            LOG.error( "Error creating temp file in directory {} for sorting: {}",  
-                System.getProperty( "java.io.tmpdir" ),  e.getMessage(), e );
-            throw e;
-        }
+            sorter.add( first );
 
-        BaseRecordManager recMan = new BaseRecordManager( file.getAbsolutePath() );
+            // at this stage the cursor will be _on_ the next element, so read it
+            sorter.add( unsortedEntries.get() );
 
-        jdbm.btree.BTree<Entry, String> btree = new jdbm.btree.BTree<>( recMan, comparator, keySerializer, NullStringSerializer.INSTANCE );
-        
+            while ( unsortedEntries.next() )
+            {
+                sorter.add( unsortedEntries.get() );
+            }
 
-        btree.insert( first, "", false );
+            unsortedEntries.close();
 
-        // at this stage the cursor will be _on_ the next element, so read it
-        btree.insert( unsortedEntries.get(), "", false );
+            Cursor<Entry> sortedEntries = sorter.getSortedEntries();
+            sorted = true;
 
-        while ( unsortedEntries.next() )
+            return sortedEntries;
+        }
+        finally
         {
-            Entry entry = unsortedEntries.get();
-            btree.insert( entry, "", false );
+            if ( !sorted )
+            {
+                sorter.discard();
+            }
         }
-
-        unsortedEntries.close();
-
-        return new SortedEntryCursor( btree, recMan, file );
     }
 
 
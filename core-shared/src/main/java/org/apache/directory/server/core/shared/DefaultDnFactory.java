@@ -22,12 +22,14 @@ package org.apache.directory.server.core.shared;
 
 
 import net.sf.ehcache.Cache;
-import net.sf.ehcache.Element;
 
 import org.apache.directory.api.ldap.model.exception.LdapInvalidDnException;
 import org.apache.directory.api.ldap.model.name.Dn;
 import org.apache.directory.api.ldap.model.schema.SchemaManager;
 import org.apache.directory.server.core.api.DnFactory;
+import org.apache.directory.server.core.api.cache.DirectoryCache;
+import org.apache.directory.server.core.api.cache.TinyLfuCache;
+import org.apache.directory.server.core.api.cache.Weighers;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -41,33 +43,78 @@ public class DefaultDnFactory implements DnFactory
 {
     private static final Logger LOG = LoggerFactory.getLogger( DefaultDnFactory.class );
 
+    /** The default number of DNs in the cache, when the ehcache configuration does not bound it */
+    public static final int DEFAULT_DN_CACHE_SIZE = 10000;
+
+    /** The estimated size of a cached DN, used to compute the cache memory size from its number of elements */
+    public static final int DEFAULT_DN_CACHE_ELEMENT_SIZE = 512;
+
     /** The cache for DNs */
-    private Cache dnCache;
+    private DirectoryCache<String, Dn> dnCache;
 
     /** The schema manager */
     private SchemaManager schemaManager;
 
-    /** Flag to enable stats */
-    private boolean enableStats = false;
 
-    // stat counters
-    private int hitCount = 0;
-    private int missCount = 0;
+    /**
+     * Instantiates a new default Dn factory, without cache.
+     *
+     * @param schemaManager The SchemaManager instance
+     */
+    public DefaultDnFactory( SchemaManager schemaManager )
+    {
+        this.schemaManager = schemaManager;
+    }
 
 
     /**
-     * Instantiates a new default Dn factory.
+     * Instantiates a new default Dn factory. The ehcache configuration is only used to
+     * size the cache : the DNs are stored in a {@link TinyLfuCache}, bounded by the
+     * estimated memory used by the configured maximum number of elements.
      *
      * @param schemaManager The SchemaManager instance
-     * @param dnCache The cache used to store DNs
+     * @param dnCache The ehcache cache configured for the DNs. If null, the DNs are not cached
      */
     public DefaultDnFactory( SchemaManager schemaManager, Cache dnCache )
+    {
+        this.schemaManager = schemaManager;
+
+        if ( dnCache != null )
+        {
+            long maxElements = dnCache.getCacheConfiguration().getMaxEntriesLocalHeap();
+
+            if ( maxElements <= 0L )
+            {
+                maxElements = DEFAULT_DN_CACHE_SIZE;
+            }
+
+            this.dnCache = new TinyLfuCache<>( maxElements * DEFAULT_DN_CACHE_ELEMENT_SIZE, Weighers.STRING_TO_DN );
+        }
+    }
+
+
+    /**
+     * Instantiates a new default Dn factory.
+     *
+     * @param schemaManager The SchemaManager instance
+     * @param dnCache The cache used to store DNs. If null, the DNs are not cached
+     */
+    public DefaultDnFactory( SchemaManager schemaManager, DirectoryCache<String, Dn> dnCache )
     {
         this.schemaManager = schemaManager;
         this.dnCache = dnCache;
     }
 
 
+    /**
+     * @return The cache used to store the DNs, null if the DNs are not cached
+     */
+    public DirectoryCache<String, Dn> getDnCache()
+    {
+        return dnCache;
+    }
+
+
     /**
      * {@inheritDoc}
      */
@@ -90,12 +137,7 @@ public class DefaultDnFactory implements DnFactory
         // for the reason for performing this check
         if ( dnCache != null )
         {
-            Element dnCacheEntry = dnCache.get( dn );
-
-            if ( dnCacheEntry != null )
-            {
-                cachedDn = ( Dn ) dnCacheEntry.getObjectValue();
-            }
+            cachedDn = dnCache.get( dn );
         }
 
         if ( cachedDn == null )
@@ -106,27 +148,12 @@ public class DefaultDnFactory implements DnFactory
 
             if ( dnCache != null )
             {
-                dnCache.put( new Element( dn, cachedDn ) );
-            }
-
-            if ( enableStats )
-            {
-                missCount++;
+                dnCache.put( dn, cachedDn );
             }
         }
         else
         {
-            if ( enableStats )
-            {
-                hitCount++;
-            }
-        }
-
-        LOG.debug( "Dn {} found in the cache", dn );
-
-        if ( enableStats )
-        {
-            LOG.debug( "Dn cache hit - {} , miss - {} and is normalized = {}", hitCount, missCount, cachedDn.isSchemaAware() );
+            LOG.debug( "Dn {} found in the cache", dn );
         }
 
         return cachedDn;
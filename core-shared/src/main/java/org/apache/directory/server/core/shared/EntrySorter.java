@@ -0,0 +1,270 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.shared;
+
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import org.apache.directory.api.ldap.model.cursor.Cursor;
+import org.apache.directory.api.ldap.model.cursor.ListCursor;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * Sorts the entries returned by a search, for the server side sort control. The sort key
+ * of each entry is computed once, when the entry is added. Then :
+ * <ul>
+ *   <li>when only the first entries are needed (the search has a size limit), only those are
+ *   kept, in a bounded heap</li>
+ *   <li>when there are less entries than the in memory threshold, they are sorted in memory</li>
+ *   <li>otherwise, the entries are sorted by chunks of the in memory threshold size, each chunk
+ *   is written in a run file, and the runs are merged when the returned cursor is read</li>
+ * </ul>
+ * The in memory threshold defaults to {@link #DEFAULT_IN_MEMORY_THRESHOLD} entries, and can be
+ * changed with the <em>apacheds.sort.memory.threshold</em> system property.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+class EntrySorter
+{
+    private static final Logger LOG = LoggerFactory.getLogger( EntrySorter.class );
+
+    /** The default maximum number of entries sorted in memory */
+    static final int DEFAULT_IN_MEMORY_THRESHOLD = 10000;
+
+    /** The maximum number of entries sorted in memory */
+    private static final int IN_MEMORY_THRESHOLD = Math.max( 1,
+        Integer.getInteger( "apacheds.sort.memory.threshold", DEFAULT_IN_MEMORY_THRESHOLD ) );
+
+    /** The size of the buffer used to write a run */
+    private static final int BUFFER_SIZE = 16 * 1024;
+
+    /** The comparator used to compute and compare the sort keys */
+    private final SortedEntryComparator comparator;
+
+    /** The maximum number of entries sorted in memory */
+    private final int inMemoryThreshold;
+
+    /** The entries order : by key, then by position in the search results */
+    private final Comparator<SortedEntry> order = new Comparator<SortedEntry>()
+    {
+        @Override
+        public int compare( SortedEntry entry1, SortedEntry entry2 )
+        {
+            int result = comparator.compareKeys( entry1.getKey(), entry2.getKey() );
+
+            if ( result != 0 )
+            {
+                return result;
+            }
+
+            return Long.compare( entry1.getPosition(), entry2.getPosition() );
+        }
+    };
+
+    /** The maximum number of entries to keep, or 0 to keep them all */
+    private final int maxEntries;
+
+    /** The first entries, the last one at the top of the heap, when the number of entries is bounded */
+    private final PriorityQueue<SortedEntry> topEntries;
+
+    /** The entries which have not been written in a run, when the number of entries is not bounded */
+    private final List<SortedEntry> entries;
+
+    /** The sorted run files */
+    private final List<File> runFiles = new ArrayList<>();
+
+    /** The serializer used to write the entries in the runs */
+    private final SortedEntrySerializer serializer = new SortedEntrySerializer();
+
+    /** The number of added entries */
+    private long nbEntries;
+
+
+    /**
+     * Creates a new instance of EntrySorter
+     *
+     * @param comparator The comparator used to compute and compare the sort keys
+     * @param maxEntries The maximum number of entries the sorted cursor will return, or 0 if
+     * they are all needed
+     */
+    EntrySorter( SortedEntryComparator comparator, long maxEntries )
+    {
+        this( comparator, maxEntries, IN_MEMORY_THRESHOLD );
+    }
+
+
+    /**
+     * Creates a new instance of EntrySorter
+     *
+     * @param comparator The comparator used to compute and compare the sort keys
+     * @param maxEntries The maximum number of entries the sorted cursor will return, or 0 if
+     * they are all needed
+     * @param inMemoryThreshold The maximum number of entries sorted in memory
+     */
+    EntrySorter( SortedEntryComparator comparator, long maxEntries, int inMemoryThreshold )
+    {
+        this.comparator = comparator;
+        this.inMemoryThreshold = Math.max( 1, inMemoryThreshold );
+
+        if ( ( maxEntries > 0 ) && ( maxEntries <= this.inMemoryThreshold ) )
+        {
+            this.maxEntries = ( int ) maxEntries;
+            topEntries = new PriorityQueue<>( this.maxEntries, Collections.reverseOrder( order ) );
+            entries = null;
+        }
+        else
+        {
+            this.maxEntries = 0;
+            topEntries = null;
+            entries = new ArrayList<>();
+        }
+    }
+
+
+    /**
+     * Adds an entry to sort
+     *
+     * @param entry The entry
+     * @throws IOException If a run can't be written
+     */
+    void add( Entry entry ) throws IOException
+    {
+        SortedEntry sortedEntry = new SortedEntry( comparator.getSortKey( entry ), entry, nbEntries );
+        nbEntries++;
+
+        if ( topEntries != null )
+        {
+            if ( topEntries.size() < maxEntries )
+            {
+                topEntries.add( sortedEntry );
+            }
+            else if ( order.compare( sortedEntry, topEntries.peek() ) < 0 )
+            {
+                // The entry comes before the last of the kept ones, which is dropped
+                topEntries.poll();
+                topEntries.add( sortedEntry );
+            }
+
+            return;
+        }
+
+        entries.add( sortedEntry );
+
+        if ( entries.size() >= inMemoryThreshold )
+        {
+            writeRun();
+        }
+    }
+
+
+    /**
+     * Sorts the added entries
+     *
+     * @return A cursor on the sorted entries
+     * @throws IOException If the last run can't be written, or the runs can't be read
+     */
+    Cursor<Entry> getSortedEntries() throws IOException
+    {
+        if ( runFiles.isEmpty() )
+        {
+            List<SortedEntry> sorted = ( topEntries != null ) ? new ArrayList<>( topEntries ) : entries;
+            Collections.sort( sorted, order );
+            List<Entry> sortedEntries = new ArrayList<>( sorted.size() );
+
+            for ( SortedEntry sortedEntry : sorted )
+            {
+                sortedEntries.add( sortedEntry.getEntry() );
+            }
+
+            return new ListCursor<>( comparator, sortedEntries );
+        }
+
+        if ( !entries.isEmpty() )
+        {
+            writeRun();
+        }
+
+        return new SortedRunsCursor( runFiles, order, comparator );
+    }
+
+
+    /**
+     * Deletes the run files, if the sort has failed
+     */
+    void discard()
+    {
+        for ( File runFile : runFiles )
+        {
+            if ( !runFile.delete() )
+            {
+                LOG.warn( "Failed to delete the sorted run file {}", runFile );
+            }
+        }
+
+        runFiles.clear();
+    }
+
+
+    /**
+     * Sorts the entries in memory, and writes them in a new run file
+     */
+    private void writeRun() throws IOException
+    {
+        File file = null;
+
+        try
+        {
+            file = File.createTempFile( "replica", ".sorted-data" );    // see DIRSERVER-2007
+        }
+        catch ( IOException e )
+        {
+            // see DIRSERVER-2091
+            LOG.error( "Error creating temp file in directory {} for sorting: {}",
+                System.getProperty( "java.io.tmpdir" ), e.getMessage(), e );
+            throw e;
+        }
+
+        runFiles.add( file );
+        Collections.sort( entries, order );
+
+        try ( DataOutputStream out = new DataOutputStream( new BufferedOutputStream( new FileOutputStream( file ),
+            BUFFER_SIZE ) ) )
+        {
+            for ( SortedEntry sortedEntry : entries )
+            {
+                sortedEntry.write( out, serializer );
+            }
+        }
+
+        entries.clear();
+    }
+}
@@ -0,0 +1,193 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.shared;
+
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.EOFException;
+import java.io.IOException;
+
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.util.Strings;
+
+
+/**
+ * An entry to sort, with its precomputed sort key, and its position in the search results,
+ * used to keep the entries having the same key in the order they have been found.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+class SortedEntry
+{
+    /** The key types, when the entry is written in a sorted run */
+    private static final byte NULL_KEY = 0;
+    private static final byte STRING_KEY = 1;
+    private static final byte BYTES_KEY = 2;
+
+    /** The sort key */
+    private final Object key;
+
+    /** The entry */
+    private final Entry entry;
+
+    /** The position of the entry in the unsorted results */
+    private final long position;
+
+
+    /**
+     * Creates a new instance of SortedEntry
+     *
+     * @param key The sort key
+     * @param entry The entry
+     * @param position The position of the entry in the unsorted results
+     */
+    SortedEntry( Object key, Entry entry, long position )
+    {
+        this.key = key;
+        this.entry = entry;
+        this.position = position;
+    }
+
+
+    /**
+     * @return The sort key
+     */
+    Object getKey()
+    {
+        return key;
+    }
+
+
+    /**
+     * @return The entry
+     */
+    Entry getEntry()
+    {
+        return entry;
+    }
+
+
+    /**
+     * @return The position of the entry in the unsorted results
+     */
+    long getPosition()
+    {
+        return position;
+    }
+
+
+    /**
+     * Writes the entry in a sorted run file
+     *
+     * @param out The run file
+     * @param serializer The entry serializer
+     * @throws IOException If the entry can't be written
+     */
+    void write( DataOutput out, SortedEntrySerializer serializer ) throws IOException
+    {
+        if ( key == null )
+        {
+            out.writeByte( NULL_KEY );
+        }
+        else if ( key instanceof String )
+        {
+            out.writeByte( STRING_KEY );
+            byte[] bytes = Strings.getBytesUtf8( ( String ) key );
+            out.writeInt( bytes.length );
+            out.write( bytes );
+        }
+        else if ( key instanceof byte[] )
+        {
+            out.writeByte( BYTES_KEY );
+            out.writeInt( ( ( byte[] ) key ).length );
+            out.write( ( byte[] ) key );
+        }
+        else
+        {
+            throw new IOException( "Unexpected sort key type " + key.getClass().getName() );
+        }
+
+        out.writeLong( position );
+        byte[] serializedEntry = serializer.serialize( entry );
+        out.writeInt( serializedEntry.length );
+        out.write( serializedEntry );
+    }
+
+
+    /**
+     * Reads the next entry in a sorted run file
+     *
+     * @param in The run file
+     * @param serializer The entry serializer
+     * @return The read entry, or null if we have reached the end of the file
+     * @throws IOException If the entry can't be read
+     */
+    static SortedEntry read( DataInput in, SortedEntrySerializer serializer ) throws IOException
+    {
+        byte keyType;
+
+        try
+        {
+            keyType = in.readByte();
+        }
+        catch ( EOFException eofe )
+        {
+            return null;
+        }
+
+        Object key;
+
+        switch ( keyType )
+        {
+            case NULL_KEY:
+                key = null;
+                break;
+
+            case STRING_KEY:
+                key = Strings.utf8ToString( readBytes( in ) );
+                break;
+
+            case BYTES_KEY:
+                key = readBytes( in );
+                break;
+
+            default:
+                throw new IOException( "Unexpected sort key type " + keyType );
+        }
+
+        long position = in.readLong();
+        Entry entry = ( Entry ) serializer.deserialize( readBytes( in ) );
+
+        return new SortedEntry( key, entry, position );
+    }
+
+
+    /**
+     * Reads a byte[] prefixed by its length
+     */
+    private static byte[] readBytes( DataInput in ) throws IOException
+    {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully( bytes );
+
+        return bytes;
+    }
+}
@@ -22,7 +22,6 @@ package org.apache.directory.server.core.shared;
 
 import java.io.Serializable;
 import java.util.Comparator;
-import java.util.TreeSet;
 
 import org.apache.directory.api.ldap.model.constants.SchemaConstants;
 import org.apache.directory.api.ldap.model.entry.Attribute;
@@ -110,100 +109,104 @@ class SortedEntryComparator implements Comparator<Entry>, Serializable
     }
 
 
-    @Override
-    public int compare( Entry entry1, Entry entry2 )
+    /**
+     * Computes the sort key of an entry : the normalized value of the sort attribute, the
+     * least one if the attribute has many values, or null if the entry does not have it.
+     * It is computed once per entry before sorting, so that the values are not normalized
+     * again on each comparison.
+     *
+     * @param entry The entry
+     * @return The entry's sort key
+     */
+    Object getSortKey( Entry entry )
     {
-        Attribute at1 = entry1.get( type );
-
-        Attribute at2 = entry2.get( type );
+        Attribute attribute = entry.get( type );
 
-        // as per section 2.2 of the spec null values are considered larger
-        if ( at1 == null )
+        if ( ( attribute == null ) || ( attribute.size() == 0 ) )
         {
-            return reverse ? -1 : 1;
+            return null;
         }
-        else if ( at2 == null )
-        {
-            return reverse ? 1 : -1;
-        }
-
-        Object o1;
-        Object o2;
 
-        if ( multivalued )
+        if ( !multivalued )
         {
-            TreeSet ts = new TreeSet( comparator );
+            return normalize( attribute.get() );
+        }
 
-            o1 = sortAndGetFirst( at1, ts );
+        Object least = null;
 
-            ts.clear();
-            o2 = sortAndGetFirst( at2, ts );
-        }
-        else
+        for ( Value value : attribute )
         {
-            Value v1 = at1.get();
-            Value v2 = at2.get();
+            Object key = normalize( value );
 
-            if ( hr )
+            if ( ( least == null ) || ( comparator.compare( key, least ) < 0 ) )
             {
-                o1 = v1.getValue();
-                o2 = v2.getValue();
-            }
-            else
-            {
-                o1 = v1.getBytes();
-                o2 = v2.getBytes();
+                least = key;
             }
         }
 
-        int c;
+        return least;
+    }
 
-        try
+
+    /**
+     * Normalizes a value using the comparator's normalizer
+     */
+    private Object normalize( Value value )
+    {
+        if ( !hr )
         {
-            if ( reverse )
-            {
-                c = comparator.compare( comparator.getNormalizer().normalize( ( String ) o2 ), o1 );
-            }
-            else
-            {
-                c = comparator.compare( comparator.getNormalizer().normalize( ( String ) o1 ), o2 );
-            }
-    
-            if ( c == 0 )
-            {
-                return 1;
-            }
+            return value.getBytes();
+        }
 
-            return c;
+        try
+        {
+            return comparator.getNormalizer().normalize( value.getValue() );
         }
         catch ( LdapException le )
         {
-            return 0;
+            return value.getNormalized();
         }
     }
 
 
     /**
-     * sorts the values of an attribute and picks the least value
-     * 
-     * @param at the attribute
-     * @param ts the TreeSet for sorting 
-     * @return the least value among the values of the attribute
+     * Compares two sort keys
+     *
+     * @param key1 The first entry's sort key
+     * @param key2 The second entry's sort key
+     * @return a negative value if the first entry comes first, a positive one if it comes last
      */
-    private Object sortAndGetFirst( Attribute at, TreeSet ts )
+    int compareKeys( Object key1, Object key2 )
     {
-        for ( Value v : at )
+        // as per section 2.2 of the spec null values are considered larger
+        if ( key1 == null )
         {
-            if ( hr )
+            if ( key2 == null )
             {
-                ts.add( v.getNormalized() );
-            }
-            else
-            {
-                ts.add( v.getBytes() );
+                return 0;
             }
+
+            return reverse ? -1 : 1;
         }
+        else if ( key2 == null )
+        {
+            return reverse ? 1 : -1;
+        }
+
+        if ( reverse )
+        {
+            return comparator.compare( key2, key1 );
+        }
+        else
+        {
+            return comparator.compare( key1, key2 );
+        }
+    }
+
 
-        return ts.first();
+    @Override
+    public int compare( Entry entry1, Entry entry2 )
+    {
+        return compareKeys( getSortKey( entry1 ), getSortKey( entry2 ) );
     }
 }
\ No newline at end of file
@@ -0,0 +1,455 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.shared;
+
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import org.apache.directory.api.ldap.model.cursor.AbstractCursor;
+import org.apache.directory.api.ldap.model.cursor.CursorException;
+import org.apache.directory.api.ldap.model.cursor.InvalidCursorPositionException;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.server.core.api.filtering.EntryFilter;
+import org.apache.directory.server.core.api.filtering.EntryFilteringCursor;
+import org.apache.directory.server.core.api.interceptor.context.SearchOperationContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * A cursor merging sorted run files : the entries are read from the runs and merged as
+ * the cursor moves forward, so that only the head of each run, and the last read entries,
+ * are held in memory. The files are deleted when the cursor is closed.
+ * <br>
+ * The cursor can move back within the last {@link #WINDOW_SIZE} read entries, which covers
+ * what the search handlers do to check if there are more entries. Moving further back
+ * reopens the runs, and reads them again up to the requested entry.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+class SortedRunsCursor extends AbstractCursor<Entry> implements EntryFilteringCursor
+{
+    private static final Logger LOG = LoggerFactory.getLogger( SortedRunsCursor.class );
+
+    /** The size of the buffer used to read a run */
+    private static final int BUFFER_SIZE = 16 * 1024;
+
+    /** The number of the last read entries kept in memory */
+    static final int WINDOW_SIZE = 64;
+
+    /** The sorted run files */
+    private final List<File> runFiles;
+
+    /** The comparator used to sort the runs */
+    private final Comparator<SortedEntry> comparator;
+
+    /** The comparator used to position the cursor on an entry */
+    private final Comparator<Entry> entryComparator;
+
+    /** The serializer used to read the entries */
+    private final SortedEntrySerializer serializer = new SortedEntrySerializer();
+
+    /** The opened runs */
+    private final List<Run> runs = new ArrayList<>();
+
+    /** The runs ordered by their current entry */
+    private PriorityQueue<Run> heads;
+
+    /** The number of entries read from the runs */
+    private long nbRead;
+
+    /** The position of the cursor : -1 before the first entry, nbRead after the last one */
+    private long position = -1;
+
+    /** The last read entries : the entry at position n is stored at n % WINDOW_SIZE */
+    private final Entry[] window = new Entry[WINDOW_SIZE];
+
+
+    /**
+     * An opened run, and its current entry
+     */
+    private class Run
+    {
+        private final DataInputStream in;
+        private SortedEntry head;
+
+
+        private Run( File file ) throws IOException
+        {
+            in = new DataInputStream( new BufferedInputStream( new FileInputStream( file ), BUFFER_SIZE ) );
+        }
+
+
+        /**
+         * Reads the next entry of the run
+         */
+        private boolean advance() throws IOException
+        {
+            head = SortedEntry.read( in, serializer );
+
+            return head != null;
+        }
+    }
+
+
+    /**
+     * Creates a new instance of SortedRunsCursor
+     *
+     * @param runFiles The sorted run files
+     * @param comparator The comparator used to sort the runs
+     * @param entryComparator The comparator used to position the cursor on an entry
+     * @throws IOException If the runs can't be opened
+     */
+    SortedRunsCursor( List<File> runFiles, Comparator<SortedEntry> comparator, Comparator<Entry> entryComparator )
+        throws IOException
+    {
+        this.runFiles = runFiles;
+        this.comparator = comparator;
+        this.entryComparator = entryComparator;
+        openRuns();
+    }
+
+
+    /**
+     * Opens all the runs, and reads their first entry
+     */
+    private void openRuns() throws IOException
+    {
+        closeRuns();
+
+        heads = new PriorityQueue<>( Math.max( runFiles.size(), 1 ), new Comparator<Run>()
+        {
+            @Override
+            public int compare( Run run1, Run run2 )
+            {
+                return comparator.compare( run1.head, run2.head );
+            }
+        } );
+
+        for ( File runFile : runFiles )
+        {
+            Run run = new Run( runFile );
+            runs.add( run );
+
+            if ( run.advance() )
+            {
+                heads.add( run );
+            }
+        }
+
+        nbRead = 0;
+        position = -1;
+        Arrays.fill( window, null );
+    }
+
+
+    /**
+     * Closes the opened runs
+     */
+    private void closeRuns()
+    {
+        for ( Run run : runs )
+        {
+            try
+            {
+                run.in.close();
+            }
+            catch ( IOException ioe )
+            {
+                LOG.warn( "Failed to close a sorted run", ioe );
+            }
+        }
+
+        runs.clear();
+    }
+
+
+    /**
+     * Reads the next entry from the runs, and stores it in the window
+     *
+     * @return <code>false</code> if all the entries have been read
+     */
+    private boolean readNext() throws CursorException
+    {
+        Run run = heads.poll();
+
+        if ( run == null )
+        {
+            return false;
+        }
+
+        window[( int ) ( nbRead % WINDOW_SIZE )] = run.head.getEntry();
+        nbRead++;
+
+        try
+        {
+            if ( run.advance() )
+            {
+                heads.add( run );
+            }
+        }
+        catch ( IOException ioe )
+        {
+            throw new CursorException( ioe );
+        }
+
+        return true;
+    }
+
+
+    /**
+     * Moves the cursor on an entry which has been read, reading the runs again if it's
+     * not in the window anymore
+     */
+    private void moveTo( long target ) throws CursorException
+    {
+        if ( target < nbRead - WINDOW_SIZE )
+        {
+            try
+            {
+                openRuns();
+            }
+            catch ( IOException ioe )
+            {
+                throw new CursorException( ioe );
+            }
+
+            while ( nbRead <= target )
+            {
+                readNext();
+            }
+        }
+
+        position = target;
+    }
+
+
+    @Override
+    public boolean available()
+    {
+        return ( position >= 0 ) && ( position < nbRead );
+    }
+
+
+    @Override
+    public void before( Entry element ) throws LdapException, CursorException
+    {
+        beforeFirst();
+
+        while ( next() )
+        {
+            if ( entryComparator.compare( get(), element ) >= 0 )
+            {
+                // The next entry is the first one which is not lower than the element
+                previous();
+
+                return;
+            }
+        }
+    }
+
+
+    @Override
+    public void after( Entry element ) throws LdapException, CursorException
+    {
+        beforeFirst();
+
+        while ( next() )
+        {
+            if ( entryComparator.compare( get(), element ) > 0 )
+            {
+                // The next entry is the first one which is greater than the element
+                previous();
+
+                return;
+            }
+        }
+    }
+
+
+    @Override
+    public void beforeFirst() throws LdapException, CursorException
+    {
+        if ( nbRead <= WINDOW_SIZE )
+        {
+            // The first entries are still available
+            position = -1;
+
+            return;
+        }
+
+        try
+        {
+            openRuns();
+        }
+        catch ( IOException ioe )
+        {
+            throw new CursorException( ioe );
+        }
+    }
+
+
+    @Override
+    public void afterLast() throws LdapException, CursorException
+    {
+        while ( readNext() )
+        {
+            // Read all the remaining entries
+        }
+
+        position = nbRead;
+    }
+
+
+    @Override
+    public boolean first() throws LdapException, CursorException
+    {
+        beforeFirst();
+
+        return next();
+    }
+
+
+    @Override
+    public boolean last() throws LdapException, CursorException
+    {
+        afterLast();
+
+        return previous();
+    }
+
+
+    @Override
+    public boolean previous() throws LdapException, CursorException
+    {
+        if ( position < 0 )
+        {
+            return false;
+        }
+
+        if ( position == 0 )
+        {
+            position = -1;
+
+            return false;
+        }
+
+        moveTo( position - 1 );
+
+        return true;
+    }
+
+
+    @Override
+    public boolean next() throws LdapException, CursorException
+    {
+        if ( position == nbRead )
+        {
+            // Already after the last entry
+            return false;
+        }
+
+        if ( ( position == nbRead - 1 ) && !readNext() )
+        {
+            position = nbRead;
+
+            return false;
+        }
+
+        position++;
+
+        return true;
+    }
+
+
+    @Override
+    public Entry get() throws CursorException
+    {
+        if ( !available() )
+        {
+            throw new InvalidCursorPositionException();
+        }
+
+        return window[( int ) ( position % WINDOW_SIZE )];
+    }
+
+
+    @Override
+    public void close() throws IOException
+    {
+        deleteRuns();
+        super.close();
+    }
+
+
+    @Override
+    public void close( Exception cause ) throws IOException
+    {
+        deleteRuns();
+        super.close( cause );
+    }
+
+
+    @Override
+    public boolean addEntryFilter( EntryFilter filter )
+    {
+        return false;
+    }
+
+
+    @Override
+    public List<EntryFilter> getEntryFilters()
+    {
+        return null;
+    }
+
+
+    @Override
+    public SearchOperationContext getOperationContext()
+    {
+        return null;
+    }
+
+
+    private void deleteRuns()
+    {
+        closeRuns();
+
+        for ( File runFile : runFiles )
+        {
+            if ( !runFile.delete() )
+            {
+                LOG.warn( "Failed to delete the sorted run file {}", runFile );
+            }
+        }
+
+        runFiles.clear();
+    }
+}
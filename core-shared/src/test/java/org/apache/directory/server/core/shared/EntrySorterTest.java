@@ -0,0 +1,287 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.shared;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.directory.api.ldap.model.cursor.Cursor;
+import org.apache.directory.api.ldap.model.entry.Attribute;
+import org.apache.directory.api.ldap.model.entry.DefaultEntry;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.api.ldap.schema.loader.JarLdifSchemaLoader;
+import org.apache.directory.api.ldap.schema.manager.impl.DefaultSchemaManager;
+import org.apache.directory.api.util.exception.Exceptions;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+
+/**
+ * Tests the {@link EntrySorter} class, on the in memory, bounded and external merge paths.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class EntrySorterTest
+{
+    /** the SchemaManager instance */
+    private static SchemaManager schemaManager;
+
+
+    @BeforeClass
+    public static void init() throws Exception
+    {
+        JarLdifSchemaLoader loader = new JarLdifSchemaLoader();
+
+        schemaManager = new DefaultSchemaManager( loader );
+
+        boolean loaded = schemaManager.loadAllEnabled();
+
+        if ( !loaded )
+        {
+            fail( "Schema load failed : " + Exceptions.printErrors( schemaManager.getErrors() ) );
+        }
+
+        SortedEntrySerializer.setSchemaManager( schemaManager );
+    }
+
+
+    /**
+     * Creates the entries to sort, in the search order. Some have the same sort key, and
+     * some don't have the sort attribute.
+     */
+    static List<Entry> createEntries( SchemaManager schemaManager, int nbEntries ) throws Exception
+    {
+        List<Entry> entries = new ArrayList<>( nbEntries );
+
+        for ( int i = 0; i < nbEntries; i++ )
+        {
+            Entry entry = new DefaultEntry( schemaManager, "uid=user" + i + ",ou=system",
+                "objectClass: top",
+                "objectClass: person",
+                "objectClass: uidObject",
+                "uid", "user" + i,
+                "cn", "user" + i );
+
+            if ( i % 10 != 3 )
+            {
+                // A key shared by several entries
+                entry.add( "sn", "name" + ( ( i * 7919 ) % 97 ) );
+            }
+
+            entries.add( entry );
+        }
+
+        return entries;
+    }
+
+
+    /**
+     * Sorts the entries the way the sorter should : by key, the entries with the same key
+     * being kept in the search order
+     */
+    static List<Entry> sort( List<Entry> entries, SortedEntryComparator comparator )
+    {
+        List<Entry> sorted = new ArrayList<>( entries );
+        Collections.sort( sorted, comparator );
+
+        return sorted;
+    }
+
+
+    private SortedEntryComparator createComparator( boolean reverse ) throws Exception
+    {
+        return new SortedEntryComparator( schemaManager.getAttributeType( "sn" ), null, reverse, schemaManager );
+    }
+
+
+    private List<Entry> read( Cursor<Entry> cursor ) throws Exception
+    {
+        List<Entry> entries = new ArrayList<>();
+
+        while ( cursor.next() )
+        {
+            entries.add( cursor.get() );
+        }
+
+        cursor.close();
+
+        return entries;
+    }
+
+
+    private void assertSameOrder( List<Entry> expected, List<Entry> sorted )
+    {
+        assertEquals( expected.size(), sorted.size() );
+
+        for ( int i = 0; i < expected.size(); i++ )
+        {
+            assertEquals( "entry " + i, expected.get( i ).getDn(), sorted.get( i ).getDn() );
+        }
+    }
+
+
+    @Test
+    public void testInMemorySort() throws Exception
+    {
+        SortedEntryComparator comparator = createComparator( false );
+        List<Entry> entries = createEntries( schemaManager, 300 );
+        EntrySorter sorter = new EntrySorter( comparator, 0, 1000 );
+
+        for ( Entry entry : entries )
+        {
+            sorter.add( entry );
+        }
+
+        Cursor<Entry> cursor = sorter.getSortedEntries();
+        assertFalse( cursor instanceof SortedRunsCursor );
+
+        assertSameOrder( sort( entries, comparator ), read( cursor ) );
+    }
+
+
+    @Test
+    public void testExternalMergeSort() throws Exception
+    {
+        SortedEntryComparator comparator = createComparator( false );
+        List<Entry> entries = createEntries( schemaManager, 300 );
+
+        // 7 runs, the last one being shorter
+        EntrySorter sorter = new EntrySorter( comparator, 0, 45 );
+
+        for ( Entry entry : entries )
+        {
+            sorter.add( entry );
+        }
+
+        Cursor<Entry> cursor = sorter.getSortedEntries();
+        assertTrue( cursor instanceof SortedRunsCursor );
+
+        List<Entry> sorted = read( cursor );
+        assertSameOrder( sort( entries, comparator ), sorted );
+
+        // The entries are read back with all their attributes
+        for ( Entry entry : sorted )
+        {
+            int index = Integer.parseInt( entry.get( "uid" ).getString().substring( "user".length() ) );
+            Entry original = entries.get( index );
+            assertEquals( original.size(), entry.size() );
+
+            for ( Attribute attribute : original )
+            {
+                assertEquals( attribute, entry.get( attribute.getAttributeType() ) );
+            }
+        }
+    }
+
+
+    @Test
+    public void testReverseExternalMergeSort() throws Exception
+    {
+        SortedEntryComparator comparator = createComparator( true );
+        List<Entry> entries = createEntries( schemaManager, 200 );
+        EntrySorter sorter = new EntrySorter( comparator, 0, 30 );
+
+        for ( Entry entry : entries )
+        {
+            sorter.add( entry );
+        }
+
+        assertSameOrder( sort( entries, comparator ), read( sorter.getSortedEntries() ) );
+    }
+
+
+    @Test
+    public void testBoundedSort() throws Exception
+    {
+        SortedEntryComparator comparator = createComparator( false );
+        List<Entry> entries = createEntries( schemaManager, 300 );
+
+        // Only the first entries are kept, even if there are more than the threshold
+        EntrySorter sorter = new EntrySorter( comparator, 11, 45 );
+
+        for ( Entry entry : entries )
+        {
+            sorter.add( entry );
+        }
+
+        Cursor<Entry> cursor = sorter.getSortedEntries();
+        assertFalse( cursor instanceof SortedRunsCursor );
+
+        assertSameOrder( sort( entries, comparator ).subList( 0, 11 ), read( cursor ) );
+    }
+
+
+    @Test
+    public void testBoundedSortAboveThreshold() throws Exception
+    {
+        SortedEntryComparator comparator = createComparator( false );
+        List<Entry> entries = createEntries( schemaManager, 300 );
+
+        // When more entries than the threshold are needed, they are all sorted in runs
+        EntrySorter sorter = new EntrySorter( comparator, 100, 45 );
+
+        for ( Entry entry : entries )
+        {
+            sorter.add( entry );
+        }
+
+        Cursor<Entry> cursor = sorter.getSortedEntries();
+        assertTrue( cursor instanceof SortedRunsCursor );
+
+        assertSameOrder( sort( entries, comparator ), read( cursor ) );
+    }
+
+
+    @Test
+    public void testInMemoryCursorPositioning() throws Exception
+    {
+        SortedEntryComparator comparator = createComparator( false );
+        List<Entry> entries = createEntries( schemaManager, 100 );
+        EntrySorter sorter = new EntrySorter( comparator, 0, 1000 );
+
+        for ( Entry entry : entries )
+        {
+            sorter.add( entry );
+        }
+
+        List<Entry> expected = sort( entries, comparator );
+        Cursor<Entry> cursor = sorter.getSortedEntries();
+
+        assertTrue( cursor.last() );
+        assertEquals( expected.get( 99 ).getDn(), cursor.get().getDn() );
+        assertTrue( cursor.previous() );
+        assertEquals( expected.get( 98 ).getDn(), cursor.get().getDn() );
+
+        // The in memory cursor knows the order of the entries
+        cursor.before( expected.get( 0 ) );
+        assertTrue( cursor.next() );
+        assertEquals( expected.get( 0 ).getDn(), cursor.get().getDn() );
+
+        cursor.close();
+    }
+}
@@ -0,0 +1,274 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.shared;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.List;
+import java.util.Random;
+
+import org.apache.directory.api.ldap.model.cursor.InvalidCursorPositionException;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.api.ldap.schema.loader.JarLdifSchemaLoader;
+import org.apache.directory.api.ldap.schema.manager.impl.DefaultSchemaManager;
+import org.apache.directory.api.util.exception.Exceptions;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+
+/**
+ * Tests the moves of the {@link SortedRunsCursor} class, within the window of the last read
+ * entries and beyond it.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class SortedRunsCursorTest
+{
+    /** The number of sorted entries, much more than the window */
+    private static final int NB_ENTRIES = 5 * SortedRunsCursor.WINDOW_SIZE;
+
+    /** the SchemaManager instance */
+    private static SchemaManager schemaManager;
+
+    /** The comparator used to sort the entries */
+    private static SortedEntryComparator comparator;
+
+    /** The entries, in the expected order */
+    private static List<Entry> expected;
+
+    /** The entries to sort, in the search order */
+    private static List<Entry> entries;
+
+    /** The tested cursor */
+    private SortedRunsCursor cursor;
+
+
+    @BeforeClass
+    public static void init() throws Exception
+    {
+        JarLdifSchemaLoader loader = new JarLdifSchemaLoader();
+
+        schemaManager = new DefaultSchemaManager( loader );
+
+        boolean loaded = schemaManager.loadAllEnabled();
+
+        if ( !loaded )
+        {
+            fail( "Schema load failed : " + Exceptions.printErrors( schemaManager.getErrors() ) );
+        }
+
+        SortedEntrySerializer.setSchemaManager( schemaManager );
+
+        comparator = new SortedEntryComparator( schemaManager.getAttributeType( "sn" ), null, false, schemaManager );
+        entries = EntrySorterTest.createEntries( schemaManager, NB_ENTRIES );
+        expected = EntrySorterTest.sort( entries, comparator );
+    }
+
+
+    @Before
+    public void createCursor() throws Exception
+    {
+        EntrySorter sorter = new EntrySorter( comparator, 0, 50 );
+
+        for ( Entry entry : entries )
+        {
+            sorter.add( entry );
+        }
+
+        cursor = ( SortedRunsCursor ) sorter.getSortedEntries();
+    }
+
+
+    @After
+    public void closeCursor() throws Exception
+    {
+        cursor.close();
+    }
+
+
+    private void assertPosition( int index ) throws Exception
+    {
+        assertTrue( cursor.available() );
+        assertEquals( "entry " + index, expected.get( index ).getDn(), cursor.get().getDn() );
+    }
+
+
+    @Test
+    public void testForwardThenBackward() throws Exception
+    {
+        assertFalse( cursor.available() );
+
+        for ( int i = 0; i < NB_ENTRIES; i++ )
+        {
+            assertTrue( cursor.next() );
+            assertPosition( i );
+        }
+
+        assertFalse( cursor.next() );
+        assertFalse( cursor.available() );
+
+        // Moving back goes beyond the window of the last read entries
+        for ( int i = NB_ENTRIES - 1; i >= 0; i-- )
+        {
+            assertTrue( cursor.previous() );
+            assertPosition( i );
+        }
+
+        assertFalse( cursor.previous() );
+        assertFalse( cursor.available() );
+
+        try
+        {
+            cursor.get();
+            fail();
+        }
+        catch ( InvalidCursorPositionException icpe )
+        {
+            // Expected
+        }
+
+        assertTrue( cursor.next() );
+        assertPosition( 0 );
+    }
+
+
+    @Test
+    public void testFirstAndLast() throws Exception
+    {
+        assertTrue( cursor.last() );
+        assertPosition( NB_ENTRIES - 1 );
+        assertFalse( cursor.next() );
+
+        assertTrue( cursor.first() );
+        assertPosition( 0 );
+        assertTrue( cursor.next() );
+        assertPosition( 1 );
+
+        cursor.afterLast();
+        assertFalse( cursor.available() );
+        assertTrue( cursor.previous() );
+        assertPosition( NB_ENTRIES - 1 );
+
+        cursor.beforeFirst();
+        assertFalse( cursor.available() );
+        assertFalse( cursor.previous() );
+        assertTrue( cursor.next() );
+        assertPosition( 0 );
+    }
+
+
+    @Test
+    public void testBeforeAndAfter() throws Exception
+    {
+        for ( int index : new int[]
+            { 0, 1, SortedRunsCursor.WINDOW_SIZE + 7, NB_ENTRIES / 2, NB_ENTRIES - 1 } )
+        {
+            Entry element = expected.get( index );
+
+            // The first entry with the same key
+            int first = index;
+
+            while ( ( first > 0 ) && ( comparator.compare( expected.get( first - 1 ), element ) == 0 ) )
+            {
+                first--;
+            }
+
+            // The first entry with a greater key
+            int next = index;
+
+            while ( ( next < NB_ENTRIES ) && ( comparator.compare( expected.get( next ), element ) == 0 ) )
+            {
+                next++;
+            }
+
+            cursor.before( element );
+            assertTrue( cursor.next() );
+            assertPosition( first );
+
+            cursor.after( element );
+
+            if ( next < NB_ENTRIES )
+            {
+                assertTrue( cursor.next() );
+                assertPosition( next );
+            }
+            else
+            {
+                assertFalse( cursor.next() );
+            }
+
+            // The cursor can move back from the positioned entry
+            assertTrue( cursor.previous() );
+            assertPosition( next - 1 );
+        }
+    }
+
+
+    @Test
+    public void testRandomMoves() throws Exception
+    {
+        Random random = new Random( 42 );
+        int position = -1;
+
+        for ( int i = 0; i < 5000; i++ )
+        {
+            // Move forward more often, so that the whole cursor is covered
+            if ( random.nextInt( 5 ) < 3 )
+            {
+                boolean moved = cursor.next();
+
+                if ( position < NB_ENTRIES - 1 )
+                {
+                    position++;
+                    assertTrue( moved );
+                    assertPosition( position );
+                }
+                else
+                {
+                    position = NB_ENTRIES;
+                    assertFalse( moved );
+                }
+            }
+            else
+            {
+                boolean moved = cursor.previous();
+
+                if ( position > 0 )
+                {
+                    position--;
+                    assertTrue( moved );
+                    assertPosition( position );
+                }
+                else
+                {
+                    position = -1;
+                    assertFalse( moved );
+                }
+            }
+        }
+    }
+}
@@ -31,6 +31,7 @@ import java.nio.channels.FileLock;
 import java.nio.channels.OverlappingFileLockException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.EnumMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
@@ -82,6 +83,7 @@ import org.apache.directory.server.core.api.LdapPrincipal;
 import org.apache.directory.server.core.api.ObjectClassProvider;
 import org.apache.directory.server.core.api.OperationEnum;
 import org.apache.directory.server.core.api.OperationManager;
+import org.apache.directory.server.core.api.PendingCsnTracker;
 import org.apache.directory.server.core.api.ReferralManager;
 import org.apache.directory.server.core.api.administrative.AccessControlAdministrativePoint;
 import org.apache.directory.server.core.api.administrative.CollectiveAttributeAdministrativePoint;
@@ -186,6 +188,9 @@ public class DefaultDirectoryService implements DirectoryService
     /** The service's CSN factory */
     private CsnFactory csnFactory;
 
+    /** The tracker of the CSNs generated by the write operations in progress */
+    private PendingCsnTracker pendingCsnTracker;
+
     /** The directory instance replication ID */
     private int replicaId;
 
@@ -236,6 +241,9 @@ public class DefaultDirectoryService implements DirectoryService
     /** Manage the operational attributes denormalization */
     private boolean denormalizeOpAttrsEnabled; // off by default
 
+    /** Manage the subentry operational attributes computation when the entries are read */
+    private boolean virtualSubentryAttributesEnabled; // off by default
+
     /** The list of declared interceptors */
     private List<Interceptor> interceptors;
     private Map<String, Interceptor> interceptorNames;
@@ -247,8 +255,11 @@ public class DefaultDirectoryService implements DirectoryService
     private Lock readLock = interceptorsLock.readLock();
     private Lock writeLock = interceptorsLock.writeLock();
 
-    /** A map associating a list of interceptor to each operation */
-    private Map<OperationEnum, List<String>> operationInterceptors;
+    /**
+     * The chain of interceptors to call for each operation. This map is never modified : a
+     * new one is built and published each time an interceptor is added or removed.
+     */
+    private volatile Map<OperationEnum, Interceptor[]> operationChains;
 
     /** The System partition */
     private Partition systemPartition;
@@ -316,6 +327,7 @@ public class DefaultDirectoryService implements DirectoryService
         journal = new DefaultJournal();
         syncPeriodMillis = DEFAULT_SYNC_PERIOD;
         csnFactory = new CsnFactory( replicaId );
+        pendingCsnTracker = new PendingCsnTracker( csnFactory );
         evaluator = new SubtreeEvaluator( schemaManager );
         setDefaultInterceptorConfigurations();
     }
@@ -457,70 +469,71 @@ public class DefaultDirectoryService implements DirectoryService
      */
     public List<String> getInterceptors( OperationEnum operation )
     {
-        List<String> cloned = new ArrayList<>();
+        Interceptor[] chain = getInterceptorChain( operation );
+        List<String> names = new ArrayList<>( chain.length );
 
-        readLock.lock();
-
-        try
+        for ( Interceptor interceptor : chain )
         {
-            cloned.addAll( operationInterceptors.get( operation ) );
-
-            return cloned;
-        }
-        finally
-        {
-            readLock.unlock();
+            names.add( interceptor.getName() );
         }
 
+        return names;
     }
 
 
     /**
-     * Compute the list of  to call for each operation
+     * {@inheritDoc}
      */
-    private void initOperationsList()
+    @Override
+    public Interceptor[] getInterceptorChain( OperationEnum operation )
     {
-        writeLock.lock();
+        return operationChains.get( operation );
+    }
 
-        try
+
+    /**
+     * Compute the chain of interceptors to call for each operation, and publish them. This
+     * method must be called with the write lock held.
+     */
+    private void buildInterceptorChains()
+    {
+        Map<OperationEnum, Interceptor[]> chains = new EnumMap<>( OperationEnum.class );
+
+        for ( OperationEnum operation : OperationEnum.getOperations() )
         {
-            operationInterceptors = new ConcurrentHashMap<>();
+            List<Interceptor> chain = new ArrayList<>();
+            Set<String> names = new HashSet<>();
 
-            for ( OperationEnum operation : OperationEnum.getOperations() )
+            for ( Interceptor interceptor : interceptors )
             {
-                List<String> operationList = new ArrayList<>();
-
-                for ( Interceptor interceptor : interceptors )
+                // Skip the duplicated interceptors, and the ones not implementing the operation
+                if ( implementsOperation( interceptor.getClass(), operation ) && names.add( interceptor.getName() ) )
                 {
-                    gatherInterceptors( interceptor, interceptor.getClass(), operation, operationList );
+                    chain.add( interceptor );
                 }
-
-                operationInterceptors.put( operation, operationList );
             }
+
+            chains.put( operation, chain.toArray( new Interceptor[chain.size()] ) );
         }
-        finally
-        {
-            writeLock.unlock();
-        }
+
+        operationChains = chains;
     }
 
 
     /**
-     * Recursively checks if the given interceptor can be added to the list of interceptors for a given
-     * operation and adds to the list of interceptors if it implements the respective operation
+     * Recursively checks if the given interceptor class implements an operation, ie if this
+     * class or one of its parents, up to the BaseInterceptor, overrides the operation method.
      * 
-     * @param interceptor the instance of the interceptor
      * @param interceptorClz the class of the interceptor
      * @param operation type of operation
-     * @param selectedInterceptorList the list of selected interceptors
+     * @return <code>true</code> if the interceptor implements the operation
      */
-    private void gatherInterceptors( Interceptor interceptor, Class<?> interceptorClz, OperationEnum operation,
-        List<String> selectedInterceptorList )
+    private boolean implementsOperation( Class<?> interceptorClz, OperationEnum operation )
     {
         // We stop recursing when we reach the Base class
         if ( ( interceptorClz == null ) || ( interceptorClz == BaseInterceptor.class ) )
         {
-            return;
+            return false;
         }
 
         // We don't call getMethods() because it would get back the default methods
@@ -535,17 +548,12 @@ public class DefaultDirectoryService implements DirectoryService
             if ( ( param != null ) && ( param.length == 1 ) 
                     && OperationContext.class.isAssignableFrom( param[0] ) && method.getName().equals( operation.getMethodName() ) )
             {
-                if ( !selectedInterceptorList.contains( interceptor.getName() ) )
-                {
-                    selectedInterceptorList.add( interceptor.getName() );
-                }
-
-                break;
+                return true;
             }
         }
 
         // Recurse on extended classes, as we have used getDeclaredMethods() instead of getmethods()
-        gatherInterceptors( interceptor, interceptorClz.getSuperclass(), operation, selectedInterceptorList );
+        return implementsOperation( interceptorClz.getSuperclass(), operation );
     }
 
 
@@ -562,30 +570,6 @@ public class DefaultDirectoryService implements DirectoryService
 
         try
         {
-            for ( OperationEnum operation : OperationEnum.getOperations() )
-            {
-                List<String> operationList = operationInterceptors.get( operation );
-
-                Method[] methods = interceptor.getClass().getDeclaredMethods();
-
-                for ( Method method : methods )
-                {
-                    if ( method.getName().equals( operation.getMethodName() ) )
-                    {
-                        if ( position == -1 )
-                        {
-                            operationList.add( interceptor.getName() );
-                        }
-                        else
-                        {
-                            operationList.add( position, interceptor.getName() );
-                        }
-
-                        break;
-                    }
-                }
-            }
-
             interceptorNames.put( interceptor.getName(), interceptor );
 
             if ( position == -1 )
@@ -596,6 +580,8 @@ public class DefaultDirectoryService implements DirectoryService
             {
                 interceptors.add( position, interceptor );
             }
+
+            buildInterceptorChains();
         }
         finally
         {
@@ -607,33 +593,21 @@ public class DefaultDirectoryService implements DirectoryService
     /**
      * Remove an interceptor to the list of interceptors to call for each operation
      */
-    private void removeOperationsList( String interceptorName )
+    private void removeInterceptor( String interceptorName )
     {
-        Interceptor interceptor = interceptorNames.get( interceptorName );
-
         writeLock.lock();
 
         try
         {
-            for ( OperationEnum operation : OperationEnum.getOperations() )
-            {
-                List<String> operationList = operationInterceptors.get( operation );
-
-                Method[] methods = interceptor.getClass().getDeclaredMethods();
+            Interceptor interceptor = interceptorNames.remove( interceptorName );
 
-                for ( Method method : methods )
-                {
-                    if ( method.getName().equals( operation.getMethodName() ) )
-                    {
-                        operationList.remove( interceptor.getName() );
-
-                        break;
-                    }
-                }
+            if ( interceptor == null )
+            {
+                return;
             }
 
-            interceptorNames.remove( interceptorName );
             interceptors.remove( interceptor );
+            buildInterceptorChains();
         }
         finally
         {
@@ -666,8 +640,17 @@ public class DefaultDirectoryService implements DirectoryService
         this.interceptors = interceptors;
         this.interceptorNames = interceptorNames;
 
-        // Now update the Map that connect each operation with the list of interceptors.
-        initOperationsList();
+        // Now update the Map that connect each operation with the chain of interceptors.
+        writeLock.lock();
+
+        try
+        {
+            buildInterceptorChains();
+        }
+        finally
+        {
+            writeLock.unlock();
+        }
     }
 
 
@@ -816,6 +799,26 @@ public class DefaultDirectoryService implements DirectoryService
     }
 
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isVirtualSubentryAttributesEnabled()
+    {
+        return virtualSubentryAttributesEnabled;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setVirtualSubentryAttributesEnabled( boolean virtualSubentryAttributesEnabled )
+    {
+        this.virtualSubentryAttributesEnabled = virtualSubentryAttributesEnabled;
+    }
+
+
     /**
      * {@inheritDoc}
      */
@@ -968,7 +971,7 @@ public class DefaultDirectoryService implements DirectoryService
             bindContext.setDn( new Dn( schemaManager, principalDn ) );
         }
         
-        bindContext.setInterceptors( getInterceptors( OperationEnum.BIND ) );
+        bindContext.setInterceptors( getInterceptorChain( OperationEnum.BIND ) );
 
         operationManager.bind( bindContext );
 
@@ -1005,7 +1008,7 @@ public class DefaultDirectoryService implements DirectoryService
         }
 
         bindContext.setSaslMechanism( saslMechanism );
-        bindContext.setInterceptors( getInterceptors( OperationEnum.BIND ) );
+        bindContext.setInterceptors( getInterceptorChain( OperationEnum.BIND ) );
 
         operationManager.bind( bindContext );
 
@@ -1263,6 +1266,17 @@ public class DefaultDirectoryService implements DirectoryService
             return;
         }
 
+        // --------------------------------------------------------------------
+        // Write the password policy states kept in memory by the binds
+        // --------------------------------------------------------------------
+        AuthenticationInterceptor authenticationInterceptor = ( AuthenticationInterceptor ) getInterceptor( InterceptorEnum.AUTHENTICATION_INTERCEPTOR
+            .getName() );
+
+        if ( authenticationInterceptor != null )
+        {
+            authenticationInterceptor.stopBindStateStore();
+        }
+
         // --------------------------------------------------------------------
         // Shutdown the sync thread
         // --------------------------------------------------------------------
@@ -2254,6 +2268,9 @@ public class DefaultDirectoryService implements DirectoryService
             {
                 interceptors.add( position, interceptor );
             }
+
+            interceptorNames.put( interceptor.getName(), interceptor );
+            buildInterceptorChains();
         }
         finally
         {
@@ -2267,7 +2284,7 @@ public class DefaultDirectoryService implements DirectoryService
      */
     public void remove( String interceptorName )
     {
-        removeOperationsList( interceptorName );
+        removeInterceptor( interceptorName );
     }
 
 
@@ -2277,7 +2294,17 @@ public class DefaultDirectoryService implements DirectoryService
      */
     public Csn getCSN()
     {
-        return csnFactory.newInstance();
+        return pendingCsnTracker.newCsn();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public PendingCsnTracker getPendingCsnTracker()
+    {
+        return pendingCsnTracker;
     }
 
 
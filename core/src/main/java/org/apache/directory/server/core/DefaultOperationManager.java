@@ -22,9 +22,10 @@ package org.apache.directory.server.core;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 import java.util.concurrent.locks.ReadWriteLock;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import org.apache.directory.api.ldap.model.constants.Loggers;
 import org.apache.directory.api.ldap.model.constants.SchemaConstants;
@@ -48,6 +49,8 @@ import org.apache.directory.api.ldap.model.url.LdapUrl;
 import org.apache.directory.server.core.api.CoreSession;
 import org.apache.directory.server.core.api.DirectoryService;
 import org.apache.directory.server.core.api.OperationManager;
+import org.apache.directory.server.core.api.PartitionLockManager;
+import org.apache.directory.server.core.api.PartitionLockManager.LockedPartitions;
 import org.apache.directory.server.core.api.ReferralManager;
 import org.apache.directory.server.core.api.filtering.EntryFilteringCursor;
 import org.apache.directory.server.core.api.interceptor.Interceptor;
@@ -67,6 +70,7 @@ import org.apache.directory.server.core.api.interceptor.context.SearchOperationC
 import org.apache.directory.server.core.api.interceptor.context.UnbindOperationContext;
 import org.apache.directory.server.core.api.partition.Partition;
 import org.apache.directory.server.core.api.partition.PartitionTxn;
+import org.apache.directory.server.core.api.partition.PartitionWriteTxn;
 import org.apache.directory.server.i18n.I18n;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -96,8 +100,11 @@ public class DefaultOperationManager implements OperationManager
     /** The directory service instance */
     private final DirectoryService directoryService;
 
-    /** A lock used to protect against concurrent operations */
-    private ReadWriteLock rwLock = new ReentrantReadWriteLock( true );
+    /** The locks used to protect the partitions against concurrent operations */
+    private final PartitionLockManager lockManager = new PartitionLockManager();
+
+    /** The partition locks acquired by the thread holding the global write lock */
+    private final List<LockedPartitions> exclusiveLocks = new ArrayList<>();
 
     public DefaultOperationManager( DirectoryService directoryService )
     {
@@ -110,7 +117,26 @@ public class DefaultOperationManager implements OperationManager
      */
     public ReadWriteLock getRWLock()
     {
-        return rwLock;
+        return lockManager.getGlobalLock();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public ReadWriteLock getRWLock( Partition partition )
+    {
+        return lockManager.getPartitionLock( partition.getId() );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public PartitionLockManager getLockManager()
+    {
+        return lockManager;
     }
 
 
@@ -119,16 +145,31 @@ public class DefaultOperationManager implements OperationManager
      */
     public void lockRead()
     {
-        rwLock.readLock().lock();
+        lockManager.getGlobalLock().readLock().lock();
     }
 
 
     /**
-     * Acquires a WriteLock
+     * Acquires a WriteLock. No other operation can be executed on any partition
+     * until the lock is released.
      */
     public void lockWrite()
     {
-        rwLock.writeLock().lock();
+        lockManager.getGlobalLock().writeLock().lock();
+        LockedPartitions lockedPartitions = null;
+
+        // Now, wait for the readers still fetching entries from the partitions
+        try
+        {
+            lockedPartitions = lockManager.lock( true, true, getPartitionIds() );
+        }
+        catch ( LdapException le )
+        {
+            // The global lock is held, which is enough to exclude the other operations
+            OPERATION_LOG.warn( "Cannot lock the partitions : {}", le.getMessage() );
+        }
+
+        exclusiveLocks.add( lockedPartitions );
     }
 
 
@@ -137,7 +178,14 @@ public class DefaultOperationManager implements OperationManager
      */
     public void unlockWrite()
     {
-        rwLock.writeLock().unlock();
+        LockedPartitions lockedPartitions = exclusiveLocks.remove( exclusiveLocks.size() - 1 );
+
+        if ( lockedPartitions != null )
+        {
+            lockManager.unlock( lockedPartitions );
+        }
+
+        lockManager.getGlobalLock().writeLock().unlock();
     }
 
 
@@ -146,7 +194,143 @@ public class DefaultOperationManager implements OperationManager
      */
     public void unlockRead()
     {
-        rwLock.readLock().unlock();
+        lockManager.getGlobalLock().readLock().unlock();
+    }
+
+
+    /**
+     * Get the partition associated with a Dn, or null if there is none
+     */
+    private Partition findPartition( Dn dn )
+    {
+        try
+        {
+            return directoryService.getPartitionNexus().getPartition( dn );
+        }
+        catch ( LdapException le )
+        {
+            return null;
+        }
+    }
+
+
+    /**
+     * Locks the given partitions for an operation, in read or write mode. A modification
+     * of the schema partition impacts every partition, it's executed exclusively.
+     *
+     * @param write If the partitions are modified
+     * @param partitions The partitions to lock. Some of them may be null.
+     * @return The acquired locks
+     * @throws LdapException If the locks can't be acquired
+     */
+    private LockedPartitions lockPartitions( boolean write, Partition... partitions ) throws LdapException
+    {
+        List<String> partitionIds = new ArrayList<>( partitions.length );
+        boolean exclusive = false;
+
+        for ( Partition partition : partitions )
+        {
+            if ( partition != null )
+            {
+                partitionIds.add( partition.getId() );
+                exclusive |= write && ( partition == directoryService.getSchemaPartition() );
+            }
+        }
+
+        LockedPartitions lockedPartitions = lockManager.lock( write, exclusive, partitionIds.toArray( new String[0] ) );
+
+        if ( write )
+        {
+            // The CSNs generated until the partitions are unlocked are pending
+            directoryService.getPendingCsnTracker().beginOperation();
+        }
+
+        return lockedPartitions;
+    }
+
+
+    /**
+     * Unlocks the partitions locked for an operation. Once the partitions modified by an
+     * operation are unlocked, its changes are logged, and the CSNs it has generated are
+     * not pending anymore.
+     *
+     * @param lockedPartitions The locks to release
+     */
+    private void unlockPartitions( LockedPartitions lockedPartitions )
+    {
+        lockManager.unlock( lockedPartitions );
+
+        if ( lockedPartitions.isWrite() )
+        {
+            directoryService.getPendingCsnTracker().endOperation();
+        }
+    }
+
+
+    /**
+     * Locks all the partitions in read mode, for an operation which may span all of them
+     */
+    private LockedPartitions lockAllPartitions() throws LdapException
+    {
+        return lockManager.lock( false, getPartitionIds() );
+    }
+
+
+    /**
+     * @return The IDs of all the partitions
+     */
+    private String[] getPartitionIds() throws LdapException
+    {
+        Set<String> partitionIds = new HashSet<>();
+
+        for ( String suffix : directoryService.getPartitionNexus().listSuffixes() )
+        {
+            Partition partition = findPartition( new Dn( directoryService.getSchemaManager(), suffix ) );
+
+            if ( partition != null )
+            {
+                partitionIds.add( partition.getId() );
+            }
+        }
+
+        return partitionIds.toArray( new String[0] );
+    }
+
+
+    /**
+     * Commits a write transaction. When the partition groups the disk flushes of the
+     * concurrent commits, the flush is done by {@link #awaitSync(PartitionTxn)}, which
+     * must be called once the partition lock has been released.
+     */
+    private void commit( PartitionTxn transaction ) throws IOException
+    {
+        if ( transaction instanceof PartitionWriteTxn )
+        {
+            ( ( PartitionWriteTxn ) transaction ).commitWithDeferredSync();
+        }
+        else
+        {
+            transaction.commit();
+        }
+    }
+
+
+    /**
+     * Waits until the changes committed by a write transaction are on disk
+     */
+    private void awaitSync( PartitionTxn transaction ) throws LdapException
+    {
+        if ( transaction instanceof PartitionWriteTxn )
+        {
+            try
+            {
+                ( ( PartitionWriteTxn ) transaction ).awaitSync();
+            }
+            catch ( IOException ioe )
+            {
+                throw new LdapOtherException( ioe.getMessage(), ioe );
+            }
+        }
     }
 
 
@@ -396,9 +580,9 @@ public class DefaultOperationManager implements OperationManager
         }
 
         // Call the Add method
-        Interceptor head = directoryService.getInterceptor( addContext.getNextInterceptor() );
+        Interceptor head = addContext.getNextInterceptor();
 
-        lockWrite();
+        LockedPartitions lockedPartitions = lockPartitions( true, partition );
 
         // Start a Write transaction right away
         PartitionTxn transaction = addContext.getSession().getTransaction( partition ); 
@@ -421,7 +605,7 @@ public class DefaultOperationManager implements OperationManager
             
             if ( !addContext.getSession().hasSessionTransaction() )
             {
-                transaction.commit();
+                commit( transaction );
             }
         }
         catch ( LdapException le )
@@ -455,9 +639,12 @@ public class DefaultOperationManager implements OperationManager
         }
         finally
         {
-            unlockWrite();
+            unlockPartitions( lockedPartitions );
         }
 
+        // Wait for the changes to be on disk, now that the other writers can proceed
+        awaitSync( transaction );
+
         if ( IS_DEBUG )
         {
             OPERATION_LOG.debug( "<< AddOperation successful" );
@@ -490,7 +677,7 @@ public class DefaultOperationManager implements OperationManager
         ensureStarted();
 
         // Call the Delete method
-        Interceptor head = directoryService.getInterceptor( bindContext.getNextInterceptor() );
+        Interceptor head = bindContext.getNextInterceptor();
 
         // Normalize the addContext Dn
         Dn dn = bindContext.getDn();
@@ -501,12 +688,11 @@ public class DefaultOperationManager implements OperationManager
             bindContext.setDn( dn );
         }
 
-        lockRead();
+        Partition partition = directoryService.getPartitionNexus().getPartition( dn );
+        LockedPartitions lockedPartitions = lockPartitions( false, partition );
 
         try
         {
-            Partition partition = directoryService.getPartitionNexus().getPartition( dn );
-            
             try ( PartitionTxn partitionTxn = partition.beginReadTransaction() )
             {
                 bindContext.setPartition( partition );
@@ -521,7 +707,7 @@ public class DefaultOperationManager implements OperationManager
         }
         finally
         {
-            unlockRead();
+            unlockPartitions( lockedPartitions );
         }
 
         if ( IS_DEBUG )
@@ -612,16 +798,15 @@ public class DefaultOperationManager implements OperationManager
         compareContext.setOriginalEntry( getOriginalEntry( compareContext ) );
 
         // Call the Compare method
-        Interceptor head = directoryService.getInterceptor( compareContext.getNextInterceptor() );
+        Interceptor head = compareContext.getNextInterceptor();
 
         boolean result = false;
 
-        lockRead();
+        Partition partition = directoryService.getPartitionNexus().getPartition( dn );
+        LockedPartitions lockedPartitions = lockPartitions( false, partition );
 
         try
         {
-            Partition partition = directoryService.getPartitionNexus().getPartition( dn );
-            
             try ( PartitionTxn partitionTxn = partition.beginReadTransaction() )
             {
                 compareContext.setPartition( partition );
@@ -636,7 +821,7 @@ public class DefaultOperationManager implements OperationManager
         }
         finally
         {
-            unlockRead();
+            unlockPartitions( lockedPartitions );
         }
 
         if ( IS_DEBUG )
@@ -729,7 +914,7 @@ public class DefaultOperationManager implements OperationManager
         }
 
         // populate the context with the old entry
-        lockWrite();
+        LockedPartitions lockedPartitions = lockPartitions( true, partition );
 
         // Start a Write transaction right away
         PartitionTxn transaction = deleteContext.getSession().getTransaction( partition ); 
@@ -751,13 +936,13 @@ public class DefaultOperationManager implements OperationManager
             eagerlyPopulateFields( deleteContext );
 
             // Call the Delete method
-            Interceptor head = directoryService.getInterceptor( deleteContext.getNextInterceptor() );
+            Interceptor head = deleteContext.getNextInterceptor();
 
             head.delete( deleteContext );
 
             if ( !deleteContext.getSession().hasSessionTransaction() )
             {
-                transaction.commit();
+                commit( transaction );
             }
         }
         catch ( LdapException le )
@@ -791,9 +976,12 @@ public class DefaultOperationManager implements OperationManager
         }
         finally
         {
-            unlockWrite();
+            unlockPartitions( lockedPartitions );
         }
 
+        // Wait for the changes to be on disk, now that the other writers can proceed
+        awaitSync( transaction );
+
         if ( IS_DEBUG )
         {
             OPERATION_LOG.debug( "<< DeleteOperation successful" );
@@ -825,15 +1013,14 @@ public class DefaultOperationManager implements OperationManager
 
         ensureStarted();
 
-        Interceptor head = directoryService.getInterceptor( getRootDseContext.getNextInterceptor() );
+        Interceptor head = getRootDseContext.getNextInterceptor();
         Entry root;
 
+        Partition partition = directoryService.getPartitionNexus().getPartition( Dn.ROOT_DSE );
+        LockedPartitions lockedPartitions = lockPartitions( false, partition );
+
         try
         {
-            lockRead();
-            
-            Partition partition = directoryService.getPartitionNexus().getPartition( Dn.ROOT_DSE );
-            
             try ( PartitionTxn partitionTxn = partition.beginReadTransaction() )
             {
                 getRootDseContext.setPartition( partition );
@@ -848,7 +1035,7 @@ public class DefaultOperationManager implements OperationManager
         }
         finally
         {
-            unlockRead();
+            unlockPartitions( lockedPartitions );
         }
 
         if ( IS_DEBUG )
@@ -884,12 +1071,10 @@ public class DefaultOperationManager implements OperationManager
 
         ensureStarted();
 
-        Interceptor head = directoryService.getInterceptor( hasEntryContext.getNextInterceptor() );
+        Interceptor head = hasEntryContext.getNextInterceptor();
 
         boolean result = false;
 
-        lockRead();
-
         // Normalize the addContext Dn
         Dn dn = hasEntryContext.getDn();
         
@@ -899,10 +1084,11 @@ public class DefaultOperationManager implements OperationManager
             hasEntryContext.setDn( dn );
         }
 
+        Partition partition = directoryService.getPartitionNexus().getPartition( dn );
+        LockedPartitions lockedPartitions = lockPartitions( false, partition );
+
         try
         {
-            Partition partition = directoryService.getPartitionNexus().getPartition( dn );
-
             try ( PartitionTxn partitionTxn = partition.beginReadTransaction() )
             {
                 hasEntryContext.setPartition( partition );
@@ -917,7 +1103,7 @@ public class DefaultOperationManager implements OperationManager
         }
         finally
         {
-            unlockRead();
+            unlockPartitions( lockedPartitions );
         }
 
         if ( IS_DEBUG )
@@ -953,7 +1139,7 @@ public class DefaultOperationManager implements OperationManager
 
         ensureStarted();
 
-        Interceptor head = directoryService.getInterceptor( lookupContext.getNextInterceptor() );
+        Interceptor head = lookupContext.getNextInterceptor();
 
         Entry entry = null;
 
@@ -974,7 +1160,7 @@ public class DefaultOperationManager implements OperationManager
         {
             lookupContext.setTransaction( transaction );
 
-            lockRead();
+            LockedPartitions lockedPartitions = lockPartitions( false, partition );
     
             try
             {
@@ -982,7 +1168,7 @@ public class DefaultOperationManager implements OperationManager
             }
             finally
             {
-                unlockRead();
+                unlockPartitions( lockedPartitions );
             }
         }
         catch ( IOException ioe )
@@ -1089,7 +1275,7 @@ public class DefaultOperationManager implements OperationManager
         Partition partition = directoryService.getPartitionNexus().getPartition( dn );
         modifyContext.setPartition( partition );
         
-        lockWrite();
+        LockedPartitions lockedPartitions = lockPartitions( true, partition );
         
         // Start a Write transaction right away
         PartitionTxn transaction = modifyContext.getSession().getTransaction( partition ); 
@@ -1112,13 +1298,13 @@ public class DefaultOperationManager implements OperationManager
             eagerlyPopulateFields( modifyContext );
 
             // Call the Modify method
-            Interceptor head = directoryService.getInterceptor( modifyContext.getNextInterceptor() );
+            Interceptor head = modifyContext.getNextInterceptor();
 
             head.modify( modifyContext );
             
             if ( !modifyContext.getSession().hasSessionTransaction() )
             {
-                transaction.commit();
+                commit( transaction );
             }
         }
         catch ( LdapException le )
@@ -1152,9 +1338,12 @@ public class DefaultOperationManager implements OperationManager
         }
         finally
         {
-            unlockWrite();
+            unlockPartitions( lockedPartitions );
         }
 
+        // Wait for the changes to be on disk, now that the other writers can proceed
+        awaitSync( transaction );
+
         if ( IS_DEBUG )
         {
             OPERATION_LOG.debug( "<< ModifyOperation successful" );
@@ -1260,12 +1449,13 @@ public class DefaultOperationManager implements OperationManager
             directoryService.getReferralManager().unlock();
         }
 
-        lockWrite();
-        
         // Find the working partition
         Partition partition = directoryService.getPartitionNexus().getPartition( dn );
         moveContext.setPartition( partition );
 
+        // Lock the source and the target partitions
+        LockedPartitions lockedPartitions = lockPartitions( true, partition, findPartition( newSuperiorDn ) );
+
         // Start a Write transaction right away
         PartitionTxn transaction = moveContext.getSession().getTransaction( partition ); 
         
@@ -1287,13 +1477,13 @@ public class DefaultOperationManager implements OperationManager
             moveContext.setOriginalEntry( originalEntry );
 
             // Call the Move method
-            Interceptor head = directoryService.getInterceptor( moveContext.getNextInterceptor() );
+            Interceptor head = moveContext.getNextInterceptor();
 
             head.move( moveContext );
             
             if ( !moveContext.getSession().hasSessionTransaction() )
             {
-                transaction.commit();
+                commit( transaction );
             }
         }
         catch ( LdapException le )
@@ -1330,9 +1520,12 @@ public class DefaultOperationManager implements OperationManager
         }
         finally
         {
-            unlockWrite();
+            unlockPartitions( lockedPartitions );
         }
 
+        // Wait for the changes to be on disk, now that the other writers can proceed
+        awaitSync( transaction );
+
         if ( IS_DEBUG )
         {
             OPERATION_LOG.debug( "<< MoveOperation successful" );
@@ -1443,7 +1636,9 @@ public class DefaultOperationManager implements OperationManager
         Partition partition = directoryService.getPartitionNexus().getPartition( dn );
         moveAndRenameContext.setPartition( partition );
 
-        lockWrite();
+        // Lock the source and the target partitions
+        LockedPartitions lockedPartitions = lockPartitions( true, partition,
+            findPartition( moveAndRenameContext.getNewSuperiorDn() ) );
         
         // Start a Write transaction right away
         PartitionTxn transaction = moveAndRenameContext.getSession().getTransaction( partition ); 
@@ -1465,13 +1660,13 @@ public class DefaultOperationManager implements OperationManager
             moveAndRenameContext.setTransaction( transaction );
 
             // Call the MoveAndRename method
-            Interceptor head = directoryService.getInterceptor( moveAndRenameContext.getNextInterceptor() );
+            Interceptor head = moveAndRenameContext.getNextInterceptor();
 
             head.moveAndRename( moveAndRenameContext );
 
             if ( !moveAndRenameContext.getSession().hasSessionTransaction() )
             {
-                transaction.commit();
+                commit( transaction );
             }
         }
         catch ( LdapException le )
@@ -1505,9 +1700,12 @@ public class DefaultOperationManager implements OperationManager
         }
         finally
         {
-            unlockWrite();
+            unlockPartitions( lockedPartitions );
         }
 
+        // Wait for the changes to be on disk, now that the other writers can proceed
+        awaitSync( transaction );
+
         if ( IS_DEBUG )
         {
             OPERATION_LOG.debug( "<< MoveAndRenameOperation successful" );
@@ -1611,9 +1809,8 @@ public class DefaultOperationManager implements OperationManager
             directoryService.getReferralManager().unlock();
         }
 
-        lockWrite();
-
         Partition partition = directoryService.getPartitionNexus().getPartition( dn );
+        LockedPartitions lockedPartitions = lockPartitions( true, partition );
 
         // Start a Write transaction right away
         PartitionTxn transaction = renameContext.getSession().getTransaction( partition ); 
@@ -1663,7 +1860,7 @@ public class DefaultOperationManager implements OperationManager
             Entry originalEntry = getOriginalEntry( renameContext );
             renameContext.setOriginalEntry( originalEntry );
             renameContext.setModifiedEntry( originalEntry.clone() );
-            Interceptor head = directoryService.getInterceptor( renameContext.getNextInterceptor() );
+            Interceptor head = renameContext.getNextInterceptor();
 
             // Start a Write transaction right away
             transaction = renameContext.getSession().getTransaction( partition ); 
@@ -1687,7 +1884,7 @@ public class DefaultOperationManager implements OperationManager
                 
                 if ( !renameContext.getSession().hasSessionTransaction() )
                 {
-                    transaction.commit();
+                    commit( transaction );
                 }
             }
             catch ( LdapException le )
@@ -1725,9 +1922,12 @@ public class DefaultOperationManager implements OperationManager
         }
         finally
         {
-            unlockWrite();
+            unlockPartitions( lockedPartitions );
         }
 
+        // Wait for the changes to be on disk, now that the other writers can proceed
+        awaitSync( transaction );
+
         if ( IS_DEBUG )
         {
             OPERATION_LOG.debug( "<< RenameOperation successful" );
@@ -1815,7 +2015,7 @@ public class DefaultOperationManager implements OperationManager
         }
 
         // Call the Search method
-        Interceptor head = directoryService.getInterceptor( searchContext.getNextInterceptor() );
+        Interceptor head = searchContext.getNextInterceptor();
 
         EntryFilteringCursor cursor = null;
         Partition partition = directoryService.getPartitionNexus().getPartition( dn );
@@ -1824,7 +2024,17 @@ public class DefaultOperationManager implements OperationManager
         {
             searchContext.setPartition( partition );
             searchContext.setTransaction( partitionTxn );
-            lockRead();
+            LockedPartitions lockedPartitions;
+
+            if ( dn.isRootDse() && ( searchContext.getScope() != SearchScope.OBJECT ) )
+            {
+                // The search may span all the partitions
+                lockedPartitions = lockAllPartitions();
+            }
+            else
+            {
+                lockedPartitions = lockPartitions( false, partition );
+            }
     
             try
             {
@@ -1832,7 +2042,7 @@ public class DefaultOperationManager implements OperationManager
             }
             finally
             {
-                unlockRead();
+                unlockPartitions( lockedPartitions );
             }
         }
         catch ( IOException ioe )
@@ -1874,7 +2084,7 @@ public class DefaultOperationManager implements OperationManager
         ensureStarted();
 
         // Call the Unbind method
-        Interceptor head = directoryService.getInterceptor( unbindContext.getNextInterceptor() );
+        Interceptor head = unbindContext.getNextInterceptor();
 
         head.unbind( unbindContext );
 
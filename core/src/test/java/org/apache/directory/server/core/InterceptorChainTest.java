@@ -0,0 +1,129 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.server.core.api.InterceptorEnum;
+import org.apache.directory.server.core.api.OperationEnum;
+import org.apache.directory.server.core.api.interceptor.BaseInterceptor;
+import org.apache.directory.server.core.api.interceptor.Interceptor;
+import org.apache.directory.server.core.api.interceptor.context.LookupOperationContext;
+import org.junit.Before;
+import org.junit.Test;
+
+
+/**
+ * Tests the chains of interceptors built by the {@link DefaultDirectoryService}.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class InterceptorChainTest
+{
+    private DefaultDirectoryService directoryService;
+
+
+    /**
+     * An interceptor only implementing the lookup operation
+     */
+    private static class LookupInterceptor extends BaseInterceptor
+    {
+        LookupInterceptor()
+        {
+            super( "lookupInterceptor" );
+        }
+
+
+        @Override
+        public Entry lookup( LookupOperationContext lookupContext ) throws LdapException
+        {
+            return next( lookupContext );
+        }
+    }
+
+
+    @Before
+    public void init() throws Exception
+    {
+        directoryService = new DefaultDirectoryService();
+    }
+
+
+    @Test
+    public void testChainIsShared()
+    {
+        Interceptor[] chain = directoryService.getInterceptorChain( OperationEnum.ADD );
+
+        assertSame( chain, directoryService.getInterceptorChain( OperationEnum.ADD ) );
+        assertEquals( InterceptorEnum.NORMALIZATION_INTERCEPTOR.getName(), chain[0].getName() );
+
+        List<String> names = directoryService.getInterceptors( OperationEnum.ADD );
+        assertEquals( chain.length, names.size() );
+
+        for ( int i = 0; i < chain.length; i++ )
+        {
+            assertEquals( chain[i].getName(), names.get( i ) );
+        }
+    }
+
+
+    @Test
+    public void testAddInterceptor() throws Exception
+    {
+        Interceptor[] addChain = directoryService.getInterceptorChain( OperationEnum.ADD );
+        Interceptor[] lookupChain = directoryService.getInterceptorChain( OperationEnum.LOOKUP );
+        LookupInterceptor interceptor = new LookupInterceptor();
+
+        directoryService.addLast( interceptor );
+
+        // The interceptor is only called for the lookup operation
+        Interceptor[] newLookupChain = directoryService.getInterceptorChain( OperationEnum.LOOKUP );
+        assertEquals( lookupChain.length + 1, newLookupChain.length );
+        assertSame( interceptor, newLookupChain[newLookupChain.length - 1] );
+        assertTrue( Arrays.equals( addChain, directoryService.getInterceptorChain( OperationEnum.ADD ) ) );
+
+        // The previous chain has not been modified
+        assertFalse( Arrays.asList( lookupChain ).contains( interceptor ) );
+    }
+
+
+    @Test
+    public void testRemoveInterceptor()
+    {
+        String name = InterceptorEnum.NORMALIZATION_INTERCEPTOR.getName();
+        Interceptor[] chain = directoryService.getInterceptorChain( OperationEnum.ADD );
+
+        directoryService.remove( name );
+
+        Interceptor[] newChain = directoryService.getInterceptorChain( OperationEnum.ADD );
+        assertEquals( chain.length - 1, newChain.length );
+        assertFalse( directoryService.getInterceptors( OperationEnum.ADD ).contains( name ) );
+        assertEquals( name, chain[0].getName() );
+    }
+}
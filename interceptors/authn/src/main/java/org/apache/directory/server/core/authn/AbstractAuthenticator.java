@@ -51,6 +51,8 @@ import org.apache.directory.server.core.api.authn.ppolicy.PasswordPolicyExceptio
 import org.apache.directory.server.core.api.interceptor.context.ModifyOperationContext;
 import org.apache.directory.server.core.api.partition.Partition;
 import org.apache.directory.server.core.api.partition.PartitionTxn;
+import org.apache.directory.server.core.authn.ppolicy.BindStateStore;
+import org.apache.directory.server.core.authn.ppolicy.BindStateStore.BindState;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -347,12 +349,26 @@ public abstract class AbstractAuthenticator implements Authenticator
         if ( pPolicyConfig.getPwdMaxIdle() > 0 )
         {
             Attribute pwdLastSuccessTimeAttr = userEntry.get( PWD_LAST_SUCCESS_AT );
+            String lastSuccess = ( pwdLastSuccessTimeAttr == null ) ? null : pwdLastSuccessTimeAttr.getString();
+
+            // The last success may not have been written yet
+            BindStateStore bindStateStore = authenticationInterceptor.getBindStateStore();
+
+            if ( bindStateStore != null )
+            {
+                BindState bindState = bindStateStore.get( userEntry.getDn() );
+
+                if ( ( bindState != null ) && ( bindState.getLastSuccess() != null ) )
+                {
+                    lastSuccess = bindState.getLastSuccess();
+                }
+            }
 
             // Let's be sure that the user has already logged in
-            if ( pwdLastSuccessTimeAttr != null )
+            if ( lastSuccess != null )
             {
                 long time = pPolicyConfig.getPwdMaxIdle() * 1000L;
-                time += DateUtils.getDate( pwdLastSuccessTimeAttr.getString() ).getTime();
+                time += DateUtils.getDate( lastSuccess ).getTime();
 
                 if ( System.currentTimeMillis() >= time )
                 {
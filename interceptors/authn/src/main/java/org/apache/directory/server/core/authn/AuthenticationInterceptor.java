@@ -42,9 +42,11 @@ import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.EnumMap;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import org.apache.directory.api.ldap.extras.controls.ppolicy.PasswordPolicyRequest;
@@ -66,6 +68,7 @@ import org.apache.directory.api.ldap.model.exception.LdapException;
 import org.apache.directory.api.ldap.model.exception.LdapNoPermissionException;
 import org.apache.directory.api.ldap.model.exception.LdapOperationException;
 import org.apache.directory.api.ldap.model.exception.LdapOtherException;
+import org.apache.directory.api.ldap.model.exception.LdapServiceUnavailableException;
 import org.apache.directory.api.ldap.model.exception.LdapUnwillingToPerformException;
 import org.apache.directory.api.ldap.model.message.ResultCodeEnum;
 import org.apache.directory.api.ldap.model.name.Dn;
@@ -78,6 +81,9 @@ import org.apache.directory.server.core.api.CoreSession;
 import org.apache.directory.server.core.api.DirectoryService;
 import org.apache.directory.server.core.api.InterceptorEnum;
 import org.apache.directory.server.core.api.LdapPrincipal;
+import org.apache.directory.server.core.api.OperationManager;
+import org.apache.directory.server.core.api.PartitionLockManager;
+import org.apache.directory.server.core.api.PartitionLockManager.LockedPartitions;
 import org.apache.directory.server.core.api.authn.ppolicy.CheckQualityEnum;
 import org.apache.directory.server.core.api.authn.ppolicy.DefaultPasswordValidator;
 import org.apache.directory.server.core.api.authn.ppolicy.PasswordPolicyConfiguration;
@@ -102,6 +108,8 @@ import org.apache.directory.server.core.api.interceptor.context.SearchOperationC
 import org.apache.directory.server.core.api.interceptor.context.UnbindOperationContext;
 import org.apache.directory.server.core.api.partition.Partition;
 import org.apache.directory.server.core.api.partition.PartitionTxn;
+import org.apache.directory.server.core.authn.ppolicy.BindStateStore;
+import org.apache.directory.server.core.authn.ppolicy.BindStateStore.BindState;
 import org.apache.directory.server.core.authn.ppolicy.PpolicyConfigContainer;
 import org.apache.directory.server.core.shared.DefaultCoreSession;
 import org.apache.directory.server.i18n.I18n;
@@ -155,6 +163,24 @@ public class AuthenticationInterceptor extends BaseInterceptor
     /** a container to hold all the ppolicies */
     private PpolicyConfigContainer pwdPolicyContainer;
 
+    /** The interval between two writes of the password policy states changed by the binds, in ms. 0 means on each bind */
+    private long bindStateFlushInterval;
+
+    /** The password policy states changed by the binds, which have not been written yet */
+    private BindStateStore bindStateStore;
+
+    /** The number of threads verifying the passwords hashed with a slow scheme. 0 means one per processor */
+    private int passwordVerifyThreads;
+
+    /** The maximum number of password verifications running or waiting for a thread. 0 means 8 per thread */
+    private int passwordVerifyMaxPending;
+
+    /** The maximum number of verified credentials kept in the cache */
+    private int passwordVerifyCacheSize = PasswordVerifier.DEFAULT_CACHE_SIZE;
+
+    /** The time a verified credential is kept, in ms. 0 disables the cache */
+    private long passwordVerifyCacheTtl = PasswordVerifier.DEFAULT_CACHE_TTL;
+
 
     /**
      * Creates an authentication service interceptor.
@@ -180,13 +206,51 @@ public class AuthenticationInterceptor extends BaseInterceptor
             setDefaultAuthenticators();
         }
 
+        // The simple authenticators share the same password verifier
+        PasswordVerifier passwordVerifier = null;
+
         // Register all authenticators
         for ( Authenticator authenticator : authenticators )
         {
+            if ( authenticator instanceof SimpleAuthenticator )
+            {
+                if ( passwordVerifier == null )
+                {
+                    passwordVerifier = new PasswordVerifier( passwordVerifyThreads, passwordVerifyMaxPending,
+                        passwordVerifyCacheSize, passwordVerifyCacheTtl );
+                }
+
+                ( ( SimpleAuthenticator ) authenticator ).setPasswordVerifier( passwordVerifier );
+            }
+
             register( authenticator, directoryService );
         }
 
         loadPwdPolicyStateAttributeTypes();
+
+        if ( bindStateFlushInterval > 0 )
+        {
+            bindStateStore = new BindStateStore()
+            {
+                @Override
+                protected void write( List<BindState> pendingStates ) throws LdapException
+                {
+                    writeBindStates( pendingStates );
+                }
+
+
+                @Override
+                protected void writeTransaction( List<BindState> pendingStates ) throws LdapException
+                {
+                    Partition partition = directoryService.getPartitionNexus().getPartition(
+                        pendingStates.get( 0 ).getDn() );
+
+                    writeBindStates( partition, pendingStates );
+                }
+            };
+
+            bindStateStore.start( bindStateFlushInterval );
+        }
     }
 
 
@@ -262,6 +326,7 @@ public class AuthenticationInterceptor extends BaseInterceptor
     @Override
     public void destroy()
     {
+        stopBindStateStore();
         authenticatorsMapByType.clear();
         Set<Authenticator> copy = new HashSet<>( authenticators );
         authenticators = new HashSet<>();
@@ -273,6 +338,137 @@ public class AuthenticationInterceptor extends BaseInterceptor
     }
 
 
+    /**
+     * Stops writing the password policy states changed by the binds in batches, after
+     * having written the pending ones. It must be called before the partitions are
+     * destroyed.
+     */
+    public void stopBindStateStore()
+    {
+        if ( bindStateStore != null )
+        {
+            bindStateStore.stop();
+            bindStateStore = null;
+        }
+    }
+
+
+    /**
+     * @return The password policy states changed by the binds which have not been written
+     * yet, or null if they are written on each bind
+     */
+    public BindStateStore getBindStateStore()
+    {
+        return bindStateStore;
+    }
+
+
+    /**
+     * @return The interval between two writes of the password policy states changed by the binds,
+     * in milliseconds
+     */
+    public long getBindStateFlushInterval()
+    {
+        return bindStateFlushInterval;
+    }
+
+
+    /**
+     * Sets the interval between two writes of the password policy states changed by the binds :
+     * the failure times and the last success time. A lockout, an unlock and a grace login are
+     * always written immediately. It must be set before the interceptor is initialized.
+     *
+     * @param bindStateFlushInterval The interval in milliseconds. 0 writes the states on each bind
+     */
+    public void setBindStateFlushInterval( long bindStateFlushInterval )
+    {
+        this.bindStateFlushInterval = bindStateFlushInterval;
+    }
+
+
+    /**
+     * @return The number of threads verifying the passwords hashed with a slow scheme
+     */
+    public int getPasswordVerifyThreads()
+    {
+        return passwordVerifyThreads;
+    }
+
+
+    /**
+     * Sets the number of threads verifying the passwords hashed with a slow scheme. It must
+     * be set before the interceptor is initialized.
+     *
+     * @param passwordVerifyThreads The number of threads. 0 means one per processor
+     */
+    public void setPasswordVerifyThreads( int passwordVerifyThreads )
+    {
+        this.passwordVerifyThreads = passwordVerifyThreads;
+    }
+
+
+    /**
+     * @return The maximum number of password verifications running or waiting for a thread
+     */
+    public int getPasswordVerifyMaxPending()
+    {
+        return passwordVerifyMaxPending;
+    }
+
+
+    /**
+     * Sets the maximum number of password verifications running or waiting for a thread. Beyond,
+     * the binds are rejected with a BUSY result. It must be set before the interceptor is initialized.
+     *
+     * @param passwordVerifyMaxPending The maximum number of verifications. 0 means 8 per thread
+     */
+    public void setPasswordVerifyMaxPending( int passwordVerifyMaxPending )
+    {
+        this.passwordVerifyMaxPending = passwordVerifyMaxPending;
+    }
+
+
+    /**
+     * @return The maximum number of verified credentials kept in the cache
+     */
+    public int getPasswordVerifyCacheSize()
+    {
+        return passwordVerifyCacheSize;
+    }
+
+
+    /**
+     * Sets the maximum number of verified credentials kept in the cache. It must be set before
+     * the interceptor is initialized.
+     *
+     * @param passwordVerifyCacheSize The cache size. 0 disables the cache
+     */
+    public void setPasswordVerifyCacheSize( int passwordVerifyCacheSize )
+    {
+        this.passwordVerifyCacheSize = passwordVerifyCacheSize;
+    }
+
+
+    /**
+     * @return The time a verified credential is kept, in milliseconds
+     */
+    public long getPasswordVerifyCacheTtl()
+    {
+        return passwordVerifyCacheTtl;
+    }
+
+
+    /**
+     * Sets the time a verified credential is kept. It must be set before the interceptor is initialized.
+     *
+     * @param passwordVerifyCacheTtl The time in milliseconds. 0 disables the cache
+     */
+    public void setPasswordVerifyCacheTtl( long passwordVerifyCacheTtl )
+    {
+        this.passwordVerifyCacheTtl = passwordVerifyCacheTtl;
+    }
+
+
     /**
      * Initializes the specified {@link Authenticator} and registers it to
      * this service.
@@ -595,6 +791,11 @@ public class AuthenticationInterceptor extends BaseInterceptor
             // authentication failed, try the next authenticator
             LOG.info( "Authenticator {} failed to authenticate: {}", authenticator, bindContext.getDn() );
         }
+        catch ( LdapServiceUnavailableException e )
+        {
+            // The server is too busy to verify the password : this is not a failed bind
+            throw e;
+        }
         catch ( Exception e )
         {
             // Log other exceptions than LdapAuthenticationException
@@ -643,61 +844,25 @@ public class AuthenticationInterceptor extends BaseInterceptor
 
             if ( ( policyConfig != null ) && ( userEntry != null ) )
             {
-                Attribute pwdFailTimeAt = userEntry.get( pwdFailurTimeAT );
+                int numDelay;
 
-                if ( pwdFailTimeAt == null )
+                if ( bindStateStore == null )
                 {
-                    pwdFailTimeAt = new DefaultAttribute( pwdFailurTimeAT );
+                    numDelay = processBindFailure( bindContext, userEntry, policyConfig, null, pwdRespCtrl );
                 }
                 else
                 {
-                    purgeFailureTimes( policyConfig, pwdFailTimeAt );
-                }
-
-                String failureTime = DateUtils.getGeneralizedTime();
-                pwdFailTimeAt.add( failureTime );
-                Modification pwdFailTimeMod = new DefaultModification( REPLACE_ATTRIBUTE, pwdFailTimeAt );
-
-                List<Modification> mods = new ArrayList<>();
-                mods.add( pwdFailTimeMod );
+                    // The failures of a user are counted one at a time
+                    BindState bindState = bindStateStore.getOrCreate( userEntry.getDn() );
 
-                int numFailures = pwdFailTimeAt.size();
-
-                if ( policyConfig.isPwdLockout() && ( numFailures >= policyConfig.getPwdMaxFailure() ) )
-                {
-                    // Checking that we're not locking the admin user of the system partition
-                    // See DIRSERVER-1812 (The default admin account should never get locked forever)
-                    if ( !userEntry.getDn().equals( new Dn( schemaManager, ServerDNConstants.ADMIN_SYSTEM_DN ) ) )
+                    synchronized ( bindState )
                     {
-                        Attribute pwdAccountLockedTimeAt = new DefaultAttribute( pwdAccountLockedTimeAT );
-
-                        // if zero, lockout permanently, only admin can unlock it
-                        if ( policyConfig.getPwdLockoutDuration() == 0 )
-                        {
-                            pwdAccountLockedTimeAt.add( "000001010000Z" );
-                        }
-                        else
-                        {
-                            pwdAccountLockedTimeAt.add( failureTime );
-                        }
-
-                        Modification pwdAccountLockedMod = new DefaultModification( REPLACE_ATTRIBUTE,
-                            pwdAccountLockedTimeAt );
-                        mods.add( pwdAccountLockedMod );
-
-                        pwdRespCtrl.setPasswordPolicyError( PasswordPolicyErrorEnum.ACCOUNT_LOCKED );
+                        numDelay = processBindFailure( bindContext, userEntry, policyConfig, bindState, pwdRespCtrl );
                     }
                 }
-                else if ( policyConfig.getPwdMinDelay() > 0 )
-                {
-                    int numDelay = numFailures * policyConfig.getPwdMinDelay();
-                    int maxDelay = policyConfig.getPwdMaxDelay();
-
-                    if ( numDelay > maxDelay )
-                    {
-                        numDelay = maxDelay;
-                    }
 
+                if ( numDelay > 0 )
+                {
                     try
                     {
                         Thread.sleep( numDelay * 1000L );
@@ -709,21 +874,6 @@ public class AuthenticationInterceptor extends BaseInterceptor
                             bindDn, e );
                     }
                 }
-
-                if ( !mods.isEmpty() )
-                {
-                    String csnVal = directoryService.getCSN().toString();
-                    Modification csnMod = new DefaultModification( REPLACE_ATTRIBUTE, directoryService.getAtProvider()
-                        .getEntryCSN(), csnVal );
-                    mods.add( csnMod );
-                    ModifyOperationContext bindModCtx = new ModifyOperationContext( adminSession );
-                    bindModCtx.setDn( bindDn );
-                    bindModCtx.setEntry( userEntry );
-                    bindModCtx.setModItems( mods );
-                    bindModCtx.setPushToEvtInterceptor( true );
-
-                    internalModify( bindContext, bindModCtx );
-                }
             }
 
             String upDn = bindDn == null ? "" : bindDn.getName();
@@ -732,11 +882,16 @@ public class AuthenticationInterceptor extends BaseInterceptor
         else if ( policyConfig != null )
         {
             List<Modification> mods = new ArrayList<>();
+            String lastSuccess = null;
+
+            // Removing the lock, or using a grace login, must be written immediately
+            boolean lockoutRelevant = false;
 
             if ( policyConfig.getPwdMaxIdle() > 0 )
             {
+                lastSuccess = DateUtils.getGeneralizedTime();
                 Attribute pwdLastSuccesTimeAt = new DefaultAttribute( pwdLastSuccessAT );
-                pwdLastSuccesTimeAt.add( DateUtils.getGeneralizedTime() );
+                pwdLastSuccesTimeAt.add( lastSuccess );
                 Modification pwdLastSuccesTimeMod = new DefaultModification( REPLACE_ATTRIBUTE, pwdLastSuccesTimeAt );
                 mods.add( pwdLastSuccesTimeMod );
             }
@@ -755,6 +910,7 @@ public class AuthenticationInterceptor extends BaseInterceptor
             {
                 Modification pwdAccLockedTimeMod = new DefaultModification( REMOVE_ATTRIBUTE, pwdAccLockedTimeAt );
                 mods.add( pwdAccLockedTimeMod );
+                lockoutRelevant = true;
             }
 
             // checking the expiration time *after* performing authentication, do we need to care about millisecond precision?
@@ -787,12 +943,29 @@ public class AuthenticationInterceptor extends BaseInterceptor
                         pwdGraceUseAttr.add( DateUtils.getGeneralizedTime() );
                         Modification pwdGraceUseMod = new DefaultModification( ADD_ATTRIBUTE, pwdGraceUseAttr );
                         mods.add( pwdGraceUseMod );
+                        lockoutRelevant = true;
                     }
                 }
             }
 
-            if ( !mods.isEmpty() )
+            BindState bindState = ( bindStateStore == null ) ? null : bindStateStore.get( userEntry.getDn() );
+
+            if ( ( bindStateStore != null ) && !lockoutRelevant )
             {
+                // The failure times removal and the last success time are written later
+                if ( !mods.isEmpty() || ( bindState != null ) )
+                {
+                    bindStateStore.getOrCreate( userEntry.getDn() ).setSuccess( lastSuccess );
+                }
+            }
+            else if ( !mods.isEmpty() )
+            {
+                if ( bindState != null )
+                {
+                    // The pending failure times are replaced by this success
+                    bindState.clear();
+                }
+
                 String csnVal = directoryService.getCSN().toString();
                 Modification csnMod = new DefaultModification( REPLACE_ATTRIBUTE, directoryService.getAtProvider()
                     .getEntryCSN(), csnVal );
@@ -828,6 +1001,320 @@ public class AuthenticationInterceptor extends BaseInterceptor
     }
 
 
+    /**
+     * Gets the failure times of a user : the stored ones, unless a successful bind has
+     * reset them, and the ones which have not been written yet.
+     */
+    private Attribute getPwdFailureTimes( Entry userEntry, BindState bindState ) throws LdapException
+    {
+        Attribute pwdFailTimeAt = null;
+
+        if ( ( bindState == null ) || !bindState.isFailuresReset() )
+        {
+            pwdFailTimeAt = userEntry.get( pwdFailurTimeAT );
+        }
+
+        if ( ( bindState != null ) && !bindState.getFailureTimes().isEmpty() )
+        {
+            pwdFailTimeAt = ( pwdFailTimeAt == null ) ? new DefaultAttribute( pwdFailurTimeAT ) : pwdFailTimeAt.clone();
+
+            for ( String failureTime : bindState.getFailureTimes() )
+            {
+                pwdFailTimeAt.add( failureTime );
+            }
+        }
+
+        return pwdFailTimeAt;
+    }
+
+
+    /**
+     * Records a failed bind in the user entry. When the states are written in batches, the
+     * failure time is kept in the user's state, unless the account gets locked : the failure
+     * times and the lock are then written immediately.
+     *
+     * @return The number of seconds the response must be delayed
+     */
+    private int processBindFailure( BindOperationContext bindContext, Entry userEntry,
+        PasswordPolicyConfiguration policyConfig, BindState bindState, PasswordPolicyResponse pwdRespCtrl )
+        throws LdapException
+    {
+        Attribute pwdFailTimeAt = getPwdFailureTimes( userEntry, bindState );
+
+        if ( pwdFailTimeAt == null )
+        {
+            pwdFailTimeAt = new DefaultAttribute( pwdFailurTimeAT );
+        }
+        else
+        {
+            purgeFailureTimes( policyConfig, pwdFailTimeAt );
+        }
+
+        String failureTime = DateUtils.getGeneralizedTime();
+        pwdFailTimeAt.add( failureTime );
+        Modification pwdFailTimeMod = new DefaultModification( REPLACE_ATTRIBUTE, pwdFailTimeAt );
+
+        List<Modification> mods = new ArrayList<>();
+        mods.add( pwdFailTimeMod );
+
+        int numFailures = pwdFailTimeAt.size();
+        int numDelay = 0;
+        boolean locked = false;
+
+        if ( policyConfig.isPwdLockout() && ( numFailures >= policyConfig.getPwdMaxFailure() ) )
+        {
+            // Checking that we're not locking the admin user of the system partition
+            // See DIRSERVER-1812 (The default admin account should never get locked forever)
+            if ( !userEntry.getDn().equals( new Dn( schemaManager, ServerDNConstants.ADMIN_SYSTEM_DN ) ) )
+            {
+                Attribute pwdAccountLockedTimeAt = new DefaultAttribute( pwdAccountLockedTimeAT );
+
+                // if zero, lockout permanently, only admin can unlock it
+                if ( policyConfig.getPwdLockoutDuration() == 0 )
+                {
+                    pwdAccountLockedTimeAt.add( "000001010000Z" );
+                }
+                else
+                {
+                    pwdAccountLockedTimeAt.add( failureTime );
+                }
+
+                Modification pwdAccountLockedMod = new DefaultModification( REPLACE_ATTRIBUTE,
+                    pwdAccountLockedTimeAt );
+                mods.add( pwdAccountLockedMod );
+                locked = true;
+
+                pwdRespCtrl.setPasswordPolicyError( PasswordPolicyErrorEnum.ACCOUNT_LOCKED );
+            }
+        }
+        else if ( policyConfig.getPwdMinDelay() > 0 )
+        {
+            numDelay = numFailures * policyConfig.getPwdMinDelay();
+            int maxDelay = policyConfig.getPwdMaxDelay();
+
+            if ( numDelay > maxDelay )
+            {
+                numDelay = maxDelay;
+            }
+        }
+
+        if ( ( bindState != null ) && !locked )
+        {
+            // Written with the next batch
+            bindState.addFailureTime( failureTime );
+
+            return numDelay;
+        }
+
+        if ( bindState != null )
+        {
+            String lastSuccess = bindState.getLastSuccess();
+
+            if ( lastSuccess != null )
+            {
+                mods.add( new DefaultModification( REPLACE_ATTRIBUTE, pwdLastSuccessAT, lastSuccess ) );
+            }
+
+            // The pending failure times are written with the lock
+            bindState.clear();
+        }
+
+        String csnVal = directoryService.getCSN().toString();
+        Modification csnMod = new DefaultModification( REPLACE_ATTRIBUTE, directoryService.getAtProvider()
+            .getEntryCSN(), csnVal );
+        mods.add( csnMod );
+        ModifyOperationContext bindModCtx = new ModifyOperationContext( adminSession );
+        bindModCtx.setDn( bindContext.getDn() );
+        bindModCtx.setEntry( userEntry );
+        bindModCtx.setModItems( mods );
+        bindModCtx.setPushToEvtInterceptor( true );
+
+        internalModify( bindContext, bindModCtx );
+
+        return numDelay;
+    }
+
+
+    /**
+     * Writes the pending password policy states of some users. The states are grouped by
+     * partition, and each group is written by the {@link BindStateStore}, while holding the
+     * partition's write lock so that no bind modifies them meanwhile. The lock is acquired
+     * through the {@link PartitionLockManager}, as the operations do.
+     */
+    private void writeBindStates( List<BindState> pendingStates ) throws LdapException
+    {
+        Map<Partition, List<BindState>> statesPerPartition = new HashMap<>();
+
+        for ( BindState bindState : pendingStates )
+        {
+            Partition partition = directoryService.getPartitionNexus().getPartition( bindState.getDn() );
+            List<BindState> partitionStates = statesPerPartition.get( partition );
+
+            if ( partitionStates == null )
+            {
+                partitionStates = new ArrayList<>();
+                statesPerPartition.put( partition, partitionStates );
+            }
+
+            partitionStates.add( bindState );
+        }
+
+        OperationManager operationManager = directoryService.getOperationManager();
+        PartitionLockManager lockManager = operationManager.getLockManager();
+
+        for ( Map.Entry<Partition, List<BindState>> entry : statesPerPartition.entrySet() )
+        {
+            Partition partition = entry.getKey();
+            LockedPartitions lockedPartitions = lockManager.lock( true, partition.getId() );
+
+            try
+            {
+                int nbFailed = bindStateStore.writeStates( entry.getValue() );
+
+                if ( nbFailed > 0 )
+                {
+                    LOG.warn( "The password policy state of {} users in {} will be written with the next flush",
+                        nbFailed, partition.getId() );
+                }
+            }
+            finally
+            {
+                lockManager.unlock( lockedPartitions );
+            }
+        }
+    }
+
+
+    /**
+     * Writes the pending password policy states of some users stored in a partition, in one
+     * transaction. The states are left in the store : it removes them once this method has
+     * returned, the transaction being committed.
+     */
+    private void writeBindStates( Partition partition, List<BindState> pendingStates ) throws LdapException
+    {
+        PartitionTxn partitionTxn = null;
+        int nbWritten = 0;
+
+        try
+        {
+            partitionTxn = partition.beginWriteTransaction();
+
+            for ( BindState bindState : pendingStates )
+            {
+                if ( bindState.isEmpty() )
+                {
+                    continue;
+                }
+
+                LookupOperationContext lookupContext = new LookupOperationContext( adminSession,
+                    bindState.getDn(), SchemaConstants.ALL_ATTRIBUTES_ARRAY );
+                lookupContext.setPartition( partition );
+                lookupContext.setTransaction( partitionTxn );
+
+                Entry userEntry = directoryService.getPartitionNexus().lookup( lookupContext );
+
+                if ( userEntry == null )
+                {
+                    // The entry has been removed meanwhile
+                    continue;
+                }
+
+                List<Modification> mods = new ArrayList<>();
+                Attribute storedFailTimeAt = userEntry.get( pwdFailurTimeAT );
+                Attribute pwdFailTimeAt = getPwdFailureTimes( userEntry, bindState );
+                PasswordPolicyConfiguration policyConfig = getPwdPolicy( userEntry );
+
+                if ( ( pwdFailTimeAt != null ) && ( policyConfig != null ) )
+                {
+                    // The expired failure times are not written, as when a failed bind is written
+                    if ( pwdFailTimeAt == storedFailTimeAt )
+                    {
+                        pwdFailTimeAt = pwdFailTimeAt.clone();
+                    }
+
+                    purgeFailureTimes( policyConfig, pwdFailTimeAt );
+                }
+
+                if ( ( pwdFailTimeAt != null ) && ( pwdFailTimeAt.size() > 0 ) )
+                {
+                    if ( !pwdFailTimeAt.equals( storedFailTimeAt ) )
+                    {
+                        mods.add( new DefaultModification( REPLACE_ATTRIBUTE, pwdFailTimeAt ) );
+                    }
+                }
+                else if ( storedFailTimeAt != null )
+                {
+                    mods.add( new DefaultModification( REMOVE_ATTRIBUTE, storedFailTimeAt ) );
+                }
+
+                if ( bindState.getLastSuccess() != null )
+                {
+                    mods.add( new DefaultModification( REPLACE_ATTRIBUTE, pwdLastSuccessAT,
+                        bindState.getLastSuccess() ) );
+                }
+
+                if ( mods.isEmpty() )
+                {
+                    continue;
+                }
+
+                String csnVal = directoryService.getCSN().toString();
+                mods.add( new DefaultModification( REPLACE_ATTRIBUTE, directoryService.getAtProvider()
+                    .getEntryCSN(), csnVal ) );
+
+                ModifyOperationContext bindModCtx = new ModifyOperationContext( adminSession );
+                bindModCtx.setDn( bindState.getDn() );
+                bindModCtx.setEntry( userEntry );
+                bindModCtx.setModItems( mods );
+                bindModCtx.setPushToEvtInterceptor( true );
+                bindModCtx.setPartition( partition );
+                bindModCtx.setTransaction( partitionTxn );
+
+                directoryService.getPartitionNexus().modify( bindModCtx );
+                nbWritten++;
+            }
+
+            partitionTxn.commit();
+
+            if ( IS_DEBUG )
+            {
+                LOG.debug( "Wrote the password policy state of {} users in {}", nbWritten, partition.getId() );
+            }
+        }
+        catch ( LdapException le )
+        {
+            abort( partitionTxn );
+
+            throw le;
+        }
+        catch ( IOException ioe )
+        {
+            abort( partitionTxn );
+
+            throw new LdapOtherException( ioe.getMessage(), ioe );
+        }
+    }
+
+
+    /**
+     * Aborts a transaction, if it has been started
+     */
+    private void abort( PartitionTxn partitionTxn ) throws LdapException
+    {
+        if ( partitionTxn != null )
+        {
+            try
+            {
+                partitionTxn.abort();
+            }
+            catch ( IOException ioe )
+            {
+                throw new LdapOtherException( ioe.getMessage(), ioe );
+            }
+        }
+    }
+
+
     /**
      * {@inheritDoc}
      */
@@ -860,6 +1347,7 @@ public class AuthenticationInterceptor extends BaseInterceptor
         checkPwdReset( deleteContext );
         next( deleteContext );
         invalidateAuthenticatorCaches( deleteContext.getDn() );
+        discardBindStates( deleteContext.getDn() );
     }
 
 
@@ -917,6 +1405,19 @@ public class AuthenticationInterceptor extends BaseInterceptor
     }
 
 
+    /**
+     * Discards the pending password policy states of an entry and its descendants, when
+     * they have been removed, moved or renamed, or when their state has been modified
+     */
+    private void discardBindStates( Dn dn )
+    {
+        if ( bindStateStore != null )
+        {
+            bindStateStore.discard( dn );
+        }
+    }
+
+
     private void invalidateAuthenticatorCaches( Dn principalDn )
     {
         for ( AuthenticationLevel authMech : authenticatorsMapByType.keySet() )
@@ -951,6 +1452,34 @@ public class AuthenticationInterceptor extends BaseInterceptor
         {
             processPasswordPolicydModify( modifyContext );
         }
+
+        if ( ( bindStateStore != null ) && isBindStateModified( modifyContext.getModItems() ) )
+        {
+            // The pending state would overwrite the new values
+            bindStateStore.remove( modifyContext.getDn() );
+        }
+    }
+
+
+    /**
+     * Tells if some modifications change the password, or the password policy state kept
+     * by the binds
+     */
+    private boolean isBindStateModified( List<Modification> modifications )
+    {
+        for ( Modification modification : modifications )
+        {
+            AttributeType attributeType = modification.getAttribute().getAttributeType();
+
+            if ( pwdFailurTimeAT.equals( attributeType ) || pwdAccountLockedTimeAT.equals( attributeType )
+                || pwdLastSuccessAT.equals( attributeType )
+                || directoryService.getAtProvider().getUserPassword().equals( attributeType ) )
+            {
+                return true;
+            }
+        }
+
+        return false;
     }
 
     
@@ -1334,6 +1863,7 @@ public class AuthenticationInterceptor extends BaseInterceptor
         checkPwdReset( moveContext );
         next( moveContext );
         invalidateAuthenticatorCaches( moveContext.getDn() );
+        discardBindStates( moveContext.getDn() );
     }
 
 
@@ -1352,6 +1882,7 @@ public class AuthenticationInterceptor extends BaseInterceptor
         checkPwdReset( moveAndRenameContext );
         next( moveAndRenameContext );
         invalidateAuthenticatorCaches( moveAndRenameContext.getDn() );
+        discardBindStates( moveAndRenameContext.getDn() );
     }
 
 
@@ -1370,6 +1901,7 @@ public class AuthenticationInterceptor extends BaseInterceptor
         checkPwdReset( renameContext );
         next( renameContext );
         invalidateAuthenticatorCaches( renameContext.getDn() );
+        discardBindStates( renameContext.getDn() );
     }
 
 
@@ -0,0 +1,367 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.authn;
+
+
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.apache.directory.api.ldap.model.constants.LdapSecurityConstants;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.api.ldap.model.exception.LdapOtherException;
+import org.apache.directory.api.ldap.model.exception.LdapServiceUnavailableException;
+import org.apache.directory.api.ldap.model.message.ResultCodeEnum;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.api.ldap.model.password.PasswordUtil;
+import org.apache.directory.api.util.Strings;
+import org.apache.directory.server.core.api.cache.TinyLfuCache;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * Compares the credentials of the simple binds with the stored passwords. The passwords
+ * hashed with a slow scheme (PBKDF2, crypt) are verified by a dedicated pool of threads,
+ * so that a burst of binds does not occupy all the threads handling the requests :
+ * <ul>
+ *   <li>at most <em>maxPending</em> verifications may be running or waiting for a thread.
+ *   Beyond, the bind is rejected with a BUSY result, instead of waiting</li>
+ *   <li>the successful verifications are remembered for a while, so that the repeated
+ *   binds of a user don't pay the hashing cost again. The cache key is a HMAC of the user
+ *   DN, the credentials and the stored password, computed with a random secret key : the
+ *   cache never contains any password, and an entry is useless as soon as the stored
+ *   password changes</li>
+ * </ul>
+ * The passwords stored in clear or hashed with a fast scheme are compared inline.
+ * <br>
+ * The verifier is configured by the {@link AuthenticationInterceptor}.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class PasswordVerifier
+{
+    /** The logger for this class */
+    private static final Logger LOG = LoggerFactory.getLogger( PasswordVerifier.class );
+
+    /** The default number of verification threads */
+    static final int DEFAULT_THREADS = Runtime.getRuntime().availableProcessors();
+
+    /** The default number of verifications running or waiting, per thread */
+    static final int DEFAULT_PENDING_PER_THREAD = 8;
+
+    /** The default number of verified credentials kept in the cache */
+    static final int DEFAULT_CACHE_SIZE = 10000;
+
+    /** The default time a verified credential is kept, in milliseconds */
+    static final long DEFAULT_CACHE_TTL = 300000L;
+
+    /** The MAC algorithm used to compute the cache keys */
+    private static final String MAC_ALGORITHM = "HmacSHA256";
+
+    /** The hexadecimal digits */
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    /** The verification threads */
+    private final ThreadPoolExecutor executor;
+
+    /** The admission limit */
+    private final Semaphore admission;
+
+    /** The verified credentials, and the time at which they expire */
+    private final TinyLfuCache<String, Long> verifiedCache;
+
+    /** The time a verified credential is kept, in milliseconds */
+    private final long cacheTtl;
+
+    /** The secret key used to compute the cache keys */
+    private final SecretKeySpec cacheKey;
+
+
+    /**
+     * Creates a new instance of PasswordVerifier, with the default configuration.
+     */
+    public PasswordVerifier()
+    {
+        this( 0, 0, DEFAULT_CACHE_SIZE, DEFAULT_CACHE_TTL );
+    }
+
+
+    /**
+     * Creates a new instance of PasswordVerifier.
+     *
+     * @param threads The number of verification threads. 0 means one per processor
+     * @param maxPending The maximum number of verifications running or waiting for a thread.
+     * 0 means 8 per verification thread
+     * @param cacheSize The maximum number of verified credentials kept in the cache
+     * @param cacheTtl The time a verified credential is kept, in milliseconds. 0 disables the cache
+     */
+    public PasswordVerifier( int threads, int maxPending, int cacheSize, long cacheTtl )
+    {
+        int nbThreads = threads > 0 ? threads : DEFAULT_THREADS;
+        int nbPending = maxPending > 0 ? maxPending : nbThreads * DEFAULT_PENDING_PER_THREAD;
+
+        ThreadFactory threadFactory = new ThreadFactory()
+        {
+            @Override
+            public Thread newThread( Runnable runnable )
+            {
+                Thread newThread = Executors.defaultThreadFactory().newThread( runnable );
+                newThread.setName( "PasswordVerifier-" + newThread.getName() );
+                newThread.setDaemon( true );
+
+                return newThread;
+            }
+        };
+
+        // The queue is bounded by the admission limit
+        executor = new ThreadPoolExecutor( nbThreads, nbThreads, 60L, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<Runnable>(), threadFactory );
+        executor.allowCoreThreadTimeOut( true );
+        admission = new Semaphore( Math.max( nbThreads, nbPending ) );
+
+        if ( ( cacheTtl > 0L ) && ( cacheSize > 0 ) )
+        {
+            verifiedCache = new TinyLfuCache<>( cacheSize );
+            this.cacheTtl = cacheTtl;
+
+            byte[] secret = new byte[32];
+            new SecureRandom().nextBytes( secret );
+            cacheKey = new SecretKeySpec( secret, MAC_ALGORITHM );
+        }
+        else
+        {
+            verifiedCache = null;
+            this.cacheTtl = 0L;
+            cacheKey = null;
+        }
+    }
+
+
+    /**
+     * Tells if a stored password is hashed with a scheme too slow to be verified inline
+     *
+     * @param storedPassword The stored password
+     * @return <code>true</code> if the password is hashed with PBKDF2 or crypt
+     */
+    static boolean isExpensive( byte[] storedPassword )
+    {
+        LdapSecurityConstants algorithm = PasswordUtil.findAlgorithm( storedPassword );
+
+        if ( algorithm == null )
+        {
+            return false;
+        }
+
+        return ( algorithm == LdapSecurityConstants.HASH_METHOD_PKCS5S2 )
+            || algorithm.name().startsWith( "HASH_METHOD_CRYPT" );
+    }
+
+
+    /**
+     * Compares some credentials with a stored password.
+     *
+     * @param dn The user DN
+     * @param credentials The credentials sent by the user
+     * @param storedPassword The stored password
+     * @return <code>true</code> if the credentials match the stored password
+     * @throws LdapServiceUnavailableException If too many verifications are pending
+     * @throws LdapException If the verification has been interrupted
+     */
+    public boolean verify( Dn dn, final byte[] credentials, final byte[] storedPassword ) throws LdapException
+    {
+        if ( !isExpensive( storedPassword ) )
+        {
+            return PasswordUtil.compareCredentials( credentials, storedPassword );
+        }
+
+        String key = null;
+
+        if ( verifiedCache != null )
+        {
+            key = getCacheKey( dn, credentials, storedPassword );
+            Long expiry = verifiedCache.get( key );
+
+            if ( expiry != null )
+            {
+                if ( expiry > System.currentTimeMillis() )
+                {
+                    return true;
+                }
+
+                verifiedCache.remove( key );
+            }
+        }
+
+        if ( !admission.tryAcquire() )
+        {
+            LOG.warn( "Too many password verifications pending, rejecting the bind of {}", dn );
+            throw new LdapServiceUnavailableException( ResultCodeEnum.BUSY,
+                "Too many password verifications pending" );
+        }
+
+        Future<Boolean> result;
+
+        try
+        {
+            result = executor.submit( new Callable<Boolean>()
+            {
+                @Override
+                public Boolean call()
+                {
+                    try
+                    {
+                        return PasswordUtil.compareCredentials( credentials, storedPassword );
+                    }
+                    finally
+                    {
+                        admission.release();
+                    }
+                }
+            } );
+        }
+        catch ( RuntimeException re )
+        {
+            // The pool has been shut down
+            admission.release();
+            throw new LdapServiceUnavailableException( ResultCodeEnum.UNAVAILABLE, re.getMessage() );
+        }
+
+        boolean verified;
+
+        try
+        {
+            verified = result.get();
+        }
+        catch ( InterruptedException ie )
+        {
+            Thread.currentThread().interrupt();
+            throw new LdapOtherException( ie.getMessage(), ie );
+        }
+        catch ( ExecutionException ee )
+        {
+            throw new LdapOtherException( ee.getCause().getMessage(), ee.getCause() );
+        }
+
+        if ( verified && ( key != null ) )
+        {
+            verifiedCache.put( key, System.currentTimeMillis() + cacheTtl );
+        }
+
+        return verified;
+    }
+
+
+    /**
+     * Computes the cache key of some credentials : the HMAC of the user DN, the credentials
+     * and the stored password, each one prefixed by its length.
+     */
+    private String getCacheKey( Dn dn, byte[] credentials, byte[] storedPassword ) throws LdapException
+    {
+        try
+        {
+            Mac mac = Mac.getInstance( MAC_ALGORITHM );
+            mac.init( cacheKey );
+
+            byte[] dnBytes = Strings.getBytesUtf8( dn.getNormName() );
+            updateWithLength( mac, dnBytes );
+            updateWithLength( mac, credentials == null ? Strings.EMPTY_BYTES : credentials );
+            updateWithLength( mac, storedPassword );
+
+            byte[] digest = mac.doFinal();
+            char[] chars = new char[digest.length * 2];
+
+            for ( int i = 0; i < digest.length; i++ )
+            {
+                chars[i * 2] = HEX[( digest[i] >> 4 ) & 0x0F];
+                chars[i * 2 + 1] = HEX[digest[i] & 0x0F];
+            }
+
+            return new String( chars );
+        }
+        catch ( GeneralSecurityException gse )
+        {
+            throw new LdapOtherException( gse.getMessage(), gse );
+        }
+    }
+
+
+    private static void updateWithLength( Mac mac, byte[] bytes )
+    {
+        int length = bytes.length;
+
+        mac.update( ( byte ) ( length >>> 24 ) );
+        mac.update( ( byte ) ( length >>> 16 ) );
+        mac.update( ( byte ) ( length >>> 8 ) );
+        mac.update( ( byte ) length );
+        mac.update( bytes );
+    }
+
+
+    /**
+     * Forgets all the verified credentials
+     */
+    public void clearCache()
+    {
+        if ( verifiedCache != null )
+        {
+            verifiedCache.clear();
+        }
+    }
+
+
+    /**
+     * @return The number of verified credentials in the cache
+     */
+    public int getCacheSize()
+    {
+        return verifiedCache == null ? 0 : verifiedCache.size();
+    }
+
+
+    /**
+     * @return The number of verifications which may still be admitted
+     */
+    public int getAvailablePermits()
+    {
+        return admission.availablePermits();
+    }
+
+
+    /**
+     * Stops the verification threads
+     */
+    public void shutdown()
+    {
+        executor.shutdown();
+        clearCache();
+    }
+}
@@ -33,7 +33,6 @@ import org.apache.directory.api.ldap.model.entry.Value;
 import org.apache.directory.api.ldap.model.exception.LdapAuthenticationException;
 import org.apache.directory.api.ldap.model.exception.LdapException;
 import org.apache.directory.api.ldap.model.name.Dn;
-import org.apache.directory.api.ldap.model.password.PasswordUtil;
 import org.apache.directory.server.core.api.DirectoryService;
 import org.apache.directory.server.core.api.InterceptorEnum;
 import org.apache.directory.server.core.api.LdapPrincipal;
@@ -53,6 +52,7 @@ import org.apache.mina.core.session.IoSession;
  * is hashed the same way before comparison.
  *
  * We use a cache to speedup authentication, where the Dn/password are stored.
+ * The passwords hashed with a slow scheme are verified by a {@link PasswordVerifier}.
  *
  * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
  */
@@ -82,6 +82,9 @@ public class SimpleAuthenticator extends AbstractAuthenticator
     /** Declare a default for this cache. 100 entries seems to be enough */
     private static final int DEFAULT_CACHE_SIZE = 100;
 
+    /** The verifier comparing the credentials with the stored passwords */
+    private PasswordVerifier passwordVerifier;
+
 
     /**
      * Creates a new instance.
@@ -132,6 +135,50 @@ public class SimpleAuthenticator extends AbstractAuthenticator
     }
 
 
+    /**
+     * Starts a password verifier with the default configuration, if none has been set
+     */
+    @Override
+    protected void doInit()
+    {
+        if ( passwordVerifier == null )
+        {
+            passwordVerifier = new PasswordVerifier();
+        }
+    }
+
+
+    /**
+     * Sets the verifier comparing the credentials with the stored passwords. The previous
+     * verifier is stopped.
+     *
+     * @param passwordVerifier The password verifier
+     */
+    public void setPasswordVerifier( PasswordVerifier passwordVerifier )
+    {
+        if ( ( this.passwordVerifier != null ) && ( this.passwordVerifier != passwordVerifier ) )
+        {
+            this.passwordVerifier.shutdown();
+        }
+
+        this.passwordVerifier = passwordVerifier;
+    }
+
+
+    /**
+     * Stops the password verifier
+     */
+    @Override
+    protected void doDestroy()
+    {
+        if ( passwordVerifier != null )
+        {
+            passwordVerifier.shutdown();
+            passwordVerifier = null;
+        }
+    }
+
+
     /**
      * Get the password either from cache or from backend.
      * @param principalDN The Dn from which we want the password
@@ -234,7 +281,7 @@ public class SimpleAuthenticator extends AbstractAuthenticator
         // Now, compare the passwords.
         for ( byte[] storedPassword : storedPasswords )
         {
-            if ( PasswordUtil.compareCredentials( credentials, storedPassword ) )
+            if ( passwordVerifier.verify( bindContext.getDn(), credentials, storedPassword ) )
             {
                 if ( ppe != null )
                 {
@@ -0,0 +1,442 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.authn.ppolicy;
+
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * Keeps the password policy state changed by the binds in memory : the failure times which
+ * have not been written yet, the removal of the stored failure times after a successful
+ * bind, and the last success time. The pending states are written in batches, every
+ * flush interval, by the {@link #write(List)} method.
+ * <br>
+ * The states are only modified by the binds, which hold the read lock of the user's
+ * partition and synchronize on the user's state. The write method is expected to take
+ * the partition's write lock, and to write the states with {@link #writeStates(List)} :
+ * a state is removed from the store only once the transaction it has been written in has
+ * been committed, so that no failure time is lost when a write fails.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public abstract class BindStateStore
+{
+    /** The logger for this class */
+    private static final Logger LOG = LoggerFactory.getLogger( BindStateStore.class );
+
+    /** The pending states, per normalized user DN */
+    private final ConcurrentMap<String, BindState> states = new ConcurrentHashMap<>();
+
+    /** The thread flushing the states */
+    private ScheduledExecutorService executor;
+
+
+    /**
+     * The password policy state of a user, which has not been written yet.
+     */
+    public static class BindState
+    {
+        /** The user DN */
+        private final Dn dn;
+
+        /** The failure times which have not been written */
+        private final List<String> failureTimes = new ArrayList<>();
+
+        /** Tells if the failure times stored in the entry must be removed */
+        private boolean failuresReset;
+
+        /** The last successful bind time, if it has not been written */
+        private String lastSuccess;
+
+
+        /**
+         * Creates a new instance of BindState.
+         *
+         * @param dn The user DN
+         */
+        public BindState( Dn dn )
+        {
+            this.dn = dn;
+        }
+
+
+        /**
+         * @return The user DN
+         */
+        public Dn getDn()
+        {
+            return dn;
+        }
+
+
+        /**
+         * Adds a failure time
+         *
+         * @param failureTime The generalized time of the failed bind
+         */
+        public synchronized void addFailureTime( String failureTime )
+        {
+            failureTimes.add( failureTime );
+        }
+
+
+        /**
+         * @return The failure times which have not been written
+         */
+        public synchronized List<String> getFailureTimes()
+        {
+            return new ArrayList<>( failureTimes );
+        }
+
+
+        /**
+         * Records a successful bind : the failure times are reset.
+         *
+         * @param lastSuccess The generalized time of the successful bind, or null if it's not kept
+         */
+        public synchronized void setSuccess( String lastSuccess )
+        {
+            failureTimes.clear();
+            failuresReset = true;
+
+            if ( lastSuccess != null )
+            {
+                this.lastSuccess = lastSuccess;
+            }
+        }
+
+
+        /**
+         * Forgets the pending changes, once they have been written with the result of a bind
+         */
+        public synchronized void clear()
+        {
+            failureTimes.clear();
+            failuresReset = false;
+            lastSuccess = null;
+        }
+
+
+        /**
+         * @return <code>true</code> if there is nothing to write
+         */
+        public synchronized boolean isEmpty()
+        {
+            return failureTimes.isEmpty() && !failuresReset && ( lastSuccess == null );
+        }
+
+
+        /**
+         * @return <code>true</code> if the failure times stored in the entry must be removed
+         */
+        public synchronized boolean isFailuresReset()
+        {
+            return failuresReset;
+        }
+
+
+        /**
+         * @return The last successful bind time, if it has not been written
+         */
+        public synchronized String getLastSuccess()
+        {
+            return lastSuccess;
+        }
+
+
+        /**
+         * @see Object#toString()
+         */
+        @Override
+        public synchronized String toString()
+        {
+            return "BindState[" + dn + ", failures : " + failureTimes + ", reset : " + failuresReset
+                + ", last success : " + lastSuccess + "]";
+        }
+    }
+
+
+    /**
+     * Starts the thread flushing the pending states
+     *
+     * @param flushInterval The interval between two flushes, in milliseconds
+     */
+    public void start( long flushInterval )
+    {
+        ThreadFactory threadFactory = new ThreadFactory()
+        {
+            @Override
+            public Thread newThread( Runnable runnable )
+            {
+                Thread newThread = Executors.defaultThreadFactory().newThread( runnable );
+                newThread.setName( "BindStateFlusher" );
+                newThread.setDaemon( true );
+
+                return newThread;
+            }
+        };
+
+        executor = Executors.newSingleThreadScheduledExecutor( threadFactory );
+        executor.scheduleWithFixedDelay( new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                flush();
+            }
+        }, flushInterval, flushInterval, TimeUnit.MILLISECONDS );
+    }
+
+
+    /**
+     * Stops the flushing thread, and writes the remaining pending states
+     */
+    public void stop()
+    {
+        if ( executor != null )
+        {
+            executor.shutdown();
+
+            try
+            {
+                executor.awaitTermination( 10, TimeUnit.SECONDS );
+            }
+            catch ( InterruptedException ie )
+            {
+                Thread.currentThread().interrupt();
+            }
+
+            executor = null;
+        }
+
+        flush();
+    }
+
+
+    /**
+     * Writes all the pending states
+     */
+    public void flush()
+    {
+        if ( states.isEmpty() )
+        {
+            return;
+        }
+
+        try
+        {
+            write( new ArrayList<BindState>( states.values() ) );
+        }
+        catch ( Exception e )
+        {
+            // Don't kill the flushing thread
+            LOG.error( "Cannot write the password policy state of the users : {}", e.getMessage(), e );
+        }
+    }
+
+
+    /**
+     * Writes some pending states in the entries. The states of each partition must be
+     * written with {@link #writeStates(List)}, while holding the partition's write lock.
+     *
+     * @param pendingStates The states to write
+     * @throws Exception If the states can't be written
+     */
+    protected abstract void write( List<BindState> pendingStates ) throws Exception;
+
+
+    /**
+     * Writes some pending states stored in the same partition, in one transaction. Nothing
+     * must have been written if an exception is thrown. The states must not be removed
+     * from the store.
+     *
+     * @param pendingStates The states to write
+     * @throws Exception If the transaction has been aborted
+     */
+    protected abstract void writeTransaction( List<BindState> pendingStates ) throws Exception;
+
+
+    /**
+     * Writes some pending states stored in the same partition, and removes them from the
+     * store once they have been committed. It must be called while holding the partition's
+     * write lock.
+     * <br>
+     * When the transaction is aborted, each state is written in its own transaction, so that
+     * a state which can't be written does not hold back the others. The states which still
+     * can't be written are kept in the store : their failure times are still counted by the
+     * binds, and they are written with the next flush.
+     *
+     * @param pendingStates The states to write
+     * @return The number of states which have not been written
+     */
+    public int writeStates( List<BindState> pendingStates )
+    {
+        try
+        {
+            writeTransaction( pendingStates );
+            removeAll( pendingStates );
+
+            return 0;
+        }
+        catch ( Exception e )
+        {
+            if ( pendingStates.size() == 1 )
+            {
+                LOG.error( "Cannot write the password policy state of {} : {}", pendingStates.get( 0 ).getDn(),
+                    e.getMessage(), e );
+
+                return 1;
+            }
+
+            LOG.warn( "Cannot write the password policy state of {} users at once, writing them one by one : {}",
+                pendingStates.size(), e.getMessage() );
+        }
+
+        int nbFailed = 0;
+
+        for ( BindState bindState : pendingStates )
+        {
+            List<BindState> singleState = Collections.singletonList( bindState );
+
+            try
+            {
+                writeTransaction( singleState );
+                removeAll( singleState );
+            }
+            catch ( Exception e )
+            {
+                LOG.error( "Cannot write the password policy state of {} : {}", bindState.getDn(), e.getMessage(),
+                    e );
+                nbFailed++;
+            }
+        }
+
+        return nbFailed;
+    }
+
+
+    /**
+     * Removes some written states, unless they have been discarded and created again
+     */
+    private void removeAll( List<BindState> writtenStates )
+    {
+        for ( BindState bindState : writtenStates )
+        {
+            states.remove( bindState.getDn().getNormName(), bindState );
+        }
+    }
+
+
+    /**
+     * Gets the pending state of a user
+     *
+     * @param dn The user DN
+     * @return The pending state, or null if there is none
+     */
+    public BindState get( Dn dn )
+    {
+        return states.get( dn.getNormName() );
+    }
+
+
+    /**
+     * Gets the pending state of a user, creating it if needed
+     *
+     * @param dn The user DN
+     * @return The pending state
+     */
+    public BindState getOrCreate( Dn dn )
+    {
+        String key = dn.getNormName();
+        BindState state = states.get( key );
+
+        if ( state == null )
+        {
+            state = new BindState( dn );
+            BindState existing = states.putIfAbsent( key, state );
+
+            if ( existing != null )
+            {
+                state = existing;
+            }
+        }
+
+        return state;
+    }
+
+
+    /**
+     * Removes the pending state of a user, once it has been written
+     *
+     * @param dn The user DN
+     * @return The removed state, if any
+     */
+    public BindState remove( Dn dn )
+    {
+        return states.remove( dn.getNormName() );
+    }
+
+
+    /**
+     * Discards the pending states of an entry and of its descendants, when the entry
+     * has been deleted, moved or renamed, or when its password policy state has been
+     * modified by another operation.
+     *
+     * @param dn The entry DN
+     */
+    public void discard( Dn dn )
+    {
+        Iterator<BindState> iterator = states.values().iterator();
+
+        while ( iterator.hasNext() )
+        {
+            BindState state = iterator.next();
+
+            if ( state.getDn().isDescendantOf( dn ) || state.getDn().equals( dn ) )
+            {
+                LOG.debug( "Discarding the pending {}", state );
+                iterator.remove();
+            }
+        }
+    }
+
+
+    /**
+     * @return The number of pending states
+     */
+    public int size()
+    {
+        return states.size();
+    }
+}
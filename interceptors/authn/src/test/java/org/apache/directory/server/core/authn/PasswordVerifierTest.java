@@ -0,0 +1,153 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.authn;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.apache.directory.api.ldap.model.constants.LdapSecurityConstants;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.api.ldap.model.password.PasswordUtil;
+import org.apache.directory.api.util.Strings;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+
+/**
+ * Tests the PasswordVerifier.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class PasswordVerifierTest
+{
+    private static final byte[] SECRET = Strings.getBytesUtf8( "secret" );
+    private static final byte[] WRONG = Strings.getBytesUtf8( "wrong" );
+
+    private PasswordVerifier verifier;
+    private Dn dn;
+
+
+    @Before
+    public void init() throws Exception
+    {
+        verifier = new PasswordVerifier( 2, 4, 100, 60000L );
+        dn = new Dn( "uid=admin,ou=system" );
+    }
+
+
+    @After
+    public void shutdown()
+    {
+        verifier.shutdown();
+    }
+
+
+    @Test
+    public void testExpensiveSchemes()
+    {
+        assertTrue( PasswordVerifier.isExpensive(
+            PasswordUtil.createStoredPassword( SECRET, LdapSecurityConstants.HASH_METHOD_PKCS5S2 ) ) );
+        assertTrue( PasswordVerifier.isExpensive(
+            PasswordUtil.createStoredPassword( SECRET, LdapSecurityConstants.HASH_METHOD_CRYPT ) ) );
+        assertFalse( PasswordVerifier.isExpensive(
+            PasswordUtil.createStoredPassword( SECRET, LdapSecurityConstants.HASH_METHOD_SSHA256 ) ) );
+        assertFalse( PasswordVerifier.isExpensive( SECRET ) );
+    }
+
+
+    @Test
+    public void testVerifyExpensive() throws Exception
+    {
+        byte[] storedPassword = PasswordUtil.createStoredPassword( SECRET, LdapSecurityConstants.HASH_METHOD_PKCS5S2 );
+
+        assertFalse( verifier.verify( dn, WRONG, storedPassword ) );
+        assertEquals( 0, verifier.getCacheSize() );
+
+        assertTrue( verifier.verify( dn, SECRET, storedPassword ) );
+        assertEquals( 1, verifier.getCacheSize() );
+
+        // Served from the cache
+        assertTrue( verifier.verify( dn, SECRET, storedPassword ) );
+        assertEquals( 1, verifier.getCacheSize() );
+
+        // The cached verification does not match another DN, or another stored password
+        assertFalse( verifier.verify( new Dn( "uid=other,ou=system" ), WRONG, storedPassword ) );
+        byte[] newPassword = PasswordUtil.createStoredPassword( WRONG, LdapSecurityConstants.HASH_METHOD_PKCS5S2 );
+        assertFalse( verifier.verify( dn, SECRET, newPassword ) );
+
+        // All the admitted verifications are done
+        assertEquals( 4, verifier.getAvailablePermits() );
+    }
+
+
+    @Test
+    public void testVerifyInline() throws Exception
+    {
+        byte[] storedPassword = PasswordUtil.createStoredPassword( SECRET, LdapSecurityConstants.HASH_METHOD_SSHA );
+
+        assertTrue( verifier.verify( dn, SECRET, storedPassword ) );
+        assertFalse( verifier.verify( dn, WRONG, storedPassword ) );
+        assertTrue( verifier.verify( dn, SECRET, SECRET ) );
+
+        // The fast schemes are not cached
+        assertEquals( 0, verifier.getCacheSize() );
+    }
+
+
+    @Test
+    public void testCacheDisabled() throws Exception
+    {
+        PasswordVerifier noCache = new PasswordVerifier( 1, 1, 100, 0L );
+
+        try
+        {
+            byte[] storedPassword = PasswordUtil.createStoredPassword( SECRET,
+                LdapSecurityConstants.HASH_METHOD_PKCS5S2 );
+
+            assertTrue( noCache.verify( dn, SECRET, storedPassword ) );
+            assertEquals( 0, noCache.getCacheSize() );
+        }
+        finally
+        {
+            noCache.shutdown();
+        }
+    }
+
+
+    @Test
+    public void testDefaultLimits()
+    {
+        PasswordVerifier defaultVerifier = new PasswordVerifier( 0, 0, 100, 60000L );
+
+        try
+        {
+            // 8 verifications per processor are admitted
+            assertEquals( PasswordVerifier.DEFAULT_THREADS * PasswordVerifier.DEFAULT_PENDING_PER_THREAD,
+                defaultVerifier.getAvailablePermits() );
+        }
+        finally
+        {
+            defaultVerifier.shutdown();
+        }
+    }
+}
@@ -0,0 +1,237 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.authn.ppolicy;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.server.core.authn.ppolicy.BindStateStore.BindState;
+import org.junit.Before;
+import org.junit.Test;
+
+
+/**
+ * Tests the {@link BindStateStore} class.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class BindStateStoreTest
+{
+    /** The states written by the store */
+    private List<BindState> written;
+
+    /** The user whose state can't be written */
+    private Dn failingDn;
+
+    /** The number of transactions */
+    private int nbTransactions;
+
+    private BindStateStore store;
+
+
+    @Before
+    public void init()
+    {
+        written = new ArrayList<>();
+        failingDn = null;
+        nbTransactions = 0;
+
+        store = new BindStateStore()
+        {
+            @Override
+            protected void write( List<BindState> pendingStates )
+            {
+                writeStates( pendingStates );
+            }
+
+
+            @Override
+            protected void writeTransaction( List<BindState> pendingStates ) throws Exception
+            {
+                nbTransactions++;
+
+                for ( BindState bindState : pendingStates )
+                {
+                    // The whole transaction is aborted
+                    if ( bindState.getDn().equals( failingDn ) )
+                    {
+                        throw new Exception( "Cannot modify " + bindState.getDn() );
+                    }
+                }
+
+                written.addAll( pendingStates );
+            }
+        };
+    }
+
+
+    @Test
+    public void testBindState() throws Exception
+    {
+        Dn dn = new Dn( "uid=admin,ou=system" );
+        BindState bindState = store.getOrCreate( dn );
+
+        assertSame( bindState, store.getOrCreate( dn ) );
+        assertSame( bindState, store.get( dn ) );
+        assertTrue( bindState.isEmpty() );
+
+        bindState.addFailureTime( "20261017120000Z" );
+        bindState.addFailureTime( "20261017120001Z" );
+
+        assertEquals( 2, bindState.getFailureTimes().size() );
+        assertFalse( bindState.isFailuresReset() );
+
+        // A success resets the failures
+        bindState.setSuccess( "20261017120002Z" );
+
+        assertTrue( bindState.getFailureTimes().isEmpty() );
+        assertTrue( bindState.isFailuresReset() );
+        assertEquals( "20261017120002Z", bindState.getLastSuccess() );
+        assertFalse( bindState.isEmpty() );
+
+        // The last success time is kept when it's not recorded
+        bindState.setSuccess( null );
+        assertEquals( "20261017120002Z", bindState.getLastSuccess() );
+
+        bindState.clear();
+        assertTrue( bindState.isEmpty() );
+    }
+
+
+    @Test
+    public void testFlush() throws Exception
+    {
+        store.getOrCreate( new Dn( "uid=user1,ou=system" ) ).addFailureTime( "20261017120000Z" );
+        store.getOrCreate( new Dn( "uid=user2,ou=system" ) ).setSuccess( null );
+
+        assertEquals( 2, store.size() );
+
+        store.flush();
+
+        assertEquals( 2, written.size() );
+        assertEquals( 0, store.size() );
+
+        // Nothing to write
+        store.flush();
+
+        assertEquals( 2, written.size() );
+    }
+
+
+    @Test
+    public void testStopFlushes() throws Exception
+    {
+        store.start( 60000L );
+        store.getOrCreate( new Dn( "uid=user1,ou=system" ) ).addFailureTime( "20261017120000Z" );
+        store.stop();
+
+        assertEquals( 1, written.size() );
+        assertEquals( 0, store.size() );
+    }
+
+
+    @Test
+    public void testDiscard() throws Exception
+    {
+        store.getOrCreate( new Dn( "uid=user1,ou=users,ou=system" ) ).addFailureTime( "20261017120000Z" );
+        store.getOrCreate( new Dn( "uid=user2,ou=users,ou=system" ) ).addFailureTime( "20261017120000Z" );
+        store.getOrCreate( new Dn( "uid=admin,ou=system" ) ).addFailureTime( "20261017120000Z" );
+
+        store.discard( new Dn( "uid=user1,ou=users,ou=system" ) );
+
+        assertEquals( 2, store.size() );
+        assertNull( store.get( new Dn( "uid=user1,ou=users,ou=system" ) ) );
+
+        // The descendants are discarded too
+        store.discard( new Dn( "ou=users,ou=system" ) );
+
+        assertEquals( 1, store.size() );
+        assertNull( store.get( new Dn( "uid=user2,ou=users,ou=system" ) ) );
+    }
+
+
+    @Test
+    public void testFailedWrite() throws Exception
+    {
+        Dn user1 = new Dn( "uid=user1,ou=system" );
+        Dn user2 = new Dn( "uid=user2,ou=system" );
+        Dn user3 = new Dn( "uid=user3,ou=system" );
+
+        store.getOrCreate( user1 ).addFailureTime( "20261017120000Z" );
+        store.getOrCreate( user2 ).addFailureTime( "20261017120001Z" );
+        store.getOrCreate( user2 ).addFailureTime( "20261017120002Z" );
+        store.getOrCreate( user3 ).setSuccess( "20261017120003Z" );
+
+        // The modification of user2 fails
+        failingDn = user2;
+        store.flush();
+
+        // The other states have been written one by one
+        assertEquals( 2, written.size() );
+        assertEquals( 4, nbTransactions );
+        assertNull( store.get( user1 ) );
+        assertNull( store.get( user3 ) );
+
+        // The failure times of user2 are kept
+        assertEquals( 1, store.size() );
+        BindState bindState = store.get( user2 );
+        assertEquals( 2, bindState.getFailureTimes().size() );
+        assertTrue( bindState.getFailureTimes().contains( "20261017120001Z" ) );
+        assertTrue( bindState.getFailureTimes().contains( "20261017120002Z" ) );
+
+        // And written with the next flush
+        failingDn = null;
+        store.flush();
+
+        assertEquals( 3, written.size() );
+        assertSame( bindState, written.get( 2 ) );
+        assertEquals( 0, store.size() );
+    }
+
+
+    @Test
+    public void testWrittenStateCreatedAgain() throws Exception
+    {
+        Dn user1 = new Dn( "uid=user1,ou=system" );
+        BindState bindState = store.getOrCreate( user1 );
+        bindState.addFailureTime( "20261017120000Z" );
+
+        List<BindState> pendingStates = new ArrayList<>();
+        pendingStates.add( bindState );
+
+        // The state is discarded, and a new one is created, before the old one is written
+        store.discard( user1 );
+        BindState newState = store.getOrCreate( user1 );
+        newState.addFailureTime( "20261017120001Z" );
+
+        assertEquals( 0, store.writeStates( pendingStates ) );
+
+        // The new state is kept
+        assertSame( newState, store.get( user1 ) );
+    }
+}
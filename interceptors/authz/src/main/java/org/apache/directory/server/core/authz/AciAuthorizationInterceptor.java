@@ -79,6 +79,7 @@ import org.apache.directory.server.core.api.partition.Partition;
 import org.apache.directory.server.core.api.partition.PartitionNexus;
 import org.apache.directory.server.core.api.partition.PartitionTxn;
 import org.apache.directory.server.core.api.subtree.SubentryUtils;
+import org.apache.directory.server.core.authz.AciDecisionCache.CompiledTuples;
 import org.apache.directory.server.core.authz.support.ACDFEngine;
 import org.apache.directory.server.core.authz.support.AciContext;
 import org.apache.directory.server.i18n.I18n;
@@ -152,6 +153,9 @@ public class AciAuthorizationInterceptor extends BaseInterceptor
     /** a groupCache that responds to add, delete, and modify attempts */
     private GroupCache groupCache;
 
+    /** a cache of the decisions made using the prescriptive ACIs */
+    private AciDecisionCache decisionCache;
+
     /** a normalizing ACIItem parser */
     private ACIItemParser aciParser;
 
@@ -310,6 +314,8 @@ public class AciAuthorizationInterceptor extends BaseInterceptor
         initTupleCache();
         initGroupCache();
 
+        decisionCache = new AciDecisionCache( tupleCache, groupCache, dnFactory );
+
         // Init the SubentryUtils instance
         subentryUtils = new SubentryUtils( directoryService );
     }
@@ -386,7 +392,8 @@ public class AciAuthorizationInterceptor extends BaseInterceptor
             originalEntry = directoryService.getPartitionNexus().lookup( lookupContext );
         }
 
-        Attribute subentries = originalEntry.get( directoryService.getAtProvider().getAccessControlSubentries() );
+        Attribute subentries = subentryUtils.getSubentryAttribute( originalEntry,
+            directoryService.getAtProvider().getAccessControlSubentries() );
 
         if ( subentries == null )
         {
@@ -1290,11 +1297,21 @@ public class AciAuthorizationInterceptor extends BaseInterceptor
 
         LdapPrincipal principal = lookupContext.getSession().getEffectivePrincipal();
         Dn userName = principal.getDn();
-        Set<String> userGroups = groupCache.getGroups( userName.getNormName() );
-        Collection<ACITuple> tuples = new HashSet<>();
-        addPerscriptiveAciTuples( lookupContext, tuples, dn, entry );
-        addEntryAciTuples( tuples, entry );
-        addSubentryAciTuples( lookupContext, tuples, dn, entry );
+        Set<String> userGroups = decisionCache.getGroups( userName.getNormName() );
+        CompiledTuples compiled = getCompiledTuples( entry );
+        Collection<ACITuple> tuples;
+
+        if ( compiled != null )
+        {
+            tuples = compiled.getTuples();
+        }
+        else
+        {
+            tuples = new HashSet<>();
+            addPerscriptiveAciTuples( lookupContext, tuples, dn, entry );
+            addEntryAciTuples( tuples, entry );
+            addSubentryAciTuples( lookupContext, tuples, dn, entry );
+        }
 
         // check that we have read access to the entry
         AciContext aciContext = new AciContext( schemaManager, lookupContext );
@@ -1306,7 +1323,7 @@ public class AciAuthorizationInterceptor extends BaseInterceptor
         aciContext.setAciTuples( tuples );
         aciContext.setEntry( entry );
 
-        engine.checkPermission( aciContext );
+        checkPermission( compiled, aciContext );
 
         // check that we have read access to every attribute type and value
         for ( Attribute attribute : entry )
@@ -1325,12 +1342,82 @@ public class AciAuthorizationInterceptor extends BaseInterceptor
                 valueAciContext.setAciTuples( tuples );
                 valueAciContext.setEntry( entry );
 
-                engine.checkPermission( valueAciContext );
+                checkPermission( compiled, valueAciContext );
             }
         }
     }
 
 
+    /**
+     * Gets the prescriptive tuples compiled for the access control subentries an entry
+     * belongs to, when they are the only tuples applying to it : the entry must not be
+     * a subentry, and must not have any entryACI.
+     *
+     * @param entry the protected entry
+     * @return the compiled tuples, or null if the tuples have to be collected for the entry
+     * @throws LdapException if the access control subentries can't be read
+     */
+    private CompiledTuples getCompiledTuples( Entry entry ) throws LdapException
+    {
+        Entry originalEntry = entry;
+
+        if ( entry instanceof ClonedServerEntry )
+        {
+            originalEntry = ( ( ClonedServerEntry ) entry ).getOriginalEntry();
+        }
+
+        if ( originalEntry.containsAttribute( directoryService.getAtProvider().getEntryACI() ) )
+        {
+            return null;
+        }
+
+        Attribute oc = originalEntry.get( directoryService.getAtProvider().getObjectClass() );
+
+        if ( ( oc == null ) || oc.contains( SchemaConstants.SUBENTRY_OC ) )
+        {
+            return null;
+        }
+
+        Attribute subentries = subentryUtils.getSubentryAttribute( originalEntry,
+            directoryService.getAtProvider().getAccessControlSubentries() );
+
+        return decisionCache.getCompiledTuples( subentries );
+    }
+
+
+    /**
+     * Checks the permission with the ACDF engine, or with the decision cache when the
+     * tuples have been compiled.
+     */
+    private boolean hasPermission( CompiledTuples compiled, AciContext aciContext ) throws LdapException
+    {
+        if ( compiled == null )
+        {
+            return engine.hasPermission( aciContext );
+        }
+
+        return decisionCache.hasPermission( engine, compiled, aciContext );
+    }
+
+
+    private void checkPermission( CompiledTuples compiled, AciContext aciContext ) throws LdapException
+    {
+        if ( !hasPermission( compiled, aciContext ) )
+        {
+            throw new LdapNoPermissionException();
+        }
+    }
+
+
+    /**
+     * @return the cache of the decisions made using the prescriptive ACIs
+     */
+    public AciDecisionCache getDecisionCache()
+    {
+        return decisionCache;
+    }
+
+
     public final boolean isPrincipalAnAdministrator( Dn principalDn )
     {
         return groupCache.isPrincipalAnAdministrator( principalDn.getNormName() );
@@ -1353,11 +1440,22 @@ public class AciAuthorizationInterceptor extends BaseInterceptor
 
         LdapPrincipal principal = opContext.getSession().getEffectivePrincipal();
         Dn userDn = principal.getDn();
-        Set<String> userGroups = groupCache.getGroups( userDn.getNormName() );
-        Collection<ACITuple> tuples = new HashSet<>();
-        addPerscriptiveAciTuples( opContext, tuples, normName, clonedEntry );
-        addEntryAciTuples( tuples, ( ( ClonedServerEntry ) clonedEntry ).getOriginalEntry() );
-        addSubentryAciTuples( opContext, tuples, normName, ( ( ClonedServerEntry ) clonedEntry ).getOriginalEntry() );
+        Set<String> userGroups = decisionCache.getGroups( userDn.getNormName() );
+        CompiledTuples compiled = getCompiledTuples( clonedEntry );
+        Collection<ACITuple> tuples;
+
+        if ( compiled != null )
+        {
+            tuples = compiled.getTuples();
+        }
+        else
+        {
+            tuples = new HashSet<>();
+            addPerscriptiveAciTuples( opContext, tuples, normName, clonedEntry );
+            addEntryAciTuples( tuples, ( ( ClonedServerEntry ) clonedEntry ).getOriginalEntry() );
+            addSubentryAciTuples( opContext, tuples, normName,
+                ( ( ClonedServerEntry ) clonedEntry ).getOriginalEntry() );
+        }
 
         AciContext aciContext = new AciContext( schemaManager, opContext );
         aciContext.setUserGroupNames( userGroups );
@@ -1368,7 +1466,7 @@ public class AciAuthorizationInterceptor extends BaseInterceptor
         aciContext.setAciTuples( tuples );
         aciContext.setEntry( ( ( ClonedServerEntry ) clonedEntry ).getOriginalEntry() );
 
-        if ( !engine.hasPermission( aciContext ) )
+        if ( !hasPermission( compiled, aciContext ) )
         {
             return false;
         }
@@ -1381,6 +1479,7 @@ public class AciAuthorizationInterceptor extends BaseInterceptor
          * values remaining then the entire attribute is removed.
          */
         List<AttributeType> attributeToRemove = new ArrayList<>();
+        List<Attribute> attributeToReplace = new ArrayList<>();
 
         for ( Attribute attribute : clonedEntry.getAttributes() )
         {
@@ -1398,7 +1497,7 @@ public class AciAuthorizationInterceptor extends BaseInterceptor
             aciContext.setAciTuples( tuples );
             aciContext.setEntry( clonedEntry );
 
-            if ( !engine.hasPermission( aciContext ) )
+            if ( !hasPermission( compiled, aciContext ) )
             {
                 attributeToRemove.add( attributeType );
 
@@ -1421,15 +1520,27 @@ public class AciAuthorizationInterceptor extends BaseInterceptor
                 aciContext.setAciTuples( tuples );
                 aciContext.setEntry( clonedEntry );
 
-                if ( !engine.hasPermission( aciContext ) )
+                if ( !hasPermission( compiled, aciContext ) )
                 {
                     valueToRemove.add( value );
                 }
             }
 
-            for ( Value value : valueToRemove )
+            if ( !valueToRemove.isEmpty() )
             {
-                attr.remove( value );
+                // The attribute may be shared with other entries, like the injected collective
+                // attributes are : the values are removed from a copy
+                attr = attr.clone();
+
+                for ( Value value : valueToRemove )
+                {
+                    attr.remove( value );
+                }
+
+                if ( attr.size() != 0 )
+                {
+                    attributeToReplace.add( attr );
+                }
             }
 
             if ( attr.size() == 0 )
@@ -1443,6 +1554,11 @@ public class AciAuthorizationInterceptor extends BaseInterceptor
             clonedEntry.removeAttributes( attributeType );
         }
 
+        for ( Attribute attribute : attributeToReplace )
+        {
+            clonedEntry.put( attribute );
+        }
+
         return true;
     }
 
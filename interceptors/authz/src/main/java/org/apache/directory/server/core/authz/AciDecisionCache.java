@@ -0,0 +1,482 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.authz;
+
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.directory.api.ldap.aci.ACITuple;
+import org.apache.directory.api.ldap.aci.MicroOperation;
+import org.apache.directory.api.ldap.aci.ProtectedItem;
+import org.apache.directory.api.ldap.aci.UserClass;
+import org.apache.directory.api.ldap.aci.protectedItem.AttributeValueItem;
+import org.apache.directory.api.ldap.aci.protectedItem.ClassesItem;
+import org.apache.directory.api.ldap.aci.protectedItem.MaxImmSubItem;
+import org.apache.directory.api.ldap.aci.protectedItem.MaxValueCountItem;
+import org.apache.directory.api.ldap.aci.protectedItem.RangeOfValuesItem;
+import org.apache.directory.api.ldap.aci.protectedItem.RestrictedByItem;
+import org.apache.directory.api.ldap.aci.protectedItem.SelfValueItem;
+import org.apache.directory.api.ldap.model.constants.AuthenticationLevel;
+import org.apache.directory.api.ldap.model.constants.Loggers;
+import org.apache.directory.api.ldap.model.entry.Attribute;
+import org.apache.directory.api.ldap.model.entry.Value;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.api.ldap.model.subtree.SubtreeSpecification;
+import org.apache.directory.server.core.api.DnFactory;
+import org.apache.directory.server.core.authz.support.ACDFEngine;
+import org.apache.directory.server.core.authz.support.AciContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * A cache of the access control decisions made using the prescriptive ACIs.
+ * <br>
+ * The tuples applying to an entry only depend on the access control subentries
+ * it belongs to, so they are compiled once for each set of subentries. When none of
+ * these tuples depends on the content or the name of the protected entry, the decision
+ * of the ACDF engine only depends on the user, its groups, its authentication level,
+ * the requested operations and the protected attribute type : these decisions are
+ * cached with the compiled tuples.
+ * <br>
+ * The compiled tuples are discarded when the {@link TupleCache} generation changes,
+ * and the groups of the users when the {@link GroupCache} generation changes.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class AciDecisionCache
+{
+    /** the dedicated logger for ACI */
+    private static final Logger ACI_LOG = LoggerFactory.getLogger( Loggers.ACI_LOG.getName() );
+
+    /** The maximum number of compiled subentry sets */
+    private static final int MAX_TUPLE_SETS = 1000;
+
+    /** The maximum number of decisions kept for a compiled subentry set */
+    private static final int MAX_DECISIONS = 10000;
+
+    /** The maximum number of users which groups are kept */
+    private static final int MAX_USERS = 10000;
+
+    /** the tuple cache the compiled tuples are read from */
+    private final TupleCache tupleCache;
+
+    /** the group cache the groups of the users are read from */
+    private final GroupCache groupCache;
+
+    /** the Dn factory */
+    private final DnFactory dnFactory;
+
+    /** The tuples compiled for the current tuple generation */
+    private volatile Generation<CompiledTuples> tupleSets;
+
+    /** The groups of the users for the current group generation */
+    private volatile Generation<Set<String>> userGroups;
+
+    /** The number of decisions read from the cache */
+    private final AtomicLong hits = new AtomicLong();
+
+    /** The number of decisions computed by the ACDF engine */
+    private final AtomicLong misses = new AtomicLong();
+
+
+    /**
+     * Some values computed for a generation of a cache
+     */
+    private static class Generation<V>
+    {
+        private final long generation;
+        private final Map<String, V> values = new ConcurrentHashMap<>();
+
+
+        private Generation( long generation )
+        {
+            this.generation = generation;
+        }
+    }
+
+
+    /**
+     * The tuples applying to the entries which belong to a set of access control subentries
+     */
+    public static final class CompiledTuples
+    {
+        /** The tuples */
+        private final List<ACITuple> tuples;
+
+        /** Tells if the tuples do not depend on the protected entry */
+        private final boolean entryIndependent;
+
+        /** The decisions made using these tuples */
+        private final Map<DecisionKey, Boolean> decisions = new ConcurrentHashMap<>();
+
+
+        CompiledTuples( Collection<ACITuple> tuples )
+        {
+            this.tuples = Collections.unmodifiableList( new ArrayList<ACITuple>( tuples ) );
+
+            boolean independent = true;
+
+            for ( ACITuple tuple : tuples )
+            {
+                if ( !isEntryIndependent( tuple ) )
+                {
+                    independent = false;
+                    break;
+                }
+            }
+
+            entryIndependent = independent;
+        }
+
+
+        /**
+         * @return The compiled tuples
+         */
+        public List<ACITuple> getTuples()
+        {
+            return tuples;
+        }
+
+
+        /**
+         * @return true if the decisions made with these tuples can be cached
+         */
+        public boolean isEntryIndependent()
+        {
+            return entryIndependent;
+        }
+    }
+
+
+    /**
+     * The parameters of a decision made with entry independent tuples
+     */
+    private static final class DecisionKey
+    {
+        private final String userDn;
+        private final Collection<String> groups;
+        private final AuthenticationLevel authenticationLevel;
+        private final int microOperations;
+        private final String attributeType;
+        private final boolean valueScope;
+        private final int hashCode;
+
+
+        private DecisionKey( AciContext aciContext )
+        {
+            userDn = aciContext.getUserDn().getNormName();
+            groups = aciContext.getUserGroupNames();
+            authenticationLevel = aciContext.getAuthenticationLevel();
+
+            int mask = 0;
+
+            for ( MicroOperation microOperation : aciContext.getMicroOperations() )
+            {
+                mask |= 1 << microOperation.ordinal();
+            }
+
+            microOperations = mask;
+            attributeType = ( aciContext.getAttributeType() == null ) ? null : aciContext.getAttributeType().getOid();
+            valueScope = aciContext.getAttrValue() != null;
+
+            int h = userDn.hashCode();
+            h = h * 31 + groups.hashCode();
+            h = h * 31 + ( ( authenticationLevel == null ) ? 0 : authenticationLevel.hashCode() );
+            h = h * 31 + microOperations;
+            h = h * 31 + ( ( attributeType == null ) ? 0 : attributeType.hashCode() );
+            hashCode = h * 31 + ( valueScope ? 1 : 0 );
+        }
+
+
+        @Override
+        public int hashCode()
+        {
+            return hashCode;
+        }
+
+
+        @Override
+        public boolean equals( Object obj )
+        {
+            if ( this == obj )
+            {
+                return true;
+            }
+
+            if ( !( obj instanceof DecisionKey ) )
+            {
+                return false;
+            }
+
+            DecisionKey that = ( DecisionKey ) obj;
+
+            return ( hashCode == that.hashCode ) && userDn.equals( that.userDn )
+                && ( authenticationLevel == that.authenticationLevel )
+                && ( microOperations == that.microOperations ) && ( valueScope == that.valueScope )
+                && ( ( attributeType == null ) ? ( that.attributeType == null ) : attributeType
+                    .equals( that.attributeType ) )
+                && groups.equals( that.groups );
+        }
+    }
+
+
+    /**
+     * Creates a new instance of AciDecisionCache.
+     *
+     * @param tupleCache the cache of the prescriptive ACI tuples
+     * @param groupCache the cache of the group memberships
+     * @param dnFactory the Dn factory
+     */
+    public AciDecisionCache( TupleCache tupleCache, GroupCache groupCache, DnFactory dnFactory )
+    {
+        this.tupleCache = tupleCache;
+        this.groupCache = groupCache;
+        this.dnFactory = dnFactory;
+        tupleSets = new Generation<>( tupleCache.getGeneration() );
+        userGroups = new Generation<>( groupCache.getGeneration() );
+    }
+
+
+    /**
+     * Tells if the ACDF engine decision made with a tuple does not depend on the protected
+     * entry : its name, its attributes or its values, or the attributes of the user entry.
+     */
+    private static boolean isEntryIndependent( ACITuple tuple )
+    {
+        for ( UserClass userClass : tuple.getUserClasses() )
+        {
+            if ( ( userClass == UserClass.THIS_ENTRY ) || ( userClass == UserClass.PARENT_OF_ENTRY ) )
+            {
+                return false;
+            }
+
+            if ( userClass instanceof UserClass.Subtree )
+            {
+                for ( SubtreeSpecification subtreeSpec : ( ( UserClass.Subtree ) userClass )
+                    .getSubtreeSpecifications() )
+                {
+                    if ( subtreeSpec.getRefinement() != null )
+                    {
+                        return false;
+                    }
+                }
+            }
+        }
+
+        for ( ProtectedItem item : tuple.getProtectedItems() )
+        {
+            if ( ( item instanceof AttributeValueItem ) || ( item instanceof ClassesItem )
+                || ( item instanceof MaxImmSubItem ) || ( item instanceof MaxValueCountItem )
+                || ( item instanceof RangeOfValuesItem ) || ( item instanceof RestrictedByItem )
+                || ( item instanceof SelfValueItem ) )
+            {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+
+    /**
+     * Gets the tuples compiled for the current tuple generation, discarding
+     * the previous ones if the generation has changed.
+     */
+    private Generation<CompiledTuples> getTupleSets()
+    {
+        long generation = tupleCache.getGeneration();
+        Generation<CompiledTuples> current = tupleSets;
+
+        if ( current.generation != generation )
+        {
+            if ( ACI_LOG.isDebugEnabled() )
+            {
+                ACI_LOG.debug( "ACI decisions invalidated, tuple generation {}, {} hits, {} misses",
+                    generation, hits.get(), misses.get() );
+            }
+
+            current = new Generation<>( generation );
+            tupleSets = current;
+        }
+
+        return current;
+    }
+
+
+    /**
+     * Gets the prescriptive tuples applying to the entries belonging to some access
+     * control subentries.
+     *
+     * @param subentries the accessControlSubentries attribute of the entry, or null
+     * @return the compiled tuples
+     * @throws LdapException if a subentry Dn can't be parsed
+     */
+    public CompiledTuples getCompiledTuples( Attribute subentries ) throws LdapException
+    {
+        Generation<CompiledTuples> current = getTupleSets();
+        Set<String> subentryDns = new TreeSet<>();
+
+        if ( subentries != null )
+        {
+            for ( Value value : subentries )
+            {
+                subentryDns.add( dnFactory.create( value.getValue() ).getNormName() );
+            }
+        }
+
+        String key = subentryDns.toString();
+        CompiledTuples compiled = current.values.get( key );
+
+        if ( compiled == null )
+        {
+            Set<ACITuple> tuples = new HashSet<>();
+
+            for ( String subentryDn : subentryDns )
+            {
+                tuples.addAll( tupleCache.getACITuples( subentryDn ) );
+            }
+
+            compiled = new CompiledTuples( tuples );
+
+            // Don't keep tuples which may have been read while the cache was modified
+            if ( tupleCache.getGeneration() == current.generation )
+            {
+                if ( current.values.size() >= MAX_TUPLE_SETS )
+                {
+                    current.values.clear();
+                }
+
+                current.values.put( key, compiled );
+            }
+        }
+
+        return compiled;
+    }
+
+
+    /**
+     * Gets the groups a user is a member of.
+     *
+     * @param userDn the normalized Dn of the user
+     * @return an unmodifiable set of the normalized Dn of its groups
+     * @throws LdapException if the groups can't be read
+     */
+    public Set<String> getGroups( String userDn ) throws LdapException
+    {
+        long generation = groupCache.getGeneration();
+        Generation<Set<String>> current = userGroups;
+
+        if ( current.generation != generation )
+        {
+            current = new Generation<>( generation );
+            userGroups = current;
+        }
+
+        Set<String> groups = current.values.get( userDn );
+
+        if ( groups == null )
+        {
+            groups = Collections.unmodifiableSet( new HashSet<>( groupCache.getGroups( userDn ) ) );
+
+            if ( groupCache.getGeneration() == current.generation )
+            {
+                if ( current.values.size() >= MAX_USERS )
+                {
+                    current.values.clear();
+                }
+
+                current.values.put( userDn, groups );
+            }
+        }
+
+        return groups;
+    }
+
+
+    /**
+     * Checks if the operations are allowed, using the cached decision if the tuples
+     * are entry independent, or asking the ACDF engine otherwise. The tuples of the
+     * context must be the compiled ones.
+     *
+     * @param engine the ACDF engine
+     * @param compiled the compiled tuples
+     * @param aciContext the access control context
+     * @return true if the operations are allowed
+     * @throws LdapException if the decision can't be made
+     */
+    public boolean hasPermission( ACDFEngine engine, CompiledTuples compiled, AciContext aciContext )
+        throws LdapException
+    {
+        if ( !compiled.entryIndependent )
+        {
+            return engine.hasPermission( aciContext );
+        }
+
+        DecisionKey key = new DecisionKey( aciContext );
+        Boolean granted = compiled.decisions.get( key );
+
+        if ( granted != null )
+        {
+            hits.incrementAndGet();
+
+            return granted;
+        }
+
+        misses.incrementAndGet();
+        granted = engine.hasPermission( aciContext );
+
+        if ( compiled.decisions.size() >= MAX_DECISIONS )
+        {
+            compiled.decisions.clear();
+        }
+
+        compiled.decisions.put( key, granted );
+
+        return granted;
+    }
+
+
+    /**
+     * @return the number of decisions read from the cache
+     */
+    public long getHits()
+    {
+        return hits.get();
+    }
+
+
+    /**
+     * @return the number of decisions computed by the ACDF engine
+     */
+    public long getMisses()
+    {
+        return misses.get();
+    }
+}
@@ -23,6 +23,7 @@ package org.apache.directory.server.core.authz;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.naming.directory.SearchControls;
 
@@ -95,6 +96,9 @@ public class GroupCache
     /** String key for the Dn of a group to a Set (HashSet) for the Strings of member DNs */
     private Cache groupCache;
 
+    /** the generation of the group memberships, incremented each time they change */
+    private final AtomicLong generation = new AtomicLong();
+
 
 
     /**
@@ -315,6 +319,7 @@ public class GroupCache
 
         Element cacheElement = new Element( name, memberSet );
         groupCache.put( cacheElement );
+        generation.incrementAndGet();
 
         if ( IS_DEBUG )
         {
@@ -342,6 +347,7 @@ public class GroupCache
         }
 
         groupCache.remove( name.getNormName() );
+        generation.incrementAndGet();
 
         if ( IS_DEBUG )
         {
@@ -386,6 +392,8 @@ public class GroupCache
             default:
                 throw new InternalError( I18n.err( I18n.ERR_235, modOp ) );
         }
+
+        generation.incrementAndGet();
     }
 
 
@@ -560,6 +568,19 @@ public class GroupCache
     }
 
 
+    /**
+     * Gets the generation of the group memberships. It changes each time a group
+     * is added, deleted, renamed or has its members modified, so that the groups
+     * of a user which have been computed before can be discarded.
+     *
+     * @return the generation of the group memberships
+     */
+    public long getGeneration()
+    {
+        return generation.get();
+    }
+
+
     public boolean groupRenamed( Dn oldName, Dn newName )
     {
         Element membersElement = groupCache.get( oldName.getNormName() );
@@ -572,6 +593,7 @@ public class GroupCache
 
             Element cacheElement = new Element( newName, members );
             groupCache.put( cacheElement );
+            generation.incrementAndGet();
 
             if ( IS_DEBUG )
             {
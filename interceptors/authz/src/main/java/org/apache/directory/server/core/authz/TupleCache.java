@@ -27,6 +27,7 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.naming.directory.SearchControls;
 
@@ -89,6 +90,9 @@ public class TupleCache
     /** a normalizing ACIItem parser */
     private final ACIItemParser aciParser;
 
+    /** the generation of the cached tuples, incremented each time they change */
+    private final AtomicLong generation = new AtomicLong();
+
 
     /**
      * Creates a ACITuple cache.
@@ -235,6 +239,7 @@ public class TupleCache
         }
 
         tuples.put( dn.getNormName(), entryTuples );
+        generation.incrementAndGet();
     }
 
 
@@ -246,6 +251,7 @@ public class TupleCache
         }
 
         tuples.remove( dn.getNormName() );
+        generation.incrementAndGet();
     }
 
 
@@ -298,5 +304,19 @@ public class TupleCache
     public void subentryRenamed( Dn oldName, Dn newName )
     {
         tuples.put( newName.getNormName(), tuples.remove( oldName.getNormName() ) );
+        generation.incrementAndGet();
+    }
+
+
+    /**
+     * Gets the generation of the cached tuples. It changes each time a
+     * prescriptiveACI is added, removed or renamed, so that anything computed
+     * from the tuples can tell when it has to be computed again.
+     *
+     * @return the generation of the cached tuples
+     */
+    public long getGeneration()
+    {
+        return generation.get();
     }
 }
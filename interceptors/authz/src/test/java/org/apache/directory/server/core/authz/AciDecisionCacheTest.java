@@ -0,0 +1,112 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.authz;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.directory.api.ldap.aci.ACITuple;
+import org.apache.directory.api.ldap.aci.MicroOperation;
+import org.apache.directory.api.ldap.aci.ProtectedItem;
+import org.apache.directory.api.ldap.aci.UserClass;
+import org.apache.directory.api.ldap.aci.protectedItem.MaxImmSubItem;
+import org.apache.directory.api.ldap.model.constants.AuthenticationLevel;
+import org.apache.directory.server.core.authz.AciDecisionCache.CompiledTuples;
+import org.junit.Test;
+
+
+/**
+ * Tests which compiled tuples allow the ACI decisions to be cached.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class AciDecisionCacheTest
+{
+    private static final Set<MicroOperation> READ = new HashSet<MicroOperation>();
+
+    static
+    {
+        READ.add( MicroOperation.READ );
+    }
+
+
+    private static ACITuple getTuple( UserClass userClass, ProtectedItem protectedItem )
+    {
+        Collection<UserClass> userClasses = new ArrayList<UserClass>();
+        userClasses.add( userClass );
+
+        Collection<ProtectedItem> protectedItems = new ArrayList<ProtectedItem>();
+        protectedItems.add( protectedItem );
+
+        return new ACITuple( userClasses, AuthenticationLevel.NONE, protectedItems, READ, true, 0 );
+    }
+
+
+    @Test
+    public void testEntryIndependent()
+    {
+        List<ACITuple> tuples = new ArrayList<ACITuple>();
+        tuples.add( getTuple( UserClass.ALL_USERS, ProtectedItem.ENTRY ) );
+        tuples.add( getTuple( UserClass.ALL_USERS, ProtectedItem.ALL_USER_ATTRIBUTE_TYPES_AND_VALUES ) );
+
+        CompiledTuples compiled = new CompiledTuples( tuples );
+
+        assertTrue( compiled.isEntryIndependent() );
+        assertEquals( 2, compiled.getTuples().size() );
+
+        // No tuple at all : access is always denied
+        assertTrue( new CompiledTuples( new ArrayList<ACITuple>() ).isEntryIndependent() );
+    }
+
+
+    @Test
+    public void testEntryDependentUserClass()
+    {
+        List<ACITuple> tuples = new ArrayList<ACITuple>();
+        tuples.add( getTuple( UserClass.ALL_USERS, ProtectedItem.ENTRY ) );
+        tuples.add( getTuple( UserClass.THIS_ENTRY, ProtectedItem.ALL_USER_ATTRIBUTE_TYPES_AND_VALUES ) );
+
+        assertFalse( new CompiledTuples( tuples ).isEntryIndependent() );
+
+        tuples.clear();
+        tuples.add( getTuple( UserClass.PARENT_OF_ENTRY, ProtectedItem.ENTRY ) );
+
+        assertFalse( new CompiledTuples( tuples ).isEntryIndependent() );
+    }
+
+
+    @Test
+    public void testEntryDependentProtectedItem()
+    {
+        List<ACITuple> tuples = new ArrayList<ACITuple>();
+        tuples.add( getTuple( UserClass.ALL_USERS, ProtectedItem.ENTRY ) );
+        tuples.add( getTuple( UserClass.ALL_USERS, new MaxImmSubItem( 2 ) ) );
+
+        assertFalse( new CompiledTuples( tuples ).isEntryIndependent() );
+    }
+}
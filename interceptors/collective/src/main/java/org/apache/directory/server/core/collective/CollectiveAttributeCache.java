@@ -0,0 +1,170 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.collective;
+
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.directory.api.ldap.model.entry.Attribute;
+import org.apache.directory.api.ldap.model.entry.DefaultAttribute;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.entry.Value;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.api.ldap.model.name.Dn;
+
+
+/**
+ * A cache of the collective attributes of the collectiveAttributeSubentries, so that the
+ * subentries are not read again for each entry they apply to. The attributes are shared
+ * by all the entries they are injected in : they must not be modified.
+ * <br>
+ * The cache has a generation, which changes each time an entry which may be a subentry
+ * is added, modified, renamed, moved or deleted. The attributes read from a subentry are
+ * ignored if the generation has changed since the read started, so that an operation
+ * reading a subentry while it's being modified does not store stale attributes.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+class CollectiveAttributeCache
+{
+    /** The maximum number of cached subentries */
+    private static final int MAX_SIZE = 1000;
+
+    /** The collective attributes, per normalized subentry Dn */
+    private final Map<String, List<Attribute>> attributes = new ConcurrentHashMap<>();
+
+    /** The generation of the cache */
+    private final AtomicLong generation = new AtomicLong( 0L );
+
+
+    /**
+     * @return The current generation of the cache
+     */
+    long getGeneration()
+    {
+        return generation.get();
+    }
+
+
+    /**
+     * Gets the collective attributes of a subentry
+     *
+     * @param subentryDn The subentry Dn
+     * @return The collective attributes, which must not be modified, or null if they are not cached
+     */
+    List<Attribute> get( Dn subentryDn )
+    {
+        return attributes.get( subentryDn.getNormName() );
+    }
+
+
+    /**
+     * Compiles and stores the collective attributes of a subentry. They are not stored if
+     * the cache has been invalidated since the subentry has been read.
+     *
+     * @param generation The generation of the cache when the subentry read started
+     * @param subentry The subentry
+     * @return The collective attributes of the subentry, which must not be modified
+     * @throws LdapException If a value can't be copied
+     */
+    List<Attribute> put( long generation, Entry subentry ) throws LdapException
+    {
+        List<Attribute> collectiveAttributes = new ArrayList<>();
+
+        for ( Attribute attribute : subentry.getAttributes() )
+        {
+            if ( attribute.getAttributeType().isCollective() )
+            {
+                // Named after the AttributeType, not after the subentry's attribute
+                Attribute collectiveAttribute = new DefaultAttribute( attribute.getAttributeType() );
+
+                for ( Value value : attribute )
+                {
+                    collectiveAttribute.add( value );
+                }
+
+                collectiveAttributes.add( collectiveAttribute );
+            }
+        }
+
+        collectiveAttributes = Collections.unmodifiableList( collectiveAttributes );
+
+        if ( this.generation.get() == generation )
+        {
+            if ( attributes.size() >= MAX_SIZE )
+            {
+                attributes.clear();
+            }
+
+            attributes.put( subentry.getDn().getNormName(), collectiveAttributes );
+
+            // The cache may have been invalidated meanwhile
+            if ( this.generation.get() != generation )
+            {
+                attributes.remove( subentry.getDn().getNormName() );
+            }
+        }
+
+        return collectiveAttributes;
+    }
+
+
+    /**
+     * Forgets the collective attributes of an entry, and of its descendants. It must be
+     * called once the entry has been written : the attributes read before are removed, and
+     * the reads started before are ignored.
+     *
+     * @param dn The entry Dn
+     */
+    void invalidate( Dn dn )
+    {
+        generation.incrementAndGet();
+
+        if ( attributes.isEmpty() )
+        {
+            return;
+        }
+
+        String normName = dn.getNormName();
+        String suffix = "," + normName;
+
+        for ( String subentryDn : attributes.keySet() )
+        {
+            if ( subentryDn.equals( normName ) || subentryDn.endsWith( suffix ) || normName.isEmpty() )
+            {
+                attributes.remove( subentryDn );
+            }
+        }
+    }
+
+
+    /**
+     * @return The number of cached subentries
+     */
+    int size()
+    {
+        return attributes.size();
+    }
+}
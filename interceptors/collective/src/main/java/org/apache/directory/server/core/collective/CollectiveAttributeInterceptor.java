@@ -26,7 +26,6 @@ import java.util.Set;
 
 import org.apache.directory.api.ldap.model.constants.SchemaConstants;
 import org.apache.directory.api.ldap.model.entry.Attribute;
-import org.apache.directory.api.ldap.model.entry.DefaultAttribute;
 import org.apache.directory.api.ldap.model.entry.Entry;
 import org.apache.directory.api.ldap.model.entry.Modification;
 import org.apache.directory.api.ldap.model.entry.ModificationOperation;
@@ -46,10 +45,15 @@ import org.apache.directory.server.core.api.filtering.EntryFilter;
 import org.apache.directory.server.core.api.filtering.EntryFilteringCursor;
 import org.apache.directory.server.core.api.interceptor.BaseInterceptor;
 import org.apache.directory.server.core.api.interceptor.context.AddOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.DeleteOperationContext;
 import org.apache.directory.server.core.api.interceptor.context.FilteringOperationContext;
 import org.apache.directory.server.core.api.interceptor.context.LookupOperationContext;
 import org.apache.directory.server.core.api.interceptor.context.ModifyOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.MoveAndRenameOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.MoveOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.RenameOperationContext;
 import org.apache.directory.server.core.api.interceptor.context.SearchOperationContext;
+import org.apache.directory.server.core.api.subtree.SubentryUtils;
 import org.apache.directory.server.i18n.I18n;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -61,6 +65,10 @@ import org.slf4j.LoggerFactory;
  * inject collective attribute value pairs into the response based on
  * the entires inclusion within collectiveAttributeSpecificAreas and
  * collectiveAttributeInnerAreas.
+ * <br>
+ * The collective attributes of the subentries are kept in a {@link CollectiveAttributeCache},
+ * which is invalidated when a subentry is modified. They are injected in the entries as is,
+ * without being copied.
  *
  * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
  */
@@ -108,6 +116,12 @@ public class CollectiveAttributeInterceptor extends BaseInterceptor
     /** The CollectiveAttribute search filter */
     private final EntryFilter searchFilter = new CollectiveAttributeFilter();
 
+    /** The SubentryUtils instance */
+    private SubentryUtils subentryUtils;
+
+    /** The collective attributes of the subentries */
+    private final CollectiveAttributeCache attributeCache = new CollectiveAttributeCache();
+
 
     //-------------------------------------------------------------------------------------
     // Initialization
@@ -120,6 +134,9 @@ public class CollectiveAttributeInterceptor extends BaseInterceptor
     {
         super.init( directoryService );
 
+        // Init the SubentryUtils instance
+        subentryUtils = new SubentryUtils( directoryService );
+
         LOG.debug( "CollectiveAttribute interceptor initialized" );
     }
 
@@ -135,7 +152,34 @@ public class CollectiveAttributeInterceptor extends BaseInterceptor
     {
         checkAdd( addContext.getDn(), addContext.getEntry() );
 
-        next( addContext );
+        try
+        {
+            next( addContext );
+        }
+        finally
+        {
+            if ( isCollectiveSubentry( addContext.getEntry() ) )
+            {
+                attributeCache.invalidate( addContext.getDn() );
+            }
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void delete( DeleteOperationContext deleteContext ) throws LdapException
+    {
+        try
+        {
+            next( deleteContext );
+        }
+        finally
+        {
+            attributeCache.invalidate( deleteContext.getDn() );
+        }
     }
 
 
@@ -168,7 +212,68 @@ public class CollectiveAttributeInterceptor extends BaseInterceptor
     {
         checkModify( modifyContext );
 
-        next( modifyContext );
+        try
+        {
+            next( modifyContext );
+        }
+        finally
+        {
+            if ( isCollectiveSubentry( modifyContext.getEntry() ) )
+            {
+                attributeCache.invalidate( modifyContext.getDn() );
+            }
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void move( MoveOperationContext moveContext ) throws LdapException
+    {
+        try
+        {
+            next( moveContext );
+        }
+        finally
+        {
+            attributeCache.invalidate( moveContext.getDn() );
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void moveAndRename( MoveAndRenameOperationContext moveAndRenameContext ) throws LdapException
+    {
+        try
+        {
+            next( moveAndRenameContext );
+        }
+        finally
+        {
+            attributeCache.invalidate( moveAndRenameContext.getDn() );
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void rename( RenameOperationContext renameContext ) throws LdapException
+    {
+        try
+        {
+            next( renameContext );
+        }
+        finally
+        {
+            attributeCache.invalidate( renameContext.getDn() );
+        }
     }
 
 
@@ -233,6 +338,16 @@ public class CollectiveAttributeInterceptor extends BaseInterceptor
     }
 
 
+    /**
+     * Tells if an entry is a collectiveAttributeSubentry. The entry may be null if it has not
+     * been read.
+     */
+    private boolean isCollectiveSubentry( Entry entry )
+    {
+        return ( entry == null ) || entry.hasObjectClass( SchemaConstants.COLLECTIVE_ATTRIBUTE_SUBENTRY_OC );
+    }
+
+
     /**
      * Check that we can modify an entry
      */
@@ -338,7 +453,8 @@ public class CollectiveAttributeInterceptor extends BaseInterceptor
     {
         CoreSession session = opContext.getSession();
 
-        Attribute collectiveAttributeSubentries = ( ( ClonedServerEntry ) entry ).getOriginalEntry().get(
+        Attribute collectiveAttributeSubentries = subentryUtils.getSubentryAttribute(
+            ( ( ClonedServerEntry ) entry ).getOriginalEntry(),
             directoryService.getAtProvider().getCollectiveAttributeSubentries() );
 
         /*
@@ -390,9 +506,8 @@ public class CollectiveAttributeInterceptor extends BaseInterceptor
         }
 
         /*
-         * For each collective subentry referenced by the entry we lookup the
-         * attributes of the subentry and copy collective attributes from the
-         * subentry into the entry.
+         * For each collective subentry referenced by the entry we get the
+         * collective attributes of the subentry, and inject them into the entry.
          */
         for ( Value value : collectiveAttributeSubentries )
         {
@@ -401,32 +516,9 @@ public class CollectiveAttributeInterceptor extends BaseInterceptor
 
             LOG.debug( "Applying subentries {}", subentryDn.getName() );
 
-            /*
-             * TODO - Instead of hitting disk here can't we leverage the
-             * SubentryService to get us cached sub-entries so we're not
-             * wasting time with a lookup here? It is ridiculous to waste
-             * time looking up this sub-entry.
-             */
-
-            LookupOperationContext lookupContext = new LookupOperationContext( session, subentryDn,
-                SchemaConstants.ALL_ATTRIBUTES_ARRAY );
-            lookupContext.setPartition( opContext.getPartition() );
-            lookupContext.setTransaction( opContext.getTransaction() );
-
-            Entry subentry = directoryService.getPartitionNexus().lookup( lookupContext );
-
-            //LOG.debug( "Fetched the subentry : {}", subentry.getDn().getName() );
-
-            for ( Attribute attribute : subentry.getAttributes() )
+            for ( Attribute subentryColAttr : getCollectiveAttributes( opContext, session, subentryDn ) )
             {
-                AttributeType attributeType = attribute.getAttributeType();
-
-                // Skip the attributes which are not collective
-                if ( !attributeType.isCollective() )
-                {
-                    //LOG.debug( "The {} subentry attribute is not collective", attributeType.getName() );
-                    continue;
-                }
+                AttributeType attributeType = subentryColAttr.getAttributeType();
 
                 /*
                  * Skip the addition of this collective attribute if it is excluded
@@ -450,28 +542,76 @@ public class CollectiveAttributeInterceptor extends BaseInterceptor
                     continue;
                 }
 
-                Attribute subentryColAttr = subentry.get( attributeType );
-                Attribute entryColAttr = entry.get( attributeType );
+                injectCollectiveAttribute( entry, subentryColAttr );
+            }
+        }
+    }
 
-                /*
-                 * If entry does not have attribute for collective attribute then create it.
-                 */
-                if ( entryColAttr == null )
-                {
-                    entryColAttr = new DefaultAttribute( attributeType );
-                    entry.put( entryColAttr );
-                }
 
-                /*
-                 *  Add all the collective attribute values in the subentry
-                 *  to the currently processed collective attribute in the entry.
-                 */
-                for ( Value subentryColVal : subentryColAttr )
-                {
-                    LOG.debug( "Adding the {} collective attribute into the entry", subentryColAttr );
-                    entryColAttr.add( subentryColVal.getValue() );
-                }
-            }
+    /**
+     * Injects a collective attribute of a subentry into an entry. The subentry's attribute is
+     * shared, and so is the entry's attribute if it has been injected by another subentry :
+     * none of them is modified.
+     *
+     * @param entry The entry
+     * @param subentryColAttr The collective attribute of the subentry
+     * @throws LdapException If a value can't be added
+     */
+    static void injectCollectiveAttribute( Entry entry, Attribute subentryColAttr ) throws LdapException
+    {
+        Attribute entryColAttr = entry.get( subentryColAttr.getAttributeType() );
+
+        /*
+         * If entry does not have attribute for collective attribute then inject the
+         * subentry's one, which is shared : it must not be modified.
+         */
+        if ( entryColAttr == null )
+        {
+            LOG.debug( "Adding the {} collective attribute into the entry", subentryColAttr );
+            entry.put( subentryColAttr );
+
+            return;
+        }
+
+        /*
+         *  Another subentry has already injected this collective attribute : merge
+         *  the values into a copy of it.
+         */
+        entryColAttr = entryColAttr.clone();
+
+        for ( Value subentryColVal : subentryColAttr )
+        {
+            LOG.debug( "Adding the {} collective attribute into the entry", subentryColAttr );
+            entryColAttr.add( subentryColVal );
         }
+
+        entry.put( entryColAttr );
+    }
+
+
+    /**
+     * Gets the collective attributes of a subentry, from the cache or from the backend
+     */
+    private List<Attribute> getCollectiveAttributes( FilteringOperationContext opContext, CoreSession session,
+        Dn subentryDn ) throws LdapException
+    {
+        List<Attribute> collectiveAttributes = attributeCache.get( subentryDn );
+
+        if ( collectiveAttributes != null )
+        {
+            return collectiveAttributes;
+        }
+
+        // Read the generation before the subentry, so that an update made meanwhile is not ignored
+        long generation = attributeCache.getGeneration();
+
+        LookupOperationContext lookupContext = new LookupOperationContext( session, subentryDn,
+            SchemaConstants.ALL_ATTRIBUTES_ARRAY );
+        lookupContext.setPartition( opContext.getPartition() );
+        lookupContext.setTransaction( opContext.getTransaction() );
+
+        Entry subentry = directoryService.getPartitionNexus().lookup( lookupContext );
+
+        return attributeCache.put( generation, subentry );
     }
 }
@@ -0,0 +1,265 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.collective;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.List;
+
+import org.apache.directory.api.ldap.model.entry.Attribute;
+import org.apache.directory.api.ldap.model.entry.DefaultEntry;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.api.ldap.schema.loader.JarLdifSchemaLoader;
+import org.apache.directory.api.ldap.schema.manager.impl.DefaultSchemaManager;
+import org.apache.directory.api.util.exception.Exceptions;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+
+/**
+ * Tests the {@link CollectiveAttributeCache} class : the attributes it keeps must never be
+ * stale once a subentry has been written.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class CollectiveAttributeCacheTest
+{
+    /** the SchemaManager instance */
+    private static SchemaManager schemaManager;
+
+    /** The tested cache */
+    private CollectiveAttributeCache cache;
+
+
+    @BeforeClass
+    public static void init() throws Exception
+    {
+        JarLdifSchemaLoader loader = new JarLdifSchemaLoader();
+
+        schemaManager = new DefaultSchemaManager( loader );
+
+        boolean loaded = schemaManager.loadAllEnabled();
+
+        if ( !loaded )
+        {
+            fail( "Schema load failed : " + Exceptions.printErrors( schemaManager.getErrors() ) );
+        }
+    }
+
+
+    @Before
+    public void createCache()
+    {
+        cache = new CollectiveAttributeCache();
+    }
+
+
+    private Entry createSubentry( String dn, String... cOus ) throws Exception
+    {
+        Entry subentry = new DefaultEntry( schemaManager, dn,
+            "objectClass: top",
+            "objectClass: subentry",
+            "objectClass: collectiveAttributeSubentry",
+            "subtreeSpecification: {}",
+            "c-st: FL" );
+
+        subentry.add( "c-ou", cOus );
+
+        return subentry;
+    }
+
+
+    private Dn dn( String dn ) throws Exception
+    {
+        return new Dn( schemaManager, dn );
+    }
+
+
+    @Test
+    public void testPutAndGet() throws Exception
+    {
+        Entry subentry = createSubentry( "cn=sub,ou=system", "configuration", "other" );
+        List<Attribute> attributes = cache.put( cache.getGeneration(), subentry );
+
+        // Only the collective attributes are kept
+        assertEquals( 2, attributes.size() );
+        assertSame( attributes, cache.get( dn( "cn=sub,ou=system" ) ) );
+
+        for ( Attribute attribute : attributes )
+        {
+            assertTrue( attribute.getAttributeType().isCollective() );
+            assertEquals( subentry.get( attribute.getAttributeType() ), attribute );
+        }
+
+        // The cached attributes are shared : they can't be removed
+        try
+        {
+            attributes.clear();
+            fail();
+        }
+        catch ( UnsupportedOperationException uoe )
+        {
+            // Expected
+        }
+
+        // A modification of the read subentry does not change them
+        subentry.remove( "c-ou", "other" );
+        assertTrue( getAttribute( cache.get( dn( "cn=sub,ou=system" ) ), "c-ou" ).contains( "other" ) );
+
+        assertNull( cache.get( dn( "cn=other,ou=system" ) ) );
+    }
+
+
+    @Test
+    public void testModifyDuringRead() throws Exception
+    {
+        Dn subentryDn = dn( "cn=sub,ou=system" );
+
+        // A search starts reading the subentry
+        long generation = cache.getGeneration();
+        Entry read = createSubentry( "cn=sub,ou=system", "configuration" );
+
+        // Meanwhile the subentry is modified
+        cache.invalidate( subentryDn );
+
+        // The search still gets the attributes it has read, but they are not cached
+        List<Attribute> attributes = cache.put( generation, read );
+        assertEquals( 2, attributes.size() );
+        assertNull( cache.get( subentryDn ) );
+        assertEquals( 0, cache.size() );
+
+        // The next read gets the modified subentry, and caches it
+        generation = cache.getGeneration();
+        cache.put( generation, createSubentry( "cn=sub,ou=system", "modified" ) );
+
+        Attribute cOu = getAttribute( cache.get( subentryDn ), "c-ou" );
+        assertNotNull( cOu );
+        assertEquals( 1, cOu.size() );
+        assertTrue( cOu.contains( "modified" ) );
+
+        // The subentry is renamed : it's read under its old name while the rename is done
+        generation = cache.getGeneration();
+        cache.invalidate( subentryDn );
+        cache.put( generation, read );
+
+        assertNull( cache.get( subentryDn ) );
+
+        // It's read under its new name
+        cache.put( cache.getGeneration(), createSubentry( "cn=renamed,ou=system", "modified" ) );
+        assertNotNull( cache.get( dn( "cn=renamed,ou=system" ) ) );
+
+        // And deleted while a search reads it again
+        generation = cache.getGeneration();
+        cache.invalidate( dn( "cn=renamed,ou=system" ) );
+        cache.put( generation, createSubentry( "cn=renamed,ou=system", "modified" ) );
+
+        assertNull( cache.get( dn( "cn=renamed,ou=system" ) ) );
+        assertEquals( 0, cache.size() );
+    }
+
+
+    @Test
+    public void testInvalidate() throws Exception
+    {
+        cache.put( cache.getGeneration(), createSubentry( "cn=sub,ou=system", "a" ) );
+        cache.put( cache.getGeneration(), createSubentry( "cn=othersub,ou=system", "b" ) );
+        cache.put( cache.getGeneration(), createSubentry( "cn=sub,ou=users,ou=system", "c" ) );
+        cache.put( cache.getGeneration(), createSubentry( "cn=sub,ou=groups,ou=system", "d" ) );
+        assertEquals( 4, cache.size() );
+
+        // Only the written subentry is removed, not the one which name ends with the same characters
+        cache.invalidate( dn( "cn=sub,ou=system" ) );
+        assertNull( cache.get( dn( "cn=sub,ou=system" ) ) );
+        assertNotNull( cache.get( dn( "cn=othersub,ou=system" ) ) );
+        assertEquals( 3, cache.size() );
+
+        // The subentries below a moved or deleted entry are removed
+        cache.invalidate( dn( "ou=users,ou=system" ) );
+        assertNull( cache.get( dn( "cn=sub,ou=users,ou=system" ) ) );
+        assertNotNull( cache.get( dn( "cn=sub,ou=groups,ou=system" ) ) );
+        assertEquals( 2, cache.size() );
+
+        // All the subentries are below the root DSE
+        cache.invalidate( Dn.ROOT_DSE );
+        assertEquals( 0, cache.size() );
+    }
+
+
+    @Test
+    public void testMergedAttributesAreNotShared() throws Exception
+    {
+        List<Attribute> attributes1 = cache.put( cache.getGeneration(),
+            createSubentry( "cn=sub1,ou=system", "configuration" ) );
+        List<Attribute> attributes2 = cache.put( cache.getGeneration(),
+            createSubentry( "cn=sub2,ou=system", "interceptors" ) );
+
+        // Inject the attributes of both subentries into an entry
+        Entry entry = new DefaultEntry( schemaManager, "ou=interceptors,ou=configuration,ou=system",
+            "objectClass: top",
+            "objectClass: organizationalUnit",
+            "ou: interceptors" );
+
+        for ( Attribute attribute : attributes1 )
+        {
+            CollectiveAttributeInterceptor.injectCollectiveAttribute( entry, attribute );
+        }
+
+        for ( Attribute attribute : attributes2 )
+        {
+            CollectiveAttributeInterceptor.injectCollectiveAttribute( entry, attribute );
+        }
+
+        assertEquals( 2, entry.get( "c-ou" ).size() );
+        assertEquals( 1, entry.get( "c-st" ).size() );
+        assertTrue( entry.contains( "c-ou", "configuration", "interceptors" ) );
+
+        // The cached attributes still have their own values only
+        Attribute cOu1 = getAttribute( cache.get( dn( "cn=sub1,ou=system" ) ), "c-ou" );
+        assertEquals( 1, cOu1.size() );
+        assertTrue( cOu1.contains( "configuration" ) );
+
+        Attribute cOu2 = getAttribute( cache.get( dn( "cn=sub2,ou=system" ) ), "c-ou" );
+        assertEquals( 1, cOu2.size() );
+        assertTrue( cOu2.contains( "interceptors" ) );
+    }
+
+
+    private Attribute getAttribute( List<Attribute> attributes, String id )
+    {
+        for ( Attribute attribute : attributes )
+        {
+            if ( attribute.getAttributeType().getName().equalsIgnoreCase( id ) )
+            {
+                return attribute;
+            }
+        }
+
+        return null;
+    }
+}
@@ -20,10 +20,15 @@
 package org.apache.directory.server.core.event;
 
 
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
-import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
 
+import org.apache.directory.api.ldap.model.entry.Entry;
 import org.apache.directory.api.ldap.model.filter.ExprNode;
 import org.apache.directory.api.ldap.model.name.Dn;
 import org.apache.directory.api.ldap.model.schema.SchemaManager;
@@ -33,6 +38,7 @@ import org.apache.directory.server.core.api.DirectoryService;
 import org.apache.directory.server.core.api.event.DirectoryListener;
 import org.apache.directory.server.core.api.event.EventService;
 import org.apache.directory.server.core.api.event.NotificationCriteria;
+import org.apache.directory.server.core.api.event.OverflowPolicy;
 import org.apache.directory.server.core.api.event.RegistrationEntry;
 import org.apache.directory.server.core.api.normalization.FilterNormalizingVisitor;
 
@@ -45,8 +51,8 @@ import org.apache.directory.server.core.api.normalization.FilterNormalizingVisit
  */
 class DefaultEventService implements EventService
 {
-    /** The list of RegistrationEntries being registered */
-    private List<RegistrationEntry> registrations = new CopyOnWriteArrayList<>();
+    /** The index of the RegistrationEntries being registered, replaced when a listener is added or removed */
+    private volatile RegistrationIndex registrations = RegistrationIndex.EMPTY;
 
     /** The DirectoryService instance */
     private DirectoryService directoryService;
@@ -54,15 +60,33 @@ class DefaultEventService implements EventService
     /** A normalizer used for filters */
     private FilterNormalizingVisitor filterNormalizer;
 
+    /** The dispatchers delivering the notifications to the asynchronous listeners */
+    private final ConcurrentMap<DirectoryListener, ListenerDispatcher> dispatchers = new ConcurrentHashMap<>();
+
+    /** The executor the asynchronous notifications are delivered on */
+    private final Executor executor;
+
+    /** The maximum number of notifications pending for an asynchronous listener */
+    private final int listenerQueueSize;
+
+    /** What to do when an asynchronous listener has too many pending notifications */
+    private final OverflowPolicy overflowPolicy;
+
 
     /**
      * Create an instance of EventService
      * @param directoryService The associated DirectoryService
-     * @param registrations The list of Registrations
+     * @param executor The executor the asynchronous notifications are delivered on
+     * @param listenerQueueSize The maximum number of notifications pending for an asynchronous listener
+     * @param overflowPolicy What to do when an asynchronous listener has too many pending notifications
      */
-    DefaultEventService( DirectoryService directoryService )
+    DefaultEventService( DirectoryService directoryService, Executor executor, int listenerQueueSize,
+        OverflowPolicy overflowPolicy )
     {
         this.directoryService = directoryService;
+        this.executor = executor;
+        this.listenerQueueSize = listenerQueueSize;
+        this.overflowPolicy = overflowPolicy;
         SchemaManager schemaManager = directoryService.getSchemaManager();
         NameComponentNormalizer ncn = new ConcreteNameComponentNormalizer( schemaManager );
         filterNormalizer = new FilterNormalizingVisitor( ncn, schemaManager );
@@ -82,7 +106,19 @@ class DefaultEventService implements EventService
 
         ExprNode result = ( ExprNode ) criteria.getFilter().accept( filterNormalizer );
         criteria.setFilter( result );
-        registrations.add( new RegistrationEntry( listener, criteria ) );
+
+        synchronized ( this )
+        {
+            if ( !listener.isSynchronous() && !dispatchers.containsKey( listener ) )
+            {
+                dispatchers.put( listener, new ListenerDispatcher( listener, executor, this, listenerQueueSize,
+                    overflowPolicy ) );
+            }
+
+            List<RegistrationEntry> entries = new ArrayList<>( registrations.getRegistrations() );
+            entries.add( new RegistrationEntry( listener, criteria ) );
+            registrations = new RegistrationIndex( entries );
+        }
     }
 
 
@@ -90,15 +126,29 @@ class DefaultEventService implements EventService
      * {@inheritDoc}
      */
     @Override
-    public void removeListener( DirectoryListener listener )
+    public synchronized void removeListener( DirectoryListener listener )
     {
-        for ( RegistrationEntry entry : registrations )
+        List<RegistrationEntry> entries = new ArrayList<>();
+
+        for ( RegistrationEntry entry : registrations.getRegistrations() )
         {
-            if ( entry.getListener() == listener )
+            if ( entry.getListener() != listener )
             {
-                registrations.remove( entry );
+                entries.add( entry );
             }
         }
+
+        if ( entries.size() < registrations.getRegistrations().size() )
+        {
+            registrations = new RegistrationIndex( entries );
+        }
+
+        ListenerDispatcher dispatcher = dispatchers.remove( listener );
+
+        if ( dispatcher != null )
+        {
+            dispatcher.close();
+        }
     }
 
 
@@ -108,6 +158,37 @@ class DefaultEventService implements EventService
     @Override
     public List<RegistrationEntry> getRegistrationEntries()
     {
-        return Collections.unmodifiableList( registrations );
+        return registrations.getRegistrations();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public List<RegistrationEntry> getCandidateRegistrations( Dn dn, Entry entry )
+    {
+        return registrations.getCandidates( dn, entry );
+    }
+
+
+    /**
+     * Gets the dispatcher delivering the notifications to an asynchronous listener
+     *
+     * @param listener The listener
+     * @return The dispatcher, or null if the listener is not registered anymore
+     */
+    ListenerDispatcher getDispatcher( DirectoryListener listener )
+    {
+        return dispatchers.get( listener );
+    }
+
+
+    /**
+     * @return The dispatchers of the asynchronous listeners, which expose their queue metrics
+     */
+    Collection<ListenerDispatcher> getDispatchers()
+    {
+        return Collections.unmodifiableCollection( dispatchers.values() );
     }
 }
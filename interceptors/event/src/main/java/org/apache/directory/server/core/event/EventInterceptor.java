@@ -20,16 +20,12 @@
 package org.apache.directory.server.core.event;
 
 
-import static org.apache.directory.api.ldap.model.message.SearchScope.OBJECT;
-import static org.apache.directory.api.ldap.model.message.SearchScope.ONELEVEL;
-import static org.apache.directory.api.ldap.model.message.SearchScope.SUBTREE;
-
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
-import java.util.concurrent.ArrayBlockingQueue;
-import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
@@ -37,7 +33,6 @@ import java.util.concurrent.TimeUnit;
 import org.apache.directory.api.ldap.model.constants.SchemaConstants;
 import org.apache.directory.api.ldap.model.entry.Entry;
 import org.apache.directory.api.ldap.model.exception.LdapException;
-import org.apache.directory.api.ldap.model.message.SearchScope;
 import org.apache.directory.api.ldap.model.name.Dn;
 import org.apache.directory.server.core.api.CoreSession;
 import org.apache.directory.server.core.api.DirectoryService;
@@ -48,6 +43,7 @@ import org.apache.directory.server.core.api.event.Evaluator;
 import org.apache.directory.server.core.api.event.EventType;
 import org.apache.directory.server.core.api.event.ExpressionEvaluator;
 import org.apache.directory.server.core.api.event.NotificationCriteria;
+import org.apache.directory.server.core.api.event.OverflowPolicy;
 import org.apache.directory.server.core.api.event.RegistrationEntry;
 import org.apache.directory.server.core.api.interceptor.BaseInterceptor;
 import org.apache.directory.server.core.api.interceptor.context.AddOperationContext;
@@ -72,8 +68,24 @@ public class EventInterceptor extends BaseInterceptor
     /** A logger for this class */
     private static final Logger LOG = LoggerFactory.getLogger( EventInterceptor.class );
 
+    /** The default maximum number of notifications pending for an asynchronous listener */
+    public static final int DEFAULT_LISTENER_QUEUE_SIZE = 1000;
+
+    /** The default number of threads delivering the asynchronous notifications */
+    public static final int DEFAULT_NB_DISPATCH_THREADS = 10;
+
     private Evaluator evaluator;
-    private ExecutorService executor;
+    private ThreadPoolExecutor executor;
+    private DefaultEventService eventService;
+
+    /** The maximum number of notifications pending for an asynchronous listener */
+    private int listenerQueueSize = DEFAULT_LISTENER_QUEUE_SIZE;
+
+    /** What to do when an asynchronous listener has too many pending notifications */
+    private OverflowPolicy overflowPolicy = OverflowPolicy.DISCONNECT;
+
+    /** The number of threads delivering the asynchronous notifications */
+    private int nbDispatchThreads = DEFAULT_NB_DISPATCH_THREADS;
 
 
     /**
@@ -96,8 +108,7 @@ public class EventInterceptor extends BaseInterceptor
         super.init( directoryService );
 
         evaluator = new ExpressionEvaluator( schemaManager );
-        executor = new ThreadPoolExecutor( 1, 10, 1000, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable>( 100 ) );
-        
+
         ThreadFactory threadFactory = new ThreadFactory() 
         {
             @Override
@@ -109,138 +120,42 @@ public class EventInterceptor extends BaseInterceptor
                 return newThread;
             }
         };
-        
-        executor = new ThreadPoolExecutor( 1, 10, 1000, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable>( 100 ),
-            threadFactory );
 
-        this.directoryService.setEventService( new DefaultEventService( directoryService ) );
+        // Each asynchronous listener has at most one task in the queue, which can't grow
+        // more than the number of listeners
+        executor = new ThreadPoolExecutor( nbDispatchThreads, nbDispatchThreads, 1000, TimeUnit.MILLISECONDS,
+            new LinkedBlockingQueue<Runnable>(), threadFactory );
+        executor.allowCoreThreadTimeOut( true );
+
+        eventService = new DefaultEventService( directoryService, executor, listenerQueueSize, overflowPolicy );
+        this.directoryService.setEventService( eventService );
         LOG.info( "Initialization complete." );
     }
 
 
     /**
-     * Call the listener passing it the context.
+     * Call the listener passing it the context. The synchronous listeners are called
+     * directly, the notifications for the asynchronous ones are queued in their dispatcher.
      */
     private void fire( final OperationContext opContext, EventType type, final DirectoryListener listener )
     {
-        switch ( type )
+        if ( listener.isSynchronous() )
+        {
+            ListenerDispatcher.deliver( listener, type, opContext );
+
+            return;
+        }
+
+        ListenerDispatcher dispatcher = eventService.getDispatcher( listener );
+
+        if ( dispatcher != null )
+        {
+            dispatcher.dispatch( type, opContext );
+        }
+        else
         {
-            case ADD:
-                if ( listener.isSynchronous() )
-                {
-                    listener.entryAdded( ( AddOperationContext ) opContext );
-                }
-                else
-                {
-                    executor.execute( new Runnable()
-                    {
-                        @Override
-                        public void run()
-                        {
-                            listener.entryAdded( ( AddOperationContext ) opContext );
-                        }
-                    } );
-                }
-
-                break;
-
-            case DELETE:
-                if ( listener.isSynchronous() )
-                {
-                    listener.entryDeleted( ( DeleteOperationContext ) opContext );
-                }
-                else
-                {
-                    executor.execute( new Runnable()
-                    {
-                        @Override
-                        public void run()
-                        {
-                            listener.entryDeleted( ( DeleteOperationContext ) opContext );
-                        }
-                    } );
-                }
-
-                break;
-
-            case MODIFY:
-                if ( listener.isSynchronous() )
-                {
-                    listener.entryModified( ( ModifyOperationContext ) opContext );
-                }
-                else
-                {
-                    executor.execute( new Runnable()
-                    {
-                        @Override
-                        public void run()
-                        {
-                            listener.entryModified( ( ModifyOperationContext ) opContext );
-                        }
-                    } );
-                }
-
-                break;
-
-            case MOVE:
-                if ( listener.isSynchronous() )
-                {
-                    listener.entryMoved( ( MoveOperationContext ) opContext );
-                }
-                else
-                {
-                    executor.execute( new Runnable()
-                    {
-                        @Override
-                        public void run()
-                        {
-                            listener.entryMoved( ( MoveOperationContext ) opContext );
-                        }
-                    } );
-                }
-
-                break;
-
-            case RENAME:
-                if ( listener.isSynchronous() )
-                {
-                    listener.entryRenamed( ( RenameOperationContext ) opContext );
-                }
-                else
-                {
-                    executor.execute( new Runnable()
-                    {
-                        @Override
-                        public void run()
-                        {
-                            listener.entryRenamed( ( RenameOperationContext ) opContext );
-                        }
-                    } );
-                }
-
-                break;
-
-            case MOVE_AND_RENAME:
-                if ( listener.isSynchronous() )
-                {
-                    listener.entryMovedAndRenamed( ( MoveAndRenameOperationContext ) opContext );
-                }
-                else
-                {
-                    executor.execute( new Runnable()
-                    {
-                        @Override
-                        public void run()
-                        {
-                            listener.entryMovedAndRenamed( ( MoveAndRenameOperationContext ) opContext );
-                        }
-                    } );
-                }
-
-                break;
-
-            default:
-                throw new IllegalArgumentException( "Unexpected event type " + type );
+            // The listener has been removed in the meantime
+            LOG.debug( "No dispatcher for the listener {}, the {} notification is dropped", listener, type );
         }
     }
 
@@ -427,35 +342,26 @@ public class EventInterceptor extends BaseInterceptor
 
 
     /**
-     * Find a list of registrationEntries given an entry and a name. We check against
-     * the criteria for each registrationEntry
+     * Find a list of registrationEntries given an entry and a name. The EventService
+     * gives the registrations which scope contains the entry and which may select it,
+     * we check their filter
      */
     private List<RegistrationEntry> getSelectingRegistrations( Dn name, Entry entry ) throws LdapException
     {
-        List<RegistrationEntry> registrations = directoryService.getEventService().getRegistrationEntries();
+        List<RegistrationEntry> candidates = directoryService.getEventService().getCandidateRegistrations( name, entry );
 
-        if ( registrations.isEmpty() )
+        if ( candidates.isEmpty() )
         {
             return Collections.emptyList();
         }
 
-        List<RegistrationEntry> selecting = new ArrayList<>();
+        List<RegistrationEntry> selecting = new ArrayList<>( candidates.size() );
 
-        for ( RegistrationEntry registration : registrations )
+        for ( RegistrationEntry registration : candidates )
         {
             NotificationCriteria criteria = registration.getCriteria();
 
-            Dn base = criteria.getBase();
-
-            SearchScope scope = criteria.getScope();
-            
-            // fix for DIRSERVER-1502
-            boolean inscope =
-                    ( ( ( scope == OBJECT ) && name.equals( base ) )
-                    || ( ( scope == ONELEVEL ) && name.getParent().equals( base ) )
-                    || ( ( scope == SUBTREE ) && ( name.isDescendantOf( base ) || name.equals( base ) ) ) );
-            
-            if ( inscope && evaluator.evaluate( criteria.getFilter(), base, entry ) )
+            if ( evaluator.evaluate( criteria.getFilter(), criteria.getBase(), entry ) )
             {
                 selecting.add( registration );
             }
@@ -473,4 +379,82 @@ public class EventInterceptor extends BaseInterceptor
     {
        executor.shutdown();
     }
+
+
+    /**
+     * @return The maximum number of notifications pending for an asynchronous listener
+     */
+    public int getListenerQueueSize()
+    {
+        return listenerQueueSize;
+    }
+
+
+    /**
+     * Sets the maximum number of notifications pending for an asynchronous listener. It
+     * must be set before the interceptor is initialized.
+     *
+     * @param listenerQueueSize The maximum number of pending notifications
+     */
+    public void setListenerQueueSize( int listenerQueueSize )
+    {
+        this.listenerQueueSize = listenerQueueSize;
+    }
+
+
+    /**
+     * @return What to do when an asynchronous listener has too many pending notifications
+     */
+    public OverflowPolicy getOverflowPolicy()
+    {
+        return overflowPolicy;
+    }
+
+
+    /**
+     * Sets what to do when an asynchronous listener has too many pending notifications. It
+     * must be set before the interceptor is initialized.
+     *
+     * @param overflowPolicy The overflow policy
+     */
+    public void setOverflowPolicy( OverflowPolicy overflowPolicy )
+    {
+        this.overflowPolicy = overflowPolicy;
+    }
+
+
+    /**
+     * @return The number of threads delivering the asynchronous notifications
+     */
+    public int getNbDispatchThreads()
+    {
+        return nbDispatchThreads;
+    }
+
+
+    /**
+     * Sets the number of threads delivering the asynchronous notifications. It must be set
+     * before the interceptor is initialized.
+     *
+     * @param nbDispatchThreads The number of threads
+     */
+    public void setNbDispatchThreads( int nbDispatchThreads )
+    {
+        this.nbDispatchThreads = nbDispatchThreads;
+    }
+
+
+    /**
+     * @return The dispatchers of the asynchronous listeners, which expose the depth of their
+     * queue and the number of delivered, dropped and coalesced notifications
+     */
+    public Collection<ListenerDispatcher> getDispatchers()
+    {
+        if ( eventService == null )
+        {
+            return Collections.emptyList();
+        }
+
+        return eventService.getDispatchers();
+    }
 }
@@ -0,0 +1,502 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.event;
+
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.apache.directory.api.ldap.model.entry.Modification;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.server.core.api.event.DirectoryListener;
+import org.apache.directory.server.core.api.event.DisconnectableListener;
+import org.apache.directory.server.core.api.event.EventType;
+import org.apache.directory.server.core.api.event.OverflowPolicy;
+import org.apache.directory.server.core.api.interceptor.context.AddOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.DeleteOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.ModifyOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.MoveAndRenameOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.MoveOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.OperationContext;
+import org.apache.directory.server.core.api.interceptor.context.RenameOperationContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * Delivers the notifications to an asynchronous listener. The notifications are stored
+ * in a bounded queue, and delivered in order by a task run on the shared executor : there
+ * is at most one such task per listener, which gives the thread back after a batch of
+ * notifications, so that a slow listener does not delay the others. When the queue is full,
+ * the {@link OverflowPolicy} is applied, so the write operations are never blocked nor
+ * rejected.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class ListenerDispatcher implements Runnable
+{
+    /** A logger for this class */
+    private static final Logger LOG = LoggerFactory.getLogger( ListenerDispatcher.class );
+
+    /** The number of notifications delivered before the task gives the thread back */
+    private static final int MAX_BATCH = 64;
+
+    /** The listener we deliver to */
+    private final DirectoryListener listener;
+
+    /** The executor the deliveries are run on */
+    private final Executor executor;
+
+    /** The EventService the listener is registered in */
+    private final DefaultEventService eventService;
+
+    /** The maximum number of pending notifications */
+    private final int capacity;
+
+    /** What to do when the queue is full */
+    private final OverflowPolicy overflowPolicy;
+
+    /** The pending notifications */
+    private final ArrayDeque<Notification> queue = new ArrayDeque<>();
+
+    /** The pending modifications, per Dn, which can be coalesced */
+    private final Map<Dn, Notification> pendingModifications = new HashMap<>();
+
+    /** Tells if a delivery task has been submitted to the executor */
+    private boolean scheduled;
+
+    /** Set when the listener has been removed */
+    private boolean closed;
+
+    /** The metrics */
+    private long deliveredCount;
+    private long droppedCount;
+    private long coalescedCount;
+    private int maxQueueDepth;
+
+
+    /**
+     * A pending notification
+     */
+    private static class Notification
+    {
+        private final EventType type;
+        private OperationContext context;
+
+        /** Tells if the context has been created by coalescing some modifications */
+        private boolean merged;
+
+
+        private Notification( EventType type, OperationContext context )
+        {
+            this.type = type;
+            this.context = context;
+        }
+    }
+
+
+    /**
+     * Creates a new instance of ListenerDispatcher
+     *
+     * @param listener The listener we deliver to
+     * @param executor The executor the deliveries are run on
+     * @param eventService The EventService the listener is registered in
+     * @param capacity The maximum number of pending notifications
+     * @param overflowPolicy What to do when the queue is full
+     */
+    ListenerDispatcher( DirectoryListener listener, Executor executor, DefaultEventService eventService, int capacity,
+        OverflowPolicy overflowPolicy )
+    {
+        this.listener = listener;
+        this.executor = executor;
+        this.eventService = eventService;
+        this.capacity = Math.max( capacity, 1 );
+        this.overflowPolicy = overflowPolicy;
+    }
+
+
+    /**
+     * Queues a notification for the listener.
+     *
+     * @param type The event type
+     * @param context The operation context
+     */
+    void dispatch( EventType type, OperationContext context )
+    {
+        boolean schedule = false;
+        boolean disconnect = false;
+
+        synchronized ( this )
+        {
+            if ( closed )
+            {
+                return;
+            }
+
+            if ( queue.size() >= capacity )
+            {
+                if ( overflowPolicy == OverflowPolicy.DISCONNECT )
+                {
+                    close();
+                    droppedCount++;
+                    disconnect = true;
+                }
+                else if ( ( overflowPolicy == OverflowPolicy.COALESCE_BY_DN ) && ( type == EventType.MODIFY )
+                    && pendingModifications.containsKey( context.getDn() ) )
+                {
+                    // The listener will see all the modifications at once, and the latest state of the entry
+                    coalesce( pendingModifications.get( context.getDn() ), ( ModifyOperationContext ) context );
+                    coalescedCount++;
+
+                    return;
+                }
+                else
+                {
+                    remove( queue.poll() );
+                    droppedCount++;
+                }
+            }
+
+            if ( !disconnect )
+            {
+                Notification notification = new Notification( type, context );
+                queue.add( notification );
+                maxQueueDepth = Math.max( maxQueueDepth, queue.size() );
+
+                if ( type == EventType.MODIFY )
+                {
+                    pendingModifications.put( context.getDn(), notification );
+                }
+                else
+                {
+                    // The pending modification can't be coalesced anymore
+                    pendingModifications.remove( context.getDn() );
+                }
+
+                if ( !scheduled )
+                {
+                    scheduled = true;
+                    schedule = true;
+                }
+            }
+        }
+
+        if ( disconnect )
+        {
+            disconnect();
+        }
+        else if ( schedule )
+        {
+            schedule();
+        }
+    }
+
+
+    /**
+     * Merges a modification into the pending modification of the same entry. The contexts
+     * are shared with the other listeners, so the pending one is replaced by a new context
+     * holding the modifications of both, in order, the entry as it was before the first one,
+     * and the entry as it is after the last one.
+     *
+     * @param pending The pending modification
+     * @param modifyContext The modification to merge
+     */
+    private void coalesce( Notification pending, ModifyOperationContext modifyContext )
+    {
+        ModifyOperationContext pendingContext = ( ModifyOperationContext ) pending.context;
+
+        if ( !pending.merged )
+        {
+            List<Modification> modItems = new ArrayList<>();
+
+            if ( pendingContext.getModItems() != null )
+            {
+                modItems.addAll( pendingContext.getModItems() );
+            }
+
+            ModifyOperationContext merged = new ModifyOperationContext( pendingContext.getSession(),
+                pendingContext.getDn(), modItems );
+            merged.setEntry( pendingContext.getEntry() );
+            merged.setOriginalEntry( pendingContext.getOriginalEntry() );
+            merged.setPartition( pendingContext.getPartition() );
+
+            pending.context = merged;
+            pending.merged = true;
+            pendingContext = merged;
+        }
+
+        if ( modifyContext.getModItems() != null )
+        {
+            pendingContext.getModItems().addAll( modifyContext.getModItems() );
+        }
+
+        pendingContext.setAlteredEntry( modifyContext.getAlteredEntry() );
+        pendingContext.setChangeLogEvent( modifyContext.getChangeLogEvent() );
+    }
+
+
+    /**
+     * Removes a notification taken from the queue from the pending modifications
+     */
+    private void remove( Notification notification )
+    {
+        Dn dn = notification.context.getDn();
+
+        if ( pendingModifications.get( dn ) == notification )
+        {
+            pendingModifications.remove( dn );
+        }
+    }
+
+
+    /**
+     * Submits the delivery task to the executor
+     */
+    private void schedule()
+    {
+        try
+        {
+            executor.execute( this );
+        }
+        catch ( RejectedExecutionException ree )
+        {
+            // The executor has been shut down
+            LOG.debug( "Cannot deliver the notifications to {} : {}", listener, ree.getMessage() );
+
+            synchronized ( this )
+            {
+                scheduled = false;
+            }
+        }
+    }
+
+
+    /**
+     * Removes the listener from the EventService, as it's too slow, and tells it
+     */
+    private void disconnect()
+    {
+        final String reason = "The listener has been removed, as it does not consume its notifications : "
+            + capacity + " of them are pending";
+        LOG.warn( "{} : {}", reason, listener );
+        eventService.removeListener( listener );
+
+        if ( listener instanceof DisconnectableListener )
+        {
+            try
+            {
+                executor.execute( new Runnable()
+                {
+                    @Override
+                    public void run()
+                    {
+                        ( ( DisconnectableListener ) listener ).disconnected( reason );
+                    }
+                } );
+            }
+            catch ( RejectedExecutionException ree )
+            {
+                LOG.debug( "Cannot tell {} it has been disconnected : {}", listener, ree.getMessage() );
+            }
+        }
+    }
+
+
+    /**
+     * Delivers a batch of pending notifications, and submits the task again if some are left
+     */
+    @Override
+    public void run()
+    {
+        for ( int i = 0; i < MAX_BATCH; i++ )
+        {
+            Notification notification;
+
+            synchronized ( this )
+            {
+                notification = queue.poll();
+
+                if ( notification == null )
+                {
+                    scheduled = false;
+
+                    return;
+                }
+
+                remove( notification );
+                deliveredCount++;
+            }
+
+            try
+            {
+                deliver( listener, notification.type, notification.context );
+            }
+            catch ( RuntimeException re )
+            {
+                LOG.error( "The listener {} failed to process a {} notification on {}", listener, notification.type,
+                    notification.context.getDn(), re );
+            }
+        }
+
+        synchronized ( this )
+        {
+            if ( queue.isEmpty() )
+            {
+                scheduled = false;
+
+                return;
+            }
+        }
+
+        // Give the thread back to the other listeners
+        schedule();
+    }
+
+
+    /**
+     * Calls the listener method associated with an event type
+     *
+     * @param listener The listener
+     * @param type The event type
+     * @param opContext The operation context
+     */
+    static void deliver( DirectoryListener listener, EventType type, OperationContext opContext )
+    {
+        switch ( type )
+        {
+            case ADD:
+                listener.entryAdded( ( AddOperationContext ) opContext );
+                break;
+
+            case DELETE:
+                listener.entryDeleted( ( DeleteOperationContext ) opContext );
+                break;
+
+            case MODIFY:
+                listener.entryModified( ( ModifyOperationContext ) opContext );
+                break;
+
+            case MOVE:
+                listener.entryMoved( ( MoveOperationContext ) opContext );
+                break;
+
+            case RENAME:
+                listener.entryRenamed( ( RenameOperationContext ) opContext );
+                break;
+
+            case MOVE_AND_RENAME:
+                listener.entryMovedAndRenamed( ( MoveAndRenameOperationContext ) opContext );
+                break;
+
+            default:
+                throw new IllegalArgumentException( "Unexpected event type " + type );
+        }
+    }
+
+
+    /**
+     * Stops the deliveries, and drops the pending notifications
+     */
+    synchronized void close()
+    {
+        closed = true;
+        queue.clear();
+        pendingModifications.clear();
+    }
+
+
+    /**
+     * @return The listener we deliver to
+     */
+    public DirectoryListener getListener()
+    {
+        return listener;
+    }
+
+
+    /**
+     * @return The number of pending notifications
+     */
+    public synchronized int getQueueDepth()
+    {
+        return queue.size();
+    }
+
+
+    /**
+     * @return The highest number of pending notifications
+     */
+    public synchronized int getMaxQueueDepth()
+    {
+        return maxQueueDepth;
+    }
+
+
+    /**
+     * @return The number of notifications delivered to the listener
+     */
+    public synchronized long getDeliveredCount()
+    {
+        return deliveredCount;
+    }
+
+
+    /**
+     * @return The number of notifications dropped because the queue was full
+     */
+    public synchronized long getDroppedCount()
+    {
+        return droppedCount;
+    }
+
+
+    /**
+     * @return The number of modifications coalesced with a pending one because the queue was full
+     */
+    public synchronized long getCoalescedCount()
+    {
+        return coalescedCount;
+    }
+
+
+    /**
+     * @return <code>true</code> if the listener has been removed
+     */
+    public synchronized boolean isClosed()
+    {
+        return closed;
+    }
+
+
+    /**
+     * @see Object#toString()
+     */
+    @Override
+    public synchronized String toString()
+    {
+        return "ListenerDispatcher[" + listener + ", depth=" + queue.size() + ", maxDepth=" + maxQueueDepth
+            + ", delivered=" + deliveredCount + ", dropped=" + droppedCount + ", coalesced=" + coalescedCount + "]";
+    }
+}
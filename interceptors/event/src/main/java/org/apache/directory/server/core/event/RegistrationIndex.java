@@ -0,0 +1,370 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.event;
+
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.directory.api.ldap.model.constants.SchemaConstants;
+import org.apache.directory.api.ldap.model.entry.Attribute;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.entry.Value;
+import org.apache.directory.api.ldap.model.filter.AndNode;
+import org.apache.directory.api.ldap.model.filter.EqualityNode;
+import org.apache.directory.api.ldap.model.filter.ExprNode;
+import org.apache.directory.api.ldap.model.message.SearchScope;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.api.ldap.model.schema.AttributeType;
+import org.apache.directory.server.core.api.event.NotificationCriteria;
+import org.apache.directory.server.core.api.event.RegistrationEntry;
+
+
+/**
+ * An immutable index of the registrations, used to find the listeners which may be
+ * interested in a change without evaluating the criteria of all of them :
+ * <ul>
+ *   <li>the registrations which filter contains an equality assertion (either the whole
+ *   filter, or one of the children of a top level AND) are indexed by the asserted
+ *   attribute and normalized value. They are candidates only if the entry has this value,
+ *   and their scope is then checked</li>
+ *   <li>the other registrations are stored in a tree of their base Dn, where each node holds
+ *   the registrations which base is the node Dn, per scope. The candidates are found by walking
+ *   down the tree along the changed entry Dn</li>
+ * </ul>
+ * The candidates still have to be checked against their filter.
+ * <br>
+ * The index is rebuilt when a listener is added or removed, which is rare compared to the
+ * changes it's used for.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+class RegistrationIndex
+{
+    /** An empty index */
+    static final RegistrationIndex EMPTY = new RegistrationIndex( Collections.<RegistrationEntry> emptyList() );
+
+    /** All the registrations, in the order they have been added */
+    private final List<RegistrationEntry> registrations;
+
+    /** The position of each registration in the list, used to keep the notification order */
+    private final Map<RegistrationEntry, Integer> positions = new IdentityHashMap<>();
+
+    /** The registrations indexed by the equality assertion key of their filter */
+    private final Map<String, List<RegistrationEntry>> byEquality = new HashMap<>();
+
+    /** The attribute types used in the equality assertions, per OID */
+    private final Map<String, AttributeType> equalityAttributeTypes = new HashMap<>();
+
+    /** The root of the tree of the registrations which don't have an equality assertion */
+    private final DnNode root = new DnNode();
+
+
+    /**
+     * A node of the tree of the base Dns
+     */
+    private static class DnNode
+    {
+        /** The children, per normalized Rdn */
+        private final Map<String, DnNode> children = new HashMap<>( 2 );
+
+        /** The registrations which base is this node, per scope */
+        private final List<RegistrationEntry> objectScope = new ArrayList<>( 0 );
+        private final List<RegistrationEntry> oneLevelScope = new ArrayList<>( 0 );
+        private final List<RegistrationEntry> subtreeScope = new ArrayList<>( 0 );
+    }
+
+
+    /**
+     * Creates a new instance of RegistrationIndex
+     *
+     * @param registrations The registrations to index
+     */
+    RegistrationIndex( List<RegistrationEntry> registrations )
+    {
+        this.registrations = Collections.unmodifiableList( new ArrayList<>( registrations ) );
+
+        for ( RegistrationEntry registration : this.registrations )
+        {
+            positions.put( registration, positions.size() );
+            EqualityNode<?> equality = getIndexableEquality( registration.getCriteria().getFilter() );
+
+            if ( equality != null )
+            {
+                AttributeType attributeType = equality.getAttributeType();
+                String key = getKey( attributeType, equality.getValue() );
+                List<RegistrationEntry> keyed = byEquality.get( key );
+
+                if ( keyed == null )
+                {
+                    keyed = new ArrayList<>( 1 );
+                    byEquality.put( key, keyed );
+                }
+
+                keyed.add( registration );
+                equalityAttributeTypes.put( attributeType.getOid(), attributeType );
+            }
+            else
+            {
+                addToTree( registration );
+            }
+        }
+    }
+
+
+    /**
+     * Adds a registration to the tree of the base Dns
+     */
+    private void addToTree( RegistrationEntry registration )
+    {
+        NotificationCriteria criteria = registration.getCriteria();
+        Dn base = criteria.getBase();
+        DnNode node = root;
+
+        for ( int i = base.size() - 1; i >= 0; i-- )
+        {
+            String rdn = base.getRdn( i ).getNormName();
+            DnNode child = node.children.get( rdn );
+
+            if ( child == null )
+            {
+                child = new DnNode();
+                node.children.put( rdn, child );
+            }
+
+            node = child;
+        }
+
+        switch ( criteria.getScope() )
+        {
+            case OBJECT:
+                node.objectScope.add( registration );
+                break;
+
+            case ONELEVEL:
+                node.oneLevelScope.add( registration );
+                break;
+
+            case SUBTREE:
+                node.subtreeScope.add( registration );
+                break;
+
+            default:
+                throw new IllegalArgumentException( "Unexpected scope " + criteria.getScope() );
+        }
+    }
+
+
+    /**
+     * Finds an equality assertion which has to be true for the filter to match : the filter
+     * itself, or a child of a top level AND, preferably not on the ObjectClass attribute, as
+     * it's not selective.
+     *
+     * @param filter The filter
+     * @return The equality assertion, or null if there is none
+     */
+    private static EqualityNode<?> getIndexableEquality( ExprNode filter )
+    {
+        if ( isIndexable( filter ) )
+        {
+            return ( EqualityNode<?> ) filter;
+        }
+
+        if ( !( filter instanceof AndNode ) )
+        {
+            return null;
+        }
+
+        EqualityNode<?> found = null;
+
+        for ( ExprNode child : ( ( AndNode ) filter ).getChildren() )
+        {
+            if ( isIndexable( child ) )
+            {
+                found = ( EqualityNode<?> ) child;
+
+                if ( !found.getAttributeType().getOid().equals( SchemaConstants.OBJECT_CLASS_AT_OID ) )
+                {
+                    break;
+                }
+            }
+        }
+
+        return found;
+    }
+
+
+    /**
+     * Tells if a node is an equality assertion on a human readable normalized value
+     */
+    private static boolean isIndexable( ExprNode node )
+    {
+        if ( !( node instanceof EqualityNode ) )
+        {
+            return false;
+        }
+
+        EqualityNode<?> equality = ( EqualityNode<?> ) node;
+        AttributeType attributeType = equality.getAttributeType();
+        Value value = equality.getValue();
+
+        return ( attributeType != null ) && ( attributeType.getSyntax() != null )
+            && attributeType.getSyntax().isHumanReadable() && ( value != null ) && value.isHumanReadable()
+            && ( value.getNormalized() != null );
+    }
+
+
+    /**
+     * Computes the key of an attribute value
+     */
+    private static String getKey( AttributeType attributeType, Value value )
+    {
+        return getKey( attributeType.getOid(), value );
+    }
+
+
+    /**
+     * Computes the key of an attribute value, given its attribute type OID
+     */
+    private static String getKey( String oid, Value value )
+    {
+        return oid + '=' + value.getNormalized();
+    }
+
+
+    /**
+     * Lists the registrations which may select a change on an entry : their scope contains the
+     * entry Dn, and their equality assertion, if any, is satisfied by the entry.
+     *
+     * @param dn The changed entry Dn
+     * @param entry The changed entry
+     * @return The candidate registrations, in the order they have been added
+     */
+    List<RegistrationEntry> getCandidates( Dn dn, Entry entry )
+    {
+        if ( registrations.isEmpty() )
+        {
+            return Collections.emptyList();
+        }
+
+        List<RegistrationEntry> candidates = new ArrayList<>();
+
+        // The registrations with an equality assertion the entry satisfies, if in scope
+        if ( !byEquality.isEmpty() && ( entry != null ) )
+        {
+            for ( Map.Entry<String, AttributeType> attributeType : equalityAttributeTypes.entrySet() )
+            {
+                Attribute attribute = entry.get( attributeType.getValue() );
+
+                if ( attribute == null )
+                {
+                    continue;
+                }
+
+                for ( Value value : attribute )
+                {
+                    if ( ( value == null ) || ( value.getNormalized() == null ) )
+                    {
+                        continue;
+                    }
+
+                    List<RegistrationEntry> keyed = byEquality.get( getKey( attributeType.getKey(), value ) );
+
+                    if ( keyed != null )
+                    {
+                        for ( RegistrationEntry registration : keyed )
+                        {
+                            if ( isInScope( registration.getCriteria(), dn ) )
+                            {
+                                candidates.add( registration );
+                            }
+                        }
+                    }
+                }
+            }
+        }
+
+        // The other registrations, which base is the entry Dn or one of its ancestors
+        DnNode node = root;
+        int depth = 0;
+        int size = dn.size();
+
+        while ( node != null )
+        {
+            candidates.addAll( node.subtreeScope );
+
+            if ( depth == size - 1 )
+            {
+                candidates.addAll( node.oneLevelScope );
+            }
+            else if ( depth == size )
+            {
+                candidates.addAll( node.objectScope );
+                break;
+            }
+
+            node = node.children.get( dn.getRdn( size - 1 - depth ).getNormName() );
+            depth++;
+        }
+
+        if ( candidates.size() > 1 )
+        {
+            Collections.sort( candidates, new Comparator<RegistrationEntry>()
+            {
+                @Override
+                public int compare( RegistrationEntry r1, RegistrationEntry r2 )
+                {
+                    return positions.get( r1 ).compareTo( positions.get( r2 ) );
+                }
+            } );
+        }
+
+        return candidates;
+    }
+
+
+    /**
+     * Tells if the scope of a registration contains a Dn
+     */
+    private static boolean isInScope( NotificationCriteria criteria, Dn dn )
+    {
+        Dn base = criteria.getBase();
+        SearchScope scope = criteria.getScope();
+
+        // fix for DIRSERVER-1502
+        return ( ( scope == SearchScope.OBJECT ) && dn.equals( base ) )
+            || ( ( scope == SearchScope.ONELEVEL ) && dn.getParent().equals( base ) )
+            || ( ( scope == SearchScope.SUBTREE ) && ( dn.isDescendantOf( base ) || dn.equals( base ) ) );
+    }
+
+
+    /**
+     * @return All the registrations, in the order they have been added
+     */
+    List<RegistrationEntry> getRegistrations()
+    {
+        return registrations;
+    }
+}
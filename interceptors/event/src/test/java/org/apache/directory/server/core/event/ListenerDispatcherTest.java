@@ -0,0 +1,489 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.event;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import org.apache.directory.api.ldap.model.entry.DefaultEntry;
+import org.apache.directory.api.ldap.model.entry.DefaultModification;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.entry.Modification;
+import org.apache.directory.api.ldap.model.entry.ModificationOperation;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.api.ldap.schema.loader.JarLdifSchemaLoader;
+import org.apache.directory.api.ldap.schema.manager.impl.DefaultSchemaManager;
+import org.apache.directory.api.util.exception.Exceptions;
+import org.apache.directory.server.core.api.DirectoryService;
+import org.apache.directory.server.core.api.event.DirectoryListenerAdapter;
+import org.apache.directory.server.core.api.event.DisconnectableListener;
+import org.apache.directory.server.core.api.event.EventType;
+import org.apache.directory.server.core.api.event.NotificationCriteria;
+import org.apache.directory.server.core.api.event.OverflowPolicy;
+import org.apache.directory.server.core.api.interceptor.context.AddOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.DeleteOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.ModifyOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.OperationContext;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+
+/**
+ * Tests the {@link ListenerDispatcher} class : the bound of the queue, the overflow
+ * policies and the order of the deliveries.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class ListenerDispatcherTest
+{
+    /** the SchemaManager instance */
+    private static SchemaManager schemaManager;
+
+    /** A DirectoryService which only provides the SchemaManager */
+    private static DirectoryService directoryService;
+
+
+    /**
+     * An executor which runs the submitted tasks only when asked to
+     */
+    private static class ManualExecutor implements Executor
+    {
+        private final List<Runnable> tasks = new ArrayList<>();
+
+
+        @Override
+        public void execute( Runnable task )
+        {
+            tasks.add( task );
+        }
+
+
+        /**
+         * Runs the tasks submitted so far, but not the ones they submit
+         */
+        private void runPending()
+        {
+            List<Runnable> pending = new ArrayList<>( tasks );
+            tasks.clear();
+
+            for ( Runnable task : pending )
+            {
+                task.run();
+            }
+        }
+
+
+        /**
+         * Runs the tasks until none is left
+         */
+        private void runAll()
+        {
+            while ( !tasks.isEmpty() )
+            {
+                runPending();
+            }
+        }
+    }
+
+
+    /**
+     * A listener recording the notifications it gets
+     */
+    private static class RecordingListener extends DirectoryListenerAdapter implements DisconnectableListener
+    {
+        private final List<String> events = new ArrayList<>();
+        private final List<OperationContext> contexts = new ArrayList<>();
+        private String disconnectReason;
+
+
+        @Override
+        public void entryAdded( AddOperationContext addContext )
+        {
+            record( EventType.ADD, addContext );
+        }
+
+
+        @Override
+        public void entryDeleted( DeleteOperationContext deleteContext )
+        {
+            record( EventType.DELETE, deleteContext );
+        }
+
+
+        @Override
+        public void entryModified( ModifyOperationContext modifyContext )
+        {
+            record( EventType.MODIFY, modifyContext );
+        }
+
+
+        @Override
+        public void disconnected( String reason )
+        {
+            disconnectReason = reason;
+        }
+
+
+        private void record( EventType type, OperationContext context )
+        {
+            events.add( type + " " + context.getDn().getName() );
+            contexts.add( context );
+        }
+    }
+
+
+    @BeforeClass
+    public static void init() throws Exception
+    {
+        JarLdifSchemaLoader loader = new JarLdifSchemaLoader();
+
+        schemaManager = new DefaultSchemaManager( loader );
+
+        boolean loaded = schemaManager.loadAllEnabled();
+
+        if ( !loaded )
+        {
+            fail( "Schema load failed : " + Exceptions.printErrors( schemaManager.getErrors() ) );
+        }
+
+        directoryService = ( DirectoryService ) Proxy.newProxyInstance( DirectoryService.class.getClassLoader(),
+            new Class<?>[]
+                { DirectoryService.class }, new InvocationHandler()
+                {
+                    @Override
+                    public Object invoke( Object proxy, Method method, Object[] args )
+                    {
+                        if ( "getSchemaManager".equals( method.getName() ) )
+                        {
+                            return schemaManager;
+                        }
+
+                        return null;
+                    }
+                } );
+    }
+
+
+    /**
+     * Registers the listener in a new EventService, and returns its dispatcher
+     */
+    private ListenerDispatcher createDispatcher( RecordingListener listener, Executor executor, int capacity,
+        OverflowPolicy overflowPolicy, DefaultEventService[] eventServices ) throws Exception
+    {
+        DefaultEventService eventService = new DefaultEventService( directoryService, executor, capacity,
+            overflowPolicy );
+        NotificationCriteria criteria = new NotificationCriteria( schemaManager );
+        criteria.setBase( new Dn( schemaManager, "ou=system" ) );
+        eventService.addListener( listener, criteria );
+
+        if ( eventServices != null )
+        {
+            eventServices[0] = eventService;
+        }
+
+        ListenerDispatcher dispatcher = eventService.getDispatcher( listener );
+        assertNotNull( dispatcher );
+
+        return dispatcher;
+    }
+
+
+    private AddOperationContext add( String dn ) throws Exception
+    {
+        return new AddOperationContext( null, new Dn( schemaManager, dn ) );
+    }
+
+
+    private DeleteOperationContext delete( String dn ) throws Exception
+    {
+        return new DeleteOperationContext( null, new Dn( schemaManager, dn ) );
+    }
+
+
+    private ModifyOperationContext modify( String dn, String description ) throws Exception
+    {
+        List<Modification> mods = new ArrayList<>();
+        mods.add( new DefaultModification( ModificationOperation.REPLACE_ATTRIBUTE,
+            schemaManager.getAttributeType( "description" ), description ) );
+
+        ModifyOperationContext modifyContext = new ModifyOperationContext( null, new Dn( schemaManager, dn ), mods );
+        Entry alteredEntry = new DefaultEntry( schemaManager, dn,
+            "objectClass: top",
+            "objectClass: organizationalUnit",
+            "description", description );
+        modifyContext.setAlteredEntry( alteredEntry );
+
+        return modifyContext;
+    }
+
+
+    @Test
+    public void testDefaultPolicyIsDisconnect()
+    {
+        assertEquals( OverflowPolicy.DISCONNECT, new EventInterceptor().getOverflowPolicy() );
+    }
+
+
+    @Test
+    public void testDeliveryOrder() throws Exception
+    {
+        ManualExecutor executor = new ManualExecutor();
+        RecordingListener listener = new RecordingListener();
+        ListenerDispatcher dispatcher = createDispatcher( listener, executor, 10, OverflowPolicy.DISCONNECT, null );
+
+        dispatcher.dispatch( EventType.ADD, add( "ou=a,ou=system" ) );
+        dispatcher.dispatch( EventType.MODIFY, modify( "ou=a,ou=system", "1" ) );
+        dispatcher.dispatch( EventType.ADD, add( "ou=b,ou=system" ) );
+        dispatcher.dispatch( EventType.DELETE, delete( "ou=a,ou=system" ) );
+
+        // Nothing is delivered in the writing thread, and a single task is submitted
+        assertTrue( listener.events.isEmpty() );
+        assertEquals( 1, executor.tasks.size() );
+        assertEquals( 4, dispatcher.getQueueDepth() );
+
+        executor.runAll();
+
+        assertEquals( 4, listener.events.size() );
+        assertEquals( "ADD ou=a,ou=system", listener.events.get( 0 ) );
+        assertEquals( "MODIFY ou=a,ou=system", listener.events.get( 1 ) );
+        assertEquals( "ADD ou=b,ou=system", listener.events.get( 2 ) );
+        assertEquals( "DELETE ou=a,ou=system", listener.events.get( 3 ) );
+        assertEquals( 4, dispatcher.getDeliveredCount() );
+        assertEquals( 0, dispatcher.getQueueDepth() );
+        assertEquals( 4, dispatcher.getMaxQueueDepth() );
+        assertEquals( 0, dispatcher.getDroppedCount() );
+    }
+
+
+    @Test
+    public void testBatchesGiveTheThreadBack() throws Exception
+    {
+        ManualExecutor executor = new ManualExecutor();
+        RecordingListener listener = new RecordingListener();
+        ListenerDispatcher dispatcher = createDispatcher( listener, executor, 1000, OverflowPolicy.DISCONNECT, null );
+
+        for ( int i = 0; i < 100; i++ )
+        {
+            dispatcher.dispatch( EventType.ADD, add( "ou=" + i + ",ou=system" ) );
+        }
+
+        // The first task delivers a batch, and submits itself again
+        executor.runPending();
+        assertTrue( listener.events.size() < 100 );
+        assertEquals( 1, executor.tasks.size() );
+
+        executor.runAll();
+
+        assertEquals( 100, listener.events.size() );
+
+        for ( int i = 0; i < 100; i++ )
+        {
+            assertEquals( "ADD ou=" + i + ",ou=system", listener.events.get( i ) );
+        }
+    }
+
+
+    @Test
+    public void testListenerFailureDoesNotStopTheDeliveries() throws Exception
+    {
+        ManualExecutor executor = new ManualExecutor();
+        final List<String> added = new ArrayList<>();
+        RecordingListener listener = new RecordingListener()
+        {
+            @Override
+            public void entryAdded( AddOperationContext addContext )
+            {
+                added.add( addContext.getDn().getName() );
+
+                if ( added.size() == 1 )
+                {
+                    throw new IllegalStateException( "failing listener" );
+                }
+            }
+        };
+
+        ListenerDispatcher dispatcher = createDispatcher( listener, executor, 10, OverflowPolicy.DISCONNECT, null );
+        dispatcher.dispatch( EventType.ADD, add( "ou=a,ou=system" ) );
+        dispatcher.dispatch( EventType.ADD, add( "ou=b,ou=system" ) );
+        executor.runAll();
+
+        assertEquals( 2, added.size() );
+        assertEquals( 2, dispatcher.getDeliveredCount() );
+    }
+
+
+    @Test
+    public void testDisconnectOnOverflow() throws Exception
+    {
+        ManualExecutor executor = new ManualExecutor();
+        RecordingListener listener = new RecordingListener();
+        DefaultEventService[] eventService = new DefaultEventService[1];
+        ListenerDispatcher dispatcher = createDispatcher( listener, executor, 3, OverflowPolicy.DISCONNECT,
+            eventService );
+
+        for ( int i = 0; i < 3; i++ )
+        {
+            dispatcher.dispatch( EventType.ADD, add( "ou=" + i + ",ou=system" ) );
+        }
+
+        assertFalse( dispatcher.isClosed() );
+        assertEquals( 1, eventService[0].getRegistrationEntries().size() );
+
+        // The queue is full : the listener is removed, and the pending notifications dropped
+        dispatcher.dispatch( EventType.ADD, add( "ou=3,ou=system" ) );
+
+        assertTrue( dispatcher.isClosed() );
+        assertEquals( 0, dispatcher.getQueueDepth() );
+        assertEquals( 1, dispatcher.getDroppedCount() );
+        assertTrue( eventService[0].getRegistrationEntries().isEmpty() );
+        assertNull( eventService[0].getDispatcher( listener ) );
+
+        // The next notifications are ignored
+        dispatcher.dispatch( EventType.ADD, add( "ou=4,ou=system" ) );
+        assertEquals( 0, dispatcher.getQueueDepth() );
+
+        executor.runAll();
+
+        assertTrue( listener.events.isEmpty() );
+        assertNotNull( listener.disconnectReason );
+    }
+
+
+    @Test
+    public void testDropOldestOnOverflow() throws Exception
+    {
+        ManualExecutor executor = new ManualExecutor();
+        RecordingListener listener = new RecordingListener();
+        ListenerDispatcher dispatcher = createDispatcher( listener, executor, 3, OverflowPolicy.DROP_OLDEST, null );
+
+        for ( int i = 0; i < 5; i++ )
+        {
+            dispatcher.dispatch( EventType.ADD, add( "ou=" + i + ",ou=system" ) );
+            assertTrue( dispatcher.getQueueDepth() <= 3 );
+        }
+
+        assertEquals( 3, dispatcher.getQueueDepth() );
+        assertEquals( 3, dispatcher.getMaxQueueDepth() );
+        assertEquals( 2, dispatcher.getDroppedCount() );
+        assertFalse( dispatcher.isClosed() );
+
+        executor.runAll();
+
+        assertEquals( 3, listener.events.size() );
+        assertEquals( "ADD ou=2,ou=system", listener.events.get( 0 ) );
+        assertEquals( "ADD ou=3,ou=system", listener.events.get( 1 ) );
+        assertEquals( "ADD ou=4,ou=system", listener.events.get( 2 ) );
+        assertNull( listener.disconnectReason );
+    }
+
+
+    @Test
+    public void testCoalesceModifications() throws Exception
+    {
+        ManualExecutor executor = new ManualExecutor();
+        RecordingListener listener = new RecordingListener();
+        ListenerDispatcher dispatcher = createDispatcher( listener, executor, 3, OverflowPolicy.COALESCE_BY_DN,
+            null );
+
+        ModifyOperationContext first = modify( "ou=a,ou=system", "1" );
+        ModifyOperationContext second = modify( "ou=a,ou=system", "2" );
+        ModifyOperationContext third = modify( "ou=a,ou=system", "3" );
+
+        dispatcher.dispatch( EventType.MODIFY, first );
+        dispatcher.dispatch( EventType.ADD, add( "ou=b,ou=system" ) );
+        dispatcher.dispatch( EventType.ADD, add( "ou=c,ou=system" ) );
+
+        // The queue is full : the modifications of the same entry are merged
+        dispatcher.dispatch( EventType.MODIFY, second );
+        dispatcher.dispatch( EventType.MODIFY, third );
+
+        assertEquals( 3, dispatcher.getQueueDepth() );
+        assertEquals( 2, dispatcher.getCoalescedCount() );
+        assertEquals( 0, dispatcher.getDroppedCount() );
+
+        // The contexts shared with the other listeners are left untouched
+        assertEquals( 1, first.getModItems().size() );
+        assertEquals( 1, second.getModItems().size() );
+
+        executor.runAll();
+
+        assertEquals( 3, listener.events.size() );
+        assertEquals( "MODIFY ou=a,ou=system", listener.events.get( 0 ) );
+        assertEquals( "ADD ou=b,ou=system", listener.events.get( 1 ) );
+        assertEquals( "ADD ou=c,ou=system", listener.events.get( 2 ) );
+
+        ModifyOperationContext merged = ( ModifyOperationContext ) listener.contexts.get( 0 );
+        assertNotSame( first, merged );
+        assertEquals( first.getDn(), merged.getDn() );
+
+        // All the modifications are delivered, in order, with the latest state of the entry
+        List<Modification> modItems = merged.getModItems();
+        assertEquals( 3, modItems.size() );
+        assertSame( first.getModItems().get( 0 ), modItems.get( 0 ) );
+        assertSame( second.getModItems().get( 0 ), modItems.get( 1 ) );
+        assertSame( third.getModItems().get( 0 ), modItems.get( 2 ) );
+        assertSame( third.getAlteredEntry(), merged.getAlteredEntry() );
+    }
+
+
+    @Test
+    public void testCoalesceOnlyPendingModifications() throws Exception
+    {
+        ManualExecutor executor = new ManualExecutor();
+        RecordingListener listener = new RecordingListener();
+        ListenerDispatcher dispatcher = createDispatcher( listener, executor, 3, OverflowPolicy.COALESCE_BY_DN,
+            null );
+
+        dispatcher.dispatch( EventType.MODIFY, modify( "ou=a,ou=system", "1" ) );
+        dispatcher.dispatch( EventType.DELETE, delete( "ou=a,ou=system" ) );
+        dispatcher.dispatch( EventType.ADD, add( "ou=a,ou=system" ) );
+
+        // The pending modification is followed by a delete : it can't be coalesced, and the
+        // oldest notification is dropped
+        dispatcher.dispatch( EventType.MODIFY, modify( "ou=a,ou=system", "2" ) );
+
+        assertEquals( 3, dispatcher.getQueueDepth() );
+        assertEquals( 0, dispatcher.getCoalescedCount() );
+        assertEquals( 1, dispatcher.getDroppedCount() );
+
+        executor.runAll();
+
+        assertEquals( 3, listener.events.size() );
+        assertEquals( "DELETE ou=a,ou=system", listener.events.get( 0 ) );
+        assertEquals( "ADD ou=a,ou=system", listener.events.get( 1 ) );
+        assertEquals( "MODIFY ou=a,ou=system", listener.events.get( 2 ) );
+        assertEquals( 1, ( ( ModifyOperationContext ) listener.contexts.get( 2 ) ).getModItems().size() );
+    }
+}
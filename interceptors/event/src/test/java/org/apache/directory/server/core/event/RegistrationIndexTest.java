@@ -0,0 +1,319 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.event;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.directory.api.ldap.model.entry.DefaultEntry;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.message.SearchScope;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.api.ldap.schema.loader.JarLdifSchemaLoader;
+import org.apache.directory.api.ldap.schema.manager.impl.DefaultSchemaManager;
+import org.apache.directory.api.util.exception.Exceptions;
+import org.apache.directory.server.core.api.event.DirectoryListenerAdapter;
+import org.apache.directory.server.core.api.event.Evaluator;
+import org.apache.directory.server.core.api.event.ExpressionEvaluator;
+import org.apache.directory.server.core.api.event.NotificationCriteria;
+import org.apache.directory.server.core.api.event.RegistrationEntry;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+
+/**
+ * Tests the {@link RegistrationIndex} class : the registrations it selects once their
+ * filter has been checked must be the ones a full scan of the registrations selects.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class RegistrationIndexTest
+{
+    /** the SchemaManager instance */
+    private static SchemaManager schemaManager;
+
+    /** The evaluator used to check the filters */
+    private static Evaluator evaluator;
+
+    /** The filters of the registrations */
+    private static final String[] FILTERS =
+        {
+            "(cn=foo)",
+            "(cn=FOO)",
+            "(sn=bar)",
+            "(&(objectClass=person)(sn=bar))",
+            "(&(objectClass=person)(objectClass=top))",
+            "(objectClass=organizationalUnit)",
+            "(cn=*)",
+            "(objectClass=*)",
+            "(cn=fo*)",
+            "(|(cn=foo)(sn=other))",
+            "(!(cn=foo))",
+            "(&(cn=*)(!(sn=bar)))"
+        };
+
+    /** The bases of the registrations */
+    private static final String[] BASES =
+        {
+            "ou=system",
+            "ou=users,ou=system",
+            "cn=foo,ou=users,ou=system",
+            "ou=groups,ou=system",
+            "dc=example,dc=com"
+        };
+
+    /** The scopes of the registrations */
+    private static final SearchScope[] SCOPES =
+        {
+            SearchScope.OBJECT,
+            SearchScope.ONELEVEL,
+            SearchScope.SUBTREE
+        };
+
+
+    @BeforeClass
+    public static void init() throws Exception
+    {
+        JarLdifSchemaLoader loader = new JarLdifSchemaLoader();
+
+        schemaManager = new DefaultSchemaManager( loader );
+
+        boolean loaded = schemaManager.loadAllEnabled();
+
+        if ( !loaded )
+        {
+            fail( "Schema load failed : " + Exceptions.printErrors( schemaManager.getErrors() ) );
+        }
+
+        evaluator = new ExpressionEvaluator( schemaManager );
+    }
+
+
+    private RegistrationEntry createRegistration( String filter, String base, SearchScope scope ) throws Exception
+    {
+        NotificationCriteria criteria = new NotificationCriteria( schemaManager );
+        criteria.setFilter( filter );
+        criteria.setBase( new Dn( schemaManager, base ) );
+        criteria.setScope( scope );
+
+        return new RegistrationEntry( new DirectoryListenerAdapter()
+        {
+        }, criteria );
+    }
+
+
+    private List<RegistrationEntry> createAllRegistrations() throws Exception
+    {
+        List<RegistrationEntry> registrations = new ArrayList<>();
+
+        for ( String filter : FILTERS )
+        {
+            for ( String base : BASES )
+            {
+                for ( SearchScope scope : SCOPES )
+                {
+                    registrations.add( createRegistration( filter, base, scope ) );
+                }
+            }
+        }
+
+        // Shuffle them, so that the order does not follow the index structure
+        Collections.shuffle( registrations, new Random( 42 ) );
+
+        return registrations;
+    }
+
+
+    private List<Entry> createEntries() throws Exception
+    {
+        List<Entry> entries = new ArrayList<>();
+
+        entries.add( new DefaultEntry( schemaManager, "ou=system",
+            "objectClass: top",
+            "objectClass: organizationalUnit",
+            "ou: system" ) );
+
+        entries.add( new DefaultEntry( schemaManager, "ou=users,ou=system",
+            "objectClass: top",
+            "objectClass: organizationalUnit",
+            "ou: users" ) );
+
+        entries.add( new DefaultEntry( schemaManager, "cn=foo,ou=users,ou=system",
+            "objectClass: top",
+            "objectClass: person",
+            "cn: Foo",
+            "sn: Bar" ) );
+
+        entries.add( new DefaultEntry( schemaManager, "cn=fool,cn=foo,ou=users,ou=system",
+            "objectClass: top",
+            "objectClass: person",
+            "cn: fool",
+            "cn: foo",
+            "sn: other" ) );
+
+        entries.add( new DefaultEntry( schemaManager, "cn=other,ou=groups,ou=system",
+            "objectClass: top",
+            "objectClass: person",
+            "cn: other",
+            "sn: bar" ) );
+
+        entries.add( new DefaultEntry( schemaManager, "dc=example,dc=com",
+            "objectClass: top",
+            "objectClass: domain",
+            "dc: example" ) );
+
+        entries.add( new DefaultEntry( schemaManager, "cn=foo,dc=example,dc=com",
+            "objectClass: top",
+            "objectClass: person",
+            "cn: foo",
+            "sn: bar" ) );
+
+        entries.add( new DefaultEntry( schemaManager, "cn=foo,ou=other,dc=com",
+            "objectClass: top",
+            "objectClass: person",
+            "cn: foo",
+            "sn: bar" ) );
+
+        return entries;
+    }
+
+
+    /**
+     * The selection done before the index existed : every registration is checked
+     */
+    private List<RegistrationEntry> fullScan( List<RegistrationEntry> registrations, Dn dn, Entry entry )
+        throws Exception
+    {
+        List<RegistrationEntry> selecting = new ArrayList<>();
+
+        for ( RegistrationEntry registration : registrations )
+        {
+            NotificationCriteria criteria = registration.getCriteria();
+            Dn base = criteria.getBase();
+            SearchScope scope = criteria.getScope();
+
+            boolean inscope = ( ( scope == SearchScope.OBJECT ) && dn.equals( base ) )
+                || ( ( scope == SearchScope.ONELEVEL ) && dn.getParent().equals( base ) )
+                || ( ( scope == SearchScope.SUBTREE ) && ( dn.isDescendantOf( base ) || dn.equals( base ) ) );
+
+            if ( inscope && evaluator.evaluate( criteria.getFilter(), base, entry ) )
+            {
+                selecting.add( registration );
+            }
+        }
+
+        return selecting;
+    }
+
+
+    /**
+     * The selection done with the index : the candidates are checked against their filter
+     */
+    private List<RegistrationEntry> indexed( RegistrationIndex index, Dn dn, Entry entry ) throws Exception
+    {
+        List<RegistrationEntry> selecting = new ArrayList<>();
+
+        for ( RegistrationEntry registration : index.getCandidates( dn, entry ) )
+        {
+            NotificationCriteria criteria = registration.getCriteria();
+
+            if ( evaluator.evaluate( criteria.getFilter(), criteria.getBase(), entry ) )
+            {
+                selecting.add( registration );
+            }
+        }
+
+        return selecting;
+    }
+
+
+    @Test
+    public void testEmptyIndex() throws Exception
+    {
+        Entry entry = createEntries().get( 2 );
+
+        assertTrue( RegistrationIndex.EMPTY.getCandidates( entry.getDn(), entry ).isEmpty() );
+    }
+
+
+    @Test
+    public void testSameSelectionAsFullScan() throws Exception
+    {
+        List<RegistrationEntry> registrations = createAllRegistrations();
+        RegistrationIndex index = new RegistrationIndex( registrations );
+
+        for ( Entry entry : createEntries() )
+        {
+            Dn dn = entry.getDn();
+            List<RegistrationEntry> expected = fullScan( registrations, dn, entry );
+
+            // The same registrations, in the same order
+            assertEquals( dn.getName(), expected, indexed( index, dn, entry ) );
+        }
+    }
+
+
+    @Test
+    public void testEqualityCandidates() throws Exception
+    {
+        RegistrationEntry fooSubtree = createRegistration( "(cn=foo)", "ou=system", SearchScope.SUBTREE );
+        RegistrationEntry fooObject = createRegistration( "(cn=foo)", "ou=users,ou=system", SearchScope.OBJECT );
+        RegistrationEntry barOneLevel = createRegistration( "(&(objectClass=person)(sn=bar))", "ou=users,ou=system",
+            SearchScope.ONELEVEL );
+        RegistrationEntry other = createRegistration( "(cn=other)", "ou=system", SearchScope.SUBTREE );
+        RegistrationIndex index = new RegistrationIndex( Arrays.asList( fooSubtree, fooObject,
+            barOneLevel, other ) );
+
+        Entry entry = createEntries().get( 2 );
+
+        // Only the registrations which value is in the entry, and which scope contains it
+        List<RegistrationEntry> candidates = index.getCandidates( entry.getDn(), entry );
+        assertEquals( Arrays.asList( fooSubtree, barOneLevel ), candidates );
+    }
+
+
+    @Test
+    public void testFallbackCandidates() throws Exception
+    {
+        // No equality assertion to index : these registrations are selected by their scope only
+        RegistrationEntry presence = createRegistration( "(cn=*)", "ou=system", SearchScope.SUBTREE );
+        RegistrationEntry substring = createRegistration( "(cn=fo*)", "ou=users,ou=system", SearchScope.ONELEVEL );
+        RegistrationEntry or = createRegistration( "(|(cn=foo)(sn=bar))", "cn=foo,ou=users,ou=system",
+            SearchScope.OBJECT );
+        RegistrationEntry not = createRegistration( "(!(cn=foo))", "ou=groups,ou=system", SearchScope.SUBTREE );
+        RegistrationEntry deeper = createRegistration( "(cn=*)", "cn=foo,ou=users,ou=system", SearchScope.ONELEVEL );
+        RegistrationIndex index = new RegistrationIndex( Arrays.asList( presence, substring, or, not,
+            deeper ) );
+
+        Entry entry = createEntries().get( 2 );
+
+        List<RegistrationEntry> candidates = index.getCandidates( entry.getDn(), entry );
+        assertEquals( Arrays.asList( presence, substring, or ), candidates );
+    }
+}
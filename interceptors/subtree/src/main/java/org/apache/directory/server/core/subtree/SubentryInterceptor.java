@@ -67,6 +67,7 @@ import org.apache.directory.server.core.api.filtering.EntryFilteringCursor;
 import org.apache.directory.server.core.api.interceptor.BaseInterceptor;
 import org.apache.directory.server.core.api.interceptor.context.AddOperationContext;
 import org.apache.directory.server.core.api.interceptor.context.DeleteOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.FilteringOperationContext;
 import org.apache.directory.server.core.api.interceptor.context.LookupOperationContext;
 import org.apache.directory.server.core.api.interceptor.context.ModifyOperationContext;
 import org.apache.directory.server.core.api.interceptor.context.MoveAndRenameOperationContext;
@@ -77,6 +78,7 @@ import org.apache.directory.server.core.api.interceptor.context.SearchOperationC
 import org.apache.directory.server.core.api.partition.Partition;
 import org.apache.directory.server.core.api.partition.PartitionNexus;
 import org.apache.directory.server.core.api.subtree.SubentryCache;
+import org.apache.directory.server.core.api.subtree.SubentryUtils;
 import org.apache.directory.server.core.api.subtree.SubtreeEvaluator;
 import org.apache.directory.server.i18n.I18n;
 import org.slf4j.Logger;
@@ -105,6 +107,9 @@ public class SubentryInterceptor extends BaseInterceptor
     /** A reference to the nexus for direct backend operations */
     private PartitionNexus nexus;
 
+    /** The SubentryUtils instance */
+    private SubentryUtils subentryUtils;
+
     /** An enum used for the entries update */
     private enum OperationEnum
     {
@@ -190,6 +195,33 @@ public class SubentryInterceptor extends BaseInterceptor
         }
     }
 
+    /**
+     * SearchResultFilter used to inject the virtual subentry operational attributes.
+     */
+    private class VirtualSubentryAttributesFilter implements EntryFilter
+    {
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public boolean accept( SearchOperationContext searchContext, Entry entry ) throws LdapException
+        {
+            addVirtualSubentryAttributes( searchContext, entry );
+
+            return true;
+        }
+
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public String toString( String tabs )
+        {
+            return tabs + "VirtualSubentryAttributesFilter";
+        }
+    }
+
 
     //-------------------------------------------------------------------------------------------
     // Interceptor initialization
@@ -205,6 +237,7 @@ public class SubentryInterceptor extends BaseInterceptor
         super.init( directoryService );
 
         nexus = directoryService.getPartitionNexus();
+        subentryUtils = new SubentryUtils( directoryService );
 
         ssParser = new SubtreeSpecificationParser( schemaManager );
         AttributeType ocAt = directoryService.getAtProvider().getObjectClass();
@@ -351,6 +384,60 @@ public class SubentryInterceptor extends BaseInterceptor
     }
 
 
+    /**
+     * Injects the virtual subentry operational attributes requested by an operation into an
+     * entry read from the backend. They replace the values which may have been stored into the
+     * entry before the virtual attributes were enabled.
+     *
+     * @param opContext The operation context
+     * @param entry The entry to update
+     * @throws LdapException If the attributes can't be computed
+     */
+    private void addVirtualSubentryAttributes( FilteringOperationContext opContext, Entry entry )
+        throws LdapException
+    {
+        // A subentry is not selected by the subentries
+        if ( entry.contains( directoryService.getAtProvider().getObjectClass(), subentryOC ) )
+        {
+            return;
+        }
+
+        Entry originalEntry = entry;
+
+        if ( entry instanceof ClonedServerEntry )
+        {
+            originalEntry = ( ( ClonedServerEntry ) entry ).getOriginalEntry();
+        }
+
+        Entry subentryAttributes = null;
+
+        for ( AttributeType attributeType : directoryService.getAtProvider().getSubentryOperationalAttributes() )
+        {
+            if ( !opContext.contains( schemaManager, attributeType ) )
+            {
+                continue;
+            }
+
+            if ( subentryAttributes == null )
+            {
+                subentryAttributes = subentryUtils.getVirtualSubentryAttributes( originalEntry );
+            }
+
+            Attribute attribute = subentryAttributes.get( attributeType );
+
+            if ( attribute != null )
+            {
+                entry.put( attribute.clone() );
+            }
+            else if ( !attributeType.equals( directoryService.getAtProvider().getSubschemaSubentry() ) )
+            {
+                // The subschemaSubentry is not only set by the subentries
+                entry.removeAttributes( attributeType );
+            }
+        }
+    }
+
+
     /**
      * Update all the entries under an AP adding the
      */
@@ -969,8 +1056,11 @@ public class SubentryInterceptor extends BaseInterceptor
             Dn baseDn = apDn;
             baseDn = baseDn.add( subentry.getSubtreeSpecification().getBase() );
 
-            updateEntries( addContext, OperationEnum.ADD, apDn, subentry.getSubtreeSpecification(),
-                baseDn, operationalAttributes );
+            if ( !directoryService.isVirtualSubentryAttributesEnabled() )
+            {
+                updateEntries( addContext, OperationEnum.ADD, apDn, subentry.getSubtreeSpecification(),
+                    baseDn, operationalAttributes );
+            }
 
             // Store the newly modified entry into the context for later use in interceptor
             // just in case
@@ -984,43 +1074,47 @@ public class SubentryInterceptor extends BaseInterceptor
             // We brutally check *all* the subentries, as we don't hold a hierarchy
             // of AP
             // TODO : add a hierarchy of subentries
-            for ( Dn subentryDn : directoryService.getSubentryCache() )
+            // The virtual subentry operational attributes are computed when the entry is read
+            if ( !directoryService.isVirtualSubentryAttributesEnabled() )
             {
-                Dn apDn = subentryDn.getParent();
-
-                // No need to evaluate the entry if it's not below an AP.
-                if ( dn.isDescendantOf( apDn ) )
+                for ( Dn subentryDn : directoryService.getSubentryCache() )
                 {
-                    Subentry subentry = directoryService.getSubentryCache().getSubentry( subentryDn );
-                    SubtreeSpecification ss = subentry.getSubtreeSpecification();
+                    Dn apDn = subentryDn.getParent();
 
-                    // Now, evaluate the entry wrt the subentry ss
-                    // and inject a ref to the subentry if it evaluates to true
-                    if ( directoryService.getEvaluator().evaluate( ss, apDn, dn, entry ) )
+                    // No need to evaluate the entry if it's not below an AP.
+                    if ( dn.isDescendantOf( apDn ) )
                     {
+                        Subentry subentry = directoryService.getSubentryCache().getSubentry( subentryDn );
+                        SubtreeSpecification ss = subentry.getSubtreeSpecification();
 
-                        if ( subentry.isAccessControlAdminRole() )
+                        // Now, evaluate the entry wrt the subentry ss
+                        // and inject a ref to the subentry if it evaluates to true
+                        if ( directoryService.getEvaluator().evaluate( ss, apDn, dn, entry ) )
                         {
-                            setOperationalAttribute( entry, subentryDn, directoryService.getAtProvider()
-                                .getAccessControlSubentries() );
-                        }
 
-                        if ( subentry.isSchemaAdminRole() )
-                        {
-                            setOperationalAttribute( entry, subentryDn, directoryService.getAtProvider()
-                                .getSubschemaSubentry() );
-                        }
-
-                        if ( subentry.isCollectiveAdminRole() )
-                        {
-                            setOperationalAttribute( entry, subentryDn, directoryService.getAtProvider()
-                                .getCollectiveAttributeSubentries() );
-                        }
-
-                        if ( subentry.isTriggersAdminRole() )
-                        {
-                            setOperationalAttribute( entry, subentryDn, directoryService.getAtProvider()
-                                .getTriggerExecutionSubentries() );
+                            if ( subentry.isAccessControlAdminRole() )
+                            {
+                                setOperationalAttribute( entry, subentryDn, directoryService.getAtProvider()
+                                    .getAccessControlSubentries() );
+                            }
+
+                            if ( subentry.isSchemaAdminRole() )
+                            {
+                                setOperationalAttribute( entry, subentryDn, directoryService.getAtProvider()
+                                    .getSubschemaSubentry() );
+                            }
+
+                            if ( subentry.isCollectiveAdminRole() )
+                            {
+                                setOperationalAttribute( entry, subentryDn, directoryService.getAtProvider()
+                                    .getCollectiveAttributeSubentries() );
+                            }
+
+                            if ( subentry.isTriggersAdminRole() )
+                            {
+                                setOperationalAttribute( entry, subentryDn, directoryService.getAtProvider()
+                                    .getTriggerExecutionSubentries() );
+                            }
                         }
                     }
                 }
@@ -1064,8 +1158,11 @@ public class SubentryInterceptor extends BaseInterceptor
             baseDn = baseDn.add( removedSubentry.getSubtreeSpecification().getBase() );
 
             // Remove all the references to this removed subentry from all the selected entries
-            updateEntries( deleteContext, OperationEnum.REMOVE, apDn,
-                removedSubentry.getSubtreeSpecification(), baseDn, null );
+            if ( !directoryService.isVirtualSubentryAttributesEnabled() )
+            {
+                updateEntries( deleteContext, OperationEnum.REMOVE, apDn,
+                    removedSubentry.getSubtreeSpecification(), baseDn, null );
+            }
 
             // Update the cache
             directoryService.getSubentryCache().removeSubentry( dn );
@@ -1141,6 +1238,12 @@ public class SubentryInterceptor extends BaseInterceptor
 
             next( modifyContext );
 
+            // The virtual subentry operational attributes of the selected entries are computed when read
+            if ( directoryService.isVirtualSubentryAttributesEnabled() )
+            {
+                return;
+            }
+
             // search for all entries selected by the old SS and remove references to subentry
             Dn apName = dn.getParent();
             Dn oldBaseDn = apName;
@@ -1245,7 +1348,7 @@ public class SubentryInterceptor extends BaseInterceptor
         {
             next( modifyContext );
 
-            if ( !containsSubentryOC )
+            if ( !containsSubentryOC && !directoryService.isVirtualSubentryAttributesEnabled() )
             {
                 Entry newEntry = modifyContext.getAlteredEntry();
 
@@ -1326,6 +1429,12 @@ public class SubentryInterceptor extends BaseInterceptor
 
             next( moveContext );
 
+            // The virtual subentry operational attributes of the selected entries are computed when read
+            if ( directoryService.isVirtualSubentryAttributesEnabled() )
+            {
+                return;
+            }
+
             subentry = directoryService.getSubentryCache().getSubentry( newName );
 
             ExprNode filter = new PresenceNode( directoryService.getAtProvider().getObjectClass() );
@@ -1400,6 +1509,12 @@ public class SubentryInterceptor extends BaseInterceptor
             // Move the entry
             next( moveContext );
 
+            // The virtual subentry operational attributes of the entry are computed when read
+            if ( directoryService.isVirtualSubentryAttributesEnabled() )
+            {
+                return;
+            }
+
             // calculate the new Dn now for use below to modify subentry operational
             // attributes contained within this regular entry with name changes
             Dn newDn = moveContext.getNewDn();
@@ -1448,6 +1563,12 @@ public class SubentryInterceptor extends BaseInterceptor
 
             next( moveAndRenameContext );
 
+            // The virtual subentry operational attributes of the selected entries are computed when read
+            if ( directoryService.isVirtualSubentryAttributesEnabled() )
+            {
+                return;
+            }
+
             subentry = directoryService.getSubentryCache().getSubentry( newName );
 
             ExprNode filter = new PresenceNode( directoryService.getAtProvider().getObjectClass() );
@@ -1514,6 +1635,12 @@ public class SubentryInterceptor extends BaseInterceptor
 
             next( moveAndRenameContext );
 
+            // The virtual subentry operational attributes of the entry are computed when read
+            if ( directoryService.isVirtualSubentryAttributesEnabled() )
+            {
+                return;
+            }
+
             // calculate the new Dn now for use below to modify subentry operational
             // attributes contained within this regular entry with name changes
             Dn newDn = moveAndRenameContext.getNewDn();
@@ -1557,6 +1684,12 @@ public class SubentryInterceptor extends BaseInterceptor
             directoryService.getSubentryCache().addSubentry( newName, subentry );
             next( renameContext );
 
+            // The virtual subentry operational attributes of the selected entries are computed when read
+            if ( directoryService.isVirtualSubentryAttributesEnabled() )
+            {
+                return;
+            }
+
             subentry = directoryService.getSubentryCache().getSubentry( newName );
             ExprNode filter = new PresenceNode( directoryService.getAtProvider().getObjectClass() );
             SearchControls controls = new SearchControls();
@@ -1620,6 +1753,12 @@ public class SubentryInterceptor extends BaseInterceptor
 
             next( renameContext );
 
+            // The virtual subentry operational attributes of the entry are computed when read
+            if ( directoryService.isVirtualSubentryAttributesEnabled() )
+            {
+                return;
+            }
+
             // calculate the new Dn now for use below to modify subentry operational
             // attributes contained within this regular entry with name changes
             Dn newName = renameContext.getNewDn();
@@ -1637,6 +1776,23 @@ public class SubentryInterceptor extends BaseInterceptor
     }
 
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Entry lookup( LookupOperationContext lookupContext ) throws LdapException
+    {
+        Entry entry = next( lookupContext );
+
+        if ( directoryService.isVirtualSubentryAttributesEnabled() && ( entry != null ) )
+        {
+            addVirtualSubentryAttributes( lookupContext, entry );
+        }
+
+        return entry;
+    }
+
+
     /**
      * {@inheritDoc}
      */
@@ -1645,6 +1801,11 @@ public class SubentryInterceptor extends BaseInterceptor
     {
         EntryFilteringCursor cursor = next( searchContext );
 
+        if ( directoryService.isVirtualSubentryAttributesEnabled() )
+        {
+            cursor.addEntryFilter( new VirtualSubentryAttributesFilter() );
+        }
+
         // object scope searches by default return subentries
         if ( searchContext.getScope() == SearchScope.OBJECT )
         {
@@ -0,0 +1,298 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.partition.impl.btree.jdbm;
+
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * Groups the log synchronizations of concurrent JDBM commits. Each committed transaction
+ * gets a ticket, and waits until a log synchronization covering this ticket has been done.
+ * The first waiting committer becomes the leader : it waits for a short commit window
+ * (or until the batch is full), so that other committers can join, then synchronizes the
+ * log once for all of them, and releases them together.
+ * <br>
+ * The commits must be registered while the partition is write locked, but the wait must
+ * be done once the lock has been released, otherwise no other commit could join the batch.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class JdbmGroupCommit
+{
+    /** A logger for this class */
+    private static final Logger LOG = LoggerFactory.getLogger( JdbmGroupCommit.class );
+
+    /** The object in charge of the log synchronization */
+    private final LogSynchronizer logSynchronizer;
+
+    /** The maximum time the leader waits for other commits to join the batch, in nanoseconds */
+    private final long maxLatency;
+
+    /** The maximum number of commits in a batch */
+    private final int maxBatchSize;
+
+    /** The last ticket delivered */
+    private long lastTicket;
+
+    /** The last ticket which commit is on disk */
+    private long lastSynced;
+
+    /** Tells if a leader is currently waiting for the commit window or synchronizing the log */
+    private boolean leaderActive;
+
+    /** The first and last tickets of the last batch which synchronization failed */
+    private long failedBatchStart = -1L;
+    private long failedBatchEnd = -1L;
+
+    /** The number of commits synchronized so far */
+    private long commitCount;
+
+    /** The number of log synchronizations done so far */
+    private long syncCount;
+
+
+    /**
+     * The operation which flushes the committed transactions on disk
+     */
+    public interface LogSynchronizer
+    {
+        /**
+         * Synchronize the log
+         *
+         * @throws IOException If the log can't be synchronized
+         */
+        void synchronizeLog() throws IOException;
+    }
+
+
+    /**
+     * Creates a new instance of JdbmGroupCommit
+     *
+     * @param logSynchronizer The object in charge of the log synchronization
+     * @param maxLatency The maximum time a commit waits for other commits to join its batch, in milliseconds
+     * @param maxBatchSize The maximum number of commits in a batch
+     */
+    public JdbmGroupCommit( LogSynchronizer logSynchronizer, int maxLatency, int maxBatchSize )
+    {
+        this.logSynchronizer = logSynchronizer;
+        this.maxLatency = TimeUnit.MILLISECONDS.toNanos( Math.max( 0, maxLatency ) );
+        this.maxBatchSize = Math.max( 1, maxBatchSize );
+    }
+
+
+    /**
+     * Registers a commit. It must be called once the transaction has been committed
+     * in the record manager.
+     *
+     * @return The ticket to wait for
+     */
+    public synchronized long register()
+    {
+        lastTicket++;
+
+        if ( lastTicket - lastSynced >= maxBatchSize )
+        {
+            // The batch is full : wake up the leader
+            notifyAll();
+        }
+
+        return lastTicket;
+    }
+
+
+    /**
+     * Waits until a commit is on disk. The caller may be elected to synchronize the
+     * log for all the pending commits.
+     *
+     * @param ticket The ticket returned when the commit was registered
+     * @throws IOException If the log synchronization failed
+     */
+    public void awaitSync( long ticket ) throws IOException
+    {
+        long batchStart;
+        long batchEnd;
+        boolean interrupted = false;
+
+        try
+        {
+            synchronized ( this )
+            {
+                while ( true )
+                {
+                    if ( lastSynced >= ticket )
+                    {
+                        checkFailure( ticket );
+
+                        return;
+                    }
+
+                    if ( !leaderActive )
+                    {
+                        break;
+                    }
+
+                    interrupted |= waitUninterruptibly( 0L );
+                }
+
+                // We are the leader : give the other commits a chance to join the batch
+                leaderActive = true;
+                long deadline = System.nanoTime() + maxLatency;
+                long remaining = maxLatency;
+
+                while ( ( lastTicket - lastSynced < maxBatchSize ) && ( remaining > 0L ) )
+                {
+                    interrupted |= waitUninterruptibly( remaining );
+                    remaining = deadline - System.nanoTime();
+                }
+
+                batchStart = lastSynced + 1;
+                batchEnd = lastTicket;
+            }
+
+            IOException failure = null;
+
+            try
+            {
+                logSynchronizer.synchronizeLog();
+            }
+            catch ( IOException ioe )
+            {
+                LOG.error( "Failed to synchronize the log for commits {} to {} : {}", batchStart, batchEnd,
+                    ioe.getMessage() );
+                failure = ioe;
+            }
+
+            synchronized ( this )
+            {
+                if ( failure != null )
+                {
+                    failedBatchStart = batchStart;
+                    failedBatchEnd = batchEnd;
+                }
+
+                commitCount += batchEnd - batchStart + 1;
+                syncCount++;
+                lastSynced = batchEnd;
+                leaderActive = false;
+                notifyAll();
+            }
+
+            if ( failure != null )
+            {
+                throw failure;
+            }
+        }
+        finally
+        {
+            if ( interrupted )
+            {
+                // Restore the interruption status
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+
+    /**
+     * Throws an exception if the batch a ticket belongs to could not be synchronized
+     */
+    private void checkFailure( long ticket ) throws IOException
+    {
+        if ( ( ticket >= failedBatchStart ) && ( ticket <= failedBatchEnd ) )
+        {
+            throw new IOException( "The log synchronization failed for commit " + ticket );
+        }
+    }
+
+
+    /**
+     * Waits on this monitor, ignoring the interruptions : the commit is already
+     * done, we have to wait for its synchronization. Returns true if the thread
+     * has been interrupted.
+     */
+    private boolean waitUninterruptibly( long nanos )
+    {
+        try
+        {
+            if ( nanos == 0L )
+            {
+                wait();
+            }
+            else
+            {
+                TimeUnit.NANOSECONDS.timedWait( this, nanos );
+            }
+
+            return false;
+        }
+        catch ( InterruptedException ie )
+        {
+            return true;
+        }
+    }
+
+
+    /**
+     * @return The number of commits synchronized so far
+     */
+    public synchronized long getCommitCount()
+    {
+        return commitCount;
+    }
+
+
+    /**
+     * @return The number of log synchronizations done so far
+     */
+    public synchronized long getSyncCount()
+    {
+        return syncCount;
+    }
+
+
+    /**
+     * @return The average number of commits per log synchronization
+     */
+    public synchronized double getCommitsPerSync()
+    {
+        if ( syncCount == 0L )
+        {
+            return 0d;
+        }
+
+        return ( double ) commitCount / syncCount;
+    }
+
+
+    /**
+     * @see Object#toString()
+     */
+    @Override
+    public synchronized String toString()
+    {
+        return "JdbmGroupCommit[maxLatency=" + TimeUnit.NANOSECONDS.toMillis( maxLatency ) + "ms, maxBatchSize="
+            + maxBatchSize + ", commits=" + commitCount + ", syncs=" + syncCount + "]";
+    }
+}
@@ -27,6 +27,7 @@ import java.net.URI;
 import jdbm.RecordManager;
 import jdbm.helper.ByteArraySerializer;
 
+import org.apache.directory.api.ldap.model.constants.SchemaConstants;
 import org.apache.directory.api.ldap.model.cursor.Cursor;
 import org.apache.directory.api.ldap.model.cursor.CursorException;
 import org.apache.directory.api.ldap.model.cursor.EmptyCursor;
@@ -43,6 +44,7 @@ import org.apache.directory.server.core.partition.impl.btree.IndexCursorAdaptor;
 import org.apache.directory.server.i18n.I18n;
 import org.apache.directory.server.xdbm.AbstractIndex;
 import org.apache.directory.server.xdbm.IndexEntry;
+import org.apache.directory.server.xdbm.Table;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -66,6 +68,9 @@ public class JdbmIndex<K> extends AbstractIndex<K, String>
     /**  the key used for the reverse btree name */
     public static final String REVERSE_BTREE = "_reverse";
 
+    /**  the key used for the n-gram btree name */
+    public static final String NGRAM_BTREE = "_ngram";
+
     /**
      * the forward btree where the btree key is the value of the indexed attribute and
      * the value of the btree is the entry id of the entry containing an attribute with
@@ -172,6 +177,8 @@ public class JdbmIndex<K> extends AbstractIndex<K, String>
             throw e;
         }
 
+        buildNGrams( null );
+
         initialized = true;
     }
 
@@ -237,6 +244,20 @@ public class JdbmIndex<K> extends AbstractIndex<K, String>
                     UuidComparator.INSTANCE, comp, UuidSerializer.INSTANCE, null );
             }
         }
+
+        /*
+         * The n-gram map stores the n-grams of the attribute values, compared as is, to
+         * the master table primary keys of the entries having them.
+         */
+        if ( withNGrams && mr.getSyntax().isHumanReadable() )
+        {
+            SerializableComparator<String> nGramComp = new SerializableComparator<>(
+                SchemaConstants.CASE_EXACT_MATCH_MR_OID );
+            nGramComp.setSchemaManager( schemaManager );
+
+            nGrams = new JdbmTable<>( schemaManager, attributeType.getOid() + NGRAM_BTREE, numDupLimit, recMan,
+                nGramComp, UuidComparator.INSTANCE, StringSerializer.INSTANCE, UuidSerializer.INSTANCE );
+        }
     }
 
 
@@ -379,6 +400,8 @@ public class JdbmIndex<K> extends AbstractIndex<K, String>
         {
             reverse.put( partitionTxn, id, attrVal );
         }
+
+        addNGrams( partitionTxn, attrVal, id );
     }
 
 
@@ -396,6 +419,8 @@ public class JdbmIndex<K> extends AbstractIndex<K, String>
             {
                 reverse.remove( partitionTxn, id, attrVal );
             }
+
+            dropNGrams( partitionTxn, attrVal, id );
         }
     }
 
@@ -407,6 +432,8 @@ public class JdbmIndex<K> extends AbstractIndex<K, String>
     {
         if ( withReverse )
         {
+            dropNGrams( partitionTxn, entryId );
+
             if ( isDupsEnabled() )
             {
                 // Build a cursor to iterate on all the keys referencing
@@ -529,6 +556,29 @@ public class JdbmIndex<K> extends AbstractIndex<K, String>
     // ------------------------------------------------------------------------
     // Maintenance Methods
     // ------------------------------------------------------------------------
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected Table<String, K> getReverseTable()
+    {
+        return reverse;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     * 
+     * Overridden so that the {@link JdbmPartitionBuilder} can fill the n-gram table once it
+     * has written the forward table.
+     */
+    @Override
+    protected void buildNGrams( PartitionTxn partitionTxn ) throws LdapException
+    {
+        super.buildNGrams( partitionTxn );
+    }
+
+
     /**
      * {@inheritDoc}
      */
@@ -544,6 +594,11 @@ public class JdbmIndex<K> extends AbstractIndex<K, String>
         {
             reverse.close( partitionTxn );
         }
+
+        if ( nGrams != null )
+        {
+            nGrams.close( partitionTxn );
+        }
     }
 
     
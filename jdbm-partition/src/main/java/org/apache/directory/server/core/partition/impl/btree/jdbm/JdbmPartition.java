@@ -71,6 +71,7 @@ import org.apache.directory.server.core.api.partition.PartitionTxn;
 import org.apache.directory.server.core.api.partition.PartitionWriteTxn;
 import org.apache.directory.server.core.partition.impl.btree.AbstractBTreePartition;
 import org.apache.directory.server.i18n.I18n;
+import org.apache.directory.server.xdbm.AbstractIndex;
 import org.apache.directory.server.xdbm.Index;
 import org.apache.directory.server.xdbm.ParentIdAndRdn;
 import org.apache.directory.server.xdbm.search.impl.CursorBuilder;
@@ -95,6 +96,9 @@ public class JdbmPartition extends AbstractBTreePartition
 
     private static final String JDBM_DB_FILE_EXTN = ".db";
 
+    /** The number of entries indexed in a transaction when the deferred user indices are built */
+    private static final int DEFERRED_INDICES_BATCH_SIZE = 1000;
+
     private static final FilenameFilter DB_FILTER = new FilenameFilter()
     {
         @Override
@@ -111,6 +115,21 @@ public class JdbmPartition extends AbstractBTreePartition
     /** the entry cache */
     private Cache entryCache;
 
+    /** The default maximum time a commit waits for other commits to join its group, in milliseconds */
+    public static final int DEFAULT_GROUP_COMMIT_MAX_LATENCY = 2;
+
+    /** The default maximum number of commits sharing a log synchronization. 1 disables the group commit */
+    public static final int DEFAULT_GROUP_COMMIT_MAX_BATCH_SIZE = 1;
+
+    /** The maximum time a commit waits for other commits to join its group, in milliseconds */
+    private int groupCommitMaxLatency = DEFAULT_GROUP_COMMIT_MAX_LATENCY;
+
+    /** The maximum number of commits sharing a log synchronization */
+    private int groupCommitMaxBatchSize = DEFAULT_GROUP_COMMIT_MAX_BATCH_SIZE;
+
+    /** The group commit, when the syncOnWrite flag is set and the commits are grouped */
+    private volatile JdbmGroupCommit groupCommit;
+
 
     /**
      * Creates a store based on JDBM B+Trees.
@@ -135,6 +154,66 @@ public class JdbmPartition extends AbstractBTreePartition
     }
     
     
+    /**
+     * @return The maximum time a commit waits for other commits to join its group, in milliseconds
+     */
+    public int getGroupCommitMaxLatency()
+    {
+        return groupCommitMaxLatency;
+    }
+
+
+    /**
+     * Sets the maximum time a commit waits for other commits to join its group, before the
+     * log is synchronized. It's only used when the syncOnWrite flag is set.
+     *
+     * @param groupCommitMaxLatency The maximum latency, in milliseconds
+     */
+    public void setGroupCommitMaxLatency( int groupCommitMaxLatency )
+    {
+        this.groupCommitMaxLatency = groupCommitMaxLatency;
+    }
+
+
+    /**
+     * @return The maximum number of commits sharing a log synchronization
+     */
+    public int getGroupCommitMaxBatchSize()
+    {
+        return groupCommitMaxBatchSize;
+    }
+
+
+    /**
+     * Sets the maximum number of commits sharing a log synchronization. It's only used
+     * when the syncOnWrite flag is set. A value of 1 (the default) disables the group
+     * commit : each commit synchronizes the log.
+     *
+     * @param groupCommitMaxBatchSize The maximum number of commits in a group
+     */
+    public void setGroupCommitMaxBatchSize( int groupCommitMaxBatchSize )
+    {
+        this.groupCommitMaxBatchSize = groupCommitMaxBatchSize;
+    }
+
+
+    /**
+     * @return The average number of commits per log synchronization, or 0 if the
+     * commits are not grouped or if no commit has been done yet
+     */
+    public double getCommitsPerSync()
+    {
+        JdbmGroupCommit currentGroupCommit = groupCommit;
+
+        if ( currentGroupCommit == null )
+        {
+            return 0d;
+        }
+
+        return currentGroupCommit.getCommitsPerSync();
+    }
+
+
     /**
      * Rebuild the indexes 
      */
@@ -319,6 +398,22 @@ public class JdbmPartition extends AbstractBTreePartition
     }
     
     
+    /**
+     * Adds the alias indices of an alias entry written by a {@link JdbmPartitionBuilder}, once
+     * all the entries have been written.
+     *
+     * @param partitionTxn The transaction to use
+     * @param aliasId The alias entry ID
+     * @param aliasDn The alias entry DN
+     * @param aliasTarget The aliased entry DN
+     * @throws LdapException If the alias is not valid or if the indices can't be updated
+     */
+    void addLoadedAlias( PartitionTxn partitionTxn, String aliasId, Dn aliasDn, Dn aliasTarget ) throws LdapException
+    {
+        addAliasIndices( partitionTxn, aliasId, aliasDn, aliasTarget );
+    }
+
+
     /**
      * {@inheritDoc}
      */
@@ -412,6 +507,7 @@ public class JdbmPartition extends AbstractBTreePartition
 
             EvaluatorBuilder evaluatorBuilder = new EvaluatorBuilder( this, schemaManager );
             CursorBuilder cursorBuilder = new CursorBuilder( this, evaluatorBuilder );
+            cursorBuilder.setAndIntersectionEnabled( andIntersectionEnabled );
 
             setSearchEngine( new DefaultSearchEngine( this, cursorBuilder, evaluatorBuilder, getOptimizer() ) );
 
@@ -447,6 +543,26 @@ public class JdbmPartition extends AbstractBTreePartition
                 throw new LdapOtherException( ioe.getMessage(), ioe );
             }
 
+            if ( isSyncOnWrite() && ( groupCommitMaxBatchSize > 1 ) )
+            {
+                final BaseRecordManager baseRecordManager = base;
+
+                groupCommit = new JdbmGroupCommit( new JdbmGroupCommit.LogSynchronizer()
+                {
+                    @Override
+                    public void synchronizeLog() throws IOException
+                    {
+                        // Don't let a commit modify the log while we flush it
+                        synchronized ( baseRecordManager )
+                        {
+                            baseRecordManager.getTransactionManager().synchronizeLog();
+                        }
+                    }
+                }, groupCommitMaxLatency, groupCommitMaxBatchSize );
+
+                LOG.info( "Grouping the commits of the {} partition : {}", id, groupCommit );
+            }
+
             // Iterate on the declared indexes
             List<String> allIndices = new ArrayList<>();
             List<Index<?, String>> indexToBuild = new ArrayList<>();
@@ -534,6 +650,12 @@ public class JdbmPartition extends AbstractBTreePartition
                 buildUserIndex( beginReadTransaction(), indexToBuild );
             }
 
+            // A bulk load has been interrupted before the user indices have been built
+            if ( isUserIndicesDeferred() )
+            {
+                buildDeferredUserIndices( DEFERRED_INDICES_BATCH_SIZE );
+            }
+
             if ( cacheService != null )
             {
                 entryCache = cacheService.getCache( getId() );
@@ -833,6 +955,11 @@ public class JdbmPartition extends AbstractBTreePartition
             jdbmIndex = new JdbmIndex( index.getAttributeId(), true );
             jdbmIndex.setCacheSize( index.getCacheSize() );
             jdbmIndex.setNumDupLimit( JdbmIndex.DEFAULT_DUPLICATE_LIMIT );
+
+            if ( index instanceof AbstractIndex )
+            {
+                jdbmIndex.setNGramsEnabled( ( ( AbstractIndex<?, String> ) index ).isNGramsEnabled() );
+            }
         }
 
         try
@@ -870,6 +997,13 @@ public class JdbmPartition extends AbstractBTreePartition
             errors.addThrowable( e );
         }
 
+        if ( groupCommit != null )
+        {
+            LOG.info( "Group commit statistics for the {} partition : {} commits per log synchronization",
+                id, groupCommit.getCommitsPerSync() );
+            groupCommit = null;
+        }
+
         // This is specific to the JDBM store : close the record manager
         try
         {
@@ -911,17 +1045,32 @@ public class JdbmPartition extends AbstractBTreePartition
             jdbmIndex = new JdbmRdnIndex();
             jdbmIndex.setAttributeId( ApacheSchemaConstants.APACHE_RDN_AT_OID );
             jdbmIndex.setNumDupLimit( JdbmIndex.DEFAULT_DUPLICATE_LIMIT );
+
+            if ( index instanceof AbstractIndex )
+            {
+                jdbmIndex.setNGramsEnabled( ( ( AbstractIndex<?, String> ) index ).isNGramsEnabled() );
+            }
         }
         else if ( oid.equals( ApacheSchemaConstants.APACHE_ALIAS_AT_OID ) )
         {
             jdbmIndex = new JdbmDnIndex( ApacheSchemaConstants.APACHE_ALIAS_AT_OID );
             jdbmIndex.setAttributeId( ApacheSchemaConstants.APACHE_ALIAS_AT_OID );
             jdbmIndex.setNumDupLimit( JdbmIndex.DEFAULT_DUPLICATE_LIMIT );
+
+            if ( index instanceof AbstractIndex )
+            {
+                jdbmIndex.setNGramsEnabled( ( ( AbstractIndex<?, String> ) index ).isNGramsEnabled() );
+            }
         }
         else
         {
             jdbmIndex = new JdbmIndex( oid, withReverse );
             jdbmIndex.setNumDupLimit( JdbmIndex.DEFAULT_DUPLICATE_LIMIT );
+
+            if ( index instanceof AbstractIndex )
+            {
+                jdbmIndex.setNGramsEnabled( ( ( AbstractIndex<?, String> ) index ).isNGramsEnabled() );
+            }
         }
 
         jdbmIndex.setWkDirPath( path );
@@ -1023,6 +1172,6 @@ public class JdbmPartition extends AbstractBTreePartition
     @Override
     public PartitionWriteTxn beginWriteTransaction()
     {
-        return new JdbmPartitionWriteTxn( recMan, isSyncOnWrite() );
+        return new JdbmPartitionWriteTxn( recMan, isSyncOnWrite(), groupCommit );
     }
 }
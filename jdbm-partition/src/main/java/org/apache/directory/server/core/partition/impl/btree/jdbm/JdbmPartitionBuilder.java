@@ -0,0 +1,996 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.partition.impl.btree.jdbm;
+
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import org.apache.directory.api.ldap.model.constants.SchemaConstants;
+import org.apache.directory.api.ldap.model.csn.CsnFactory;
+import org.apache.directory.api.ldap.model.cursor.Tuple;
+import org.apache.directory.api.ldap.model.entry.Attribute;
+import org.apache.directory.api.ldap.model.entry.DefaultEntry;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.entry.Value;
+import org.apache.directory.api.ldap.model.exception.LdapEntryAlreadyExistsException;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.api.ldap.model.exception.LdapInvalidDnException;
+import org.apache.directory.api.ldap.model.exception.LdapNoSuchObjectException;
+import org.apache.directory.api.ldap.model.exception.LdapOtherException;
+import org.apache.directory.api.ldap.model.exception.LdapSchemaViolationException;
+import org.apache.directory.api.ldap.model.ldif.LdifEntry;
+import org.apache.directory.api.ldap.model.ldif.LdifReader;
+import org.apache.directory.api.ldap.model.message.ResultCodeEnum;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.api.ldap.model.schema.AttributeType;
+import org.apache.directory.api.ldap.model.schema.Normalizer;
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.api.util.DateUtils;
+import org.apache.directory.server.constants.ApacheSchemaConstants;
+import org.apache.directory.server.constants.ServerDNConstants;
+import org.apache.directory.server.core.api.partition.Partition;
+import org.apache.directory.server.core.api.partition.PartitionTxn;
+import org.apache.directory.server.i18n.I18n;
+import org.apache.directory.server.xdbm.ExternalSorter;
+import org.apache.directory.server.xdbm.ParentIdAndRdn;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * Builds a {@link JdbmPartition} from a LDIF file, without adding the entries one by one.
+ * <br>
+ * The entries are first sorted in temporary files, then each table of the partition - the
+ * master table, the RDN index, the system and the user indices - is written in the order of
+ * its keys. The built partition is then used as is by the server : its indices don't have to
+ * be built again.
+ * <br>
+ * The partition must be configured (id, suffix, partition path, indexed attributes) but not
+ * initialized, and must not contain any entry yet. The builder initializes it, and destroys it
+ * once it has been built. The LDIF file may contain the entries in any order, but it has to
+ * contain the context entry, or the partition must be configured with one. The missing
+ * entryUUID, entryCSN, creatorsName and createTimestamp attributes are added.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class JdbmPartitionBuilder
+{
+    /** A logger for this class */
+    private static final Logger LOG = LoggerFactory.getLogger( JdbmPartitionBuilder.class );
+
+    /** The default number of elements held in memory by each sort */
+    public static final int DEFAULT_SORT_BUFFER_SIZE = 100000;
+
+    /** The number of writes done in a transaction */
+    private static final int BATCH_SIZE = 1000;
+
+    /** The number of entries between two progress reports */
+    private static final int PROGRESS_INTERVAL = 100000;
+
+    /** The directory, in the partition directory, where the sorted runs are stored */
+    private static final String SORT_DIR = "sort";
+
+    /** The JDBM database file extension */
+    private static final String JDBM_DB_FILE_EXTN = ".db";
+
+    /** Sorts the entries so that an entry comes before its descendants, and its descendants before its next sibling */
+    private static final Comparator<DnElement> DN_COMPARATOR = new Comparator<DnElement>()
+    {
+        @Override
+        public int compare( DnElement element0, DnElement element1 )
+        {
+            int size0 = element0.dn.size();
+            int size1 = element1.dn.size();
+
+            for ( int i = 1; i <= Math.min( size0, size1 ); i++ )
+            {
+                int comp = element0.dn.getRdn( size0 - i ).getNormName().compareTo(
+                    element1.dn.getRdn( size1 - i ).getNormName() );
+
+                if ( comp != 0 )
+                {
+                    return comp;
+                }
+            }
+
+            return size0 - size1;
+        }
+    };
+
+    /** Writes the index tuples */
+    private static final ExternalSorter.ElementSerializer<Tuple<String, String>> TUPLE_SERIALIZER =
+        new ExternalSorter.ElementSerializer<Tuple<String, String>>()
+        {
+            @Override
+            public void write( DataOutput out, Tuple<String, String> tuple ) throws IOException
+            {
+                ExternalSorter.writeString( out, tuple.getKey() );
+                ExternalSorter.writeString( out, tuple.getValue() );
+            }
+
+
+            @Override
+            public Tuple<String, String> read( DataInput in ) throws IOException
+            {
+                return new Tuple<>( ExternalSorter.readString( in ), ExternalSorter.readString( in ) );
+            }
+        };
+
+    /** The built partition */
+    private final JdbmPartition partition;
+
+    /** The loaded LDIF file */
+    private final File ldifFile;
+
+    /** The schema manager */
+    private final SchemaManager schemaManager;
+
+    /** The partition suffix */
+    private final Dn suffixDn;
+
+    /** The serializer used to store the entries in the master table */
+    private final EntrySerializer entrySerializer;
+
+    /** The serializer used to store the keys of the RDN index */
+    private final ParentIdAndRdnSerializer rdnSerializer;
+
+    /** Writes the entries sorted by DN */
+    private final ExternalSorter.ElementSerializer<DnElement> dnElementSerializer;
+
+    /** Writes the entries sorted by ID, or the RDN index tuples */
+    private final ExternalSorter.ElementSerializer<RdnElement> rdnElementSerializer;
+
+    /** The maximum number of elements held in memory by each sort */
+    private int sortBufferSize = DEFAULT_SORT_BUFFER_SIZE;
+
+    /** The directory where the sorted runs are stored */
+    private File sortDir;
+
+    /** The entries sorted by DN */
+    private ExternalSorter<DnElement> dnSorter;
+
+    /** The entries sorted by ID */
+    private ExternalSorter<RdnElement> idSorter;
+
+    /** The RDN index tuples, sorted by ParentIdAndRdn */
+    private ExternalSorter<RdnElement> rdnSorter;
+
+    /** The forward tuples of each index, sorted by value and ID */
+    private final Map<JdbmIndex<?>, ExternalSorter<Tuple<String, String>>> forwardSorters = new HashMap<>();
+
+    /** The alias entries, which indices are added once all the entries have been written */
+    private final List<LoadedAlias> aliases = new ArrayList<>();
+
+    /** The ID of the context entry */
+    private String suffixId;
+
+    /** The greatest entryCSN, stored as the contextCSN of the partition */
+    private String contextCsn;
+
+    /** The number of loaded entries */
+    private long nbEntries;
+
+    /** The current write transaction */
+    private PartitionTxn partitionTxn;
+
+    /** The number of writes done so far */
+    private long nbWrites;
+
+    /** The objectClass AttributeType */
+    private final AttributeType objectClassAT;
+
+    /** The objectClass normalizer */
+    private final Normalizer objectClassNormalizer;
+
+    /** The 'top' objectClass, which is not indexed */
+    private final Value topOCValue;
+
+    /** The entryCSN AttributeType */
+    private final AttributeType entryCsnAT;
+
+    /** The administrativeRole AttributeType */
+    private final AttributeType administrativeRoleAT;
+
+    /** The aliasedObjectName AttributeType */
+    private final AttributeType aliasedObjectNameAT;
+
+
+    /**
+     * An entry read from the LDIF file, sorted by DN
+     */
+    private static class DnElement
+    {
+        private final Dn dn;
+        private final String id;
+        private final byte[] entry;
+
+
+        private DnElement( Dn dn, String id, byte[] entry )
+        {
+            this.dn = dn;
+            this.id = id;
+            this.entry = entry;
+        }
+    }
+
+
+    /**
+     * An entry and its RDN index key, sorted by ID, or a RDN index tuple, sorted by key
+     */
+    private static class RdnElement
+    {
+        private final String id;
+        private final ParentIdAndRdn key;
+        private final byte[] entry;
+
+
+        private RdnElement( String id, ParentIdAndRdn key, byte[] entry )
+        {
+            this.id = id;
+            this.key = key;
+            this.entry = entry;
+        }
+    }
+
+
+    /**
+     * An entry which descendants are being read, sorted by DN
+     */
+    private static class Ancestor
+    {
+        private final Dn dn;
+        private final String id;
+        private final ParentIdAndRdn key;
+        private final byte[] entry;
+
+
+        private Ancestor( Dn dn, String id, ParentIdAndRdn key, byte[] entry )
+        {
+            this.dn = dn;
+            this.id = id;
+            this.key = key;
+            this.entry = entry;
+        }
+    }
+
+
+    /**
+     * An alias entry
+     */
+    private static class LoadedAlias
+    {
+        private final String id;
+        private final Dn dn;
+        private final Dn target;
+
+
+        private LoadedAlias( String id, Dn dn, Dn target )
+        {
+            this.id = id;
+            this.dn = dn;
+            this.target = target;
+        }
+    }
+
+
+    /**
+     * Creates a new instance of JdbmPartitionBuilder.
+     *
+     * @param partition The configured partition, not yet initialized
+     * @param ldifFile The LDIF file containing the entries to load
+     */
+    public JdbmPartitionBuilder( JdbmPartition partition, File ldifFile )
+    {
+        this.partition = partition;
+        this.ldifFile = ldifFile;
+
+        schemaManager = partition.getSchemaManager();
+        suffixDn = partition.getSuffixDn();
+        entrySerializer = new EntrySerializer( schemaManager );
+        rdnSerializer = new ParentIdAndRdnSerializer( schemaManager );
+
+        objectClassAT = schemaManager.getAttributeType( SchemaConstants.OBJECT_CLASS_AT );
+        objectClassNormalizer = objectClassAT.getEquality().getNormalizer();
+        topOCValue = new Value( objectClassAT, SchemaConstants.TOP_OC_OID );
+        entryCsnAT = schemaManager.getAttributeType( SchemaConstants.ENTRY_CSN_AT );
+        administrativeRoleAT = schemaManager.getAttributeType( SchemaConstants.ADMINISTRATIVE_ROLE_AT );
+        aliasedObjectNameAT = schemaManager.getAttributeType( SchemaConstants.ALIASED_OBJECT_NAME_AT );
+
+        dnElementSerializer = new ExternalSorter.ElementSerializer<DnElement>()
+        {
+            @Override
+            public void write( DataOutput out, DnElement element ) throws IOException
+            {
+                ExternalSorter.writeString( out, element.dn.getName() );
+                ExternalSorter.writeString( out, element.id );
+                writeBytes( out, element.entry );
+            }
+
+
+            @Override
+            public DnElement read( DataInput in ) throws IOException
+            {
+                String dn = ExternalSorter.readString( in );
+
+                try
+                {
+                    return new DnElement( new Dn( schemaManager, dn ), ExternalSorter.readString( in ), readBytes( in ) );
+                }
+                catch ( LdapInvalidDnException lide )
+                {
+                    throw new IOException( lide.getMessage(), lide );
+                }
+            }
+        };
+
+        rdnElementSerializer = new ExternalSorter.ElementSerializer<RdnElement>()
+        {
+            @Override
+            public void write( DataOutput out, RdnElement element ) throws IOException
+            {
+                ExternalSorter.writeString( out, element.id );
+                writeBytes( out, rdnSerializer.serialize( element.key ) );
+                writeBytes( out, element.entry );
+            }
+
+
+            @Override
+            public RdnElement read( DataInput in ) throws IOException
+            {
+                String id = ExternalSorter.readString( in );
+                ParentIdAndRdn key = ( ParentIdAndRdn ) rdnSerializer.deserialize( readBytes( in ) );
+
+                return new RdnElement( id, key, readBytes( in ) );
+            }
+        };
+    }
+
+
+    /**
+     * Sets the maximum number of elements held in memory by each sort. The default
+     * is {@link #DEFAULT_SORT_BUFFER_SIZE}.
+     *
+     * @param sortBufferSize The number of elements
+     */
+    public void setSortBufferSize( int sortBufferSize )
+    {
+        this.sortBufferSize = sortBufferSize;
+    }
+
+
+    /**
+     * Loads the LDIF file into the partition, then destroys the partition.
+     *
+     * @return The number of loaded entries
+     * @throws LdapException If the partition is not empty, if an entry can't be loaded, or
+     * if the partition can't be written
+     */
+    public long build() throws LdapException
+    {
+        File partitionDir = new File( partition.getPartitionPath() );
+
+        if ( new File( partitionDir, partition.getId() + JDBM_DB_FILE_EXTN ).exists() )
+        {
+            throw new LdapOtherException( "The partition " + partition.getId() + " already exists in " + partitionDir );
+        }
+
+        sortDir = new File( partitionDir, SORT_DIR );
+
+        if ( !sortDir.isDirectory() && !sortDir.mkdirs() )
+        {
+            throw new LdapOtherException( I18n.err( I18n.ERR_112_COULD_NOT_CREATE_DIRECTORY, sortDir ) );
+        }
+
+        Entry contextEntry = partition.getContextEntry();
+        boolean syncOnWrite = partition.isSyncOnWrite();
+        long t0 = System.currentTimeMillis();
+
+        try
+        {
+            dnSorter = new ExternalSorter<>( "dn", DN_COMPARATOR, dnElementSerializer, sortBufferSize, sortDir );
+            readLdif( contextEntry );
+
+            LOG.info( "Read {} entries from {} in {} ms", nbEntries, ldifFile, System.currentTimeMillis() - t0 );
+
+            // The context entry is loaded with the other entries
+            partition.setContextEntry( null );
+            partition.setSyncOnWrite( false );
+            partition.initialize();
+
+            sortHierarchy();
+            dnSorter.close();
+
+            writeMasterTable();
+            idSorter.close();
+
+            writeRdnIndex();
+            rdnSorter.close();
+
+            writeForwardTables();
+            writeAliases();
+
+            commit();
+            partition.sync();
+            partition.destroy( null );
+
+            LOG.info( "Loaded {} entries in the partition {} in {} ms", nbEntries, partition.getId(),
+                System.currentTimeMillis() - t0 );
+
+            return nbEntries;
+        }
+        catch ( IOException ioe )
+        {
+            throw new LdapOtherException( ioe.getMessage(), ioe );
+        }
+        finally
+        {
+            cleanup();
+            partition.setContextEntry( contextEntry );
+            partition.setSyncOnWrite( syncOnWrite );
+        }
+    }
+
+
+    /**
+     * Reads the LDIF file, and sorts its entries by DN
+     */
+    private void readLdif( Entry contextEntry ) throws LdapException, IOException
+    {
+        CsnFactory csnFactory = new CsnFactory( 0 );
+        boolean hasContextEntry = false;
+
+        try ( LdifReader reader = new LdifReader( ldifFile, schemaManager ) )
+        {
+            while ( reader.hasNext() )
+            {
+                LdifEntry ldifEntry = reader.next();
+
+                if ( !ldifEntry.isEntry() )
+                {
+                    LOG.warn( "Skipping the modification of {} : only entries can be loaded", ldifEntry.getDn() );
+                    continue;
+                }
+
+                Entry entry = prepareEntry( ldifEntry.getEntry(), csnFactory );
+                hasContextEntry |= entry.getDn().equals( suffixDn );
+            }
+        }
+
+        if ( !hasContextEntry && ( contextEntry != null ) )
+        {
+            prepareEntry( contextEntry.clone(), csnFactory );
+        }
+    }
+
+
+    /**
+     * Adds the missing operational attributes to an entry read from the LDIF file, and
+     * sorts it by DN
+     */
+    private Entry prepareEntry( Entry ldifEntry, CsnFactory csnFactory ) throws LdapException, IOException
+    {
+        Entry entry = ldifEntry;
+
+        if ( !entry.isSchemaAware() )
+        {
+            entry = new DefaultEntry( schemaManager, entry );
+        }
+
+        Dn dn = entry.getDn();
+
+        if ( !dn.isSchemaAware() )
+        {
+            dn = new Dn( schemaManager, dn );
+            entry.setDn( dn );
+        }
+
+        if ( !dn.equals( suffixDn ) && !dn.isDescendantOf( suffixDn ) )
+        {
+            throw new LdapOtherException( "The entry " + dn + " is not in the partition " + suffixDn );
+        }
+
+        Attribute objectClass = entry.get( objectClassAT );
+
+        if ( objectClass == null )
+        {
+            String msg = I18n.err( I18n.ERR_217, dn.getName(), entry );
+            throw new LdapSchemaViolationException( ResultCodeEnum.OBJECT_CLASS_VIOLATION, msg );
+        }
+
+        // add the mandatory attributes
+        if ( !entry.containsAttribute( SchemaConstants.ENTRY_UUID_AT ) )
+        {
+            entry.add( SchemaConstants.ENTRY_UUID_AT, UUID.randomUUID().toString() );
+        }
+
+        if ( !entry.containsAttribute( SchemaConstants.ENTRY_CSN_AT ) )
+        {
+            entry.add( SchemaConstants.ENTRY_CSN_AT, csnFactory.newInstance().toString() );
+        }
+
+        if ( !entry.containsAttribute( SchemaConstants.CREATORS_NAME_AT ) )
+        {
+            entry.add( SchemaConstants.CREATORS_NAME_AT, ServerDNConstants.ADMIN_SYSTEM_DN );
+        }
+
+        if ( !entry.containsAttribute( SchemaConstants.CREATE_TIMESTAMP_AT ) )
+        {
+            entry.add( SchemaConstants.CREATE_TIMESTAMP_AT, DateUtils.getGeneralizedTime() );
+        }
+
+        // The entryDN is computed when the entry is read
+        entry.removeAttributes( SchemaConstants.ENTRY_DN_AT );
+
+        String id = entry.get( SchemaConstants.ENTRY_UUID_AT ).getString();
+        String entryCsn = entry.get( entryCsnAT ).getString();
+
+        if ( ( contextCsn == null ) || ( entryCsn.compareTo( contextCsn ) > 0 ) )
+        {
+            contextCsn = entryCsn;
+        }
+
+        if ( objectClass.contains( SchemaConstants.ALIAS_OC ) )
+        {
+            Attribute aliasAttr = entry.get( aliasedObjectNameAT );
+            aliases.add( new LoadedAlias( id, dn, new Dn( schemaManager, aliasAttr.getString() ) ) );
+        }
+
+        dnSorter.add( new DnElement( dn, id, entrySerializer.serialize( entry ) ) );
+        nbEntries++;
+
+        return entry;
+    }
+
+
+    /**
+     * Reads the entries sorted by DN, to compute their parent ID and their number of
+     * children and descendants. The entries are then sorted by ID, and their RDN index
+     * tuples by key.
+     */
+    private void sortHierarchy() throws LdapException, IOException
+    {
+        idSorter = new ExternalSorter<>( "id", new Comparator<RdnElement>()
+        {
+            private final Comparator<String> idComparator = partition.getMasterTable().getKeyComparator();
+
+
+            @Override
+            public int compare( RdnElement element0, RdnElement element1 )
+            {
+                return idComparator.compare( element0.id, element1.id );
+            }
+        }, rdnElementSerializer, sortBufferSize, sortDir );
+
+        rdnSorter = new ExternalSorter<>( "rdn", new Comparator<RdnElement>()
+        {
+            private final Comparator<ParentIdAndRdn> keyComparator = getRdnIndex().forward.getKeyComparator();
+
+
+            @Override
+            public int compare( RdnElement element0, RdnElement element1 )
+            {
+                return keyComparator.compare( element0.key, element1.key );
+            }
+        }, rdnElementSerializer, sortBufferSize, sortDir );
+
+        // The ancestors of the current entry, the closest one first
+        Deque<Ancestor> ancestors = new ArrayDeque<>();
+        Dn previousDn = null;
+        Iterator<DnElement> elements = dnSorter.iterator();
+
+        while ( elements.hasNext() )
+        {
+            DnElement element = elements.next();
+            Dn dn = element.dn;
+
+            if ( dn.equals( previousDn ) )
+            {
+                throw new LdapEntryAlreadyExistsException( I18n.err( I18n.ERR_250_ENTRY_ALREADY_EXISTS, dn.getName() ) );
+            }
+
+            previousDn = dn;
+
+            // The entries which are not an ancestor of this entry have all their descendants
+            while ( !ancestors.isEmpty() && !dn.isDescendantOf( ancestors.peek().dn ) )
+            {
+                complete( ancestors );
+            }
+
+            ParentIdAndRdn key;
+
+            if ( dn.equals( suffixDn ) )
+            {
+                suffixId = element.id;
+                key = new ParentIdAndRdn( Partition.ROOT_ID, suffixDn.getRdns() );
+            }
+            else
+            {
+                Ancestor parent = ancestors.peek();
+
+                if ( ( parent == null ) || !dn.getParent().equals( parent.dn ) )
+                {
+                    throw new LdapNoSuchObjectException( I18n.err( I18n.ERR_216_ID_FOR_PARENT_NOT_FOUND,
+                        dn.getParent() ) );
+                }
+
+                key = new ParentIdAndRdn( parent.id, dn.getRdn() );
+                parent.key.setNbChildren( parent.key.getNbChildren() + 1 );
+            }
+
+            ancestors.push( new Ancestor( dn, element.id, key, element.entry ) );
+        }
+
+        while ( !ancestors.isEmpty() )
+        {
+            complete( ancestors );
+        }
+    }
+
+
+    /**
+     * Sorts an entry once its number of descendants is known
+     */
+    private void complete( Deque<Ancestor> ancestors ) throws IOException
+    {
+        Ancestor element = ancestors.pop();
+        Ancestor parent = ancestors.peek();
+
+        if ( parent != null )
+        {
+            parent.key.setNbDescendants( parent.key.getNbDescendants() + element.key.getNbDescendants() + 1 );
+        }
+
+        idSorter.add( new RdnElement( element.id, element.key, element.entry ) );
+        rdnSorter.add( new RdnElement( element.id, element.key, null ) );
+    }
+
+
+    /**
+     * Writes the master table, the reverse tables and sorts the forward tuples of the indices.
+     * All of them are keyed by the entry ID.
+     */
+    private void writeMasterTable() throws LdapException, IOException
+    {
+        JdbmMasterTable master = ( JdbmMasterTable ) partition.getMasterTable();
+        JdbmRdnIndex rdnIndex = getRdnIndex();
+        Iterator<RdnElement> elements = idSorter.iterator();
+        long nbWritten = 0L;
+        long t0 = System.currentTimeMillis();
+
+        while ( elements.hasNext() )
+        {
+            RdnElement element = elements.next();
+            Entry entry = ( Entry ) entrySerializer.deserialize( element.entry );
+
+            entry.put( ApacheSchemaConstants.ENTRY_PARENT_ID_AT, element.key.getParentId() );
+
+            if ( element.id.equals( suffixId ) )
+            {
+                entry.put( SchemaConstants.CONTEXT_CSN_AT, contextCsn );
+            }
+
+            master.put( getTransaction(), element.id, entry );
+            rdnIndex.reverse.put( getTransaction(), element.id, element.key );
+            addIndexTuples( element.id, entry );
+            written();
+
+            nbWritten++;
+
+            if ( nbWritten % PROGRESS_INTERVAL == 0 )
+            {
+                LOG.info( "Written {} entries in {} ms", nbWritten, System.currentTimeMillis() - t0 );
+            }
+        }
+
+        commit();
+    }
+
+
+    /**
+     * Writes the reverse tuples of an entry, and sorts its forward tuples. The indexed
+     * values are the ones the partition indexes when an entry is added.
+     */
+    private void addIndexTuples( String id, Entry entry ) throws LdapException, IOException
+    {
+        JdbmIndex<?> presenceIndex = ( JdbmIndex<?> ) partition.getPresenceIndex();
+
+        for ( Value value : entry.get( objectClassAT ) )
+        {
+            if ( value.equals( topOCValue ) )
+            {
+                continue;
+            }
+
+            addIndexTuple( ( JdbmIndex<?> ) partition.getObjectClassIndex(),
+                objectClassNormalizer.normalize( value.getValue() ), id );
+        }
+
+        addIndexTuple( ( JdbmIndex<?> ) partition.getEntryCsnIndex(), entry.get( entryCsnAT ).getString(), id );
+
+        Attribute adminRoles = entry.get( administrativeRoleAT );
+
+        if ( adminRoles != null )
+        {
+            for ( Value value : adminRoles )
+            {
+                addIndexTuple( ( JdbmIndex<?> ) partition.getAdministrativeRoleIndex(), value.getValue(), id );
+            }
+
+            addIndexTuple( presenceIndex, administrativeRoleAT.getOid(), id );
+        }
+
+        for ( Attribute attribute : entry )
+        {
+            AttributeType attributeType = attribute.getAttributeType();
+
+            if ( partition.hasUserIndexOn( attributeType ) )
+            {
+                JdbmIndex<?> userIndex = ( JdbmIndex<?> ) partition.getUserIndex( attributeType );
+
+                for ( Value value : attribute )
+                {
+                    addIndexTuple( userIndex, value.getNormalized(), id );
+                }
+
+                addIndexTuple( presenceIndex, attributeType.getOid(), id );
+            }
+        }
+    }
+
+
+    @SuppressWarnings("unchecked")
+    private void addIndexTuple( JdbmIndex<?> index, String value, String id ) throws LdapException, IOException
+    {
+        if ( index.reverse != null )
+        {
+            ( ( JdbmTable<String, String> ) index.reverse ).put( getTransaction(), id, value );
+        }
+
+        ExternalSorter<Tuple<String, String>> sorter = forwardSorters.get( index );
+
+        if ( sorter == null )
+        {
+            final Comparator<String> valueComparator = ( Comparator<String> ) index.forward.getKeyComparator();
+            final Comparator<String> idComparator = index.forward.getValueComparator();
+
+            sorter = new ExternalSorter<>( index.getAttribute().getOid(), new Comparator<Tuple<String, String>>()
+            {
+                @Override
+                public int compare( Tuple<String, String> tuple0, Tuple<String, String> tuple1 )
+                {
+                    int comp = valueComparator.compare( tuple0.getKey(), tuple1.getKey() );
+
+                    if ( comp != 0 )
+                    {
+                        return comp;
+                    }
+
+                    return idComparator.compare( tuple0.getValue(), tuple1.getValue() );
+                }
+            }, TUPLE_SERIALIZER, sortBufferSize, sortDir );
+
+            forwardSorters.put( index, sorter );
+        }
+
+        sorter.add( new Tuple<>( value, id ) );
+    }
+
+
+    /**
+     * Writes the forward table of the RDN index
+     */
+    private void writeRdnIndex() throws LdapException, IOException
+    {
+        JdbmRdnIndex rdnIndex = getRdnIndex();
+        Iterator<RdnElement> elements = rdnSorter.iterator();
+
+        while ( elements.hasNext() )
+        {
+            RdnElement element = elements.next();
+            rdnIndex.forward.put( getTransaction(), element.key, element.id );
+            written();
+        }
+
+        commit();
+    }
+
+
+    /**
+     * Writes the forward tables of the system and user indices, then their n-grams
+     */
+    @SuppressWarnings("unchecked")
+    private void writeForwardTables() throws LdapException, IOException
+    {
+        for ( Map.Entry<JdbmIndex<?>, ExternalSorter<Tuple<String, String>>> entry : forwardSorters.entrySet() )
+        {
+            JdbmIndex<?> index = entry.getKey();
+            JdbmTable<String, String> forward = ( JdbmTable<String, String> ) index.forward;
+            ExternalSorter<Tuple<String, String>> sorter = entry.getValue();
+            Iterator<Tuple<String, String>> tuples = sorter.iterator();
+
+            LOG.info( "Writing the {} tuples of the {} index", sorter.size(), index.getAttribute().getName() );
+
+            while ( tuples.hasNext() )
+            {
+                Tuple<String, String> tuple = tuples.next();
+                forward.put( getTransaction(), tuple.getKey(), tuple.getValue() );
+                written();
+            }
+
+            commit();
+            sorter.close();
+
+            index.buildNGrams( getTransaction() );
+            commit();
+        }
+    }
+
+
+    /**
+     * Adds the alias indices, once the aliased entries have all been written
+     */
+    private void writeAliases() throws LdapException, IOException
+    {
+        for ( LoadedAlias alias : aliases )
+        {
+            partition.addLoadedAlias( getTransaction(), alias.id, alias.dn, alias.target );
+            written();
+        }
+
+        commit();
+    }
+
+
+    private JdbmRdnIndex getRdnIndex()
+    {
+        return ( JdbmRdnIndex ) partition.getRdnIndex();
+    }
+
+
+    private PartitionTxn getTransaction()
+    {
+        if ( partitionTxn == null )
+        {
+            partitionTxn = partition.beginWriteTransaction();
+        }
+
+        return partitionTxn;
+    }
+
+
+    /**
+     * Commits the current transaction every {@link #BATCH_SIZE} writes
+     */
+    private void written() throws IOException
+    {
+        nbWrites++;
+
+        if ( nbWrites % BATCH_SIZE == 0 )
+        {
+            commit();
+        }
+    }
+
+
+    private void commit() throws IOException
+    {
+        if ( partitionTxn != null )
+        {
+            partitionTxn.commit();
+            partitionTxn = null;
+        }
+    }
+
+
+    /**
+     * Deletes the sorted runs, and destroys the partition if it has not been built
+     */
+    private void cleanup()
+    {
+        if ( partitionTxn != null )
+        {
+            try
+            {
+                partitionTxn.abort();
+            }
+            catch ( IOException ioe )
+            {
+                LOG.error( "Failed to abort the transaction", ioe );
+            }
+
+            partitionTxn = null;
+        }
+
+        for ( ExternalSorter<?> sorter : new ExternalSorter<?>[]
+            { dnSorter, idSorter, rdnSorter } )
+        {
+            if ( sorter != null )
+            {
+                sorter.close();
+            }
+        }
+
+        for ( ExternalSorter<?> sorter : forwardSorters.values() )
+        {
+            sorter.close();
+        }
+
+        forwardSorters.clear();
+
+        if ( !sortDir.delete() )
+        {
+            LOG.warn( "Cannot delete the directory {}", sortDir );
+        }
+
+        if ( partition.isInitialized() )
+        {
+            try
+            {
+                partition.destroy( null );
+            }
+            catch ( LdapException le )
+            {
+                LOG.error( "Failed to destroy the partition {}", partition.getId(), le );
+            }
+        }
+    }
+
+
+    private static void writeBytes( DataOutput out, byte[] bytes ) throws IOException
+    {
+        if ( bytes == null )
+        {
+            out.writeInt( -1 );
+
+            return;
+        }
+
+        out.writeInt( bytes.length );
+        out.write( bytes );
+    }
+
+
+    private static byte[] readBytes( DataInput in ) throws IOException
+    {
+        int length = in.readInt();
+
+        if ( length < 0 )
+        {
+            return null;
+        }
+
+        byte[] bytes = new byte[length];
+        in.readFully( bytes );
+
+        return bytes;
+    }
+}
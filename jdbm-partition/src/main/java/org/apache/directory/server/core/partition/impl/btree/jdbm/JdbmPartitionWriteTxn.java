@@ -39,6 +39,12 @@ public class JdbmPartitionWriteTxn extends PartitionWriteTxn
     
     /** A flag used to flush data immediately or not */
     private boolean syncOnWrite = false;
+
+    /** The group commit, if the log synchronizations of concurrent commits are grouped */
+    private JdbmGroupCommit groupCommit;
+
+    /** The group commit ticket to wait for, 0 if none */
+    private long ticket;
     
     /**
      * Create an instance of JdbmPartitionWriteTxn
@@ -47,9 +53,23 @@ public class JdbmPartitionWriteTxn extends PartitionWriteTxn
      * @param syncOnWrite If we want to data to be flushed on each write
      */
     public JdbmPartitionWriteTxn( RecordManager recordManager, boolean syncOnWrite )
+    {
+        this( recordManager, syncOnWrite, null );
+    }
+    
+    
+    /**
+     * Create an instance of JdbmPartitionWriteTxn
+     * 
+     * @param recordManager The RecordManager instance
+     * @param syncOnWrite If we want to data to be flushed on each write
+     * @param groupCommit The group commit to use to flush the data, or null if each commit flushes its own data
+     */
+    public JdbmPartitionWriteTxn( RecordManager recordManager, boolean syncOnWrite, JdbmGroupCommit groupCommit )
     {
         this.recordManager = recordManager;
         this.syncOnWrite = syncOnWrite;
+        this.groupCommit = groupCommit;
     }
     
     
@@ -58,25 +78,68 @@ public class JdbmPartitionWriteTxn extends PartitionWriteTxn
      */
     @Override
     public void commit() throws IOException
+    {
+        commitWithDeferredSync();
+        awaitSync();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void commitWithDeferredSync() throws IOException
     {
         recordManager.commit();
         
-        // And flush the journal
-        BaseRecordManager baseRecordManager = null;
+        if ( !syncOnWrite )
+        {
+            return;
+        }
 
-        if ( recordManager instanceof CacheRecordManager )
+        if ( groupCommit != null )
         {
-            baseRecordManager = ( ( BaseRecordManager ) ( ( CacheRecordManager ) recordManager ).getRecordManager() );
+            // The journal will be flushed when we will wait for the sync
+            ticket = groupCommit.register();
+
+            return;
         }
-        else
+        
+        // And flush the journal
+        getBaseRecordManager( recordManager ).getTransactionManager().synchronizeLog();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void awaitSync() throws IOException
+    {
+        if ( ticket != 0L )
         {
-            baseRecordManager = ( ( BaseRecordManager ) recordManager );
+            long pending = ticket;
+            ticket = 0L;
+            groupCommit.awaitSync( pending );
         }
+    }
 
 
-        if ( syncOnWrite )
+    /**
+     * Get the BaseRecordManager used by a RecordManager
+     * 
+     * @param recordManager The RecordManager
+     * @return The BaseRecordManager instance
+     */
+    static BaseRecordManager getBaseRecordManager( RecordManager recordManager )
+    {
+        if ( recordManager instanceof CacheRecordManager )
+        {
+            return ( BaseRecordManager ) ( ( CacheRecordManager ) recordManager ).getRecordManager();
+        }
+        else
         {
-            baseRecordManager.getTransactionManager().synchronizeLog();
+            return ( BaseRecordManager ) recordManager;
         }
     }
 
@@ -0,0 +1,216 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.partition.impl.btree.jdbm;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+
+
+/**
+ * Tests the {@link JdbmGroupCommit} class.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class JdbmGroupCommitTest
+{
+    /**
+     * A log synchronizer which takes some time, and remembers the last ticket
+     * registered before it was called
+     */
+    private static class SlowLogSynchronizer implements JdbmGroupCommit.LogSynchronizer
+    {
+        private final AtomicInteger syncs = new AtomicInteger();
+        private final AtomicLong registered = new AtomicLong();
+        private volatile long lastSyncedTicket;
+        private volatile boolean failing;
+
+
+        @Override
+        public void synchronizeLog() throws IOException
+        {
+            synchronized ( this )
+            {
+                lastSyncedTicket = registered.get();
+            }
+
+            syncs.incrementAndGet();
+
+            try
+            {
+                Thread.sleep( 5L );
+            }
+            catch ( InterruptedException ie )
+            {
+                throw new IOException( ie );
+            }
+
+            if ( failing )
+            {
+                throw new IOException( "Disk failure" );
+            }
+        }
+    }
+
+
+    @Test
+    public void testSingleCommit() throws Exception
+    {
+        SlowLogSynchronizer synchronizer = new SlowLogSynchronizer();
+        JdbmGroupCommit groupCommit = new JdbmGroupCommit( synchronizer, 0, 10 );
+
+        for ( int i = 1; i <= 3; i++ )
+        {
+            long ticket = groupCommit.register();
+            assertEquals( i, ticket );
+            groupCommit.awaitSync( ticket );
+        }
+
+        assertEquals( 3, synchronizer.syncs.get() );
+        assertEquals( 3L, groupCommit.getCommitCount() );
+        assertEquals( 3L, groupCommit.getSyncCount() );
+        assertEquals( 1d, groupCommit.getCommitsPerSync(), 0d );
+    }
+
+
+    @Test
+    public void testConcurrentCommitsAreGrouped() throws Exception
+    {
+        final SlowLogSynchronizer synchronizer = new SlowLogSynchronizer();
+        final JdbmGroupCommit groupCommit = new JdbmGroupCommit( synchronizer, 2, 64 );
+        final int nbThreads = 16;
+        final int nbCommits = 50;
+        final AtomicInteger errors = new AtomicInteger();
+        Thread[] threads = new Thread[nbThreads];
+
+        for ( int t = 0; t < nbThreads; t++ )
+        {
+            threads[t] = new Thread()
+            {
+                public void run()
+                {
+                    try
+                    {
+                        for ( int i = 0; i < nbCommits; i++ )
+                        {
+                            long ticket;
+
+                            synchronized ( synchronizer )
+                            {
+                                ticket = groupCommit.register();
+                                synchronizer.registered.set( ticket );
+                            }
+
+                            groupCommit.awaitSync( ticket );
+
+                            // The log must have been synchronized after our commit
+                            if ( synchronizer.lastSyncedTicket < ticket )
+                            {
+                                errors.incrementAndGet();
+                            }
+                        }
+                    }
+                    catch ( IOException ioe )
+                    {
+                        errors.incrementAndGet();
+                    }
+                }
+            };
+
+            threads[t].start();
+        }
+
+        for ( Thread thread : threads )
+        {
+            thread.join();
+        }
+
+        assertEquals( 0, errors.get() );
+        assertEquals( nbThreads * nbCommits, groupCommit.getCommitCount() );
+        assertEquals( synchronizer.syncs.get(), groupCommit.getSyncCount() );
+        assertTrue( groupCommit.getSyncCount() < nbThreads * nbCommits );
+        assertTrue( groupCommit.getCommitsPerSync() > 1d );
+    }
+
+
+    @Test
+    public void testFullBatchIsSyncedImmediately() throws Exception
+    {
+        SlowLogSynchronizer synchronizer = new SlowLogSynchronizer();
+
+        // A huge latency : we should not wait for it, as the batch is full
+        JdbmGroupCommit groupCommit = new JdbmGroupCommit( synchronizer, 60000, 2 );
+
+        groupCommit.register();
+        long ticket = groupCommit.register();
+
+        long t0 = System.currentTimeMillis();
+        groupCommit.awaitSync( ticket );
+        assertTrue( System.currentTimeMillis() - t0 < 10000L );
+
+        assertEquals( 2L, groupCommit.getCommitCount() );
+        assertEquals( 1L, groupCommit.getSyncCount() );
+    }
+
+
+    @Test
+    public void testFailureIsReported() throws Exception
+    {
+        SlowLogSynchronizer synchronizer = new SlowLogSynchronizer();
+        JdbmGroupCommit groupCommit = new JdbmGroupCommit( synchronizer, 0, 10 );
+        synchronizer.failing = true;
+
+        long ticket1 = groupCommit.register();
+        long ticket2 = groupCommit.register();
+
+        try
+        {
+            groupCommit.awaitSync( ticket2 );
+            fail();
+        }
+        catch ( IOException ioe )
+        {
+            // Expected
+        }
+
+        // The first commit was part of the failed batch
+        try
+        {
+            groupCommit.awaitSync( ticket1 );
+            fail();
+        }
+        catch ( IOException ioe )
+        {
+            // Expected
+        }
+
+        // The next batch succeeds
+        synchronizer.failing = false;
+        groupCommit.awaitSync( groupCommit.register() );
+        assertEquals( 2L, groupCommit.getSyncCount() );
+    }
+}
@@ -543,6 +543,66 @@ public class JdbmIndexTest
     }
 
 
+    private JdbmIndex<String> createOuIndex( boolean withReverse, boolean withNGrams ) throws Exception
+    {
+        JdbmIndex<String> index = new JdbmIndex<String>( SchemaConstants.OU_AT, withReverse );
+        index.setWkDirPath( tmpIndexFile.toURI() );
+        index.setNGramsEnabled( withNGrams );
+
+        return index;
+    }
+
+
+    @Test
+    public void testEnableNGramsOnExistingIndex() throws Exception
+    {
+        // An index without reverse table nor n-grams, with some values
+        initIndex( createOuIndex( false, false ) );
+        assertFalse( idx.hasReverse() );
+        idx.add( partitionTxn, "engineering", Strings.getUUID( 1L ) );
+        idx.add( partitionTxn, "sales engineering", Strings.getUUID( 2L ) );
+        idx.add( partitionTxn, "marketing", Strings.getUUID( 3L ) );
+        destroyIndex();
+
+        // Enabling the n-grams fills the new reverse table, and the n-gram table
+        initIndex( createOuIndex( false, true ) );
+        assertTrue( idx.hasReverse() );
+        assertTrue( idx.hasNGrams() );
+        assertEquals( "marketing", idx.reverseLookup( partitionTxn, Strings.getUUID( 3L ) ) );
+        assertTrue( idx.reverse( partitionTxn, Strings.getUUID( 2L ), "sales engineering" ) );
+        assertEquals( 2L, idx.nGramCount( partitionTxn, "eng" ) );
+        assertEquals( 1L, idx.nGramCount( partitionTxn, "sal" ) );
+        assertEquals( 1L, idx.nGramCount( partitionTxn, "mar" ) );
+
+        // The n-grams of the existing values are removed with them
+        idx.drop( partitionTxn, "sales engineering", Strings.getUUID( 2L ) );
+        assertEquals( 1L, idx.nGramCount( partitionTxn, "eng" ) );
+        assertEquals( 0L, idx.nGramCount( partitionTxn, "sal" ) );
+
+        idx.drop( partitionTxn, Strings.getUUID( 3L ) );
+        assertEquals( 0L, idx.nGramCount( partitionTxn, "mar" ) );
+        destroyIndex();
+
+        // The n-grams are not maintained while they are disabled
+        initIndex( createOuIndex( true, false ) );
+        assertFalse( idx.hasNGrams() );
+        idx.drop( partitionTxn, "engineering", Strings.getUUID( 1L ) );
+        idx.add( partitionTxn, "research", Strings.getUUID( 4L ) );
+        destroyIndex();
+
+        // Enabling them again rebuilds them
+        initIndex( createOuIndex( true, true ) );
+        assertEquals( 0L, idx.nGramCount( partitionTxn, "eng" ) );
+        assertEquals( 1L, idx.nGramCount( partitionTxn, "sea" ) );
+
+        Cursor<String> ids = idx.nGramValueCursor( partitionTxn, "rch" );
+        assertTrue( ids.next() );
+        assertEquals( Strings.getUUID( 4L ), ids.get() );
+        assertFalse( ids.next() );
+        ids.close();
+    }
+
+
     // -----------------------------------------------------------------------
     // Failing Tests
     // -----------------------------------------------------------------------
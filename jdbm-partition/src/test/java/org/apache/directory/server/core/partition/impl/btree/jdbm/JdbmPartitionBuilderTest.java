@@ -0,0 +1,304 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.partition.impl.btree.jdbm;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.apache.directory.api.ldap.model.constants.SchemaConstants;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.exception.LdapNoSuchObjectException;
+import org.apache.directory.api.ldap.model.exception.LdapOtherException;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.api.ldap.model.schema.AttributeType;
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.api.ldap.schema.extractor.SchemaLdifExtractor;
+import org.apache.directory.api.ldap.schema.extractor.impl.DefaultSchemaLdifExtractor;
+import org.apache.directory.api.ldap.schema.loader.LdifSchemaLoader;
+import org.apache.directory.api.ldap.schema.manager.impl.DefaultSchemaManager;
+import org.apache.directory.api.util.FileUtils;
+import org.apache.directory.api.util.exception.Exceptions;
+import org.apache.directory.server.constants.ApacheSchemaConstants;
+import org.apache.directory.server.core.api.CacheService;
+import org.apache.directory.server.core.api.DnFactory;
+import org.apache.directory.server.core.api.partition.PartitionTxn;
+import org.apache.directory.server.core.shared.DefaultDnFactory;
+import org.apache.directory.server.xdbm.Index;
+import org.apache.directory.server.xdbm.ParentIdAndRdn;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+
+/**
+ * Tests the JdbmPartitionBuilder.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class JdbmPartitionBuilderTest
+{
+    private static SchemaManager schemaManager;
+    private static DnFactory dnFactory;
+    private static CacheService cacheService;
+
+    /** The OU AttributeType instance */
+    private static AttributeType OU_AT;
+
+    /** The temporary directory the schema is extracted in */
+    private static Path tempDir;
+
+    /** The directory the partition is created in */
+    private Path partitionDir;
+
+    /** The entries, children first */
+    private static final String LDIF =
+        "dn: cn=JOhnny WAlkeR,ou=Engineering,o=Good Times Co.\n" +
+        "objectClass: top\n" +
+        "objectClass: person\n" +
+        "objectClass: organizationalPerson\n" +
+        "ou: Engineering\n" +
+        "cn: JOhnny WAlkeR\n" +
+        "sn: WAlkeR\n" +
+        "\n" +
+        "dn: ou=Sales,o=Good Times Co.\n" +
+        "objectClass: top\n" +
+        "objectClass: organizationalUnit\n" +
+        "ou: Sales\n" +
+        "\n" +
+        "dn: cn=Jim Bean,ou=Sales,o=Good Times Co.\n" +
+        "objectClass: top\n" +
+        "objectClass: person\n" +
+        "objectClass: organizationalPerson\n" +
+        "ou: Sales\n" +
+        "cn: Jim Bean\n" +
+        "sn: Bean\n" +
+        "\n" +
+        "dn: ou=Engineering,o=Good Times Co.\n" +
+        "objectClass: top\n" +
+        "objectClass: organizationalUnit\n" +
+        "ou: Engineering\n" +
+        "\n" +
+        "dn: o=Good Times Co.\n" +
+        "objectClass: top\n" +
+        "objectClass: organization\n" +
+        "o: Good Times Co.\n" +
+        "\n" +
+        "dn: cn=Jack Daniels,ou=Engineering,o=Good Times Co.\n" +
+        "objectClass: top\n" +
+        "objectClass: person\n" +
+        "objectClass: organizationalPerson\n" +
+        "ou: Engineering\n" +
+        "cn: Jack Daniels\n" +
+        "sn: Daniels\n";
+
+
+    @BeforeClass
+    public static void setup() throws Exception
+    {
+        tempDir = Files.createTempDirectory( JdbmPartitionBuilderTest.class.getSimpleName() );
+
+        File schemaRepository = new File( tempDir.toFile(), "schema" );
+        SchemaLdifExtractor extractor = new DefaultSchemaLdifExtractor( tempDir.toFile() );
+        extractor.extractOrCopy( true );
+        LdifSchemaLoader loader = new LdifSchemaLoader( schemaRepository );
+        schemaManager = new DefaultSchemaManager( loader );
+
+        boolean loaded = schemaManager.loadAllEnabled();
+
+        if ( !loaded )
+        {
+            fail( "Schema load failed : " + Exceptions.printErrors( schemaManager.getErrors() ) );
+        }
+
+        OU_AT = schemaManager.getAttributeType( SchemaConstants.OU_AT );
+
+        cacheService = new CacheService();
+        cacheService.initialize( null );
+        dnFactory = new DefaultDnFactory( schemaManager, cacheService.getCache( "dnCache" ) );
+    }
+
+
+    @Before
+    public void createPartitionDir() throws Exception
+    {
+        partitionDir = Files.createTempDirectory( tempDir, "partition" );
+    }
+
+
+    @After
+    public void deletePartitionDir() throws Exception
+    {
+        FileUtils.deleteDirectory( partitionDir.toFile() );
+    }
+
+
+    @AfterClass
+    public static void cleanup() throws Exception
+    {
+        FileUtils.deleteDirectory( tempDir.toFile() );
+    }
+
+
+    private JdbmPartition createPartition() throws Exception
+    {
+        JdbmPartition partition = new JdbmPartition( schemaManager, dnFactory );
+        partition.setId( "example" );
+        partition.setCacheSize( 10 );
+        partition.setPartitionPath( partitionDir.toUri() );
+        partition.setSyncOnWrite( false );
+        partition.addIndex( new JdbmIndex( SchemaConstants.OU_AT_OID, true ) );
+        partition.setSuffixDn( new Dn( schemaManager, "o=Good Times Co." ) );
+        partition.setCacheService( cacheService );
+
+        return partition;
+    }
+
+
+    private File writeLdif( String ldif ) throws Exception
+    {
+        File ldifFile = new File( partitionDir.toFile(), "load.ldif" );
+        Files.write( ldifFile.toPath(), ldif.getBytes( StandardCharsets.UTF_8 ) );
+
+        return ldifFile;
+    }
+
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testBuild() throws Exception
+    {
+        JdbmPartitionBuilder builder = new JdbmPartitionBuilder( createPartition(), writeLdif( LDIF ) );
+
+        // Spill the sorted entries in many runs
+        builder.setSortBufferSize( 2 );
+
+        assertEquals( 6L, builder.build() );
+        assertFalse( new File( partitionDir.toFile(), "sort" ).exists() );
+
+        // The built partition is used as is
+        JdbmPartition partition = createPartition();
+        partition.initialize();
+
+        try ( PartitionTxn partitionTxn = partition.beginReadTransaction() )
+        {
+            Dn suffixDn = new Dn( schemaManager, "o=Good Times Co." );
+            Dn engineeringDn = new Dn( schemaManager, "ou=Engineering,o=Good Times Co." );
+            Dn johnnyDn = new Dn( schemaManager, "cn=JOhnny WAlkeR,ou=Engineering,o=Good Times Co." );
+
+            String suffixId = partition.getEntryId( partitionTxn, suffixDn );
+            String engineeringId = partition.getEntryId( partitionTxn, engineeringDn );
+            String johnnyId = partition.getEntryId( partitionTxn, johnnyDn );
+
+            assertNotNull( suffixId );
+            assertNotNull( engineeringId );
+            assertNotNull( johnnyId );
+            assertEquals( johnnyDn, partition.getEntryDn( partitionTxn, johnnyId ) );
+
+            // The hierarchy counters
+            assertEquals( 2L, partition.getChildCount( partitionTxn, suffixId ) );
+            assertEquals( 2L, partition.getChildCount( partitionTxn, engineeringId ) );
+            assertEquals( 0L, partition.getChildCount( partitionTxn, johnnyId ) );
+
+            ParentIdAndRdn suffixKey = partition.getRdnIndex().reverseLookup( partitionTxn, suffixId );
+            assertEquals( 5, suffixKey.getNbDescendants() );
+
+            // The entries
+            Entry johnny = partition.fetch( partitionTxn, johnnyId );
+            assertEquals( engineeringId, johnny.get( ApacheSchemaConstants.ENTRY_PARENT_ID_AT ).getString() );
+            assertTrue( johnny.containsAttribute( SchemaConstants.ENTRY_CSN_AT ) );
+            assertTrue( johnny.containsAttribute( SchemaConstants.CREATORS_NAME_AT ) );
+
+            Entry suffix = partition.fetch( partitionTxn, suffixId );
+            assertNotNull( suffix.get( SchemaConstants.CONTEXT_CSN_AT ) );
+
+            // The system and user indices
+            assertEquals( 6L, partition.getEntryCsnIndex().count( partitionTxn ) );
+            assertEquals( 5L, partition.getPresenceIndex().count( partitionTxn, SchemaConstants.OU_AT_OID ) );
+
+            Index<String, String> ouIndex = ( Index<String, String> ) partition.getUserIndex( OU_AT );
+            assertEquals( 3L, ouIndex.count( partitionTxn, "engineering" ) );
+            assertFalse( ouIndex.forward( partitionTxn, "sales", johnnyId ) );
+            assertTrue( ouIndex.reverse( partitionTxn, johnnyId ) );
+        }
+        finally
+        {
+            partition.destroy( null );
+        }
+    }
+
+
+    @Test
+    public void testPartitionNotEmpty() throws Exception
+    {
+        File ldifFile = writeLdif( LDIF );
+
+        new JdbmPartitionBuilder( createPartition(), ldifFile ).build();
+
+        try
+        {
+            new JdbmPartitionBuilder( createPartition(), ldifFile ).build();
+            fail();
+        }
+        catch ( LdapOtherException loe )
+        {
+            // Expected
+        }
+    }
+
+
+    @Test
+    public void testMissingParent() throws Exception
+    {
+        String ldif =
+            "dn: o=Good Times Co.\n" +
+            "objectClass: top\n" +
+            "objectClass: organization\n" +
+            "o: Good Times Co.\n" +
+            "\n" +
+            "dn: cn=Jim Bean,ou=Sales,o=Good Times Co.\n" +
+            "objectClass: top\n" +
+            "objectClass: person\n" +
+            "cn: Jim Bean\n" +
+            "sn: Bean\n";
+
+        try
+        {
+            new JdbmPartitionBuilder( createPartition(), writeLdif( ldif ) ).build();
+            fail();
+        }
+        catch ( LdapNoSuchObjectException lnsoe )
+        {
+            // Expected
+        }
+
+        assertFalse( new File( partitionDir.toFile(), "sort" ).exists() );
+    }
+}
@@ -21,9 +21,14 @@ package org.apache.directory.server.core.partition.impl.btree.jdbm;
 
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.ObjectOutput;
+import java.io.ObjectOutputStream;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -33,6 +38,7 @@ import org.apache.directory.api.ldap.model.entry.Attribute;
 import org.apache.directory.api.ldap.model.entry.DefaultAttribute;
 import org.apache.directory.api.ldap.model.entry.DefaultEntry;
 import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.name.Dn;
 import org.apache.directory.api.ldap.model.schema.SchemaManager;
 import org.apache.directory.api.ldap.model.schema.normalizers.DeepTrimToLowerNormalizer;
 import org.apache.directory.api.ldap.model.schema.normalizers.OidNormalizer;
@@ -42,6 +48,7 @@ import org.apache.directory.api.ldap.schema.loader.LdifSchemaLoader;
 import org.apache.directory.api.ldap.schema.manager.impl.DefaultSchemaManager;
 import org.apache.directory.api.util.Strings;
 import org.apache.directory.api.util.exception.Exceptions;
+import org.apache.directory.server.core.api.entry.LazyEntry;
 import org.junit.BeforeClass;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -287,4 +294,70 @@ public class ServerEntrySerializerTest
 
         assertEquals( entry, result );
     }
+
+
+    @Test
+    public void testDeserializeLazyServerEntry() throws Exception
+    {
+        Entry entry = new DefaultEntry( schemaManager,
+            "cn=test,ou=system",
+            "objectClass: top",
+            "objectClass: person",
+            "cn: test",
+            "SN: Test",
+            "description: a description" );
+
+        EntrySerializer ses = new EntrySerializer( schemaManager );
+
+        byte[] data = ses.serialize( entry );
+
+        LazyEntry result = ( LazyEntry ) ses.deserialize( data );
+
+        // Only the requested attribute is decoded
+        assertEquals( 4, result.getPendingCount() );
+        assertTrue( result.contains( "sn", "Test" ) );
+        assertEquals( 3, result.getPendingCount() );
+
+        assertEquals( "cn=test", result.getDn().getName() );
+        assertEquals( entry.size(), result.size() );
+    }
+
+
+    /**
+     * The entries stored before the offset table was added must still be read
+     */
+    @Test
+    public void testDeserializeLegacyServerEntry() throws Exception
+    {
+        Entry entry = new DefaultEntry( schemaManager,
+            "cn=test,ou=system",
+            "objectClass: top",
+            "objectClass: person",
+            "cn: test",
+            "SN: Test",
+            "userPassword", Strings.getBytesUtf8( "password" ) );
+
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        ObjectOutput out = new ObjectOutputStream( baos );
+
+        out.writeByte( 1 );
+        entry.getDn().getRdn().writeExternal( out );
+        out.writeInt( entry.size() );
+
+        for ( Attribute attribute : entry )
+        {
+            out.writeUTF( attribute.getAttributeType().getOid() );
+            attribute.writeExternal( out );
+        }
+
+        out.flush();
+
+        EntrySerializer ses = new EntrySerializer( schemaManager );
+
+        Entry result = ( Entry ) ses.deserialize( baos.toByteArray() );
+
+        assertFalse( result instanceof LazyEntry );
+        entry.setDn( new Dn( schemaManager, "cn=test" ) );
+        assertEquals( entry, result );
+    }
 }
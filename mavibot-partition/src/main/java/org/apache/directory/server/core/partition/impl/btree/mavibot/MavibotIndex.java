@@ -46,6 +46,7 @@ import org.apache.directory.server.core.partition.impl.btree.IndexCursorAdaptor;
 import org.apache.directory.server.i18n.I18n;
 import org.apache.directory.server.xdbm.AbstractIndex;
 import org.apache.directory.server.xdbm.IndexEntry;
+import org.apache.directory.server.xdbm.Table;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -66,6 +67,9 @@ public class MavibotIndex<K> extends AbstractIndex<K, String>
     /**  the key used for the reverse btree name */
     public static final String REVERSE_BTREE = "_reverse";
 
+    /**  the key used for the n-gram btree name */
+    public static final String NGRAM_BTREE = "_ngram";
+
     /**
      * the forward btree where the btree key is the value of the indexed attribute and
      * the value of the btree is the entry id of the entry containing an attribute with
@@ -144,6 +148,8 @@ public class MavibotIndex<K> extends AbstractIndex<K, String>
             throw e;
         }
 
+        buildNGrams( null );
+
         initialized = true;
     }
 
@@ -209,6 +215,17 @@ public class MavibotIndex<K> extends AbstractIndex<K, String>
             reverse = new MavibotTable<>( recordMan, schemaManager, reverseTableName, StringSerializer.INSTANCE,
                 forwardKeySerializer, !attributeType.isSingleValued() );
         }
+
+        /*
+         * The n-gram map stores the n-grams of the attribute values, compared as is, to
+         * the master table primary keys of the entries having them.
+         */
+        if ( withNGrams && attributeType.getSyntax().isHumanReadable() )
+        {
+            String nGramTableName = attributeType.getOid() + NGRAM_BTREE;
+            nGrams = new MavibotTable<>( recordMan, schemaManager, nGramTableName, StringSerializer.INSTANCE,
+                StringSerializer.INSTANCE, true );
+        }
     }
 
 
@@ -344,6 +361,8 @@ public class MavibotIndex<K> extends AbstractIndex<K, String>
         {
             reverse.put( partitionTxn, id, attrVal );
         }
+
+        addNGrams( partitionTxn, attrVal, id );
     }
 
 
@@ -362,6 +381,8 @@ public class MavibotIndex<K> extends AbstractIndex<K, String>
             {
                 reverse.remove( partitionTxn, id, attrVal );
             }
+
+            dropNGrams( partitionTxn, attrVal, id );
         }
     }
 
@@ -373,6 +394,8 @@ public class MavibotIndex<K> extends AbstractIndex<K, String>
     {
         if ( withReverse )
         {
+            dropNGrams( partitionTxn, entryId );
+
             if ( isDupsEnabled() )
             {
                 // Build a cursor to iterate on all the keys referencing
@@ -497,6 +520,16 @@ public class MavibotIndex<K> extends AbstractIndex<K, String>
     // ------------------------------------------------------------------------
     // Maintenance Methods
     // ------------------------------------------------------------------------
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected Table<String, K> getReverseTable()
+    {
+        return reverse;
+    }
+
+
     /**
      * {@inheritDoc}
      */
@@ -514,6 +547,11 @@ public class MavibotIndex<K> extends AbstractIndex<K, String>
             {
                 reverse.close( partitionTxn );
             }
+
+            if ( nGrams != null )
+            {
+                nGrams.close( partitionTxn );
+            }
         }
         catch ( Exception e )
         {
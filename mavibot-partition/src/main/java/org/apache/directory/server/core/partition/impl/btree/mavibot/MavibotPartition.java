@@ -60,6 +60,7 @@ import org.apache.directory.server.core.api.partition.PartitionTxn;
 import org.apache.directory.server.core.api.partition.PartitionWriteTxn;
 import org.apache.directory.server.core.partition.impl.btree.AbstractBTreePartition;
 import org.apache.directory.server.i18n.I18n;
+import org.apache.directory.server.xdbm.AbstractIndex;
 import org.apache.directory.server.xdbm.Index;
 import org.apache.directory.server.xdbm.search.impl.CursorBuilder;
 import org.apache.directory.server.xdbm.search.impl.DefaultOptimizer;
@@ -147,6 +148,7 @@ public class MavibotPartition extends AbstractBTreePartition
 
             EvaluatorBuilder evaluatorBuilder = new EvaluatorBuilder( this, schemaManager );
             CursorBuilder cursorBuilder = new CursorBuilder( this, evaluatorBuilder );
+            cursorBuilder.setAndIntersectionEnabled( andIntersectionEnabled );
 
             setSearchEngine( new DefaultSearchEngine( this, cursorBuilder, evaluatorBuilder, getOptimizer() ) );
 
@@ -279,6 +281,11 @@ public class MavibotPartition extends AbstractBTreePartition
             mavibotIndex = new MavibotIndex( index.getAttributeId(), true );
             mavibotIndex.setCacheSize( index.getCacheSize() );
             mavibotIndex.setWkDirPath( index.getWkDirPath() );
+
+            if ( index instanceof AbstractIndex )
+            {
+                mavibotIndex.setNGramsEnabled( ( ( AbstractIndex<?, String> ) index ).isNGramsEnabled() );
+            }
         }
 
         mavibotIndex.setRecordManager( recordMan );
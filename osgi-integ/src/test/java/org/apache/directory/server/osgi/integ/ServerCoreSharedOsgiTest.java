@@ -39,7 +39,7 @@ public class ServerCoreSharedOsgiTest extends ServerOsgiTestBase
     @Override
     protected void useBundleClasses() throws Exception
     {
-        new DefaultDnFactory( null, null );
+        new DefaultDnFactory( null );
         NullStringSerializer.INSTANCE.serialize( null );
         NullStringSerializer.INSTANCE.deserialize( null );
         new DefaultPartitionNexus( new DefaultEntry() );
@@ -0,0 +1,345 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.ldap;
+
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.directory.api.ldap.model.message.Message;
+import org.apache.directory.server.ldap.handlers.sasl.SaslConstants;
+import org.apache.mina.core.buffer.IoBuffer;
+import org.apache.mina.core.future.IoFutureListener;
+import org.apache.mina.core.future.WriteFuture;
+import org.apache.mina.core.service.IoHandler;
+import org.apache.mina.core.session.IoSession;
+import org.apache.mina.filter.codec.ProtocolCodecFactory;
+import org.apache.mina.filter.codec.ProtocolEncoder;
+import org.apache.mina.filter.codec.ProtocolEncoderOutput;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * Writes the responses of a long running operation (search results) in batches : the
+ * responses are encoded by this class, and their PDUs are packed in a single buffer,
+ * which is written when it reaches the batch size. The ProtocolCodecFilter lets the
+ * already encoded buffers go through, so a batch costs a single pass in the filter chain
+ * and a single write on the socket, instead of one per response.
+ * <br>
+ * A batch is also written when its first response has been waiting for more than
+ * {@link #MAX_BATCH_DELAY} ms, so that a slow search does not hold its results too long :
+ * the LdapServer scheduler writes it even if the operation does not produce any other
+ * response. It's finally written when the operation calls {@link #flush()}, which must be
+ * done before its final response is written.
+ * <br>
+ * Once a batch has been sent, the IoHandler is notified of each of its responses, as if
+ * they had been written one by one, so that the sent message handlers are still called.
+ * <br>
+ * The responses are written one by one when the batch size is 0, or when a SASL security
+ * layer is installed on the session : it wraps each buffer, and a batch may be bigger than
+ * the SASL buffer size negotiated with the client.
+ * <br>
+ * An instance is used by a single operation. Its methods are synchronized, as the batch
+ * can be written by the scheduler thread.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class BatchedResponseWriter
+{
+    /** The logger for this class */
+    private static final Logger LOG = LoggerFactory.getLogger( BatchedResponseWriter.class );
+
+    /** The default batch size : 64KB */
+    public static final int DEFAULT_BATCH_SIZE = 64 * 1024;
+
+    /** The maximum time a response is kept in a batch, in ms */
+    public static final long MAX_BATCH_DELAY = 50L;
+
+    /** The session we write on */
+    private final IoSession session;
+
+    /** The encoder used by the ProtocolCodecFilter of the session */
+    private final ProtocolEncoder encoder;
+
+    /** The size above which a batch is written. 0 if we don't batch */
+    private final int batchSize;
+
+    /** The scheduler writing the batches which are waiting for too long. May be null */
+    private final ScheduledExecutorService scheduler;
+
+    /** The handler notified of the responses sent in a batch */
+    private final IoHandler handler;
+
+    /** The output collecting the encoded responses in the current batch */
+    private final ProtocolEncoderOutput batchOutput = new ProtocolEncoderOutput()
+    {
+        @Override
+        public void write( Object encodedMessage )
+        {
+            append( ( IoBuffer ) encodedMessage );
+        }
+
+
+        @Override
+        public void mergeAll()
+        {
+            // The encoded messages are already merged
+        }
+
+
+        @Override
+        public WriteFuture flush()
+        {
+            // The batch is written by the BatchedResponseWriter
+            return null;
+        }
+    };
+
+    /** The current batch */
+    private IoBuffer batch;
+
+    /** The responses in the current batch */
+    private List<Message> responses = new ArrayList<>();
+
+    /** The time the first response has been added to the current batch, in ns */
+    private long batchStart;
+
+    /** The number of batches written so far, used to identify the current batch */
+    private long batchNumber;
+
+
+    /**
+     * Creates a new instance of BatchedResponseWriter
+     *
+     * @param ldapServer The LdapServer instance
+     * @param session The session we write on
+     */
+    public BatchedResponseWriter( LdapServer ldapServer, IoSession session )
+    {
+        this( session, getEncoder( ldapServer, session ), ldapServer.getWriteBatchSize(),
+            ldapServer.getWriteBatchScheduler(), ldapServer.getHandler() );
+    }
+
+
+    /**
+     * Creates a new instance of BatchedResponseWriter
+     *
+     * @param session The session we write on
+     * @param encoder The encoder used by the ProtocolCodecFilter of the session. If null, the responses
+     * are not batched
+     * @param batchSize The size above which a batch is written. 0 if we don't batch
+     * @param scheduler The scheduler writing the batches which are waiting for too long. May be null
+     * @param handler The handler notified of the responses sent in a batch
+     */
+    BatchedResponseWriter( IoSession session, ProtocolEncoder encoder, int batchSize,
+        ScheduledExecutorService scheduler, IoHandler handler )
+    {
+        this.session = session;
+        this.encoder = encoder;
+        this.batchSize = ( encoder == null ) ? 0 : batchSize;
+        this.scheduler = scheduler;
+        this.handler = handler;
+    }
+
+
+    /**
+     * Gets the encoder used by the ProtocolCodecFilter of a session, if its responses can be batched
+     */
+    private static ProtocolEncoder getEncoder( LdapServer ldapServer, IoSession session )
+    {
+        ProtocolCodecFactory codecFactory = ldapServer.getProtocolCodecFactory();
+
+        if ( ( ldapServer.getWriteBatchSize() > 0 ) && ( codecFactory != null )
+            && !session.getFilterChain().contains( SaslConstants.SASL_FILTER ) )
+        {
+            try
+            {
+                return codecFactory.getEncoder( session );
+            }
+            catch ( Exception e )
+            {
+                LOG.warn( "Cannot get the encoder for the session {}, the responses won't be batched : {}",
+                    session, e.getMessage() );
+            }
+        }
+
+        return null;
+    }
+
+
+    /**
+     * Writes a response. It's encoded and added to the current batch, which is written if it's full
+     * or old enough.
+     *
+     * @param response The response to write
+     * @throws Exception If the response cannot be encoded
+     */
+    public synchronized void write( Message response ) throws Exception
+    {
+        if ( batchSize == 0 )
+        {
+            session.write( response );
+
+            return;
+        }
+
+        if ( responses.isEmpty() )
+        {
+            batchStart = System.nanoTime();
+            scheduleFlush();
+        }
+
+        encoder.encode( session, response, batchOutput );
+        responses.add( response );
+
+        if ( ( batch.position() >= batchSize )
+            || ( System.nanoTime() - batchStart >= TimeUnit.MILLISECONDS.toNanos( MAX_BATCH_DELAY ) ) )
+        {
+            flush();
+        }
+    }
+
+
+    /**
+     * Writes the current batch, if it's not empty
+     */
+    public synchronized void flush()
+    {
+        if ( responses.isEmpty() )
+        {
+            return;
+        }
+
+        if ( LOG.isDebugEnabled() )
+        {
+            LOG.debug( "Writing a batch of {} responses, {} bytes", responses.size(), batch.position() );
+        }
+
+        batch.flip();
+        WriteFuture future = session.write( batch );
+
+        final List<Message> sentResponses = responses;
+
+        future.addListener( new IoFutureListener<WriteFuture>()
+        {
+            @Override
+            public void operationComplete( WriteFuture writeFuture )
+            {
+                if ( writeFuture.isWritten() )
+                {
+                    responsesSent( sentResponses );
+                }
+            }
+        } );
+
+        // The written buffer belongs to MINA now
+        batch = null;
+        responses = new ArrayList<>();
+        batchNumber++;
+    }
+
+
+    /**
+     * Schedules the write of the current batch, once it has been waiting for too long
+     */
+    private void scheduleFlush()
+    {
+        if ( scheduler == null )
+        {
+            return;
+        }
+
+        final long scheduledBatch = batchNumber;
+
+        try
+        {
+            scheduler.schedule( new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    synchronized ( BatchedResponseWriter.this )
+                    {
+                        // The batch may have been written in the meantime
+                        if ( batchNumber == scheduledBatch )
+                        {
+                            flush();
+                        }
+                    }
+                }
+            }, MAX_BATCH_DELAY, TimeUnit.MILLISECONDS );
+        }
+        catch ( RejectedExecutionException ree )
+        {
+            // The server is being stopped : the batch will be written by the operation
+            LOG.debug( "Cannot schedule the write of the batch : {}", ree.getMessage() );
+        }
+    }
+
+
+    /**
+     * Notifies the handler of the responses sent in a batch
+     */
+    private void responsesSent( List<Message> sentResponses )
+    {
+        for ( Message response : sentResponses )
+        {
+            try
+            {
+                handler.messageSent( session, response );
+            }
+            catch ( Exception e )
+            {
+                LOG.warn( "Failed to handle the sent response {} : {}", response.getMessageId(), e.getMessage() );
+            }
+        }
+    }
+
+
+    /**
+     * Adds an encoded response to the current batch
+     */
+    private void append( IoBuffer encoded )
+    {
+        if ( batch == null )
+        {
+            // Heap buffers : the allocator configured in MINA may pool them, and writing them
+            // costs a copy in the direct buffer cached by the JDK for the IoProcessor thread,
+            // which is cheaper than allocating a direct buffer for each batch
+            batch = IoBuffer.allocate( Math.max( batchSize, encoded.remaining() ), false );
+            batch.setAutoExpand( true );
+        }
+
+        batch.put( encoded );
+    }
+
+
+    /**
+     * @return The number of responses waiting in the current batch
+     */
+    public synchronized int getBatchedCount()
+    {
+        return responses.size();
+    }
+}
@@ -152,6 +152,9 @@ class LdapProtocolHandler extends DemuxingIoHandler
     @Override
     public void messageSent( IoSession session, Object message ) throws Exception
     {
+        // Some bytes have been written : wake up the searches waiting for the write queues to drain
+        ldapServer.getWriteFlowController().messageSent();
+
         // Do nothing : we have to ignore this message, otherwise we get an exception,
         // thanks to the way MINA 2 works ...
         if ( message instanceof IoBuffer )
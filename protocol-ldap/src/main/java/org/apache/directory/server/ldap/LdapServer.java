@@ -37,7 +37,11 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
 
+import javax.crypto.SecretKey;
 import javax.net.ssl.KeyManagerFactory;
 
 import org.apache.directory.api.ldap.codec.api.LdapApiServiceFactory;
@@ -74,6 +78,7 @@ import org.apache.directory.server.core.security.CoreKeyStoreSpi;
 import org.apache.directory.server.i18n.I18n;
 import org.apache.directory.server.ldap.handlers.LdapRequestHandler;
 import org.apache.directory.server.ldap.handlers.LdapResponseHandler;
+import org.apache.directory.server.ldap.handlers.controls.PagedSearchCookie;
 import org.apache.directory.server.ldap.handlers.extended.StartTlsHandler;
 import org.apache.directory.server.ldap.handlers.request.AbandonRequestHandler;
 import org.apache.directory.server.ldap.handlers.request.AddRequestHandler;
@@ -153,6 +158,9 @@ public class LdapServer extends DirectoryBackedService
     /** The default maximum time limit. */
     private static final int MAX_TIME_LIMIT_DEFAULT = 10000;
 
+    /** The default maximum number of paged search contexts kept in a session. */
+    private static final int MAX_PAGED_SEARCH_CONTEXTS_DEFAULT = 16;
+
     /** The default service pid. */
     private static final String SERVICE_PID_DEFAULT = "org.apache.directory.server.ldap";
 
@@ -180,6 +188,24 @@ public class LdapServer extends DirectoryBackedService
     /** The maximum size for an incoming PDU */
     private int maxPDUSize = Integer.MAX_VALUE;
 
+    /** The flow control applied to the search results */
+    private final WriteFlowController writeFlowController = new WriteFlowController( this );
+
+    /** The size of the batches in which the search results are written. 0 means no batching */
+    private int writeBatchSize = BatchedResponseWriter.DEFAULT_BATCH_SIZE;
+
+    /** The scheduler writing the batches of search results which are waiting for too long */
+    private ScheduledExecutorService writeBatchScheduler;
+
+    /** Tells if the paged searches store their position in the cookie instead of keeping a cursor in the session */
+    private boolean statelessPagedSearch = false;
+
+    /** The key the stateless paged search cookies are signed with */
+    private final SecretKey pagedSearchCookieKey = PagedSearchCookie.createKey();
+
+    /** The maximum number of paged search contexts kept in a session. 0 means no limit */
+    private int maxPagedSearchContexts = MAX_PAGED_SEARCH_CONTEXTS_DEFAULT;
+
     /** If LDAPS is activated : the external Keystore file, if defined */
     private String keystoreFile;
 
@@ -533,6 +559,11 @@ public class LdapServer extends DirectoryBackedService
         // Install the replication handler if we have one
         startReplicationProducer();
 
+        if ( writeBatchSize > 0 )
+        {
+            startWriteBatchScheduler();
+        }
+
         for ( Transport transport : transports )
         {
             if ( !( transport instanceof TcpTransport ) )
@@ -594,6 +625,28 @@ public class LdapServer extends DirectoryBackedService
     }
 
 
+    /**
+     * Starts the thread writing the batches of search results which are waiting for too long
+     */
+    private void startWriteBatchScheduler()
+    {
+        ThreadFactory threadFactory = new ThreadFactory()
+        {
+            @Override
+            public Thread newThread( Runnable runnable )
+            {
+                Thread newThread = Executors.defaultThreadFactory().newThread( runnable );
+                newThread.setName( "WriteBatchFlusher" );
+                newThread.setDaemon( true );
+
+                return newThread;
+            }
+        };
+
+        writeBatchScheduler = Executors.newSingleThreadScheduledExecutor( threadFactory );
+    }
+
+
     /**
      * Install the replication handler if we have one
      */
@@ -613,6 +666,13 @@ public class LdapServer extends DirectoryBackedService
     @Override
     public void stop()
     {
+        // The searches write their pending batches themselves
+        if ( writeBatchScheduler != null )
+        {
+            writeBatchScheduler.shutdownNow();
+            writeBatchScheduler = null;
+        }
+
         try
         {
             for ( Transport transport : transports )
@@ -1787,6 +1847,115 @@ public class LdapServer extends DirectoryBackedService
     }
 
 
+    /**
+     * @return The flow control applied to the search results, which holds the high and
+     * low water marks of the sessions, and the maximum number of bytes scheduled for
+     * writing on the whole server
+     */
+    public WriteFlowController getWriteFlowController()
+    {
+        return writeFlowController;
+    }
+
+
+    /**
+     * @return The number of bytes above which a batch of search results is written
+     */
+    public int getWriteBatchSize()
+    {
+        return writeBatchSize;
+    }
+
+
+    /**
+     * @return The scheduler writing the batches of search results which are waiting for too long,
+     * or null if the server is not started
+     */
+    ScheduledExecutorService getWriteBatchScheduler()
+    {
+        return writeBatchScheduler;
+    }
+
+
+    /**
+     * Sets the size of the batches in which the search results are written
+     *
+     * @param writeBatchSize The number of bytes above which a batch of search results is written.
+     * A negative or null value disables the batching : each result is written on its own
+     */
+    public void setWriteBatchSize( int writeBatchSize )
+    {
+        if ( writeBatchSize < 0 )
+        {
+            writeBatchSize = 0;
+        }
+
+        this.writeBatchSize = writeBatchSize;
+    }
+
+
+    /**
+     * @return <code>true</code> if the paged searches are stateless : the cookie contains the
+     * position of the last returned entry, and each page is read from a new cursor
+     */
+    public boolean isStatelessPagedSearch()
+    {
+        return statelessPagedSearch;
+    }
+
+
+    /**
+     * Sets the paged searches mode. A stateless paged search does not keep any cursor, nor
+     * partition transaction, open between two pages : the cookie contains the position of the
+     * last returned entry, and the next page is read from a new cursor moved just after it.
+     * Moving this cursor reads again all the entries of the previous pages, so the stateful
+     * mode is cheaper for the searches returning many pages.
+     *
+     * @param statelessPagedSearch <code>true</code> if the paged searches are stateless
+     */
+    public void setStatelessPagedSearch( boolean statelessPagedSearch )
+    {
+        this.statelessPagedSearch = statelessPagedSearch;
+    }
+
+
+    /**
+     * @return The random key the stateless paged search cookies are signed with, so that the
+     * clients can't forge them
+     */
+    public SecretKey getPagedSearchCookieKey()
+    {
+        return pagedSearchCookieKey;
+    }
+
+
+    /**
+     * @return The maximum number of paged search contexts, and cursors, kept in a session
+     */
+    public int getMaxPagedSearchContexts()
+    {
+        return maxPagedSearchContexts;
+    }
+
+
+    /**
+     * Sets the maximum number of paged search contexts kept in a session. When it's reached,
+     * the least recently used context is removed, and its cursor closed.
+     *
+     * @param maxPagedSearchContexts The maximum number of paged search contexts kept in a session.
+     * A negative or null value means no limit
+     */
+    public void setMaxPagedSearchContexts( int maxPagedSearchContexts )
+    {
+        if ( maxPagedSearchContexts < 0 )
+        {
+            maxPagedSearchContexts = 0;
+        }
+
+        this.maxPagedSearchContexts = maxPagedSearchContexts;
+    }
+
+
     /**
      * Gives the list of enabled cipher suites
      * <br>
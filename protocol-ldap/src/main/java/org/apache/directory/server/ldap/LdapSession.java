@@ -23,7 +23,11 @@ package org.apache.directory.server.ldap;
 import java.io.IOException;
 import java.net.SocketAddress;
 import java.util.Collections;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.locks.Lock;
@@ -93,7 +97,7 @@ public class LdapSession
      */
     private Map<String, Object> saslProperties;
 
-    /** A map containing all the paged search context */
+    /** A map containing all the paged search context, the least recently used first */
     private Map<Integer, PagedSearchContext> pagedSearchContexts;
 
 
@@ -111,7 +115,7 @@ public class LdapSession
         searchRequests = new ConcurrentHashMap<>();
         bindStatus = BindStatus.ANONYMOUS;
         saslProperties = new HashMap<>();
-        pagedSearchContexts = new ConcurrentHashMap<>();
+        pagedSearchContexts = new LinkedHashMap<>( 16, 0.75f, true );
     }
 
 
@@ -512,31 +516,71 @@ public class LdapSession
     /**
      * Add a new Paged Search context into the stored context. If some
      * context with the same id already exists, it will be closed and
-     * removed.
+     * removed. If the session already holds the maximum number of contexts
+     * allowed by the server, the least recently used ones are closed and
+     * removed too.
      *
      * @param context The context to add
      */
     public void addPagedSearchContext( PagedSearchContext context )
     {
-        PagedSearchContext oldContext = pagedSearchContexts.put( context.getCookieValue(), context );
+        List<PagedSearchContext> closedContexts = new ArrayList<>();
 
-        if ( oldContext != null )
+        synchronized ( pagedSearchContexts )
         {
-            // ??? Very unlikely to happen ...
-            Cursor<Entry> cursor = oldContext.getCursor();
+            PagedSearchContext oldContext = pagedSearchContexts.put( context.getCookieValue(), context );
 
-            if ( cursor != null )
+            if ( oldContext != null )
             {
-                try
-                {
-                    cursor.close();
-                }
-                catch ( Exception e )
+                // ??? Very unlikely to happen ...
+                closedContexts.add( oldContext );
+            }
+
+            int maxContexts = ( ldapServer == null ) ? 0 : ldapServer.getMaxPagedSearchContexts();
+
+            if ( maxContexts > 0 )
+            {
+                Iterator<PagedSearchContext> contexts = pagedSearchContexts.values().iterator();
+
+                while ( pagedSearchContexts.size() > maxContexts )
                 {
-                    LOG.error( I18n.err( I18n.ERR_172, e.getLocalizedMessage() ) );
+                    PagedSearchContext eldest = contexts.next();
+                    contexts.remove();
+                    closedContexts.add( eldest );
+
+                    if ( IS_DEBUG )
+                    {
+                        LOG.debug( "Evicting the least recently used {}", eldest );
+                    }
                 }
             }
         }
+
+        for ( PagedSearchContext closedContext : closedContexts )
+        {
+            closeCursor( closedContext );
+        }
+    }
+
+
+    /**
+     * Close the cursor of a Paged Search context, if it has one
+     */
+    private void closeCursor( PagedSearchContext context )
+    {
+        Cursor<Entry> cursor = context.getCursor();
+
+        if ( cursor != null )
+        {
+            try
+            {
+                cursor.close();
+            }
+            catch ( Exception e )
+            {
+                LOG.error( I18n.err( I18n.ERR_172, e.getLocalizedMessage() ) );
+            }
+        }
     }
 
 
@@ -548,7 +592,10 @@ public class LdapSession
      */
     public PagedSearchContext removePagedSearchContext( int contextId )
     {
-        return pagedSearchContexts.remove( contextId );
+        synchronized ( pagedSearchContexts )
+        {
+            return pagedSearchContexts.remove( contextId );
+        }
     }
 
 
@@ -559,9 +606,16 @@ public class LdapSession
      */
     public void closeAllPagedSearches() throws IOException
     {
-        for ( Map.Entry<Integer, PagedSearchContext> entry : pagedSearchContexts.entrySet() )
+        List<PagedSearchContext> contexts;
+
+        synchronized ( pagedSearchContexts )
         {
-            Cursor<Entry> cursor = entry.getValue().getCursor();
+            contexts = new ArrayList<>( pagedSearchContexts.values() );
+        }
+
+        for ( PagedSearchContext context : contexts )
+        {
+            Cursor<Entry> cursor = context.getCursor();
 
             if ( cursor != null )
             {
@@ -570,14 +624,32 @@ public class LdapSession
         }
     }
 
+
     /**
-     * Get paged search context associated with an ID
+     * @return The number of paged search contexts stored in the session
+     */
+    public int getPagedSearchContextsCount()
+    {
+        synchronized ( pagedSearchContexts )
+        {
+            return pagedSearchContexts.size();
+        }
+    }
+
+
+    /**
+     * Get paged search context associated with an ID. The context becomes
+     * the most recently used one.
+     *
      * @param contextId The id for teh context we want to get
      * @return The associated context, if any
      */
     public PagedSearchContext getPagedSearchContext( int contextId )
     {
-        return pagedSearchContexts.get( contextId );
+        synchronized ( pagedSearchContexts )
+        {
+            return pagedSearchContexts.get( contextId );
+        }
     }
 
 
@@ -0,0 +1,443 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.ldap;
+
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.directory.api.ldap.model.exception.LdapServiceUnavailableException;
+import org.apache.directory.api.ldap.model.exception.LdapTimeLimitExceededException;
+import org.apache.directory.api.ldap.model.message.AbandonableRequest;
+import org.apache.directory.api.ldap.model.message.ResultCodeEnum;
+import org.apache.directory.server.protocol.shared.transport.Transport;
+import org.apache.mina.core.service.IoAcceptor;
+import org.apache.mina.core.session.IoSession;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * Controls the flow of the responses written by the long running operations (searches),
+ * so that a slow client does not make the server buffer the whole result set in memory.
+ * <br>
+ * Before writing a response, the operation checks the number of bytes already scheduled
+ * for writing on the session. If it exceeds the high-water mark, the operation is paused
+ * until it goes down to the low-water mark : the writes done by MINA wake it up. The total
+ * number of bytes scheduled for writing on the whole server is also capped : when the cap is
+ * reached, the sessions which have pending writes are paused until it's not reached anymore.
+ * A session without pending write is never paused, so that all the sessions progress.
+ * <br>
+ * A paused operation holds one of the I/O executor threads. To keep the server responsive,
+ * an operation can't be paused longer than the maximum pause time, and when too many
+ * operations are already paused, the others are not paused but rejected : the operation
+ * then ends with a timeLimitExceeded or a busy result.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class WriteFlowController
+{
+    /** The logger for this class */
+    private static final Logger LOG = LoggerFactory.getLogger( WriteFlowController.class );
+
+    /** The default number of bytes scheduled on a session above which we stop writing : 1MB */
+    public static final long DEFAULT_HIGH_WATER_MARK = 1024L * 1024L;
+
+    /** The default number of bytes scheduled on a session below which we resume writing : 256KB */
+    public static final long DEFAULT_LOW_WATER_MARK = 256L * 1024L;
+
+    /** The default maximum number of bytes scheduled on the whole server : 128MB */
+    public static final long DEFAULT_MAX_SCHEDULED_WRITE_BYTES = 128L * 1024L * 1024L;
+
+    /** The default maximum time an operation can be paused, in ms : 30 seconds */
+    public static final long DEFAULT_MAX_PAUSE_TIME = 30000L;
+
+    /** The interval at which a paused operation checks its session, even if it is not woken up, in ms */
+    private static final long CHECK_INTERVAL = 100L;
+
+    /** The server which sessions we control */
+    private final LdapServer ldapServer;
+
+    /** The number of bytes scheduled on a session above which we stop writing */
+    private volatile long highWaterMark = DEFAULT_HIGH_WATER_MARK;
+
+    /** The number of bytes scheduled on a session below which we resume writing */
+    private volatile long lowWaterMark = DEFAULT_LOW_WATER_MARK;
+
+    /** The maximum number of bytes scheduled on the whole server. 0 means no limit */
+    private volatile long maxScheduledWriteBytes = DEFAULT_MAX_SCHEDULED_WRITE_BYTES;
+
+    /** The maximum time an operation can be paused, in ms. 0 means no limit */
+    private volatile long maxPauseTime = DEFAULT_MAX_PAUSE_TIME;
+
+    /**
+     * The maximum number of operations paused at the same time. A negative value means
+     * half of the I/O executor threads of the server transports
+     */
+    private volatile int maxPausedOperations = -1;
+
+    /** The lock and condition the paused operations wait on */
+    private final Lock lock = new ReentrantLock();
+    private final Condition written = lock.newCondition();
+
+    /** The number of paused operations */
+    private final AtomicInteger nbPaused = new AtomicInteger();
+
+    /** The number of times an operation has been paused */
+    private final AtomicLong pauseCount = new AtomicLong();
+
+    /** The total time the operations have been paused, in ms */
+    private final AtomicLong pausedTime = new AtomicLong();
+
+    /** The number of operations ended because they could not be paused, or were paused too long */
+    private final AtomicLong rejectCount = new AtomicLong();
+
+
+    /**
+     * Creates a new instance of WriteFlowController
+     *
+     * @param ldapServer The server which sessions we control
+     */
+    public WriteFlowController( LdapServer ldapServer )
+    {
+        this.ldapServer = ldapServer;
+    }
+
+
+    /**
+     * Waits until a response can be written on a session. Returns immediately if the
+     * session's pending writes are under the high-water mark, and the server cap is not
+     * reached.
+     *
+     * @param session The session we want to write on
+     * @param request The request the response is for
+     * @return <code>false</code> if the session has been closed or the request abandoned while we were waiting
+     * @throws InterruptedException If the thread has been interrupted while waiting
+     * @throws LdapTimeLimitExceededException If the session has not been drained within the maximum pause time
+     * @throws LdapServiceUnavailableException If too many operations are already paused
+     */
+    public boolean awaitWritable( IoSession session, AbandonableRequest request ) throws InterruptedException,
+        LdapTimeLimitExceededException, LdapServiceUnavailableException
+    {
+        long sessionBytes = session.getScheduledWriteBytes();
+
+        if ( ( sessionBytes <= highWaterMark ) && !isServerFull( sessionBytes ) )
+        {
+            return true;
+        }
+
+        if ( nbPaused.incrementAndGet() > computeMaxPausedOperations() )
+        {
+            nbPaused.decrementAndGet();
+            rejectCount.incrementAndGet();
+
+            LOG.warn( "Too many paused operations, rejecting the request {} : {} bytes scheduled on the session",
+                request.getMessageId(), sessionBytes );
+
+            throw new LdapServiceUnavailableException( ResultCodeEnum.BUSY,
+                "The server is waiting for too many clients to read their responses" );
+        }
+
+        if ( LOG.isDebugEnabled() )
+        {
+            LOG.debug( "Pausing the request {} : {} bytes scheduled on the session, {} on the server",
+                request.getMessageId(), sessionBytes, getServerScheduledWriteBytes() );
+        }
+
+        long start = System.currentTimeMillis();
+        long maxPause = maxPauseTime;
+        pauseCount.incrementAndGet();
+        lock.lock();
+
+        try
+        {
+            while ( true )
+            {
+                if ( session.isClosing() || request.isAbandoned() )
+                {
+                    return false;
+                }
+
+                sessionBytes = session.getScheduledWriteBytes();
+
+                if ( ( sessionBytes <= lowWaterMark ) && !isServerFull( sessionBytes ) )
+                {
+                    return true;
+                }
+
+                long waitTime = CHECK_INTERVAL;
+
+                if ( maxPause > 0L )
+                {
+                    long remaining = start + maxPause - System.currentTimeMillis();
+
+                    if ( remaining <= 0L )
+                    {
+                        rejectCount.incrementAndGet();
+
+                        LOG.warn( "The request {} has been paused for more than {}ms, {} bytes are still scheduled"
+                            + " on its session", request.getMessageId(), maxPause, sessionBytes );
+
+                        throw new LdapTimeLimitExceededException(
+                            "The client has not read the responses within " + maxPause + "ms" );
+                    }
+
+                    waitTime = Math.min( waitTime, remaining );
+                }
+
+                written.await( waitTime, TimeUnit.MILLISECONDS );
+            }
+        }
+        finally
+        {
+            lock.unlock();
+            nbPaused.decrementAndGet();
+            pausedTime.addAndGet( System.currentTimeMillis() - start );
+        }
+    }
+
+
+    /**
+     * @return The maximum number of operations paused at the same time
+     */
+    private int computeMaxPausedOperations()
+    {
+        int max = maxPausedOperations;
+
+        if ( max >= 0 )
+        {
+            return max;
+        }
+
+        int nbThreads = 0;
+
+        if ( ( ldapServer != null ) && ( ldapServer.getTransports() != null ) )
+        {
+            for ( Transport transport : ldapServer.getTransports() )
+            {
+                nbThreads += transport.getNbThreads();
+            }
+        }
+
+        return Math.max( 1, nbThreads / 2 );
+    }
+
+
+    /**
+     * Tells if the server cap is reached, for a session which has some pending writes
+     */
+    private boolean isServerFull( long sessionBytes )
+    {
+        long max = maxScheduledWriteBytes;
+
+        return ( max > 0L ) && ( sessionBytes > 0L ) && ( getServerScheduledWriteBytes() > max );
+    }
+
+
+    /**
+     * Wakes up the paused operations, if any, as some bytes have been written. It is
+     * called by the IoHandler when a message has been sent.
+     */
+    public void messageSent()
+    {
+        if ( nbPaused.get() > 0 )
+        {
+            lock.lock();
+
+            try
+            {
+                written.signalAll();
+            }
+            finally
+            {
+                lock.unlock();
+            }
+        }
+    }
+
+
+    /**
+     * @return The number of bytes scheduled for writing on all the sessions of the server
+     */
+    protected long getServerScheduledWriteBytes()
+    {
+        long scheduledWriteBytes = 0L;
+
+        if ( ( ldapServer != null ) && ( ldapServer.getTransports() != null ) )
+        {
+            for ( Transport transport : ldapServer.getTransports() )
+            {
+                IoAcceptor acceptor = transport.getAcceptor();
+
+                if ( acceptor != null )
+                {
+                    scheduledWriteBytes += acceptor.getScheduledWriteBytes();
+                }
+            }
+        }
+
+        return scheduledWriteBytes;
+    }
+
+
+    /**
+     * @return The number of bytes scheduled on a session above which we stop writing
+     */
+    public long getHighWaterMark()
+    {
+        return highWaterMark;
+    }
+
+
+    /**
+     * @param highWaterMark The number of bytes scheduled on a session above which we stop writing
+     */
+    public void setHighWaterMark( long highWaterMark )
+    {
+        this.highWaterMark = highWaterMark;
+    }
+
+
+    /**
+     * @return The number of bytes scheduled on a session below which we resume writing
+     */
+    public long getLowWaterMark()
+    {
+        return lowWaterMark;
+    }
+
+
+    /**
+     * @param lowWaterMark The number of bytes scheduled on a session below which we resume writing.
+     * It must not be above the high-water mark.
+     */
+    public void setLowWaterMark( long lowWaterMark )
+    {
+        this.lowWaterMark = lowWaterMark;
+    }
+
+
+    /**
+     * @return The maximum number of bytes scheduled on the whole server. 0 means no limit
+     */
+    public long getMaxScheduledWriteBytes()
+    {
+        return maxScheduledWriteBytes;
+    }
+
+
+    /**
+     * @param maxScheduledWriteBytes The maximum number of bytes scheduled on the whole server. 0 means no limit
+     */
+    public void setMaxScheduledWriteBytes( long maxScheduledWriteBytes )
+    {
+        this.maxScheduledWriteBytes = maxScheduledWriteBytes;
+    }
+
+
+    /**
+     * @return The maximum time an operation can be paused, in ms. 0 means no limit
+     */
+    public long getMaxPauseTime()
+    {
+        return maxPauseTime;
+    }
+
+
+    /**
+     * @param maxPauseTime The maximum time an operation can be paused, in ms. 0 means no limit
+     */
+    public void setMaxPauseTime( long maxPauseTime )
+    {
+        this.maxPauseTime = maxPauseTime;
+    }
+
+
+    /**
+     * @return The maximum number of operations paused at the same time. A negative value means
+     * half of the I/O executor threads of the server transports
+     */
+    public int getMaxPausedOperations()
+    {
+        return maxPausedOperations;
+    }
+
+
+    /**
+     * @param maxPausedOperations The maximum number of operations paused at the same time. A negative
+     * value means half of the I/O executor threads of the server transports
+     */
+    public void setMaxPausedOperations( int maxPausedOperations )
+    {
+        this.maxPausedOperations = maxPausedOperations;
+    }
+
+
+    /**
+     * @return The number of operations currently paused
+     */
+    public int getPausedCount()
+    {
+        return nbPaused.get();
+    }
+
+
+    /**
+     * @return The number of times an operation has been paused
+     */
+    public long getPauseCount()
+    {
+        return pauseCount.get();
+    }
+
+
+    /**
+     * @return The total time the operations have been paused, in ms
+     */
+    public long getPausedTime()
+    {
+        return pausedTime.get();
+    }
+
+
+    /**
+     * @return The number of operations ended because they could not be paused, or were paused too long
+     */
+    public long getRejectCount()
+    {
+        return rejectCount.get();
+    }
+
+
+    /**
+     * @see Object#toString()
+     */
+    @Override
+    public String toString()
+    {
+        return "WriteFlowController[highWaterMark=" + highWaterMark + ", lowWaterMark=" + lowWaterMark
+            + ", maxScheduledWriteBytes=" + maxScheduledWriteBytes + ", maxPauseTime=" + maxPauseTime + "ms, pauses="
+            + pauseCount.get() + ", pausedTime=" + pausedTime.get() + "ms, rejected=" + rejectCount.get() + "]";
+    }
+}
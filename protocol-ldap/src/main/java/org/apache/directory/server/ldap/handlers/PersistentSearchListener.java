@@ -24,8 +24,10 @@ import org.apache.directory.api.ldap.model.entry.Entry;
 import org.apache.directory.api.ldap.model.exception.LdapException;
 import org.apache.directory.api.ldap.model.message.AbandonListener;
 import org.apache.directory.api.ldap.model.message.AbandonableRequest;
+import org.apache.directory.api.ldap.model.message.ResultCodeEnum;
 import org.apache.directory.api.ldap.model.message.SearchRequest;
 import org.apache.directory.api.ldap.model.message.SearchResultEntry;
+import org.apache.directory.api.ldap.model.message.SearchResultDone;
 import org.apache.directory.api.ldap.model.message.SearchResultEntryImpl;
 import org.apache.directory.api.ldap.model.message.controls.ChangeType;
 import org.apache.directory.api.ldap.model.message.controls.EntryChange;
@@ -35,7 +37,7 @@ import org.apache.directory.api.ldap.model.schema.SchemaManager;
 import org.apache.directory.api.util.Strings;
 import org.apache.directory.server.core.api.entry.ClonedServerEntry;
 import org.apache.directory.server.core.api.entry.ServerEntryUtils;
-import org.apache.directory.server.core.api.event.DirectoryListener;
+import org.apache.directory.server.core.api.event.DisconnectableListener;
 import org.apache.directory.server.core.api.interceptor.context.AddOperationContext;
 import org.apache.directory.server.core.api.interceptor.context.ChangeOperationContext;
 import org.apache.directory.server.core.api.interceptor.context.DeleteOperationContext;
@@ -61,7 +63,7 @@ import org.slf4j.LoggerFactory;
  * 
  * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
  */
-public class PersistentSearchListener implements DirectoryListener, AbandonListener
+public class PersistentSearchListener implements DisconnectableListener, AbandonListener
 {
     private static final Logger LOG = LoggerFactory.getLogger( PersistentSearchListener.class );
     final LdapSession session;
@@ -116,6 +118,21 @@ public class PersistentSearchListener implements DirectoryListener, AbandonListe
     }
 
 
+    /**
+     * The client does not read the notifications fast enough : we end the persistent
+     * search, so that it knows it has missed some changes.
+     */
+    @Override
+    public void disconnected( String reason )
+    {
+        SearchResultDone done = req.getResultResponse();
+        done.getLdapResult().setResultCode( ResultCodeEnum.ADMIN_LIMIT_EXCEEDED );
+        done.getLdapResult().setDiagnosticMessage( reason );
+        session.getIoSession().write( done );
+        session.unregisterOutstandingRequest( req );
+    }
+
+
     private void setECResponseControl( SearchResultEntry response, ChangeOperationContext opContext, ChangeType type )
     {
         if ( psearchControl.isReturnECs() )
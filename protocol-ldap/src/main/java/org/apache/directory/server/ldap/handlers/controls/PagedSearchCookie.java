@@ -0,0 +1,282 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.ldap.handlers.controls;
+
+
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+
+import javax.crypto.Mac;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.apache.directory.api.ldap.model.message.SearchRequest;
+import org.apache.directory.api.ldap.model.message.controls.SortKey;
+import org.apache.directory.api.ldap.model.message.controls.SortRequest;
+import org.apache.directory.api.util.Strings;
+
+
+/**
+ * The cookie of a stateless paged search. Instead of the key of a context stored in the
+ * session, it contains the position of the last returned entry : the number of entries
+ * already returned, and the normalized DN of the last one. The next page is read from a
+ * new cursor, moved just after this entry. A hash of the search request is also stored,
+ * so that a cookie is not used with another request.
+ * <br>
+ * The cookie is encoded as :
+ * <pre>
+ * [magic (1 byte)][request hash (4 bytes)][position (4 bytes)][last DN (UTF-8)][HMAC (32 bytes)]
+ * </pre>
+ * The HMAC is computed on the preceding bytes with a random key generated by the server, so
+ * that a client can't forge a cookie, or change the position of a cookie to escape the size
+ * limit. It's always longer than the 4 bytes of the cookies of the contexts stored in the session.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class PagedSearchCookie
+{
+    /** The first byte of a stateless cookie */
+    private static final byte MAGIC = ( byte ) 0xA5;
+
+    /** The size of the header : the magic byte, the request hash and the position */
+    private static final int HEADER_SIZE = 9;
+
+    /** The MAC algorithm used to sign the cookies */
+    private static final String MAC_ALGORITHM = "HmacSHA256";
+
+    /** The size of the signature */
+    private static final int MAC_SIZE = 32;
+
+    /** The hash of the search request */
+    private final int requestHash;
+
+    /** The number of entries already returned */
+    private final int position;
+
+    /** The normalized DN of the last returned entry */
+    private final String lastDn;
+
+
+    /**
+     * Creates a new instance of PagedSearchCookie.
+     *
+     * @param requestHash The hash of the search request
+     * @param position The number of entries already returned
+     * @param lastDn The normalized DN of the last returned entry
+     */
+    public PagedSearchCookie( int requestHash, int position, String lastDn )
+    {
+        this.requestHash = requestHash;
+        this.position = position;
+        this.lastDn = lastDn;
+    }
+
+
+    /**
+     * Creates a random key to sign the cookies with. The cookies signed with this key can
+     * only be decoded by the server which has created it, until it's restarted.
+     *
+     * @return The new key
+     */
+    public static SecretKey createKey()
+    {
+        byte[] secret = new byte[MAC_SIZE];
+        new SecureRandom().nextBytes( secret );
+
+        return new SecretKeySpec( secret, MAC_ALGORITHM );
+    }
+
+
+    /**
+     * Computes the hash of a search request. It covers every field but the MessageID, and the
+     * sort keys, which give the order in which the entries are returned. The base DN and the
+     * filter are not normalized : the client is expected to send the very same request for all
+     * the pages.
+     *
+     * @param request The SearchRequest
+     * @return The request's hash
+     */
+    public static int hash( SearchRequest request )
+    {
+        StringBuilder sb = new StringBuilder();
+
+        sb.append( request.getBase().getName() ).append( '|' );
+        sb.append( request.getScope() ).append( '|' );
+        sb.append( request.getDerefAliases() ).append( '|' );
+        sb.append( request.getSizeLimit() ).append( '|' );
+        sb.append( request.getTimeLimit() ).append( '|' );
+        sb.append( request.getTypesOnly() ).append( '|' );
+        sb.append( request.getFilter() ).append( '|' );
+
+        if ( request.getAttributes() != null )
+        {
+            for ( String attribute : request.getAttributes() )
+            {
+                sb.append( Strings.toLowerCaseAscii( attribute ) ).append( ',' );
+            }
+        }
+
+        SortRequest sortRequest = ( SortRequest ) request.getControls().get( SortRequest.OID );
+
+        if ( sortRequest != null )
+        {
+            for ( SortKey sortKey : sortRequest.getSortKeys() )
+            {
+                sb.append( '|' ).append( sortKey.getAttributeTypeDesc() );
+                sb.append( ':' ).append( sortKey.getMatchingRuleId() );
+                sb.append( ':' ).append( sortKey.isReverseOrder() );
+            }
+        }
+
+        return sb.toString().hashCode();
+    }
+
+
+    /**
+     * Tells if a cookie is a stateless one. The cookies of the contexts stored in the
+     * session are at most 4 bytes long.
+     *
+     * @param cookie The cookie sent by the client
+     * @return <code>true</code> if the cookie has been created by {@link #getCookie(SecretKey)}
+     */
+    public static boolean isStateless( byte[] cookie )
+    {
+        return ( cookie != null ) && ( cookie.length >= HEADER_SIZE + MAC_SIZE ) && ( cookie[0] == MAGIC );
+    }
+
+
+    /**
+     * Decodes a stateless cookie, after having checked its signature.
+     *
+     * @param cookie The cookie sent by the client
+     * @param key The key the cookie has been signed with
+     * @return The decoded cookie, or <code>null</code> if it's not a valid stateless cookie, or
+     * if it has not been signed with the key
+     */
+    public static PagedSearchCookie decode( byte[] cookie, SecretKey key )
+    {
+        if ( !isStateless( cookie ) )
+        {
+            return null;
+        }
+
+        int signedLength = cookie.length - MAC_SIZE;
+        byte[] signature = new byte[MAC_SIZE];
+        System.arraycopy( cookie, signedLength, signature, 0, MAC_SIZE );
+
+        // Compared in constant time
+        if ( !MessageDigest.isEqual( signature, sign( cookie, signedLength, key ) ) )
+        {
+            return null;
+        }
+
+        ByteBuffer buffer = ByteBuffer.wrap( cookie );
+        buffer.get();
+        int requestHash = buffer.getInt();
+        int position = buffer.getInt();
+
+        if ( position <= 0 )
+        {
+            return null;
+        }
+
+        String lastDn = Strings.utf8ToString( cookie, HEADER_SIZE, signedLength - HEADER_SIZE );
+
+        return new PagedSearchCookie( requestHash, position, lastDn );
+    }
+
+
+    /**
+     * Computes the signature of the first bytes of a cookie
+     */
+    private static byte[] sign( byte[] bytes, int length, SecretKey key )
+    {
+        try
+        {
+            Mac mac = Mac.getInstance( MAC_ALGORITHM );
+            mac.init( key );
+            mac.update( bytes, 0, length );
+
+            return mac.doFinal();
+        }
+        catch ( GeneralSecurityException gse )
+        {
+            // HmacSHA256 is available on every JVM
+            throw new IllegalStateException( gse.getMessage(), gse );
+        }
+    }
+
+
+    /**
+     * @param key The key to sign the cookie with
+     * @return The encoded and signed cookie, to be sent to the client
+     */
+    public byte[] getCookie( SecretKey key )
+    {
+        byte[] dnBytes = Strings.getBytesUtf8( lastDn );
+        ByteBuffer buffer = ByteBuffer.allocate( HEADER_SIZE + dnBytes.length + MAC_SIZE );
+
+        buffer.put( MAGIC );
+        buffer.putInt( requestHash );
+        buffer.putInt( position );
+        buffer.put( dnBytes );
+        buffer.put( sign( buffer.array(), HEADER_SIZE + dnBytes.length, key ) );
+
+        return buffer.array();
+    }
+
+
+    /**
+     * @return The hash of the search request
+     */
+    public int getRequestHash()
+    {
+        return requestHash;
+    }
+
+
+    /**
+     * @return The number of entries already returned
+     */
+    public int getPosition()
+    {
+        return position;
+    }
+
+
+    /**
+     * @return The normalized DN of the last returned entry
+     */
+    public String getLastDn()
+    {
+        return lastDn;
+    }
+
+
+    /**
+     * @see Object#toString()
+     */
+    public String toString()
+    {
+        return "Stateless PagedSearch cookie : <" + position + ", " + lastDn + ">";
+    }
+}
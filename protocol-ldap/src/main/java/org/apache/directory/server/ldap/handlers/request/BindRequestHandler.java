@@ -30,6 +30,7 @@ import org.apache.directory.api.ldap.model.constants.SchemaConstants;
 import org.apache.directory.api.ldap.model.entry.Entry;
 import org.apache.directory.api.ldap.model.exception.LdapAuthenticationException;
 import org.apache.directory.api.ldap.model.exception.LdapInvalidDnException;
+import org.apache.directory.api.ldap.model.exception.LdapServiceUnavailableException;
 import org.apache.directory.api.ldap.model.exception.LdapUnwillingToPerformException;
 import org.apache.directory.api.ldap.model.message.BindRequest;
 import org.apache.directory.api.ldap.model.message.BindResponse;
@@ -132,7 +133,7 @@ public class BindRequestHandler extends LdapRequestHandler<BindRequest>
         bindContext.setDn( bindRequest.getDn() );
         bindContext.setCredentials( bindRequest.getCredentials() );
         bindContext.setIoSession( ldapSession.getIoSession() );
-        bindContext.setInterceptors( directoryService.getInterceptors( OperationEnum.BIND ) );
+        bindContext.setInterceptors( directoryService.getInterceptorChain( OperationEnum.BIND ) );
 
         // Stores the request controls into the operation context
         LdapProtocolUtils.setRequestControls( bindContext, bindRequest );
@@ -197,7 +198,7 @@ public class BindRequestHandler extends LdapRequestHandler<BindRequest>
             // opContext.setEntry( principalEntry );
 
             // And call the OperationManager bind operation.
-            bindContext.setInterceptors( directoryService.getInterceptors( OperationEnum.BIND ) );
+            bindContext.setInterceptors( directoryService.getInterceptorChain( OperationEnum.BIND ) );
             directoryService.getOperationManager().bind( bindContext );
 
             // As a result, store the created session in the Core Session
@@ -239,6 +240,12 @@ public class BindRequestHandler extends LdapRequestHandler<BindRequest>
                 code = ResultCodeEnum.INVALID_DN_SYNTAX;
                 result.setResultCode( code );
             }
+            else if ( e instanceof LdapServiceUnavailableException )
+            {
+                // BUSY or UNAVAILABLE : the client may retry later
+                code = ( ( LdapServiceUnavailableException ) e ).getResultCode();
+                result.setResultCode( code );
+            }
             else
             {
                 code = ResultCodeEnum.INVALID_CREDENTIALS;
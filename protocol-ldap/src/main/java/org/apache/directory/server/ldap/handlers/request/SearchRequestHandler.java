@@ -31,6 +31,7 @@ import java.util.concurrent.TimeUnit;
 import org.apache.commons.lang3.exception.ExceptionUtils;
 import org.apache.directory.api.ldap.extras.controls.syncrepl.syncRequest.SyncRequestValue;
 import org.apache.directory.api.ldap.model.constants.SchemaConstants;
+import org.apache.directory.api.ldap.model.cursor.ClosureMonitor;
 import org.apache.directory.api.ldap.model.cursor.Cursor;
 import org.apache.directory.api.ldap.model.cursor.CursorClosedException;
 import org.apache.directory.api.ldap.model.entry.Attribute;
@@ -75,12 +76,14 @@ import org.apache.directory.server.core.api.event.NotificationCriteria;
 import org.apache.directory.server.core.api.filtering.EntryFilteringCursor;
 import org.apache.directory.server.core.api.partition.PartitionNexus;
 import org.apache.directory.server.i18n.I18n;
+import org.apache.directory.server.ldap.BatchedResponseWriter;
 import org.apache.directory.server.ldap.LdapSession;
 import org.apache.directory.server.ldap.handlers.LdapRequestHandler;
 import org.apache.directory.server.ldap.handlers.PersistentSearchListener;
 import org.apache.directory.server.ldap.handlers.SearchAbandonListener;
 import org.apache.directory.server.ldap.handlers.SearchTimeLimitingMonitor;
 import org.apache.directory.server.ldap.handlers.controls.PagedSearchContext;
+import org.apache.directory.server.ldap.handlers.controls.PagedSearchCookie;
 import org.apache.directory.server.ldap.replication.provider.ReplicationRequestHandler;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -293,11 +296,29 @@ public class SearchRequestHandler extends LdapRequestHandler<SearchRequest>
      */
     private void setTimeLimitsOnCursor( SearchRequest req, LdapSession session,
         final Cursor<Entry> cursor )
+    {
+        ClosureMonitor monitor = createTimeLimitingMonitor( req, session );
+
+        if ( monitor != null )
+        {
+            cursor.setClosureMonitor( monitor );
+        }
+    }
+
+
+    /**
+     * Creates the monitor closing a search cursor once the time limit is reached.
+     *
+     * @param req the {@link SearchRequest} issued
+     * @param session the {@link LdapSession} on which search was requested
+     * @return The monitor, or null if the search is not limited by time
+     */
+    private ClosureMonitor createTimeLimitingMonitor( SearchRequest req, LdapSession session )
     {
         // Don't bother setting time limits for administrators
         if ( session.getCoreSession().isAnAdministrator() && req.getTimeLimit() == NO_TIME_LIMIT )
         {
-            return;
+            return null;
         }
 
         /*
@@ -307,7 +328,7 @@ public class SearchRequestHandler extends LdapRequestHandler<SearchRequest>
          */
         if ( ldapServer.getMaxTimeLimit() == NO_TIME_LIMIT && req.getTimeLimit() == NO_TIME_LIMIT )
         {
-            return;
+            return null;
         }
 
         /*
@@ -317,8 +338,7 @@ public class SearchRequestHandler extends LdapRequestHandler<SearchRequest>
          */
         if ( req.getTimeLimit() == 0 )
         {
-            cursor.setClosureMonitor( new SearchTimeLimitingMonitor( ldapServer.getMaxTimeLimit(), TimeUnit.SECONDS ) );
-            return;
+            return new SearchTimeLimitingMonitor( ldapServer.getMaxTimeLimit(), TimeUnit.SECONDS );
         }
 
         /*
@@ -328,8 +348,7 @@ public class SearchRequestHandler extends LdapRequestHandler<SearchRequest>
          */
         if ( ldapServer.getMaxTimeLimit() >= req.getTimeLimit() )
         {
-            cursor.setClosureMonitor( new SearchTimeLimitingMonitor( req.getTimeLimit(), TimeUnit.SECONDS ) );
-            return;
+            return new SearchTimeLimitingMonitor( req.getTimeLimit(), TimeUnit.SECONDS );
         }
 
         /*
@@ -337,7 +356,7 @@ public class SearchRequestHandler extends LdapRequestHandler<SearchRequest>
          * than what the server's configured maximum limit allows so we limit
          * the search to the configured limit
          */
-        cursor.setClosureMonitor( new SearchTimeLimitingMonitor( ldapServer.getMaxTimeLimit(), TimeUnit.SECONDS ) );
+        return new SearchTimeLimitingMonitor( ldapServer.getMaxTimeLimit(), TimeUnit.SECONDS );
     }
 
 
@@ -376,43 +395,63 @@ public class SearchRequestHandler extends LdapRequestHandler<SearchRequest>
     {
         long count = 0;
 
-        while ( ( count < sizeLimit ) && cursor.next() )
+        // The entries are written in batches, which must be flushed before the SearchResultDone
+        BatchedResponseWriter writer = new BatchedResponseWriter( ldapServer, session.getIoSession() );
+
+        try
         {
-            // Handle closed session
-            if ( session.getIoSession().isClosing() )
+            while ( ( count < sizeLimit ) && cursor.next() )
             {
-                // The client has closed the connection
-                if ( IS_DEBUG )
+                // Handle closed session
+                if ( session.getIoSession().isClosing() )
                 {
-                    LOG.debug( "Request terminated for message {}, the client has closed the session",
-                        req.getMessageId() );
+                    // The client has closed the connection
+                    if ( IS_DEBUG )
+                    {
+                        LOG.debug( "Request terminated for message {}, the client has closed the session",
+                            req.getMessageId() );
+                    }
+
+                    break;
                 }
 
-                break;
-            }
+                if ( req.isAbandoned() )
+                {
+                    cursor.close( new OperationAbandonedException() );
 
-            if ( req.isAbandoned() )
-            {
-                cursor.close( new OperationAbandonedException() );
+                    // The cursor has been closed by an abandon request.
+                    if ( IS_DEBUG )
+                    {
+                        LOG.debug( "Request terminated by an AbandonRequest for message {}", req.getMessageId() );
+                    }
 
-                // The cursor has been closed by an abandon request.
-                if ( IS_DEBUG )
+                    break;
+                }
+
+                Entry entry = cursor.get();
+
+                // Don't write faster than the client reads. If the session has been closed or
+                // the request abandoned while we were waiting, this is handled at the top of the loop.
+                // A client which does not read fast enough ends the search with a timeLimitExceeded
+                // or a busy error
+                if ( !ldapServer.getWriteFlowController().awaitWritable( session.getIoSession(), req ) )
                 {
-                    LOG.debug( "Request terminated by an AbandonRequest for message {}", req.getMessageId() );
+                    continue;
                 }
 
-                break;
-            }
+                writer.write( generateResponse( session, req, entry ) );
 
-            Entry entry = cursor.get();
-            session.getIoSession().write( generateResponse( session, req, entry ) );
+                if ( IS_DEBUG )
+                {
+                    LOG.debug( "Sending {}", entry.getDn() );
+                }
 
-            if ( IS_DEBUG )
-            {
-                LOG.debug( "Sending {}", entry.getDn() );
+                count++;
             }
-
-            count++;
+        }
+        finally
+        {
+            writer.flush();
         }
 
         // check if the result code is not already set
@@ -452,17 +491,33 @@ public class SearchRequestHandler extends LdapRequestHandler<SearchRequest>
         int count = pagedContext.getCurrentPosition();
         int pageCount = 0;
 
-        while ( ( count < sizeLimit ) && ( pageCount < pagedLimit ) && cursor.next() )
+        BatchedResponseWriter writer = new BatchedResponseWriter( ldapServer, session.getIoSession() );
+
+        try
         {
-            if ( session.getIoSession().isClosing() )
+            while ( ( count < sizeLimit ) && ( pageCount < pagedLimit ) && cursor.next() )
             {
-                break;
-            }
+                if ( session.getIoSession().isClosing() )
+                {
+                    break;
+                }
+
+                Entry entry = cursor.get();
 
-            Entry entry = cursor.get();
-            session.getIoSession().write( generateResponse( session, req, entry ) );
-            count++;
-            pageCount++;
+                // Don't write faster than the client reads
+                if ( !ldapServer.getWriteFlowController().awaitWritable( session.getIoSession(), req ) )
+                {
+                    break;
+                }
+
+                writer.write( generateResponse( session, req, entry ) );
+                count++;
+                pageCount++;
+            }
+        }
+        finally
+        {
+            writer.flush();
         }
 
         // DO NOT WRITE THE RESPONSE - JUST RETURN IT
@@ -540,19 +595,31 @@ public class SearchRequestHandler extends LdapRequestHandler<SearchRequest>
         if ( !Strings.isEmpty( cookie ) )
         {
             // If the cookie is not null, we have to destroy the associated
-            // cursor stored into the session (if any)
-            int cookieValue = pagedSearchControl.getCookieValue();
-            PagedSearchContext psCookie = session.removePagedSearchContext( cookieValue );
-            pagedSearchControl.setCookie( psCookie.getCookie() );
+            // cursor stored into the session (if any). A stateless cookie
+            // has nothing stored in the session, and a context may have been
+            // evicted from the session already
+            PagedSearchContext psCookie = null;
+
+            if ( !PagedSearchCookie.isStateless( cookie ) )
+            {
+                int cookieValue = pagedSearchControl.getCookieValue();
+                psCookie = session.removePagedSearchContext( cookieValue );
+            }
+
             pagedSearchControl.setSize( 0 );
             pagedSearchControl.setCritical( true );
 
-            // Close the cursor
-            Cursor<Entry> cursor = psCookie.getCursor();
-
-            if ( cursor != null )
+            if ( psCookie != null )
             {
-                cursor.close();
+                pagedSearchControl.setCookie( psCookie.getCookie() );
+
+                // Close the cursor
+                Cursor<Entry> cursor = psCookie.getCursor();
+
+                if ( cursor != null )
+                {
+                    cursor.close();
+                }
             }
         }
         else
@@ -632,6 +699,12 @@ public class SearchRequestHandler extends LdapRequestHandler<SearchRequest>
         byte[] cookie = pagedSearchControl.getCookie();
         LdapResult ldapResult = req.getResultResponse().getLdapResult();
 
+        if ( ldapServer.isStatelessPagedSearch() )
+        {
+            // Nothing is stored in the session : the cookie holds the position
+            return doStatelessPagedSearch( session, req, cookie, sizeLimit, pagedLimit );
+        }
+
         if ( Strings.isEmpty( cookie ) )
         {
             // No cursor : do a search.
@@ -767,6 +840,199 @@ public class SearchRequestHandler extends LdapRequestHandler<SearchRequest>
     }
 
 
+    /**
+     * Move a new cursor just after the last entry returned by a stateless paged search.
+     * The entry is looked for by its DN, as some entries may have been added or removed
+     * since the previous page was returned. If it has been removed, the cursor is
+     * recreated and moved after the number of entries already returned.
+     * <br>
+     * The entries already returned are read again, so reading a page costs as much as reading
+     * all the previous ones : the time limit of the search applies to this move.
+     *
+     * @param monitor The monitor enforcing the time limit, or null
+     * @return The positioned cursor
+     */
+    private Cursor<Entry> moveAfterLastEntry( LdapSession session, SearchRequest req, Cursor<Entry> cursor,
+        PagedSearchCookie position, ClosureMonitor monitor ) throws Exception
+    {
+        while ( cursor.next() )
+        {
+            if ( position.getLastDn().equals( cursor.get().getDn().getNormName() ) )
+            {
+                return cursor;
+            }
+        }
+
+        if ( IS_DEBUG )
+        {
+            LOG.debug( "The last returned entry {} has been removed, skipping {} entries", position.getLastDn(),
+                position.getPosition() );
+        }
+
+        cursor.close();
+        cursor = session.getCoreSession().search( req );
+
+        if ( monitor != null )
+        {
+            // The time spent looking for the last returned entry counts
+            cursor.setClosureMonitor( monitor );
+        }
+
+        cursor.beforeFirst();
+
+        for ( int i = 0; ( i < position.getPosition() ) && cursor.next(); i++ )
+        {
+            // Skip the entries already returned
+        }
+
+        return cursor;
+    }
+
+
+    /**
+     * Handle a Paged Search request when the paged searches are stateless : the position of
+     * the last returned entry is sent back in the cookie, and each page is read from a new
+     * cursor, closed before the SearchResultDone is returned. Nothing is kept in the session,
+     * so an abandoned paged search does not hold any cursor or partition transaction.
+     */
+    private SearchResultDone doStatelessPagedSearch( LdapSession session, SearchRequest req, byte[] cookie,
+        long sizeLimit, int pagedLimit ) throws Exception
+    {
+        LdapResult ldapResult = req.getResultResponse().getLdapResult();
+
+        // The hash is computed before the search, which may modify the request
+        int requestHash = PagedSearchCookie.hash( req );
+        PagedSearchCookie position = null;
+
+        if ( !Strings.isEmpty( cookie ) )
+        {
+            // A cookie which has not been signed by this server is rejected
+            position = PagedSearchCookie.decode( cookie, ldapServer.getPagedSearchCookieKey() );
+
+            if ( position == null )
+            {
+                ldapResult.setDiagnosticMessage( "Invalid cookie for this PagedSearch request." );
+                ldapResult.setResultCode( ResultCodeEnum.UNWILLING_TO_PERFORM );
+
+                return ( SearchResultDone ) req.getResultResponse();
+            }
+
+            if ( position.getRequestHash() != requestHash )
+            {
+                // Not the same request : this is a new search
+                position = null;
+            }
+        }
+
+        Cursor<Entry> cursor = session.getCoreSession().search( req );
+
+        // The time limit is set before the cursor is moved after the last returned entry
+        ClosureMonitor monitor = createTimeLimitingMonitor( req, session );
+
+        if ( monitor != null )
+        {
+            cursor.setClosureMonitor( monitor );
+        }
+
+        try
+        {
+            cursor.beforeFirst();
+
+            if ( position == null )
+            {
+                if ( pagedLimit > sizeLimit )
+                {
+                    // The paged size is above the size limit : this is a standard search
+                    writeResults( session, req, ldapResult, cursor, sizeLimit );
+
+                    return ( SearchResultDone ) req.getResultResponse();
+                }
+            }
+            else
+            {
+                cursor = moveAfterLastEntry( session, req, cursor, position, monitor );
+            }
+
+            req.addAbandonListener( new SearchAbandonListener( ldapServer, cursor ) );
+
+            int count = ( position == null ) ? 0 : position.getPosition();
+            int pageCount = 0;
+            Entry lastEntry = null;
+
+            BatchedResponseWriter writer = new BatchedResponseWriter( ldapServer, session.getIoSession() );
+
+            try
+            {
+                while ( ( count < sizeLimit ) && ( pageCount < pagedLimit ) && cursor.next() )
+                {
+                    if ( session.getIoSession().isClosing() )
+                    {
+                        break;
+                    }
+
+                    Entry entry = cursor.get();
+
+                    // Don't write faster than the client reads
+                    if ( !ldapServer.getWriteFlowController().awaitWritable( session.getIoSession(), req ) )
+                    {
+                        break;
+                    }
+
+                    writer.write( generateResponse( session, req, entry ) );
+                    lastEntry = entry;
+                    count++;
+                    pageCount++;
+                }
+            }
+            finally
+            {
+                writer.flush();
+            }
+
+            // DO NOT WRITE THE RESPONSE - JUST RETURN IT
+            ldapResult.setResultCode( ResultCodeEnum.SUCCESS );
+
+            PagedResults pagedResultsControl = new PagedResultsImpl();
+            pagedResultsControl.setSize( 0 );
+            pagedResultsControl.setCritical( true );
+
+            if ( ( lastEntry != null ) && cursor.next() )
+            {
+                if ( count < sizeLimit )
+                {
+                    // We stop here : the cookie contains the position of the last returned entry
+                    PagedSearchCookie nextPosition = new PagedSearchCookie( requestHash, count,
+                        lastEntry.getDn().getNormName() );
+                    pagedResultsControl.setCookie( nextPosition.getCookie( ldapServer.getPagedSearchCookieKey() ) );
+                    req.getResultResponse().addControl( pagedResultsControl );
+                }
+                else
+                {
+                    ldapResult.setResultCode( ResultCodeEnum.SIZE_LIMIT_EXCEEDED );
+                }
+            }
+            else
+            {
+                // We have returned all the entries
+                req.getResultResponse().addControl( pagedResultsControl );
+            }
+        }
+        finally
+        {
+            try
+            {
+                cursor.close();
+            }
+            catch ( Exception e )
+            {
+                LOG.error( I18n.err( I18n.ERR_168 ), e );
+            }
+        }
+
+        return ( SearchResultDone ) req.getResultResponse();
+    }
+
+
     /**
      * Conducts a simple search across the result set returning each entry
      * back except for the search response done.  This is calculated but not
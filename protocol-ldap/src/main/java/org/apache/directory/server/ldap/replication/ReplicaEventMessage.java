@@ -25,6 +25,7 @@ import org.apache.directory.api.ldap.model.constants.SchemaConstants;
 import org.apache.directory.api.ldap.model.entry.Entry;
 import org.apache.directory.api.ldap.model.exception.LdapException;
 import org.apache.directory.api.ldap.model.message.controls.ChangeType;
+import org.apache.directory.api.ldap.model.name.Dn;
 import org.apache.directory.server.core.api.entry.ClonedServerEntry;
 
 
@@ -41,15 +42,36 @@ public class ReplicaEventMessage
     /** The entry */
     private Entry entry;
 
+    /** The entry DN before a MODDN operation */
+    private Dn oldDn;
+
+    /** The ID of the replica the change comes from, or -1 if it's a local change */
+    private int rid = -1;
+
     /**
      * Create a new ReplicaEvent instance for a Add/Delete+Modify operation
      * @param changeType The change type
      * @param entry The entry
      */
     public ReplicaEventMessage( ChangeType changeType, Entry entry )
+    {
+        this( changeType, entry, null, -1 );
+    }
+
+
+    /**
+     * Create a new ReplicaEvent instance
+     * @param changeType The change type
+     * @param entry The entry
+     * @param oldDn The entry DN before the operation, for a MODDN operation
+     * @param rid The ID of the replica the change comes from, or -1 if it's a local change
+     */
+    public ReplicaEventMessage( ChangeType changeType, Entry entry, Dn oldDn, int rid )
     {
         this.changeType = changeType;
-        
+        this.oldDn = oldDn;
+        this.rid = rid;
+
         if ( entry instanceof ClonedServerEntry )
         {
             this.entry = ( ( ClonedServerEntry ) entry ).getClonedEntry();
@@ -79,6 +101,24 @@ public class ReplicaEventMessage
     }
 
 
+    /**
+     * @return The entry DN before a MODDN operation, or null
+     */
+    public Dn getOldDn()
+    {
+        return oldDn;
+    }
+
+
+    /**
+     * @return The ID of the replica the change comes from, or -1 if it's a local change
+     */
+    public int getRid()
+    {
+        return rid;
+    }
+
+
     /**
      * checks if the event's CSN is older than the given CSN
      *
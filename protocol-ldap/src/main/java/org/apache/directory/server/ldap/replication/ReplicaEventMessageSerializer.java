@@ -44,6 +44,9 @@ import org.apache.directory.api.ldap.model.schema.SchemaManager;
  * <li>byte : EventType</li>
  * <li>byte[] : the serialized DN</li>
  * <li>byte[] : the serialized entry</li>
+ * <li>int : the ID of the replica the change comes from, or -1</li>
+ * <li>boolean : true if the entry DN before a MODDN follows</li>
+ * <li>byte[] : the serialized DN before the MODDN, if any</li>
  * </ul>
  * 
  * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
@@ -91,6 +94,18 @@ public class ReplicaEventMessageSerializer implements Serializer
             // The entry
             entry.writeExternal( out );
 
+            // The originating replica
+            out.writeInt( replicaEventMessage.getRid() );
+
+            // The DN before a MODDN
+            Dn oldDn = replicaEventMessage.getOldDn();
+            out.writeBoolean( oldDn != null );
+
+            if ( oldDn != null )
+            {
+                oldDn.writeExternal( out );
+            }
+
             out.flush();
 
             return baos.toByteArray();
@@ -126,8 +141,20 @@ public class ReplicaEventMessageSerializer implements Serializer
             entry.readExternal( in );
             entry.setDn( entryDn );
 
+            // The originating replica
+            int rid = in.readInt();
+
+            // The DN before a MODDN
+            Dn oldDn = null;
+
+            if ( in.readBoolean() )
+            {
+                oldDn = new Dn( schemaManager );
+                oldDn.readExternal( in );
+            }
+
             // And create a ReplicaEventMessage
-            replicaEventMessage = new ReplicaEventMessage( changeType, entry );
+            replicaEventMessage = new ReplicaEventMessage( changeType, entry, oldDn, rid );
         }
         catch ( ClassNotFoundException cnfe )
         {
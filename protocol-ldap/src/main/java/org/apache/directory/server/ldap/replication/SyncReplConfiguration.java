@@ -133,6 +133,12 @@ public class SyncReplConfiguration implements ReplicationConsumerConfig
     /** flag to indicate if this node is part of a MMR setup, default value is true */
     private boolean mmrMode = true;
 
+    /** the number of threads applying the received entries, default value is 1 (entries applied in order by the reading thread) */
+    private int applyThreads = 1;
+
+    /** flag to indicate if the initial content is loaded directly into an empty partition, default value is false */
+    private boolean bulkRefresh = false;
+
 
     /**
      * Creates a new instance of SyncreplConfiguration
@@ -580,6 +586,56 @@ public class SyncReplConfiguration implements ReplicationConsumerConfig
     }
 
 
+    /**
+     * @return the number of threads applying the received entries
+     */
+    public int getApplyThreads()
+    {
+        return applyThreads;
+    }
+
+
+    /**
+     * Sets the number of threads applying the received entries. With more than one thread,
+     * the changes made on unrelated entries are applied in parallel, the changes made on a
+     * given entry or subtree being still applied in the order they have been received.
+     *
+     * @param applyThreads the number of threads applying the received entries
+     */
+    public void setApplyThreads( int applyThreads )
+    {
+        this.applyThreads = applyThreads;
+    }
+
+
+    /**
+     * @return true if the initial content is loaded directly into an empty partition
+     */
+    public boolean isBulkRefresh()
+    {
+        return bulkRefresh;
+    }
+
+
+    /**
+     * Enables or disables the bulk loading of the initial content. When enabled, and when the
+     * replicated base does not contain any entry yet, the entries received during the initial
+     * refresh are written directly into the partition, in batches, and the partition's indices
+     * are built once all the entries have been loaded.
+     * <br>
+     * The loaded entries skip the interceptors : they are not recorded by the changelog and the
+     * journal interceptors, and the event interceptor does not notify them to the listeners,
+     * the replication log of this server included. The replica must not be consumed by other
+     * servers while it is loaded.
+     *
+     * @param bulkRefresh true to load the initial content directly into the partition
+     */
+    public void setBulkRefresh( boolean bulkRefresh )
+    {
+        this.bulkRefresh = bulkRefresh;
+    }
+
+
     public String toString()
     {
         StringBuilder sb = new StringBuilder();
@@ -633,6 +689,16 @@ public class SyncReplConfiguration implements ReplicationConsumerConfig
             sb.append( "MS, " );
         }
 
+        if ( applyThreads > 1 )
+        {
+            sb.append( "apply threads:" ).append( applyThreads ).append( ", " );
+        }
+
+        if ( bulkRefresh )
+        {
+            sb.append( "bulk refresh, " );
+        }
+
         sb.append( "provider:" ).append( producer ).append( ", " );
         sb.append( "user:'" ).append( replUserDn ).append( "', " );
 
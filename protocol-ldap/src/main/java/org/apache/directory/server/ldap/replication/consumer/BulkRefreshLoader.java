@@ -0,0 +1,341 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.ldap.replication.consumer;
+
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.directory.api.ldap.model.constants.Loggers;
+import org.apache.directory.api.ldap.model.constants.SchemaConstants;
+import org.apache.directory.api.ldap.model.entry.Attribute;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.api.ldap.model.exception.LdapOtherException;
+import org.apache.directory.api.util.DateUtils;
+import org.apache.directory.server.core.api.CoreSession;
+import org.apache.directory.server.core.api.OperationManager;
+import org.apache.directory.server.core.api.PartitionLockManager;
+import org.apache.directory.server.core.api.PartitionLockManager.LockedPartitions;
+import org.apache.directory.server.core.api.interceptor.context.AddOperationContext;
+import org.apache.directory.server.core.api.partition.PartitionTxn;
+import org.apache.directory.server.core.partition.impl.btree.AbstractBTreePartition;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * Loads the entries received during the initial refresh of a consumer directly into an
+ * empty partition, bypassing the interceptors :
+ * <ul>
+ * <li>the entries are added in batches, each batch being written in one transaction</li>
+ * <li>the user indices are not updated when an entry is added, they are built in one pass
+ * once all the entries have been loaded</li>
+ * </ul>
+ * The entries are stored as sent by the producer, which has already computed their operational
+ * attributes. The entries which are cached by some interceptors (subentries, administrative
+ * points, groups, referrals and aliases), or which lack some mandatory operational attributes,
+ * are not accepted, and must be added through the interceptors. The entries which can't be
+ * added by the partition, because they already exist for instance, are returned by
+ * {@link #flush()}.
+ * <br>
+ * The entries are added with {@link AbstractBTreePartition#add(AddOperationContext)}, so the
+ * interceptors are all skipped, including the changelog, the event and the journal interceptors :
+ * the loaded entries are not recorded in the changelog nor in the journal, and they are not
+ * notified to the listeners, the replication log of this server included. The loader must only
+ * be used while the replica is not consumed by other servers.
+ * <br>
+ * The partition is locked through the {@link PartitionLockManager}, as the operations do.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+class BulkRefreshLoader
+{
+    /** A dedicated logger for the consumer */
+    private static final Logger CONSUMER_LOG = LoggerFactory.getLogger( Loggers.CONSUMER_LOG.getName() );
+
+    /** The ObjectClasses of the entries which must be added through the interceptors */
+    private static final String[] INTERCEPTED_OCS = new String[]
+        {
+            SchemaConstants.SUBENTRY_OC,
+            SchemaConstants.GROUP_OF_NAMES_OC,
+            SchemaConstants.GROUP_OF_UNIQUE_NAMES_OC,
+            SchemaConstants.REFERRAL_OC,
+            SchemaConstants.ALIAS_OC
+    };
+
+    /** The partition the entries are loaded into */
+    private final AbstractBTreePartition partition;
+
+    /** The session used to add the entries */
+    private final CoreSession session;
+
+    /** The OperationManager holding the partition locks */
+    private final OperationManager operationManager;
+
+    /** The number of entries written in a transaction */
+    private final int batchSize;
+
+    /** The entries waiting to be written */
+    private final List<Entry> batch = new ArrayList<>();
+
+    /** The cookie received with the last entry of the batch */
+    private byte[] batchCookie;
+
+    /** The cookie received with the last written entry */
+    private byte[] cookie;
+
+    /** Tells if the user indices of the partition have been deferred */
+    private boolean indicesDeferred;
+
+    /** The number of entries loaded so far */
+    private long nbLoaded;
+
+
+    /**
+     * Creates a new instance of BulkRefreshLoader
+     *
+     * @param session The session used to add the entries
+     * @param partition The partition the entries are loaded into
+     * @param batchSize The number of entries written in a transaction
+     */
+    BulkRefreshLoader( CoreSession session, AbstractBTreePartition partition, int batchSize )
+    {
+        this.session = session;
+        this.partition = partition;
+        this.batchSize = batchSize;
+        operationManager = session.getDirectoryService().getOperationManager();
+    }
+
+
+    /**
+     * Tells if an entry can be loaded directly into the partition
+     *
+     * @param entry The entry
+     * @return true if the entry can be loaded
+     */
+    boolean accept( Entry entry )
+    {
+        if ( !entry.containsAttribute( SchemaConstants.ENTRY_UUID_AT, SchemaConstants.ENTRY_CSN_AT,
+            SchemaConstants.OBJECT_CLASS_AT ) )
+        {
+            return false;
+        }
+
+        if ( entry.containsAttribute( SchemaConstants.ADMINISTRATIVE_ROLE_AT ) )
+        {
+            return false;
+        }
+
+        Attribute objectClass = entry.get( SchemaConstants.OBJECT_CLASS_AT );
+
+        for ( String oc : INTERCEPTED_OCS )
+        {
+            if ( objectClass.contains( oc ) )
+            {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+
+    /**
+     * Adds an entry to the current batch.
+     *
+     * @param entry The entry, accepted by {@link #accept(Entry)}
+     * @param entryCookie The cookie received with the entry, or null
+     * @return true if the batch is full, and must be flushed
+     */
+    boolean add( Entry entry, byte[] entryCookie )
+    {
+        if ( !entry.containsAttribute( SchemaConstants.CREATORS_NAME_AT ) )
+        {
+            entry.put( SchemaConstants.CREATORS_NAME_AT, session.getAuthenticatedPrincipal().getName() );
+        }
+
+        if ( !entry.containsAttribute( SchemaConstants.CREATE_TIMESTAMP_AT ) )
+        {
+            entry.put( SchemaConstants.CREATE_TIMESTAMP_AT, DateUtils.getGeneralizedTime() );
+        }
+
+        batch.add( entry );
+
+        if ( entryCookie != null )
+        {
+            batchCookie = entryCookie;
+        }
+
+        return batch.size() >= batchSize;
+    }
+
+
+    /**
+     * Writes the current batch into the partition, in one transaction.
+     *
+     * @return The entries the partition has refused, in the order they have been received. They
+     * must be applied through the interceptors
+     * @throws LdapException If the batch can't be written
+     */
+    List<Entry> flush() throws LdapException
+    {
+        List<Entry> rejected = new ArrayList<>();
+
+        if ( batch.isEmpty() )
+        {
+            return rejected;
+        }
+
+        PartitionLockManager lockManager = operationManager.getLockManager();
+        LockedPartitions lockedPartitions = lockManager.lock( true, partition.getId() );
+
+        PartitionTxn partitionTxn = null;
+
+        try
+        {
+            if ( !indicesDeferred )
+            {
+                partition.deferUserIndices();
+                indicesDeferred = true;
+            }
+
+            partitionTxn = partition.beginWriteTransaction();
+
+            for ( Entry entry : batch )
+            {
+                AddOperationContext addContext = new AddOperationContext( session, entry );
+                addContext.setPartition( partition );
+                addContext.setTransaction( partitionTxn );
+
+                try
+                {
+                    // The partition checks the entry and its parent before updating its indices
+                    partition.add( addContext );
+                    nbLoaded++;
+                }
+                catch ( LdapException le )
+                {
+                    CONSUMER_LOG.debug( "Cannot load the entry {} : {}", entry.getDn(), le.getMessage() );
+                    rejected.add( entry );
+                }
+            }
+
+            partitionTxn.commit();
+            partitionTxn = null;
+        }
+        catch ( IOException ioe )
+        {
+            throw new LdapOtherException( ioe.getMessage(), ioe );
+        }
+        finally
+        {
+            try
+            {
+                if ( partitionTxn != null )
+                {
+                    partitionTxn.abort();
+                }
+            }
+            catch ( IOException ioe )
+            {
+                CONSUMER_LOG.error( "Failed to abort the bulk load transaction", ioe );
+            }
+            finally
+            {
+                lockManager.unlock( lockedPartitions );
+            }
+        }
+
+        batch.clear();
+        cookie = batchCookie;
+
+        CONSUMER_LOG.debug( "{} entries loaded into partition {}", nbLoaded, partition.getId() );
+
+        return rejected;
+    }
+
+
+    /**
+     * @return The cookie received with the last written entry, or null
+     */
+    byte[] getCookie()
+    {
+        return cookie;
+    }
+
+
+    /**
+     * Writes the current batch, and builds the user indices of the partition.
+     *
+     * @return The entries the partition has refused, which must be applied through the interceptors
+     * @throws LdapException If the batch can't be written, or the indices can't be built
+     */
+    List<Entry> finish() throws LdapException
+    {
+        List<Entry> rejected = flush();
+
+        if ( indicesDeferred )
+        {
+            CONSUMER_LOG.info( "{} entries loaded into partition {}, building its indices", nbLoaded,
+                partition.getId() );
+
+            PartitionLockManager lockManager = operationManager.getLockManager();
+            LockedPartitions lockedPartitions = lockManager.lock( true, partition.getId() );
+
+            try
+            {
+                partition.buildDeferredUserIndices( batchSize );
+                indicesDeferred = false;
+            }
+            finally
+            {
+                lockManager.unlock( lockedPartitions );
+            }
+        }
+
+        return rejected;
+    }
+
+
+    /**
+     * Gives up loading the entries after a failure. The user indices are built if possible,
+     * otherwise they will be built when the partition is initialized again.
+     *
+     * @return The entries which have not been written, which must be applied through the interceptors
+     */
+    List<Entry> abandon()
+    {
+        List<Entry> pending = new ArrayList<>( batch );
+        batch.clear();
+
+        try
+        {
+            finish();
+        }
+        catch ( LdapException le )
+        {
+            CONSUMER_LOG.error( "Failed to build the indices of partition {}", partition.getId(), le );
+        }
+
+        return pending;
+    }
+}
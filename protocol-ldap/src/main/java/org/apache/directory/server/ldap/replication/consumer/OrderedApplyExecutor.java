@@ -0,0 +1,511 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.ldap.replication.consumer;
+
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.directory.api.ldap.model.constants.Loggers;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * Applies the changes received by a consumer on a pool of threads, while keeping their
+ * causality : a change is only applied once all the previous changes it depends on have been
+ * applied. A change depends on the previous changes :
+ * <ul>
+ * <li>made on the same entry, identified by its entryUUID, or on the same DN</li>
+ * <li>made on one of its ancestors, for instance the addition of its parent. The changes made
+ * on the descendants of an entry are also applied before the changes made on the entry itself,
+ * so that a deleted subtree contains all its entries</li>
+ * </ul>
+ * A barrier change (a MODDN, which changes the DN of a whole subtree) is applied once all the
+ * previous changes have been applied, and before any of the following changes.
+ * <br>
+ * The cookie of a change is reported with {@link #applied(byte[])} once this change and all the
+ * changes received before it have been applied, so that a stored cookie never skips a change
+ * which has not been applied yet.
+ * <br>
+ * When a change can't be applied, the following changes are not applied either, and no cookie
+ * is reported anymore : the consumer has to check the {@link #getFailure() failure}, and to
+ * restart the synchronization from the last reported cookie, after having {@link #reset()} the
+ * executor.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+abstract class OrderedApplyExecutor
+{
+    /** A dedicated logger for the consumer */
+    private static final Logger CONSUMER_LOG = LoggerFactory.getLogger( Loggers.CONSUMER_LOG.getName() );
+
+    /** The threads applying the changes */
+    private final ExecutorService executor;
+
+    /** The maximum number of changes waiting to be applied */
+    private final int maxPending;
+
+    /** The changes, in the order they have been received, which have not been all applied */
+    private final ArrayDeque<Change> changes = new ArrayDeque<>();
+
+    /** The changes using each entryUUID or DN */
+    private final Map<String, KeyState> keys = new HashMap<>();
+
+    /** The changes using the barrier : all of them */
+    private final KeyState barrier = new KeyState();
+
+    /** The number of changes not yet applied */
+    private int pending;
+
+    /** The sequence number of the last received change */
+    private long lastSeq;
+
+    /** The sequence number of the last change which cookie has been reported */
+    private long lastAppliedSeq;
+
+    /** A lock used to report the cookies in order */
+    private final Object appliedLock = new Object();
+
+    /** The error thrown by the first change which could not be applied */
+    private Exception failure;
+
+    /** Tells if a change which has not been applied has been reached : no cookie is reported after it */
+    private boolean blocked;
+
+
+    /**
+     * The changes using a key : the last one which has an exclusive use of it, and the
+     * following ones which share it
+     */
+    private static class KeyState
+    {
+        private Change writer;
+        private Set<Change> readers = new LinkedHashSet<>();
+
+
+        private boolean isEmpty()
+        {
+            return ( writer == null ) && readers.isEmpty();
+        }
+    }
+
+
+    /**
+     * A change to apply
+     */
+    private class Change implements Runnable
+    {
+        private final long seq;
+        private final Runnable task;
+        private final byte[] cookie;
+        private final List<String> exclusiveKeys;
+        private final List<String> sharedKeys;
+        private final List<Change> successors = new ArrayList<>();
+        private int waitingFor;
+        private boolean done;
+        private Exception error;
+
+
+        private Change( long seq, Runnable task, byte[] cookie, List<String> exclusiveKeys, List<String> sharedKeys )
+        {
+            this.seq = seq;
+            this.task = task;
+            this.cookie = cookie;
+            this.exclusiveKeys = exclusiveKeys;
+            this.sharedKeys = sharedKeys;
+        }
+
+
+        @Override
+        public void run()
+        {
+            try
+            {
+                Exception previousFailure = getFailure();
+
+                if ( previousFailure == null )
+                {
+                    task.run();
+                }
+                else
+                {
+                    // A previous change could not be applied, this one may depend on it
+                    error = previousFailure;
+                }
+            }
+            catch ( Exception e )
+            {
+                CONSUMER_LOG.error( "Failed to apply a replicated change", e );
+                error = e;
+            }
+            finally
+            {
+                complete( this );
+            }
+        }
+    }
+
+
+    /**
+     * Creates a new instance of OrderedApplyExecutor
+     *
+     * @param name The name of the threads
+     * @param nbThreads The number of threads applying the changes
+     * @param maxPending The maximum number of changes waiting to be applied. The
+     * submission of a change waits until there is room for it
+     */
+    OrderedApplyExecutor( final String name, int nbThreads, int maxPending )
+    {
+        this.maxPending = maxPending;
+
+        executor = Executors.newFixedThreadPool( nbThreads, new ThreadFactory()
+        {
+            private final AtomicInteger count = new AtomicInteger();
+
+
+            @Override
+            public Thread newThread( Runnable runnable )
+            {
+                Thread thread = new Thread( runnable, name + "-" + count.incrementAndGet() );
+                thread.setDaemon( true );
+
+                return thread;
+            }
+        } );
+    }
+
+
+    /**
+     * Reports the cookie of the last change applied, all the previous changes having been applied
+     *
+     * @param cookie The cookie
+     */
+    protected abstract void applied( byte[] cookie );
+
+
+    /**
+     * Submits a change made on an entry
+     *
+     * @param task The task applying the change
+     * @param entryUuid The entryUUID of the modified entry
+     * @param dn The DN of the modified entry
+     * @param cookie The cookie received with the change, or null
+     * @throws InterruptedException If the thread has been interrupted while waiting for
+     * room for the change
+     */
+    void submit( Runnable task, String entryUuid, Dn dn, byte[] cookie ) throws InterruptedException
+    {
+        List<String> exclusiveKeys = new ArrayList<>( 2 );
+        List<String> sharedKeys = new ArrayList<>();
+
+        exclusiveKeys.add( entryUuid );
+        exclusiveKeys.add( dn.getNormName() );
+
+        for ( Dn parent = dn.getParent(); !parent.isEmpty(); parent = parent.getParent() )
+        {
+            sharedKeys.add( parent.getNormName() );
+        }
+
+        submit( task, cookie, exclusiveKeys, sharedKeys, false );
+    }
+
+
+    /**
+     * Submits a change which has to be applied after all the previous ones, and before
+     * all the following ones
+     *
+     * @param task The task applying the change
+     * @param cookie The cookie received with the change, or null
+     * @throws InterruptedException If the thread has been interrupted while waiting for
+     * room for the change
+     */
+    void submitBarrier( Runnable task, byte[] cookie ) throws InterruptedException
+    {
+        List<String> noKeys = new ArrayList<>( 0 );
+
+        submit( task, cookie, noKeys, noKeys, true );
+    }
+
+
+    private void submit( Runnable task, byte[] cookie, List<String> exclusiveKeys, List<String> sharedKeys,
+        boolean isBarrier ) throws InterruptedException
+    {
+        Change change;
+
+        synchronized ( this )
+        {
+            while ( pending >= maxPending )
+            {
+                wait();
+            }
+
+            lastSeq++;
+            change = new Change( lastSeq, task, cookie, exclusiveKeys, sharedKeys );
+            Set<Change> dependencies = new HashSet<>();
+
+            if ( isBarrier )
+            {
+                useExclusive( barrier, change, dependencies );
+            }
+            else
+            {
+                useShared( barrier, change, dependencies );
+            }
+
+            for ( String key : exclusiveKeys )
+            {
+                useExclusive( getKeyState( key ), change, dependencies );
+            }
+
+            for ( String key : sharedKeys )
+            {
+                useShared( getKeyState( key ), change, dependencies );
+            }
+
+            for ( Change dependency : dependencies )
+            {
+                dependency.successors.add( change );
+            }
+
+            change.waitingFor = dependencies.size();
+            changes.addLast( change );
+            pending++;
+
+            if ( change.waitingFor > 0 )
+            {
+                return;
+            }
+        }
+
+        executor.execute( change );
+    }
+
+
+    private KeyState getKeyState( String key )
+    {
+        KeyState keyState = keys.get( key );
+
+        if ( keyState == null )
+        {
+            keyState = new KeyState();
+            keys.put( key, keyState );
+        }
+
+        return keyState;
+    }
+
+
+    /**
+     * The change depends on all the previous changes using the key
+     */
+    private void useExclusive( KeyState keyState, Change change, Set<Change> dependencies )
+    {
+        if ( keyState.writer != null )
+        {
+            dependencies.add( keyState.writer );
+        }
+
+        dependencies.addAll( keyState.readers );
+        keyState.readers.clear();
+        keyState.writer = change;
+    }
+
+
+    /**
+     * The change depends on the last change having an exclusive use of the key
+     */
+    private void useShared( KeyState keyState, Change change, Set<Change> dependencies )
+    {
+        if ( keyState.writer != null )
+        {
+            dependencies.add( keyState.writer );
+        }
+
+        keyState.readers.add( change );
+    }
+
+
+    private void release( String key, KeyState keyState, Change change )
+    {
+        if ( keyState == null )
+        {
+            return;
+        }
+
+        if ( keyState.writer == change )
+        {
+            keyState.writer = null;
+        }
+
+        keyState.readers.remove( change );
+
+        if ( ( key != null ) && keyState.isEmpty() )
+        {
+            keys.remove( key );
+        }
+    }
+
+
+    /**
+     * Called once a change has been applied : starts the changes which were waiting for it,
+     * and reports the cookie of the last change which has been applied after all the previous ones
+     */
+    private void complete( Change change )
+    {
+        List<Change> ready = new ArrayList<>();
+        Change lastApplied = null;
+
+        synchronized ( this )
+        {
+            change.done = true;
+
+            if ( ( change.error != null ) && ( failure == null ) )
+            {
+                failure = change.error;
+            }
+
+            release( null, barrier, change );
+
+            for ( String key : change.exclusiveKeys )
+            {
+                release( key, keys.get( key ), change );
+            }
+
+            for ( String key : change.sharedKeys )
+            {
+                release( key, keys.get( key ), change );
+            }
+
+            for ( Change successor : change.successors )
+            {
+                successor.waitingFor--;
+
+                if ( successor.waitingFor == 0 )
+                {
+                    ready.add( successor );
+                }
+            }
+
+            change.successors.clear();
+
+            while ( !changes.isEmpty() && changes.peekFirst().done )
+            {
+                Change first = changes.pollFirst();
+
+                // The cookies of the changes following a change which has not been applied
+                // are never reported
+                blocked |= first.error != null;
+
+                if ( !blocked && ( first.cookie != null ) )
+                {
+                    lastApplied = first;
+                }
+            }
+        }
+
+        for ( Change successor : ready )
+        {
+            executor.execute( successor );
+        }
+
+        if ( lastApplied != null )
+        {
+            synchronized ( appliedLock )
+            {
+                // Another thread may have reported a later cookie in the meantime
+                if ( lastApplied.seq > lastAppliedSeq )
+                {
+                    lastAppliedSeq = lastApplied.seq;
+                    applied( lastApplied.cookie );
+                }
+            }
+        }
+
+        // The change is only done once its cookie has been reported
+        synchronized ( this )
+        {
+            pending--;
+            notifyAll();
+        }
+    }
+
+
+    /**
+     * Waits until all the submitted changes are done : applied and their cookies reported, or
+     * skipped after a failure
+     *
+     * @throws InterruptedException If the thread has been interrupted while waiting
+     */
+    synchronized void awaitCompletion() throws InterruptedException
+    {
+        while ( pending > 0 )
+        {
+            wait();
+        }
+    }
+
+
+    /**
+     * @return The error thrown by the first change which could not be applied, or null if
+     * all the changes have been applied so far
+     */
+    synchronized Exception getFailure()
+    {
+        return failure;
+    }
+
+
+    /**
+     * Clears the failure once all the submitted changes are done, so that the changes
+     * submitted from now on are applied, and their cookies reported
+     *
+     * @throws InterruptedException If the thread has been interrupted while waiting
+     */
+    synchronized void reset() throws InterruptedException
+    {
+        awaitCompletion();
+        failure = null;
+        blocked = false;
+    }
+
+
+    /**
+     * Stops the threads, once all the submitted changes have been applied
+     *
+     * @throws InterruptedException If the thread has been interrupted while waiting
+     */
+    void shutdown() throws InterruptedException
+    {
+        awaitCompletion();
+        executor.shutdown();
+    }
+}
@@ -24,9 +24,7 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Iterator;
 import java.util.List;
-import java.util.Map;
 
-import org.apache.commons.collections4.map.LRUMap;
 import org.apache.directory.api.ldap.extras.controls.SynchronizationModeEnum;
 import org.apache.directory.api.ldap.extras.controls.syncrepl.syncDone.SyncDoneValue;
 import org.apache.directory.api.ldap.extras.controls.syncrepl.syncRequest.SyncRequestValue;
@@ -91,6 +89,7 @@ import org.apache.directory.server.core.api.interceptor.context.MoveOperationCon
 import org.apache.directory.server.core.api.interceptor.context.RenameOperationContext;
 import org.apache.directory.server.core.api.partition.Partition;
 import org.apache.directory.server.core.api.partition.PartitionTxn;
+import org.apache.directory.server.core.partition.impl.btree.AbstractBTreePartition;
 import org.apache.directory.server.ldap.LdapProtocolUtils;
 import org.apache.directory.server.ldap.replication.ReplicationConsumerConfig;
 import org.apache.directory.server.ldap.replication.SyncReplConfiguration;
@@ -163,7 +162,31 @@ public class ReplicationConsumerImpl implements ConnectionClosedEventListener, R
     private AttributeType adsReplCookieAT;
     private AttributeType adsDsReplicaIdAT;
 
-    private static final Map<String, Object> UUID_LOCK_MAP = new LRUMap( 1000 );
+    /** The number of locks used to serialize the updates made on a given entry */
+    private static final int UUID_LOCK_STRIPES = 1024;
+
+    /** The locks, shared by all the consumers, selected with the hash of the entryUUID */
+    private static final Object[] UUID_LOCKS = new Object[UUID_LOCK_STRIPES];
+
+    static
+    {
+        for ( int i = 0; i < UUID_LOCK_STRIPES; i++ )
+        {
+            UUID_LOCKS[i] = new Object();
+        }
+    }
+
+    /** The number of changes waiting to be applied per apply thread */
+    private static final int PENDING_CHANGES_PER_THREAD = 1000;
+
+    /** The executor applying the received entries in parallel, if more than one apply thread is configured */
+    private OrderedApplyExecutor applyExecutor;
+
+    /** The number of entries written in a transaction during a bulk initial refresh */
+    private static final int BULK_REFRESH_BATCH_SIZE = 1000;
+
+    /** The loader used during the initial refresh, if the entries are bulk loaded */
+    private BulkRefreshLoader bulkLoader;
 
 
     /**
@@ -198,6 +221,19 @@ public class ReplicationConsumerImpl implements ConnectionClosedEventListener, R
         Attribute ridAttr = new DefaultAttribute( adsDsReplicaIdAT );
         ridMod = new DefaultModification( ModificationOperation.REPLACE_ATTRIBUTE, ridAttr );
 
+        if ( config.getApplyThreads() > 1 )
+        {
+            applyExecutor = new OrderedApplyExecutor( "replication-apply-" + config.getReplicaId(),
+                config.getApplyThreads(), config.getApplyThreads() * PENDING_CHANGES_PER_THREAD )
+            {
+                @Override
+                protected void applied( byte[] cookie )
+                {
+                    storeAppliedCookie( cookie );
+                }
+            };
+        }
+
         prepareSyncSearchRequest();
     }
 
@@ -311,7 +347,8 @@ public class ReplicationConsumerImpl implements ConnectionClosedEventListener, R
 
         SyncDoneValue ctrl = ( SyncDoneValue ) searchDone.getControls().get( SyncDoneValue.OID );
 
-        if ( ( ctrl != null ) && ( ctrl.getCookie() != null ) )
+        // The cookie is not stored if one of the previous entries has not been applied
+        if ( awaitApplied() && ( ctrl != null ) && ( ctrl.getCookie() != null ) )
         {
             syncCookie = ctrl.getCookie();
             CONSUMER_LOG.debug( "assigning cookie from sync done value control: {}", Strings.utf8ToString( syncCookie ) );
@@ -347,125 +384,339 @@ public class ReplicationConsumerImpl implements ConnectionClosedEventListener, R
     {
         CONSUMER_LOG.debug( "------------- starting handleSearchResult ------------" );
 
-        SyncStateValue syncStateCtrl = ( SyncStateValue ) syncResult.getControl( SyncStateValue.OID );
+        final SyncStateValue syncStateCtrl = ( SyncStateValue ) syncResult.getControl( SyncStateValue.OID );
 
         try
         {
-            Entry remoteEntry = new DefaultEntry( schemaManager, syncResult.getEntry() );
-            String uuid = remoteEntry.get( directoryService.getAtProvider().getEntryUUID() ).getString();
-            // lock on UUID to serialize the updates when there are multiple consumers
-            // connected to several producers and to the *same* base/partition
-            Object lock = getLockFor( uuid );
+            final Entry remoteEntry = new DefaultEntry( schemaManager, syncResult.getEntry() );
 
-            synchronized ( lock )
+            if ( bulkLoader != null )
             {
-                int rid = -1;
-
-                if ( syncStateCtrl.getCookie() != null )
+                if ( ( syncStateCtrl.getSyncStateType() == SyncStateTypeEnum.ADD ) && bulkLoader.accept( remoteEntry ) )
                 {
-                    syncCookie = syncStateCtrl.getCookie();
-                    rid = LdapProtocolUtils.getReplicaId( Strings.utf8ToString( syncCookie ) );
-                    CONSUMER_LOG.debug( "assigning the cookie from sync state value control: {}",
-                        Strings.utf8ToString( syncCookie ) );
-                }
+                    if ( bulkLoader.add( remoteEntry, syncStateCtrl.getCookie() ) )
+                    {
+                        flushBulkLoad( false );
+                    }
 
-                SyncStateTypeEnum state = syncStateCtrl.getSyncStateType();
+                    CONSUMER_LOG.debug( "------------- Ending handleSearchResult ------------" );
 
-                // check to avoid conversion of UUID from byte[] to String
-                if ( CONSUMER_LOG.isDebugEnabled() )
-                {
-                    CONSUMER_LOG.debug( "state name {}", state.name() );
-                    CONSUMER_LOG.debug( "entryUUID = {}", Strings.uuidToString( syncStateCtrl.getEntryUUID() ) );
+                    return;
                 }
 
-                Dn remoteDn = remoteEntry.getDn();
+                // The entries loaded so far must be written before this one is applied. The
+                // initial content is complete once something else than an addition is received
+                flushBulkLoad( syncStateCtrl.getSyncStateType() != SyncStateTypeEnum.ADD );
+            }
 
-                switch ( state )
+            if ( applyExecutor == null )
+            {
+                applyEntry( remoteEntry, syncStateCtrl, false );
+            }
+            else if ( applyExecutor.getFailure() != null )
+            {
+                // An entry has not been applied : the synchronization is restarted from
+                // the cookie of the entries applied before it
+                CONSUMER_LOG.warn( "A replicated entry could not be applied, disconnecting from {}",
+                    config.getProducer() );
+                disconnect();
+            }
+            else
+            {
+                // The entry is applied by one of the apply threads, once the previous changes
+                // made on the same entry, its ancestors or its descendants have been applied.
+                // If it fails, the following cookies are not stored
+                Runnable task = new Runnable()
                 {
-                    case ADD:
-                        boolean remoteDnExist = false;
-
+                    @Override
+                    public void run()
+                    {
                         try
                         {
-                            remoteDnExist = session.exists( remoteDn );
+                            applyEntry( remoteEntry, syncStateCtrl, true );
                         }
-                        catch ( LdapNoSuchObjectException lnsoe )
+                        catch ( Exception e )
                         {
-                            CONSUMER_LOG.error( lnsoe.getMessage() );
+                            throw new IllegalStateException( e.getMessage(), e );
                         }
+                    }
+                };
 
-                        if ( !remoteDnExist )
-                        {
-                            CONSUMER_LOG.debug( "adding entry with dn {}", remoteDn );
-                            CONSUMER_LOG.debug( remoteEntry.toString() );
-                            AddOperationContext addContext = new AddOperationContext( session, remoteEntry );
-                            addContext.setReplEvent( true );
-                            addContext.setRid( rid );
-
-                            OperationManager operationManager = directoryService.getOperationManager();
-                            operationManager.add( addContext );
-                        }
-                        else
-                        {
-                            CONSUMER_LOG.debug( "updating entry in refreshOnly mode {}", remoteDn );
-                            modify( remoteEntry, rid );
-                        }
+                if ( syncStateCtrl.getSyncStateType() == SyncStateTypeEnum.MODDN )
+                {
+                    // The old Dn of the entry is unknown, and its descendants are moved too
+                    applyExecutor.submitBarrier( task, syncStateCtrl.getCookie() );
+                }
+                else
+                {
+                    String uuid = remoteEntry.get( directoryService.getAtProvider().getEntryUUID() ).getString();
+                    applyExecutor.submit( task, uuid, remoteEntry.getDn(), syncStateCtrl.getCookie() );
+                }
+            }
+        }
+        catch ( Exception e )
+        {
+            CONSUMER_LOG.error( e.getMessage(), e );
+        }
 
-                        break;
+        CONSUMER_LOG.debug( "------------- Ending handleSearchResult ------------" );
+    }
 
-                    case MODIFY:
-                        CONSUMER_LOG.debug( "modifying entry with dn {}", remoteEntry.getDn().getName() );
-                        modify( remoteEntry, rid );
 
-                        break;
+    /**
+     * Apply an entry received from the producer.
+     *
+     * @param remoteEntry The received entry
+     * @param syncStateCtrl The SyncState control received with the entry
+     * @param applied true if the entry is applied by the apply executor, which stores the cookie
+     * once all the previous entries have been applied
+     * @throws Exception If the entry can't be applied
+     */
+    private void applyEntry( Entry remoteEntry, SyncStateValue syncStateCtrl, boolean applied ) throws Exception
+    {
+        String uuid = remoteEntry.get( directoryService.getAtProvider().getEntryUUID() ).getString();
+        // lock on UUID to serialize the updates when there are multiple consumers
+        // connected to several producers and to the *same* base/partition
+        Object lock = getLockFor( uuid );
 
-                    case MODDN:
-                        String entryUuid = Strings.uuidToString( syncStateCtrl.getEntryUUID() );
-                        applyModDnOperation( remoteEntry, entryUuid, rid );
+        synchronized ( lock )
+        {
+            int rid = -1;
 
-                        break;
+            if ( syncStateCtrl.getCookie() != null )
+            {
+                rid = LdapProtocolUtils.getReplicaId( Strings.utf8ToString( syncStateCtrl.getCookie() ) );
 
-                    case DELETE:
-                        CONSUMER_LOG.debug( "deleting entry with dn {}", remoteEntry.getDn().getName() );
+                if ( !applied )
+                {
+                    syncCookie = syncStateCtrl.getCookie();
+                    CONSUMER_LOG.debug( "assigning the cookie from sync state value control: {}",
+                        Strings.utf8ToString( syncCookie ) );
+                }
+            }
 
-                        if ( !session.exists( remoteDn ) )
-                        {
-                            CONSUMER_LOG
-                                .debug(
-                                    "looks like entry {} was already deleted in a prior update (possibly from another provider), skipping delete",
-                                    remoteDn );
-                        }
-                        else
-                        {
-                            // incase of a MODDN operation resulting in a branch to be moved out of scope
-                            // ApacheDS replication provider sends a single delete event on the Dn of the moved branch
-                            // so the branch needs to be recursively deleted here
-                            deleteRecursive( remoteEntry.getDn(), rid );
-                        }
+            SyncStateTypeEnum state = syncStateCtrl.getSyncStateType();
 
-                        break;
+            // check to avoid conversion of UUID from byte[] to String
+            if ( CONSUMER_LOG.isDebugEnabled() )
+            {
+                CONSUMER_LOG.debug( "state name {}", state.name() );
+                CONSUMER_LOG.debug( "entryUUID = {}", Strings.uuidToString( syncStateCtrl.getEntryUUID() ) );
+            }
 
-                    case PRESENT:
-                        CONSUMER_LOG.debug( "entry present {}", remoteEntry );
-                        break;
+            Dn remoteDn = remoteEntry.getDn();
 
-                    default:
-                        throw new IllegalArgumentException( "Unexpected sync state " + state );
-                }
+            switch ( state )
+            {
+                case ADD:
+                    addEntry( remoteEntry, rid );
+
+                    break;
+
+                case MODIFY:
+                    CONSUMER_LOG.debug( "modifying entry with dn {}", remoteEntry.getDn().getName() );
+                    modify( remoteEntry, rid );
+
+                    break;
+
+                case MODDN:
+                    String entryUuid = Strings.uuidToString( syncStateCtrl.getEntryUUID() );
+                    applyModDnOperation( remoteEntry, entryUuid, rid );
+
+                    break;
+
+                case DELETE:
+                    CONSUMER_LOG.debug( "deleting entry with dn {}", remoteEntry.getDn().getName() );
+
+                    if ( !session.exists( remoteDn ) )
+                    {
+                        CONSUMER_LOG
+                            .debug(
+                                "looks like entry {} was already deleted in a prior update (possibly from another provider), skipping delete",
+                                remoteDn );
+                    }
+                    else
+                    {
+                        // incase of a MODDN operation resulting in a branch to be moved out of scope
+                        // ApacheDS replication provider sends a single delete event on the Dn of the moved branch
+                        // so the branch needs to be recursively deleted here
+                        deleteRecursive( remoteEntry.getDn(), rid );
+                    }
+
+                    break;
+
+                case PRESENT:
+                    CONSUMER_LOG.debug( "entry present {}", remoteEntry );
+                    break;
+
+                default:
+                    throw new IllegalArgumentException( "Unexpected sync state " + state );
+            }
+
+            // store the cookie only if the above operation was successful
+            if ( !applied && ( syncStateCtrl.getCookie() != null ) )
+            {
+                storeCookie();
+            }
+        }
+    }
+
+
+    /**
+     * Adds an entry received from the producer, or modifies it if it already exists.
+     */
+    private void addEntry( Entry remoteEntry, int rid ) throws Exception
+    {
+        Dn remoteDn = remoteEntry.getDn();
+        boolean remoteDnExist = false;
+
+        try
+        {
+            remoteDnExist = session.exists( remoteDn );
+        }
+        catch ( LdapNoSuchObjectException lnsoe )
+        {
+            CONSUMER_LOG.error( lnsoe.getMessage() );
+        }
+
+        if ( !remoteDnExist )
+        {
+            CONSUMER_LOG.debug( "adding entry with dn {}", remoteDn );
+            CONSUMER_LOG.debug( remoteEntry.toString() );
+            AddOperationContext addContext = new AddOperationContext( session, remoteEntry );
+            addContext.setReplEvent( true );
+            addContext.setRid( rid );
+
+            OperationManager operationManager = directoryService.getOperationManager();
+            operationManager.add( addContext );
+        }
+        else
+        {
+            CONSUMER_LOG.debug( "updating entry in refreshOnly mode {}", remoteDn );
+            modify( remoteEntry, rid );
+        }
+    }
+
+
+    /**
+     * Creates the loader used to load the entries of the initial refresh directly into
+     * the partition, if the consumer is configured to do so, and if the replicated base
+     * does not contain any entry yet.
+     *
+     * @return The loader, or null if the entries have to be added one by one
+     */
+    private BulkRefreshLoader createBulkLoader()
+    {
+        if ( !config.isBulkRefresh() )
+        {
+            return null;
+        }
+
+        try
+        {
+            Dn baseDn = new Dn( schemaManager, config.getBaseDn() );
+            Partition partition = directoryService.getPartitionNexus().getPartition( baseDn );
+
+            if ( !( partition instanceof AbstractBTreePartition ) )
+            {
+                CONSUMER_LOG.info( "The partition {} does not support bulk loading", partition.getId() );
+
+                return null;
+            }
+
+            AbstractBTreePartition btreePartition = ( AbstractBTreePartition ) partition;
+
+            try ( PartitionTxn partitionTxn = partition.beginReadTransaction() )
+            {
+                String baseId = btreePartition.getEntryId( partitionTxn, baseDn );
 
-                // store the cookie only if the above operation was successful
-                if ( syncStateCtrl.getCookie() != null )
+                if ( ( baseId != null ) && ( btreePartition.getChildCount( partitionTxn, baseId ) > 0 ) )
                 {
-                    storeCookie();
+                    CONSUMER_LOG.info( "The base {} is not empty, the entries will be added one by one", baseDn );
+
+                    return null;
                 }
             }
+
+            CONSUMER_LOG.info( "Loading the initial content of {} directly into the partition {}", baseDn,
+                partition.getId() );
+
+            return new BulkRefreshLoader( session, btreePartition, BULK_REFRESH_BATCH_SIZE );
         }
         catch ( Exception e )
         {
-            CONSUMER_LOG.error( e.getMessage(), e );
+            CONSUMER_LOG.warn( "Cannot bulk load the initial content, the entries will be added one by one", e );
+
+            return null;
         }
+    }
 
-        CONSUMER_LOG.debug( "------------- Ending handleSearchResult ------------" );
+
+    /**
+     * Writes the entries loaded so far, then applies the entries the partition refused, and
+     * stores the cookie of the last written entry.
+     *
+     * @param finish true if the initial content is complete : the indices are then built, and
+     * the following entries are applied one by one
+     */
+    private void flushBulkLoad( boolean finish )
+    {
+        BulkRefreshLoader loader = bulkLoader;
+
+        if ( loader == null )
+        {
+            return;
+        }
+
+        if ( finish )
+        {
+            bulkLoader = null;
+        }
+
+        // The entries given to the apply executor must be applied before the loaded ones
+        boolean applied = awaitApplied();
+
+        List<Entry> rejected;
+
+        try
+        {
+            rejected = finish ? loader.finish() : loader.flush();
+        }
+        catch ( Exception e )
+        {
+            CONSUMER_LOG.error( "Failed to bulk load the entries, they will be added one by one", e );
+            bulkLoader = null;
+            rejected = loader.abandon();
+        }
+
+        byte[] cookie = loader.getCookie();
+        int rid = -1;
+
+        if ( cookie != null )
+        {
+            rid = LdapProtocolUtils.getReplicaId( Strings.utf8ToString( cookie ) );
+        }
+
+        for ( Entry entry : rejected )
+        {
+            try
+            {
+                synchronized ( getLockFor( entry.get( directoryService.getAtProvider().getEntryUUID() ).getString() ) )
+                {
+                    addEntry( entry, rid );
+                }
+            }
+            catch ( Exception e )
+            {
+                CONSUMER_LOG.error( e.getMessage(), e );
+            }
+        }
+
+        if ( applied && ( cookie != null ) )
+        {
+            syncCookie = cookie;
+            storeCookie();
+        }
     }
 
 
@@ -485,6 +736,18 @@ public class ReplicationConsumerImpl implements ConnectionClosedEventListener, R
                 return;
             }
 
+            flushBulkLoad( true );
+
+            if ( !awaitApplied() )
+            {
+                // The cookie can't move past an entry which has not been applied
+                CONSUMER_LOG.warn( "A replicated entry could not be applied, disconnecting from {}",
+                    config.getProducer() );
+                disconnect();
+
+                return;
+            }
+
             SyncInfoValue syncInfoValue = new SyncInfoValueImpl();
 
             byte[] cookie = syncInfoValue.getCookie();
@@ -715,6 +978,19 @@ public class ReplicationConsumerImpl implements ConnectionClosedEventListener, R
         {
             disconnect();
         }
+
+        if ( applyExecutor != null )
+        {
+            try
+            {
+                applyExecutor.shutdown();
+            }
+            catch ( InterruptedException ie )
+            {
+                CONSUMER_LOG.warn( "Interrupted while stopping the apply threads" );
+                Thread.currentThread().interrupt();
+            }
+        }
     }
 
 
@@ -746,6 +1022,13 @@ public class ReplicationConsumerImpl implements ConnectionClosedEventListener, R
     private ReplicationStatusEnum doSyncSearch( SynchronizationModeEnum syncType, boolean reloadHint ) throws Exception
     {
         CONSUMER_LOG.debug( "Starting synchronization mode {}, reloadHint {}", syncType, reloadHint );
+
+        if ( applyExecutor != null )
+        {
+            // Restart from the cookie of the last applied entry, if an entry could not be applied
+            applyExecutor.reset();
+        }
+
         // Prepare the Syncrepl Request
         SyncRequestValue syncReq = new SyncRequestValueImpl();
 
@@ -766,35 +1049,52 @@ public class ReplicationConsumerImpl implements ConnectionClosedEventListener, R
 
         searchRequest.addControl( syncReq );
 
-        // Do the search. We use a searchAsync because we want to get SearchResultDone responses
-        SearchFuture sf = connection.searchAsync( searchRequest );
-
-        Response resp = sf.get();
+        // Without cookie, this is an initial refresh
+        if ( syncCookie == null )
+        {
+            bulkLoader = createBulkLoader();
+        }
 
-        CONSUMER_LOG.debug( "Response from {} : {}", config.getProducer(), resp );
+        Response resp;
+        SearchFuture sf;
 
-        // Now, process the responses. We loop until we have a connection termination or
-        // a SearchResultDone (RefreshOnly mode)
-        while ( !( resp instanceof SearchResultDone ) && !sf.isCancelled() && !disconnected )
+        try
         {
-            if ( resp instanceof SearchResultEntry )
-            {
-                SearchResultEntry result = ( SearchResultEntry ) resp;
+            // Do the search. We use a searchAsync because we want to get SearchResultDone responses
+            sf = connection.searchAsync( searchRequest );
 
-                handleSearchResultEntry( result );
-            }
-            else if ( resp instanceof SearchResultReference )
-            {
-                handleSearchReference( ( SearchResultReference ) resp );
-            }
-            else if ( resp instanceof IntermediateResponse )
-            {
-                handleSyncInfo( ( IntermediateResponse ) resp );
-            }
-
-            // Next entry
             resp = sf.get();
+
             CONSUMER_LOG.debug( "Response from {} : {}", config.getProducer(), resp );
+
+            // Now, process the responses. We loop until we have a connection termination or
+            // a SearchResultDone (RefreshOnly mode)
+            while ( !( resp instanceof SearchResultDone ) && !sf.isCancelled() && !disconnected )
+            {
+                if ( resp instanceof SearchResultEntry )
+                {
+                    SearchResultEntry result = ( SearchResultEntry ) resp;
+
+                    handleSearchResultEntry( result );
+                }
+                else if ( resp instanceof SearchResultReference )
+                {
+                    handleSearchReference( ( SearchResultReference ) resp );
+                }
+                else if ( resp instanceof IntermediateResponse )
+                {
+                    handleSyncInfo( ( IntermediateResponse ) resp );
+                }
+
+                // Next entry
+                resp = sf.get();
+                CONSUMER_LOG.debug( "Response from {} : {}", config.getProducer(), resp );
+            }
+        }
+        finally
+        {
+            // Write the entries loaded so far, and build the indices
+            flushBulkLoad( true );
         }
 
         if ( sf.isCancelled() )
@@ -878,6 +1178,8 @@ public class ReplicationConsumerImpl implements ConnectionClosedEventListener, R
 
         try
         {
+            awaitApplied();
+
             if ( ( connection != null ) && connection.isConnected() )
             {
                 connection.unBind();
@@ -910,10 +1212,54 @@ public class ReplicationConsumerImpl implements ConnectionClosedEventListener, R
     }
 
 
+    /**
+     * Waits until the entries given to the apply executor have been applied, and their
+     * cookie stored.
+     *
+     * @return false if one of the entries could not be applied : the cookies received after
+     * it must not be stored
+     */
+    private boolean awaitApplied()
+    {
+        if ( applyExecutor == null )
+        {
+            return true;
+        }
+
+        try
+        {
+            applyExecutor.awaitCompletion();
+        }
+        catch ( InterruptedException ie )
+        {
+            CONSUMER_LOG.warn( "Interrupted while waiting for the replicated entries to be applied" );
+            Thread.currentThread().interrupt();
+
+            return false;
+        }
+
+        return applyExecutor.getFailure() == null;
+    }
+
+
+    /**
+     * Stores the cookie of an entry applied by the apply executor, all the previous entries
+     * having been applied.
+     *
+     * @param cookie The cookie
+     */
+    private synchronized void storeAppliedCookie( byte[] cookie )
+    {
+        syncCookie = cookie;
+        CONSUMER_LOG.debug( "assigning the cookie of the applied entries: {}", Strings.utf8ToString( syncCookie ) );
+        storeCookie();
+    }
+
+
     /**
      * stores the cookie.
      */
-    private void storeCookie()
+    private synchronized void storeCookie()
     {
         CONSUMER_LOG.debug( "Storing the cookie '{}'", Strings.utf8ToString( syncCookie ) );
 
@@ -1390,17 +1736,9 @@ public class ReplicationConsumerImpl implements ConnectionClosedEventListener, R
     }
 
 
-    private synchronized Object getLockFor( String uuid )
+    private static Object getLockFor( String uuid )
     {
-        Object lock = UUID_LOCK_MAP.get( uuid );
-
-        if ( lock == null )
-        {
-            lock = new Object();
-            UUID_LOCK_MAP.put( uuid, lock );
-        }
-
-        return lock;
+        return UUID_LOCKS[( uuid.hashCode() & 0x7FFFFFFF ) % UUID_LOCK_STRIPES];
     }
 
 
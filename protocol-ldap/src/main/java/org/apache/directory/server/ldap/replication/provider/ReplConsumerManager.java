@@ -51,8 +51,6 @@ import org.apache.directory.server.core.api.CoreSession;
 import org.apache.directory.server.core.api.DirectoryService;
 import org.apache.directory.server.core.api.event.EventType;
 import org.apache.directory.server.core.api.event.NotificationCriteria;
-import org.apache.directory.server.core.api.partition.Partition;
-import org.apache.directory.server.core.api.partition.PartitionTxn;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -257,15 +255,13 @@ public class ReplConsumerManager
     /**
      * Get the list of consumers' configuration
      * 
+     * @param changeLog The change log shared by all the consumers
      * @return A list of all the consumer configuration stored on the provider
      * @throws Exception If we had an error while building this list
      */
-    public List<ReplicaEventLog> getReplicaEventLogs() throws Exception
+    public List<ReplicaEventLog> getReplicaEventLogs( ReplicaChangeLog changeLog ) throws Exception
     {
         List<ReplicaEventLog> replicas = new ArrayList<>();
-        
-        Partition partition = directoryService.getPartitionNexus().getPartition( replConsumerDn );
-        
 
         // Search for all the consumers
         ExprNode filter = new EqualityNode<String>( directoryService.getAtProvider().getObjectClass(), 
@@ -282,12 +278,8 @@ public class ReplConsumerManager
         while ( cursor.next() )
         {
             Entry entry = cursor.get();
-            
-            try ( PartitionTxn partitionTxn = partition.beginReadTransaction() )
-            {
-                ReplicaEventLog replica = convertEntryToReplica( partitionTxn, entry );
-                replicas.add( replica );
-            }
+            ReplicaEventLog replica = convertEntryToReplica( changeLog, entry );
+            replicas.add( replica );
         }
 
         cursor.close();
@@ -300,10 +292,10 @@ public class ReplConsumerManager
     /**
      * Convert the stored entry to a valid ReplicaEventLog structure
      */
-    private ReplicaEventLog convertEntryToReplica( PartitionTxn partitionTxn, Entry entry ) throws Exception
+    private ReplicaEventLog convertEntryToReplica( ReplicaChangeLog changeLog, Entry entry ) throws Exception
     {
         String id = entry.get( SchemaConstants.ADS_DS_REPLICA_ID ).getString();
-        ReplicaEventLog replica = new ReplicaEventLog( partitionTxn, directoryService, Integer.parseInt( id ) );
+        ReplicaEventLog replica = new ReplicaEventLog( schemaManager, changeLog, Integer.parseInt( id ) );
 
         NotificationCriteria searchCriteria = new NotificationCriteria( schemaManager );
 
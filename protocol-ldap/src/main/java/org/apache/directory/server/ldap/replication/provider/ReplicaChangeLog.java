@@ -0,0 +1,514 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.ldap.replication.provider;
+
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import jdbm.RecordManager;
+import jdbm.recman.BaseRecordManager;
+import jdbm.recman.TransactionManager;
+
+import org.apache.directory.api.ldap.model.constants.Loggers;
+import org.apache.directory.api.ldap.model.constants.SchemaConstants;
+import org.apache.directory.api.ldap.model.csn.Csn;
+import org.apache.directory.api.ldap.model.cursor.Cursor;
+import org.apache.directory.api.ldap.model.cursor.Tuple;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.api.ldap.model.message.SearchScope;
+import org.apache.directory.api.ldap.model.message.controls.ChangeType;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.api.ldap.model.schema.comparators.SerializableComparator;
+import org.apache.directory.server.core.api.PendingCsnTracker;
+import org.apache.directory.server.core.api.entry.ClonedServerEntry;
+import org.apache.directory.server.core.api.event.DirectoryListener;
+import org.apache.directory.server.core.api.event.DirectoryListenerAdapter;
+import org.apache.directory.server.core.api.event.EventType;
+import org.apache.directory.server.core.api.event.ExpressionEvaluator;
+import org.apache.directory.server.core.api.event.NotificationCriteria;
+import org.apache.directory.server.core.api.interceptor.context.AbstractChangeOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.AddOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.DeleteOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.ModifyOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.MoveAndRenameOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.MoveOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.RenameOperationContext;
+import org.apache.directory.server.core.partition.impl.btree.jdbm.JdbmTable;
+import org.apache.directory.server.core.partition.impl.btree.jdbm.StringSerializer;
+import org.apache.directory.server.ldap.replication.ReplicaEventMessage;
+import org.apache.directory.server.ldap.replication.ReplicaEventMessageSerializer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * The change log shared by all the syncrepl consumers of a provider. Each change is stored
+ * once, ordered by its CSN, whatever the number of consumers : a consumer only keeps the last
+ * CSN it has been sent, and reads the log from this CSN, the changes it is not interested in
+ * (out of its search scope, not matching its filter, or coming from it) being skipped by the
+ * {@link ReplicaJournalCursor} when they are read.
+ * <br>
+ * The changes are logged by a synchronous listener, registered on the whole DIT, and the old
+ * changes are purged by the {@link ReplicaEventLogJanitor} when all the consumers have read them.
+ * <br>
+ * The changes made on different partitions are logged concurrently, so a change may be logged
+ * after a change having a newer CSN : a consumer which has read the newer change would never
+ * read the older one. The CSNs generated by the operations in progress are tracked by the
+ * {@link PendingCsnTracker}, and the messages are only read up to the oldest pending CSN, once
+ * the operations which generated a CSN older than the last logged one are completed.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class ReplicaChangeLog
+{
+    /** The logger */
+    private static final Logger LOG = LoggerFactory.getLogger( ReplicaChangeLog.class );
+
+    /** A logger for the replication provider */
+    private static final Logger PROVIDER_LOG = LoggerFactory.getLogger( Loggers.PROVIDER_LOG.getName() );
+
+    /** The change log file name, in the replication directory */
+    public static final String REPLICA_CHANGE_LOG_NAME = "REPL_CHANGE_LOG";
+
+    /** The maximum time a reader waits for the operations in progress to be logged, in milliseconds */
+    private static final long PENDING_WAIT_TIMEOUT = 5000L;
+
+    /** The SchemaManager instance */
+    private final SchemaManager schemaManager;
+
+    /** The Journal of modifications */
+    private JdbmTable<String, ReplicaEventMessage> journal;
+
+    /** The record manager*/
+    private RecordManager recman;
+
+    /** Tells if the log has been created, rather than opened */
+    private final boolean created;
+
+    /** The evaluator used to check the consumers filters */
+    private final ExpressionEvaluator evaluator;
+
+    /** The listener storing the changes in the log */
+    private final DirectoryListener listener = new ChangeLogListener();
+
+    /** The tracker of the CSNs generated by the operations in progress, if any */
+    private final PendingCsnTracker pendingCsnTracker;
+
+    /** The CSN of the last logged message */
+    private volatile String lastLoggedCsn;
+
+
+    /**
+     * Creates the change log in the replication directory, or opens it if it already exists.
+     * The messages are read as soon as they are logged, whatever the operations in progress.
+     *
+     * @param schemaManager The SchemaManager instance
+     * @param replDir The replication directory
+     * @throws IOException If the log can't be opened
+     */
+    public ReplicaChangeLog( SchemaManager schemaManager, File replDir ) throws IOException
+    {
+        this( schemaManager, replDir, null );
+    }
+
+
+    /**
+     * Creates the change log in the replication directory, or opens it if it already exists
+     *
+     * @param schemaManager The SchemaManager instance
+     * @param replDir The replication directory
+     * @param pendingCsnTracker The tracker of the CSNs generated by the operations in progress
+     * @throws IOException If the log can't be opened
+     */
+    public ReplicaChangeLog( SchemaManager schemaManager, File replDir, PendingCsnTracker pendingCsnTracker )
+        throws IOException
+    {
+        this.schemaManager = schemaManager;
+        this.pendingCsnTracker = pendingCsnTracker;
+        File journalFile = new File( replDir, REPLICA_CHANGE_LOG_NAME );
+        created = !new File( replDir, REPLICA_CHANGE_LOG_NAME + ".db" ).exists();
+
+        PROVIDER_LOG.debug( "Opening the replication change log {}", journalFile );
+
+        recman = new BaseRecordManager( journalFile.getAbsolutePath() );
+        TransactionManager transactionManager = ( ( BaseRecordManager ) recman ).getTransactionManager();
+        transactionManager.setMaximumTransactionsInLog( 200 );
+
+        SerializableComparator<String> comparator = new SerializableComparator<>(
+            SchemaConstants.CSN_ORDERING_MATCH_MR_OID );
+        comparator.setSchemaManager( schemaManager );
+
+        journal = new JdbmTable<>( schemaManager, journalFile.getName(), recman, comparator,
+            StringSerializer.INSTANCE, new ReplicaEventMessageSerializer( schemaManager ) );
+
+        evaluator = new ExpressionEvaluator( schemaManager );
+    }
+
+
+    /**
+     * @return true if the log did not exist and has been created, so that the changes made
+     * before have not been logged
+     */
+    public boolean isCreated()
+    {
+        return created;
+    }
+
+
+    /**
+     * @return The listener storing the changes in this log
+     */
+    public DirectoryListener getListener()
+    {
+        return listener;
+    }
+
+
+    /**
+     * @return The criteria the log listener has to be registered with : all the changes,
+     * on the whole DIT
+     */
+    public NotificationCriteria getCriteria()
+    {
+        NotificationCriteria criteria = new NotificationCriteria( schemaManager );
+        criteria.setBase( new Dn( schemaManager ) );
+        criteria.setScope( SearchScope.SUBTREE );
+        criteria.setEventMask( EventType.ALL_EVENT_TYPES_MASK );
+
+        return criteria;
+    }
+
+
+    /**
+     * @return The evaluator used to check the consumers filters
+     */
+    public ExpressionEvaluator getEvaluator()
+    {
+        return evaluator;
+    }
+
+
+    /**
+     * Stores the given message in the log
+     *
+     * @param message The message to store
+     */
+    public synchronized void log( ReplicaEventMessage message )
+    {
+        try
+        {
+            LOG.debug( "logging entry with Dn {} with the event {}", message.getEntry().getDn(),
+                message.getChangeType() );
+            PROVIDER_LOG.debug( "logging entry with Dn {} with the event {}", message.getEntry().getDn(),
+                message.getChangeType() );
+
+            String entryCsn = message.getEntry().get( SchemaConstants.ENTRY_CSN_AT ).getString();
+
+            // The JDBM table does not use the partition transactions
+            journal.put( null, entryCsn, message );
+
+            if ( ( lastLoggedCsn == null ) || ( entryCsn.compareTo( lastLoggedCsn ) > 0 ) )
+            {
+                lastLoggedCsn = entryCsn;
+            }
+        }
+        catch ( Exception e )
+        {
+            LOG.warn( "Failed to insert the entry into syncrepl log", e );
+            PROVIDER_LOG.error( "Failed to insert the entry into syncrepl log", e );
+        }
+    }
+
+
+    /**
+     * Reads the messages following a CSN. The log is only browsed while this method is
+     * executed, so that the consumers reading the log don't hold it while the messages
+     * are sent.
+     * <br>
+     * The messages having a CSN newer than a CSN generated by an operation in progress
+     * are not read : they will be read with the message this operation logs.
+     *
+     * @param afterCsn The CSN of the last read message, or null to read the log from its start
+     * @param max The maximum number of messages to read
+     * @return The messages, in the CSN order
+     * @throws Exception If the log can't be read
+     */
+    public List<ReplicaEventMessage> read( String afterCsn, int max ) throws Exception
+    {
+        String readLimit = null;
+        String lastCsn = lastLoggedCsn;
+
+        if ( ( pendingCsnTracker != null ) && ( lastCsn != null ) )
+        {
+            // Wait, without holding the log, until the operations which generated a CSN
+            // older than the last logged one have logged their messages
+            readLimit = pendingCsnTracker.awaitReadLimit( lastCsn, PENDING_WAIT_TIMEOUT );
+
+            if ( readLimit.compareTo( lastCsn ) < 0 )
+            {
+                PROVIDER_LOG.warn( "The operation which generated the CSN {} is still in progress, "
+                    + "the messages logged after it are not read yet", readLimit );
+            }
+        }
+
+        return read( afterCsn, max, readLimit );
+    }
+
+
+    /**
+     * Reads the messages following a CSN, and older than a limit
+     */
+    private synchronized List<ReplicaEventMessage> read( String afterCsn, int max, String readLimit )
+        throws Exception
+    {
+        List<ReplicaEventMessage> messages = new ArrayList<>();
+        Cursor<Tuple<String, ReplicaEventMessage>> cursor = journal.cursor();
+
+        try
+        {
+            if ( afterCsn == null )
+            {
+                cursor.beforeFirst();
+            }
+            else
+            {
+                cursor.after( new Tuple<String, ReplicaEventMessage>( afterCsn, null ) );
+            }
+
+            while ( ( messages.size() < max ) && cursor.next() )
+            {
+                Tuple<String, ReplicaEventMessage> tuple = cursor.get();
+
+                if ( ( readLimit != null ) && ( tuple.getKey().compareTo( readLimit ) >= 0 ) )
+                {
+                    break;
+                }
+
+                messages.add( tuple.getValue() );
+            }
+        }
+        finally
+        {
+            cursor.close();
+        }
+
+        return messages;
+    }
+
+
+    /**
+     * @return the number of messages present in the log
+     */
+    public synchronized long count()
+    {
+        try
+        {
+            return journal.count( null );
+        }
+        catch ( LdapException e )
+        {
+            throw new RuntimeException( e );
+        }
+    }
+
+
+    /**
+     * Deletes the messages which are older than both a CSN and a time
+     *
+     * @param beforeCsn The CSN the deleted messages are older than, or null if the messages
+     * are only deleted based on their time
+     * @param beforeTime The time the deleted messages are older than, in milliseconds
+     * @return The number of deleted messages
+     * @throws Exception If the log can't be purged
+     */
+    public synchronized long purge( String beforeCsn, long beforeTime ) throws Exception
+    {
+        List<String> csns = new ArrayList<>();
+        Cursor<Tuple<String, ReplicaEventMessage>> cursor = journal.cursor();
+
+        try
+        {
+            cursor.beforeFirst();
+
+            while ( cursor.next() )
+            {
+                String csn = cursor.get().getKey();
+
+                // stop if we reach the CSN or got past it
+                if ( ( beforeCsn != null ) && ( csn.compareTo( beforeCsn ) >= 0 ) )
+                {
+                    break;
+                }
+
+                // The messages are ordered by their CSN, so by their time
+                if ( new Csn( csn ).getTimestamp() >= beforeTime )
+                {
+                    break;
+                }
+
+                csns.add( csn );
+            }
+        }
+        finally
+        {
+            cursor.close();
+        }
+
+        for ( String csn : csns )
+        {
+            journal.remove( null, csn );
+        }
+
+        return csns.size();
+    }
+
+
+    /**
+     * Stop the change log
+     *
+     * @throws Exception If the stop failed
+     */
+    public synchronized void stop() throws Exception
+    {
+        PROVIDER_LOG.debug( "Stopping the replication change log" );
+
+        if ( journal != null )
+        {
+            journal.close( null );
+        }
+
+        journal = null;
+
+        if ( recman != null )
+        {
+            recman.close();
+        }
+
+        recman = null;
+    }
+
+
+    /**
+     * Tells if a DN is in the scope of a consumer search
+     *
+     * @param dn The DN to check
+     * @param criteria The consumer search criteria
+     * @return true if the DN is in the search scope
+     */
+    static boolean isInScope( Dn dn, NotificationCriteria criteria )
+    {
+        Dn base = criteria.getBase();
+
+        switch ( criteria.getScope() )
+        {
+            case OBJECT:
+                return dn.equals( base );
+
+            case ONELEVEL:
+                return !dn.isEmpty() && dn.getParent().equals( base );
+
+            default:
+                return dn.isDescendantOf( base );
+        }
+    }
+
+
+    /**
+     * Logs the change made on an entry
+     */
+    private void logChange( AbstractChangeOperationContext ctx, ChangeType changeType, Entry entry, Dn oldDn )
+    {
+        if ( ctx.isGenerateNoReplEvt() || SyncReplSearchListener.isConfigEntry( entry ) )
+        {
+            return;
+        }
+
+        if ( entry instanceof ClonedServerEntry )
+        {
+            entry = ( ( ClonedServerEntry ) entry ).getClonedEntry();
+        }
+
+        int rid = ctx.isReplEvent() ? ctx.getRid() : -1;
+
+        log( new ReplicaEventMessage( changeType, entry, oldDn, rid ) );
+    }
+
+
+    /**
+     * The listener logging all the changes
+     */
+    private class ChangeLogListener extends DirectoryListenerAdapter
+    {
+        @Override
+        public void entryAdded( AddOperationContext addContext )
+        {
+            logChange( addContext, ChangeType.ADD, addContext.getEntry(), null );
+        }
+
+
+        @Override
+        public void entryDeleted( DeleteOperationContext deleteContext )
+        {
+            logChange( deleteContext, ChangeType.DELETE, deleteContext.getEntry(), null );
+        }
+
+
+        @Override
+        public void entryModified( ModifyOperationContext modifyContext )
+        {
+            logChange( modifyContext, ChangeType.MODIFY, modifyContext.getAlteredEntry(), null );
+        }
+
+
+        @Override
+        public void entryRenamed( RenameOperationContext renameContext )
+        {
+            logChange( renameContext, ChangeType.MODDN, renameContext.getModifiedEntry(), renameContext.getDn() );
+        }
+
+
+        @Override
+        public void entryMoved( MoveOperationContext moveContext )
+        {
+            logChange( moveContext, ChangeType.MODDN, moveContext.getModifiedEntry(), moveContext.getDn() );
+        }
+
+
+        @Override
+        public void entryMovedAndRenamed( MoveAndRenameOperationContext moveAndRenameContext )
+        {
+            logChange( moveAndRenameContext, ChangeType.MODDN, moveAndRenameContext.getModifiedEntry(),
+                moveAndRenameContext.getDn() );
+        }
+
+
+        @Override
+        public boolean isSynchronous()
+        {
+            // The change must be logged before the consumers are sent it
+            return true;
+        }
+    }
+}
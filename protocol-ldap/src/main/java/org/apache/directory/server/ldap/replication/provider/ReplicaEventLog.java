@@ -21,27 +21,11 @@
 package org.apache.directory.server.ldap.replication.provider;
 
 
-import java.io.File;
-import java.io.IOException;
-
-import jdbm.RecordManager;
-import jdbm.recman.BaseRecordManager;
-import jdbm.recman.TransactionManager;
-
 import org.apache.directory.api.ldap.model.constants.Loggers;
-import org.apache.directory.api.ldap.model.constants.SchemaConstants;
-import org.apache.directory.api.ldap.model.exception.LdapException;
 import org.apache.directory.api.ldap.model.name.Dn;
 import org.apache.directory.api.ldap.model.schema.SchemaManager;
-import org.apache.directory.api.ldap.model.schema.comparators.SerializableComparator;
-import org.apache.directory.server.core.api.DirectoryService;
 import org.apache.directory.server.core.api.event.EventType;
 import org.apache.directory.server.core.api.event.NotificationCriteria;
-import org.apache.directory.server.core.api.partition.PartitionTxn;
-import org.apache.directory.server.core.partition.impl.btree.jdbm.JdbmTable;
-import org.apache.directory.server.core.partition.impl.btree.jdbm.StringSerializer;
-import org.apache.directory.server.ldap.replication.ReplicaEventMessage;
-import org.apache.directory.server.ldap.replication.ReplicaEventMessageSerializer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -57,8 +41,9 @@ import org.slf4j.LoggerFactory;
  * <li>refreshNPersist : a flag indicating that the consumer is processing in Refresh and persist mode</li>
  * <li></li>
  * </ul>
- * A separate log is maintained for each syncrepl consumer.<br>
- * We also associate a Queue with each structure, which will store the messages to send to the consumer.
+ * The changes are stored in a {@link ReplicaChangeLog} shared by all the syncrepl consumers : each
+ * consumer reads it from its last sent CSN, through a {@link ReplicaJournalCursor} which only returns
+ * the changes matching the consumer's search criteria.
  *
  * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
  */
@@ -98,14 +83,8 @@ public class ReplicaEventLog implements Comparable<ReplicaEventLog>
     private int purgeThresholdCount = DEFAULT_PURGE_THRESHOLD_COUNT;
 
     // fields that won't be serialized
-    /** The Journal of modifications */
-    private JdbmTable<String, ReplicaEventMessage> journal;
-
-    /** the underlying file  */
-    private File journalFile;
-
-    /** The record manager*/
-    private RecordManager recman;
+    /** The change log shared by all the consumers */
+    private ReplicaChangeLog changeLog;
 
     /** A flag used to indicate that the consumer is not up to date */
     private volatile boolean dirty;
@@ -119,67 +98,22 @@ public class ReplicaEventLog implements Comparable<ReplicaEventLog>
 
     /** The max delay for an idle replication log with no activity, by default the logs have no idle time period */
     public static final int DEFAULT_MAX_IDLE_PERIOD = -1;
-    
-    /** The partition transaction */
-    private PartitionTxn partitionTxn;
 
 
     /**
      * Creates a new instance of EventLog for a replica
      * 
-     * @param partitionTxn The Transaction to use
-     * @param directoryService The DirectoryService instance
+     * @param schemaManager The SchemaManager instance
+     * @param changeLog The change log shared by all the consumers
      * @param replicaId The replica ID
-     * @throws IOException if we weren't able to log the event
      */
-    public ReplicaEventLog( PartitionTxn partitionTxn, DirectoryService directoryService, int replicaId ) throws IOException
+    public ReplicaEventLog( SchemaManager schemaManager, ReplicaChangeLog changeLog, int replicaId )
     {
         PROVIDER_LOG.debug( "Creating the replication queue for replica {}", replicaId );
-        SchemaManager schemaManager = directoryService.getSchemaManager();
         this.replicaId = replicaId;
+        this.changeLog = changeLog;
         this.searchCriteria = new NotificationCriteria( schemaManager );
         this.searchCriteria.setEventMask( EventType.ALL_EVENT_TYPES_MASK );
-
-        // Create the journal file, or open if already exists
-        File replDir = directoryService.getInstanceLayout().getReplDirectory();
-        journalFile = new File( replDir, REPLICA_EVENT_LOG_NAME_PREFIX + replicaId );
-        recman = new BaseRecordManager( journalFile.getAbsolutePath() );
-        TransactionManager transactionManager = ( ( BaseRecordManager ) recman ).getTransactionManager();
-        transactionManager.setMaximumTransactionsInLog( 200 );
-
-        SerializableComparator<String> comparator = new SerializableComparator<>(
-            SchemaConstants.CSN_ORDERING_MATCH_MR_OID );
-        comparator.setSchemaManager( schemaManager );
-
-        journal = new JdbmTable<>( schemaManager, journalFile.getName(), recman, comparator,
-            StringSerializer.INSTANCE, new ReplicaEventMessageSerializer( schemaManager ) );
-        
-        this.partitionTxn = partitionTxn;
-    }
-
-
-    /**
-     * Stores the given message in the queue 
-     *
-     * @param message The message to store
-     */
-    public synchronized void log( ReplicaEventMessage message )
-    {
-        try
-        {
-            LOG.debug( "logging entry with Dn {} with the event {}", message.getEntry().getDn(),
-                message.getChangeType() );
-            PROVIDER_LOG.debug( "logging entry with Dn {} with the event {}", message.getEntry().getDn(),
-                message.getChangeType() );
-
-            String entryCsn = message.getEntry().get( SchemaConstants.ENTRY_CSN_AT ).getString();
-            journal.put( partitionTxn, entryCsn, message );
-        }
-        catch ( Exception e )
-        {
-            LOG.warn( "Failed to insert the entry into syncrepl log", e );
-            PROVIDER_LOG.error( "Failed to insert the entry into syncrepl log", e );
-        }
     }
 
 
@@ -204,32 +138,6 @@ public class ReplicaEventLog implements Comparable<ReplicaEventLog>
     }
 
 
-    /**
-     * Stop the EventLog
-     * 
-     * @throws Exception If the stop failed
-     */
-    public void stop() throws Exception
-    {
-        PROVIDER_LOG.debug( "Stopping the EventLog for replicaId {}", replicaId );
-
-        // Close the producer and session, DO NOT close connection 
-        if ( journal != null )
-        {
-            journal.close( partitionTxn );
-        }
-
-        journal = null;
-
-        if ( recman != null )
-        {
-            recman.close();
-        }
-
-        recman = null;
-    }
-
-
     /**
      * {@inheritDoc}
      */
@@ -441,7 +349,7 @@ public class ReplicaEventLog implements Comparable<ReplicaEventLog>
      */
     public ReplicaJournalCursor getCursor( String consumerCsn ) throws Exception
     {
-        return new ReplicaJournalCursor( partitionTxn, journal, consumerCsn );
+        return new ReplicaJournalCursor( changeLog, this, consumerCsn );
     }
 
 
@@ -450,23 +358,7 @@ public class ReplicaEventLog implements Comparable<ReplicaEventLog>
      */
     public String getName()
     {
-        return journal.getName();
-    }
-
-
-    /**
-     * @return the number of entries present in the replica log
-     */
-    public synchronized long count()
-    {
-        try
-        {
-            return journal.count( partitionTxn );
-        }
-        catch ( LdapException e )
-        {
-            throw new RuntimeException( e );
-        }
+        return REPLICA_EVENT_LOG_NAME_PREFIX + replicaId;
     }
 
 
@@ -522,7 +414,7 @@ public class ReplicaEventLog implements Comparable<ReplicaEventLog>
         return "ReplicaEventLog [hostName=" + hostName + ", searchFilter=" + searchFilter + ", lastSentCsn="
             + lastSentCsn + ", searchCriteria=" + searchCriteria + ", replicaId=" + replicaId
             + ", refreshNPersist=" + refreshNPersist + ", maxInactivePeriod=" + maxIdlePeriod
-            + ", purgeThresholdCount=" + purgeThresholdCount + ", journalFile=" + journalFile
+            + ", purgeThresholdCount=" + purgeThresholdCount
             + ", dirty=" + dirty + ", consumerEntryDn=" + consumerEntryDn + "]";
     }
 }
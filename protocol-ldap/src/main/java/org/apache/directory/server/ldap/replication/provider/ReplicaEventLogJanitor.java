@@ -20,21 +20,20 @@
 package org.apache.directory.server.ldap.replication.provider;
 
 
-import java.io.File;
 import java.util.Map;
 
-import org.apache.directory.api.ldap.model.constants.SchemaConstants;
 import org.apache.directory.api.ldap.model.csn.Csn;
 import org.apache.directory.api.ldap.model.exception.LdapException;
 import org.apache.directory.api.util.DateUtils;
 import org.apache.directory.server.core.api.DirectoryService;
-import org.apache.directory.server.ldap.replication.ReplicaEventMessage;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 
 /**
- * Deletes old entries from the replication event logs that are configured in refreshNPersist mode.
+ * Deletes the idle replication event logs, and the old entries from the replication change log : the
+ * entries which have been sent to all the consumers are deleted when the log is larger than the
+ * smallest purge threshold count of the consumers.
  * 
  * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
  */
@@ -46,6 +45,9 @@ public class ReplicaEventLogJanitor extends Thread
 
     private Map<Integer, ReplicaEventLog> replicaLogMap;
 
+    /** The change log shared by all the consumers */
+    private ReplicaChangeLog changeLog;
+
     private volatile boolean stop = false;
 
     /** A lock used to wait */
@@ -58,12 +60,13 @@ public class ReplicaEventLogJanitor extends Thread
 
 
     public ReplicaEventLogJanitor( final DirectoryService directoryService,
-        final Map<Integer, ReplicaEventLog> replicaLogMap )
+        final Map<Integer, ReplicaEventLog> replicaLogMap, final ReplicaChangeLog changeLog )
     {
-        // if log is in refreshNpersist mode, has more entries than the log's threshold count then 
-        // all the entries before the last sent CSN and older than 2 hours will be purged
+        // if the change log has more entries than the consumers threshold count then all the entries
+        // before the slowest consumer's last sent CSN and older than 2 hours will be purged
         this.directoryService = directoryService;
         this.replicaLogMap = replicaLogMap;
+        this.changeLog = changeLog;
         setDaemon( true );
     }
 
@@ -73,9 +76,14 @@ public class ReplicaEventLogJanitor extends Thread
     {
         while ( !stop )
         {
+            // the last CSN sent to the slowest consumer
+            String minLastSentCsn = null;
+            long thresholdCount = ReplicaEventLog.DEFAULT_PURGE_THRESHOLD_COUNT;
+            boolean first = true;
+
             for ( ReplicaEventLog log : replicaLogMap.values() )
             {
-                synchronized ( log ) // lock the log and clean
+                synchronized ( log ) // lock the log and check its idle time
                 {
                     try
                     {
@@ -84,7 +92,7 @@ public class ReplicaEventLogJanitor extends Thread
                         if ( lastSentCsn == null )
                         {
                             LOG.debug( "last sent CSN is null for the replica {}, skipping cleanup", log.getName() );
-                            return;
+                            continue;
                         }
 
                         long now = DateUtils.getDate( DateUtils.getGeneralizedTime() ).getTime();
@@ -120,52 +128,42 @@ public class ReplicaEventLogJanitor extends Thread
                             continue;
                         }
 
-                        long thresholdCount = log.getPurgeThresholdCount();
-
-                        if ( log.count() < thresholdCount )
+                        if ( ( minLastSentCsn == null ) || ( lastSentCsn.compareTo( minLastSentCsn ) < 0 ) )
                         {
-                            continue;
+                            minLastSentCsn = lastSentCsn;
                         }
 
-                        LOG.debug( "starting to purge the log entries that are older than {} milliseconds",
-                            thresholdTime );
-
-                        long deleteCount = 0;
-
-                        ReplicaJournalCursor cursor = log.getCursor( null ); // pass no CSN
-                        cursor.skipQualifyingWhileFetching();
-
-                        while ( cursor.next() )
+                        if ( first || ( log.getPurgeThresholdCount() < thresholdCount ) )
                         {
-                            ReplicaEventMessage message = cursor.get();
-                            String csnVal = message.getEntry().get( SchemaConstants.ENTRY_CSN_AT ).getString();
-
-                            // skip if we reach the lastSentCsn or got past it
-                            if ( csnVal.compareTo( lastSentCsn ) >= 0 )
-                            {
-                                break;
-                            }
-
-                            Csn csn = new Csn( csnVal );
-
-                            if ( ( now - csn.getTimestamp() ) >= thresholdTime )
-                            {
-                                cursor.delete();
-                                deleteCount++;
-                            }
+                            thresholdCount = log.getPurgeThresholdCount();
+                            first = false;
                         }
-
-                        cursor.close();
-
-                        LOG.debug( "purged {} messages from the log {}", deleteCount, log.getName() );
                     }
                     catch ( Exception e )
                     {
-                        LOG.warn( "Failed to purge old entries from the log {}", log.getName(), e );
+                        LOG.warn( "Failed to check the idle time of the log {}", log.getName(), e );
                     }
                 }
             }
 
+            try
+            {
+                if ( changeLog.count() >= thresholdCount )
+                {
+                    LOG.debug( "starting to purge the log entries that are older than {} milliseconds",
+                        thresholdTime );
+
+                    long now = DateUtils.getDate( DateUtils.getGeneralizedTime() ).getTime();
+                    long deleteCount = changeLog.purge( minLastSentCsn, now - thresholdTime );
+
+                    LOG.debug( "purged {} messages from the change log", deleteCount );
+                }
+            }
+            catch ( Exception e )
+            {
+                LOG.warn( "Failed to purge old entries from the change log", e );
+            }
+
             try
             {
                 synchronized ( lock )
@@ -187,22 +185,9 @@ public class ReplicaEventLogJanitor extends Thread
         String name = replicaEventLog.getName();
         LOG.debug( "removed the persistent listener for replication event log {}", name );
 
+        // The messages are kept in the change log until all the remaining consumers have read them
         replicaLogMap.remove( replicaEventLog.getId() );
-
-        try
-        {
-            replicaEventLog.stop();
-
-            new File( directoryService.getInstanceLayout().getReplDirectory(), name + ".db" ).delete();
-            new File( directoryService.getInstanceLayout().getReplDirectory(), name + ".lg" ).delete();
-            LOG.info( "successfully removed replication event log {}", name );
-        }
-        catch ( Exception e )
-        {
-            LOG.warn(
-                "Closing the replication event log of the entry {} was not successful, will be removed anyway",
-                name, e );
-        }
+        LOG.info( "successfully removed replication event log {}", name );
     }
 
 
@@ -23,24 +23,32 @@ package org.apache.directory.server.ldap.replication.provider;
 
 import java.io.IOException;
 import java.util.Iterator;
+import java.util.List;
 
 import org.apache.directory.api.ldap.model.constants.Loggers;
 import org.apache.directory.api.ldap.model.constants.SchemaConstants;
 import org.apache.directory.api.ldap.model.cursor.AbstractCursor;
-import org.apache.directory.api.ldap.model.cursor.Cursor;
 import org.apache.directory.api.ldap.model.cursor.CursorException;
-import org.apache.directory.api.ldap.model.cursor.Tuple;
+import org.apache.directory.api.ldap.model.entry.Entry;
 import org.apache.directory.api.ldap.model.exception.LdapException;
 import org.apache.directory.api.ldap.model.message.controls.ChangeType;
-import org.apache.directory.server.core.api.partition.PartitionTxn;
-import org.apache.directory.server.core.partition.impl.btree.jdbm.JdbmTable;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.server.core.api.event.NotificationCriteria;
 import org.apache.directory.server.ldap.replication.ReplicaEventMessage;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 
 /**
- * Define a cursor on top of a replication journal.
+ * Define a cursor on top of the replication change log, for one consumer. The messages are read
+ * by batches, starting after the consumer's CSN, and only the ones the consumer is interested in
+ * are returned :
+ * <ul>
+ * <li>the changes coming from the consumer itself are skipped</li>
+ * <li>the changes out of the consumer's search scope, or not matching its filter, are skipped</li>
+ * <li>an entry moved out of the consumer's search scope is sent as a deletion, and an entry moved
+ * into it is sent as an addition</li>
+ * </ul>
  *
  * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
  */
@@ -55,45 +63,46 @@ public class ReplicaJournalCursor extends AbstractCursor<ReplicaEventMessage>
     /** Speedup for logs */
     private static final boolean IS_DEBUG = LOG_CURSOR.isDebugEnabled();
 
-    /** the underlying journal's cursor */
-    private Cursor<Tuple<String, ReplicaEventMessage>> tupleCursor;
+    /** The number of messages read from the change log at once */
+    private static final int BATCH_SIZE = 100;
 
-    /** the event log journal */
-    private JdbmTable<String, ReplicaEventMessage> journal;
+    /** the shared change log */
+    private ReplicaChangeLog changeLog;
 
-    /** the consumer's CSN based on which messages will be qualified for sending */
-    private String consumerCsn;
+    /** the consumer the messages are read for */
+    private ReplicaEventLog consumerLog;
 
-    private ReplicaEventMessage qualifiedEvtMsg;
+    /** the CSN of the last message read from the change log */
+    private String lastReadCsn;
+
+    /** the messages read from the change log, and not yet checked */
+    private List<ReplicaEventMessage> batch;
 
-    /** used while cleaning up the log */
-    private boolean skipQualifying;
-    
-    /** The partition transaction */
-    private PartitionTxn partitionTxn;
-    
+    /** the position of the next message to check in the batch */
+    private int batchPos;
+
+    private ReplicaEventMessage qualifiedEvtMsg;
 
 
     /**
-     * Creates a cursor on top of the given journal
+     * Creates a cursor on top of the given change log
      * 
-     * @param partitionTxn The Transaction to use
-     * @param journal the log journal
+     * @param changeLog the shared change log
+     * @param consumerLog the consumer the messages are read for
      * @param consumerCsn the consumer's CSN taken from cookie
      * @throws Exception If the cursor creation failed
      */
-    public ReplicaJournalCursor( PartitionTxn partitionTxn, JdbmTable<String, ReplicaEventMessage> journal, 
-            String consumerCsn ) throws Exception
+    public ReplicaJournalCursor( ReplicaChangeLog changeLog, ReplicaEventLog consumerLog, String consumerCsn )
+        throws Exception
     {
         if ( IS_DEBUG )
         {
             LOG_CURSOR.debug( "Creating ReplicaJournalCursor {}", this );
         }
 
-        this.journal = journal;
-        this.tupleCursor = journal.cursor();
-        this.consumerCsn = consumerCsn;
-        this.partitionTxn = partitionTxn;
+        this.changeLog = changeLog;
+        this.consumerLog = consumerLog;
+        this.lastReadCsn = consumerCsn;
     }
 
 
@@ -160,34 +169,64 @@ public class ReplicaJournalCursor extends AbstractCursor<ReplicaEventMessage>
 
 
     /**
-     * selects the current queue entry if qualified for sending to the consumer
+     * selects the given message if it qualifies for sending to the consumer, transforming it
+     * if needed
      * 
-     * @throws Exception
+     * @return the message to send, or null if the message does not qualify
      */
-    private boolean isQualified( String csn, ReplicaEventMessage evtMsg ) throws LdapException
+    private ReplicaEventMessage qualify( ReplicaEventMessage evtMsg ) throws LdapException
     {
         LOG.debug( "ReplicaEventMessage: {}", evtMsg );
 
-        if ( evtMsg.isEventOlderThan( consumerCsn ) )
+        if ( evtMsg.getRid() == consumerLog.getId() )
         {
-            if ( LOG.isDebugEnabled() )
-            {
-                String evt = "MODDN"; // take this as default cause the event type for MODDN is null
+            // Don't send the consumer its own changes back (MMR)
+            LOG.debug( "RID of the event for dn {} matches with the ID of replication event log {}",
+                evtMsg.getEntry().getDn(), consumerLog.getName() );
 
-                ChangeType changeType = evtMsg.getChangeType();
+            return null;
+        }
 
-                if ( changeType != null )
-                {
-                    evt = changeType.name();
-                }
+        NotificationCriteria criteria = consumerLog.getSearchCriteria();
+        Entry entry = evtMsg.getEntry();
 
-                LOG.debug( "event {} for dn {} is not qualified for sending", evt, evtMsg.getEntry().getDn() );
-            }
+        if ( !changeLog.getEvaluator().evaluate( criteria.getFilter(), entry.getDn(), entry ) )
+        {
+            LOG.debug( "event for dn {} does not match the filter of the replica {}", entry.getDn(),
+                consumerLog.getName() );
+
+            return null;
+        }
+
+        boolean inScope = ReplicaChangeLog.isInScope( entry.getDn(), criteria );
+        Dn oldDn = evtMsg.getOldDn();
+
+        if ( ( evtMsg.getChangeType() != ChangeType.MODDN ) || ( oldDn == null ) )
+        {
+            return inScope ? evtMsg : null;
+        }
+
+        boolean wasInScope = ReplicaChangeLog.isInScope( oldDn, criteria );
+
+        if ( wasInScope && inScope )
+        {
+            return evtMsg;
+        }
+        else if ( wasInScope )
+        {
+            // The entry has been moved out of the consumer's scope
+            Entry deletedEntry = entry.clone();
+            deletedEntry.setDn( oldDn );
 
-            return false;
+            return new ReplicaEventMessage( ChangeType.DELETE, deletedEntry, null, evtMsg.getRid() );
+        }
+        else if ( inScope )
+        {
+            // The entry has been moved into the consumer's scope
+            return new ReplicaEventMessage( ChangeType.ADD, entry, null, evtMsg.getRid() );
         }
 
-        return true;
+        return null;
     }
 
 
@@ -205,30 +244,43 @@ public class ReplicaJournalCursor extends AbstractCursor<ReplicaEventMessage>
      */
     public boolean next() throws LdapException, CursorException
     {
-        while ( tupleCursor.next() )
+        while ( true )
         {
-            Tuple<String, ReplicaEventMessage> tuple = tupleCursor.get();
+            if ( ( batch == null ) || ( batchPos == batch.size() ) )
+            {
+                if ( ( batch != null ) && ( batch.size() < BATCH_SIZE ) )
+                {
+                    // The end of the log has been reached
+                    break;
+                }
+
+                try
+                {
+                    batch = changeLog.read( lastReadCsn, BATCH_SIZE );
+                }
+                catch ( Exception e )
+                {
+                    throw new CursorException( e );
+                }
 
-            String csn = tuple.getKey();
-            ReplicaEventMessage message = tuple.getValue();
+                batchPos = 0;
 
-            if ( skipQualifying )
-            {
-                qualifiedEvtMsg = message;
-                return true;
+                if ( batch.isEmpty() )
+                {
+                    break;
+                }
             }
 
-            boolean qualified = isQualified( csn, message );
+            ReplicaEventMessage message = batch.get( batchPos++ );
+            lastReadCsn = message.getEntry().get( SchemaConstants.ENTRY_CSN_AT ).getString();
 
-            if ( qualified )
+            ReplicaEventMessage qualified = qualify( message );
+
+            if ( qualified != null )
             {
-                qualifiedEvtMsg = message;
+                qualifiedEvtMsg = qualified;
                 return true;
             }
-            else
-            {
-                journal.remove( partitionTxn, csn );
-            }
         }
 
         qualifiedEvtMsg = null;
@@ -257,7 +309,7 @@ public class ReplicaJournalCursor extends AbstractCursor<ReplicaEventMessage>
             LOG_CURSOR.debug( "Closing ReplicaJournalCursor {}", this );
         }
 
-        tupleCursor.close();
+        batch = null;
         super.close();
     }
 
@@ -273,40 +325,11 @@ public class ReplicaJournalCursor extends AbstractCursor<ReplicaEventMessage>
             LOG_CURSOR.debug( "Closing ReplicaJournalCursor {}", this );
         }
 
-        tupleCursor.close();
+        batch = null;
         super.close( cause );
     }
 
 
-    /**
-     * sets the flag to skip CSN based checking while traversing
-     * used for internal log cleanup ONLY 
-     */
-    protected void skipQualifyingWhileFetching()
-    {
-        skipQualifying = true;
-    }
-
-
-    /**
-     * delete the current message
-     * used for internal log cleanup ONLY
-     */
-    protected void delete()
-    {
-        try
-        {
-            if ( qualifiedEvtMsg != null )
-            {
-                journal.remove( partitionTxn, qualifiedEvtMsg.getEntry().get( SchemaConstants.ENTRY_CSN_AT ).getString() );
-            }
-        }
-        catch ( Exception e )
-        {
-        }
-    }
-
-
     /**
      * {@inheritDoc}
      */
@@ -29,10 +29,8 @@ import java.io.File;
 import java.io.FilenameFilter;
 import java.io.IOException;
 import java.net.InetSocketAddress;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
@@ -144,6 +142,9 @@ public class SyncReplRequestHandler implements ReplicationRequestHandler
 
     private ReplicaEventLogJanitor logJanitor;
 
+    /** The change log shared by all the consumers */
+    private ReplicaChangeLog changeLog;
+
     private AttributeType replLogMaxIdleAT;
 
     private AttributeType replLogPurgeThresholdCountAT;
@@ -199,12 +200,17 @@ public class SyncReplRequestHandler implements ReplicationRequestHandler
                 throw new IOException( I18n.err( I18n.ERR_112_COULD_NOT_CREATE_DIRECTORY, syncReplData ) );
             }
 
+            // Open the change log, and log the changes before any consumer is registered
+            changeLog = new ReplicaChangeLog( dirService.getSchemaManager(), syncReplData,
+                dirService.getPendingCsnTracker() );
+            dirService.getEventService().addListener( changeLog.getListener(), changeLog.getCriteria() );
+
             // Create the replication manager
             replicaUtil = new ReplConsumerManager( dirService );
 
             loadReplicaInfo();
 
-            logJanitor = new ReplicaEventLogJanitor( dirService, replicaLogMap );
+            logJanitor = new ReplicaEventLogJanitor( dirService, replicaLogMap, changeLog );
             logJanitor.start();
 
             registerPersistentSearches();
@@ -266,7 +272,6 @@ public class SyncReplRequestHandler implements ReplicationRequestHandler
             {
                 PROVIDER_LOG.debug( "Stopping the logging for replica {}", log.getId() );
                 evtSrv.removeListener( log.getPersistentListener() );
-                log.stop();
             }
             catch ( Exception e )
             {
@@ -274,6 +279,17 @@ public class SyncReplRequestHandler implements ReplicationRequestHandler
             }
         }
 
+        evtSrv.removeListener( changeLog.getListener() );
+
+        try
+        {
+            changeLog.stop();
+        }
+        catch ( Exception e )
+        {
+            PROVIDER_LOG.error( "Failed to close the replication change log", e );
+        }
+
         // flush the dirty repos
         storeReplicaInfo();
 
@@ -523,12 +539,7 @@ public class SyncReplRequestHandler implements ReplicationRequestHandler
 
         // first register a ReplicaEventLog before starting the initial content refresh
         // this is to log all the operations happen on DIT during initial content refresh
-        ReplicaEventLog replicaLog = null;
-        
-        try ( PartitionTxn partitionTxn = partition.beginReadTransaction() )
-        {
-            replicaLog = createReplicaEventLog( partitionTxn, hostName, originalFilter );
-        }
+        ReplicaEventLog replicaLog = createReplicaEventLog( hostName, originalFilter );
 
         replicaLog.setRefreshNPersist( refreshNPersist );
         Value contexCsnValue = new Value( dirService.getAtProvider().getEntryCSN(), contextCsn );
@@ -621,7 +632,6 @@ public class SyncReplRequestHandler implements ReplicationRequestHandler
         {
             PROVIDER_LOG.warn( "initial content refresh didn't succeed due to {}", searchDoneResp.getLdapResult()
                 .getResultCode() );
-            replicaLog.stop();
             replicaLog = null;
 
             // remove the listener
@@ -1017,22 +1027,31 @@ public class SyncReplRequestHandler implements ReplicationRequestHandler
     {
         try
         {
-            List<ReplicaEventLog> eventLogs = replicaUtil.getReplicaEventLogs();
-            Set<String> eventLogNames = new HashSet<>();
+            List<ReplicaEventLog> eventLogs = replicaUtil.getReplicaEventLogs( changeLog );
 
             if ( !eventLogs.isEmpty() )
             {
                 for ( ReplicaEventLog replica : eventLogs )
                 {
-                    PROVIDER_LOG.debug( "initializing the replica log from {}", replica.getId() );
-                    replicaLogMap.put( replica.getId(), replica );
-                    eventLogNames.add( replica.getName() );
-
                     // update the replicaCount's value to assign a correct value to the new replica(s)
                     if ( replicaCount.get() < replica.getId() )
                     {
                         replicaCount.set( replica.getId() );
                     }
+
+                    if ( changeLog.isCreated() )
+                    {
+                        // The changes this consumer has not received were stored in its own journal,
+                        // which is not used anymore : it will have to do a full refresh
+                        PROVIDER_LOG.info( "dropping the replica {}, not present in the new change log",
+                            replica.getId() );
+                        replicaUtil.deleteConsumerEntry( replica );
+
+                        continue;
+                    }
+
+                    PROVIDER_LOG.debug( "initializing the replica log from {}", replica.getId() );
+                    replicaLogMap.put( replica.getId(), replica );
                 }
             }
             else
@@ -1040,14 +1059,11 @@ public class SyncReplRequestHandler implements ReplicationRequestHandler
                 PROVIDER_LOG.debug( "no replica logs found to initialize" );
             }
 
-            // remove unused logs
+            // remove the per consumer journals, replaced by the change log
             for ( File f : getAllReplJournalNames() )
             {
-                if ( !eventLogNames.contains( f.getName() ) )
-                {
-                    f.delete();
-                    PROVIDER_LOG.info( "removed unused replication event log {}", f );
-                }
+                f.delete();
+                PROVIDER_LOG.info( "removed unused replication event log {}", f );
             }
         }
         catch ( Exception e )
@@ -1133,13 +1149,13 @@ public class SyncReplRequestHandler implements ReplicationRequestHandler
     /**
      * Create a new ReplicaEventLog. Each replica will have a unique ID, created by the provider.
      */
-    private ReplicaEventLog createReplicaEventLog( PartitionTxn partitionTxn, String hostName, String filter ) throws Exception
+    private ReplicaEventLog createReplicaEventLog( String hostName, String filter ) throws Exception
     {
         int replicaId = replicaCount.incrementAndGet();
 
         PROVIDER_LOG.debug( "creating a new event log for the replica with id {}", replicaId );
 
-        ReplicaEventLog replicaLog = new ReplicaEventLog( partitionTxn, dirService, replicaId );
+        ReplicaEventLog replicaLog = new ReplicaEventLog( dirService.getSchemaManager(), changeLog, replicaId );
         replicaLog.setHostName( hostName );
         replicaLog.setSearchFilter( filter );
 
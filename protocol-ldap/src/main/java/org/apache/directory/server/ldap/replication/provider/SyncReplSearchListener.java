@@ -31,7 +31,6 @@ import org.apache.directory.api.ldap.model.message.AbandonableRequest;
 import org.apache.directory.api.ldap.model.message.SearchRequest;
 import org.apache.directory.api.ldap.model.message.SearchResultEntry;
 import org.apache.directory.api.ldap.model.message.SearchResultEntryImpl;
-import org.apache.directory.api.ldap.model.message.controls.ChangeType;
 import org.apache.directory.api.util.Strings;
 import org.apache.directory.server.constants.ServerDNConstants;
 import org.apache.directory.server.core.api.DirectoryService;
@@ -48,7 +47,6 @@ import org.apache.directory.server.core.api.interceptor.context.RenameOperationC
 import org.apache.directory.server.i18n.I18n;
 import org.apache.directory.server.ldap.LdapProtocolUtils;
 import org.apache.directory.server.ldap.LdapSession;
-import org.apache.directory.server.ldap.replication.ReplicaEventMessage;
 import org.apache.mina.core.future.WriteFuture;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -56,9 +54,10 @@ import org.slf4j.LoggerFactory;
 
 /**
  * A listener associated with the replication system. It does send the modifications to the 
- * consumer, if it's connected, or store the data into a queue for a later transmission.
+ * consumer, if it's connected.
  * 
- * Note: we always log the entry irrespective of the client's connection status for guaranteed delivery
+ * Note: the modifications are always logged in the {@link ReplicaChangeLog} shared by all the consumers,
+ * irrespective of the client's connection status, for guaranteed delivery
  * 
  * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
  */
@@ -73,7 +72,7 @@ public class SyncReplSearchListener implements DirectoryListener, AbandonListene
     /** The search request we are processing */
     private SearchRequest searchRequest;
 
-    /** A flag telling if we push the response to the consumer or if we store them in a queue */
+    /** A flag telling if we push the response to the consumer, or if it will read them from the change log */
     private volatile boolean pushInRealTime;
 
     /** The consumer configuration */
@@ -187,7 +186,7 @@ public class SyncReplSearchListener implements DirectoryListener, AbandonListene
     
     
     /**
-     * Send the result to the consumer. If the consumer has disconnected, we fail back to the queue.
+     * Send the result to the consumer. If the consumer has disconnected, we fail back to the change log.
      */
     private void sendResult( SearchResultEntry searchResultEntry, Entry entry, EventType eventType, 
         SyncStateValue syncStateValue )
@@ -203,8 +202,7 @@ public class SyncReplSearchListener implements DirectoryListener, AbandonListene
     
 
     /**
-     * Process a ADD operation. The added entry is pushed to the consumer if it's connected,
-     * or stored in the consumer's queue if it's not.
+     * Process a ADD operation. The added entry is pushed to the consumer if it's connected.
      * 
      * @param addContext The Addition operation context
      */
@@ -219,10 +217,6 @@ public class SyncReplSearchListener implements DirectoryListener, AbandonListene
 
         try
         {
-            //System.out.println( "ADD Listener : log " + entry.getDn() );
-            // we log it first
-            consumerMsgLog.log( new ReplicaEventMessage( ChangeType.ADD, entry ) );
-
             // We send the added entry directly to the consumer if it's connected
             if ( pushInRealTime )
             {
@@ -246,8 +240,8 @@ public class SyncReplSearchListener implements DirectoryListener, AbandonListene
 
 
     /**
-     * Process a Delete operation. A delete event is send to the consumer, or stored in its 
-     * queue if the consumer is not connected.
+     * Process a Delete operation. A delete event is send to the consumer, if it's
+     * connected.
      * 
      * @param deleteContext The delete operation context
      */
@@ -271,9 +265,6 @@ public class SyncReplSearchListener implements DirectoryListener, AbandonListene
     {
         try
         {
-            //System.out.println( "DELETE Listener : log " + entry.getDn() );
-            consumerMsgLog.log( new ReplicaEventMessage( ChangeType.DELETE, entry ) );
-            
             if ( pushInRealTime )
             {
                 SearchResultEntry resultEntry = new SearchResultEntryImpl( searchRequest.getMessageId() );
@@ -294,8 +285,8 @@ public class SyncReplSearchListener implements DirectoryListener, AbandonListene
 
 
     /**
-     * Process a Modify operation. A modify event is send to the consumer, or stored in its 
-     * queue if the consumer is not connected.
+     * Process a Modify operation. A modify event is send to the consumer, if it's
+     * connected.
      * 
      * @param modifyContext The modify operation context
      */
@@ -310,9 +301,6 @@ public class SyncReplSearchListener implements DirectoryListener, AbandonListene
 
         try
         {
-            //System.out.println( "MODIFY Listener : log " + alteredEntry.getDn() );
-            consumerMsgLog.log( new ReplicaEventMessage( ChangeType.MODIFY, alteredEntry ) );
-            
             if ( pushInRealTime )
             {
 
@@ -333,8 +321,8 @@ public class SyncReplSearchListener implements DirectoryListener, AbandonListene
 
 
     /**
-     * Process a Move operation. A MODDN event is send to the consumer, or stored in its 
-     * queue if the consumer is not connected.
+     * Process a Move operation. A MODDN event is send to the consumer, if it's
+     * connected.
      * 
      * @param moveContext The move operation context
      */
@@ -356,9 +344,6 @@ public class SyncReplSearchListener implements DirectoryListener, AbandonListene
                 return;
             }
 
-            //System.out.println( "MOVE Listener : log " + moveContext.getDn() + " moved to " + moveContext.getNewSuperior() );
-            consumerMsgLog.log( new ReplicaEventMessage( ChangeType.MODDN, entry ) );
-            
             if ( pushInRealTime )
             {
                 SearchResultEntry resultEntry = new SearchResultEntryImpl( searchRequest.getMessageId() );
@@ -378,8 +363,8 @@ public class SyncReplSearchListener implements DirectoryListener, AbandonListene
 
 
     /**
-     * Process a MoveAndRename operation. A MODDN event is send to the consumer, or stored in its 
-     * queue if the consumer is not connected.
+     * Process a MoveAndRename operation. A MODDN event is send to the consumer, if it's
+     * connected.
      * 
      * @param moveAndRenameContext The move and rename operation context
      */
@@ -402,10 +387,6 @@ public class SyncReplSearchListener implements DirectoryListener, AbandonListene
             }
 
 
-            //System.out.println( "MOVE AND RENAME Listener : log " + moveAndRenameContext.getDn() + 
-            //    " moved to " + moveAndRenameContext.getNewSuperiorDn() + " renamed to " + moveAndRenameContext.getNewRdn() );
-            consumerMsgLog.log( new ReplicaEventMessage( ChangeType.MODDN, entry ) );
-            
             if ( pushInRealTime )
             {
                 SearchResultEntry resultEntry = new SearchResultEntryImpl( searchRequest.getMessageId() );
@@ -425,8 +406,8 @@ public class SyncReplSearchListener implements DirectoryListener, AbandonListene
 
 
     /**
-     * Process a Rename operation. A MODDN event is send to the consumer, or stored in its 
-     * queue if the consumer is not connected.
+     * Process a Rename operation. A MODDN event is send to the consumer, if it's
+     * connected.
      * 
      * @param renameContext The rename operation context
      */
@@ -443,9 +424,6 @@ public class SyncReplSearchListener implements DirectoryListener, AbandonListene
         try
         {
             // should always send the original entry cause the consumer perform the modDn operation there
-            //System.out.println( "RENAME Listener : log " + renameContext.getDn() + " renamed to " + renameContext.getNewRdn() );
-            consumerMsgLog.log( new ReplicaEventMessage( ChangeType.MODDN, entry ) );
-            
             if ( pushInRealTime )
             {
                 SearchResultEntry resultEntry = new SearchResultEntryImpl( searchRequest.getMessageId() );
@@ -538,7 +516,7 @@ public class SyncReplSearchListener implements DirectoryListener, AbandonListene
      * @param entry the entry
      * @return true if the entry belongs to ou=config partition, false otherwise
      */
-    private boolean isConfigEntry( Entry entry )
+    static boolean isConfigEntry( Entry entry )
     {
         // we can do Dn.isDescendantOf but in this part of the
         // server the DNs are all normalized and a simple string compare should
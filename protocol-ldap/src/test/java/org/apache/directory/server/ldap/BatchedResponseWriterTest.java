@@ -0,0 +1,220 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.ldap;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+import org.apache.directory.api.ldap.model.message.Message;
+import org.apache.directory.api.ldap.model.message.SearchResultEntryImpl;
+import org.apache.mina.core.buffer.IoBuffer;
+import org.apache.mina.core.service.IoHandlerAdapter;
+import org.apache.mina.core.session.DummySession;
+import org.apache.mina.core.session.IoSession;
+import org.apache.mina.filter.codec.ProtocolEncoder;
+import org.apache.mina.filter.codec.ProtocolEncoderOutput;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+
+/**
+ * Tests the {@link BatchedResponseWriter} class.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class BatchedResponseWriterTest
+{
+    /** The size of an encoded response */
+    private static final int PDU_SIZE = 40;
+
+    /** An encoder writing PDU_SIZE bytes per response */
+    private static final ProtocolEncoder ENCODER = new ProtocolEncoder()
+    {
+        @Override
+        public void encode( IoSession session, Object message, ProtocolEncoderOutput out )
+        {
+            IoBuffer buffer = IoBuffer.allocate( PDU_SIZE );
+            buffer.putInt( ( ( Message ) message ).getMessageId() );
+            buffer.position( PDU_SIZE );
+            buffer.flip();
+            out.write( buffer );
+        }
+
+
+        @Override
+        public void dispose( IoSession session )
+        {
+        }
+    };
+
+    /** The buffers written on the session */
+    private final List<Object> written = new ArrayList<>();
+
+    /** The responses the handler has been notified of */
+    private final List<Object> sent = new ArrayList<>();
+
+    private DummySession session;
+    private IoHandlerAdapter handler;
+    private ScheduledExecutorService scheduler;
+
+
+    @Before
+    public void init()
+    {
+        handler = new IoHandlerAdapter()
+        {
+            @Override
+            public void messageSent( IoSession session, Object message )
+            {
+                synchronized ( written )
+                {
+                    if ( message instanceof IoBuffer )
+                    {
+                        written.add( message );
+                    }
+                    else
+                    {
+                        sent.add( message );
+                    }
+                }
+            }
+        };
+
+        session = new DummySession();
+        session.setHandler( handler );
+        scheduler = Executors.newSingleThreadScheduledExecutor();
+    }
+
+
+    @After
+    public void shutdown()
+    {
+        scheduler.shutdownNow();
+    }
+
+
+    private int getWrittenCount()
+    {
+        synchronized ( written )
+        {
+            return written.size();
+        }
+    }
+
+
+    @Test
+    public void testBatchWrittenWhenFull() throws Exception
+    {
+        BatchedResponseWriter writer = new BatchedResponseWriter( session, ENCODER, 100, null, handler );
+        Message response1 = new SearchResultEntryImpl( 1 );
+        Message response2 = new SearchResultEntryImpl( 2 );
+        Message response3 = new SearchResultEntryImpl( 3 );
+
+        writer.write( response1 );
+        writer.write( response2 );
+
+        assertEquals( 2, writer.getBatchedCount() );
+        assertEquals( 0, getWrittenCount() );
+        assertTrue( sent.isEmpty() );
+
+        // The third response makes the batch reach its size
+        writer.write( response3 );
+
+        assertEquals( 0, writer.getBatchedCount() );
+        assertEquals( 1, getWrittenCount() );
+        assertEquals( 3 * PDU_SIZE, ( ( IoBuffer ) written.get( 0 ) ).remaining() );
+
+        // The handler has been notified of each response of the batch
+        assertEquals( 3, sent.size() );
+        assertSame( response1, sent.get( 0 ) );
+        assertSame( response2, sent.get( 1 ) );
+        assertSame( response3, sent.get( 2 ) );
+
+        // Nothing is pending anymore
+        writer.flush();
+        assertEquals( 1, getWrittenCount() );
+    }
+
+
+    @Test
+    public void testFlush() throws Exception
+    {
+        BatchedResponseWriter writer = new BatchedResponseWriter( session, ENCODER, 1000, null, handler );
+
+        writer.write( new SearchResultEntryImpl( 1 ) );
+        assertEquals( 0, getWrittenCount() );
+
+        writer.flush();
+        assertEquals( 1, getWrittenCount() );
+        assertEquals( PDU_SIZE, ( ( IoBuffer ) written.get( 0 ) ).remaining() );
+        assertEquals( 1, sent.size() );
+    }
+
+
+    @Test
+    public void testBatchWrittenWhenWaitingTooLong() throws Exception
+    {
+        BatchedResponseWriter writer = new BatchedResponseWriter( session, ENCODER, 1000, scheduler, handler );
+
+        writer.write( new SearchResultEntryImpl( 1 ) );
+        writer.write( new SearchResultEntryImpl( 2 ) );
+
+        // No other response is written : the scheduler writes the batch
+        long deadline = System.currentTimeMillis() + 2000L;
+
+        while ( ( getWrittenCount() == 0 ) && ( System.currentTimeMillis() < deadline ) )
+        {
+            Thread.sleep( 10L );
+        }
+
+        assertEquals( 1, getWrittenCount() );
+        assertEquals( 0, writer.getBatchedCount() );
+        assertEquals( 2 * PDU_SIZE, ( ( IoBuffer ) written.get( 0 ) ).remaining() );
+
+        synchronized ( written )
+        {
+            assertEquals( 2, sent.size() );
+        }
+    }
+
+
+    @Test
+    public void testNoBatching() throws Exception
+    {
+        BatchedResponseWriter writer = new BatchedResponseWriter( session, null, 1000, scheduler, handler );
+        Message response = new SearchResultEntryImpl( 1 );
+
+        writer.write( response );
+
+        // The response is written as is
+        assertEquals( 0, writer.getBatchedCount() );
+        assertEquals( 0, getWrittenCount() );
+        assertEquals( 1, sent.size() );
+        assertSame( response, sent.get( 0 ) );
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.ldap;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.apache.directory.api.ldap.model.cursor.ListCursor;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.message.SearchRequest;
+import org.apache.directory.api.ldap.model.message.SearchRequestImpl;
+import org.apache.directory.server.ldap.handlers.controls.PagedSearchContext;
+import org.apache.mina.core.session.DummySession;
+import org.junit.Test;
+
+
+/**
+ * Tests the paged search contexts stored in a {@link LdapSession}.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class LdapSessionTest
+{
+    private PagedSearchContext createContext( int messageId )
+    {
+        SearchRequest request = new SearchRequestImpl();
+        request.setMessageId( messageId );
+
+        PagedSearchContext context = new PagedSearchContext( request );
+        context.setCursor( new ListCursor<Entry>() );
+
+        return context;
+    }
+
+
+    @Test
+    public void testLeastRecentlyUsedEviction() throws Exception
+    {
+        LdapServer ldapServer = new LdapServer();
+        ldapServer.setMaxPagedSearchContexts( 2 );
+
+        LdapSession session = new LdapSession( new DummySession() );
+        session.setLdapServer( ldapServer );
+
+        PagedSearchContext context1 = createContext( 1 );
+        PagedSearchContext context2 = createContext( 2 );
+        PagedSearchContext context3 = createContext( 3 );
+
+        session.addPagedSearchContext( context1 );
+        session.addPagedSearchContext( context2 );
+
+        // The first context is used again, the second one is now the eldest
+        assertNotNull( session.getPagedSearchContext( context1.getCookieValue() ) );
+
+        session.addPagedSearchContext( context3 );
+
+        assertEquals( 2, session.getPagedSearchContextsCount() );
+        assertNull( session.getPagedSearchContext( context2.getCookieValue() ) );
+        assertTrue( context2.getCursor().isClosed() );
+        assertFalse( context1.getCursor().isClosed() );
+        assertFalse( context3.getCursor().isClosed() );
+    }
+
+
+    @Test
+    public void testNoLimit() throws Exception
+    {
+        LdapServer ldapServer = new LdapServer();
+        ldapServer.setMaxPagedSearchContexts( 0 );
+
+        LdapSession session = new LdapSession( new DummySession() );
+        session.setLdapServer( ldapServer );
+
+        for ( int i = 1; i <= 100; i++ )
+        {
+            session.addPagedSearchContext( createContext( i ) );
+        }
+
+        assertEquals( 100, session.getPagedSearchContextsCount() );
+    }
+}
@@ -0,0 +1,244 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.ldap;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.apache.directory.api.ldap.model.exception.LdapServiceUnavailableException;
+import org.apache.directory.api.ldap.model.exception.LdapTimeLimitExceededException;
+import org.apache.directory.api.ldap.model.message.ResultCodeEnum;
+import org.apache.directory.api.ldap.model.message.SearchRequest;
+import org.apache.directory.api.ldap.model.message.SearchRequestImpl;
+import org.apache.mina.core.session.DummySession;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+
+/**
+ * Tests the {@link WriteFlowController} class.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class WriteFlowControllerTest
+{
+    /** The bytes scheduled on the whole server */
+    private volatile long serverBytes;
+
+    private WriteFlowController flowController;
+    private ExecutorService executor;
+
+
+    @Before
+    public void init()
+    {
+        flowController = new WriteFlowController( null )
+        {
+            @Override
+            protected long getServerScheduledWriteBytes()
+            {
+                return serverBytes;
+            }
+        };
+
+        flowController.setHighWaterMark( 1000L );
+        flowController.setLowWaterMark( 100L );
+        flowController.setMaxScheduledWriteBytes( 10000L );
+        executor = Executors.newSingleThreadExecutor();
+    }
+
+
+    @After
+    public void shutdown()
+    {
+        executor.shutdownNow();
+    }
+
+
+    private Future<Boolean> awaitInOtherThread( final DummySession session, final SearchRequest request )
+    {
+        return executor.submit( new Callable<Boolean>()
+        {
+            @Override
+            public Boolean call() throws Exception
+            {
+                return flowController.awaitWritable( session, request );
+            }
+        } );
+    }
+
+
+    private boolean isBlocked( Future<Boolean> future ) throws Exception
+    {
+        try
+        {
+            future.get( 300L, TimeUnit.MILLISECONDS );
+
+            return false;
+        }
+        catch ( TimeoutException te )
+        {
+            return true;
+        }
+    }
+
+
+    @Test
+    public void testNotPausedUnderHighWaterMark() throws Exception
+    {
+        DummySession session = new DummySession();
+        session.increaseScheduledWriteBytes( 1000 );
+
+        assertTrue( flowController.awaitWritable( session, new SearchRequestImpl() ) );
+        assertEquals( 0L, flowController.getPauseCount() );
+    }
+
+
+    @Test
+    public void testPausedUntilLowWaterMark() throws Exception
+    {
+        DummySession session = new DummySession();
+        session.increaseScheduledWriteBytes( 1001 );
+
+        Future<Boolean> writer = awaitInOtherThread( session, new SearchRequestImpl() );
+        assertTrue( isBlocked( writer ) );
+        assertEquals( 1, flowController.getPausedCount() );
+
+        // Under the high water mark, but still above the low water mark
+        session.increaseScheduledWriteBytes( -500 );
+        flowController.messageSent();
+        assertTrue( isBlocked( writer ) );
+
+        session.increaseScheduledWriteBytes( -401 );
+        flowController.messageSent();
+        assertTrue( writer.get( 1L, TimeUnit.SECONDS ) );
+        assertEquals( 1L, flowController.getPauseCount() );
+        assertEquals( 0, flowController.getPausedCount() );
+    }
+
+
+    @Test
+    public void testAbandonWhilePaused() throws Exception
+    {
+        DummySession session = new DummySession();
+        session.increaseScheduledWriteBytes( 2000 );
+        SearchRequest request = new SearchRequestImpl();
+
+        Future<Boolean> writer = awaitInOtherThread( session, request );
+        assertTrue( isBlocked( writer ) );
+
+        request.abandon();
+        assertFalse( writer.get( 1L, TimeUnit.SECONDS ) );
+    }
+
+
+    @Test
+    public void testServerCap() throws Exception
+    {
+        serverBytes = 20000L;
+
+        // A session without pending writes is never paused
+        DummySession idleSession = new DummySession();
+        assertTrue( flowController.awaitWritable( idleSession, new SearchRequestImpl() ) );
+
+        DummySession busySession = new DummySession();
+        busySession.increaseScheduledWriteBytes( 10 );
+
+        Future<Boolean> writer = awaitInOtherThread( busySession, new SearchRequestImpl() );
+        assertTrue( isBlocked( writer ) );
+
+        serverBytes = 5000L;
+        flowController.messageSent();
+        assertTrue( writer.get( 1L, TimeUnit.SECONDS ) );
+    }
+
+
+    @Test
+    public void testPauseTimeLimit() throws Exception
+    {
+        flowController.setMaxPauseTime( 200L );
+        DummySession session = new DummySession();
+        session.increaseScheduledWriteBytes( 2000 );
+        long start = System.currentTimeMillis();
+
+        try
+        {
+            flowController.awaitWritable( session, new SearchRequestImpl() );
+            fail();
+        }
+        catch ( LdapTimeLimitExceededException ltlee )
+        {
+            assertTrue( System.currentTimeMillis() - start >= 200L );
+            assertEquals( 1L, flowController.getRejectCount() );
+            assertEquals( 0, flowController.getPausedCount() );
+        }
+    }
+
+
+    @Test
+    public void testTooManyPausedOperations() throws Exception
+    {
+        flowController.setMaxPausedOperations( 1 );
+        DummySession session1 = new DummySession();
+        session1.increaseScheduledWriteBytes( 2000 );
+        SearchRequest request1 = new SearchRequestImpl();
+
+        Future<Boolean> writer = awaitInOtherThread( session1, request1 );
+        assertTrue( isBlocked( writer ) );
+
+        // A second slow session is not paused, its search is rejected
+        DummySession session2 = new DummySession();
+        session2.increaseScheduledWriteBytes( 2000 );
+
+        try
+        {
+            flowController.awaitWritable( session2, new SearchRequestImpl() );
+            fail();
+        }
+        catch ( LdapServiceUnavailableException lsue )
+        {
+            assertEquals( ResultCodeEnum.BUSY, lsue.getResultCode() );
+        }
+
+        // A session under the high water mark is still served
+        assertTrue( flowController.awaitWritable( new DummySession(), new SearchRequestImpl() ) );
+
+        request1.abandon();
+        assertFalse( writer.get( 1L, TimeUnit.SECONDS ) );
+
+        // Once the first search has been released, another one can be paused
+        Future<Boolean> writer2 = awaitInOtherThread( session2, new SearchRequestImpl() );
+        assertTrue( isBlocked( writer2 ) );
+        session2.increaseScheduledWriteBytes( -2000 );
+        flowController.messageSent();
+        assertTrue( writer2.get( 1L, TimeUnit.SECONDS ) );
+    }
+}
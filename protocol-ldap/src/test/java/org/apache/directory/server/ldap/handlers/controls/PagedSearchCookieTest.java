@@ -0,0 +1,146 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.ldap.handlers.controls;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import javax.crypto.SecretKey;
+
+import org.apache.directory.api.asn1.ber.tlv.BerValue;
+import org.apache.directory.api.ldap.model.message.SearchRequest;
+import org.apache.directory.api.ldap.model.message.SearchRequestImpl;
+import org.apache.directory.api.ldap.model.message.SearchScope;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.junit.Test;
+
+
+/**
+ * Tests the {@link PagedSearchCookie} class.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class PagedSearchCookieTest
+{
+    /** The key the cookies are signed with */
+    private static final SecretKey KEY = PagedSearchCookie.createKey();
+
+    private SearchRequest createRequest( int messageId, String filter ) throws Exception
+    {
+        SearchRequest request = new SearchRequestImpl();
+        request.setMessageId( messageId );
+        request.setBase( new Dn( "ou=system" ) );
+        request.setScope( SearchScope.SUBTREE );
+        request.setFilter( filter );
+        request.addAttributes( "cn", "sn" );
+
+        return request;
+    }
+
+
+    @Test
+    public void testEncodeDecode()
+    {
+        PagedSearchCookie cookie = new PagedSearchCookie( 12345, 20, "cn=\u00e9l\u00e9phant,ou=system" );
+        byte[] bytes = cookie.getCookie( KEY );
+
+        assertTrue( PagedSearchCookie.isStateless( bytes ) );
+
+        PagedSearchCookie decoded = PagedSearchCookie.decode( bytes, KEY );
+
+        assertEquals( 12345, decoded.getRequestHash() );
+        assertEquals( 20, decoded.getPosition() );
+        assertEquals( "cn=\u00e9l\u00e9phant,ou=system", decoded.getLastDn() );
+    }
+
+
+    @Test
+    public void testSessionCookies()
+    {
+        // The cookies of the contexts stored in the session are not stateless
+        assertFalse( PagedSearchCookie.isStateless( BerValue.getBytes( 1 << 16 ) ) );
+        assertFalse( PagedSearchCookie.isStateless( BerValue.getBytes( Integer.MIN_VALUE ) ) );
+        assertFalse( PagedSearchCookie.isStateless( null ) );
+        assertNull( PagedSearchCookie.decode( BerValue.getBytes( 12 << 16 ), KEY ) );
+    }
+
+
+    @Test
+    public void testForgedCookie()
+    {
+        // A cookie signed with another key, as a client would do
+        byte[] forged = new PagedSearchCookie( 12345, 1, "cn=last,ou=system" ).getCookie( PagedSearchCookie
+            .createKey() );
+
+        assertTrue( PagedSearchCookie.isStateless( forged ) );
+        assertNull( PagedSearchCookie.decode( forged, KEY ) );
+    }
+
+
+    @Test
+    public void testTamperedCookie()
+    {
+        byte[] bytes = new PagedSearchCookie( 12345, 1000, "cn=last,ou=system" ).getCookie( KEY );
+
+        // Every modified byte is detected : the request hash, the position, the DN or the signature
+        for ( int i = 1; i < bytes.length; i++ )
+        {
+            byte[] tampered = bytes.clone();
+            tampered[i] ^= 0x01;
+
+            assertNull( "byte " + i, PagedSearchCookie.decode( tampered, KEY ) );
+        }
+
+        // A position reset to the start of the search
+        byte[] reset = bytes.clone();
+        reset[5] = 0;
+        reset[6] = 0;
+        reset[7] = 0;
+        reset[8] = 1;
+
+        assertNull( PagedSearchCookie.decode( reset, KEY ) );
+
+        // A truncated cookie
+        byte[] truncated = new byte[bytes.length - 1];
+        System.arraycopy( bytes, 0, truncated, 0, truncated.length );
+
+        assertNull( PagedSearchCookie.decode( truncated, KEY ) );
+    }
+
+
+    @Test
+    public void testHash() throws Exception
+    {
+        int hash = PagedSearchCookie.hash( createRequest( 1, "(cn=test)" ) );
+
+        // The message ID is not part of the hash
+        assertEquals( hash, PagedSearchCookie.hash( createRequest( 2, "(cn=test)" ) ) );
+        assertNotEquals( hash, PagedSearchCookie.hash( createRequest( 2, "(cn=other)" ) ) );
+
+        SearchRequest request = createRequest( 3, "(cn=test)" );
+        request.setSizeLimit( 10 );
+
+        assertNotEquals( hash, PagedSearchCookie.hash( request ) );
+    }
+}
@@ -0,0 +1,284 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.ldap.replication.consumer;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.api.util.Strings;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+
+/**
+ * Tests the order in which the {@link OrderedApplyExecutor} applies the changes, and reports
+ * their cookies.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class OrderedApplyExecutorTest
+{
+    /** The executor */
+    private OrderedApplyExecutor executor;
+
+    /** The reported cookies */
+    private List<String> cookies;
+
+    /** The applied changes, in the order they have been applied */
+    private List<String> applied;
+
+
+    @Before
+    public void createExecutor()
+    {
+        cookies = Collections.synchronizedList( new ArrayList<String>() );
+        applied = Collections.synchronizedList( new ArrayList<String>() );
+
+        executor = new OrderedApplyExecutor( "test-apply", 4, 100 )
+        {
+            @Override
+            protected void applied( byte[] cookie )
+            {
+                cookies.add( Strings.utf8ToString( cookie ) );
+            }
+        };
+    }
+
+
+    @After
+    public void shutdownExecutor() throws Exception
+    {
+        executor.shutdown();
+    }
+
+
+    /**
+     * A change which waits for a latch, if any, then records its name
+     */
+    private Runnable change( final String name, final CountDownLatch latch )
+    {
+        return new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                try
+                {
+                    if ( latch != null )
+                    {
+                        latch.await( 10, TimeUnit.SECONDS );
+                    }
+                }
+                catch ( InterruptedException ie )
+                {
+                    Thread.currentThread().interrupt();
+                }
+
+                applied.add( name );
+            }
+        };
+    }
+
+
+    private void submit( String name, String uuid, String dn, CountDownLatch latch ) throws Exception
+    {
+        executor.submit( change( name, latch ), uuid, new Dn( dn ), Strings.getBytesUtf8( name ) );
+    }
+
+
+    @Test
+    public void testSameEntryInOrder() throws Exception
+    {
+        CountDownLatch latch = new CountDownLatch( 1 );
+
+        submit( "1", "uuid1", "ou=a,ou=system", latch );
+        submit( "2", "uuid1", "ou=a,ou=system", null );
+
+        // The same entry, renamed
+        submit( "3", "uuid1", "ou=b,ou=system", null );
+
+        latch.countDown();
+        executor.awaitCompletion();
+
+        assertEquals( Arrays.asList( "1", "2", "3" ), applied );
+    }
+
+
+    @Test
+    public void testParentBeforeChild() throws Exception
+    {
+        CountDownLatch latch = new CountDownLatch( 1 );
+
+        submit( "parent", "uuid1", "ou=a,ou=system", latch );
+        submit( "child", "uuid2", "ou=b,ou=a,ou=system", null );
+        submit( "grandchild", "uuid3", "ou=c,ou=b,ou=a,ou=system", null );
+
+        latch.countDown();
+        executor.awaitCompletion();
+
+        assertEquals( Arrays.asList( "parent", "child", "grandchild" ), applied );
+    }
+
+
+    @Test
+    public void testDeleteAfterChildren() throws Exception
+    {
+        CountDownLatch latch = new CountDownLatch( 1 );
+
+        submit( "child", "uuid2", "ou=b,ou=a,ou=system", latch );
+        submit( "delete", "uuid1", "ou=a,ou=system", null );
+
+        latch.countDown();
+        executor.awaitCompletion();
+
+        assertEquals( Arrays.asList( "child", "delete" ), applied );
+    }
+
+
+    @Test
+    public void testIndependentInParallel() throws Exception
+    {
+        // Each change waits for the other one to be started
+        final CountDownLatch started = new CountDownLatch( 2 );
+        final List<Boolean> parallel = Collections.synchronizedList( new ArrayList<Boolean>() );
+
+        for ( int i = 0; i < 2; i++ )
+        {
+            executor.submit( new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    started.countDown();
+
+                    try
+                    {
+                        parallel.add( started.await( 10, TimeUnit.SECONDS ) );
+                    }
+                    catch ( InterruptedException ie )
+                    {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            }, "uuid" + i, new Dn( "ou=test" + i + ",ou=system" ), null );
+        }
+
+        executor.awaitCompletion();
+
+        assertEquals( Arrays.asList( true, true ), parallel );
+    }
+
+
+    @Test
+    public void testBarrier() throws Exception
+    {
+        CountDownLatch latch = new CountDownLatch( 1 );
+
+        submit( "before", "uuid1", "ou=a,ou=system", latch );
+        executor.submitBarrier( change( "barrier", null ), Strings.getBytesUtf8( "barrier" ) );
+        submit( "after", "uuid2", "ou=b,ou=system", null );
+
+        latch.countDown();
+        executor.awaitCompletion();
+
+        assertEquals( Arrays.asList( "before", "barrier", "after" ), applied );
+    }
+
+
+    @Test
+    public void testCookiesInOrder() throws Exception
+    {
+        CountDownLatch latch = new CountDownLatch( 1 );
+
+        submit( "1", "uuid1", "ou=a,ou=system", latch );
+        submit( "2", "uuid2", "ou=b,ou=system", null );
+
+        // The second change is applied, but not the first one : its cookie is not reported
+        for ( int i = 0; ( i < 100 ) && applied.isEmpty(); i++ )
+        {
+            Thread.sleep( 10 );
+        }
+
+        assertEquals( Arrays.asList( "2" ), applied );
+        assertTrue( cookies.isEmpty() );
+
+        latch.countDown();
+        executor.awaitCompletion();
+
+        assertEquals( Arrays.asList( "2" ), cookies );
+    }
+
+
+    @Test
+    public void testFailedChange() throws Exception
+    {
+        CountDownLatch latch = new CountDownLatch( 1 );
+
+        submit( "1", "uuid1", "ou=a,ou=system", latch );
+
+        executor.submit( new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                throw new IllegalStateException( "failed" );
+            }
+        }, "uuid2", new Dn( "ou=b,ou=system" ), Strings.getBytesUtf8( "2" ) );
+
+        // A change on the entry which could not be modified
+        submit( "3", "uuid2", "ou=b,ou=system", null );
+
+        latch.countDown();
+        executor.awaitCompletion();
+
+        // The cookies stop before the failed change, and the following change is not applied
+        assertTrue( executor.getFailure() instanceof IllegalStateException );
+        assertEquals( Arrays.asList( "1" ), applied );
+        assertEquals( Arrays.asList( "1" ), cookies );
+
+        // Nor is any change submitted after the failure
+        submit( "4", "uuid4", "ou=d,ou=system", null );
+        executor.awaitCompletion();
+
+        assertEquals( Arrays.asList( "1" ), applied );
+        assertEquals( Arrays.asList( "1" ), cookies );
+
+        // Once reset, the changes are applied again
+        executor.reset();
+        assertNull( executor.getFailure() );
+
+        submit( "5", "uuid5", "ou=e,ou=system", null );
+        executor.awaitCompletion();
+
+        assertEquals( Arrays.asList( "1", "5" ), applied );
+        assertEquals( Arrays.asList( "1", "5" ), cookies );
+    }
+}
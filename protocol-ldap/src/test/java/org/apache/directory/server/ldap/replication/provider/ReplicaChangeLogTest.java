@@ -0,0 +1,506 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.ldap.replication.provider;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.directory.api.ldap.model.csn.Csn;
+import org.apache.directory.api.ldap.model.csn.CsnFactory;
+import org.apache.directory.api.ldap.model.entry.DefaultEntry;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.message.SearchScope;
+import org.apache.directory.api.ldap.model.message.controls.ChangeType;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.api.ldap.schema.extractor.SchemaLdifExtractor;
+import org.apache.directory.api.ldap.schema.extractor.impl.DefaultSchemaLdifExtractor;
+import org.apache.directory.api.ldap.schema.loader.LdifSchemaLoader;
+import org.apache.directory.api.ldap.schema.manager.impl.DefaultSchemaManager;
+import org.apache.directory.api.util.FileUtils;
+import org.apache.directory.api.util.exception.Exceptions;
+import org.apache.directory.server.core.api.PendingCsnTracker;
+import org.apache.directory.server.core.api.event.NotificationCriteria;
+import org.apache.directory.server.ldap.replication.ReplicaEventMessage;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+
+/**
+ * Tests the change log shared by the replication consumers, and the selection of the
+ * changes sent to each consumer.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class ReplicaChangeLogTest
+{
+    /** The consumer ID */
+    private static final int REPLICA_ID = 1;
+
+    /** The SchemaManager instance */
+    private static SchemaManager schemaManager;
+
+    /** The CsnFactory */
+    private static CsnFactory csnFactory;
+
+    /** The directory containing the change log */
+    private File replDir;
+
+    /** The change log */
+    private ReplicaChangeLog changeLog;
+
+
+    @BeforeClass
+    public static void init() throws Exception
+    {
+        String workingDirectory = System.getProperty( "workingDirectory" );
+
+        if ( workingDirectory == null )
+        {
+            String path = ReplicaChangeLogTest.class.getResource( "" ).getPath();
+            int targetPos = path.indexOf( "target" );
+            workingDirectory = path.substring( 0, targetPos + 6 );
+        }
+
+        File schemaRepository = new File( workingDirectory, "schema" );
+        SchemaLdifExtractor extractor = new DefaultSchemaLdifExtractor( new File( workingDirectory ) );
+        extractor.extractOrCopy( true );
+        LdifSchemaLoader loader = new LdifSchemaLoader( schemaRepository );
+        schemaManager = new DefaultSchemaManager( loader );
+
+        boolean loaded = schemaManager.loadAllEnabled();
+
+        if ( !loaded )
+        {
+            fail( "Schema load failed : " + Exceptions.printErrors( schemaManager.getErrors() ) );
+        }
+
+        csnFactory = new CsnFactory( 0 );
+    }
+
+
+    @Before
+    public void createChangeLog() throws Exception
+    {
+        replDir = File.createTempFile( getClass().getSimpleName(), "repl" );
+        replDir.delete();
+        replDir.mkdirs();
+
+        changeLog = new ReplicaChangeLog( schemaManager, replDir );
+    }
+
+
+    @After
+    public void destroyChangeLog() throws Exception
+    {
+        if ( changeLog != null )
+        {
+            changeLog.stop();
+        }
+
+        changeLog = null;
+
+        if ( replDir != null )
+        {
+            FileUtils.deleteDirectory( replDir );
+        }
+
+        replDir = null;
+    }
+
+
+    /**
+     * Logs a change, and returns its CSN
+     */
+    private String log( ChangeType changeType, String dn, String oldDn, int rid ) throws Exception
+    {
+        return log( csnFactory.newInstance(), changeType, dn, oldDn, rid );
+    }
+
+
+    /**
+     * Logs a change having the given CSN, and returns this CSN
+     */
+    private String log( Csn csn, ChangeType changeType, String dn, String oldDn, int rid ) throws Exception
+    {
+        Entry entry = new DefaultEntry( schemaManager, dn,
+            "ObjectClass: top",
+            "ObjectClass: organizationalUnit",
+            "ou", new Dn( schemaManager, dn ).getRdn().getValue(),
+            "entryCsn", csn.toString() );
+
+        changeLog.log( new ReplicaEventMessage( changeType, entry,
+            ( oldDn == null ) ? null : new Dn( schemaManager, oldDn ), rid ) );
+
+        return csn.toString();
+    }
+
+
+    /**
+     * Reads the changes sent to a consumer
+     */
+    private List<ReplicaEventMessage> read( String base, SearchScope scope, String filter, String fromCsn )
+        throws Exception
+    {
+        ReplicaEventLog consumerLog = new ReplicaEventLog( schemaManager, changeLog, REPLICA_ID );
+        NotificationCriteria criteria = new NotificationCriteria( schemaManager );
+        criteria.setBase( new Dn( schemaManager, base ) );
+        criteria.setScope( scope );
+        criteria.setFilter( filter );
+        consumerLog.setSearchCriteria( criteria );
+
+        List<ReplicaEventMessage> messages = new ArrayList<>();
+        ReplicaJournalCursor cursor = consumerLog.getCursor( fromCsn );
+
+        while ( cursor.next() )
+        {
+            messages.add( cursor.get() );
+        }
+
+        cursor.close();
+
+        return messages;
+    }
+
+
+    @Test
+    public void testReadFromCsn() throws Exception
+    {
+        String csn = null;
+
+        // More messages than a batch
+        for ( int i = 0; i < 250; i++ )
+        {
+            String entryCsn = log( ChangeType.ADD, "ou=test" + i + ",ou=system", null, -1 );
+
+            if ( i == 99 )
+            {
+                csn = entryCsn;
+            }
+        }
+
+        assertEquals( 250L, changeLog.count() );
+        assertEquals( 250, read( "ou=system", SearchScope.SUBTREE, "(objectClass=*)", null ).size() );
+
+        List<ReplicaEventMessage> messages = read( "ou=system", SearchScope.SUBTREE, "(objectClass=*)", csn );
+
+        assertEquals( 150, messages.size() );
+        assertEquals( "test100", messages.get( 0 ).getEntry().get( "ou" ).getString() );
+        assertEquals( "test249", messages.get( 149 ).getEntry().get( "ou" ).getString() );
+    }
+
+
+    @Test
+    public void testConsumerCriteria() throws Exception
+    {
+        log( ChangeType.ADD, "ou=a,ou=system", null, -1 );
+        log( ChangeType.ADD, "ou=in,ou=a,ou=system", null, -1 );
+        log( ChangeType.ADD, "ou=out,ou=system", null, -1 );
+        log( ChangeType.ADD, "ou=skipped,ou=a,ou=system", null, -1 );
+        log( ChangeType.MODIFY, "ou=sub,ou=in,ou=a,ou=system", null, -1 );
+
+        // A change coming from the consumer is not sent back to it
+        log( ChangeType.ADD, "ou=mine,ou=a,ou=system", null, REPLICA_ID );
+
+        List<ReplicaEventMessage> messages = read( "ou=a,ou=system", SearchScope.SUBTREE, "(!(ou=skipped))", null );
+
+        assertEquals( 3, messages.size() );
+        assertEquals( "a", messages.get( 0 ).getEntry().get( "ou" ).getString() );
+        assertEquals( "in", messages.get( 1 ).getEntry().get( "ou" ).getString() );
+        assertEquals( "sub", messages.get( 2 ).getEntry().get( "ou" ).getString() );
+
+        messages = read( "ou=a,ou=system", SearchScope.ONELEVEL, "(objectClass=*)", null );
+
+        assertEquals( 2, messages.size() );
+        assertEquals( "in", messages.get( 0 ).getEntry().get( "ou" ).getString() );
+        assertEquals( "skipped", messages.get( 1 ).getEntry().get( "ou" ).getString() );
+    }
+
+
+    @Test
+    public void testModDn() throws Exception
+    {
+        // Renamed in the consumer's scope
+        log( ChangeType.MODDN, "ou=renamed,ou=a,ou=system", "ou=old,ou=a,ou=system", -1 );
+
+        // Moved out of the consumer's scope
+        log( ChangeType.MODDN, "ou=out,ou=system", "ou=out,ou=a,ou=system", -1 );
+
+        // Moved into the consumer's scope
+        log( ChangeType.MODDN, "ou=in,ou=a,ou=system", "ou=in,ou=system", -1 );
+
+        // Moved outside of the consumer's scope
+        log( ChangeType.MODDN, "ou=other,ou=b,ou=system", "ou=other,ou=system", -1 );
+
+        List<ReplicaEventMessage> messages = read( "ou=a,ou=system", SearchScope.SUBTREE, "(objectClass=*)", null );
+
+        assertEquals( 3, messages.size() );
+
+        assertEquals( ChangeType.MODDN, messages.get( 0 ).getChangeType() );
+        assertEquals( new Dn( schemaManager, "ou=renamed,ou=a,ou=system" ), messages.get( 0 ).getEntry().getDn() );
+
+        assertEquals( ChangeType.DELETE, messages.get( 1 ).getChangeType() );
+        assertEquals( new Dn( schemaManager, "ou=out,ou=a,ou=system" ), messages.get( 1 ).getEntry().getDn() );
+
+        assertEquals( ChangeType.ADD, messages.get( 2 ).getChangeType() );
+        assertEquals( new Dn( schemaManager, "ou=in,ou=a,ou=system" ), messages.get( 2 ).getEntry().getDn() );
+    }
+
+
+    @Test
+    public void testPurge() throws Exception
+    {
+        String csn = null;
+
+        for ( int i = 0; i < 10; i++ )
+        {
+            String entryCsn = log( ChangeType.ADD, "ou=test" + i + ",ou=system", null, -1 );
+
+            if ( i == 5 )
+            {
+                csn = entryCsn;
+            }
+        }
+
+        // Nothing is old enough
+        assertEquals( 0L, changeLog.purge( null, 0L ) );
+
+        // The messages before the CSN are deleted
+        assertEquals( 5L, changeLog.purge( csn, Long.MAX_VALUE ) );
+        assertEquals( 5L, changeLog.count() );
+
+        List<ReplicaEventMessage> messages = read( "ou=system", SearchScope.SUBTREE, "(objectClass=*)", null );
+
+        assertEquals( "test5", messages.get( 0 ).getEntry().get( "ou" ).getString() );
+    }
+
+
+    @Test
+    public void testReopen() throws Exception
+    {
+        assertTrue( changeLog.isCreated() );
+
+        log( ChangeType.MODDN, "ou=renamed,ou=system", "ou=old,ou=system", 2 );
+        changeLog.stop();
+
+        changeLog = new ReplicaChangeLog( schemaManager, replDir );
+
+        assertFalse( changeLog.isCreated() );
+        assertEquals( 1L, changeLog.count() );
+
+        ReplicaEventMessage message = changeLog.read( null, 10 ).get( 0 );
+
+        assertEquals( new Dn( schemaManager, "ou=old,ou=system" ), message.getOldDn() );
+        assertEquals( 2, message.getRid() );
+    }
+
+
+    /**
+     * Reopens the change log, with a tracker of the pending CSNs
+     */
+    private PendingCsnTracker reopenWithTracker() throws Exception
+    {
+        PendingCsnTracker tracker = new PendingCsnTracker( csnFactory );
+        changeLog.stop();
+        changeLog = new ReplicaChangeLog( schemaManager, replDir, tracker );
+
+        return tracker;
+    }
+
+
+    @Test
+    public void testPendingCsnIsNotSkipped() throws Exception
+    {
+        final PendingCsnTracker tracker = reopenWithTracker();
+        final CountDownLatch csnGenerated = new CountDownLatch( 1 );
+        final CountDownLatch logAllowed = new CountDownLatch( 1 );
+        final AtomicReference<Exception> failure = new AtomicReference<>();
+
+        // A writer generates a CSN, and logs its change after a newer one has been logged
+        Thread writer = new Thread()
+        {
+            @Override
+            public void run()
+            {
+                tracker.beginOperation();
+
+                try
+                {
+                    Csn csn = tracker.newCsn();
+                    csnGenerated.countDown();
+                    logAllowed.await();
+                    log( csn, ChangeType.ADD, "ou=older,ou=system", null, -1 );
+                }
+                catch ( Exception e )
+                {
+                    failure.set( e );
+                }
+                finally
+                {
+                    tracker.endOperation();
+                }
+            }
+        };
+
+        writer.start();
+        assertTrue( csnGenerated.await( 10, TimeUnit.SECONDS ) );
+
+        log( tracker.newCsn(), ChangeType.ADD, "ou=newer,ou=system", null, -1 );
+        assertEquals( 1, tracker.getPendingCount() );
+
+        // The reader waits for the older change to be logged
+        final List<ReplicaEventMessage> messages = new ArrayList<>();
+
+        Thread reader = new Thread()
+        {
+            @Override
+            public void run()
+            {
+                try
+                {
+                    messages.addAll( changeLog.read( null, 10 ) );
+                }
+                catch ( Exception e )
+                {
+                    failure.set( e );
+                }
+            }
+        };
+
+        reader.start();
+        reader.join( 500L );
+        assertTrue( reader.isAlive() );
+
+        logAllowed.countDown();
+        writer.join( 10000L );
+        reader.join( 10000L );
+
+        assertNull( failure.get() );
+        assertEquals( 0, tracker.getPendingCount() );
+        assertEquals( 2, messages.size() );
+        assertEquals( "older", messages.get( 0 ).getEntry().get( "ou" ).getString() );
+        assertEquals( "newer", messages.get( 1 ).getEntry().get( "ou" ).getString() );
+    }
+
+
+    @Test
+    public void testConcurrentWriters() throws Exception
+    {
+        final PendingCsnTracker tracker = reopenWithTracker();
+        final int nbWriters = 8;
+        final int nbChanges = 50;
+        final CountDownLatch writersDone = new CountDownLatch( nbWriters );
+        final AtomicReference<Exception> failure = new AtomicReference<>();
+
+        for ( int i = 0; i < nbWriters; i++ )
+        {
+            final int writerId = i;
+
+            new Thread()
+            {
+                @Override
+                public void run()
+                {
+                    Random random = new Random( writerId );
+
+                    try
+                    {
+                        for ( int j = 0; j < nbChanges; j++ )
+                        {
+                            tracker.beginOperation();
+
+                            try
+                            {
+                                Csn csn = tracker.newCsn();
+
+                                // The changes are logged in a different order than their CSNs
+                                Thread.sleep( random.nextInt( 3 ) );
+                                log( csn, ChangeType.ADD, "ou=test" + writerId + "-" + j + ",ou=system", null, -1 );
+                            }
+                            finally
+                            {
+                                tracker.endOperation();
+                            }
+                        }
+                    }
+                    catch ( Exception e )
+                    {
+                        failure.set( e );
+                    }
+                    finally
+                    {
+                        writersDone.countDown();
+                    }
+                }
+            }.start();
+        }
+
+        // Read the log while the changes are logged, from the last read CSN
+        List<String> csns = new ArrayList<>();
+        String lastCsn = null;
+        boolean done = false;
+
+        while ( true )
+        {
+            List<ReplicaEventMessage> messages = changeLog.read( lastCsn, 20 );
+
+            for ( ReplicaEventMessage message : messages )
+            {
+                lastCsn = message.getEntry().get( "entryCsn" ).getString();
+                csns.add( lastCsn );
+            }
+
+            if ( messages.isEmpty() )
+            {
+                if ( done )
+                {
+                    break;
+                }
+
+                done = writersDone.await( 1, TimeUnit.MILLISECONDS );
+            }
+        }
+
+        assertNull( failure.get() );
+
+        // No change has been skipped
+        assertEquals( nbWriters * nbChanges, changeLog.count() );
+        assertEquals( nbWriters * nbChanges, csns.size() );
+
+        for ( int i = 1; i < csns.size(); i++ )
+        {
+            assertTrue( csns.get( i - 1 ).compareTo( csns.get( i ) ) < 0 );
+        }
+    }
+}
@@ -157,6 +157,8 @@ public enum ConfigSchemaConstants
 
     ADS_DS_TEST_ENTRIES("ads-dsTestEntries", ""),
 
+    ADS_DS_VIRTUAL_SUBENTRY_ATTRIBUTES_ENABLED("ads-dsVirtualSubentryAttributesEnabled", ""),
+
     ADS_INTERCEPTOR_ID("ads-interceptorId", ""),
 
     ADS_INTERCEPTOR_CLASSNAME("ads-interceptorClassName", ""),
@@ -173,6 +175,10 @@ public enum ConfigSchemaConstants
 
     ADS_JDBM_PARTITION_OPTIMIZER_ENABLED("ads-jdbmPartitionOptimizerEnabled", ""),
 
+    ADS_JDBM_PARTITION_GROUP_COMMIT_MAX_LATENCY("ads-jdbmPartitionGroupCommitMaxLatency", ""),
+
+    ADS_JDBM_PARTITION_GROUP_COMMIT_MAX_BATCH_SIZE("ads-jdbmPartitionGroupCommitMaxBatchSize", ""),
+
     ADS_PARTITION_SYNCONWRITE("ads-partitionSyncOnWrite", ""),
 
     ADS_PARTITION_INDEXED_ATTRIBUTES("ads-partitionIndexedAttributes", ""),
@@ -265,6 +271,10 @@ public enum ConfigSchemaConstants
 
     //ADS_REPL_USE_TLS( "ads-replUseTls", "" ),
 
+    ADS_REPL_CONSUMER_APPLY_THREADS("ads-replConsumerApplyThreads", ""),
+
+    ADS_REPL_CONSUMER_BULK_REFRESH("ads-replConsumerBulkRefresh", ""),
+
     ADS_LDAP_SERVER_SASL_MECH_NAME("ads-ldapServerSaslMechName", ""),
 
     ADS_LDAP_SERVER_SASL_MECH_CLASS_NAME("ads-ldapServerSaslMechClassName", ""),
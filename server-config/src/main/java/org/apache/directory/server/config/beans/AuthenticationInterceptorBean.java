@@ -41,6 +41,26 @@ public class AuthenticationInterceptorBean extends InterceptorBean
     @ConfigurationElement(objectClass = "ads-passwordPolicy", container = "passwordPolicies")
     private List<PasswordPolicyBean> passwordPolicies = new ArrayList<>();
 
+    /** The interval between two writes of the password policy states changed by the binds, in ms. 0 means on each bind */
+    @ConfigurationElement(attributeType = "ads-bindStateFlushInterval", isOptional = true, defaultValue = "0")
+    private long bindStateFlushInterval = 0L;
+
+    /** The number of threads verifying the passwords hashed with a slow scheme. 0 means one per processor */
+    @ConfigurationElement(attributeType = "ads-passwordVerifyThreads", isOptional = true, defaultValue = "0")
+    private int passwordVerifyThreads = 0;
+
+    /** The maximum number of password verifications running or waiting for a thread. 0 means 8 per thread */
+    @ConfigurationElement(attributeType = "ads-passwordVerifyMaxPending", isOptional = true, defaultValue = "0")
+    private int passwordVerifyMaxPending = 0;
+
+    /** The maximum number of verified credentials kept in the cache */
+    @ConfigurationElement(attributeType = "ads-passwordVerifyCacheSize", isOptional = true, defaultValue = "10000")
+    private int passwordVerifyCacheSize = 10000;
+
+    /** The time a verified credential is kept, in ms. 0 disables the cache */
+    @ConfigurationElement(attributeType = "ads-passwordVerifyCacheTtl", isOptional = true, defaultValue = "300000")
+    private long passwordVerifyCacheTtl = 300000L;
+
 
     /**
      * Creates a new AuthenticationInterceptorBean instance
@@ -123,6 +143,100 @@ public class AuthenticationInterceptorBean extends InterceptorBean
     }
 
 
+    /**
+     * @return the interval between two writes of the password policy states changed by the binds
+     */
+    public long getBindStateFlushInterval()
+    {
+        return bindStateFlushInterval;
+    }
+
+
+    /**
+     * @param bindStateFlushInterval the interval between two writes of the password policy states
+     * changed by the binds, in milliseconds. 0 means they are written on each bind
+     */
+    public void setBindStateFlushInterval( long bindStateFlushInterval )
+    {
+        this.bindStateFlushInterval = bindStateFlushInterval;
+    }
+
+
+    /**
+     * @return the number of threads verifying the passwords hashed with a slow scheme
+     */
+    public int getPasswordVerifyThreads()
+    {
+        return passwordVerifyThreads;
+    }
+
+
+    /**
+     * @param passwordVerifyThreads the number of threads verifying the passwords hashed with a
+     * slow scheme. 0 means one per processor
+     */
+    public void setPasswordVerifyThreads( int passwordVerifyThreads )
+    {
+        this.passwordVerifyThreads = passwordVerifyThreads;
+    }
+
+
+    /**
+     * @return the maximum number of password verifications running or waiting for a thread
+     */
+    public int getPasswordVerifyMaxPending()
+    {
+        return passwordVerifyMaxPending;
+    }
+
+
+    /**
+     * @param passwordVerifyMaxPending the maximum number of password verifications running or
+     * waiting for a thread. 0 means 8 per thread
+     */
+    public void setPasswordVerifyMaxPending( int passwordVerifyMaxPending )
+    {
+        this.passwordVerifyMaxPending = passwordVerifyMaxPending;
+    }
+
+
+    /**
+     * @return the maximum number of verified credentials kept in the cache
+     */
+    public int getPasswordVerifyCacheSize()
+    {
+        return passwordVerifyCacheSize;
+    }
+
+
+    /**
+     * @param passwordVerifyCacheSize the maximum number of verified credentials kept in the cache
+     */
+    public void setPasswordVerifyCacheSize( int passwordVerifyCacheSize )
+    {
+        this.passwordVerifyCacheSize = passwordVerifyCacheSize;
+    }
+
+
+    /**
+     * @return the time a verified credential is kept, in milliseconds
+     */
+    public long getPasswordVerifyCacheTtl()
+    {
+        return passwordVerifyCacheTtl;
+    }
+
+
+    /**
+     * @param passwordVerifyCacheTtl the time a verified credential is kept, in milliseconds.
+     * 0 disables the cache
+     */
+    public void setPasswordVerifyCacheTtl( long passwordVerifyCacheTtl )
+    {
+        this.passwordVerifyCacheTtl = passwordVerifyCacheTtl;
+    }
+
+
     /**
      * {@inheritDoc}
      */
@@ -133,6 +247,11 @@ public class AuthenticationInterceptorBean extends InterceptorBean
 
         sb.append( tabs ).append( "AuthenticationInterceptor :\n" );
         sb.append( super.toString( tabs + "  " ) );
+        sb.append( tabs ).append( "  bind state flush interval : " ).append( bindStateFlushInterval ).append( '\n' );
+        sb.append( tabs ).append( "  password verify threads : " ).append( passwordVerifyThreads ).append( '\n' );
+        sb.append( tabs ).append( "  password verify max pending : " ).append( passwordVerifyMaxPending ).append( '\n' );
+        sb.append( tabs ).append( "  password verify cache size : " ).append( passwordVerifyCacheSize ).append( '\n' );
+        sb.append( tabs ).append( "  password verify cache TTL : " ).append( passwordVerifyCacheTtl ).append( '\n' );
 
         if ( ( authenticators != null ) && !authenticators.isEmpty() )
         {
@@ -58,6 +58,10 @@ public class DirectoryServiceBean extends AdsBaseBean
     @ConfigurationElement(attributeType = "ads-dsPasswordHidden")
     private boolean dsPasswordHidden = false;
 
+    /** The flag that tells if the subentry operational attributes are computed when read */
+    @ConfigurationElement(attributeType = "ads-dsVirtualSubentryAttributesEnabled", isOptional = true, defaultValue = "false")
+    private boolean dsVirtualSubentryAttributesEnabled = false;
+
     /** The delay between two flushes on disk */
     @ConfigurationElement(attributeType = "ads-dsSyncPeriodMillis")
     private long dsSyncPeriodMillis = 15000L;
@@ -229,6 +233,24 @@ public class DirectoryServiceBean extends AdsBaseBean
     }
 
 
+    /**
+     * @return the dsVirtualSubentryAttributesEnabled
+     */
+    public boolean isDsVirtualSubentryAttributesEnabled()
+    {
+        return dsVirtualSubentryAttributesEnabled;
+    }
+
+
+    /**
+     * @param dsVirtualSubentryAttributesEnabled the dsVirtualSubentryAttributesEnabled to set
+     */
+    public void setDsVirtualSubentryAttributesEnabled( boolean dsVirtualSubentryAttributesEnabled )
+    {
+        this.dsVirtualSubentryAttributesEnabled = dsVirtualSubentryAttributesEnabled;
+    }
+
+
     /**
      * @return the dsPasswordHidden
      */
@@ -525,6 +547,7 @@ public class DirectoryServiceBean extends AdsBaseBean
         sb.append( toString( "  ", "allow anonymous access", dsAllowAnonymousAccess ) );
         sb.append( toString( "  ", "denormalized attributes enabled", dsDenormalizeOpAttrsEnabled ) );
         sb.append( toString( "  ", "password hidden", dsPasswordHidden ) );
+        sb.append( toString( "  ", "virtual subentry attributes enabled", dsVirtualSubentryAttributesEnabled ) );
         sb.append( "  sync period millisecond : " ).append( dsSyncPeriodMillis ).append( '\n' );
         sb.append( toString( "  ", "test entries", dsTestEntries ) );
 
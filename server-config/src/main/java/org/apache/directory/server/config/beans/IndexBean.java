@@ -37,6 +37,10 @@ public abstract class IndexBean extends AdsBaseBean
     @ConfigurationElement(attributeType = "ads-indexHasReverse")
     private boolean indexHasReverse;
 
+    /** Tells if the n-grams of the values are indexed, for the substring filters */
+    @ConfigurationElement(attributeType = "ads-indexNGrams", isOptional = true, defaultValue = "false")
+    private boolean indexNGrams;
+
 
     /**
      * Create a new IndexBean instance
@@ -82,6 +86,24 @@ public abstract class IndexBean extends AdsBaseBean
     }
 
 
+    /**
+     * @param indexNGrams tells if the n-grams of the values are indexed
+     */
+    public void setIndexNGrams( boolean indexNGrams )
+    {
+        this.indexNGrams = indexNGrams;
+    }
+
+
+    /**
+     * @return true if the n-grams of the values are indexed, for the substring filters
+     */
+    public boolean getIndexNGrams()
+    {
+        return indexNGrams;
+    }
+
+
     /**
      * {@inheritDoc}
      */
@@ -93,6 +115,7 @@ public abstract class IndexBean extends AdsBaseBean
         sb.append( super.toString( tabs + "  " ) );
         sb.append( tabs ).append( "  indexed attribute ID : " ).append( indexAttributeId ).append( '\n' );
         sb.append( tabs ).append( "  indexed has reverse : " ).append( indexHasReverse ).append( '\n' );
+        sb.append( tabs ).append( "  indexed n-grams : " ).append( indexNGrams ).append( '\n' );
 
         return sb.toString();
     }
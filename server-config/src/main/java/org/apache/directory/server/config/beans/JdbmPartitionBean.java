@@ -38,6 +38,14 @@ public class JdbmPartitionBean extends PartitionBean
     @ConfigurationElement(attributeType = "ads-jdbmPartitionOptimizerEnabled", isOptional = true, defaultValue = "true")
     private boolean jdbmPartitionOptimizerEnabled = true;
 
+    /** The maximum time a commit waits for other commits to join its group, in milliseconds */
+    @ConfigurationElement(attributeType = "ads-jdbmPartitionGroupCommitMaxLatency", isOptional = true, defaultValue = "2")
+    private int jdbmPartitionGroupCommitMaxLatency = 2;
+
+    /** The maximum number of commits sharing a log synchronization. 1 disables the group commit */
+    @ConfigurationElement(attributeType = "ads-jdbmPartitionGroupCommitMaxBatchSize", isOptional = true, defaultValue = "1")
+    private int jdbmPartitionGroupCommitMaxBatchSize = 1;
+
 
     /**
      * Create a new JdbmPartitionBean instance
@@ -91,6 +99,48 @@ public class JdbmPartitionBean extends PartitionBean
     }
 
 
+    /**
+     * @return The maximum time a commit waits for other commits to join its group, in milliseconds
+     */
+    public int getJdbmPartitionGroupCommitMaxLatency()
+    {
+        return jdbmPartitionGroupCommitMaxLatency;
+    }
+
+
+    /**
+     * Sets the maximum time a commit waits for other commits to join its group. This is
+     * only used when the partition is synced on each write.
+     * 
+     * @param jdbmPartitionGroupCommitMaxLatency The maximum latency, in milliseconds
+     */
+    public void setJdbmPartitionGroupCommitMaxLatency( int jdbmPartitionGroupCommitMaxLatency )
+    {
+        this.jdbmPartitionGroupCommitMaxLatency = jdbmPartitionGroupCommitMaxLatency;
+    }
+
+
+    /**
+     * @return The maximum number of commits sharing a log synchronization
+     */
+    public int getJdbmPartitionGroupCommitMaxBatchSize()
+    {
+        return jdbmPartitionGroupCommitMaxBatchSize;
+    }
+
+
+    /**
+     * Sets the maximum number of commits sharing a log synchronization. This is only used
+     * when the partition is synced on each write. 1 disables the group commit.
+     * 
+     * @param jdbmPartitionGroupCommitMaxBatchSize The maximum number of commits in a group
+     */
+    public void setJdbmPartitionGroupCommitMaxBatchSize( int jdbmPartitionGroupCommitMaxBatchSize )
+    {
+        this.jdbmPartitionGroupCommitMaxBatchSize = jdbmPartitionGroupCommitMaxBatchSize;
+    }
+
+
     /**
      * {@inheritDoc}
      */
@@ -103,6 +153,10 @@ public class JdbmPartitionBean extends PartitionBean
         sb.append( super.toString( tabs ) );
         sb.append( tabs ).append( "  partition cache size : " ).append( partitionCacheSize ).append( '\n' );
         sb.append( toString( tabs, "  jdbm partition optimizer enabled", jdbmPartitionOptimizerEnabled ) );
+        sb.append( tabs ).append( "  group commit max latency : " ).append( jdbmPartitionGroupCommitMaxLatency )
+            .append( '\n' );
+        sb.append( tabs ).append( "  group commit max batch size : " ).append( jdbmPartitionGroupCommitMaxBatchSize )
+            .append( '\n' );
 
         return sb.toString();
     }
@@ -94,6 +94,38 @@ public class LdapServerBean extends DSBasedServerBean
     @ConfigurationElement(attributeType = "ads-replPingerSleep")
     private int replPingerSleep;
 
+    /** The number of bytes scheduled for writing on a session above which the searches are paused */
+    @ConfigurationElement(attributeType = "ads-ldapServerWriteHighWaterMark", isOptional = true, defaultValue = "1048576")
+    private long writeHighWaterMark = 1048576L;
+
+    /** The number of bytes scheduled for writing on a session below which the paused searches resume */
+    @ConfigurationElement(attributeType = "ads-ldapServerWriteLowWaterMark", isOptional = true, defaultValue = "262144")
+    private long writeLowWaterMark = 262144L;
+
+    /** The maximum number of bytes scheduled for writing on the whole server. 0 means no limit */
+    @ConfigurationElement(attributeType = "ads-ldapServerMaxScheduledWriteBytes", isOptional = true, defaultValue = "134217728")
+    private long maxScheduledWriteBytes = 134217728L;
+
+    /** The maximum time a search can be paused waiting for its client, in ms. 0 means no limit */
+    @ConfigurationElement(attributeType = "ads-ldapServerMaxWritePauseTime", isOptional = true, defaultValue = "30000")
+    private long maxWritePauseTime = 30000L;
+
+    /** The maximum number of searches paused at the same time. -1 means half of the transports threads */
+    @ConfigurationElement(attributeType = "ads-ldapServerMaxPausedSearches", isOptional = true, defaultValue = "-1")
+    private int maxPausedSearches = -1;
+
+    /** The size of the batches in which the search results are written. 0 means no batching */
+    @ConfigurationElement(attributeType = "ads-ldapServerWriteBatchSize", isOptional = true, defaultValue = "65536")
+    private int writeBatchSize = 65536;
+
+    /** Tells if the paged searches store their position in the cookie instead of keeping a cursor */
+    @ConfigurationElement(attributeType = "ads-ldapServerStatelessPagedSearch", isOptional = true, defaultValue = "false")
+    private boolean statelessPagedSearch = false;
+
+    /** The maximum number of paged search contexts kept in a session. 0 means no limit */
+    @ConfigurationElement(attributeType = "ads-ldapServerMaxPagedSearchContexts", isOptional = true, defaultValue = "16")
+    private int maxPagedSearchContexts = 16;
+
 
     /**
      * Create a new LdapServerBean instance
@@ -389,6 +421,158 @@ public class LdapServerBean extends DSBasedServerBean
     }
 
 
+    /**
+     * @return the number of bytes scheduled for writing on a session above which the searches are paused
+     */
+    public long getWriteHighWaterMark()
+    {
+        return writeHighWaterMark;
+    }
+
+
+    /**
+     * @param writeHighWaterMark the number of bytes scheduled for writing on a session above which
+     * the searches are paused
+     */
+    public void setWriteHighWaterMark( long writeHighWaterMark )
+    {
+        this.writeHighWaterMark = writeHighWaterMark;
+    }
+
+
+    /**
+     * @return the number of bytes scheduled for writing on a session below which the paused searches resume
+     */
+    public long getWriteLowWaterMark()
+    {
+        return writeLowWaterMark;
+    }
+
+
+    /**
+     * @param writeLowWaterMark the number of bytes scheduled for writing on a session below which
+     * the paused searches resume
+     */
+    public void setWriteLowWaterMark( long writeLowWaterMark )
+    {
+        this.writeLowWaterMark = writeLowWaterMark;
+    }
+
+
+    /**
+     * @return the maximum number of bytes scheduled for writing on the whole server
+     */
+    public long getMaxScheduledWriteBytes()
+    {
+        return maxScheduledWriteBytes;
+    }
+
+
+    /**
+     * @param maxScheduledWriteBytes the maximum number of bytes scheduled for writing on the whole
+     * server. 0 means no limit
+     */
+    public void setMaxScheduledWriteBytes( long maxScheduledWriteBytes )
+    {
+        this.maxScheduledWriteBytes = maxScheduledWriteBytes;
+    }
+
+
+    /**
+     * @return the maximum time a search can be paused waiting for its client, in ms
+     */
+    public long getMaxWritePauseTime()
+    {
+        return maxWritePauseTime;
+    }
+
+
+    /**
+     * @param maxWritePauseTime the maximum time a search can be paused waiting for its client,
+     * in ms. 0 means no limit
+     */
+    public void setMaxWritePauseTime( long maxWritePauseTime )
+    {
+        this.maxWritePauseTime = maxWritePauseTime;
+    }
+
+
+    /**
+     * @return the maximum number of searches paused at the same time
+     */
+    public int getMaxPausedSearches()
+    {
+        return maxPausedSearches;
+    }
+
+
+    /**
+     * @param maxPausedSearches the maximum number of searches paused at the same time. -1 means
+     * half of the transports threads
+     */
+    public void setMaxPausedSearches( int maxPausedSearches )
+    {
+        this.maxPausedSearches = maxPausedSearches;
+    }
+
+
+    /**
+     * @return the size of the batches in which the search results are written
+     */
+    public int getWriteBatchSize()
+    {
+        return writeBatchSize;
+    }
+
+
+    /**
+     * @param writeBatchSize the size of the batches in which the search results are written.
+     * 0 means no batching
+     */
+    public void setWriteBatchSize( int writeBatchSize )
+    {
+        this.writeBatchSize = writeBatchSize;
+    }
+
+
+    /**
+     * @return <code>true</code> if the paged searches store their position in the cookie
+     */
+    public boolean isStatelessPagedSearch()
+    {
+        return statelessPagedSearch;
+    }
+
+
+    /**
+     * @param statelessPagedSearch <code>true</code> if the paged searches store their position
+     * in the cookie instead of keeping a cursor
+     */
+    public void setStatelessPagedSearch( boolean statelessPagedSearch )
+    {
+        this.statelessPagedSearch = statelessPagedSearch;
+    }
+
+
+    /**
+     * @return the maximum number of paged search contexts kept in a session
+     */
+    public int getMaxPagedSearchContexts()
+    {
+        return maxPagedSearchContexts;
+    }
+
+
+    /**
+     * @param maxPagedSearchContexts the maximum number of paged search contexts kept in a session.
+     * 0 means no limit
+     */
+    public void setMaxPagedSearchContexts( int maxPagedSearchContexts )
+    {
+        this.maxPagedSearchContexts = maxPagedSearchContexts;
+    }
+
+
     /**
      * {@inheritDoc}
      */
@@ -402,6 +586,14 @@ public class LdapServerBean extends DSBasedServerBean
         sb.append( tabs ).append( "  max size limit : " ).append( maxSizeLimit ).append( '\n' );
         sb.append( tabs ).append( "  max time limit : " ).append( maxTimeLimit ).append( '\n' );
         sb.append( "  max PDU size : " ).append( maxPDUSize ).append( '\n' );
+        sb.append( tabs ).append( "  write high water mark : " ).append( writeHighWaterMark ).append( '\n' );
+        sb.append( tabs ).append( "  write low water mark : " ).append( writeLowWaterMark ).append( '\n' );
+        sb.append( tabs ).append( "  max scheduled write bytes : " ).append( maxScheduledWriteBytes ).append( '\n' );
+        sb.append( tabs ).append( "  max write pause time : " ).append( maxWritePauseTime ).append( '\n' );
+        sb.append( tabs ).append( "  max paused searches : " ).append( maxPausedSearches ).append( '\n' );
+        sb.append( tabs ).append( "  write batch size : " ).append( writeBatchSize ).append( '\n' );
+        sb.append( tabs ).append( "  stateless paged search : " ).append( statelessPagedSearch ).append( '\n' );
+        sb.append( tabs ).append( "  max paged search contexts : " ).append( maxPagedSearchContexts ).append( '\n' );
         sb.append( toString( tabs, "  certificate password", certificatePassword ) );
         sb.append( toString( tabs, "  keystore file", keystoreFile ) );
         sb.append( toString( tabs, "  sasl principal", saslPrincipal ) );
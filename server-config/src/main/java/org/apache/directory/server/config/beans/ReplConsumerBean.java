@@ -106,6 +106,14 @@ public class ReplConsumerBean extends AdsBaseBean
     @ConfigurationElement(attributeType = SchemaConstants.ADS_REPL_CONSUMER_IMPL, isOptional = true)
     private String replConsumerImpl;
 
+    /** The number of threads applying the received entries */
+    @ConfigurationElement(attributeType = "ads-replConsumerApplyThreads", isOptional = true, defaultValue = "1")
+    private int replConsumerApplyThreads = 1;
+
+    /** Tells if the initial content is loaded directly into an empty partition */
+    @ConfigurationElement(attributeType = "ads-replConsumerBulkRefresh", isOptional = true, defaultValue = "false")
+    private boolean replConsumerBulkRefresh = false;
+
 
     /**
      * Create a new Replication Consumer instance
@@ -419,6 +427,45 @@ public class ReplConsumerBean extends AdsBaseBean
     }
 
 
+    /**
+     * @return the number of threads applying the received entries
+     */
+    public int getReplConsumerApplyThreads()
+    {
+        return replConsumerApplyThreads;
+    }
+
+
+    /**
+     * @param replConsumerApplyThreads the number of threads applying the received entries
+     */
+    public void setReplConsumerApplyThreads( int replConsumerApplyThreads )
+    {
+        this.replConsumerApplyThreads = replConsumerApplyThreads;
+    }
+
+
+    /**
+     * @return true if the initial content is loaded directly into an empty partition
+     */
+    public boolean isReplConsumerBulkRefresh()
+    {
+        return replConsumerBulkRefresh;
+    }
+
+
+    /**
+     * Enables the bulk loading of the initial content. The loaded entries skip the interceptors :
+     * they are not recorded by the changelog and the journal, nor notified to the listeners.
+     *
+     * @param replConsumerBulkRefresh true to load the initial content directly into an empty partition
+     */
+    public void setReplConsumerBulkRefresh( boolean replConsumerBulkRefresh )
+    {
+        this.replConsumerBulkRefresh = replConsumerBulkRefresh;
+    }
+
+
     /**
      * @return the replStrictCertValidation
      */
@@ -482,6 +529,8 @@ public class ReplConsumerBean extends AdsBaseBean
         sb.append( toString( tabs, "  user password", String.valueOf( replUserPassword ) ) ); // do not reveal the password, just null or not
         sb.append( toString( tabs, "  cookie", replCookie ) );
         sb.append( tabs ).append( "  consumer implementation's FQCN : " ).append( replConsumerImpl ).append( '\n' );
+        sb.append( tabs ).append( "  apply threads : " ).append( replConsumerApplyThreads ).append( '\n' );
+        sb.append( toString( tabs, "  bulk refresh", replConsumerBulkRefresh ) );
 
         sb.append( toString( tabs, "  struct certivicate validation", replStrictCertValidation ) );
         sb.append( toString( tabs, "  use TLS", replUseTls ) );
@@ -0,0 +1,253 @@
+/*
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *   or more contributor license agreements.  See the NOTICE file
+ *   distributed with this work for additional information
+ *   regarding copyright ownership.  The ASF licenses this file
+ *   to you under the Apache License, Version 2.0 (the
+ *   "License"); you may not use this file except in compliance
+ *   with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing,
+ *   software distributed under the License is distributed on an
+ *   "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *   KIND, either express or implied.  See the License for the
+ *   specific language governing permissions and limitations
+ *   under the License.
+ *
+ */
+
+package org.apache.directory.server.config;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.List;
+
+import org.apache.directory.api.util.FileUtils;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.api.ldap.model.schema.registries.SchemaLoader;
+import org.apache.directory.api.ldap.schema.extractor.SchemaLdifExtractor;
+import org.apache.directory.api.ldap.schema.extractor.impl.DefaultSchemaLdifExtractor;
+import org.apache.directory.api.ldap.schema.loader.LdifSchemaLoader;
+import org.apache.directory.api.ldap.schema.manager.impl.DefaultSchemaManager;
+import org.apache.directory.api.util.exception.Exceptions;
+import org.apache.directory.server.config.beans.AdsBaseBean;
+import org.apache.directory.server.config.beans.AuthenticationInterceptorBean;
+import org.apache.directory.server.config.beans.ConfigBean;
+import org.apache.directory.server.config.beans.DirectoryServiceBean;
+import org.apache.directory.server.config.beans.IndexBean;
+import org.apache.directory.server.config.beans.JdbmPartitionBean;
+import org.apache.directory.server.config.beans.LdapServerBean;
+import org.apache.directory.server.config.beans.ReplConsumerBean;
+import org.apache.directory.server.core.api.CacheService;
+import org.apache.directory.server.core.api.DnFactory;
+import org.apache.directory.server.core.partition.ldif.SingleFileLdifPartition;
+import org.apache.directory.server.core.shared.DefaultDnFactory;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import com.mycila.junit.concurrent.Concurrency;
+import com.mycila.junit.concurrent.ConcurrentJunitRunner;
+
+
+/**
+ * Test the reading of the optional tuning parameters, which are allowed by the
+ * auxiliary ads-*Tuning object classes.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+@RunWith(ConcurrentJunitRunner.class)
+@Concurrency()
+public class TuningConfigReaderTest
+{
+    private static File workDir = new File( System.getProperty( "java.io.tmpdir" ) + "/server-work" );
+
+    private static SchemaManager schemaManager;
+    private static DnFactory dnFactory;
+    private static CacheService cacheService;
+
+
+    @BeforeClass
+    public static void readConfig() throws Exception
+    {
+        File workDir = new File( System.getProperty( "java.io.tmpdir" ) + "/server-work" );
+        FileUtils.deleteDirectory( workDir );
+        workDir.mkdir();
+
+        String workingDirectory = workDir.getPath();
+        // Extract the schema on disk (a brand new one) and load the registries
+        File schemaRepository = new File( workingDirectory, "schema" );
+
+        if ( schemaRepository.exists() )
+        {
+            FileUtils.deleteDirectory( schemaRepository );
+        }
+
+        SchemaLdifExtractor extractor = new DefaultSchemaLdifExtractor( new File( workingDirectory ) );
+        extractor.extractOrCopy();
+
+        SchemaLoader loader = new LdifSchemaLoader( schemaRepository );
+        schemaManager = new DefaultSchemaManager( loader );
+
+        // We have to load the schema now, otherwise we won't be able
+        // to initialize the Partitions, as we won't be able to parse
+        // and normalize their suffix Dn
+        schemaManager.loadAllEnabled();
+
+        List<Throwable> errors = schemaManager.getErrors();
+
+        if ( errors.size() != 0 )
+        {
+            throw new Exception( "Schema load failed : " + Exceptions.printErrors( errors ) );
+        }
+
+        cacheService = new CacheService();
+        cacheService.initialize( null );
+        dnFactory = new DefaultDnFactory( schemaManager, cacheService.getCache( "dnCache" ) );
+    }
+
+
+    /**
+     * Reads the beans of the given object class stored below the given base
+     *
+     * @param name The name of the directory the configuration is extracted into
+     * @param baseDn The base of the read beans
+     * @param objectClass The object class of the read beans
+     * @return The read beans
+     */
+    private List<AdsBaseBean> read( String name, String baseDn, ConfigSchemaConstants objectClass ) throws Exception
+    {
+        File configDir = new File( workDir, name ); // could be any directory, cause the config is now in a single file
+        String configFile = LdifConfigExtractor.extractSingleFileConfig( configDir, "tuning.ldif", true );
+
+        SingleFileLdifPartition configPartition = new SingleFileLdifPartition( schemaManager, dnFactory );
+        configPartition.setId( "config" );
+        configPartition.setPartitionPath( new File( configFile ).toURI() );
+        configPartition.setSuffixDn( new Dn( schemaManager, "ou=config" ) );
+        configPartition.setSchemaManager( schemaManager );
+
+        configPartition.setCacheService( cacheService );
+        configPartition.initialize();
+
+        try
+        {
+            ConfigPartitionReader cpReader = new ConfigPartitionReader( configPartition );
+
+            ConfigBean configBean = cpReader.readConfig( new Dn( schemaManager, baseDn ), objectClass.getValue() );
+
+            assertNotNull( configBean );
+
+            return configBean.getDirectoryServiceBeans();
+        }
+        finally
+        {
+            configPartition.destroy( configPartition.beginReadTransaction() );
+        }
+    }
+
+
+    @Test
+    public void testJdbmPartitionTuning() throws Exception
+    {
+        List<AdsBaseBean> beans = read( "jdbmPartitionTuning", "ou=partitions,ads-directoryServiceId=default,ou=config",
+            ConfigSchemaConstants.ADS_JDBM_PARTITION_OC );
+
+        assertEquals( 1, beans.size() );
+        JdbmPartitionBean jdbmPartitionBean = ( JdbmPartitionBean ) beans.get( 0 );
+        assertEquals( 5, jdbmPartitionBean.getJdbmPartitionGroupCommitMaxLatency() );
+        assertEquals( 32, jdbmPartitionBean.getJdbmPartitionGroupCommitMaxBatchSize() );
+    }
+
+
+    @Test
+    public void testIndexTuning() throws Exception
+    {
+        List<AdsBaseBean> beans = read( "indexTuning", "ou=partitions,ads-directoryServiceId=default,ou=config",
+            ConfigSchemaConstants.ADS_JDBM_PARTITION_OC );
+
+        List<IndexBean> indexes = ( ( JdbmPartitionBean ) beans.get( 0 ) ).getIndexes();
+        assertEquals( 2, indexes.size() );
+
+        for ( IndexBean index : indexes )
+        {
+            if ( "cn".equals( index.getIndexAttributeId() ) )
+            {
+                assertTrue( index.getIndexNGrams() );
+            }
+            else
+            {
+                assertFalse( index.getIndexNGrams() );
+            }
+        }
+    }
+
+
+    @Test
+    public void testAuthenticationInterceptorTuning() throws Exception
+    {
+        List<AdsBaseBean> beans = read( "authenticationInterceptorTuning",
+            "ou=interceptors,ads-directoryServiceId=default,ou=config",
+            ConfigSchemaConstants.ADS_AUTHENTICATION_INTERCEPTOR_OC );
+
+        assertEquals( 1, beans.size() );
+        AuthenticationInterceptorBean authenticationInterceptorBean = ( AuthenticationInterceptorBean ) beans.get( 0 );
+        assertEquals( 1000L, authenticationInterceptorBean.getBindStateFlushInterval() );
+        assertEquals( 2, authenticationInterceptorBean.getPasswordVerifyThreads() );
+        assertEquals( 64, authenticationInterceptorBean.getPasswordVerifyMaxPending() );
+        assertEquals( 500, authenticationInterceptorBean.getPasswordVerifyCacheSize() );
+        assertEquals( 60000L, authenticationInterceptorBean.getPasswordVerifyCacheTtl() );
+    }
+
+
+    @Test
+    public void testLdapServerTuning() throws Exception
+    {
+        List<AdsBaseBean> beans = read( "ldapServerTuning", "ou=servers,ads-directoryServiceId=default,ou=config",
+            ConfigSchemaConstants.ADS_LDAP_SERVER_OC );
+
+        assertEquals( 1, beans.size() );
+        LdapServerBean ldapServerBean = ( LdapServerBean ) beans.get( 0 );
+        assertTrue( ldapServerBean.isStatelessPagedSearch() );
+        assertEquals( 4, ldapServerBean.getMaxPagedSearchContexts() );
+        assertEquals( 8192, ldapServerBean.getWriteBatchSize() );
+    }
+
+
+    @Test
+    public void testReplConsumerTuning() throws Exception
+    {
+        List<AdsBaseBean> beans = read( "replConsumerTuning",
+            "ou=replConsumers,ads-serverId=ldapServer,ou=servers,ads-directoryServiceId=default,ou=config",
+            ConfigSchemaConstants.ADS_REPL_CONSUMER_OC );
+
+        assertEquals( 1, beans.size() );
+        ReplConsumerBean replConsumerBean = ( ReplConsumerBean ) beans.get( 0 );
+        assertEquals( 4, replConsumerBean.getReplConsumerApplyThreads() );
+        assertFalse( replConsumerBean.isReplConsumerBulkRefresh() );
+    }
+
+
+    @Test
+    public void testDirectoryServiceTuning() throws Exception
+    {
+        List<AdsBaseBean> beans = read( "directoryServiceTuning", "ou=config",
+            ConfigSchemaConstants.ADS_DIRECTORY_SERVICE_OC );
+
+        assertEquals( 1, beans.size() );
+        DirectoryServiceBean directoryServiceBean = ( DirectoryServiceBean ) beans.get( 0 );
+        assertTrue( directoryServiceBean.isDsVirtualSubentryAttributesEnabled() );
+
+        // The tuned elements are read along with the directory service
+        assertEquals( 1, directoryServiceBean.getPartitions().size() );
+        assertEquals( 1, directoryServiceBean.getInterceptors().size() );
+        assertEquals( 1, directoryServiceBean.getServers().size() );
+    }
+}
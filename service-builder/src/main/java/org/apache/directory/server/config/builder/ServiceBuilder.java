@@ -229,6 +229,20 @@ public final class ServiceBuilder
                     }
 
                     ( ( AuthenticationInterceptor ) interceptor ).setPwdPolicies( ppolicyContainer );
+
+                    // The password policy states changed by the binds
+                    ( ( AuthenticationInterceptor ) interceptor ).setBindStateFlushInterval(
+                        ( ( AuthenticationInterceptorBean ) interceptorBean ).getBindStateFlushInterval() );
+
+                    // The verification of the passwords hashed with a slow scheme
+                    ( ( AuthenticationInterceptor ) interceptor ).setPasswordVerifyThreads(
+                        ( ( AuthenticationInterceptorBean ) interceptorBean ).getPasswordVerifyThreads() );
+                    ( ( AuthenticationInterceptor ) interceptor ).setPasswordVerifyMaxPending(
+                        ( ( AuthenticationInterceptorBean ) interceptorBean ).getPasswordVerifyMaxPending() );
+                    ( ( AuthenticationInterceptor ) interceptor ).setPasswordVerifyCacheSize(
+                        ( ( AuthenticationInterceptorBean ) interceptorBean ).getPasswordVerifyCacheSize() );
+                    ( ( AuthenticationInterceptor ) interceptor ).setPasswordVerifyCacheTtl(
+                        ( ( AuthenticationInterceptorBean ) interceptorBean ).getPasswordVerifyCacheTtl() );
                 }
 
                 interceptors.add( interceptor );
@@ -1047,6 +1061,18 @@ public final class ServiceBuilder
         // MaxPDUSize
         ldapServer.setMaxPDUSize( ldapServerBean.getMaxPDUSize() );
 
+        // The search results flow control
+        ldapServer.getWriteFlowController().setHighWaterMark( ldapServerBean.getWriteHighWaterMark() );
+        ldapServer.getWriteFlowController().setLowWaterMark( ldapServerBean.getWriteLowWaterMark() );
+        ldapServer.getWriteFlowController().setMaxScheduledWriteBytes( ldapServerBean.getMaxScheduledWriteBytes() );
+        ldapServer.getWriteFlowController().setMaxPauseTime( ldapServerBean.getMaxWritePauseTime() );
+        ldapServer.getWriteFlowController().setMaxPausedOperations( ldapServerBean.getMaxPausedSearches() );
+        ldapServer.setWriteBatchSize( ldapServerBean.getWriteBatchSize() );
+
+        // The paged searches
+        ldapServer.setStatelessPagedSearch( ldapServerBean.isStatelessPagedSearch() );
+        ldapServer.setMaxPagedSearchContexts( ldapServerBean.getMaxPagedSearchContexts() );
+
         // Sasl Host
         ldapServer.setSaslHost( ldapServerBean.getLdapServerSaslHost() );
 
@@ -1205,6 +1231,8 @@ public final class ServiceBuilder
 
                 config.setUseTls( replBean.isReplUseTls() );
                 config.setStrictCertVerification( replBean.isReplStrictCertValidation() );
+                config.setApplyThreads( replBean.getReplConsumerApplyThreads() );
+                config.setBulkRefresh( replBean.isReplConsumerBulkRefresh() );
 
                 config.setConfigEntryDn( replBean.getDn() );
 
@@ -1255,6 +1283,7 @@ public final class ServiceBuilder
         else
         {
             index = new JdbmIndex<>( jdbmIndexBean.getIndexAttributeId(), hasReverse );
+            index.setNGramsEnabled( jdbmIndexBean.getIndexNGrams() );
         }
 
         index.setCacheSize( jdbmIndexBean.getIndexCacheSize() );
@@ -1334,6 +1363,8 @@ public final class ServiceBuilder
         }
 
         jdbmPartition.setSyncOnWrite( jdbmPartitionBean.isPartitionSyncOnWrite() );
+        jdbmPartition.setGroupCommitMaxLatency( jdbmPartitionBean.getJdbmPartitionGroupCommitMaxLatency() );
+        jdbmPartition.setGroupCommitMaxBatchSize( jdbmPartitionBean.getJdbmPartitionGroupCommitMaxBatchSize() );
         jdbmPartition.setIndexedAttributes( createJdbmIndexes( jdbmPartition, jdbmPartitionBean.getIndexes(),
             directoryService ) );
 
@@ -1468,6 +1499,10 @@ public final class ServiceBuilder
         // DenormalizedOpAttrsEnabled
         directoryService.setDenormalizeOpAttrsEnabled( directoryServiceBean.isDsDenormalizeOpAttrsEnabled() );
 
+        // VirtualSubentryAttributesEnabled
+        directoryService.setVirtualSubentryAttributesEnabled(
+            directoryServiceBean.isDsVirtualSubentryAttributesEnabled() );
+
         // Journal
         Journal journal = createJournal( directoryServiceBean.getJournal() );
 
@@ -1590,6 +1625,7 @@ public final class ServiceBuilder
         else
         {
             index = new MavibotIndex<>( mavibotIndexBean.getIndexAttributeId(), hasReverse );
+            index.setNGramsEnabled( mavibotIndexBean.getIndexNGrams() );
         }
 
         index.setWkDirPath( partition.getPartitionPath() );
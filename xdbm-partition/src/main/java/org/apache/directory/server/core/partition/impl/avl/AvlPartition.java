@@ -31,6 +31,7 @@ import org.apache.directory.server.core.api.partition.Partition;
 import org.apache.directory.server.core.api.partition.PartitionReadTxn;
 import org.apache.directory.server.core.api.partition.PartitionWriteTxn;
 import org.apache.directory.server.core.partition.impl.btree.AbstractBTreePartition;
+import org.apache.directory.server.xdbm.AbstractIndex;
 import org.apache.directory.server.xdbm.Index;
 import org.apache.directory.server.xdbm.impl.avl.AvlIndex;
 import org.apache.directory.server.xdbm.impl.avl.AvlMasterTable;
@@ -98,6 +99,7 @@ public class AvlPartition extends AbstractBTreePartition
         {
             EvaluatorBuilder evaluatorBuilder = new EvaluatorBuilder( this, schemaManager );
             CursorBuilder cursorBuilder = new CursorBuilder( this, evaluatorBuilder );
+            cursorBuilder.setAndIntersectionEnabled( andIntersectionEnabled );
 
             // setup optimizer and registries for parent
             if ( !optimizerEnabled )
@@ -180,6 +182,11 @@ public class AvlPartition extends AbstractBTreePartition
             LOG.debug( "Supplied index {} is not a AvlIndex. "
                 + "Will create new AvlIndex using copied configuration parameters.", index );
             avlIndex = new AvlIndex( index.getAttributeId(), true );
+
+            if ( index instanceof AbstractIndex )
+            {
+                avlIndex.setNGramsEnabled( ( ( AbstractIndex<?, String> ) index ).isNGramsEnabled() );
+            }
         }
 
         avlIndex.init( schemaManager, schemaManager.lookupAttributeTypeRegistry( index.getAttributeId() ) );
@@ -20,6 +20,7 @@
 package org.apache.directory.server.core.partition.impl.btree;
 
 
+import java.io.File;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.net.URI;
@@ -35,14 +36,10 @@ import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
-import net.sf.ehcache.Cache;
-import net.sf.ehcache.Element;
-import net.sf.ehcache.config.CacheConfiguration;
-import net.sf.ehcache.store.LruPolicy;
-
 import org.apache.directory.api.ldap.model.constants.SchemaConstants;
 import org.apache.directory.api.ldap.model.cursor.Cursor;
 import org.apache.directory.api.ldap.model.cursor.CursorException;
+import org.apache.directory.api.ldap.model.cursor.Tuple;
 import org.apache.directory.api.ldap.model.entry.Attribute;
 import org.apache.directory.api.ldap.model.entry.Entry;
 import org.apache.directory.api.ldap.model.entry.Modification;
@@ -71,7 +68,12 @@ import org.apache.directory.api.util.Strings;
 import org.apache.directory.api.util.exception.MultiException;
 import org.apache.directory.server.constants.ApacheSchemaConstants;
 import org.apache.directory.server.core.api.DnFactory;
+import org.apache.directory.server.core.api.cache.DirectoryCache;
+import org.apache.directory.server.core.api.cache.TinyLfuCache;
+import org.apache.directory.server.core.api.cache.Weigher;
+import org.apache.directory.server.core.api.cache.Weighers;
 import org.apache.directory.server.core.api.entry.ClonedServerEntry;
+import org.apache.directory.server.core.api.entry.CopyOnWriteServerEntry;
 import org.apache.directory.server.core.api.filtering.EntryFilteringCursor;
 import org.apache.directory.server.core.api.filtering.EntryFilteringCursorImpl;
 import org.apache.directory.server.core.api.interceptor.context.AddOperationContext;
@@ -92,6 +94,7 @@ import org.apache.directory.server.core.api.partition.PartitionTxn;
 import org.apache.directory.server.core.api.partition.PartitionWriteTxn;
 import org.apache.directory.server.core.api.partition.Subordinates;
 import org.apache.directory.server.i18n.I18n;
+import org.apache.directory.server.xdbm.EntryOrdinalMap;
 import org.apache.directory.server.xdbm.Index;
 import org.apache.directory.server.xdbm.IndexEntry;
 import org.apache.directory.server.xdbm.IndexNotFoundException;
@@ -124,17 +127,43 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
     /** Tells if the Optimizer is enabled */
     protected boolean optimizerEnabled = true;
 
+    /** Tells if the AND filters intersect the candidates of all their indexed children */
+    protected boolean andIntersectionEnabled = true;
+
     /** The default cache size is set to 10 000 objects */
     public static final int DEFAULT_CACHE_SIZE = 10000;
 
     /** The Entry cache size for this partition */
     protected int cacheSize = DEFAULT_CACHE_SIZE;
 
+    /** The estimated size of a DN cache element, used to compute the default DN caches memory size */
+    public static final int DEFAULT_DN_CACHE_ELEMENT_SIZE = 512;
+
+    /** The maximum memory used by each DN cache, in bytes. If 0, it's computed from the cache size */
+    protected long dnCacheMemorySize = 0L;
+
     /** The alias cache */
-    protected Cache aliasCache;
+    protected DirectoryCache<String, Dn> aliasCache;
 
     /** The ParentIdAndRdn cache */
-    protected Cache piarCache;
+    protected DirectoryCache<String, ParentIdAndRdn> piarCache;
+
+    /** Computes the memory used by a ParentIdAndRdn cache element */
+    private static final Weigher<String, ParentIdAndRdn> PIAR_WEIGHER = new Weigher<String, ParentIdAndRdn>()
+    {
+        @Override
+        public int weigh( String id, ParentIdAndRdn parentIdAndRdn )
+        {
+            int size = Weighers.ELEMENT_OVERHEAD + Weighers.sizeOf( id ) + Weighers.sizeOf( parentIdAndRdn.getParentId() );
+
+            for ( Rdn rdn : parentIdAndRdn.getRdns() )
+            {
+                size += Weighers.sizeOf( rdn );
+            }
+
+            return size;
+        }
+    };
 
     /** true if we sync disks on every write operation */
     protected AtomicBoolean isSyncOnWrite = new AtomicBoolean( true );
@@ -206,10 +235,19 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
     private ReadWriteLock rwLock;
 
     /** a cache to hold <entryUUID, Dn> pairs, this is used for speeding up the buildEntryDn() method */
-    private Cache entryDnCache;
+    private DirectoryCache<String, Dn> entryDnCache;
     
+    /** The mapping between the entries UUID and the ordinals used by the search engine */
+    private final EntryOrdinalMap entryOrdinalMap = new EntryOrdinalMap();
+
     /** a semaphore to serialize the writes on context entry while updating contextCSN attribute */
     private Semaphore ctxCsnSemaphore = new Semaphore( 1 );
+
+    /** The file created in the partition directory as long as the deferred user indices have not been built */
+    private static final String DEFERRED_USER_INDICES_FILE = "deferredUserIndices";
+
+    /** Tells if the user indices are built once the entries have been added, instead of being updated by each addition */
+    private volatile boolean userIndicesDeferred;
     
     // ------------------------------------------------------------------------
     // C O N S T R U C T O R S
@@ -306,6 +344,36 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
     }
 
 
+    /**
+     * Gets the maximum memory used by each of the DN caches (entryDn, piar and alias). If it
+     * has not been set, it's computed from the cache size.
+     *
+     * @return the maximum memory used by each DN cache, in bytes
+     */
+    public long getDnCacheMemorySize()
+    {
+        if ( dnCacheMemorySize > 0L )
+        {
+            return dnCacheMemorySize;
+        }
+
+        return ( long ) Math.max( cacheSize, 1 ) * DEFAULT_DN_CACHE_ELEMENT_SIZE;
+    }
+
+
+    /**
+     * Sets the maximum memory used by each of the DN caches (entryDn, piar and alias).
+     * It must be set before the partition is initialized.
+     *
+     * @param dnCacheMemorySize the maximum memory used by each DN cache, in bytes. If 0, it's
+     * computed from the cache size
+     */
+    public void setDnCacheMemorySize( long dnCacheMemorySize )
+    {
+        this.dnCacheMemorySize = dnCacheMemorySize;
+    }
+
+
     /**
      * Tells if the Optimizer is enabled or not
      * @return true if the optimizer is enabled
@@ -326,6 +394,28 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
     }
 
 
+    /**
+     * Tells if the AND filters intersect the candidates of all their indexed children
+     * before fetching the entries
+     * @return true if the intersection is enabled
+     */
+    public boolean isAndIntersectionEnabled()
+    {
+        return andIntersectionEnabled;
+    }
+
+
+    /**
+     * Set the AND intersection flag. When disabled, only the child with the smallest
+     * count is used to select the candidates.
+     * @param andIntersectionEnabled The flag
+     */
+    public void setAndIntersectionEnabled( boolean andIntersectionEnabled )
+    {
+        this.andIntersectionEnabled = andIntersectionEnabled;
+    }
+
+
     /**
      * Sets the path in which this Partition stores data. This may be an URL to
      * a file or directory, or an JDBC URL.
@@ -541,7 +631,16 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
         // don't reset initialized flag
         initialized = false;
 
-        entryDnCache.removeAll();
+        if ( entryDnCache != null )
+        {
+            LOG.debug( "Caches statistics for {} : entryDn {}, piar {}, alias {}", suffixDn, entryDnCache, piarCache,
+                aliasCache );
+            entryDnCache.clear();
+            piarCache.clear();
+            aliasCache.clear();
+        }
+
+        entryOrdinalMap.clear();
         
         MultiException errors = new MultiException( I18n.err( I18n.ERR_577 ) );
 
@@ -625,32 +724,27 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
         setupSystemIndices();
         setupUserIndices();
 
-        if ( cacheService != null )
-        {
-            aliasCache = cacheService.getCache( "alias" );
-    
-            CacheConfiguration cacheConfiguration = aliasCache.getCacheConfiguration();
-            
-            int cacheSizeConfig = ( int ) cacheConfiguration.getMaxEntriesLocalHeap();
-    
-            if ( cacheSizeConfig < cacheSize )
-            {
-                aliasCache.getCacheConfiguration().setMaxEntriesLocalHeap( cacheSize );
-            }
-            
-            piarCache = cacheService.getCache( "piar" );
-            
-            cacheSizeConfig = ( int ) piarCache.getCacheConfiguration().getMaxEntriesLocalHeap();
-    
-            if ( cacheSizeConfig < cacheSize )
-            {
-                piarCache.getCacheConfiguration().setMaxEntriesLocalHeap( cacheSize * 3L );
-            }
-            
-            entryDnCache = cacheService.getCache( "entryDn" );
-            entryDnCache.setMemoryStoreEvictionPolicy( new LruPolicy() );
-            entryDnCache.getCacheConfiguration().setMaxEntriesLocalHeap( cacheSize );
-        }
+        // The DN caches are private to the partition, and bounded by their memory size
+        long memorySize = getDnCacheMemorySize();
+
+        aliasCache = createCache( "alias", memorySize, Weighers.STRING_TO_DN );
+        piarCache = createCache( "piar", memorySize, PIAR_WEIGHER );
+        entryDnCache = createCache( "entryDn", memorySize, Weighers.STRING_TO_DN );
+    }
+
+
+    /**
+     * Creates one of the caches used by this partition. By default, this is a {@link TinyLfuCache} :
+     * this method can be overridden to plug another implementation.
+     *
+     * @param name The cache name : entryDn, piar or alias
+     * @param maximumWeight The maximum memory used by the cache, in bytes
+     * @param weigher The weigher computing the memory used by each element
+     * @return The created cache
+     */
+    protected <K, V> DirectoryCache<K, V> createCache( String name, long maximumWeight, Weigher<? super K, ? super V> weigher )
+    {
+        return new TinyLfuCache<K, V>( maximumWeight, weigher );
     }
 
 
@@ -884,28 +978,10 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
                 presenceIdx.add( partitionTxn, administrativeRoleAT.getOid(), id );
             }
 
-            // Now work on the user defined userIndices
-            for ( Attribute attribute : entry )
+            // Now work on the user defined userIndices, unless they are built later
+            if ( !userIndicesDeferred )
             {
-                AttributeType attributeType = attribute.getAttributeType();
-                String attributeOid = attributeType.getOid();
-
-                if ( hasUserIndexOn( attributeType ) )
-                {
-                    Index<Object, String> userIndex = ( Index<Object, String> ) getUserIndex( attributeType );
-
-                    // here lookup by attributeId is OK since we got attributeId from
-                    // the entry via the enumeration - it's in there as is for sure
-
-                    for ( Value value : attribute )
-                    {
-                        String normalized = value.getNormalized();
-                        userIndex.add( partitionTxn, normalized, id );
-                    }
-
-                    // Adds only those attributes that are indexed
-                    presenceIdx.add( partitionTxn, attributeOid, id );
-                }
+                addUserIndices( partitionTxn, id, entry );
             }
 
             // Add the parentId in the entry
@@ -949,6 +1025,185 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
     }
 
 
+    /**
+     * Adds the values of an entry to the user indices
+     */
+    private void addUserIndices( PartitionTxn partitionTxn, String id, Entry entry ) throws LdapException
+    {
+        for ( Attribute attribute : entry )
+        {
+            AttributeType attributeType = attribute.getAttributeType();
+            String attributeOid = attributeType.getOid();
+
+            if ( hasUserIndexOn( attributeType ) )
+            {
+                Index<Object, String> userIndex = ( Index<Object, String> ) getUserIndex( attributeType );
+
+                // here lookup by attributeId is OK since we got attributeId from
+                // the entry via the enumeration - it's in there as is for sure
+
+                for ( Value value : attribute )
+                {
+                    String normalized = value.getNormalized();
+                    userIndex.add( partitionTxn, normalized, id );
+                }
+
+                // Adds only those attributes that are indexed
+                presenceIdx.add( partitionTxn, attributeOid, id );
+            }
+        }
+    }
+
+
+    /**
+     * @return The file telling that the deferred user indices have not been built, or null
+     * if the partition is not stored in a directory
+     */
+    private File getDeferredUserIndicesFile()
+    {
+        if ( ( partitionPath == null ) || !"file".equals( partitionPath.getScheme() ) )
+        {
+            return null;
+        }
+
+        return new File( new File( partitionPath ), DEFERRED_USER_INDICES_FILE );
+    }
+
+
+    /**
+     * Stops updating the user indices when an entry is added, to speed up the loading of many
+     * entries. The user indices must then be built by {@link #buildDeferredUserIndices(int)}, and
+     * are not used by the searches until then. Until they have been built, a file in the partition
+     * directory tells that they have to be built when the partition is initialized again.
+     *
+     * @throws LdapException If the file can't be created
+     */
+    public void deferUserIndices() throws LdapException
+    {
+        File file = getDeferredUserIndicesFile();
+
+        if ( file != null )
+        {
+            try
+            {
+                file.createNewFile();
+            }
+            catch ( IOException ioe )
+            {
+                throw new LdapOtherException( ioe.getMessage(), ioe );
+            }
+        }
+
+        userIndicesDeferred = true;
+    }
+
+
+    /**
+     * @return true if the user indices are not updated when an entry is added, and have to be
+     * built by {@link #buildDeferredUserIndices(int)}
+     */
+    public boolean isUserIndicesDeferred()
+    {
+        if ( userIndicesDeferred )
+        {
+            return true;
+        }
+
+        File file = getDeferredUserIndicesFile();
+
+        return ( file != null ) && file.exists();
+    }
+
+
+    /**
+     * Builds the deferred user indices in one pass over the master table, committing a write
+     * transaction every <code>batchSize</code> entries, then updates them again when an entry is
+     * added. The values which are already indexed are left untouched.
+     *
+     * @param batchSize The number of entries indexed in a transaction
+     * @throws LdapException If the indices can't be built
+     */
+    public void buildDeferredUserIndices( int batchSize ) throws LdapException
+    {
+        if ( !isUserIndicesDeferred() )
+        {
+            return;
+        }
+
+        LOG.info( "Building the deferred user indices of partition {}", id );
+
+        PartitionTxn partitionTxn = null;
+        long nbEntries = 0L;
+
+        try
+        {
+            Cursor<Tuple<String, Entry>> cursor = master.cursor();
+
+            try
+            {
+                cursor.beforeFirst();
+
+                while ( cursor.next() )
+                {
+                    Tuple<String, Entry> tuple = cursor.get();
+
+                    if ( partitionTxn == null )
+                    {
+                        partitionTxn = beginWriteTransaction();
+                    }
+
+                    addUserIndices( partitionTxn, tuple.getKey(), tuple.getValue() );
+                    nbEntries++;
+
+                    if ( nbEntries % batchSize == 0 )
+                    {
+                        partitionTxn.commit();
+                        partitionTxn = null;
+                    }
+                }
+            }
+            finally
+            {
+                cursor.close();
+            }
+
+            if ( partitionTxn != null )
+            {
+                partitionTxn.commit();
+                partitionTxn = null;
+            }
+        }
+        catch ( CursorException | IOException e )
+        {
+            throw new LdapOtherException( e.getMessage(), e );
+        }
+        finally
+        {
+            if ( partitionTxn != null )
+            {
+                try
+                {
+                    partitionTxn.abort();
+                }
+                catch ( IOException ioe )
+                {
+                    LOG.error( "Failed to abort the transaction", ioe );
+                }
+            }
+        }
+
+        userIndicesDeferred = false;
+        File file = getDeferredUserIndicesFile();
+
+        if ( ( file != null ) && !file.delete() && file.exists() )
+        {
+            LOG.warn( "Failed to delete the file {}", file );
+        }
+
+        LOG.info( "Built the user indices of {} entries in partition {}", nbEntries, id );
+    }
+
+
     //---------------------------------------------------------------------------------------------
     // The Delete operation
     //---------------------------------------------------------------------------------------------
@@ -1157,6 +1412,8 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
                 ////dumpRdnIdx();
 
                 entryDnCache.remove( id );
+                piarCache.remove( id );
+                entryOrdinalMap.remove( id );
                 
                 Attribute csn = entry.get( entryCsnAT );
                 // can be null while doing subentry deletion
@@ -1337,21 +1594,12 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
             {
                 entry.setDn( dn );
 
-                entry = new ClonedServerEntry( entry );
+                // The cached entry is shared : its attributes are only copied when they are modified
+                entry = new CopyOnWriteServerEntry( entry );
 
                 // Replace the entry's DN with the provided one
-                Attribute entryDnAt = entry.get( entryDnAT );
                 Value dnValue = new Value( entryDnAT, dn.getName(), dn.getNormName() );
-
-                if ( entryDnAt == null )
-                {
-                    entry.add( entryDnAT, dnValue );
-                }
-                else
-                {
-                    entryDnAt.clear();
-                    entryDnAt.add( dnValue );
-                }
+                entry.put( entryDnAT, dnValue );
 
                 return entry;
             }
@@ -1374,7 +1622,7 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
                 // always store original entry in the cache
                 addToCache( id, entry );
 
-                entry = new ClonedServerEntry( entry );
+                entry = new CopyOnWriteServerEntry( entry );
 
                 if ( !entry.containsAttribute( entryDnAT ) )
                 {
@@ -1985,6 +2233,9 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
 
         updateRdnIdx( partitionTxn, newParentId, ADD_CHILD, movedEntry.getNbDescendants() );
 
+        // The cached DNs of the moved subtree are now invalid
+        invalidateCachedDns( entryId, oldDn );
+
         /*
          * Read Alias Index Tuples
          *
@@ -2022,8 +2273,6 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
         // Remove the EntryDN
         modifiedEntry.removeAttributes( entryDnAT );
 
-        entryDnCache.removeAll();
-        
         setContextCsn( modifiedEntry.get( entryCsnAT ).getString() );
 
         master.put( partitionTxn, entryId, modifiedEntry );
@@ -2160,6 +2409,9 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
 
         updateRdnIdx( partitionTxn, newParentId, ADD_CHILD, movedEntry.getNbDescendants() );
 
+        // The cached DNs of the moved subtree are now invalid
+        invalidateCachedDns( entryId, oldDn );
+
         // Process the modified indexes now
         try
         {
@@ -2198,9 +2450,6 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
         // Update the entryParentId attribute
         modifiedEntry.removeAttributes( ApacheSchemaConstants.ENTRY_PARENT_ID_OID );
         modifiedEntry.add( ApacheSchemaConstants.ENTRY_PARENT_ID_OID, newParentId );
-        
-        // Doom the DN cache now
-        entryDnCache.removeAll();
 
         setContextCsn( modifiedEntry.get( entryCsnAT ).getString() );
 
@@ -2533,7 +2782,8 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
 
         rdnIdx.add( partitionTxn, parentIdAndRdn, oldId );
 
-        entryDnCache.removeAll();
+        // The cached DNs of the renamed subtree are now invalid
+        invalidateCachedDns( oldId, dn );
         
         if ( isSyncOnWrite.get() )
         {
@@ -2616,6 +2866,16 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
      */
     protected Dn buildEntryDn( PartitionTxn partitionTxn, String id ) throws LdapException
     {
+        // The cache is thread safe and doesn't need the lock : the writers invalidate
+        // the DNs while holding the write lock, and we can't be concurrent with them
+        // if we are in the middle of an operation
+        Dn dn = entryDnCache.get( id );
+
+        if ( dn != null )
+        {
+            return dn;
+        }
+
         String parentId = id;
         String rootId = Partition.ROOT_ID;
 
@@ -2623,47 +2883,15 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
         Rdn[] rdnArray = new Rdn[10];
         int pos = 0;
 
-        Dn dn = null;
-        
         try
         {
             rwLock.readLock().lock();
 
-            if ( entryDnCache != null )
-            {
-                Element el = entryDnCache.get( id );
-                
-                if ( el != null )
-                {
-                    return ( Dn ) el.getObjectValue();
-                }
-            }
-            
             do
             {
-                ParentIdAndRdn cur;
-            
-                if ( piarCache != null )
-                {
-                    Element piar = piarCache.get( parentId );
-                    
-                    if ( piar != null )
-                    {
-                        cur = ( ParentIdAndRdn ) piar.getObjectValue();
-                    }
-                    else
-                    {
-                        cur = rdnIdx.reverseLookup( partitionTxn, parentId );
-                        
-                        if ( cur == null )
-                        {
-                            return null;
-                        }
-                        
-                        piarCache.put( new Element( parentId, cur ) );
-                    }
-                }
-                else
+                ParentIdAndRdn cur = piarCache.get( parentId );
+
+                if ( cur == null )
                 {
                     cur = rdnIdx.reverseLookup( partitionTxn, parentId );
                     
@@ -2671,6 +2899,8 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
                     {
                         return null;
                     }
+                    
+                    piarCache.put( parentId, cur );
                 }
 
                 Rdn[] rdns = cur.getRdns();
@@ -2694,7 +2924,7 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
             
             dn = new Dn( schemaManager, Arrays.copyOf( rdnArray, pos ) );
             
-            entryDnCache.put( new Element( id, dn ) );
+            entryDnCache.put( id, dn );
             return dn;
         }
         finally
@@ -2704,6 +2934,30 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
     }
 
 
+    /**
+     * Removes from the caches the DN of an entry which has been renamed or moved, and
+     * the DNs of its descendants. The other cached DNs are still valid.
+     *
+     * @param id The renamed or moved entry ID
+     * @param oldDn The entry's DN before it was renamed or moved
+     */
+    private void invalidateCachedDns( String id, Dn oldDn ) throws LdapException
+    {
+        piarCache.remove( id );
+
+        final Dn subtreeDn = oldDn.isSchemaAware() ? oldDn : new Dn( schemaManager, oldDn );
+
+        entryDnCache.removeAll( new DirectoryCache.Selector<String, Dn>()
+        {
+            @Override
+            public boolean select( String entryId, Dn dn )
+            {
+                return dn.equals( subtreeDn ) || dn.isDescendantOf( subtreeDn );
+            }
+        } );
+    }
+
+
     /**
      * {@inheritDoc}
      */
@@ -3198,7 +3452,7 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
         
         if ( aliasCache != null )
         {
-            aliasCache.put( new Element( aliasId, aliasTarget ) );
+            aliasCache.put( aliasId, aliasTarget );
         }
 
         /*
@@ -3453,6 +3707,16 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
     }
 
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public EntryOrdinalMap getEntryOrdinalMap()
+    {
+        return entryOrdinalMap;
+    }
+
+
     /**
      * Acquire a Read lock
      */
@@ -3562,7 +3826,7 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
     {
         if ( operationContext.getSession() != null )
         {
-            rwLock = operationContext.getSession().getDirectoryService().getOperationManager().getRWLock();
+            rwLock = operationContext.getSession().getDirectoryService().getOperationManager().getRWLock( this );
         }
         else
         {
@@ -3589,10 +3853,28 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
      * {@inheritDoc}
      */
     @Override
-    public Cache getAliasCache()
+    public DirectoryCache<String, Dn> getAliasCache()
     {
         return aliasCache;
     }
+
+
+    /**
+     * @return The cache holding the entries DN, per entry UUID
+     */
+    public DirectoryCache<String, Dn> getEntryDnCache()
+    {
+        return entryDnCache;
+    }
+
+
+    /**
+     * @return The cache holding the entries ParentIdAndRdn, per entry UUID
+     */
+    public DirectoryCache<String, ParentIdAndRdn> getPiarCache()
+    {
+        return piarCache;
+    }
     
     
     /**
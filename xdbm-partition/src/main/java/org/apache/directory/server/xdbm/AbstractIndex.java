@@ -20,9 +20,20 @@
 package org.apache.directory.server.xdbm;
 
 
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
 import java.util.concurrent.atomic.AtomicInteger;
 
+import org.apache.directory.api.ldap.model.cursor.Cursor;
+import org.apache.directory.api.ldap.model.cursor.CursorException;
+import org.apache.directory.api.ldap.model.cursor.EmptyCursor;
+import org.apache.directory.api.ldap.model.cursor.Tuple;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.api.ldap.model.exception.LdapOtherException;
 import org.apache.directory.api.ldap.model.schema.AttributeType;
+import org.apache.directory.server.core.api.partition.PartitionTxn;
 import org.apache.directory.server.i18n.I18n;
 
 
@@ -52,6 +63,16 @@ public abstract class AbstractIndex<K, E> implements Index<K, E>
     /** A counter used to differ the commit on disk after N operations */
     protected AtomicInteger commitNumber;
 
+    /** Tells if this index has a n-gram table */
+    protected boolean withNGrams;
+
+    /**
+     * the n-gram table, where the key is a n-gram of the indexed values, and the value
+     * the entry id of the entries having a value containing this n-gram. It's created by
+     * the implementations when the index has n-grams, and the attribute is human readable
+     */
+    protected Table<String, E> nGrams;
+
 
     /**
      * Creates a new instance of AbstractIndex.
@@ -162,4 +183,291 @@ public abstract class AbstractIndex<K, E> implements Index<K, E>
     {
         return withReverse;
     }
+
+
+    /**
+     * Sets if the index stores the n-grams of the values, for the substring filters. The
+     * n-grams are removed using the reverse table, which is enabled too. As the n-gram table
+     * is not maintained while the n-grams are disabled, it's rebuilt when the index is opened.
+     *
+     * @param withNGrams true if the index must have a n-gram table
+     */
+    public void setNGramsEnabled( boolean withNGrams )
+    {
+        protect( "nGrams" );
+        this.withNGrams = withNGrams;
+
+        if ( withNGrams )
+        {
+            withReverse = true;
+        }
+    }
+
+
+    /**
+     * @return true if the index has been configured to store the n-grams of the values
+     */
+    public boolean isNGramsEnabled()
+    {
+        return withNGrams;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean hasNGrams()
+    {
+        return nGrams != null;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long nGramCount( PartitionTxn partitionTxn, String nGram ) throws LdapException
+    {
+        if ( nGrams == null )
+        {
+            return 0L;
+        }
+
+        return nGrams.count( partitionTxn, nGram );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Cursor<E> nGramValueCursor( PartitionTxn partitionTxn, String nGram ) throws LdapException
+    {
+        if ( nGrams == null )
+        {
+            return new EmptyCursor<>();
+        }
+
+        return nGrams.valueCursor( partitionTxn, nGram );
+    }
+
+
+    /**
+     * Adds the n-grams of a value to the n-gram table
+     *
+     * @param partitionTxn The transaction to use
+     * @param attrVal The added value
+     * @param id The entry ID
+     * @throws LdapException If the n-grams can't be added
+     */
+    protected void addNGrams( PartitionTxn partitionTxn, K attrVal, E id ) throws LdapException
+    {
+        if ( ( nGrams == null ) || !( attrVal instanceof String ) )
+        {
+            return;
+        }
+
+        for ( String nGram : NGrams.getNGrams( ( String ) attrVal ) )
+        {
+            nGrams.put( partitionTxn, nGram, id );
+        }
+    }
+
+
+    /**
+     * Removes the n-grams of a value from the n-gram table, except those which are also
+     * n-grams of the other values of the entry. Must be called once the value has been
+     * removed from the reverse table.
+     *
+     * @param partitionTxn The transaction to use
+     * @param attrVal The removed value
+     * @param id The entry ID
+     * @throws LdapException If the n-grams can't be removed
+     */
+    protected void dropNGrams( PartitionTxn partitionTxn, K attrVal, E id ) throws LdapException
+    {
+        if ( ( nGrams == null ) || !( attrVal instanceof String ) )
+        {
+            return;
+        }
+
+        Set<String> dropped = NGrams.getNGrams( ( String ) attrVal );
+        Cursor<K> values = reverseValueCursor( partitionTxn, id );
+
+        try
+        {
+            while ( !dropped.isEmpty() && values.next() )
+            {
+                K value = values.get();
+
+                if ( value instanceof String )
+                {
+                    dropped.removeAll( NGrams.getNGrams( ( String ) value ) );
+                }
+            }
+
+            values.close();
+        }
+        catch ( CursorException | IOException e )
+        {
+            throw new LdapOtherException( e.getMessage(), e );
+        }
+
+        for ( String nGram : dropped )
+        {
+            nGrams.remove( partitionTxn, nGram, id );
+        }
+    }
+
+
+    /**
+     * Removes the n-grams of all the values of an entry from the n-gram table. Must be
+     * called before the entry is removed from the reverse table.
+     *
+     * @param partitionTxn The transaction to use
+     * @param id The entry ID
+     * @throws LdapException If the n-grams can't be removed
+     */
+    protected void dropNGrams( PartitionTxn partitionTxn, E id ) throws LdapException
+    {
+        if ( nGrams == null )
+        {
+            return;
+        }
+
+        Cursor<K> values = reverseValueCursor( partitionTxn, id );
+
+        try
+        {
+            while ( values.next() )
+            {
+                K value = values.get();
+
+                if ( value instanceof String )
+                {
+                    for ( String nGram : NGrams.getNGrams( ( String ) value ) )
+                    {
+                        nGrams.remove( partitionTxn, nGram, id );
+                    }
+                }
+            }
+
+            values.close();
+        }
+        catch ( CursorException | IOException e )
+        {
+            throw new LdapOtherException( e.getMessage(), e );
+        }
+    }
+
+
+    /**
+     * @return The reverse table, or null if the index has none
+     */
+    protected Table<E, K> getReverseTable()
+    {
+        return null;
+    }
+
+
+    /**
+     * Rebuilds the n-gram table from the forward table, as it's not maintained while the n-grams
+     * are disabled. The reverse table, which the n-grams are removed with, is completed first :
+     * it's empty when it has been created along with the n-grams on an existing index.
+     *
+     * @param partitionTxn The transaction to use
+     * @throws LdapException If the n-grams can't be added
+     */
+    protected void buildNGrams( PartitionTxn partitionTxn ) throws LdapException
+    {
+        if ( nGrams == null )
+        {
+            return;
+        }
+
+        Table<E, K> reverse = getReverseTable();
+
+        if ( reverse == null )
+        {
+            throw new IllegalStateException( "The n-grams of the " + attributeId
+                + " index can't be maintained without a reverse table" );
+        }
+
+        long count = count( partitionTxn );
+        boolean fillReverse = reverse.count( partitionTxn ) != count;
+
+        clearNGrams( partitionTxn );
+
+        if ( count == 0 )
+        {
+            return;
+        }
+
+        Cursor<IndexEntry<K, E>> cursor = forwardCursor( partitionTxn );
+
+        try
+        {
+            while ( cursor.next() )
+            {
+                IndexEntry<K, E> indexEntry = cursor.get();
+
+                if ( fillReverse )
+                {
+                    // The existing tuples are kept as is
+                    reverse.put( partitionTxn, indexEntry.getId(), indexEntry.getKey() );
+                }
+
+                addNGrams( partitionTxn, indexEntry.getKey(), indexEntry.getId() );
+            }
+
+            cursor.close();
+        }
+        catch ( CursorException | IOException e )
+        {
+            throw new LdapOtherException( e.getMessage(), e );
+        }
+    }
+
+
+    /**
+     * Removes all the n-grams from the n-gram table
+     */
+    private void clearNGrams( PartitionTxn partitionTxn ) throws LdapException
+    {
+        if ( nGrams.count( partitionTxn ) == 0 )
+        {
+            return;
+        }
+
+        List<String> keys = new ArrayList<>();
+        Cursor<Tuple<String, E>> cursor = nGrams.cursor();
+
+        try
+        {
+            String lastKey = null;
+
+            while ( cursor.next() )
+            {
+                String key = cursor.get().getKey();
+
+                if ( !key.equals( lastKey ) )
+                {
+                    keys.add( key );
+                    lastKey = key;
+                }
+            }
+
+            cursor.close();
+        }
+        catch ( CursorException | IOException e )
+        {
+            throw new LdapOtherException( e.getMessage(), e );
+        }
+
+        for ( String key : keys )
+        {
+            nGrams.remove( partitionTxn, key );
+        }
+    }
 }
@@ -0,0 +1,399 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.xdbm;
+
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+
+/**
+ * A per partition, in-memory mapping between the entries UUID and a dense integer
+ * ordinal. The ordinals are used by the search engine to store the candidates in
+ * compressed bitmaps instead of sets of Strings. They are assigned lazily, the first
+ * time an entry is seen by a search.
+ * <br>
+ * The ordinals are stored in a {@link Generation}. A removed entry ordinal is never
+ * reused in its generation, it simply maps to <code>null</code>, so that a candidate
+ * set computed before the removal never resolves it to another entry. When too many
+ * ordinals have been freed, or when the generation is running out of ordinals, a new
+ * empty generation is started : the live entries get new dense ordinals the next time
+ * they are seen, and the previous generation is kept as long as some candidate set
+ * built with it is still in use.
+ * <br>
+ * The mapping is not persisted, it is rebuilt on demand each time the partition
+ * is started.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class EntryOrdinalMap
+{
+    /** The number of UUIDs stored in a page of the reverse table */
+    private static final int PAGE_SIZE = 4096;
+
+    /** The shift to apply to an ordinal to get its page */
+    private static final int PAGE_SHIFT = 12;
+
+    /** The mask to apply to an ordinal to get its position in its page */
+    private static final int PAGE_MASK = PAGE_SIZE - 1;
+
+    /** The default number of freed ordinals above which a new generation is started */
+    public static final int DEFAULT_COMPACTION_THRESHOLD = 65536;
+
+    /** The number of assigned ordinals above which a new generation is started */
+    private static final int ROLLOVER_ORDINAL = 1 << 30;
+
+    /** The current generation */
+    private volatile Generation generation = new Generation();
+
+    /** The previous generations, still referenced by some candidate sets */
+    private final List<WeakReference<Generation>> retired = new ArrayList<>();
+
+    /** The number of freed ordinals above which a new generation is started */
+    private final int compactionThreshold;
+
+
+    /**
+     * Creates a new EntryOrdinalMap, compacted when {@link #DEFAULT_COMPACTION_THRESHOLD}
+     * ordinals have been freed.
+     */
+    public EntryOrdinalMap()
+    {
+        this( DEFAULT_COMPACTION_THRESHOLD );
+    }
+
+
+    /**
+     * Creates a new EntryOrdinalMap
+     *
+     * @param compactionThreshold The number of freed ordinals above which a new generation is
+     * started, if they also outnumber the live ordinals
+     */
+    public EntryOrdinalMap( int compactionThreshold )
+    {
+        this.compactionThreshold = compactionThreshold;
+    }
+
+
+    /**
+     * Gets the current generation. All the ordinals stored in a candidate set, and
+     * all the candidates sets combined together, must come from the same generation.
+     *
+     * @return The current generation
+     */
+    public Generation getGeneration()
+    {
+        Generation current = generation;
+
+        if ( current.nextOrdinal < ROLLOVER_ORDINAL )
+        {
+            return current;
+        }
+
+        synchronized ( this )
+        {
+            if ( generation.nextOrdinal >= ROLLOVER_ORDINAL )
+            {
+                startGeneration();
+            }
+
+            return generation;
+        }
+    }
+
+
+    /**
+     * Gets the ordinal associated with an entry UUID in the current generation, assigning
+     * a new one if the UUID has never been seen before.
+     *
+     * @param uuid The entry UUID
+     * @return The entry ordinal
+     */
+    public int getOrdinal( String uuid )
+    {
+        return getGeneration().getOrdinal( uuid );
+    }
+
+
+    /**
+     * Gets the ordinal associated with an entry UUID in the current generation, without
+     * assigning it
+     *
+     * @param uuid The entry UUID
+     * @return The entry ordinal, or -1 if the UUID has no ordinal
+     */
+    public int lookupOrdinal( String uuid )
+    {
+        return generation.lookupOrdinal( uuid );
+    }
+
+
+    /**
+     * Gets the UUID associated with an ordinal of the current generation
+     *
+     * @param ordinal The ordinal
+     * @return The entry UUID, or <code>null</code> if the ordinal is unknown or if the entry has been removed
+     */
+    public String getUuid( int ordinal )
+    {
+        return generation.getUuid( ordinal );
+    }
+
+
+    /**
+     * Removes an entry UUID from the mapping, in the current generation and in the
+     * previous ones still in use. A new generation is started if too many ordinals
+     * have been freed.
+     *
+     * @param uuid The removed entry UUID
+     */
+    public synchronized void remove( String uuid )
+    {
+        generation.remove( uuid );
+
+        Iterator<WeakReference<Generation>> iterator = retired.iterator();
+
+        while ( iterator.hasNext() )
+        {
+            Generation previous = iterator.next().get();
+
+            if ( previous == null )
+            {
+                iterator.remove();
+            }
+            else
+            {
+                previous.remove( uuid );
+            }
+        }
+
+        int freed = generation.freed;
+
+        if ( ( freed >= compactionThreshold ) && ( freed > generation.size() ) )
+        {
+            startGeneration();
+        }
+    }
+
+
+    /**
+     * Clears the mapping. Any bitmap built with the previous ordinals must
+     * be discarded.
+     */
+    public synchronized void clear()
+    {
+        generation = new Generation();
+        retired.clear();
+    }
+
+
+    /**
+     * @return The number of UUIDs currently mapped in the current generation
+     */
+    public int size()
+    {
+        return generation.size();
+    }
+
+
+    /**
+     * Retires the current generation, and starts a new empty one. Must be called while
+     * holding the monitor.
+     */
+    private void startGeneration()
+    {
+        retired.add( new WeakReference<>( generation ) );
+        generation = new Generation();
+    }
+
+
+    /**
+     * A set of ordinals assigned to the entries UUID. An ordinal is never reused in
+     * a generation.
+     */
+    public static final class Generation
+    {
+        /** The UUID to ordinal table */
+        private final ConcurrentMap<String, Integer> ordinals = new ConcurrentHashMap<>();
+
+        /** The ordinal to UUID table, split in pages so that we don't have to copy it when it grows */
+        private volatile String[][] uuids = new String[16][];
+
+        /** The next ordinal to assign */
+        private volatile int nextOrdinal = 0;
+
+        /** The number of freed ordinals */
+        private int freed = 0;
+
+
+        private Generation()
+        {
+        }
+
+
+        /**
+         * Gets the ordinal associated with an entry UUID, assigning a new one if
+         * the UUID has never been seen before.
+         *
+         * @param uuid The entry UUID
+         * @return The entry ordinal
+         */
+        public int getOrdinal( String uuid )
+        {
+            Integer ordinal = ordinals.get( uuid );
+
+            if ( ordinal != null )
+            {
+                return ordinal;
+            }
+
+            synchronized ( this )
+            {
+                // Check again, the UUID may have been added in the meantime
+                ordinal = ordinals.get( uuid );
+
+                if ( ordinal == null )
+                {
+                    ordinal = assign( uuid );
+                    ordinals.put( uuid, ordinal );
+                }
+
+                return ordinal;
+            }
+        }
+
+
+        /**
+         * Gets the ordinal associated with an entry UUID, without assigning it
+         *
+         * @param uuid The entry UUID
+         * @return The entry ordinal, or -1 if the UUID has no ordinal
+         */
+        public int lookupOrdinal( String uuid )
+        {
+            Integer ordinal = ordinals.get( uuid );
+
+            if ( ordinal == null )
+            {
+                return -1;
+            }
+
+            return ordinal;
+        }
+
+
+        /**
+         * Gets the UUID associated with an ordinal
+         *
+         * @param ordinal The ordinal
+         * @return The entry UUID, or <code>null</code> if the ordinal is unknown or if the entry has been removed
+         */
+        public String getUuid( int ordinal )
+        {
+            if ( ordinal < 0 )
+            {
+                return null;
+            }
+
+            String[][] pages = uuids;
+            int pageNumber = ordinal >>> PAGE_SHIFT;
+
+            if ( pageNumber >= pages.length )
+            {
+                return null;
+            }
+
+            String[] page = pages[pageNumber];
+
+            if ( page == null )
+            {
+                return null;
+            }
+
+            return page[ordinal & PAGE_MASK];
+        }
+
+
+        /**
+         * @return The number of UUIDs currently mapped
+         */
+        public int size()
+        {
+            return ordinals.size();
+        }
+
+
+        /**
+         * Removes an entry UUID. Its ordinal will never be reused in this generation.
+         */
+        private synchronized void remove( String uuid )
+        {
+            Integer ordinal = ordinals.remove( uuid );
+
+            if ( ordinal != null )
+            {
+                uuids[ordinal >>> PAGE_SHIFT][ordinal & PAGE_MASK] = null;
+                freed++;
+            }
+        }
+
+
+        /**
+         * Assign a new ordinal to an UUID. Must be called while holding the monitor.
+         */
+        private Integer assign( String uuid )
+        {
+            int ordinal = nextOrdinal;
+
+            if ( ordinal == Integer.MAX_VALUE )
+            {
+                // Only possible if a candidate set keeps on using a retired generation
+                throw new IllegalStateException( "No more entry ordinals available in this generation" );
+            }
+
+            int pageNumber = ordinal >>> PAGE_SHIFT;
+            String[][] pages = uuids;
+
+            if ( pageNumber >= pages.length )
+            {
+                String[][] newPages = new String[pages.length * 2][];
+                System.arraycopy( pages, 0, newPages, 0, pages.length );
+                pages = newPages;
+            }
+
+            if ( pages[pageNumber] == null )
+            {
+                pages[pageNumber] = new String[PAGE_SIZE];
+            }
+
+            pages[pageNumber][ordinal & PAGE_MASK] = uuid;
+
+            // Publish the pages, this is a volatile write
+            uuids = pages;
+            nextOrdinal = ordinal + 1;
+
+            return ordinal;
+        }
+    }
+}
@@ -0,0 +1,527 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.xdbm;
+
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * Sorts more elements than can be held in memory : the elements are gathered in a
+ * buffer which, once full, is sorted and written in a temporary file (a run). The
+ * sorted elements are then read by merging all the runs and the last buffer.
+ * <br>
+ * The runs are kept until the sorter is closed, so the sorted elements can be read
+ * more than once. A sorter is not thread safe.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ * @param <T> The type of the sorted elements
+ */
+public class ExternalSorter<T> implements Closeable
+{
+    private static final Logger LOG = LoggerFactory.getLogger( ExternalSorter.class );
+
+    /** The size of the buffers used to read and write the runs */
+    private static final int IO_BUFFER_SIZE = 64 * 1024;
+
+    /** The type of a String value */
+    private static final byte STRING_VALUE = 0;
+
+    /** The type of a binary value */
+    private static final byte BINARY_VALUE = 1;
+
+    /** The name of the sorter, used in the name of the runs */
+    private final String name;
+
+    /** The comparator sorting the elements */
+    private final Comparator<T> comparator;
+
+    /** The serializer used to write and read the runs */
+    private final ElementSerializer<T> serializer;
+
+    /** The maximum number of elements held in memory */
+    private final int bufferSize;
+
+    /** The directory where the runs are stored */
+    private final File tmpDir;
+
+    /** The elements not written in a run */
+    private List<T> buffer = new ArrayList<T>();
+
+    /** Tells if the buffer is sorted */
+    private boolean bufferSorted;
+
+    /** The runs */
+    private final List<File> runs = new ArrayList<File>();
+
+    /** The number of added elements */
+    private long size;
+
+
+    /**
+     * Writes and reads the sorted elements in the runs.
+     *
+     * @param <T> The type of the elements
+     */
+    public interface ElementSerializer<T>
+    {
+        /**
+         * Writes an element
+         *
+         * @param out The run being written
+         * @param element The element
+         * @throws IOException If the element can't be written
+         */
+        void write( DataOutput out, T element ) throws IOException;
+
+
+        /**
+         * Reads an element
+         *
+         * @param in The run being read
+         * @return The element
+         * @throws IOException If the element can't be read
+         */
+        T read( DataInput in ) throws IOException;
+    }
+
+
+    /**
+     * Creates a new instance of ExternalSorter.
+     *
+     * @param name The name of the sorter
+     * @param comparator The comparator sorting the elements
+     * @param serializer The serializer used to write the runs
+     * @param bufferSize The maximum number of elements held in memory
+     * @param tmpDir The directory where the runs are stored
+     */
+    public ExternalSorter( String name, Comparator<T> comparator, ElementSerializer<T> serializer, int bufferSize,
+        File tmpDir )
+    {
+        this.name = name;
+        this.comparator = comparator;
+        this.serializer = serializer;
+        this.bufferSize = bufferSize;
+        this.tmpDir = tmpDir;
+    }
+
+
+    /**
+     * Adds an element. The buffer is sorted and written in a run if it is full.
+     *
+     * @param element The element
+     * @throws IOException If the run can't be written
+     */
+    public void add( T element ) throws IOException
+    {
+        buffer.add( element );
+        bufferSorted = false;
+        size++;
+
+        if ( buffer.size() >= bufferSize )
+        {
+            spill();
+        }
+    }
+
+
+    /**
+     * @return The number of added elements
+     */
+    public long size()
+    {
+        return size;
+    }
+
+
+    /**
+     * @return The number of runs written so far
+     */
+    public int getNbRuns()
+    {
+        return runs.size();
+    }
+
+
+    private void spill() throws IOException
+    {
+        Collections.sort( buffer, comparator );
+
+        File run = File.createTempFile( "sort-" + name + "-", ".run", tmpDir );
+        runs.add( run );
+
+        try ( DataOutputStream out = new DataOutputStream( new BufferedOutputStream( new FileOutputStream( run ),
+            IO_BUFFER_SIZE ) ) )
+        {
+            out.writeInt( buffer.size() );
+
+            for ( T element : buffer )
+            {
+                serializer.write( out, element );
+            }
+        }
+
+        LOG.debug( "Sorter {} : {} elements written in {}", name, buffer.size(), run );
+
+        buffer = new ArrayList<T>();
+    }
+
+
+    /**
+     * Gets the added elements, in sorted order. The runs are read while iterating,
+     * a failure to read them being thrown as a RuntimeException.
+     *
+     * @return An iterator on the sorted elements
+     * @throws IOException If the runs can't be opened
+     */
+    public Iterator<T> iterator() throws IOException
+    {
+        if ( !bufferSorted )
+        {
+            Collections.sort( buffer, comparator );
+            bufferSorted = true;
+        }
+
+        if ( runs.isEmpty() )
+        {
+            return Collections.unmodifiableList( buffer ).iterator();
+        }
+
+        List<Iterator<T>> sources = new ArrayList<Iterator<T>>( runs.size() + 1 );
+
+        try
+        {
+            for ( File run : runs )
+            {
+                sources.add( new RunIterator( run ) );
+            }
+        }
+        catch ( IOException ioe )
+        {
+            for ( Iterator<T> source : sources )
+            {
+                ( ( RunIterator ) source ).close();
+            }
+
+            throw ioe;
+        }
+
+        if ( !buffer.isEmpty() )
+        {
+            sources.add( Collections.unmodifiableList( buffer ).iterator() );
+        }
+
+        return new MergeIterator( sources );
+    }
+
+
+    /**
+     * Deletes the runs
+     */
+    @Override
+    public void close()
+    {
+        for ( File run : runs )
+        {
+            if ( !run.delete() )
+            {
+                LOG.warn( "Cannot delete the sorted run {}", run );
+            }
+        }
+
+        runs.clear();
+        buffer = new ArrayList<T>();
+    }
+
+
+    /**
+     * Reads the elements of a run
+     */
+    private class RunIterator implements Iterator<T>
+    {
+        private final DataInputStream in;
+        private int remaining;
+
+
+        private RunIterator( File run ) throws IOException
+        {
+            in = new DataInputStream( new BufferedInputStream( new FileInputStream( run ), IO_BUFFER_SIZE ) );
+            remaining = in.readInt();
+        }
+
+
+        @Override
+        public boolean hasNext()
+        {
+            return remaining > 0;
+        }
+
+
+        @Override
+        public T next()
+        {
+            if ( remaining == 0 )
+            {
+                throw new NoSuchElementException();
+            }
+
+            try
+            {
+                T element = serializer.read( in );
+                remaining--;
+
+                if ( remaining == 0 )
+                {
+                    close();
+                }
+
+                return element;
+            }
+            catch ( IOException ioe )
+            {
+                close();
+                throw new RuntimeException( ioe );
+            }
+        }
+
+
+        private void close()
+        {
+            remaining = 0;
+
+            try
+            {
+                in.close();
+            }
+            catch ( IOException ioe )
+            {
+                LOG.warn( "Cannot close a sorted run", ioe );
+            }
+        }
+
+
+        @Override
+        public void remove()
+        {
+            throw new UnsupportedOperationException( "Not supported" );
+        }
+    }
+
+
+    /**
+     * The next element of a sorted source
+     */
+    private class Head
+    {
+        private T element;
+        private final Iterator<T> source;
+
+
+        private Head( Iterator<T> source )
+        {
+            this.source = source;
+            element = source.next();
+        }
+    }
+
+
+    /**
+     * Merges sorted sources
+     */
+    private class MergeIterator implements Iterator<T>
+    {
+        private final PriorityQueue<Head> heads;
+
+
+        private MergeIterator( List<Iterator<T>> sources )
+        {
+            heads = new PriorityQueue<Head>( sources.size(), new Comparator<Head>()
+            {
+                @Override
+                public int compare( Head head0, Head head1 )
+                {
+                    return comparator.compare( head0.element, head1.element );
+                }
+            } );
+
+            for ( Iterator<T> source : sources )
+            {
+                if ( source.hasNext() )
+                {
+                    heads.add( new Head( source ) );
+                }
+            }
+        }
+
+
+        @Override
+        public boolean hasNext()
+        {
+            return !heads.isEmpty();
+        }
+
+
+        @Override
+        public T next()
+        {
+            Head head = heads.poll();
+
+            if ( head == null )
+            {
+                throw new NoSuchElementException();
+            }
+
+            T element = head.element;
+
+            if ( head.source.hasNext() )
+            {
+                head.element = head.source.next();
+                heads.add( head );
+            }
+
+            return element;
+        }
+
+
+        @Override
+        public void remove()
+        {
+            throw new UnsupportedOperationException( "Not supported" );
+        }
+    }
+
+
+    /**
+     * Writes a String, which may be longer than what {@link DataOutput#writeUTF(String)} accepts
+     *
+     * @param out The output
+     * @param value The String, may be null
+     * @throws IOException If the String can't be written
+     */
+    public static void writeString( DataOutput out, String value ) throws IOException
+    {
+        if ( value == null )
+        {
+            out.writeInt( -1 );
+
+            return;
+        }
+
+        byte[] bytes = value.getBytes( StandardCharsets.UTF_8 );
+        out.writeInt( bytes.length );
+        out.write( bytes );
+    }
+
+
+    /**
+     * Reads a String written by {@link #writeString(DataOutput, String)}
+     *
+     * @param in The input
+     * @return The String, may be null
+     * @throws IOException If the String can't be read
+     */
+    public static String readString( DataInput in ) throws IOException
+    {
+        int length = in.readInt();
+
+        if ( length < 0 )
+        {
+            return null;
+        }
+
+        byte[] bytes = new byte[length];
+        in.readFully( bytes );
+
+        return new String( bytes, StandardCharsets.UTF_8 );
+    }
+
+
+    /**
+     * Writes a normalized value, either a String or a byte[]
+     *
+     * @param out The output
+     * @param value The value
+     * @throws IOException If the value can't be written
+     */
+    public static void writeValue( DataOutput out, Object value ) throws IOException
+    {
+        if ( value instanceof byte[] )
+        {
+            byte[] bytes = ( byte[] ) value;
+            out.writeByte( BINARY_VALUE );
+            out.writeInt( bytes.length );
+            out.write( bytes );
+        }
+        else
+        {
+            out.writeByte( STRING_VALUE );
+            writeString( out, ( String ) value );
+        }
+    }
+
+
+    /**
+     * Reads a normalized value written by {@link #writeValue(DataOutput, Object)}
+     *
+     * @param in The input
+     * @return The value, either a String or a byte[]
+     * @throws IOException If the value can't be read
+     */
+    public static Object readValue( DataInput in ) throws IOException
+    {
+        byte type = in.readByte();
+
+        switch ( type )
+        {
+            case STRING_VALUE:
+                return readString( in );
+
+            case BINARY_VALUE:
+                byte[] bytes = new byte[in.readInt()];
+                in.readFully( bytes );
+
+                return bytes;
+
+            default:
+                throw new IOException( "Unexpected value type " + type );
+        }
+    }
+}
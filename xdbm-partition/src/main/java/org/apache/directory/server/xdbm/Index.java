@@ -345,4 +345,35 @@ public interface Index<K, E>
      * @return true if the index has a reverse table
      */
     boolean hasReverse();
+
+
+    /**
+     * Tells if the index also stores the n-grams of the values (see {@link NGrams}),
+     * used to find the candidates of the substring filters
+     *
+     * @return true if the index has a n-gram table
+     */
+    boolean hasNGrams();
+
+
+    /**
+     * Gets the number of entries having a value containing a n-gram
+     *
+     * @param partitionTxn The transaction to use
+     * @param nGram The n-gram
+     * @return The number of entries, 0 if the index has no n-gram table
+     * @throws LdapException If the count can't be computed
+     */
+    long nGramCount( PartitionTxn partitionTxn, String nGram ) throws LdapException;
+
+
+    /**
+     * Gets a cursor on the IDs of the entries having a value containing a n-gram
+     *
+     * @param partitionTxn The transaction to use
+     * @param nGram The n-gram
+     * @return The cursor, empty if the index has no n-gram table
+     * @throws LdapException If the cursor can't be created
+     */
+    Cursor<E> nGramValueCursor( PartitionTxn partitionTxn, String nGram ) throws LdapException;
 }
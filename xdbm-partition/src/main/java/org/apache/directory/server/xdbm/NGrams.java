@@ -0,0 +1,133 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.xdbm;
+
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.api.ldap.model.filter.SubstringNode;
+import org.apache.directory.api.ldap.model.schema.Normalizer;
+import org.apache.directory.api.ldap.model.schema.PrepareString;
+
+
+/**
+ * Computes the n-grams (trigrams) used to index the values of an attribute for the
+ * substring filters. A normalized value is split on spaces, and each word produces all its
+ * 3 characters long substrings : the n-grams never contain a space, so they don't depend on
+ * the way the insignificant spaces are handled when the values and the substring assertions
+ * are normalized.
+ * <br>
+ * Every n-gram of a substring assertion component is a n-gram of the values it matches, so
+ * the entries having all of them are a superset of the matching entries, which still have to
+ * be checked against the assertion.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public final class NGrams
+{
+    /** The n-grams length */
+    public static final int SIZE = 3;
+
+
+    private NGrams()
+    {
+    }
+
+
+    /**
+     * Computes the n-grams of a normalized value
+     *
+     * @param normalized The normalized value
+     * @return The value's n-grams. May be empty if the value has no word long enough
+     */
+    public static Set<String> getNGrams( String normalized )
+    {
+        Set<String> nGrams = new HashSet<>();
+        addNGrams( normalized, nGrams );
+
+        return nGrams;
+    }
+
+
+    /**
+     * Computes the n-grams an entry must have to match a substring assertion
+     *
+     * @param node The substring assertion
+     * @param normalizer The normalizer used to normalize the assertion components
+     * @return The assertion n-grams. May be empty if no component has a word long enough
+     * @throws LdapException If a component can't be normalized
+     */
+    public static Set<String> getNGrams( SubstringNode node, Normalizer normalizer ) throws LdapException
+    {
+        Set<String> nGrams = new HashSet<>();
+
+        if ( node.getInitial() != null )
+        {
+            addNGrams( normalizer.normalize( node.getInitial(), PrepareString.AssertionType.SUBSTRING_INITIAL ),
+                nGrams );
+        }
+
+        if ( node.getAny() != null )
+        {
+            for ( String any : node.getAny() )
+            {
+                addNGrams( normalizer.normalize( any, PrepareString.AssertionType.SUBSTRING_ANY ), nGrams );
+            }
+        }
+
+        if ( node.getFinal() != null )
+        {
+            addNGrams( normalizer.normalize( node.getFinal(), PrepareString.AssertionType.SUBSTRING_FINAL ),
+                nGrams );
+        }
+
+        return nGrams;
+    }
+
+
+    /**
+     * Adds the n-grams of each word of a normalized string
+     */
+    private static void addNGrams( String normalized, Set<String> nGrams )
+    {
+        if ( normalized == null )
+        {
+            return;
+        }
+
+        int length = normalized.length();
+        int wordStart = 0;
+
+        for ( int i = 0; i <= length; i++ )
+        {
+            if ( ( i == length ) || ( normalized.charAt( i ) == ' ' ) )
+            {
+                for ( int start = wordStart; start + SIZE <= i; start++ )
+                {
+                    nGrams.add( normalized.substring( start, start + SIZE ) );
+                }
+
+                wordStart = i + 1;
+            }
+        }
+    }
+}
@@ -30,8 +30,6 @@ import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.locks.ReadWriteLock;
 
-import net.sf.ehcache.Cache;
-
 import org.apache.directory.api.ldap.model.constants.SchemaConstants;
 import org.apache.directory.api.ldap.model.entry.Entry;
 import org.apache.directory.api.ldap.model.entry.Modification;
@@ -40,6 +38,7 @@ import org.apache.directory.api.ldap.model.name.Dn;
 import org.apache.directory.api.ldap.model.name.Rdn;
 import org.apache.directory.api.ldap.model.schema.AttributeType;
 import org.apache.directory.server.constants.ApacheSchemaConstants;
+import org.apache.directory.server.core.api.cache.DirectoryCache;
 import org.apache.directory.server.core.api.interceptor.context.ModDnAva;
 import org.apache.directory.server.core.api.partition.PartitionTxn;
 
@@ -475,6 +474,14 @@ public interface Store
     MasterTable getMasterTable();
 
 
+    /**
+     * Expose the mapping between the entries UUID and the dense ordinals used
+     * by the search engine to store the candidates
+     * @return The EntryOrdinalMap instance
+     */
+    EntryOrdinalMap getEntryOrdinalMap();
+
+
     /**
      * @return The ReadWrite lock used to protect the server against concurrent read and writes
      */
@@ -485,5 +492,5 @@ public interface Store
      * @return the Alias cache
      * @return The cache
      */
-    Cache getAliasCache();
+    DirectoryCache<String, Dn> getAliasCache();
 }
@@ -23,6 +23,7 @@ package org.apache.directory.server.xdbm.impl.avl;
 import java.io.IOException;
 import java.net.URI;
 
+import org.apache.directory.api.ldap.model.constants.SchemaConstants;
 import org.apache.directory.api.ldap.model.cursor.Cursor;
 import org.apache.directory.api.ldap.model.cursor.CursorException;
 import org.apache.directory.api.ldap.model.cursor.EmptyCursor;
@@ -40,6 +41,7 @@ import org.apache.directory.server.core.partition.impl.btree.IndexCursorAdaptor;
 import org.apache.directory.server.i18n.I18n;
 import org.apache.directory.server.xdbm.AbstractIndex;
 import org.apache.directory.server.xdbm.IndexEntry;
+import org.apache.directory.server.xdbm.Table;
 
 
 /**
@@ -121,6 +123,18 @@ public class AvlIndex<K> extends AbstractIndex<K, String>
                 reverse = new AvlTable<>( attributeType.getName(), UuidComparator.INSTANCE, comp, true );
             }
         }
+
+        /*
+         * The n-gram map stores the n-grams of the attribute values, compared as is, to
+         * the master table primary keys of the entries having them.
+         */
+        if ( withNGrams && attributeType.getSyntax().isHumanReadable() )
+        {
+            LdapComparator<String> nGramComp = ( LdapComparator<String> ) schemaManager
+                .lookupComparatorRegistry( SchemaConstants.CASE_EXACT_MATCH_MR_OID );
+
+            nGrams = new AvlTable<>( attributeType.getName(), nGramComp, UuidComparator.INSTANCE, true );
+        }
     }
 
 
@@ -132,6 +146,18 @@ public class AvlIndex<K> extends AbstractIndex<K, String>
         {
             reverse.put( partitionTxn, id, attrVal );
         }
+
+        addNGrams( partitionTxn, attrVal, id );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected Table<String, K> getReverseTable()
+    {
+        return reverse;
     }
 
 
@@ -150,6 +176,11 @@ public class AvlIndex<K> extends AbstractIndex<K, String>
         {
             reverse.close( partitionTxn );
         }
+
+        if ( nGrams != null )
+        {
+            nGrams.close( partitionTxn );
+        }
     }
 
 
@@ -178,6 +209,8 @@ public class AvlIndex<K> extends AbstractIndex<K, String>
     {
         if ( withReverse )
         {
+            dropNGrams( partitionTxn, id );
+
             if ( isDupsEnabled() )
             {
                 Cursor<Tuple<String, K>> cursor = reverse.cursor( partitionTxn, id );
@@ -220,6 +253,8 @@ public class AvlIndex<K> extends AbstractIndex<K, String>
         {
             reverse.remove( partitionTxn, id, attrVal );
         }
+
+        dropNGrams( partitionTxn, attrVal, id );
     }
 
 
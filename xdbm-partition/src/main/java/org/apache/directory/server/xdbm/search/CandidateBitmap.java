@@ -0,0 +1,750 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.xdbm.search;
+
+
+import java.util.Arrays;
+
+
+/**
+ * A compressed bitmap of non negative integers, using the same layout as a Roaring
+ * bitmap : the 16 high bits of each value select a container, which stores the 16 low
+ * bits either as a sorted array of chars (when there are less than 4096 values) or as a
+ * plain 65536 bits bitmap (when the container is dense).
+ * <br>
+ * This class is not thread safe.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class CandidateBitmap
+{
+    /** The maximum number of values stored in an array container */
+    private static final int ARRAY_MAX_SIZE = 4096;
+
+    /** The sorted high 16 bits of the stored values */
+    private char[] keys = new char[4];
+
+    /** The containers, one per key */
+    private Container[] containers = new Container[4];
+
+    /** The number of used containers */
+    private int size;
+
+    /** The number of values stored in this bitmap */
+    private int cardinality;
+
+
+    /**
+     * Creates a new empty bitmap
+     */
+    public CandidateBitmap()
+    {
+    }
+
+
+    /**
+     * Adds a value in the bitmap
+     *
+     * @param value The value to add. It must be positive.
+     * @return <code>true</code> if the value was not already present
+     */
+    public boolean add( int value )
+    {
+        if ( value < 0 )
+        {
+            throw new IllegalArgumentException( "Negative value " + value );
+        }
+
+        char high = ( char ) ( value >>> 16 );
+        char low = ( char ) value;
+        int pos = findKey( high );
+
+        if ( pos < 0 )
+        {
+            pos = -pos - 1;
+            insertContainer( pos, high, new ArrayContainer() );
+        }
+
+        Container container = containers[pos];
+
+        if ( container.contains( low ) )
+        {
+            return false;
+        }
+
+        containers[pos] = container.add( low );
+        cardinality++;
+
+        return true;
+    }
+
+
+    /**
+     * Tells if a value is present in the bitmap
+     *
+     * @param value The value we are looking for
+     * @return <code>true</code> if the value is present
+     */
+    public boolean contains( int value )
+    {
+        if ( value < 0 )
+        {
+            return false;
+        }
+
+        int pos = findKey( ( char ) ( value >>> 16 ) );
+
+        return ( pos >= 0 ) && containers[pos].contains( ( char ) value );
+    }
+
+
+    /**
+     * @return The number of values in this bitmap
+     */
+    public int cardinality()
+    {
+        return cardinality;
+    }
+
+
+    /**
+     * @return <code>true</code> if the bitmap contains no value
+     */
+    public boolean isEmpty()
+    {
+        return cardinality == 0;
+    }
+
+
+    /**
+     * Removes all the values from this bitmap
+     */
+    public void clear()
+    {
+        keys = new char[4];
+        containers = new Container[4];
+        size = 0;
+        cardinality = 0;
+    }
+
+
+    /**
+     * Adds all the values contained in another bitmap into this bitmap.
+     *
+     * @param other The bitmap to merge into this one
+     * @return The number of values that were added
+     */
+    public int or( CandidateBitmap other )
+    {
+        int before = cardinality;
+        int pos = 0;
+
+        for ( int i = 0; i < other.size; i++ )
+        {
+            char key = other.keys[i];
+            Container otherContainer = other.containers[i];
+
+            // Move forward in our own keys, they are sorted too
+            while ( ( pos < size ) && ( keys[pos] < key ) )
+            {
+                pos++;
+            }
+
+            if ( ( pos < size ) && ( keys[pos] == key ) )
+            {
+                Container container = containers[pos];
+                int oldCardinality = container.cardinality();
+                containers[pos] = container.or( otherContainer );
+                cardinality += containers[pos].cardinality() - oldCardinality;
+            }
+            else
+            {
+                insertContainer( pos, key, otherContainer.copy() );
+                cardinality += otherContainer.cardinality();
+            }
+
+            pos++;
+        }
+
+        return cardinality - before;
+    }
+
+
+    /**
+     * Keeps only the values that are also present in another bitmap
+     *
+     * @param other The bitmap to intersect with
+     */
+    public void and( CandidateBitmap other )
+    {
+        int newSize = 0;
+        int newCardinality = 0;
+        int otherPos = 0;
+
+        for ( int i = 0; i < size; i++ )
+        {
+            char key = keys[i];
+
+            while ( ( otherPos < other.size ) && ( other.keys[otherPos] < key ) )
+            {
+                otherPos++;
+            }
+
+            if ( ( otherPos < other.size ) && ( other.keys[otherPos] == key ) )
+            {
+                Container result = containers[i].and( other.containers[otherPos] );
+
+                if ( result.cardinality() > 0 )
+                {
+                    keys[newSize] = key;
+                    containers[newSize] = result;
+                    newSize++;
+                    newCardinality += result.cardinality();
+                }
+            }
+        }
+
+        Arrays.fill( containers, newSize, size, null );
+        size = newSize;
+        cardinality = newCardinality;
+    }
+
+
+    /**
+     * Gets the smallest value in this bitmap which is greater than or equal to a given value
+     *
+     * @param from The lower bound
+     * @return The found value, or -1 if there is none
+     */
+    public int nextValue( int from )
+    {
+        if ( from < 0 )
+        {
+            from = 0;
+        }
+
+        char high = ( char ) ( from >>> 16 );
+        int pos = findKey( high );
+        int low = from & 0xFFFF;
+
+        if ( pos < 0 )
+        {
+            pos = -pos - 1;
+            low = 0;
+        }
+
+        while ( pos < size )
+        {
+            int found = containers[pos].nextValue( low );
+
+            if ( found >= 0 )
+            {
+                return ( keys[pos] << 16 ) | found;
+            }
+
+            pos++;
+            low = 0;
+        }
+
+        return -1;
+    }
+
+
+    /**
+     * Gets the greatest value in this bitmap which is lower than or equal to a given value
+     *
+     * @param from The upper bound
+     * @return The found value, or -1 if there is none
+     */
+    public int previousValue( int from )
+    {
+        if ( from < 0 )
+        {
+            return -1;
+        }
+
+        char high = ( char ) ( from >>> 16 );
+        int pos = findKey( high );
+        int low = from & 0xFFFF;
+
+        if ( pos < 0 )
+        {
+            pos = -pos - 2;
+            low = 0xFFFF;
+        }
+
+        while ( pos >= 0 )
+        {
+            int found = containers[pos].previousValue( low );
+
+            if ( found >= 0 )
+            {
+                return ( keys[pos] << 16 ) | found;
+            }
+
+            pos--;
+            low = 0xFFFF;
+        }
+
+        return -1;
+    }
+
+
+    /**
+     * Search for a key in the sorted keys array
+     */
+    private int findKey( char key )
+    {
+        // Fast path for the sequential appends
+        if ( ( size > 0 ) && ( keys[size - 1] == key ) )
+        {
+            return size - 1;
+        }
+
+        return Arrays.binarySearch( keys, 0, size, key );
+    }
+
+
+    /**
+     * Inserts a container at a given position
+     */
+    private void insertContainer( int pos, char key, Container container )
+    {
+        if ( size == keys.length )
+        {
+            keys = Arrays.copyOf( keys, size * 2 );
+            containers = Arrays.copyOf( containers, size * 2 );
+        }
+
+        System.arraycopy( keys, pos, keys, pos + 1, size - pos );
+        System.arraycopy( containers, pos, containers, pos + 1, size - pos );
+        keys[pos] = key;
+        containers[pos] = container;
+        size++;
+    }
+
+
+    /**
+     * @see Object#toString()
+     */
+    @Override
+    public String toString()
+    {
+        StringBuilder sb = new StringBuilder();
+
+        sb.append( "CandidateBitmap[" ).append( cardinality ).append( " values in " );
+        sb.append( size ).append( " containers]" );
+
+        return sb.toString();
+    }
+
+
+    /**
+     * The container for the 16 low bits of the values sharing the same 16 high bits
+     */
+    private abstract static class Container
+    {
+        abstract boolean contains( char value );
+
+
+        abstract Container add( char value );
+
+
+        abstract int cardinality();
+
+
+        abstract Container or( Container other );
+
+
+        abstract Container and( Container other );
+
+
+        abstract int nextValue( int from );
+
+
+        abstract int previousValue( int from );
+
+
+        abstract Container copy();
+    }
+
+
+    /**
+     * A container storing its values in a sorted array, used for sparse containers
+     */
+    private static final class ArrayContainer extends Container
+    {
+        private char[] values;
+        private int count;
+
+
+        ArrayContainer()
+        {
+            values = new char[4];
+        }
+
+
+        ArrayContainer( char[] values, int count )
+        {
+            this.values = values;
+            this.count = count;
+        }
+
+
+        @Override
+        boolean contains( char value )
+        {
+            return Arrays.binarySearch( values, 0, count, value ) >= 0;
+        }
+
+
+        @Override
+        Container add( char value )
+        {
+            if ( count == ARRAY_MAX_SIZE )
+            {
+                return toBitmap().add( value );
+            }
+
+            int pos;
+
+            // Fast path for the sequential appends
+            if ( ( count == 0 ) || ( values[count - 1] < value ) )
+            {
+                pos = count;
+            }
+            else
+            {
+                pos = -Arrays.binarySearch( values, 0, count, value ) - 1;
+            }
+
+            if ( count == values.length )
+            {
+                values = Arrays.copyOf( values, Math.min( count * 2, ARRAY_MAX_SIZE ) );
+            }
+
+            System.arraycopy( values, pos, values, pos + 1, count - pos );
+            values[pos] = value;
+            count++;
+
+            return this;
+        }
+
+
+        @Override
+        int cardinality()
+        {
+            return count;
+        }
+
+
+        @Override
+        Container or( Container other )
+        {
+            if ( other instanceof BitmapContainer )
+            {
+                return other.copy().or( this );
+            }
+
+            ArrayContainer otherArray = ( ArrayContainer ) other;
+            char[] merged = new char[count + otherArray.count];
+            int i = 0;
+            int j = 0;
+            int k = 0;
+
+            while ( ( i < count ) && ( j < otherArray.count ) )
+            {
+                char a = values[i];
+                char b = otherArray.values[j];
+
+                if ( a < b )
+                {
+                    merged[k++] = a;
+                    i++;
+                }
+                else if ( a > b )
+                {
+                    merged[k++] = b;
+                    j++;
+                }
+                else
+                {
+                    merged[k++] = a;
+                    i++;
+                    j++;
+                }
+            }
+
+            while ( i < count )
+            {
+                merged[k++] = values[i++];
+            }
+
+            while ( j < otherArray.count )
+            {
+                merged[k++] = otherArray.values[j++];
+            }
+
+            if ( k > ARRAY_MAX_SIZE )
+            {
+                return new ArrayContainer( merged, k ).toBitmap();
+            }
+
+            return new ArrayContainer( merged, k );
+        }
+
+
+        @Override
+        Container and( Container other )
+        {
+            char[] result = new char[count];
+            int k = 0;
+
+            for ( int i = 0; i < count; i++ )
+            {
+                if ( other.contains( values[i] ) )
+                {
+                    result[k++] = values[i];
+                }
+            }
+
+            return new ArrayContainer( result, k );
+        }
+
+
+        @Override
+        int nextValue( int from )
+        {
+            int pos = Arrays.binarySearch( values, 0, count, ( char ) from );
+
+            if ( pos < 0 )
+            {
+                pos = -pos - 1;
+            }
+
+            return pos < count ? values[pos] : -1;
+        }
+
+
+        @Override
+        int previousValue( int from )
+        {
+            int pos = Arrays.binarySearch( values, 0, count, ( char ) from );
+
+            if ( pos < 0 )
+            {
+                pos = -pos - 2;
+            }
+
+            return pos >= 0 ? values[pos] : -1;
+        }
+
+
+        @Override
+        Container copy()
+        {
+            return new ArrayContainer( Arrays.copyOf( values, count ), count );
+        }
+
+
+        private BitmapContainer toBitmap()
+        {
+            BitmapContainer bitmap = new BitmapContainer();
+
+            for ( int i = 0; i < count; i++ )
+            {
+                bitmap.add( values[i] );
+            }
+
+            return bitmap;
+        }
+    }
+
+
+    /**
+     * A container storing its values in a 65536 bits bitmap, used for dense containers
+     */
+    private static final class BitmapContainer extends Container
+    {
+        private final long[] words = new long[1024];
+        private int count;
+
+
+        @Override
+        boolean contains( char value )
+        {
+            return ( words[value >>> 6] & ( 1L << value ) ) != 0;
+        }
+
+
+        @Override
+        Container add( char value )
+        {
+            long word = words[value >>> 6];
+            long newWord = word | ( 1L << value );
+
+            if ( word != newWord )
+            {
+                words[value >>> 6] = newWord;
+                count++;
+            }
+
+            return this;
+        }
+
+
+        @Override
+        int cardinality()
+        {
+            return count;
+        }
+
+
+        @Override
+        Container or( Container other )
+        {
+            if ( other instanceof BitmapContainer )
+            {
+                long[] otherWords = ( ( BitmapContainer ) other ).words;
+                int newCount = 0;
+
+                for ( int i = 0; i < words.length; i++ )
+                {
+                    words[i] |= otherWords[i];
+                    newCount += Long.bitCount( words[i] );
+                }
+
+                count = newCount;
+            }
+            else
+            {
+                ArrayContainer array = ( ArrayContainer ) other;
+
+                for ( int i = 0; i < array.count; i++ )
+                {
+                    add( array.values[i] );
+                }
+            }
+
+            return this;
+        }
+
+
+        @Override
+        Container and( Container other )
+        {
+            if ( other instanceof ArrayContainer )
+            {
+                return other.and( this );
+            }
+
+            long[] otherWords = ( ( BitmapContainer ) other ).words;
+            BitmapContainer result = new BitmapContainer();
+
+            for ( int i = 0; i < words.length; i++ )
+            {
+                result.words[i] = words[i] & otherWords[i];
+                result.count += Long.bitCount( result.words[i] );
+            }
+
+            if ( result.count > ARRAY_MAX_SIZE )
+            {
+                return result;
+            }
+
+            // Sparse result, convert it back to an array container
+            char[] values = new char[result.count];
+            int k = 0;
+
+            for ( int value = result.nextValue( 0 ); value >= 0; value = result.nextValue( value + 1 ) )
+            {
+                values[k++] = ( char ) value;
+            }
+
+            return new ArrayContainer( values, k );
+        }
+
+
+        @Override
+        int nextValue( int from )
+        {
+            if ( from > 0xFFFF )
+            {
+                return -1;
+            }
+
+            int wordPos = from >>> 6;
+            long word = words[wordPos] & ( -1L << from );
+
+            while ( true )
+            {
+                if ( word != 0 )
+                {
+                    return ( wordPos << 6 ) + Long.numberOfTrailingZeros( word );
+                }
+
+                wordPos++;
+
+                if ( wordPos == words.length )
+                {
+                    return -1;
+                }
+
+                word = words[wordPos];
+            }
+        }
+
+
+        @Override
+        int previousValue( int from )
+        {
+            int wordPos = from >>> 6;
+            long word = words[wordPos] & ( -1L >>> ( 63 - ( from & 63 ) ) );
+
+            while ( true )
+            {
+                if ( word != 0 )
+                {
+                    return ( wordPos << 6 ) + 63 - Long.numberOfLeadingZeros( word );
+                }
+
+                wordPos--;
+
+                if ( wordPos < 0 )
+                {
+                    return -1;
+                }
+
+                word = words[wordPos];
+            }
+        }
+
+
+        @Override
+        Container copy()
+        {
+            BitmapContainer copy = new BitmapContainer();
+            System.arraycopy( words, 0, copy.words, 0, words.length );
+            copy.count = count;
+
+            return copy;
+        }
+    }
+}
@@ -0,0 +1,267 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.xdbm.search;
+
+
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import org.apache.directory.server.xdbm.EntryOrdinalMap;
+
+
+/**
+ * A set of candidate entry UUIDs, stored as a compressed bitmap of the entries
+ * ordinals. The UUIDs are only materialized when the set is iterated, which is done
+ * when the candidates are fetched from the MasterTable.
+ * <br>
+ * This class is not thread safe.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class CandidateSet extends AbstractSet<String>
+{
+    /** The UUID/ordinal mapping generation the ordinals come from */
+    private final EntryOrdinalMap.Generation ordinalMap;
+
+    /** The candidates ordinals */
+    private final CandidateBitmap bitmap;
+
+
+    /**
+     * Creates an empty CandidateSet
+     *
+     * @param ordinalMap The partition UUID/ordinal mapping
+     */
+    public CandidateSet( EntryOrdinalMap ordinalMap )
+    {
+        this( ordinalMap.getGeneration() );
+    }
+
+
+    private CandidateSet( EntryOrdinalMap.Generation ordinalMap )
+    {
+        this.ordinalMap = ordinalMap;
+        this.bitmap = new CandidateBitmap();
+    }
+
+
+    /**
+     * Creates a new empty CandidateSet sharing the same UUID/ordinal mapping
+     *
+     * @return The new CandidateSet
+     */
+    public CandidateSet newCandidateSet()
+    {
+        return new CandidateSet( ordinalMap );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean add( String uuid )
+    {
+        return bitmap.add( ordinalMap.getOrdinal( uuid ) );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean contains( Object uuid )
+    {
+        if ( !( uuid instanceof String ) )
+        {
+            return false;
+        }
+
+        return bitmap.contains( ordinalMap.lookupOrdinal( ( String ) uuid ) );
+    }
+
+
+    /**
+     * Adds all the candidates of another CandidateSet to this set.
+     *
+     * @param other The CandidateSet to merge
+     * @return The number of added candidates
+     */
+    public int or( CandidateSet other )
+    {
+        return bitmap.or( other.bitmap );
+    }
+
+
+    /**
+     * Retains only the candidates that are also present in another CandidateSet.
+     *
+     * @param other The CandidateSet to intersect with
+     */
+    public void and( CandidateSet other )
+    {
+        bitmap.and( other.bitmap );
+    }
+
+
+    /**
+     * Counts the candidates which entry has not been removed since they were added.
+     * This walks the whole set, use {@link #cardinality()} for an estimate.
+     *
+     * @return The number of candidates
+     */
+    @Override
+    public int size()
+    {
+        int size = 0;
+
+        for ( int ordinal = bitmap.nextValue( 0 ); ordinal >= 0; ordinal = bitmap.nextValue( ordinal + 1 ) )
+        {
+            if ( ordinalMap.getUuid( ordinal ) != null )
+            {
+                size++;
+            }
+        }
+
+        return size;
+    }
+
+
+    /**
+     * Gets the number of stored ordinals, including those which entry has been removed
+     * since they were added. This is an upper bound of {@link #size()}, computed in
+     * constant time.
+     *
+     * @return The number of stored ordinals
+     */
+    public int cardinality()
+    {
+        return bitmap.cardinality();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isEmpty()
+    {
+        return bitmap.isEmpty() || !iterator().hasNext();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void clear()
+    {
+        bitmap.clear();
+    }
+
+
+    /**
+     * Gets the first candidate ordinal which is greater than or equal to a given ordinal
+     *
+     * @param from The lower bound
+     * @return The found ordinal, or -1
+     */
+    public int nextOrdinal( int from )
+    {
+        return bitmap.nextValue( from );
+    }
+
+
+    /**
+     * Gets the last candidate ordinal which is lower than or equal to a given ordinal
+     *
+     * @param from The upper bound
+     * @return The found ordinal, or -1
+     */
+    public int previousOrdinal( int from )
+    {
+        return bitmap.previousValue( from );
+    }
+
+
+    /**
+     * Gets the UUID associated with an ordinal
+     *
+     * @param ordinal The ordinal
+     * @return The UUID, or <code>null</code> if the entry has been deleted since the set was built
+     */
+    public String getUuid( int ordinal )
+    {
+        return ordinalMap.getUuid( ordinal );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Iterator<String> iterator()
+    {
+        return new Iterator<String>()
+        {
+            private String next = fetch( 0 );
+            private int ordinal;
+
+
+            private String fetch( int from )
+            {
+                for ( ordinal = bitmap.nextValue( from ); ordinal >= 0; ordinal = bitmap.nextValue( ordinal + 1 ) )
+                {
+                    String uuid = ordinalMap.getUuid( ordinal );
+
+                    if ( uuid != null )
+                    {
+                        return uuid;
+                    }
+                }
+
+                return null;
+            }
+
+
+            @Override
+            public boolean hasNext()
+            {
+                return next != null;
+            }
+
+
+            @Override
+            public String next()
+            {
+                if ( next == null )
+                {
+                    throw new NoSuchElementException();
+                }
+
+                String current = next;
+                next = fetch( ordinal + 1 );
+
+                return current;
+            }
+        };
+    }
+}
@@ -22,6 +22,7 @@ package org.apache.directory.server.xdbm.search;
 
 import java.util.Set;
 
+import org.apache.directory.api.ldap.model.cursor.Cursor;
 import org.apache.directory.api.ldap.model.cursor.SetCursor;
 import org.apache.directory.api.ldap.model.filter.ExprNode;
 import org.apache.directory.api.ldap.model.message.AliasDerefMode;
@@ -32,7 +33,7 @@ import org.apache.directory.server.xdbm.IndexEntry;
 /**
  * A class containing the result of a search :
  * <ul>
- * <li>A set of candidate UUIDs</li>
+ * <li>A set of candidate UUIDs, stored as a compressed bitmap</li>
  * <li>A set of aliased entry if we have any</li>
  * <li>A flag telling if we are dereferencing aliases or not</li>
  * <li>A hierarchy of evaluators to use to validate the candidates</li>
@@ -41,11 +42,11 @@ import org.apache.directory.server.xdbm.IndexEntry;
  */
 public class PartitionSearchResult
 {
-    /** The set of candidate UUIDs selected by the search */
-    private SetCursor<IndexEntry<String, String>> resultSet;
+    /** The cursor over the candidate UUIDs selected by the search */
+    private Cursor<IndexEntry<String, String>> resultSet;
 
     /** The set of candidate UUIDs */
-    private Set<String> candidateSet;
+    private CandidateSet candidateSet;
 
     /** The flag indicating if we are dereferencing the aliases. Default to Never. */
     private AliasDerefMode aliasDerefMode = AliasDerefMode.NEVER_DEREF_ALIASES;
@@ -71,7 +72,7 @@ public class PartitionSearchResult
     /**
      * @return the resultSet
      */
-    public SetCursor<IndexEntry<String, String>> getResultSet()
+    public Cursor<IndexEntry<String, String>> getResultSet()
     {
         return resultSet;
     }
@@ -86,10 +87,19 @@ public class PartitionSearchResult
     }
 
 
+    /**
+     * @param cursor the cursor over the result to set
+     */
+    public void setResultSet( Cursor<IndexEntry<String, String>> cursor )
+    {
+        resultSet = cursor;
+    }
+
+
     /**
      * @return the candidateSet
      */
-    public Set<String> getCandidateSet()
+    public CandidateSet getCandidateSet()
     {
         return candidateSet;
     }
@@ -98,7 +108,7 @@ public class PartitionSearchResult
     /**
      * @param set the candidateSet to set
      */
-    public void setCandidateSet( Set<String> set )
+    public void setCandidateSet( CandidateSet set )
     {
         candidateSet = set;
     }
@@ -0,0 +1,307 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.xdbm.search.cursor;
+
+
+import java.io.IOException;
+
+import org.apache.directory.api.ldap.model.constants.Loggers;
+import org.apache.directory.api.ldap.model.cursor.CursorException;
+import org.apache.directory.api.ldap.model.cursor.InvalidCursorPositionException;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.server.core.api.partition.PartitionTxn;
+import org.apache.directory.server.i18n.I18n;
+import org.apache.directory.server.xdbm.AbstractIndexCursor;
+import org.apache.directory.server.xdbm.IndexEntry;
+import org.apache.directory.server.xdbm.search.CandidateSet;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * A Cursor over a {@link CandidateSet}. The IndexEntry instances are created
+ * on the fly, when the cursor is moved, so that we never hold all of them in memory.
+ * The candidates which have been deleted since the set was computed are skipped.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class CandidateCursor extends AbstractIndexCursor<String>
+{
+    /** A dedicated log for cursors */
+    private static final Logger LOG_CURSOR = LoggerFactory.getLogger( Loggers.CURSOR_LOG.getName() );
+
+    /** Speedup for logs */
+    private static final boolean IS_DEBUG = LOG_CURSOR.isDebugEnabled();
+
+    /** The candidates to iterate on */
+    private final CandidateSet candidates;
+
+    /** The current ordinal. -1 means before the first element */
+    private int ordinal = -1;
+
+    /** Tells if we are positioned after the last element */
+    private boolean afterLast;
+
+    /** The current element */
+    private IndexEntry<String, String> current;
+
+
+    /**
+     * Creates a new instance of CandidateCursor
+     *
+     * @param partitionTxn The transaction to use
+     * @param candidates The set of candidates to iterate on
+     */
+    public CandidateCursor( PartitionTxn partitionTxn, CandidateSet candidates )
+    {
+        if ( IS_DEBUG )
+        {
+            LOG_CURSOR.debug( "Creating CandidateCursor {}", this );
+        }
+
+        this.partitionTxn = partitionTxn;
+        this.candidates = candidates;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    protected String getUnsupportedMessage()
+    {
+        return UNSUPPORTED_MSG;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void beforeFirst() throws LdapException, CursorException
+    {
+        checkNotClosed();
+        ordinal = -1;
+        afterLast = false;
+        current = null;
+        setAvailable( false );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void afterLast() throws LdapException, CursorException
+    {
+        checkNotClosed();
+        ordinal = -1;
+        afterLast = true;
+        current = null;
+        setAvailable( false );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean first() throws LdapException, CursorException
+    {
+        beforeFirst();
+
+        return next();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean last() throws LdapException, CursorException
+    {
+        afterLast();
+
+        return previous();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean next() throws LdapException, CursorException
+    {
+        checkNotClosed();
+
+        if ( afterLast )
+        {
+            return false;
+        }
+
+        for ( int next = candidates.nextOrdinal( ordinal + 1 ); next >= 0; next = candidates.nextOrdinal( next + 1 ) )
+        {
+            if ( select( next ) )
+            {
+                return setAvailable( true );
+            }
+        }
+
+        ordinal = -1;
+        afterLast = true;
+        current = null;
+
+        return setAvailable( false );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean previous() throws LdapException, CursorException
+    {
+        checkNotClosed();
+
+        if ( !afterLast && ( ordinal < 0 ) )
+        {
+            // Before first
+            return false;
+        }
+
+        int from = afterLast ? Integer.MAX_VALUE : ordinal - 1;
+        afterLast = false;
+
+        for ( int previous = candidates.previousOrdinal( from ); previous >= 0; previous = candidates.previousOrdinal( previous - 1 ) )
+        {
+            if ( select( previous ) )
+            {
+                return setAvailable( true );
+            }
+        }
+
+        ordinal = -1;
+        current = null;
+
+        return setAvailable( false );
+    }
+
+
+    /**
+     * Creates the IndexEntry for the given ordinal, if the associated entry still exists
+     */
+    private boolean select( int candidate )
+    {
+        String uuid = candidates.getUuid( candidate );
+
+        if ( uuid == null )
+        {
+            // The entry has been deleted
+            return false;
+        }
+
+        ordinal = candidate;
+        current = new IndexEntry<>();
+        current.setKey( uuid );
+        current.setId( uuid );
+
+        return true;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public IndexEntry<String, String> get() throws CursorException
+    {
+        checkNotClosed();
+
+        if ( available() )
+        {
+            return current;
+        }
+
+        throw new InvalidCursorPositionException( I18n.err( I18n.ERR_708 ) );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void close() throws IOException
+    {
+        if ( IS_DEBUG )
+        {
+            LOG_CURSOR.debug( "Closing CandidateCursor {}", this );
+        }
+
+        super.close();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void close( Exception cause ) throws IOException
+    {
+        if ( IS_DEBUG )
+        {
+            LOG_CURSOR.debug( "Closing CandidateCursor {}", this );
+        }
+
+        super.close( cause );
+    }
+
+
+    /**
+     * @see Object#toString()
+     */
+    @Override
+    public String toString( String tabs )
+    {
+        StringBuilder sb = new StringBuilder();
+
+        sb.append( tabs ).append( "CandidateCursor (" );
+
+        if ( available() )
+        {
+            sb.append( "available)" );
+        }
+        else
+        {
+            sb.append( "absent)" );
+        }
+
+        sb.append( " : " ).append( candidates.cardinality() ).append( " candidates\n" );
+
+        return sb.toString();
+    }
+
+
+    /**
+     * @see Object#toString()
+     */
+    public String toString()
+    {
+        return toString( "" );
+    }
+}
@@ -31,6 +31,7 @@ import org.apache.directory.api.ldap.model.filter.ApproximateNode;
 import org.apache.directory.api.ldap.model.schema.AttributeType;
 import org.apache.directory.api.ldap.model.schema.MatchingRule;
 import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.server.core.api.entry.ServerEntryUtils;
 import org.apache.directory.server.core.api.partition.PartitionTxn;
 import org.apache.directory.server.i18n.I18n;
 import org.apache.directory.server.xdbm.Index;
@@ -107,7 +108,7 @@ public class ApproximateEvaluator<T> extends LeafEvaluator<T>
     public boolean evaluate( Entry entry ) throws LdapException
     {
         // get the attribute
-        Attribute attr = entry.get( attributeType );
+        Attribute attr = ServerEntryUtils.getReadOnlyAttribute( entry, attributeType );
 
         // if the attribute does not exist just return false
         if ( ( attr != null ) && evaluate( attr ) )
@@ -129,7 +130,7 @@ public class ApproximateEvaluator<T> extends LeafEvaluator<T>
             {
                 AttributeType descendant = descendants.next();
 
-                attr = entry.get( descendant );
+                attr = ServerEntryUtils.getReadOnlyAttribute( entry, descendant );
 
                 if ( attr != null && evaluate( attr ) )
                 {
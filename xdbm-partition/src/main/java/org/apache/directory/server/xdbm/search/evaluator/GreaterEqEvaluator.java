@@ -31,6 +31,7 @@ import org.apache.directory.api.ldap.model.filter.GreaterEqNode;
 import org.apache.directory.api.ldap.model.schema.AttributeType;
 import org.apache.directory.api.ldap.model.schema.MatchingRule;
 import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.server.core.api.entry.ServerEntryUtils;
 import org.apache.directory.server.core.api.partition.PartitionTxn;
 import org.apache.directory.server.i18n.I18n;
 import org.apache.directory.server.xdbm.Index;
@@ -141,7 +142,7 @@ public class GreaterEqEvaluator<T> extends LeafEvaluator<T>
          */
 
         // get the attribute
-        Attribute attr = entry.get( attributeType );
+        Attribute attr = ServerEntryUtils.getReadOnlyAttribute( entry, attributeType );
 
         // if the attribute exists and has a greater than or equal value return true
         //noinspection unchecked
@@ -164,7 +165,7 @@ public class GreaterEqEvaluator<T> extends LeafEvaluator<T>
             {
                 AttributeType descendant = descendants.next();
 
-                attr = entry.get( descendant );
+                attr = ServerEntryUtils.getReadOnlyAttribute( entry, descendant );
 
                 //noinspection unchecked
                 if ( attr != null && evaluate( ( IndexEntry<Object, String> ) indexEntry, attr ) )
@@ -186,7 +187,7 @@ public class GreaterEqEvaluator<T> extends LeafEvaluator<T>
     public boolean evaluate( Entry entry ) throws LdapException
     {
         // get the attribute
-        Attribute attr = entry.get( attributeType );
+        Attribute attr = ServerEntryUtils.getReadOnlyAttribute( entry, attributeType );
 
         // if the attribute exists and has a greater than or equal value return true
         if ( ( attr != null ) && evaluate( null, attr ) )
@@ -208,7 +209,7 @@ public class GreaterEqEvaluator<T> extends LeafEvaluator<T>
             {
                 AttributeType descendant = descendants.next();
 
-                attr = entry.get( descendant );
+                attr = ServerEntryUtils.getReadOnlyAttribute( entry, descendant );
 
                 if ( ( attr != null ) && evaluate( null, attr ) )
                 {
@@ -32,6 +32,7 @@ import org.apache.directory.api.ldap.model.schema.AttributeType;
 import org.apache.directory.api.ldap.model.schema.LdapComparator;
 import org.apache.directory.api.ldap.model.schema.MatchingRule;
 import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.server.core.api.entry.ServerEntryUtils;
 import org.apache.directory.server.core.api.partition.PartitionTxn;
 import org.apache.directory.server.i18n.I18n;
 import org.apache.directory.server.xdbm.Index;
@@ -134,7 +135,7 @@ public class LessEqEvaluator<T> extends LeafEvaluator<T>
         }
 
         // get the attribute
-        Attribute attr = entry.get( attributeType );
+        Attribute attr = ServerEntryUtils.getReadOnlyAttribute( entry, attributeType );
 
         // if the attribute does not exist just return false
         //noinspection unchecked
@@ -157,7 +158,7 @@ public class LessEqEvaluator<T> extends LeafEvaluator<T>
             {
                 AttributeType descendant = descendants.next();
 
-                attr = entry.get( descendant );
+                attr = ServerEntryUtils.getReadOnlyAttribute( entry, descendant );
 
                 //noinspection unchecked
                 if ( attr != null && evaluate( ( IndexEntry<Object, String> ) indexEntry, attr ) )
@@ -179,7 +180,7 @@ public class LessEqEvaluator<T> extends LeafEvaluator<T>
     public boolean evaluate( Entry entry ) throws LdapException
     {
         // get the attribute
-        Attribute attr = entry.get( attributeType );
+        Attribute attr = ServerEntryUtils.getReadOnlyAttribute( entry, attributeType );
 
         // if the attribute does not exist just return false
         if ( ( attr != null ) && evaluate( null, attr ) )
@@ -201,7 +202,7 @@ public class LessEqEvaluator<T> extends LeafEvaluator<T>
             {
                 AttributeType descendant = descendants.next();
 
-                attr = entry.get( descendant );
+                attr = ServerEntryUtils.getReadOnlyAttribute( entry, descendant );
 
                 if ( attr != null && evaluate( null, attr ) )
                 {
@@ -29,6 +29,7 @@ import org.apache.directory.api.ldap.model.exception.LdapException;
 import org.apache.directory.api.ldap.model.filter.PresenceNode;
 import org.apache.directory.api.ldap.model.schema.AttributeType;
 import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.server.core.api.entry.ServerEntryUtils;
 import org.apache.directory.server.core.api.partition.PartitionTxn;
 import org.apache.directory.server.xdbm.IndexEntry;
 import org.apache.directory.server.xdbm.Store;
@@ -139,7 +140,7 @@ public class PresenceEvaluator implements Evaluator<PresenceNode>
         }
 
         // get the attribute
-        Attribute attr = entry.get( attributeType );
+        Attribute attr = ServerEntryUtils.getReadOnlyAttribute( entry, attributeType );
 
         // if the attribute exists just return true
         if ( attr != null )
@@ -161,7 +162,7 @@ public class PresenceEvaluator implements Evaluator<PresenceNode>
             {
                 AttributeType descendant = descendants.next();
 
-                attr = entry.get( descendant );
+                attr = ServerEntryUtils.getReadOnlyAttribute( entry, descendant );
 
                 if ( attr != null )
                 {
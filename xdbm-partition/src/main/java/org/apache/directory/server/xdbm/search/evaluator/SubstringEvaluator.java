@@ -33,6 +33,7 @@ import org.apache.directory.api.ldap.model.schema.MatchingRule;
 import org.apache.directory.api.ldap.model.schema.Normalizer;
 import org.apache.directory.api.ldap.model.schema.SchemaManager;
 import org.apache.directory.api.ldap.model.schema.normalizers.NoOpNormalizer;
+import org.apache.directory.server.core.api.entry.ServerEntryUtils;
 import org.apache.directory.server.core.api.partition.PartitionTxn;
 import org.apache.directory.server.xdbm.IndexEntry;
 import org.apache.directory.server.xdbm.Store;
@@ -141,7 +142,7 @@ public class SubstringEvaluator implements Evaluator<SubstringNode>
          */
 
         // get the attribute
-        Attribute attr = entry.get( attributeType );
+        Attribute attr = ServerEntryUtils.getReadOnlyAttribute( entry, attributeType );
 
         // if the attribute exists and the pattern matches return true
         if ( attr != null )
@@ -206,7 +207,7 @@ public class SubstringEvaluator implements Evaluator<SubstringNode>
             {
                 AttributeType descendant = descendants.next();
 
-                attr = entry.get( descendant );
+                attr = ServerEntryUtils.getReadOnlyAttribute( entry, descendant );
 
                 if ( null != attr )
                 {
@@ -246,7 +247,7 @@ public class SubstringEvaluator implements Evaluator<SubstringNode>
     public boolean evaluate( Entry entry ) throws LdapException
     {
         // get the attribute
-        Attribute attr = entry.get( attributeType );
+        Attribute attr = ServerEntryUtils.getReadOnlyAttribute( entry, attributeType );
 
         // if the attribute exists and the pattern matches return true
         if ( attr != null )
@@ -285,7 +286,7 @@ public class SubstringEvaluator implements Evaluator<SubstringNode>
             {
                 AttributeType descendant = descendants.next();
 
-                attr = entry.get( descendant );
+                attr = ServerEntryUtils.getReadOnlyAttribute( entry, descendant );
 
                 if ( null != attr )
                 {
@@ -20,13 +20,10 @@
 package org.apache.directory.server.xdbm.search.evaluator;
 
 
-import net.sf.ehcache.Element;
-
 import org.apache.directory.api.ldap.model.entry.Entry;
 import org.apache.directory.api.ldap.model.exception.LdapException;
 import org.apache.directory.api.ldap.model.filter.ScopeNode;
 import org.apache.directory.api.ldap.model.message.SearchScope;
-import org.apache.directory.api.ldap.model.name.Dn;
 import org.apache.directory.server.core.api.partition.Partition;
 import org.apache.directory.server.core.api.partition.PartitionTxn;
 import org.apache.directory.server.i18n.I18n;
@@ -177,12 +174,8 @@ public class SubtreeScopeEvaluator implements Evaluator<ScopeNode>
          */
         if ( db.getAliasCache() != null )
         {
-            Element element = db.getAliasCache().get( id );
-            
-            if ( ( element != null ) && ( element.getObjectValue() != null ) )
+            if ( db.getAliasCache().get( id ) != null )
             {
-                Dn dn = ( Dn ) element.getObjectValue();
-
                 return false;
             }
         }
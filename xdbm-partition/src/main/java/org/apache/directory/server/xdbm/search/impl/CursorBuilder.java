@@ -21,7 +21,12 @@ package org.apache.directory.server.xdbm.search.impl;
 
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.regex.Pattern;
 
@@ -56,9 +61,11 @@ import org.apache.directory.server.i18n.I18n;
 import org.apache.directory.server.xdbm.Index;
 import org.apache.directory.server.xdbm.IndexEntry;
 import org.apache.directory.server.xdbm.IndexNotFoundException;
+import org.apache.directory.server.xdbm.NGrams;
 import org.apache.directory.server.xdbm.ParentIdAndRdn;
 import org.apache.directory.server.xdbm.SingletonIndexCursor;
 import org.apache.directory.server.xdbm.Store;
+import org.apache.directory.server.xdbm.search.CandidateSet;
 import org.apache.directory.server.xdbm.search.PartitionSearchResult;
 import org.apache.directory.server.xdbm.search.cursor.ApproximateCursor;
 import org.apache.directory.server.xdbm.search.cursor.ChildrenCursor;
@@ -79,6 +86,29 @@ public class CursorBuilder
     /** Evaluator dependency on a EvaluatorBuilder */
     private EvaluatorBuilder evaluatorBuilder;
 
+    /** Tells if the AND nodes intersect the candidates of all their indexed children */
+    private boolean andIntersectionEnabled = true;
+
+    /**
+     * The maximum ratio between a conjunct count and the current number of candidates
+     * for this conjunct to be fully built and intersected. Above this ratio, the conjunct
+     * is checked by probing its index for each remaining candidate, if possible.
+     */
+    private static final long INTERSECTION_BUILD_RATIO = 8L;
+
+    /** A comparator used to sort the annotated nodes by ascending count */
+    private static final Comparator<ExprNode> COUNT_COMPARATOR = new Comparator<ExprNode>()
+    {
+        @Override
+        public int compare( ExprNode node1, ExprNode node2 )
+        {
+            long count1 = ( Long ) node1.get( DefaultOptimizer.COUNT_ANNOTATION );
+            long count2 = ( Long ) node2.get( DefaultOptimizer.COUNT_ANNOTATION );
+
+            return Long.compare( count1, count2 );
+        }
+    };
+
 
     /**
      * Creates an expression tree enumerator.
@@ -93,6 +123,31 @@ public class CursorBuilder
     }
 
 
+    /**
+     * Tells if the AND nodes intersect the candidates of all their indexed children
+     * before any entry is fetched.
+     *
+     * @return <code>true</code> if the intersection mode is enabled
+     */
+    public boolean isAndIntersectionEnabled()
+    {
+        return andIntersectionEnabled;
+    }
+
+
+    /**
+     * Enable or disable the intersection of the AND node indexed children. When disabled,
+     * only the child with the lowest count is used to feed the candidates, the other
+     * children being checked by the Evaluator once the entry has been fetched.
+     *
+     * @param andIntersectionEnabled <code>true</code> to enable the intersection mode
+     */
+    public void setAndIntersectionEnabled( boolean andIntersectionEnabled )
+    {
+        this.andIntersectionEnabled = andIntersectionEnabled;
+    }
+
+
     public <T> long build( PartitionTxn partitionTxn, ExprNode node, PartitionSearchResult searchResult ) throws LdapException
     {
         Object count = node.get( DefaultOptimizer.COUNT_ANNOTATION );
@@ -178,7 +233,7 @@ public class CursorBuilder
                 .build( partitionTxn, node ) );
 
         int nbResults = 0;
-        Set<String> uuidSet = searchResult.getCandidateSet();
+        CandidateSet uuidSet = searchResult.getCandidateSet();
 
         while ( cursor.next() )
         {
@@ -211,7 +266,7 @@ public class CursorBuilder
 
         if ( thisCandidates != null )
         {
-            Set<String> candidates = searchResult.getCandidateSet();
+            CandidateSet candidates = searchResult.getCandidateSet();
 
             for ( String candidate : thisCandidates )
             {
@@ -231,7 +286,7 @@ public class CursorBuilder
             // Get the cursor using the index
             Index<T, String> userIndex = ( Index<T, String> ) db.getIndex( attributeType );
             Cursor<IndexEntry<T, String>> userIdxCursor = userIndex.forwardCursor( partitionTxn, ( T ) value.getNormalized() );
-            Set<String> uuidSet = searchResult.getCandidateSet();
+            CandidateSet uuidSet = searchResult.getCandidateSet();
 
             // And loop on it
             while ( userIdxCursor.next() )
@@ -283,7 +338,7 @@ public class CursorBuilder
             indexEntry.setKey( ( T ) value.getValue() );
 
             userIdxCursor.before( indexEntry );
-            Set<String> uuidSet = searchResult.getCandidateSet();
+            CandidateSet uuidSet = searchResult.getCandidateSet();
 
             // And loop on it
             while ( userIdxCursor.next() )
@@ -335,7 +390,7 @@ public class CursorBuilder
             indexEntry.setKey( ( T ) value.getValue() );
 
             userIdxCursor.after( indexEntry );
-            Set<String> uuidSet = searchResult.getCandidateSet();
+            CandidateSet uuidSet = searchResult.getCandidateSet();
 
             // And loop on it
             while ( userIdxCursor.previous() )
@@ -382,7 +437,7 @@ public class CursorBuilder
                 partitionTxn, attributeType.getOid() );
 
             // Position the index on the element we should start from
-            Set<String> uuidSet = searchResult.getCandidateSet();
+            CandidateSet uuidSet = searchResult.getCandidateSet();
 
             // And loop on it
             while ( presenceCursor.next() )
@@ -429,7 +484,7 @@ public class CursorBuilder
         rdnCursor.before( startingPos );
 
         Cursor<IndexEntry<String, String>> scopeCursor = new ChildrenCursor( partitionTxn, db, node.getBaseId(), rdnCursor );
-        Set<String> candidateSet = searchResult.getCandidateSet();
+        CandidateSet candidateSet = searchResult.getCandidateSet();
 
         // Fetch all the UUIDs if we have an index
         // And loop on it
@@ -525,7 +580,7 @@ public class CursorBuilder
         String parentId = parentIdAndRdn.getParentId();
 
         Cursor<IndexEntry<String, String>> scopeCursor = new DescendantCursor( partitionTxn, db, baseId, parentId, rdnCursor );
-        Set<String> candidateSet = searchResult.getCandidateSet();
+        CandidateSet candidateSet = searchResult.getCandidateSet();
 
         // Fetch all the UUIDs if we have an index
         // And loop on it
@@ -617,26 +672,6 @@ public class CursorBuilder
         if ( db.hasIndexOn( attributeType ) )
         {
             Index<String, String> userIndex = ( Index<String, String> ) db.getIndex( attributeType );
-            Cursor<IndexEntry<String, String>> cursor = userIndex.forwardCursor( partitionTxn );
-
-            // Position the index on the element we should start from
-            IndexEntry<String, String> indexEntry = new IndexEntry<>();
-            String initial = node.getInitial();
-            
-            boolean fullIndexScan = false;
-            
-            if ( initial == null )
-            {
-                fullIndexScan = true;
-                cursor.beforeFirst();
-            }
-            else
-            {
-                indexEntry.setKey( attributeType.getEquality().getNormalizer().normalize( initial, PrepareString.AssertionType.SUBSTRING_INITIAL ) );
-                
-                cursor.before( indexEntry );
-            }
-            
             int nbResults = 0;
 
             MatchingRule rule = attributeType.getSubstring();
@@ -669,12 +704,42 @@ public class CursorBuilder
                 regexp = null;
             }
 
-            Set<String> uuidSet = searchResult.getCandidateSet();
+            CandidateSet uuidSet = searchResult.getCandidateSet();
 
             if ( regexp == null )
             {
                 return nbResults;
             }
+
+            if ( userIndex.hasNGrams() )
+            {
+                Set<String> nGrams = NGrams.getNGrams( node, normalizer );
+
+                if ( !nGrams.isEmpty() )
+                {
+                    return computeNGramSubstring( partitionTxn, userIndex, nGrams, regexp, uuidSet );
+                }
+            }
+
+            Cursor<IndexEntry<String, String>> cursor = userIndex.forwardCursor( partitionTxn );
+
+            // Position the index on the element we should start from
+            IndexEntry<String, String> indexEntry = new IndexEntry<>();
+            String initial = node.getInitial();
+            
+            boolean fullIndexScan = false;
+            
+            if ( initial == null )
+            {
+                fullIndexScan = true;
+                cursor.beforeFirst();
+            }
+            else
+            {
+                indexEntry.setKey( attributeType.getEquality().getNormalizer().normalize( initial, PrepareString.AssertionType.SUBSTRING_INITIAL ) );
+                
+                cursor.before( indexEntry );
+            }
             
             // And loop on it
             while ( cursor.next() )
@@ -720,6 +785,92 @@ public class CursorBuilder
     }
 
 
+    /**
+     * Computes the set of candidates for a Substring filter using the n-grams of the index :
+     * the entries having all the n-grams of the filter are selected, starting with the
+     * n-gram having the fewest entries, and their values are then checked against the filter.
+     */
+    private long computeNGramSubstring( final PartitionTxn partitionTxn, final Index<String, String> userIndex,
+        Set<String> nGrams, Pattern regexp, CandidateSet uuidSet ) throws LdapException, CursorException, IOException
+    {
+        List<String> sortedNGrams = new ArrayList<>( nGrams );
+        final Map<String, Long> counts = new HashMap<>();
+
+        for ( String nGram : sortedNGrams )
+        {
+            counts.put( nGram, userIndex.nGramCount( partitionTxn, nGram ) );
+        }
+
+        Collections.sort( sortedNGrams, new Comparator<String>()
+        {
+            @Override
+            public int compare( String nGram1, String nGram2 )
+            {
+                return counts.get( nGram1 ).compareTo( counts.get( nGram2 ) );
+            }
+        } );
+
+        CandidateSet candidates = null;
+
+        for ( String nGram : sortedNGrams )
+        {
+            if ( counts.get( nGram ) == 0L )
+            {
+                return 0L;
+            }
+
+            CandidateSet nGramCandidates = uuidSet.newCandidateSet();
+            Cursor<String> ids = userIndex.nGramValueCursor( partitionTxn, nGram );
+
+            while ( ids.next() )
+            {
+                nGramCandidates.add( ids.get() );
+            }
+
+            ids.close();
+
+            if ( candidates == null )
+            {
+                candidates = nGramCandidates;
+            }
+            else
+            {
+                candidates.and( nGramCandidates );
+            }
+
+            if ( candidates.isEmpty() )
+            {
+                return 0L;
+            }
+        }
+
+        // Now, check the candidates values
+        int nbResults = 0;
+
+        for ( String uuid : candidates )
+        {
+            Cursor<String> values = userIndex.reverseValueCursor( partitionTxn, uuid );
+
+            while ( values.next() )
+            {
+                if ( regexp.matcher( values.get() ).matches() )
+                {
+                    if ( uuidSet.add( uuid ) )
+                    {
+                        nbResults++;
+                    }
+
+                    break;
+                }
+            }
+
+            values.close();
+        }
+
+        return nbResults;
+    }
+
+
     /**
      * Creates a OrCursor over a disjunction expression branch node.
      *
@@ -821,7 +972,188 @@ public class CursorBuilder
         // Once found we return the number of candidates for this child
         ExprNode minChild = children.get( minIndex );
 
-        return build( partitionTxn, minChild, searchResult );
+        if ( !andIntersectionEnabled || ( minValue == Long.MAX_VALUE ) )
+        {
+            return build( partitionTxn, minChild, searchResult );
+        }
+
+        return computeAndIntersection( partitionTxn, children, searchResult );
+    }
+
+
+    /**
+     * Computes the candidates of a conjunction by intersecting the candidates of all
+     * its indexed children, starting with the smallest one. The children which are not
+     * indexed are left to the Evaluator. A child which count is much bigger than the
+     * number of remaining candidates is not fully read : if it's an equality or a presence
+     * node, we probe its index for each remaining candidate instead, otherwise we let the
+     * Evaluator check it.
+     */
+    private long computeAndIntersection( PartitionTxn partitionTxn, List<ExprNode> children,
+        PartitionSearchResult searchResult ) throws LdapException
+    {
+        // Gather the indexed children, sorted by ascending count
+        List<ExprNode> indexedChildren = new ArrayList<>( children.size() );
+
+        for ( ExprNode child : children )
+        {
+            Object count = child.get( DefaultOptimizer.COUNT_ANNOTATION );
+
+            if ( ( count != null ) && ( ( Long ) count < Long.MAX_VALUE ) )
+            {
+                indexedChildren.add( child );
+            }
+        }
+
+        Collections.sort( indexedChildren, COUNT_COMPARATOR );
+
+        CandidateSet resultSet = searchResult.getCandidateSet();
+        CandidateSet candidates = null;
+        int pos = 0;
+
+        // Build the smallest child which can really produce candidates. Some children
+        // may decide to do a full scan despite their count (ie, a subtree scope on the
+        // context entry)
+        while ( ( candidates == null ) && ( pos < indexedChildren.size() ) )
+        {
+            CandidateSet childCandidates = resultSet.newCandidateSet();
+            long nbResults = buildInto( partitionTxn, indexedChildren.get( pos ), searchResult, childCandidates );
+            pos++;
+
+            if ( nbResults == 0L )
+            {
+                return 0L;
+            }
+
+            if ( nbResults < Long.MAX_VALUE )
+            {
+                candidates = childCandidates;
+            }
+        }
+
+        if ( candidates == null )
+        {
+            return Long.MAX_VALUE;
+        }
+
+        // Now, intersect with the other indexed children
+        for ( ; pos < indexedChildren.size(); pos++ )
+        {
+            if ( candidates.isEmpty() )
+            {
+                return 0L;
+            }
+
+            ExprNode child = indexedChildren.get( pos );
+            long count = ( Long ) child.get( DefaultOptimizer.COUNT_ANNOTATION );
+
+            if ( count <= candidates.cardinality() * INTERSECTION_BUILD_RATIO )
+            {
+                CandidateSet childCandidates = resultSet.newCandidateSet();
+                long nbResults = buildInto( partitionTxn, child, searchResult, childCandidates );
+
+                if ( nbResults < Long.MAX_VALUE )
+                {
+                    candidates.and( childCandidates );
+                }
+            }
+            else
+            {
+                CandidateSet probed = probe( partitionTxn, child, candidates );
+
+                if ( probed != null )
+                {
+                    candidates = probed;
+                }
+            }
+        }
+
+        return resultSet.or( candidates );
+    }
+
+
+    /**
+     * Builds the candidates of a node into a given set, instead of the search result set
+     */
+    private long buildInto( PartitionTxn partitionTxn, ExprNode node, PartitionSearchResult searchResult,
+        CandidateSet target ) throws LdapException
+    {
+        CandidateSet resultSet = searchResult.getCandidateSet();
+        searchResult.setCandidateSet( target );
+
+        try
+        {
+            return build( partitionTxn, node, searchResult );
+        }
+        finally
+        {
+            searchResult.setCandidateSet( resultSet );
+        }
+    }
+
+
+    /**
+     * Keeps the candidates which are selected by an equality or presence node, checking
+     * the node index for each of them. This is a lot cheaper than reading the whole
+     * posting list when the candidates are few and the posting list is big.
+     *
+     * @return The selected candidates, or null if the node can't be checked using an index
+     */
+    @SuppressWarnings("unchecked")
+    private CandidateSet probe( PartitionTxn partitionTxn, ExprNode node, CandidateSet candidates )
+        throws LdapException
+    {
+        Index<Object, String> index;
+        Object key;
+
+        if ( node instanceof EqualityNode )
+        {
+            EqualityNode<?> equalityNode = ( EqualityNode<?> ) node;
+
+            if ( !db.hasIndexOn( equalityNode.getAttributeType() ) )
+            {
+                return null;
+            }
+
+            try
+            {
+                index = ( Index<Object, String> ) db.getIndex( equalityNode.getAttributeType() );
+            }
+            catch ( IndexNotFoundException infe )
+            {
+                throw new LdapOtherException( infe.getMessage(), infe );
+            }
+
+            key = equalityNode.getValue().getNormalized();
+        }
+        else if ( node instanceof PresenceNode )
+        {
+            AttributeType attributeType = ( ( PresenceNode ) node ).getAttributeType();
+
+            if ( !db.hasIndexOn( attributeType ) )
+            {
+                return null;
+            }
+
+            index = ( Index ) db.getPresenceIndex();
+            key = attributeType.getOid();
+        }
+        else
+        {
+            return null;
+        }
+
+        CandidateSet selected = candidates.newCandidateSet();
+
+        for ( String uuid : candidates )
+        {
+            if ( index.forward( partitionTxn, key, uuid ) )
+            {
+                selected.add( uuid );
+            }
+        }
+
+        return selected;
     }
 
 
@@ -21,6 +21,7 @@ package org.apache.directory.server.xdbm.search.impl;
 
 
 import java.io.IOException;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
@@ -45,12 +46,14 @@ import org.apache.directory.api.ldap.model.filter.PresenceNode;
 import org.apache.directory.api.ldap.model.filter.ScopeNode;
 import org.apache.directory.api.ldap.model.filter.SimpleNode;
 import org.apache.directory.api.ldap.model.filter.SubstringNode;
+import org.apache.directory.api.ldap.model.schema.MatchingRule;
 import org.apache.directory.api.util.Strings;
 import org.apache.directory.server.core.api.partition.Partition;
 import org.apache.directory.server.core.api.partition.PartitionTxn;
 import org.apache.directory.server.i18n.I18n;
 import org.apache.directory.server.xdbm.Index;
 import org.apache.directory.server.xdbm.IndexNotFoundException;
+import org.apache.directory.server.xdbm.NGrams;
 import org.apache.directory.server.xdbm.Store;
 import org.apache.directory.server.xdbm.search.Optimizer;
 
@@ -402,10 +405,11 @@ public class DefaultOptimizer implements Optimizer
 
 
     /**
-     * Get a scan count based on a Substring node : we will count the entries that are greater
-     * than ABC where the filter is (attr=ABC*). Any other filter won't be evaluated (for instance,
-     * a filter like (attr=*ABC) will resolve to a full scan atm - we could have created a reverted
-     * index for such a case -, and filters like (attr=*ABC*) also esolve to a full scan).
+     * Get a scan count based on a Substring node : if the index has n-grams, we will count the
+     * entries having the least frequent n-gram of the filter. Otherwise, we will count the entries
+     * that are greater than ABC where the filter is (attr=ABC*). Any other filter won't be evaluated
+     * (for instance, a filter like (attr=*ABC) will resolve to a full scan atm - we could have created
+     * a reverted index for such a case -, and filters like (attr=*ABC*) also esolve to a full scan).
      * 
      * @param node The substring node
      * @return The number of candidates
@@ -417,6 +421,31 @@ public class DefaultOptimizer implements Optimizer
         {
             Index<String, String> idx = ( Index<String, String> ) db.getIndex( node.getAttributeType() );
 
+            if ( idx.hasNGrams() )
+            {
+                MatchingRule rule = node.getAttributeType().getSubstring();
+
+                if ( rule == null )
+                {
+                    rule = node.getAttributeType().getEquality();
+                }
+
+                Set<String> nGrams = ( rule == null ) ? Collections.<String> emptySet()
+                    : NGrams.getNGrams( node, rule.getNormalizer() );
+
+                if ( !nGrams.isEmpty() )
+                {
+                    long count = Long.MAX_VALUE;
+
+                    for ( String nGram : nGrams )
+                    {
+                        count = Math.min( count, idx.nGramCount( partitionTxn, nGram ) );
+                    }
+
+                    return count;
+                }
+            }
+
             String initial = node.getInitial();
 
             if ( Strings.isEmpty( initial ) )
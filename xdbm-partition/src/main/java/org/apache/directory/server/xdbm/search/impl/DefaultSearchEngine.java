@@ -23,8 +23,6 @@ package org.apache.directory.server.xdbm.search.impl;
 import java.util.HashSet;
 import java.util.Set;
 
-import net.sf.ehcache.Element;
-
 import org.apache.directory.api.ldap.model.cursor.Cursor;
 import org.apache.directory.api.ldap.model.cursor.CursorException;
 import org.apache.directory.api.ldap.model.entry.Entry;
@@ -46,10 +44,12 @@ import org.apache.directory.server.core.partition.impl.btree.IndexCursorAdaptor;
 import org.apache.directory.server.i18n.I18n;
 import org.apache.directory.server.xdbm.IndexEntry;
 import org.apache.directory.server.xdbm.Store;
+import org.apache.directory.server.xdbm.search.CandidateSet;
 import org.apache.directory.server.xdbm.search.Evaluator;
 import org.apache.directory.server.xdbm.search.Optimizer;
 import org.apache.directory.server.xdbm.search.PartitionSearchResult;
 import org.apache.directory.server.xdbm.search.SearchEngine;
+import org.apache.directory.server.xdbm.search.cursor.CandidateCursor;
 import org.apache.directory.server.xdbm.search.evaluator.BaseLevelScopeEvaluator;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -157,15 +157,12 @@ public class DefaultSearchEngine implements SearchEngine
 
         if ( db.getAliasCache() != null )
         {
-            Element aliasBaseElement = db.getAliasCache().get( baseId );
-
-            if ( aliasBaseElement != null )
-            {
-                aliasedBase = ( Dn ) ( aliasBaseElement ).getObjectValue();
-            }
+            aliasedBase = db.getAliasCache().get( baseId );
         }
-        else
+
+        if ( aliasedBase == null )
         {
+            // The cache may have evicted the alias : check the index
             aliasedBase = db.getAliasIndex().reverseLookup( partitionTxn, baseId );
         }
 
@@ -252,7 +249,7 @@ public class DefaultSearchEngine implements SearchEngine
         optimizer.annotate( partitionTxn, root );
         Evaluator<? extends ExprNode> evaluator = evaluatorBuilder.build( partitionTxn, root );
 
-        Set<String> uuidSet = new HashSet<>();
+        CandidateSet uuidSet = new CandidateSet( db.getEntryOrdinalMap() );
         searchResult.setAliasDerefMode( aliasDerefMode );
         searchResult.setCandidateSet( uuidSet );
 
@@ -262,12 +259,11 @@ public class DefaultSearchEngine implements SearchEngine
 
         if ( nbResults < Long.MAX_VALUE )
         {
-            for ( String uuid : uuidSet )
-            {
-                IndexEntry<String, String> indexEntry = new IndexEntry<>();
-                indexEntry.setId( uuid );
-                resultSet.add( indexEntry );
-            }
+            // The candidates UUID will be materialized one by one, when they are fetched
+            searchResult.setEvaluator( evaluator );
+            searchResult.setResultSet( new CandidateCursor( partitionTxn, uuidSet ) );
+
+            return searchResult;
         }
         else
         {
@@ -0,0 +1,169 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.xdbm;
+
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+
+/**
+ * Tests for ExternalSorter.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class ExternalSorterTest
+{
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File tmpDir;
+
+    private static final Comparator<Integer> COMPARATOR = new Comparator<Integer>()
+    {
+        @Override
+        public int compare( Integer i0, Integer i1 )
+        {
+            return i0.compareTo( i1 );
+        }
+    };
+
+    private static final ExternalSorter.ElementSerializer<Integer> SERIALIZER = new ExternalSorter.ElementSerializer<Integer>()
+    {
+        @Override
+        public void write( DataOutput out, Integer element ) throws IOException
+        {
+            out.writeInt( element );
+        }
+
+
+        @Override
+        public Integer read( DataInput in ) throws IOException
+        {
+            return in.readInt();
+        }
+    };
+
+
+    @Before
+    public void init() throws Exception
+    {
+        tmpDir = folder.newFolder( "ExternalSorterTest" );
+    }
+
+
+    private List<Integer> toList( Iterator<Integer> itr )
+    {
+        List<Integer> list = new ArrayList<Integer>();
+
+        while ( itr.hasNext() )
+        {
+            list.add( itr.next() );
+        }
+
+        return list;
+    }
+
+
+    @Test
+    public void testInMemory() throws Exception
+    {
+        ExternalSorter<Integer> sorter = new ExternalSorter<Integer>( "test", COMPARATOR, SERIALIZER, 10, tmpDir );
+        sorter.add( 3 );
+        sorter.add( 1 );
+        sorter.add( 2 );
+
+        assertEquals( 0, sorter.getNbRuns() );
+        assertEquals( "[1, 2, 3]", toList( sorter.iterator() ).toString() );
+
+        sorter.close();
+    }
+
+
+    @Test
+    public void testMergeRuns() throws Exception
+    {
+        ExternalSorter<Integer> sorter = new ExternalSorter<Integer>( "test", COMPARATOR, SERIALIZER, 7, tmpDir );
+        List<Integer> expected = new ArrayList<Integer>();
+        Random random = new Random( 42 );
+
+        for ( int i = 0; i < 100; i++ )
+        {
+            int value = random.nextInt( 50 );
+            expected.add( value );
+            sorter.add( value );
+        }
+
+        Collections.sort( expected );
+
+        assertEquals( 100L, sorter.size() );
+        assertEquals( 14, sorter.getNbRuns() );
+        assertEquals( 14, tmpDir.list().length );
+
+        // The sorted elements can be read more than once
+        assertEquals( expected, toList( sorter.iterator() ) );
+        assertEquals( expected, toList( sorter.iterator() ) );
+
+        sorter.close();
+
+        assertEquals( 0, tmpDir.list().length );
+    }
+
+
+    @Test
+    public void testValues() throws Exception
+    {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream( baos );
+
+        ExternalSorter.writeValue( out, "test" );
+        ExternalSorter.writeValue( out, new byte[]
+            { 0x01, 0x02 } );
+        ExternalSorter.writeString( out, null );
+        out.flush();
+
+        DataInputStream in = new DataInputStream( new ByteArrayInputStream( baos.toByteArray() ) );
+
+        assertEquals( "test", ExternalSorter.readValue( in ) );
+        assertArrayEquals( new byte[]
+            { 0x01, 0x02 }, ( byte[] ) ExternalSorter.readValue( in ) );
+        assertEquals( null, ExternalSorter.readString( in ) );
+    }
+}
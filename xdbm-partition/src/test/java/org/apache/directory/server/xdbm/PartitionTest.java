@@ -432,6 +432,43 @@ public class PartitionTest
     }
 
 
+    @Test
+    public void testDeferredUserIndices() throws Exception
+    {
+        PartitionTxn txn = partition.beginReadTransaction();
+
+        partition.deferUserIndices();
+        assertTrue( partition.isUserIndicesDeferred() );
+
+        for ( int i = 1; i <= 2; i++ )
+        {
+            Entry entry = new DefaultEntry( schemaManager, "cn=user" + i + ",ou=Sales,o=Good Times Co.",
+                "objectClass: top",
+                "objectClass: person",
+                "objectClass: uidObject",
+                "cn: user" + i,
+                "sn: user sn",
+                "uid: user" + i );
+
+            StoreUtils.injectEntryInStore( partition, entry, 11 + i );
+        }
+
+        // The entries are added, but not indexed
+        assertEquals( 13, partition.getRdnIndex().count( txn ) );
+        assertEquals( 6, partition.getUserIndex( CN_AT ).count( txn ) );
+        assertEquals( 0, partition.getUserIndex( UID_AT ).count( txn ) );
+
+        partition.buildDeferredUserIndices( 5 );
+
+        assertFalse( partition.isUserIndicesDeferred() );
+        assertEquals( 8, partition.getUserIndex( CN_AT ).count( txn ) );
+        assertEquals( 2, partition.getUserIndex( UID_AT ).count( txn ) );
+        assertEquals( 9, partition.getUserIndex( OU_AT ).count( txn ) );
+        assertEquals( partition.getEntryId( txn, new Dn( schemaManager, "cn=user1,ou=Sales,o=Good Times Co." ) ),
+            partition.getUserIndex( UID_AT ).forwardLookup( txn, "user1" ) );
+    }
+
+
     private Entry verifyParentId( PartitionTxn txn, Dn dn ) throws Exception
     {
         String entryId = partition.getEntryId( txn, dn );
@@ -0,0 +1,206 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.xdbm.search;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.apache.directory.server.xdbm.EntryOrdinalMap;
+import org.junit.Test;
+
+
+/**
+ * Tests the {@link CandidateSet} and {@link CandidateBitmap} classes.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class CandidateSetTest
+{
+    @Test
+    public void testBitmapAddContains()
+    {
+        CandidateBitmap bitmap = new CandidateBitmap();
+
+        assertTrue( bitmap.isEmpty() );
+        assertTrue( bitmap.add( 5 ) );
+        assertFalse( bitmap.add( 5 ) );
+        assertTrue( bitmap.add( 70000 ) );
+        assertTrue( bitmap.add( 1 ) );
+
+        assertEquals( 3, bitmap.cardinality() );
+        assertTrue( bitmap.contains( 1 ) );
+        assertTrue( bitmap.contains( 5 ) );
+        assertTrue( bitmap.contains( 70000 ) );
+        assertFalse( bitmap.contains( 2 ) );
+        assertFalse( bitmap.contains( -1 ) );
+
+        assertEquals( 1, bitmap.nextValue( 0 ) );
+        assertEquals( 5, bitmap.nextValue( 2 ) );
+        assertEquals( 70000, bitmap.nextValue( 6 ) );
+        assertEquals( -1, bitmap.nextValue( 70001 ) );
+        assertEquals( 5, bitmap.previousValue( 69999 ) );
+        assertEquals( -1, bitmap.previousValue( 0 ) );
+    }
+
+
+    @Test
+    public void testBitmapAgainstTreeSet()
+    {
+        Random random = new Random( 42 );
+
+        // Alternate sparse and dense ranges, to exercise both container types
+        for ( int round = 0; round < 10; round++ )
+        {
+            int range = ( round % 2 == 0 ) ? 500000 : 20000;
+            CandidateBitmap bitmap1 = new CandidateBitmap();
+            CandidateBitmap bitmap2 = new CandidateBitmap();
+            TreeSet<Integer> set1 = new TreeSet<>();
+            TreeSet<Integer> set2 = new TreeSet<>();
+
+            for ( int i = 0; i < 20000; i++ )
+            {
+                int value = random.nextInt( range );
+                assertEquals( set1.add( value ), bitmap1.add( value ) );
+
+                value = random.nextInt( range );
+                set2.add( value );
+                bitmap2.add( value );
+            }
+
+            CandidateBitmap union = new CandidateBitmap();
+            union.or( bitmap1 );
+            union.or( bitmap2 );
+            TreeSet<Integer> expectedUnion = new TreeSet<>( set1 );
+            expectedUnion.addAll( set2 );
+            assertSame( expectedUnion, union );
+
+            bitmap1.and( bitmap2 );
+            set1.retainAll( set2 );
+            assertSame( set1, bitmap1 );
+        }
+    }
+
+
+    @Test
+    public void testCandidateSet()
+    {
+        EntryOrdinalMap ordinalMap = new EntryOrdinalMap();
+        CandidateSet candidates = new CandidateSet( ordinalMap );
+        Set<String> expected = new HashSet<>();
+
+        for ( int i = 0; i < 10000; i++ )
+        {
+            String uuid = "uuid-" + i;
+            expected.add( uuid );
+            assertTrue( candidates.add( uuid ) );
+        }
+
+        assertFalse( candidates.add( "uuid-10" ) );
+        assertEquals( 10000, candidates.size() );
+        assertTrue( candidates.contains( "uuid-42" ) );
+        assertFalse( candidates.contains( "uuid-10000" ) );
+        assertEquals( expected, new HashSet<>( candidates ) );
+
+        CandidateSet others = candidates.newCandidateSet();
+        others.add( "uuid-42" );
+        others.add( "uuid-20000" );
+
+        candidates.and( others );
+        assertEquals( 1, candidates.size() );
+        assertTrue( candidates.contains( "uuid-42" ) );
+
+        // A removed entry is not returned anymore
+        ordinalMap.remove( "uuid-42" );
+        assertNull( ordinalMap.getUuid( 42 ) );
+        assertFalse( candidates.iterator().hasNext() );
+        assertEquals( 0, candidates.size() );
+        assertEquals( 1, candidates.cardinality() );
+        assertTrue( candidates.isEmpty() );
+    }
+
+
+    @Test
+    public void testOrdinalsReusedAfterCompaction()
+    {
+        EntryOrdinalMap ordinalMap = new EntryOrdinalMap( 10 );
+        CandidateSet candidates = new CandidateSet( ordinalMap );
+
+        for ( int i = 0; i < 20; i++ )
+        {
+            candidates.add( "uuid-" + i );
+        }
+
+        // Freeing 10 ordinals out of 20 does not compact the mapping
+        for ( int i = 0; i < 10; i++ )
+        {
+            ordinalMap.remove( "uuid-" + i );
+        }
+
+        assertEquals( 10, ordinalMap.size() );
+        assertEquals( 19, ordinalMap.lookupOrdinal( "uuid-19" ) );
+
+        // Freeing an 11th one does : the live entries get new dense ordinals
+        ordinalMap.remove( "uuid-10" );
+
+        assertEquals( 0, ordinalMap.size() );
+        assertEquals( -1, ordinalMap.lookupOrdinal( "uuid-19" ) );
+        assertEquals( 0, ordinalMap.getOrdinal( "uuid-19" ) );
+        assertEquals( 1, ordinalMap.getOrdinal( "uuid-new" ) );
+
+        // The set built before the compaction still resolves its own ordinals
+        assertEquals( 9, candidates.size() );
+        assertTrue( candidates.contains( "uuid-19" ) );
+        assertFalse( candidates.contains( "uuid-new" ) );
+
+        // and still sees the removals done after the compaction
+        ordinalMap.remove( "uuid-19" );
+        assertEquals( 8, candidates.size() );
+        assertFalse( candidates.contains( "uuid-19" ) );
+
+        // A new set uses the new generation
+        CandidateSet newCandidates = new CandidateSet( ordinalMap );
+        assertTrue( newCandidates.add( "uuid-18" ) );
+        assertEquals( 2, newCandidates.nextOrdinal( 0 ) );
+        assertEquals( "uuid-18", newCandidates.getUuid( 2 ) );
+    }
+
+
+    private void assertSame( TreeSet<Integer> expected, CandidateBitmap bitmap )
+    {
+        assertEquals( expected.size(), bitmap.cardinality() );
+        int value = bitmap.nextValue( 0 );
+
+        for ( int expectedValue : expected )
+        {
+            assertEquals( expectedValue, value );
+            value = bitmap.nextValue( value + 1 );
+        }
+
+        assertEquals( -1, value );
+    }
+}
@@ -40,6 +40,7 @@ import org.apache.directory.server.core.partition.impl.btree.EntryCursorAdaptor;
 import org.apache.directory.server.core.partition.impl.btree.IndexCursorAdaptor;
 import org.apache.directory.server.xdbm.IndexEntry;
 import org.apache.directory.server.xdbm.Store;
+import org.apache.directory.server.xdbm.search.CandidateSet;
 import org.apache.directory.server.xdbm.search.Evaluator;
 import org.apache.directory.server.xdbm.search.PartitionSearchResult;
 
@@ -73,7 +74,7 @@ public class AbstractCursorTest
         PartitionSearchResult searchResult = new PartitionSearchResult( schemaManager );
         Set<IndexEntry<String, String>> resultSet = new HashSet<IndexEntry<String, String>>();
 
-        Set<String> uuids = new HashSet<String>();
+        CandidateSet uuids = new CandidateSet( store.getEntryOrdinalMap() );
         searchResult.setCandidateSet( uuids );
 
         long candidates = cursorBuilder.build( partitionTxn, root, searchResult );
@@ -20,6 +20,7 @@
 package org.apache.directory.server.xdbm.search.impl;
 
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
@@ -51,6 +52,8 @@ import org.apache.directory.server.core.api.partition.PartitionTxn;
 import org.apache.directory.server.core.partition.impl.avl.AvlPartition;
 import org.apache.directory.server.xdbm.StoreUtils;
 import org.apache.directory.server.xdbm.impl.avl.AvlIndex;
+import org.apache.directory.server.xdbm.search.CandidateSet;
+import org.apache.directory.server.xdbm.search.PartitionSearchResult;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.BeforeClass;
@@ -298,4 +301,31 @@ public class AndCursorTest extends AbstractCursorTest
         cursor.close();
         assertTrue( cursor.isClosed() );
     }
+
+
+    @Test
+    public void testAndIntersectionOfIndexedChildren() throws Exception
+    {
+        ExprNode exprNode = FilterParser.parse( schemaManager, "(&(ou=Sales)(cn=J*))" );
+        PartitionTxn txn = ( ( Partition ) store ).beginReadTransaction();
+
+        new DefaultOptimizer( store ).annotate( txn, exprNode );
+
+        PartitionSearchResult searchResult = new PartitionSearchResult( schemaManager );
+        CandidateSet candidates = new CandidateSet( store.getEntryOrdinalMap() );
+        searchResult.setCandidateSet( candidates );
+
+        // Both children are indexed : only the entries matching both of them are candidates
+        assertEquals( 2L, cursorBuilder.build( txn, exprNode, searchResult ) );
+        assertEquals( 2, candidates.size() );
+        assertTrue( candidates.contains( Strings.getUUID( 5 ) ) );
+        assertTrue( candidates.contains( Strings.getUUID( 6 ) ) );
+
+        // Without intersection, all the entries matching the smallest child are candidates
+        cursorBuilder.setAndIntersectionEnabled( false );
+        candidates.clear();
+
+        assertEquals( 3L, cursorBuilder.build( txn, exprNode, searchResult ) );
+        assertEquals( 3, candidates.size() );
+    }
 }
@@ -0,0 +1,284 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.xdbm.search.impl;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.HashSet;
+
+import org.apache.directory.api.ldap.model.constants.SchemaConstants;
+import org.apache.directory.api.ldap.model.filter.ExprNode;
+import org.apache.directory.api.ldap.model.filter.FilterParser;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.api.ldap.schema.extractor.SchemaLdifExtractor;
+import org.apache.directory.api.ldap.schema.extractor.impl.DefaultSchemaLdifExtractor;
+import org.apache.directory.api.ldap.schema.loader.LdifSchemaLoader;
+import org.apache.directory.api.ldap.schema.manager.impl.DefaultSchemaManager;
+import org.apache.directory.api.util.FileUtils;
+import org.apache.directory.api.util.Strings;
+import org.apache.directory.api.util.exception.Exceptions;
+import org.apache.directory.server.core.api.CacheService;
+import org.apache.directory.server.core.api.DnFactory;
+import org.apache.directory.server.core.api.partition.Partition;
+import org.apache.directory.server.core.api.partition.PartitionTxn;
+import org.apache.directory.server.core.partition.impl.avl.AvlPartition;
+import org.apache.directory.server.core.shared.DefaultDnFactory;
+import org.apache.directory.server.xdbm.Index;
+import org.apache.directory.server.xdbm.MockPartitionWriteTxn;
+import org.apache.directory.server.xdbm.NGrams;
+import org.apache.directory.server.xdbm.Store;
+import org.apache.directory.server.xdbm.StoreUtils;
+import org.apache.directory.server.xdbm.impl.avl.AvlIndex;
+import org.apache.directory.server.xdbm.search.CandidateSet;
+import org.apache.directory.server.xdbm.search.PartitionSearchResult;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+
+/**
+ * Tests the substring filters evaluation using the n-grams of an index.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class NGramSubstringTest
+{
+    File wkdir;
+    Store store;
+    CursorBuilder cursorBuilder;
+    static SchemaManager schemaManager = null;
+    private static DnFactory dnFactory;
+    private static CacheService cacheService;
+
+
+    @BeforeClass
+    public static void setup() throws Exception
+    {
+        String workingDirectory = System.getProperty( "workingDirectory" );
+
+        if ( workingDirectory == null )
+        {
+            String path = NGramSubstringTest.class.getResource( "" ).getPath();
+            int targetPos = path.indexOf( "target" );
+            workingDirectory = path.substring( 0, targetPos + 6 );
+        }
+
+        File schemaRepository = new File( workingDirectory, "schema" );
+        SchemaLdifExtractor extractor = new DefaultSchemaLdifExtractor( new File( workingDirectory ) );
+        extractor.extractOrCopy( true );
+        LdifSchemaLoader loader = new LdifSchemaLoader( schemaRepository );
+        schemaManager = new DefaultSchemaManager( loader );
+
+        boolean loaded = schemaManager.loadAllEnabled();
+
+        if ( !loaded )
+        {
+            fail( "Schema load failed : " + Exceptions.printErrors( schemaManager.getErrors() ) );
+        }
+
+        loaded = schemaManager.loadWithDeps( loader.getSchema( "collective" ) );
+
+        if ( !loaded )
+        {
+            fail( "Schema load failed : " + Exceptions.printErrors( schemaManager.getErrors() ) );
+        }
+
+        cacheService = new CacheService();
+        cacheService.initialize( null );
+        dnFactory = new DefaultDnFactory( schemaManager, cacheService.getCache( "dnCache" ) );
+    }
+
+
+    @Before
+    public void createStore() throws Exception
+    {
+        // setup the working directory for the store
+        wkdir = File.createTempFile( getClass().getSimpleName(), "db" );
+        wkdir.delete();
+        wkdir = new File( wkdir.getParentFile(), getClass().getSimpleName() );
+        wkdir.mkdirs();
+
+        StoreUtils.createdExtraAttributes( schemaManager );
+
+        // initialize the store
+        store = new AvlPartition( schemaManager, dnFactory );
+        ( ( Partition ) store ).setId( "example" );
+        store.setCacheSize( 10 );
+        store.setPartitionPath( wkdir.toURI() );
+        store.setSyncOnWrite( false );
+
+        AvlIndex<String> cnIndex = new AvlIndex<>( SchemaConstants.CN_AT_OID );
+        cnIndex.setNGramsEnabled( true );
+        store.addIndex( cnIndex );
+        store.addIndex( new AvlIndex<String>( SchemaConstants.OU_AT_OID ) );
+
+        ( ( Partition ) store ).setSuffixDn( new Dn( schemaManager, "o=Good Times Co." ) );
+        ( ( Partition ) store ).setCacheService( cacheService );
+        ( ( Partition ) store ).initialize();
+
+        StoreUtils.loadExampleData( store, schemaManager );
+
+        cursorBuilder = new CursorBuilder( store, new EvaluatorBuilder( store, schemaManager ) );
+    }
+
+
+    @After
+    public void destroyStore() throws Exception
+    {
+        if ( store != null )
+        {
+            ( ( Partition ) store ).destroy( null );
+        }
+
+        store = null;
+
+        if ( wkdir != null )
+        {
+            FileUtils.deleteDirectory( wkdir );
+        }
+
+        wkdir = null;
+    }
+
+
+    private CandidateSet search( String filter, long expectedCount ) throws Exception
+    {
+        ExprNode exprNode = FilterParser.parse( schemaManager, filter );
+        PartitionTxn txn = ( ( Partition ) store ).beginReadTransaction();
+
+        new DefaultOptimizer( store ).annotate( txn, exprNode );
+
+        PartitionSearchResult searchResult = new PartitionSearchResult( schemaManager );
+        CandidateSet candidates = new CandidateSet( store.getEntryOrdinalMap() );
+        searchResult.setCandidateSet( candidates );
+
+        assertEquals( expectedCount, cursorBuilder.build( txn, exprNode, searchResult ) );
+
+        return candidates;
+    }
+
+
+    @Test
+    public void testNGrams() throws Exception
+    {
+        assertEquals( new HashSet<String>( Arrays.asList( "jim", "bea", "ean" ) ), NGrams.getNGrams( " jim  bean " ) );
+        assertTrue( NGrams.getNGrams( " jo  ja " ).isEmpty() );
+    }
+
+
+    @Test
+    public void testAny() throws Exception
+    {
+        CandidateSet candidates = search( "(cn=*alke*)", 2L );
+
+        assertEquals( 2, candidates.size() );
+        assertTrue( candidates.contains( Strings.getUUID( 5 ) ) );
+        assertTrue( candidates.contains( Strings.getUUID( 11 ) ) );
+    }
+
+
+    @Test
+    public void testFinal() throws Exception
+    {
+        CandidateSet candidates = search( "(cn=*iels)", 1L );
+
+        assertTrue( candidates.contains( Strings.getUUID( 8 ) ) );
+    }
+
+
+    @Test
+    public void testInitialAndAny() throws Exception
+    {
+        CandidateSet candidates = search( "(cn=jim*ean*)", 3L );
+
+        assertTrue( candidates.contains( Strings.getUUID( 6 ) ) );
+        assertTrue( candidates.contains( Strings.getUUID( 9 ) ) );
+        assertTrue( candidates.contains( Strings.getUUID( 10 ) ) );
+    }
+
+
+    @Test
+    public void testUnknownNGram() throws Exception
+    {
+        search( "(cn=*xyz*)", 0L );
+    }
+
+
+    @Test
+    public void testCandidatesAreChecked() throws Exception
+    {
+        // Jim Bean has both n-grams, but not in this order
+        search( "(cn=*ean*jim*)", 0L );
+    }
+
+
+    @Test
+    public void testShortComponents() throws Exception
+    {
+        // No n-gram in the filter : the whole index is scanned
+        CandidateSet candidates = search( "(cn=*im*)", 3L );
+
+        assertTrue( candidates.contains( Strings.getUUID( 6 ) ) );
+    }
+
+
+    @Test
+    public void testOptimizerCount() throws Exception
+    {
+        ExprNode exprNode = FilterParser.parse( schemaManager, "(cn=*ack*niel*)" );
+        PartitionTxn txn = ( ( Partition ) store ).beginReadTransaction();
+
+        new DefaultOptimizer( store ).annotate( txn, exprNode );
+
+        assertEquals( 1L, exprNode.get( DefaultOptimizer.COUNT_ANNOTATION ) );
+    }
+
+
+    @Test
+    public void testDropValue() throws Exception
+    {
+        Index<String, String> cnIndex = ( Index<String, String> ) store.getUserIndex( schemaManager
+            .getAttributeType( SchemaConstants.CN_AT_OID ) );
+        PartitionTxn txn = new MockPartitionWriteTxn();
+        String id = Strings.getUUID( 6 );
+
+        assertEquals( 3L, cnIndex.nGramCount( txn, "bea" ) );
+
+        // The n-grams shared with another value are kept
+        cnIndex.add( txn, " jimmy ", id );
+        cnIndex.drop( txn, " jim  bean ", id );
+
+        assertEquals( 2L, cnIndex.nGramCount( txn, "bea" ) );
+        assertEquals( 3L, cnIndex.nGramCount( txn, "jim" ) );
+        assertEquals( 1L, cnIndex.nGramCount( txn, "imm" ) );
+
+        cnIndex.drop( txn, id );
+
+        assertEquals( 2L, cnIndex.nGramCount( txn, "jim" ) );
+        assertEquals( 0L, cnIndex.nGramCount( txn, "imm" ) );
+    }
+}